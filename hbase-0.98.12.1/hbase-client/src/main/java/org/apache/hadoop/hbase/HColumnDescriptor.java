@@ -89,6 +89,24 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
    * loads will not count as cache misses.
    */
   public static final String PREFETCH_BLOCKS_ON_OPEN = "PREFETCH_BLOCKS_ON_OPEN";
+  /**
+   * Key for the BLOCKCACHE_PARTITION attribute.
+   * Names the block cache partition the blocks of this family are cached in, overriding the
+   * partition of the table. The shares of the partition are configured on the region server.
+   */
+  public static final String BLOCKCACHE_PARTITION = "BLOCKCACHE_PARTITION";
+  /**
+   * Key for the IS_MOB attribute.
+   * If set, the values of this family at least {@link #MOB_THRESHOLD} long are written to MOB
+   * (medium object) files apart from the store files, which only keep references to them, so
+   * compactions do not rewrite them over and over. Requires HFile format version 3.
+   */
+  public static final String IS_MOB = "IS_MOB";
+  /**
+   * Key for the MOB_THRESHOLD attribute: the least length in bytes of a value stored in MOB
+   * files when {@link #IS_MOB} is set.
+   */
+  public static final String MOB_THRESHOLD = "MOB_THRESHOLD";
 
   /**
    * Size of storefile/hfile 'blocks'.  Default is {@link #DEFAULT_BLOCKSIZE}.
@@ -151,6 +169,16 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
    */
   public static final boolean DEFAULT_IN_MEMORY = false;
 
+  /**
+   * Default setting for whether the large values of the family are stored in MOB files.
+   */
+  public static final boolean DEFAULT_MOB = false;
+
+  /**
+   * Default least length of a value stored in MOB files: 100KB.
+   */
+  public static final long DEFAULT_MOB_THRESHOLD = 100 * 1024;
+
   /**
    * Default setting for preventing deleted from being collected immediately.
    */
@@ -241,6 +269,9 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
       }
       RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(ENCRYPTION)));
       RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(ENCRYPTION_KEY)));
+      RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(BLOCKCACHE_PARTITION)));
+      RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(IS_MOB)));
+      RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(MOB_THRESHOLD)));
   }
 
   private static final int UNINITIALIZED = -1;
@@ -972,6 +1003,61 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     return setValue(PREFETCH_BLOCKS_ON_OPEN, Boolean.toString(value));
   }
 
+  /**
+   * @return the name of the block cache partition of this family, or null if the family
+   * uses the partition of its table
+   */
+  public String getBlockCachePartition() {
+    return getValue(BLOCKCACHE_PARTITION);
+  }
+
+  /**
+   * @param partition name of the block cache partition to cache the blocks of this family in,
+   * null to use the partition of the table
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setBlockCachePartition(String partition) {
+    return setValue(BLOCKCACHE_PARTITION, partition);
+  }
+
+  /**
+   * @return true if the large values of this family are stored in MOB files
+   */
+  public boolean isMobEnabled() {
+    String value = getValue(IS_MOB);
+    if (value != null) {
+      return Boolean.valueOf(value).booleanValue();
+    }
+    return DEFAULT_MOB;
+  }
+
+  /**
+   * @param isMobEnabled true to store the large values of this family in MOB files
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setMobEnabled(boolean isMobEnabled) {
+    return setValue(IS_MOB, Boolean.toString(isMobEnabled));
+  }
+
+  /**
+   * @return the least length in bytes of a value stored in MOB files
+   */
+  public long getMobThreshold() {
+    String value = getValue(MOB_THRESHOLD);
+    if (value != null) {
+      return Long.valueOf(value).longValue();
+    }
+    return DEFAULT_MOB_THRESHOLD;
+  }
+
+  /**
+   * @param threshold the least length in bytes of a value stored in MOB files
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setMobThreshold(long threshold) {
+    return setValue(MOB_THRESHOLD, Long.toString(threshold));
+  }
+
   /**
    * @see java.lang.Object#toString()
    */
@@ -145,6 +145,26 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
   private static final ImmutableBytesWritable MEMSTORE_FLUSHSIZE_KEY =
     new ImmutableBytesWritable(Bytes.toBytes(MEMSTORE_FLUSHSIZE));
 
+  /**
+   * <em>INTERNAL</em> number of copies of each region of the table, the primary included.
+   * Copies other than the primary are read-only replicas.
+   *
+   * @see #getRegionReplication()
+   */
+  public static final String REGION_REPLICATION = "REGION_REPLICATION";
+  private static final ImmutableBytesWritable REGION_REPLICATION_KEY =
+    new ImmutableBytesWritable(Bytes.toBytes(REGION_REPLICATION));
+
+  /**
+   * <em>INTERNAL</em> Used by HBase Shell interface to access this metadata
+   * attribute which names the block cache partition of the table.
+   *
+   * @see #getBlockCachePartition()
+   */
+  public static final String BLOCKCACHE_PARTITION = "BLOCKCACHE_PARTITION";
+  private static final ImmutableBytesWritable BLOCKCACHE_PARTITION_KEY =
+    new ImmutableBytesWritable(Bytes.toBytes(BLOCKCACHE_PARTITION));
+
   /**
    * <em>INTERNAL</em> Used by rest interface to access this metadata
    * attribute which denotes if the table is a -ROOT- region or not
@@ -216,6 +236,11 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
    */
   public static final long DEFAULT_MEMSTORE_FLUSH_SIZE = 1024*1024*128L;
 
+  /**
+   * Constant that denotes the default number of copies of a region, the primary only
+   */
+  public static final int DEFAULT_REGION_REPLICATION = 1;
+
   private final static Map<String, String> DEFAULT_VALUES
     = new HashMap<String, String>();
   private final static Set<ImmutableBytesWritable> RESERVED_KEYWORDS
@@ -229,11 +254,13 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
     DEFAULT_VALUES.put(DEFERRED_LOG_FLUSH,
         String.valueOf(DEFAULT_DEFERRED_LOG_FLUSH));
     DEFAULT_VALUES.put(DURABILITY, DEFAULT_DURABLITY.name()); //use the enum name
+    DEFAULT_VALUES.put(REGION_REPLICATION, String.valueOf(DEFAULT_REGION_REPLICATION));
     for (String s : DEFAULT_VALUES.keySet()) {
       RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(s)));
     }
     RESERVED_KEYWORDS.add(IS_ROOT_KEY);
     RESERVED_KEYWORDS.add(IS_META_KEY);
+    RESERVED_KEYWORDS.add(BLOCKCACHE_PARTITION_KEY);
   }
 
   /**
@@ -785,6 +812,56 @@ public class HTableDescriptor implements WritableComparable<HTableDescriptor> {
     setValue(MEMSTORE_FLUSHSIZE_KEY, Long.toString(memstoreFlushSize));
   }
 
+  /**
+   * Returns the number of copies of each region of this table, the primary included.
+   *
+   * @return the region replication, 1 if the table has no read replicas
+   * @see #setRegionReplication(int)
+   */
+  public int getRegionReplication() {
+    byte [] value = getValue(REGION_REPLICATION_KEY);
+    if (value != null) {
+      return Integer.parseInt(Bytes.toString(value));
+    }
+    return DEFAULT_REGION_REPLICATION;
+  }
+
+  /**
+   * Sets the number of copies of each region of this table. Every copy beyond the first
+   * is a read-only replica hosted on another region server, serving the same store files
+   * as the primary to {@link org.apache.hadoop.hbase.client.Consistency#TIMELINE} reads.
+   *
+   * @param regionReplication the number of copies, at least 1
+   */
+  public void setRegionReplication(int regionReplication) {
+    if (regionReplication < 1) {
+      throw new IllegalArgumentException("Region replication must be at least 1");
+    }
+    setValue(REGION_REPLICATION_KEY, Integer.toString(regionReplication));
+  }
+
+  /**
+   * Returns the name of the block cache partition the blocks of this table are cached in,
+   * unless a family names its own.
+   *
+   * @return the block cache partition, null if the table shares the whole block cache
+   * @see #setBlockCachePartition(String)
+   */
+  public String getBlockCachePartition() {
+    return getValue(BLOCKCACHE_PARTITION);
+  }
+
+  /**
+   * Sets the block cache partition the blocks of this table are cached in. A partition is
+   * guaranteed a minimum share of the block cache and capped at a maximum one, as configured
+   * on the region servers, so that another table cannot evict its whole working set.
+   *
+   * @param partition the name of the partition, null to share the whole block cache
+   */
+  public void setBlockCachePartition(String partition) {
+    setValue(BLOCKCACHE_PARTITION, partition);
+  }
+
   /**
    * Adds a column family.
    * @param family HColumnDescriptor of family to add.
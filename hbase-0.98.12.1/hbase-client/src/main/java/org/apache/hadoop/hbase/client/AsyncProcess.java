@@ -49,6 +49,7 @@ import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.backoff.ServerStatistics;
 import org.apache.hadoop.hbase.client.coprocessor.Batch;
 import org.apache.hadoop.hbase.ipc.RpcControllerFactory;
+import org.apache.hadoop.hbase.quotas.ThrottlingException;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.Pair;
@@ -797,6 +798,8 @@ class AsyncProcess<CResult> {
     // It should be possible to have some heuristics to take the right decision. Short term,
     //  we go for one.
     long backOffTime = errorsByServer.calculateBackoffTime(oldLocation, pause);
+    // Throttled operations are not retried before their quota allows them
+    backOffTime = Math.max(backOffTime, ThrottlingException.getWaitInterval(throwable));
 
     if (numAttempt > startLogErrorsCnt) {
       // We use this value to have some logs when we have multiple failures, but not too many
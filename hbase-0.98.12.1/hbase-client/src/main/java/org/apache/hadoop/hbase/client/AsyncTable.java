@@ -0,0 +1,147 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Non-blocking access to a single HBase table.
+ * Obtain an instance from {@link HConnection#getAsyncTable(TableName)}.
+ * <p>
+ * Every operation returns immediately with a future. Region lookups, retries and client
+ * backoff happen in the background, so a few threads can keep many requests in flight.
+ * The failure of a future is the exception the equivalent {@link HTableInterface} call
+ * would have thrown, e.g. a {@link RetriesExhaustedException} once all retries are used.
+ * <p>
+ * Futures are completed, and {@link ScanResultConsumer}s are called, from rpc client or
+ * retry timer threads. Callbacks must be quick and must never wait on another future of the
+ * same connection; hand heavy or blocking work to an executor of your own.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public interface AsyncTable {
+
+  /**
+   * Gets the fully qualified table name instance of this table.
+   */
+  TableName getName();
+
+  /**
+   * Returns the {@link Configuration} object used by this instance.
+   */
+  Configuration getConfiguration();
+
+  /**
+   * Extracts certain cells from a given row.
+   * @param get The object that specifies what data to fetch and from which row.
+   * @return the data coming from the specified row, an empty {@link Result} if the row
+   * does not exist.
+   */
+  ListenableFuture<Result> get(Get get);
+
+  /**
+   * Puts some data in the table. Unlike {@link HTableInterface#put(Put)} the put is sent
+   * right away; there is no client side write buffer.
+   * @param put The data to put.
+   */
+  ListenableFuture<Void> put(Put put);
+
+  /**
+   * Deletes the specified cells/row.
+   * @param delete The object that specifies what to delete.
+   */
+  ListenableFuture<Void> delete(Delete delete);
+
+  /**
+   * Increments one or more columns within a single row.
+   * @param increment object that specifies the columns and amounts to be used
+   * for the increment operations
+   * @return values of columns after the increment
+   */
+  ListenableFuture<Result> increment(Increment increment);
+
+  /**
+   * Atomically checks if a row/family/qualifier value matches the expected
+   * value. If it does, it adds the put.  If the passed value is null, the check
+   * is for the lack of column (ie: non-existance)
+   * @return true if the new put was executed, false otherwise
+   */
+  ListenableFuture<Boolean> checkAndPut(byte[] row, byte[] family, byte[] qualifier,
+      byte[] value, Put put);
+
+  /**
+   * Method that does a batch call on Deletes, Gets, Puts, Increments and Appends. The
+   * actions are grouped by region and sent as one multi request per region; only the
+   * actions that failed are retried.
+   * @param actions list of Get, Put, Delete, Increment, Append objects
+   * @return the results in the order of the actions: a {@link Result} for every action,
+   * empty for mutations. Fails with a {@link RetriesExhaustedWithDetailsException} if
+   * any action could not be executed.
+   */
+  ListenableFuture<Object[]> batch(List<? extends Row> actions);
+
+  /**
+   * Scans the table, handing the rows region by region to <code>consumer</code>. The
+   * next batch of rows is only fetched once {@link ScanResultConsumer#onNext(Result[])}
+   * returned. Reversed scans are not supported.
+   * @param scan A configured {@link Scan} object.
+   * @param consumer receives the rows and the outcome of the scan
+   */
+  void scan(Scan scan, ScanResultConsumer consumer);
+
+  /**
+   * Scans the table and returns all the rows at once. Only meant for scans known to
+   * return a modest number of rows.
+   * @param scan A configured {@link Scan} object.
+   * @return the rows in scan order
+   */
+  ListenableFuture<List<Result>> scanAll(Scan scan);
+
+  /**
+   * Receives the rows of {@link AsyncTable#scan(Scan, ScanResultConsumer)}. The methods
+   * are never called concurrently for one scan.
+   */
+  @InterfaceAudience.Public
+  @InterfaceStability.Unstable
+  public interface ScanResultConsumer {
+    /**
+     * @param results the next rows of the scan, never empty
+     * @return false to stop the scan; the scanner is then closed and neither
+     * {@link #onComplete()} nor {@link #onError(Throwable)} is called.
+     */
+    boolean onNext(Result[] results);
+
+    /**
+     * Called once if the scan failed. No more rows will be delivered.
+     */
+    void onError(Throwable error);
+
+    /**
+     * Called once after the last rows were delivered.
+     */
+    void onComplete();
+  }
+}
@@ -0,0 +1,1001 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CellScannable;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.UnknownScannerException;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.RetriesExhaustedException.ThrowableWithExtraContext;
+import org.apache.hadoop.hbase.client.backoff.ServerStatistics;
+import org.apache.hadoop.hbase.exceptions.OutOfOrderScannerNextException;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.ipc.PayloadCarryingRpcController;
+import org.apache.hadoop.hbase.ipc.RpcControllerFactory;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.RequestConverter;
+import org.apache.hadoop.hbase.protobuf.ResponseConverter;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ClientService;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.GetResponse;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MultiRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutateResponse;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.RegionAction;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanResponse;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.CompareType;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.RegionSpecifier.RegionSpecifierType;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.Message;
+import com.google.protobuf.RpcCallback;
+
+/**
+ * {@link AsyncTable} implementation on top of an {@link HConnection}.
+ * <p>
+ * Requests go through the non-blocking {@link ClientService.Interface} stubs of the
+ * connection. Locations come from the connection's region cache; on a cache miss the
+ * hbase:meta lookup runs on the connection's batch pool. Retries and client backoff delays
+ * are scheduled on the connection's retry timer rather than slept, following the same
+ * rules as {@link RpcRetryingCaller} and {@link RegionServerCallable}.
+ */
+@InterfaceAudience.Private
+class AsyncTableImpl implements AsyncTable {
+  private static final Log LOG = LogFactory.getLog(AsyncTableImpl.class);
+
+  private final TableName tableName;
+  private final HConnectionManager.HConnectionImplementation connection;
+  private final Configuration conf;
+  private final RpcControllerFactory rpcControllerFactory;
+  private final long pause;
+  private final int numTries;
+  private final int operationTimeout;
+  private final int scannerCaching;
+  private final int maxKeyValueSize;
+  private final boolean cellBlock;
+
+  AsyncTableImpl(final TableName tableName,
+      final HConnectionManager.HConnectionImplementation connection,
+      final TableConfiguration tableConfig, final RpcControllerFactory rpcControllerFactory) {
+    this.tableName = tableName;
+    this.connection = connection;
+    this.conf = connection.getConfiguration();
+    this.rpcControllerFactory = rpcControllerFactory;
+    this.pause = conf.getLong(HConstants.HBASE_CLIENT_PAUSE, HConstants.DEFAULT_HBASE_CLIENT_PAUSE);
+    this.numTries = tableConfig.getRetriesNumber();
+    this.operationTimeout = tableName.isSystemTable() ?
+      tableConfig.getMetaOperationTimeout() : tableConfig.getOperationTimeout();
+    this.scannerCaching = tableConfig.getScannerCaching();
+    this.maxKeyValueSize = tableConfig.getMaxKeyValueSize();
+    String codec = conf.get(HConstants.RPC_CODEC_CONF_KEY, "");
+    this.cellBlock = codec != null && codec.length() > 0;
+  }
+
+  @Override
+  public TableName getName() {
+    return tableName;
+  }
+
+  @Override
+  public Configuration getConfiguration() {
+    return conf;
+  }
+
+  @Override
+  public ListenableFuture<Result> get(final Get get) {
+    return new RegionRequest<GetResponse, Result>(get.getRow()) {
+      @Override
+      void call(ClientService.Interface stub, PayloadCarryingRpcController controller,
+          byte[] regionName, RpcCallback<GetResponse> done) throws IOException {
+        stub.get(controller, RequestConverter.buildGetRequest(regionName, get), done);
+      }
+
+      @Override
+      Result convert(GetResponse response, CellScanner cells) throws IOException {
+        return ProtobufUtil.toResult(response.getResult(), cells);
+      }
+    }.start();
+  }
+
+  @Override
+  public ListenableFuture<Void> put(final Put put) {
+    try {
+      HTable.validatePut(put, maxKeyValueSize);
+    } catch (IllegalArgumentException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+    return new RegionRequest<MutateResponse, Void>(put.getRow()) {
+      @Override
+      void call(ClientService.Interface stub, PayloadCarryingRpcController controller,
+          byte[] regionName, RpcCallback<MutateResponse> done) throws IOException {
+        stub.mutate(controller, RequestConverter.buildMutateRequest(regionName, put), done);
+      }
+
+      @Override
+      Void convert(MutateResponse response, CellScanner cells) {
+        return null;
+      }
+    }.start();
+  }
+
+  @Override
+  public ListenableFuture<Void> delete(final Delete delete) {
+    return new RegionRequest<MutateResponse, Void>(delete.getRow()) {
+      @Override
+      void call(ClientService.Interface stub, PayloadCarryingRpcController controller,
+          byte[] regionName, RpcCallback<MutateResponse> done) throws IOException {
+        stub.mutate(controller, RequestConverter.buildMutateRequest(regionName, delete), done);
+      }
+
+      @Override
+      Void convert(MutateResponse response, CellScanner cells) {
+        return null;
+      }
+    }.start();
+  }
+
+  @Override
+  public ListenableFuture<Result> increment(final Increment increment) {
+    if (!increment.hasFamilies()) {
+      return Futures.immediateFailedFuture(
+        new IOException("Invalid arguments to increment, no columns specified"));
+    }
+    NonceGenerator ng = connection.getNonceGenerator();
+    final long nonceGroup = ng.getNonceGroup(), nonce = ng.newNonce();
+    return new RegionRequest<MutateResponse, Result>(increment.getRow()) {
+      @Override
+      void call(ClientService.Interface stub, PayloadCarryingRpcController controller,
+          byte[] regionName, RpcCallback<MutateResponse> done) throws IOException {
+        stub.mutate(controller,
+          RequestConverter.buildMutateRequest(regionName, increment, nonceGroup, nonce), done);
+      }
+
+      @Override
+      Result convert(MutateResponse response, CellScanner cells) throws IOException {
+        return ProtobufUtil.toResult(response.getResult(), cells);
+      }
+    }.start();
+  }
+
+  @Override
+  public ListenableFuture<Boolean> checkAndPut(final byte[] row, final byte[] family,
+      final byte[] qualifier, final byte[] value, final Put put) {
+    return new RegionRequest<MutateResponse, Boolean>(row) {
+      @Override
+      void call(ClientService.Interface stub, PayloadCarryingRpcController controller,
+          byte[] regionName, RpcCallback<MutateResponse> done) throws IOException {
+        stub.mutate(controller, RequestConverter.buildMutateRequest(regionName, row, family,
+          qualifier, new BinaryComparator(value), CompareType.EQUAL, put), done);
+      }
+
+      @Override
+      Boolean convert(MutateResponse response, CellScanner cells) {
+        return Boolean.valueOf(response.getProcessed());
+      }
+    }.start();
+  }
+
+  @Override
+  public ListenableFuture<Object[]> batch(final List<? extends Row> actions) {
+    if (actions.isEmpty()) {
+      return Futures.immediateFuture(new Object[0]);
+    }
+    NonceGenerator ng = connection.getNonceGenerator();
+    List<Action<Row>> list = new ArrayList<Action<Row>>(actions.size());
+    for (int i = 0; i < actions.size(); i++) {
+      Row row = actions.get(i);
+      if (row instanceof Put) {
+        try {
+          HTable.validatePut((Put) row, maxKeyValueSize);
+        } catch (IllegalArgumentException e) {
+          return Futures.immediateFailedFuture(e);
+        }
+      } else if (!(row instanceof Get || row instanceof Delete || row instanceof Append ||
+          row instanceof Increment)) {
+        return Futures.immediateFailedFuture(
+          new DoNotRetryIOException("Batch doesn't support " + row.getClass().getName()));
+      }
+      Action<Row> action = new Action<Row>(row, i);
+      if (row instanceof Append || row instanceof Increment) {
+        action.setNonce(ng.newNonce());
+      }
+      list.add(action);
+    }
+    BatchRequest request = new BatchRequest(list, ng.getNonceGroup());
+    request.round(list);
+    return request.future;
+  }
+
+  @Override
+  public void scan(final Scan scan, final ScanResultConsumer consumer) {
+    if (scan.isReversed()) {
+      consumer.onError(new DoNotRetryIOException("Reversed scans are not supported"));
+      return;
+    }
+    new AsyncScanner(scan, consumer).next();
+  }
+
+  @Override
+  public ListenableFuture<List<Result>> scanAll(final Scan scan) {
+    final SettableFuture<List<Result>> future = SettableFuture.create();
+    final List<Result> results = new ArrayList<Result>();
+    scan(scan, new ScanResultConsumer() {
+      @Override
+      public boolean onNext(Result[] rows) {
+        results.addAll(Arrays.asList(rows));
+        return true;
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        future.setException(error);
+      }
+
+      @Override
+      public void onComplete() {
+        future.set(results);
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Finds the region of <code>row</code>. Only goes to hbase:meta, on the batch pool, if
+   * the location is not cached.
+   */
+  private ListenableFuture<HRegionLocation> locate(final byte[] row) {
+    if (connection.isClosed()) {
+      return Futures.immediateFailedFuture(
+        new DoNotRetryIOException(connection.toString() + " closed"));
+    }
+    HRegionLocation location = connection.getCachedLocation(tableName, row);
+    if (location != null) {
+      return Futures.immediateFuture(location);
+    }
+    final SettableFuture<HRegionLocation> future = SettableFuture.create();
+    try {
+      connection.getBatchPool().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            HRegionLocation location = connection.locateRegion(tableName, row);
+            if (location == null) {
+              throw new NoServerForRegionException("Unable to find region for " +
+                Bytes.toStringBinary(row) + " in " + tableName);
+            }
+            future.set(location);
+          } catch (Throwable t) {
+            future.setException(t);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.setException(e);
+    }
+    return future;
+  }
+
+  /**
+   * @return how long to wait before sending to <code>location</code>, according to the
+   * client backoff policy and the last load statistics of its server
+   */
+  private long getBackoff(final HRegionLocation location) {
+    ServerStatisticTracker tracker = connection.getStatisticsTracker();
+    if (tracker == null) {
+      return 0;
+    }
+    ServerStatistics stats = tracker.getStats(location.getServerName());
+    return connection.getBackoffPolicy().getBackoffTime(location.getServerName(),
+      location.getRegionInfo().getRegionName(), stats);
+  }
+
+  /**
+   * Same as {@link RegionServerCallable#sleep(long, int)}.
+   */
+  private long getPauseTime(final HRegionLocation location, final int tries) {
+    long sleep = ConnectionUtils.getPauseTime(pause, tries);
+    if (sleep < RegionServerCallable.MIN_WAIT_DEAD_SERVER
+        && (location == null || connection.isDeadServer(location.getServerName()))) {
+      sleep = ConnectionUtils.addJitter(RegionServerCallable.MIN_WAIT_DEAD_SERVER, 0.10f);
+    }
+    return sleep;
+  }
+
+  /**
+   * Same as {@link RegionServerCallable#throwable(Throwable, boolean)}, always retrying.
+   */
+  private void updateCachedLocation(final HRegionLocation location, final byte[] row,
+      final Throwable t) {
+    if (location == null) {
+      return;
+    }
+    if (t instanceof SocketTimeoutException ||
+        t instanceof ConnectException ||
+        t instanceof RetriesExhaustedException ||
+        connection.isDeadServer(location.getServerName())) {
+      connection.clearCaches(location.getServerName());
+    } else {
+      connection.updateCachedLocations(tableName, row, t, location);
+    }
+  }
+
+  /**
+   * Runs <code>task</code> after <code>delay</code> ms, or right away if there is no delay.
+   * @return false if the connection is closed
+   */
+  private boolean schedule(final Runnable task, final long delay) {
+    if (delay <= 0) {
+      task.run();
+      return true;
+    }
+    try {
+      connection.getRetryTimer().schedule(task, delay, TimeUnit.MILLISECONDS);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * A request to the region holding a row, retried until it succeeds, fails with a non
+   * retriable exception or runs out of retries or time.
+   * @param <R> the response message
+   * @param <T> the type of the result
+   */
+  private abstract class RegionRequest<R extends Message, T> {
+    final SettableFuture<T> future = SettableFuture.create();
+    private final List<ThrowableWithExtraContext> exceptions =
+      new ArrayList<ThrowableWithExtraContext>();
+    private final long startTime = EnvironmentEdgeManager.currentTimeMillis();
+    private byte[] row;
+    private int tries = 0;
+    /** Location of the current attempt, or the one to use first */
+    HRegionLocation location;
+
+    RegionRequest(final byte[] row) {
+      this.row = row;
+    }
+
+    /**
+     * Sends the request.
+     */
+    abstract void call(ClientService.Interface stub, PayloadCarryingRpcController controller,
+        byte[] regionName, RpcCallback<R> done) throws IOException;
+
+    /**
+     * Converts a successful response; an exception fails the request without retry.
+     */
+    abstract T convert(R response, CellScanner cells) throws IOException;
+
+    /**
+     * @return the row to locate the region with
+     */
+    byte[] getRow() {
+      return row;
+    }
+
+    /**
+     * @return true if this request can be retried after an exception that would not be
+     * retried otherwise
+     */
+    boolean isRetriable(DoNotRetryIOException e) {
+      return false;
+    }
+
+    /**
+     * Called before a retry is scheduled after <code>error</code>.
+     */
+    void beforeRetry(Throwable error) {
+    }
+
+    /**
+     * Starts the request, locating the region first.
+     */
+    ListenableFuture<T> start() {
+      attempt();
+      return future;
+    }
+
+    /**
+     * Starts the request against <code>location</code>. Retries locate the region again.
+     */
+    ListenableFuture<T> start(final HRegionLocation location) {
+      tries++;
+      send(location);
+      return future;
+    }
+
+    private void attempt() {
+      tries++;
+      Futures.addCallback(locate(getRow()), new FutureCallback<HRegionLocation>() {
+        @Override
+        public void onSuccess(HRegionLocation result) {
+          send(result);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          failed(t);
+        }
+      });
+    }
+
+    private void send(final HRegionLocation location) {
+      this.location = location;
+      boolean scheduled = schedule(new Runnable() {
+        @Override
+        public void run() {
+          doCall();
+        }
+      }, getBackoff(location));
+      if (!scheduled) {
+        future.setException(new DoNotRetryIOException(connection.toString() + " closed"));
+      }
+    }
+
+    private void doCall() {
+      final PayloadCarryingRpcController controller = rpcControllerFactory.newController();
+      controller.setPriority(tableName);
+      try {
+        call(connection.getAsyncClient(location.getServerName()), controller,
+          location.getRegionInfo().getRegionName(), new RpcCallback<R>() {
+            @Override
+            public void run(R response) {
+              done(response, controller);
+            }
+          });
+      } catch (Throwable t) {
+        failed(t);
+      }
+    }
+
+    private void done(final R response, final PayloadCarryingRpcController controller) {
+      if (response == null || controller.failed()) {
+        IOException e = controller.getFailed();
+        failed(e != null ? e : new IOException(controller.errorText()));
+        return;
+      }
+      T result;
+      try {
+        result = convert(response, controller.cellScanner());
+      } catch (Throwable t) {
+        future.setException(t);
+        return;
+      }
+      future.set(result);
+    }
+
+    private void failed(final Throwable t) {
+      Throwable error;
+      try {
+        error = RpcRetryingCaller.translateException(t);
+      } catch (DoNotRetryIOException e) {
+        if (!isRetriable(e)) {
+          future.setException(e);
+          return;
+        }
+        error = e;
+      }
+      if (tries > 1 && LOG.isDebugEnabled()) {
+        LOG.debug("Call exception, tries=" + tries + ", retries=" + numTries + ", retryTime=" +
+          (EnvironmentEdgeManager.currentTimeMillis() - startTime) + "ms, " + this, error);
+      }
+      updateCachedLocation(location, getRow(), error);
+      exceptions.add(new ThrowableWithExtraContext(error,
+        EnvironmentEdgeManager.currentTimeMillis(), toString()));
+      if (tries >= numTries) {
+        future.setException(new RetriesExhaustedException(tries - 1, exceptions));
+        return;
+      }
+      long sleep = getPauseTime(location, tries);
+      long duration = EnvironmentEdgeManager.currentTimeMillis() - startTime + sleep;
+      if (duration > operationTimeout) {
+        String msg = "callTimeout=" + operationTimeout + ", callDuration=" + duration +
+          ": " + this;
+        future.setException(new SocketTimeoutException(msg).initCause(error));
+        return;
+      }
+      beforeRetry(error);
+      boolean scheduled = schedule(new Runnable() {
+        @Override
+        public void run() {
+          attempt();
+        }
+      }, sleep);
+      if (!scheduled) {
+        future.setException(new DoNotRetryIOException(connection.toString() + " closed"));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "table=" + tableName + ", row=" + Bytes.toStringBinary(getRow()) +
+        (location == null ? "" : ", location=" + location);
+    }
+  }
+
+  /**
+   * A batch of actions on possibly many regions. Each round locates the pending actions,
+   * sends one multi request per region and collects the actions that failed with a
+   * retriable exception for the next round.
+   */
+  private class BatchRequest {
+    final SettableFuture<Object[]> future = SettableFuture.create();
+    private final List<Action<Row>> actions;
+    private final long nonceGroup;
+    private final long startTime = EnvironmentEdgeManager.currentTimeMillis();
+    // Guarded by this
+    private final Object[] results;
+    private final Throwable[] errors;
+    private final String[] hosts;
+    private List<Action<Row>> toRetry = new ArrayList<Action<Row>>();
+    private int outstanding;
+    // Only touched between rounds
+    private int tries = 0;
+
+    BatchRequest(final List<Action<Row>> actions, final long nonceGroup) {
+      this.actions = actions;
+      this.nonceGroup = nonceGroup;
+      this.results = new Object[actions.size()];
+      this.errors = new Throwable[actions.size()];
+      this.hosts = new String[actions.size()];
+    }
+
+    void round(final List<Action<Row>> pending) {
+      tries++;
+      final HRegionLocation[] locations = new HRegionLocation[pending.size()];
+      final AtomicInteger remaining = new AtomicInteger(pending.size());
+      for (int i = 0; i < pending.size(); i++) {
+        final int n = i;
+        final Action<Row> action = pending.get(i);
+        Futures.addCallback(locate(action.getAction().getRow()),
+          new FutureCallback<HRegionLocation>() {
+            @Override
+            public void onSuccess(HRegionLocation result) {
+              locations[n] = result;
+              if (remaining.decrementAndGet() == 0) {
+                dispatch(pending, locations);
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              actionFailed(action, null, t);
+              if (remaining.decrementAndGet() == 0) {
+                dispatch(pending, locations);
+              }
+            }
+          });
+      }
+    }
+
+    private void dispatch(final List<Action<Row>> pending, final HRegionLocation[] locations) {
+      Map<byte[], List<Action<Row>>> byRegion =
+        new TreeMap<byte[], List<Action<Row>>>(Bytes.BYTES_COMPARATOR);
+      Map<byte[], HRegionLocation> regions =
+        new TreeMap<byte[], HRegionLocation>(Bytes.BYTES_COMPARATOR);
+      for (int i = 0; i < locations.length; i++) {
+        if (locations[i] == null) {
+          continue;
+        }
+        byte[] regionName = locations[i].getRegionInfo().getRegionName();
+        List<Action<Row>> regionActions = byRegion.get(regionName);
+        if (regionActions == null) {
+          regionActions = new ArrayList<Action<Row>>();
+          byRegion.put(regionName, regionActions);
+          regions.put(regionName, locations[i]);
+        }
+        regionActions.add(pending.get(i));
+      }
+      if (byRegion.isEmpty()) {
+        finishRound();
+        return;
+      }
+      synchronized (this) {
+        outstanding = byRegion.size();
+      }
+      for (Map.Entry<byte[], List<Action<Row>>> e : byRegion.entrySet()) {
+        final HRegionLocation location = regions.get(e.getKey());
+        final List<Action<Row>> regionActions = e.getValue();
+        boolean scheduled = schedule(new Runnable() {
+          @Override
+          public void run() {
+            sendMulti(location, regionActions);
+          }
+        }, getBackoff(location));
+        if (!scheduled) {
+          regionFailed(location, regionActions,
+            new DoNotRetryIOException(connection.toString() + " closed"));
+          regionDone();
+        }
+      }
+    }
+
+    private void sendMulti(final HRegionLocation location, final List<Action<Row>> regionActions) {
+      try {
+        final byte[] regionName = location.getRegionInfo().getRegionName();
+        MultiRequest.Builder builder = MultiRequest.newBuilder();
+        if (nonceGroup != HConstants.NO_NONCE) {
+          builder.setNonceGroup(nonceGroup);
+        }
+        List<CellScannable> cells = null;
+        RegionAction.Builder regionActionBuilder = RegionAction.newBuilder();
+        if (cellBlock) {
+          cells = new ArrayList<CellScannable>(regionActions.size());
+          regionActionBuilder = RequestConverter.buildNoDataRegionAction(regionName,
+            regionActions, cells, regionActionBuilder, ClientProtos.Action.newBuilder(),
+            MutationProto.newBuilder());
+        } else {
+          regionActionBuilder.setRegion(RequestConverter.buildRegionSpecifier(
+            RegionSpecifierType.REGION_NAME, regionName));
+          regionActionBuilder = RequestConverter.buildRegionAction(regionName, regionActions,
+            regionActionBuilder, ClientProtos.Action.newBuilder(), MutationProto.newBuilder());
+        }
+        final MultiRequest request = builder.addRegionAction(regionActionBuilder.build()).build();
+        final PayloadCarryingRpcController controller = rpcControllerFactory.newController(cells);
+        controller.setPriority(tableName);
+        connection.getAsyncClient(location.getServerName()).multi(controller, request,
+          new RpcCallback<ClientProtos.MultiResponse>() {
+            @Override
+            public void run(ClientProtos.MultiResponse response) {
+              try {
+                processResponse(location, regionName, regionActions, request, controller,
+                  response);
+              } finally {
+                regionDone();
+              }
+            }
+          });
+      } catch (Throwable t) {
+        regionFailed(location, regionActions, t);
+        regionDone();
+      }
+    }
+
+    private void processResponse(final HRegionLocation location, final byte[] regionName,
+        final List<Action<Row>> regionActions, final MultiRequest request,
+        final PayloadCarryingRpcController controller,
+        final ClientProtos.MultiResponse response) {
+      if (response == null || controller.failed()) {
+        IOException e = controller.getFailed();
+        regionFailed(location, regionActions, e != null ? e : new IOException(controller.errorText()));
+        return;
+      }
+      MultiResponse multiResponse;
+      try {
+        multiResponse = ResponseConverter.getResults(request, response, controller.cellScanner());
+      } catch (Throwable t) {
+        regionFailed(location, regionActions, t);
+        return;
+      }
+      ServerStatisticTracker tracker = connection.getStatisticsTracker();
+      if (tracker != null) {
+        ResultStatsUtil.updateStats(multiResponse, tracker, location);
+      }
+      Throwable regionException = multiResponse.getException(regionName);
+      List<Pair<Integer, Object>> regionResults = multiResponse.getResults().get(regionName);
+      if (regionException == null && regionResults == null) {
+        regionException = new IOException("No results for region " +
+          Bytes.toStringBinary(regionName));
+      }
+      if (regionException != null) {
+        regionFailed(location, regionActions, regionException);
+        return;
+      }
+      for (Pair<Integer, Object> result : regionResults) {
+        int index = result.getFirst();
+        if (result.getSecond() instanceof Throwable) {
+          actionFailed(actions.get(index), location, (Throwable) result.getSecond());
+        } else {
+          synchronized (this) {
+            results[index] = result.getSecond();
+          }
+        }
+      }
+    }
+
+    private void regionFailed(final HRegionLocation location,
+        final List<Action<Row>> regionActions, final Throwable t) {
+      for (Action<Row> action : regionActions) {
+        actionFailed(action, location, t);
+      }
+    }
+
+    private synchronized void actionFailed(final Action<Row> action,
+        final HRegionLocation location, final Throwable t) {
+      int index = action.getOriginalIndex();
+      hosts[index] = location == null ? "null" : location.getHostnamePort();
+      try {
+        errors[index] = RpcRetryingCaller.translateException(t);
+      } catch (DoNotRetryIOException e) {
+        errors[index] = e;
+        return;
+      }
+      updateCachedLocation(location, action.getAction().getRow(), errors[index]);
+      toRetry.add(action);
+    }
+
+    private void regionDone() {
+      synchronized (this) {
+        if (--outstanding > 0) {
+          return;
+        }
+      }
+      finishRound();
+    }
+
+    private void finishRound() {
+      final List<Action<Row>> retry;
+      synchronized (this) {
+        retry = toRetry;
+        toRetry = new ArrayList<Action<Row>>();
+      }
+      if (retry.isEmpty() || tries >= numTries) {
+        complete();
+        return;
+      }
+      long sleep = ConnectionUtils.getPauseTime(pause, tries);
+      if (EnvironmentEdgeManager.currentTimeMillis() - startTime + sleep > operationTimeout) {
+        complete();
+        return;
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Retrying " + retry.size() + " of " + actions.size() + " actions on " +
+          tableName + ", tries=" + tries + ", sleep=" + sleep + "ms");
+      }
+      boolean scheduled = schedule(new Runnable() {
+        @Override
+        public void run() {
+          round(retry);
+        }
+      }, sleep);
+      if (!scheduled) {
+        complete();
+      }
+    }
+
+    private synchronized void complete() {
+      List<Throwable> exceptions = new ArrayList<Throwable>();
+      List<Row> rows = new ArrayList<Row>();
+      List<String> hostAndPorts = new ArrayList<String>();
+      for (int i = 0; i < results.length; i++) {
+        if (results[i] == null) {
+          exceptions.add(errors[i]);
+          rows.add(actions.get(i).getAction());
+          hostAndPorts.add(hosts[i]);
+        }
+      }
+      if (exceptions.isEmpty()) {
+        future.set(results);
+      } else {
+        future.setException(
+          new RetriesExhaustedWithDetailsException(exceptions, rows, hostAndPorts));
+      }
+    }
+  }
+
+  /**
+   * Drives a scan region by region. Only one rpc is in flight at a time: the next batch is
+   * requested once the consumer took the previous one.
+   */
+  private class AsyncScanner {
+    private final Scan scan;
+    private final ScanResultConsumer consumer;
+    private final int caching;
+    /** Row the scanner of the current region opens, or reopens after a failure, at */
+    private byte[] startRow;
+    private HRegionLocation location;
+    private long scannerId = -1L;
+    private long nextCallSeq = 0;
+    private boolean regionDone;
+    /** Whether the server closed the scanner of the current region itself */
+    private boolean serverClosed;
+    // Trampoline so that rpcs completing in the calling thread do not recurse
+    private boolean sending;
+    private boolean resend;
+
+    AsyncScanner(final Scan scan, final ScanResultConsumer consumer) {
+      this.scan = scan;
+      this.consumer = consumer;
+      this.caching = scan.getCaching() > 0 ? scan.getCaching() : scannerCaching;
+      this.startRow = scan.getStartRow();
+    }
+
+    void next() {
+      synchronized (this) {
+        if (sending) {
+          resend = true;
+          return;
+        }
+        sending = true;
+      }
+      for (;;) {
+        sendNext();
+        synchronized (this) {
+          if (!resend) {
+            sending = false;
+            return;
+          }
+          resend = false;
+        }
+      }
+    }
+
+    private void sendNext() {
+      RegionRequest<ScanResponse, Result[]> request =
+          new RegionRequest<ScanResponse, Result[]>(null) {
+        @Override
+        byte[] getRow() {
+          return startRow;
+        }
+
+        @Override
+        void call(ClientService.Interface stub, PayloadCarryingRpcController controller,
+            byte[] regionName, RpcCallback<ScanResponse> done) throws IOException {
+          ScanRequest request;
+          if (scannerId == -1L) {
+            Scan regionScan = new Scan(scan);
+            regionScan.setStartRow(startRow);
+            // Results go to the consumer as they come, neither empty nor in parts of rows
+            regionScan.setAttribute(Scan.SCAN_ATTRIBUTES_HEARTBEATS_ENABLE, null);
+            regionScan.setAttribute(Scan.SCAN_ATTRIBUTES_PARTIAL_RESULTS_ENABLE, null);
+            request = RequestConverter.buildScanRequest(regionName, regionScan, caching, false);
+          } else {
+            request = RequestConverter.buildScanRequest(scannerId, caching, false, nextCallSeq);
+          }
+          stub.scan(controller, request, done);
+        }
+
+        @Override
+        Result[] convert(ScanResponse response, CellScanner cells) throws IOException {
+          if (scannerId == -1L) {
+            scannerId = response.getScannerId();
+            AsyncScanner.this.location = this.location;
+            nextCallSeq = 0;
+          } else {
+            nextCallSeq++;
+          }
+          Result[] results = ResponseConverter.getResults(cells, response);
+          serverClosed = response.hasMoreResults() && !response.getMoreResults();
+          if (serverClosed) {
+            regionDone = true;
+          } else if (response.hasMoreResultsInRegion()) {
+            regionDone = !response.getMoreResultsInRegion();
+          } else {
+            // Older servers do not tell, and only answer empty at the end of the region
+            regionDone = results == null || results.length == 0;
+          }
+          return results;
+        }
+
+        @Override
+        boolean isRetriable(DoNotRetryIOException e) {
+          // The scanner is gone or out of sync; reopen it after the last row we returned,
+          // like ClientScanner does.
+          return scannerId != -1L && (e instanceof UnknownScannerException ||
+            e instanceof OutOfOrderScannerNextException);
+        }
+
+        @Override
+        void beforeRetry(Throwable error) {
+          scannerId = -1L;
+        }
+      };
+      ListenableFuture<Result[]> future =
+        scannerId == -1L ? request.start() : request.start(location);
+      Futures.addCallback(future, new FutureCallback<Result[]>() {
+        @Override
+        public void onSuccess(Result[] results) {
+          processResults(results);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          consumer.onError(t);
+        }
+      });
+    }
+
+    private void processResults(final Result[] results) {
+      if (results != null && results.length > 0) {
+        byte[] lastRow = results[results.length - 1].getRow();
+        startRow = Arrays.copyOf(lastRow, lastRow.length + 1);
+        boolean more;
+        try {
+          more = consumer.onNext(results);
+        } catch (Throwable t) {
+          close();
+          consumer.onError(t);
+          return;
+        }
+        if (!more) {
+          close();
+          return;
+        }
+      }
+      if (regionDone) {
+        // The server keeps the scanner open when only the region is done
+        close();
+        byte[] endKey = location.getRegionInfo().getEndKey();
+        if (endKey == null || Bytes.equals(endKey, HConstants.EMPTY_END_ROW) ||
+            checkScanStopRow(endKey)) {
+          consumer.onComplete();
+          return;
+        }
+        startRow = endKey;
+      }
+      next();
+    }
+
+    private boolean checkScanStopRow(final byte[] endKey) {
+      byte[] stopRow = scan.getStopRow();
+      return stopRow.length > 0 && Bytes.compareTo(stopRow, endKey) <= 0;
+    }
+
+    /**
+     * Closes the scanner of the current region, without waiting for the answer.
+     */
+    private void close() {
+      if (scannerId == -1L || serverClosed) {
+        scannerId = -1L;
+        return;
+      }
+      try {
+        connection.getAsyncClient(location.getServerName()).scan(
+          rpcControllerFactory.newController(),
+          RequestConverter.buildScanRequest(scannerId, 0, true),
+          new RpcCallback<ScanResponse>() {
+            @Override
+            public void run(ScanResponse response) {
+            }
+          });
+      } catch (IOException e) {
+        LOG.warn("Ignore, probably already closed", e);
+      }
+      scannerId = -1L;
+    }
+  }
+}
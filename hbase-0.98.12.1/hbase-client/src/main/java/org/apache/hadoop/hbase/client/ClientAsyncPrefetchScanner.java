@@ -0,0 +1,215 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.ipc.RpcControllerFactory;
+
+/**
+ * A client scanner that loads the next results in the background, while the application
+ * processes the current ones. The plain {@link ClientScanner} only calls the region server once
+ * the application consumed all the results it has, so both wait for each other on every round
+ * trip; a scan bound by network latency goes up to twice as fast with this one.
+ * <p>
+ * A load is started whenever less than one batch is waiting, the batch being the scan caching
+ * in rows and the max result size in bytes, so that the scanner holds up to about two batches.
+ * The loads are the ones of {@link ClientScanner}, run in the given pool one at a time: they
+ * move on to the next region, and reopen the scanner when a region moved, just the same.
+ * <p>
+ * Chosen by {@link HTable#getScanner(Scan)} for the scans set with
+ * {@link Scan#setAsyncPrefetch(boolean)}.
+ */
+@InterfaceAudience.Private
+public class ClientAsyncPrefetchScanner extends ClientScanner {
+  private final ExecutorService pool;
+  private final Runnable prefetchRunnable = new PrefetchRunnable();
+
+  /** Guards everything below, and is notified when a load is done */
+  private final Object lock = new Object();
+  /** Results loaded, waiting for the application */
+  private final LinkedList<Result> prefetched = new LinkedList<Result>();
+  /** Heap size of the results waiting */
+  private long prefetchedSize = 0;
+  /** Whether a load is in progress */
+  private boolean loading = false;
+  /** The thread of the load in progress */
+  private Thread loadingThread = null;
+  /** Whether the servers have no more results for us */
+  private boolean exhausted = false;
+  /** Whether the application closed us */
+  private boolean closedByApplication = false;
+  /** What the last load failed with, to throw once the results before are consumed */
+  private Throwable failure = null;
+
+  /**
+   * Create a new scanner for the specified table, loading the next results in the given pool.
+   * Note that the passed {@link Scan}'s start row maybe changed.
+   * @param conf The {@link Configuration} to use.
+   * @param scan {@link Scan} to use in this scanner
+   * @param tableName The table that we wish to scan
+   * @param connection Connection identifying the cluster
+   * @param rpcFactory Factory of the callers of the scanner RPCs
+   * @param controllerFactory Factory of the controllers of the scanner RPCs
+   * @param pool Pool to load the results in; when it is shut down, the results are loaded by
+   *   the application thread, as a plain {@link ClientScanner} does
+   * @throws IOException
+   */
+  public ClientAsyncPrefetchScanner(final Configuration conf, final Scan scan,
+      final TableName tableName, HConnection connection, RpcRetryingCallerFactory rpcFactory,
+      RpcControllerFactory controllerFactory, ExecutorService pool) throws IOException {
+    super(conf, scan, tableName, connection, rpcFactory, controllerFactory);
+    this.pool = pool;
+    synchronized (lock) {
+      prefetch();
+    }
+  }
+
+  @Override
+  public Result next() throws IOException {
+    synchronized (lock) {
+      while (true) {
+        Result result = prefetched.poll();
+        if (result != null) {
+          prefetchedSize -= calcResultSize(result);
+          prefetch();
+          return result;
+        }
+        if (failure != null) {
+          Throwable t = failure;
+          failure = null;
+          if (t instanceof IOException) {
+            throw (IOException) t;
+          } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+          } else if (t instanceof Error) {
+            throw (Error) t;
+          }
+          throw new IOException(t);
+        }
+        if (exhausted || closedByApplication) {
+          return null;
+        }
+        prefetch();
+        if (loading) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the scan results");
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (lock) {
+      // The loads close the scanner themselves at the end of the table
+      if (Thread.currentThread() != loadingThread) {
+        closedByApplication = true;
+        prefetched.clear();
+        prefetchedSize = 0;
+        lock.notifyAll();
+        if (loading) {
+          // The load in progress closes the scanner when done
+          return;
+        }
+      }
+    }
+    super.close();
+  }
+
+  /**
+   * Starts loading the next results if less than a batch is waiting. Call holding the lock.
+   */
+  private void prefetch() {
+    if (loading || exhausted || closedByApplication || failure != null
+        || prefetched.size() >= caching || prefetchedSize >= maxScannerResultSize) {
+      return;
+    }
+    loading = true;
+    try {
+      pool.execute(prefetchRunnable);
+    } catch (RejectedExecutionException e) {
+      // The pool is shut down, e.g. the table closed before its scanner: load the results here
+      prefetchRunnable.run();
+    }
+  }
+
+  private static long calcResultSize(Result result) {
+    long size = 0;
+    for (Cell cell : result.rawCells()) {
+      size += KeyValueUtil.ensureKeyValue(cell).heapSize();
+    }
+    return size;
+  }
+
+  /**
+   * Loads the next results in the cache of {@link ClientScanner}, then hands them over to the
+   * application.
+   */
+  private class PrefetchRunnable implements Runnable {
+    @Override
+    public void run() {
+      synchronized (lock) {
+        loadingThread = Thread.currentThread();
+      }
+      Throwable error = null;
+      try {
+        loadCache();
+      } catch (Throwable t) {
+        error = t;
+      }
+      boolean closeScanner;
+      synchronized (lock) {
+        loadingThread = null;
+        loading = false;
+        closeScanner = closedByApplication && !closed;
+        if (!closedByApplication) {
+          for (Result result : cache) {
+            prefetched.add(result);
+            prefetchedSize += calcResultSize(result);
+          }
+        }
+        cache.clear();
+        if (error != null) {
+          failure = error;
+          exhausted = true;
+        } else if (closed) {
+          exhausted = true;
+        }
+        prefetch();
+        lock.notifyAll();
+      }
+      if (closeScanner) {
+        ClientAsyncPrefetchScanner.super.close();
+      }
+    }
+  }
+}
@@ -18,7 +18,11 @@
 package org.apache.hadoop.hbase.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -61,6 +65,14 @@ public class ClientScanner extends AbstractClientScanner {
     protected long lastNext;
     // Keep lastResult returned successfully in case we have to reset scanner.
     protected Result lastResult = null;
+    /** Parts of the last row read, until we know it is complete */
+    protected final List<Result> partialResults = new ArrayList<Result>();
+    /**
+     * Attributes the requests opening scanners carry, and not the scan of the application: we
+     * take heartbeats, and stitch parts of rows back together unless the application asked for
+     * them in batches
+     */
+    protected final Map<String, byte[]> requestAttributes = new HashMap<String, byte[]>();
     protected final long maxScannerResultSize;
     private final HConnection connection;
     private final TableName tableName;
@@ -185,6 +197,11 @@ public class ClientScanner extends AbstractClientScanner {
     }
 
     protected void initializeScannerInConstruction() throws IOException{
+      requestAttributes.put(Scan.SCAN_ATTRIBUTES_HEARTBEATS_ENABLE, Bytes.toBytes(Boolean.TRUE));
+      if (scan.getBatch() <= 0) {
+        requestAttributes.put(Scan.SCAN_ATTRIBUTES_PARTIAL_RESULTS_ENABLE,
+          Bytes.toBytes(Boolean.TRUE));
+      }
       // initialize the scanner
       nextScanner(this.caching, false);
     }
@@ -297,9 +314,18 @@ public class ClientScanner extends AbstractClientScanner {
     protected ScannerCallable getScannerCallable(byte [] localStartKey,
         int nbRows) {
       scan.setStartRow(localStartKey);
-      ScannerCallable s = new ScannerCallable(getConnection(),
-        getTable(), scan, this.scanMetrics, rpcControllerFactory.newController());
+      ScannerCallable s;
+      if (scan.getConsistency() == Consistency.TIMELINE
+          && getConnection() instanceof HConnectionManager.HConnectionImplementation) {
+        s = new TimelineScannerCallable(
+          (HConnectionManager.HConnectionImplementation) getConnection(), getTable(), scan,
+          this.scanMetrics, rpcControllerFactory.newController());
+      } else {
+        s = new ScannerCallable(getConnection(),
+          getTable(), scan, this.scanMetrics, rpcControllerFactory.newController());
+      }
       s.setCaching(nbRows);
+      s.setRequestAttributes(requestAttributes);
       return s;
     }
 
@@ -359,7 +385,11 @@ public class ClientScanner extends AbstractClientScanner {
     // We don't expect that the server will have more results for us if
     // it doesn't tell us otherwise. We rely on the size or count of results
     boolean serverHasMoreResults = false;
+    // Whether the region has more results, although we have none in the cache yet: the server
+    // sent a heartbeat, or only part of a row
+    boolean moreResultsForCache;
     do {
+      moreResultsForCache = false;
       try {
         if (skipFirst) {
           // Skip only the first row (which was the last row of the last
@@ -409,7 +439,12 @@ public class ClientScanner extends AbstractClientScanner {
           }
         }
         // Else, its signal from depths of ScannerCallable that we need to reset the scanner.
-        if (this.lastResult != null) {
+        if (!this.partialResults.isEmpty()) {
+          // Read the row we have parts of again, in full
+          this.scan.setStartRow(this.partialResults.get(0).getRow());
+          this.partialResults.clear();
+          skipFirst = false;
+        } else if (this.lastResult != null) {
           // The region has moved. We need to open a brand new scanner at
           // the new location.
           // Reset the startRow to the row we've seen last so that the new
@@ -444,17 +479,33 @@ public class ClientScanner extends AbstractClientScanner {
         this.scanMetrics.sumOfMillisSecBetweenNexts.addAndGet(currentTime-lastNext);
       }
       lastNext = currentTime;
+      boolean moreResultsInRegion = values != null && callable.hasMoreResultsContext()
+          && callable.getServerHasMoreResults();
       if (values != null && values.length > 0) {
         for (Result rs : values) {
-          cache.add(rs);
           for (Cell kv : rs.rawCells()) {
             // TODO make method in Cell or CellUtil
             remainingResultSize -= KeyValueUtil.ensureKeyValue(kv).heapSize();
           }
           countdown--;
-          this.lastResult = rs;
+          if (scan.getBatch() > 0) {
+            cache.add(rs);
+            this.lastResult = rs;
+            continue;
+          }
+          // The server may send a big row in parts, one after the other
+          if (!partialResults.isEmpty()
+              && !Bytes.equals(partialResults.get(0).getRow(), rs.getRow())) {
+            addPartialResultsToCache();
+          }
+          partialResults.add(rs);
         }
       }
+      // The last row read is complete unless the server stopped before the end of the region
+      if (!moreResultsInRegion) {
+        addPartialResultsToCache();
+      }
+      moreResultsForCache = moreResultsInRegion && cache.isEmpty();
       // We expect that the server won't have more results for us when we exhaust
       // the size (bytes or count) of the results returned. If the server *does* inform us that
       // there are more results, we want to avoid possiblyNextScanner(...). Only when we actually
@@ -468,8 +519,32 @@ public class ClientScanner extends AbstractClientScanner {
       // !partialResults.isEmpty() means that we are still accumulating partial Results for a
       // row. We should not change scanners before we receive all the partial Results for that
       // row.
-    } while (remainingResultSize > 0 && countdown > 0 && !serverHasMoreResults
-        && nextScanner(countdown, values == null));
+    } while (moreResultsForCache || (remainingResultSize > 0 && countdown > 0
+        && !serverHasMoreResults && nextScanner(countdown, values == null)));
+  }
+
+  /**
+   * Adds the parts of the last row read to the cache, as one Result.
+   */
+  private void addPartialResultsToCache() {
+    if (partialResults.isEmpty()) {
+      return;
+    }
+    Result result;
+    if (partialResults.size() == 1) {
+      result = partialResults.get(0);
+    } else {
+      List<Cell> cells = new ArrayList<Cell>();
+      for (Result part : partialResults) {
+        for (Cell cell : part.rawCells()) {
+          cells.add(cell);
+        }
+      }
+      result = Result.create(cells);
+    }
+    partialResults.clear();
+    cache.add(result);
+    this.lastResult = result;
   }
 
     @Override
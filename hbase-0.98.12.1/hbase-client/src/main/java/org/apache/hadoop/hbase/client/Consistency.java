@@ -0,0 +1,48 @@
+/*
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.client;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+
+/**
+ * Consistency defines the expected consistency level for a Get or Scan operation.
+ * <p>
+ * STRONG reads are only served by the primary region. TIMELINE reads of a table with
+ * region replicas may be served by a secondary replica when the primary does not answer in
+ * time; such a read can miss the latest writes, and its {@link Result#isStale()} is true.
+ * Replicas apply the edits of their primary in the same order, so data is never seen out
+ * of order, only late.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public enum Consistency {
+  STRONG,
+  TIMELINE;
+
+  public byte [] toBytes() {
+    return new byte [] { (byte)this.ordinal() };
+  }
+
+  public static Consistency fromBytes(byte [] bytes) {
+    return Consistency.values()[bytes[0]];
+  }
+}
@@ -242,6 +242,12 @@ public class Get extends Query
     return this;
   }
 
+  @Override
+  public Get setConsistency(Consistency consistency) {
+    super.setConsistency(consistency);
+    return this;
+  }
+
   /* Accessors */
 
   /**
@@ -132,6 +132,8 @@ import org.apache.hadoop.hbase.protobuf.generated.MasterProtos.SnapshotResponse;
 import org.apache.hadoop.hbase.protobuf.generated.MasterProtos.StopMasterRequest;
 import org.apache.hadoop.hbase.protobuf.generated.MasterProtos.TruncateTableRequest;
 import org.apache.hadoop.hbase.protobuf.generated.MasterProtos.UnassignRegionRequest;
+import org.apache.hadoop.hbase.quotas.QuotaSettings;
+import org.apache.hadoop.hbase.quotas.QuotaTableUtil;
 import org.apache.hadoop.hbase.regionserver.wal.FailedLogCloseException;
 import org.apache.hadoop.hbase.snapshot.ClientSnapshotDescriptionUtils;
 import org.apache.hadoop.hbase.snapshot.HBaseSnapshotException;
@@ -3473,4 +3475,24 @@ public class HBaseAdmin implements Abortable, Closeable {
     });
   }
 
+  /**
+   * Apply the quota settings: throttle, or stop throttling, a user, a table or a namespace.
+   * The region servers enforce them from their next quota cache refresh, see
+   * hbase.quota.refresh.period. Requires hbase.quota.enabled.
+   * @param quota the quota settings
+   * @throws IOException if a remote or network exception occurs
+   */
+  public void setQuota(final QuotaSettings quota) throws IOException {
+    HTable table = new HTable(QuotaTableUtil.QUOTA_TABLE_NAME, connection);
+    try {
+      Mutation mutation = QuotaTableUtil.makeMutation(quota);
+      if (mutation instanceof Put) {
+        table.put((Put)mutation);
+      } else {
+        table.delete((Delete)mutation);
+      }
+    } finally {
+      table.close();
+    }
+  }
 }
@@ -178,6 +178,18 @@ public interface HConnection extends Abortable, Closeable {
    */
   public HTableInterface getTable(TableName tableName, ExecutorService pool)  throws IOException;
 
+  /**
+   * Retrieve an {@link AsyncTable} for accessing a table. The returned table shares this
+   * connection's region location cache, statistics tracker and client backoff policy. It is
+   * lightweight and need not be closed; it stops working when this connection is closed.
+   * <p>
+   * Requests only avoid blocking the calling thread when the connection uses a non-blocking
+   * rpc client, see {@link org.apache.hadoop.hbase.ipc.AsyncRpcClient}.
+   * @param tableName
+   * @return an AsyncTable to use for interactions with this table
+   */
+  public AsyncTable getAsyncTable(TableName tableName) throws IOException;
+
   /** @return - true if the master server is running */
   boolean isMasterRunning()
   throws MasterNotRunningException, ZooKeeperConnectionException;
@@ -39,7 +39,9 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -50,6 +52,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CallDroppedException;
 import org.apache.hadoop.hbase.Chore;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HConstants;
@@ -72,6 +75,7 @@ import org.apache.hadoop.hbase.client.coprocessor.Batch;
 import org.apache.hadoop.hbase.exceptions.RegionMovedException;
 import org.apache.hadoop.hbase.exceptions.RegionOpeningException;
 import org.apache.hadoop.hbase.ipc.RpcClient;
+import org.apache.hadoop.hbase.ipc.RpcClientFactory;
 import org.apache.hadoop.hbase.ipc.RpcControllerFactory;
 import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
 import org.apache.hadoop.hbase.protobuf.RequestConverter;
@@ -163,6 +167,7 @@ import org.apache.hadoop.hbase.protobuf.generated.MasterProtos.TruncateTableResp
 import org.apache.hadoop.hbase.protobuf.generated.MasterProtos.UnassignRegionRequest;
 import org.apache.hadoop.hbase.protobuf.generated.MasterProtos.UnassignRegionResponse;
 import org.apache.hadoop.hbase.regionserver.RegionServerStoppedException;
+import org.apache.hadoop.hbase.quotas.ThrottlingException;
 import org.apache.hadoop.hbase.security.User;
 import org.apache.hadoop.hbase.security.UserProvider;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -177,6 +182,7 @@ import org.apache.zookeeper.KeeperException;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.BlockingRpcChannel;
+import com.google.protobuf.RpcChannel;
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
 
@@ -625,6 +631,7 @@ public class HConnectionManager {
     // thread executor shared by all HTableInterface instances created
     // by this connection
     private volatile ExecutorService batchPool = null;
+    private volatile ScheduledExecutorService retryTimer = null;
     private volatile boolean cleanupPool = false;
 
     private final Configuration conf;
@@ -650,6 +657,12 @@ public class HConnectionManager {
     // The access to this attribute must be protected by a lock on cachedRegionLocations
     private final Set<ServerName> cachedServers = new ConcurrentSkipListSet<ServerName>();
 
+    /**
+     * Map of encoded region name to the locations of the read replicas of the region.
+     */
+    private final ConcurrentMap<String, List<HRegionLocation>> cachedReplicaLocations =
+      new ConcurrentHashMap<String, List<HRegionLocation>>();
+
     // region cache prefetch is enabled by default. this set contains all
     // tables whose region cache prefetch are disabled.
     private final Set<Integer> regionCachePrefetchDisabledTables =
@@ -700,7 +713,7 @@ public class HConnectionManager {
       this.registry = setupRegistry();
       retrieveClusterId();
 
-      this.rpcClient = new RpcClient(this.conf, this.clusterId);
+      this.rpcClient = RpcClientFactory.createClient(this.conf, this.clusterId);
 
       // Do we publish the status?
       boolean shouldListen = conf.getBoolean(HConstants.STATUS_PUBLISHED,
@@ -813,7 +826,15 @@ public class HConnectionManager {
         pool);
     }
 
-    private ExecutorService getBatchPool() {
+    @Override
+    public AsyncTable getAsyncTable(TableName tableName) throws IOException {
+      if (managed) {
+        throw new IOException("The connection has to be unmanaged.");
+      }
+      return new AsyncTableImpl(tableName, this, tableConfig, rpcControllerFactory);
+    }
+
+    ExecutorService getBatchPool() {
       if (batchPool == null) {
         // shared HTable thread executor not yet initialized
         synchronized (this) {
@@ -851,6 +872,21 @@ public class HConnectionManager {
       return batchPool;
     }
 
+    /**
+     * @return the timer {@link AsyncTable}s use to schedule retries and backoff delays
+     */
+    ScheduledExecutorService getRetryTimer() {
+      if (retryTimer == null) {
+        synchronized (this) {
+          if (retryTimer == null) {
+            retryTimer = Executors.newSingleThreadScheduledExecutor(
+              Threads.newDaemonThreadFactory(toString() + "-retry-timer"));
+          }
+        }
+      }
+      return retryTimer;
+    }
+
     private void shutdownBatchPool() {
       if (this.cleanupPool && this.batchPool != null && !this.batchPool.isShutdown()) {
         this.batchPool.shutdown();
@@ -1371,6 +1407,51 @@ public class HConnectionManager {
       }
     }
 
+    /**
+     * Finds the read replicas of a region, as published in its hbase:meta row.
+     * @param hri the primary region
+     * @param useCache whether the replicas found by an earlier call may be returned
+     * @return the locations of the replicas on live servers, ordered by replica id; empty
+     * if the region has none
+     */
+    List<HRegionLocation> locateRegionReplicas(final HRegionInfo hri, boolean useCache)
+        throws IOException {
+      String encodedName = hri.getEncodedName();
+      if (useCache) {
+        List<HRegionLocation> cached = this.cachedReplicaLocations.get(encodedName);
+        if (cached != null) return cached;
+      } else {
+        this.cachedReplicaLocations.remove(encodedName);
+      }
+      final Get get = new Get(hri.getRegionName());
+      get.addFamily(HConstants.CATALOG_FAMILY);
+      Result r = rpcCallerFactory.<Result> newCaller().callWithRetries(
+        new RegionServerCallable<Result>(this, TableName.META_TABLE_NAME, hri.getRegionName()) {
+          @Override
+          public Result call() throws IOException {
+            return ProtobufUtil.get(getStub(), getLocation().getRegionInfo().getRegionName(),
+              get);
+          }
+        });
+      List<HRegionLocation> replicas = new ArrayList<HRegionLocation>();
+      for (ServerName sn : RegionReplicaUtil.getReplicaServerNames(r).values()) {
+        if (!isDeadServer(sn)) {
+          replicas.add(new HRegionLocation(hri, sn));
+        }
+      }
+      if (!replicas.isEmpty()) {
+        this.cachedReplicaLocations.put(encodedName, replicas);
+      }
+      return replicas;
+    }
+
+    /**
+     * Forgets the read replica locations of a region, e.g. after a replica failed.
+     */
+    void clearReplicaCache(final HRegionInfo hri) {
+      this.cachedReplicaLocations.remove(hri.getEncodedName());
+    }
+
     /*
      * Search the cache for a location that fits our table and row key.
      * Return null if no suitable region is located.
@@ -1487,6 +1568,7 @@ public class HConnectionManager {
     public void clearRegionCache() {
       this.cachedRegionLocations.clear();
       this.cachedServers.clear();
+      this.cachedReplicaLocations.clear();
     }
 
     @Override
@@ -1789,6 +1871,28 @@ public class HConnectionManager {
       return stub;
     }
 
+    /**
+     * Like {@link #getClient(ServerName)} but returns a non-blocking stub. Responses are
+     * delivered to the passed callbacks by the rpc client.
+     */
+    ClientService.Interface getAsyncClient(final ServerName sn) throws IOException {
+      if (isDeadServer(sn)) {
+        throw new RegionServerStoppedException(sn + " is dead.");
+      }
+      String key = getStubKey(ClientService.Interface.class.getName(), sn.getHostAndPort());
+      this.connectionLock.putIfAbsent(key, key);
+      ClientService.Interface stub = null;
+      synchronized (this.connectionLock.get(key)) {
+        stub = (ClientService.Interface)this.stubs.get(key);
+        if (stub == null) {
+          RpcChannel channel = this.rpcClient.createRpcChannel(sn, user, this.rpcTimeout);
+          stub = ClientService.newStub(channel);
+          this.stubs.put(key, stub);
+        }
+      }
+      return stub;
+    }
+
     static String getStubKey(final String serviceName, final String rsHostnamePort) {
       return serviceName + "@" + rsHostnamePort;
     }
@@ -2326,7 +2430,8 @@ public class HConnectionManager {
       HRegionInfo regionInfo = oldLocation.getRegionInfo();
       Throwable cause = findException(exception);
       if (cause != null) {
-        if (cause instanceof RegionTooBusyException || cause instanceof RegionOpeningException) {
+        if (cause instanceof RegionTooBusyException || cause instanceof RegionOpeningException
+            || cause instanceof CallDroppedException || cause instanceof ThrottlingException) {
           // We know that the region is still on this region server
           return;
         }
@@ -2605,6 +2710,9 @@ public class HConnectionManager {
       delayedClosing.stop("Closing connection");
       closeMaster();
       shutdownBatchPool();
+      if (retryTimer != null) {
+        retryTimer.shutdownNow();
+      }
       this.closed = true;
       closeZooKeeperWatcher();
       this.stubs.clear();
@@ -2845,14 +2953,16 @@ public class HConnectionManager {
     Throwable cur = (Throwable) exception;
     while (cur != null) {
       if (cur instanceof RegionMovedException || cur instanceof RegionOpeningException
-          || cur instanceof RegionTooBusyException) {
+          || cur instanceof RegionTooBusyException || cur instanceof CallDroppedException
+          || cur instanceof ThrottlingException) {
         return cur;
       }
       if (cur instanceof RemoteException) {
         RemoteException re = (RemoteException) cur;
         cur = re.unwrapRemoteException(
             RegionOpeningException.class, RegionMovedException.class,
-            RegionTooBusyException.class);
+            RegionTooBusyException.class, CallDroppedException.class,
+            ThrottlingException.class);
         if (cur == null) {
           cur = re.unwrapRemoteException();
         }
@@ -771,9 +771,15 @@ public class HTable implements HTableInterface {
 
     if (scan.isSmall()) {
       return new ClientSmallScanner(getConfiguration(), scan, getName(), this.connection);
-    } else {
-      return new ClientScanner(getConfiguration(), scan, getName(), this.connection);
     }
+    boolean asyncPrefetch = scan.isAsyncPrefetch() != null ? scan.isAsyncPrefetch()
+        : tableConfiguration.isScannerAsyncPrefetch();
+    if (asyncPrefetch) {
+      return new ClientAsyncPrefetchScanner(getConfiguration(), scan, getName(), this.connection,
+          RpcRetryingCallerFactory.instantiate(getConfiguration(),
+            this.connection.getStatisticsTracker()), this.rpcControllerFactory, this.pool);
+    }
+    return new ClientScanner(getConfiguration(), scan, getName(), this.connection);
   }
 
   /**
@@ -802,6 +808,11 @@ public class HTable implements HTableInterface {
    */
   @Override
   public Result get(final Get get) throws IOException {
+    if (get.getConsistency() == Consistency.TIMELINE
+        && connection instanceof HConnectionManager.HConnectionImplementation) {
+      return new ReadReplicaCaller((HConnectionManager.HConnectionImplementation) connection,
+        tableName, get, pool, rpcCallerFactory, rpcControllerFactory, operationTimeout).call();
+    }
     // have to instanatiate this and set the priority here since in protobuf util we don't pass in
     // the tablename... an unfortunate side-effect of public interfaces :-/ In 0.99+ we put all the
     // logic back into HTable
@@ -36,6 +36,7 @@ import com.google.common.collect.ListMultimap;
 @InterfaceStability.Evolving
 public abstract class Query extends OperationWithAttributes {
   private static final String ISOLATION_LEVEL = "_isolationlevel_";
+  private static final String CONSISTENCY = "_consistency_";
   protected Filter filter = null;
 
   /**
@@ -150,4 +151,22 @@ public abstract class Query extends OperationWithAttributes {
     return attr == null ? IsolationLevel.READ_COMMITTED :
                           IsolationLevel.fromBytes(attr);
   }
+
+  /**
+   * Sets the consistency level for this query. A query is {@link Consistency#STRONG}
+   * unless set otherwise.
+   * @param consistency the consistency level
+   */
+  public Query setConsistency(Consistency consistency) {
+    setAttribute(CONSISTENCY, consistency.toBytes());
+    return this;
+  }
+
+  /**
+   * @return The consistency level of this query
+   */
+  public Consistency getConsistency() {
+    byte[] attr = getAttribute(CONSISTENCY);
+    return attr == null ? Consistency.STRONG : Consistency.fromBytes(attr);
+  }
 }
@@ -0,0 +1,206 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.ipc.PayloadCarryingRpcController;
+import org.apache.hadoop.hbase.ipc.RpcControllerFactory;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * Runs a {@link Consistency#TIMELINE} get. The get is sent to the primary region first; if
+ * the primary has not answered after <code>hbase.client.primaryCallTimeout.get</code>
+ * microseconds it is also sent, once, to every read replica of the region. The first
+ * answer wins and the other calls are left to complete in the background. Answers of a
+ * replica are {@link Result#isStale() stale}.
+ */
+@InterfaceAudience.Private
+class ReadReplicaCaller {
+  private static final Log LOG = LogFactory.getLog(ReadReplicaCaller.class);
+
+  static final String PRIMARY_CALL_TIMEOUT_KEY = "hbase.client.primaryCallTimeout.get";
+  static final int DEFAULT_PRIMARY_CALL_TIMEOUT = 10000; // microseconds
+
+  private final HConnectionManager.HConnectionImplementation connection;
+  private final TableName tableName;
+  private final Get get;
+  private final ExecutorService pool;
+  private final RpcRetryingCallerFactory rpcCallerFactory;
+  private final RpcControllerFactory rpcControllerFactory;
+  private final int operationTimeout;
+  private final long primaryCallTimeoutMicros;
+
+  ReadReplicaCaller(HConnectionManager.HConnectionImplementation connection,
+      TableName tableName, Get get, ExecutorService pool,
+      RpcRetryingCallerFactory rpcCallerFactory, RpcControllerFactory rpcControllerFactory,
+      int operationTimeout) {
+    this.connection = connection;
+    this.tableName = tableName;
+    this.get = get;
+    this.pool = pool;
+    this.rpcCallerFactory = rpcCallerFactory;
+    this.rpcControllerFactory = rpcControllerFactory;
+    this.operationTimeout = operationTimeout;
+    this.primaryCallTimeoutMicros = connection.getConfiguration().getInt(
+      PRIMARY_CALL_TIMEOUT_KEY, DEFAULT_PRIMARY_CALL_TIMEOUT);
+  }
+
+  /**
+   * @return a copy of <code>r</code> flagged as stale
+   */
+  static Result markStale(Result r) {
+    Result stale = r.getExists() != null ? Result.create(null, r.getExists())
+      : Result.create(r.rawCells());
+    stale.setStale(true);
+    return stale;
+  }
+
+  Result call() throws IOException {
+    final long startTime = EnvironmentEdgeManager.currentTimeMillis();
+    CompletionService<Result> cs = new ExecutorCompletionService<Result>(pool);
+    List<Future<Result>> calls = new ArrayList<Future<Result>>();
+    final Future<Result> primary = cs.submit(new Callable<Result>() {
+      @Override
+      public Result call() throws Exception {
+        return rpcCallerFactory.<Result> newCaller().callWithRetries(
+          new GetCallable(null), operationTimeout);
+      }
+    });
+    calls.add(primary);
+    try {
+      Future<Result> done = cs.poll(primaryCallTimeoutMicros, TimeUnit.MICROSECONDS);
+      if (done != null) {
+        return get(done);
+      }
+
+      List<HRegionLocation> replicas;
+      try {
+        HRegionLocation location = connection.getRegionLocation(tableName, get.getRow(), false);
+        replicas = connection.locateRegionReplicas(location.getRegionInfo(), true);
+      } catch (IOException e) {
+        LOG.debug("Failed locating the read replicas of " + tableName + ", row="
+          + Bytes.toStringBinary(get.getRow()), e);
+        replicas = new ArrayList<HRegionLocation>(0);
+      }
+      for (final HRegionLocation replica : replicas) {
+        calls.add(cs.submit(new Callable<Result>() {
+          @Override
+          public Result call() throws Exception {
+            int remaining = operationTimeout
+              - (int) (EnvironmentEdgeManager.currentTimeMillis() - startTime);
+            try {
+              return markStale(rpcCallerFactory.<Result> newCaller().callWithoutRetries(
+                new GetCallable(replica), remaining));
+            } catch (IOException e) {
+              connection.clearReplicaCache(replica.getRegionInfo());
+              throw e;
+            }
+          }
+        }));
+      }
+
+      // First success wins; report the error of the primary if every call fails
+      IOException failure = null;
+      for (int pending = calls.size(); pending > 0; pending--) {
+        long remaining = operationTimeout
+          - (EnvironmentEdgeManager.currentTimeMillis() - startTime);
+        done = cs.poll(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+        if (done == null) {
+          throw new SocketTimeoutException("No answer to the timeline consistent get of row "
+            + Bytes.toStringBinary(get.getRow()) + " in " + operationTimeout + "ms");
+        }
+        try {
+          return get(done);
+        } catch (IOException e) {
+          if (failure == null || done == primary) failure = e;
+        }
+      }
+      throw failure;
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while waiting for the get of row "
+        + Bytes.toStringBinary(get.getRow()));
+    } finally {
+      for (Future<Result> f : calls) {
+        f.cancel(false);
+      }
+    }
+  }
+
+  private static Result get(Future<Result> done) throws IOException, InterruptedException {
+    try {
+      return done.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) throw (IOException) cause;
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Gets the row from the primary region, with the usual location lookup, or from the
+   * given read replica.
+   */
+  private class GetCallable extends RegionServerCallable<Result> {
+    private final HRegionLocation replica;
+
+    GetCallable(HRegionLocation replica) {
+      super(ReadReplicaCaller.this.connection, ReadReplicaCaller.this.tableName,
+        ReadReplicaCaller.this.get.getRow());
+      this.replica = replica;
+    }
+
+    @Override
+    public void prepare(boolean reload) throws IOException {
+      if (replica == null) {
+        super.prepare(reload);
+        return;
+      }
+      this.location = replica;
+      setStub(getConnection().getClient(replica.getServerName()));
+    }
+
+    @Override
+    public Result call() throws IOException {
+      PayloadCarryingRpcController controller = rpcControllerFactory.newController();
+      controller.setPriority(tableName);
+      return ProtobufUtil.get(getStub(), getLocation().getRegionInfo().getRegionName(), get,
+        controller);
+    }
+  }
+}
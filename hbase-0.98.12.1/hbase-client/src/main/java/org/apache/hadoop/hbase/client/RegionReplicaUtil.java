@@ -0,0 +1,101 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Utility methods for the read replicas of a region. Replica <code>n</code> (n &gt; 0) of a
+ * region is published in the region's hbase:meta row in the <code>info:server_%04X</code>
+ * and <code>info:serverstartcode_%04X</code> columns by the region server hosting it.
+ * Replica 0 is the primary region and uses the usual location columns.
+ */
+@InterfaceAudience.Private
+public class RegionReplicaUtil {
+  private static final Log LOG = LogFactory.getLog(RegionReplicaUtil.class);
+
+  /** The replica id of the primary region */
+  public static final int DEFAULT_REPLICA_ID = 0;
+
+  private static final char REPLICA_ID_DELIMITER = '_';
+  private static final String REPLICA_ID_FORMAT = "%04X";
+
+  private static final byte[] SERVER_PREFIX =
+    Bytes.add(HConstants.SERVER_QUALIFIER, new byte[] { REPLICA_ID_DELIMITER });
+
+  /**
+   * @return the hbase:meta column in the catalog family holding the host and port of the
+   * given replica
+   */
+  public static byte[] getServerColumn(int replicaId) {
+    return replicaId == DEFAULT_REPLICA_ID ? HConstants.SERVER_QUALIFIER
+      : Bytes.toBytes(Bytes.toString(HConstants.SERVER_QUALIFIER) + REPLICA_ID_DELIMITER
+        + String.format(REPLICA_ID_FORMAT, replicaId));
+  }
+
+  /**
+   * @return the hbase:meta column in the catalog family holding the start code of the
+   * server hosting the given replica
+   */
+  public static byte[] getStartCodeColumn(int replicaId) {
+    return replicaId == DEFAULT_REPLICA_ID ? HConstants.STARTCODE_QUALIFIER
+      : Bytes.toBytes(Bytes.toString(HConstants.STARTCODE_QUALIFIER) + REPLICA_ID_DELIMITER
+        + String.format(REPLICA_ID_FORMAT, replicaId));
+  }
+
+  /**
+   * Parses the read replica locations out of a hbase:meta row.
+   * @param r a row of hbase:meta
+   * @return the servers of the read replicas published in the row, by replica id; the
+   * primary region is not included
+   */
+  public static SortedMap<Integer, ServerName> getReplicaServerNames(final Result r) {
+    SortedMap<Integer, ServerName> servers = new TreeMap<Integer, ServerName>();
+    NavigableMap<byte[], byte[]> columns = r.getFamilyMap(HConstants.CATALOG_FAMILY);
+    if (columns == null) return servers;
+    for (Map.Entry<byte[], byte[]> e : columns.tailMap(SERVER_PREFIX, false).entrySet()) {
+      byte[] qualifier = e.getKey();
+      if (!Bytes.startsWith(qualifier, SERVER_PREFIX)) break;
+      if (e.getValue() == null || e.getValue().length == 0) continue;
+      int replicaId;
+      try {
+        replicaId = Integer.parseInt(Bytes.toString(qualifier, SERVER_PREFIX.length,
+          qualifier.length - SERVER_PREFIX.length), 16);
+      } catch (NumberFormatException nfe) {
+        LOG.warn("Ignoring unexpected hbase:meta column " + Bytes.toStringBinary(qualifier));
+        continue;
+      }
+      byte[] startCode = columns.get(getStartCodeColumn(replicaId));
+      if (startCode == null || startCode.length != Bytes.SIZEOF_LONG) continue;
+      servers.put(replicaId, ServerName.valueOf(Bytes.toString(e.getValue()),
+        Bytes.toLong(startCode)));
+    }
+    return servers;
+  }
+}
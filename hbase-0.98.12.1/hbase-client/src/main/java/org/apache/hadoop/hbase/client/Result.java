@@ -95,6 +95,7 @@ public class Result implements CellScannable, CellScanner {
    */
   private int cellScannerIndex = INITIAL_CELLSCANNER_INDEX;
   private ClientProtos.RegionLoadStats loadStats;
+  private boolean stale = false;
 
   private final boolean readonly;
 
@@ -876,6 +877,19 @@ public class Result implements CellScannable, CellScanner {
     return loadStats;
   }
 
+  /**
+   * Whether or not the result comes from a secondary region replica, which may not have
+   * seen the latest writes. Only {@link Consistency#TIMELINE} reads return stale results.
+   */
+  public boolean isStale() {
+    return stale;
+  }
+
+  void setStale(boolean stale) {
+    checkReadonly();
+    this.stale = stale;
+  }
+
   /**
    * All methods modifying state of Result object must call this method
    * to ensure that special purpose immutable Results can't be accidentally modified.
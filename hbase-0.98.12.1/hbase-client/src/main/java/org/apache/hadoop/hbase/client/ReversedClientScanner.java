@@ -131,6 +131,7 @@ public class ReversedClientScanner extends ClientScanner {
         new ReversedScannerCallable(getConnection(), getTable(), scan, this.scanMetrics,
             locateStartRow, rpcControllerFactory.newController());
     s.setCaching(nbRows);
+    s.setRequestAttributes(requestAttributes);
     return s;
   }
 
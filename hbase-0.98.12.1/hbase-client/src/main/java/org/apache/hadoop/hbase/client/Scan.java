@@ -126,6 +126,14 @@ public class Scan extends Query {
   // define this attribute with the appropriate table name by calling
   // scan.setAttribute(Scan.SCAN_ATTRIBUTES_TABLE_NAME, Bytes.toBytes(tableName))
   static public final String SCAN_ATTRIBUTES_TABLE_NAME = "scan.attributes.table.name";
+
+  // Added by the ClientScanner to the requests opening scanners, not to the Scan itself: it
+  // takes empty responses the server sends to keep a scan alive while it filters rows out, and
+  // parts of rows it stitches back together
+  static public final String SCAN_ATTRIBUTES_HEARTBEATS_ENABLE =
+      "scan.attributes.heartbeats.enable";
+  static public final String SCAN_ATTRIBUTES_PARTIAL_RESULTS_ENABLE =
+      "scan.attributes.partial.results.enable";
   
   /*
    * -1 means no caching
@@ -159,6 +167,12 @@ public class Scan extends Query {
    */
   private boolean small = false;
 
+  /**
+   * Whether the client scanner loads the next results in the background; if not set, the
+   * cluster default applies
+   */
+  private Boolean asyncPrefetch = null;
+
   /**
    * Create a Scan operation across all rows.
    */
@@ -215,6 +229,7 @@ public class Scan extends Query {
     tr = new TimeRange(ctr.getMin(), ctr.getMax());
     reversed = scan.isReversed();
     small = scan.isSmall();
+    asyncPrefetch = scan.isAsyncPrefetch();
     Map<byte[], NavigableSet<byte[]>> fams = scan.getFamilyMap();
     for (Map.Entry<byte[],NavigableSet<byte[]>> entry : fams.entrySet()) {
       byte [] fam = entry.getKey();
@@ -438,6 +453,12 @@ public class Scan extends Query {
     return this;
   }
 
+  @Override
+  public Scan setConsistency(Consistency consistency) {
+    super.setConsistency(consistency);
+    return this;
+  }
+
   /**
    * Setting the familyMap
    * @param familyMap map of family to qualifier
@@ -772,4 +793,27 @@ public class Scan extends Query {
   public boolean isSmall() {
     return small;
   }
+
+  /**
+   * Set whether the client scanner loads the next results in the background while the
+   * application processes the current ones, rather than only once it has consumed them all.
+   * This hides the round trips to the region servers from scans of many rows, at the cost of
+   * holding up to about twice the caching, or the max result size, in memory. Ignored by small
+   * and reversed scans.
+   * @param asyncPrefetch
+   * @return this
+   */
+  public Scan setAsyncPrefetch(boolean asyncPrefetch) {
+    this.asyncPrefetch = asyncPrefetch;
+    return this;
+  }
+
+  /**
+   * Get whether the client scanner loads the next results in the background
+   * @return the setting, or null if not set, in which case
+   *   {@link HConstants#HBASE_CLIENT_SCANNER_ASYNC_PREFETCH} applies
+   */
+  public Boolean isAsyncPrefetch() {
+    return asyncPrefetch;
+  }
 }
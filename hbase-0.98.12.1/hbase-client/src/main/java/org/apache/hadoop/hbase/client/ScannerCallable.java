@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.client;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -66,6 +67,8 @@ public class ScannerCallable extends RegionServerCallable<Result[]> {
   protected boolean instantiated = false;
   private boolean closed = false;
   private Scan scan;
+  /** Attributes the open request carries on top of those of the scan, null if none */
+  private Map<String, byte[]> requestAttributes = null;
   private int caching = 1;
   protected ScanMetrics scanMetrics;
   private boolean logScannerActivity = false;
@@ -313,7 +316,7 @@ public class ScannerCallable extends RegionServerCallable<Result[]> {
     ScanRequest request =
       RequestConverter.buildScanRequest(
         getLocation().getRegionInfo().getRegionName(),
-        this.scan, 0, false);
+        this.scan, 0, false, this.requestAttributes);
     try {
       ScanResponse response = getStub().scan(null, request);
       long id = response.getScannerId();
@@ -331,6 +334,21 @@ public class ScannerCallable extends RegionServerCallable<Result[]> {
     return scan;
   }
 
+  /**
+   * @param requestAttributes attributes the request opening the scanner carries on top of
+   *   those of the scan, for the server behaviours the caller handles; the scan is left alone
+   */
+  void setRequestAttributes(Map<String, byte[]> requestAttributes) {
+    this.requestAttributes = requestAttributes;
+  }
+
+  /**
+   * @return true from the time the scanner is opened on the region server until it is closed
+   */
+  protected boolean isScannerOpen() {
+    return this.scannerId != -1L;
+  }
+
   /**
    * Call this when the next invocation of call should close the scanner
    */
@@ -44,6 +44,8 @@ public class TableConfiguration {
 
   private final int scannerCaching;
 
+  private final boolean scannerAsyncPrefetch;
+
   private final int retries;
 
   private final int maxKeyValueSize;
@@ -65,6 +67,10 @@ public class TableConfiguration {
     this.scannerCaching = conf.getInt(
       HConstants.HBASE_CLIENT_SCANNER_CACHING, HConstants.DEFAULT_HBASE_CLIENT_SCANNER_CACHING);
 
+    this.scannerAsyncPrefetch = conf.getBoolean(
+      HConstants.HBASE_CLIENT_SCANNER_ASYNC_PREFETCH,
+      HConstants.DEFAULT_HBASE_CLIENT_SCANNER_ASYNC_PREFETCH);
+
     this.retries = conf.getInt(
        HConstants.HBASE_CLIENT_RETRIES_NUMBER, HConstants.DEFAULT_HBASE_CLIENT_RETRIES_NUMBER);
 
@@ -82,6 +88,7 @@ public class TableConfiguration {
     this.metaOperationTimeout = HConstants.DEFAULT_HBASE_CLIENT_OPERATION_TIMEOUT;
     this.operationTimeout = HConstants.DEFAULT_HBASE_CLIENT_OPERATION_TIMEOUT;
     this.scannerCaching = HConstants.DEFAULT_HBASE_CLIENT_SCANNER_CACHING;
+    this.scannerAsyncPrefetch = HConstants.DEFAULT_HBASE_CLIENT_SCANNER_ASYNC_PREFETCH;
     this.retries = HConstants.DEFAULT_HBASE_CLIENT_RETRIES_NUMBER;
     this.maxKeyValueSize = -1;
   }
@@ -102,6 +109,10 @@ public class TableConfiguration {
     return scannerCaching;
   }
 
+  public boolean isScannerAsyncPrefetch() {
+    return scannerAsyncPrefetch;
+  }
+
   public int getRetriesNumber() {
     return retries;
   }
@@ -0,0 +1,120 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.ipc.PayloadCarryingRpcController;
+
+/**
+ * Scanner callable of a {@link Consistency#TIMELINE} scan. When opening the scanner on
+ * the primary region fails, the retries go round robin over the read replicas of the
+ * region and the primary, without pausing before a replica. Rows read from a replica are
+ * {@link Result#isStale() stale}. Once the scanner is open, failures are handled as for
+ * any other scan.
+ */
+@InterfaceAudience.Private
+class TimelineScannerCallable extends ScannerCallable {
+  private final HConnectionManager.HConnectionImplementation hci;
+  private List<HRegionLocation> replicas;
+  // 0 for the primary region, i for replicas[i - 1]
+  private int target = 0;
+
+  TimelineScannerCallable(HConnectionManager.HConnectionImplementation connection,
+      TableName tableName, Scan scan, ScanMetrics scanMetrics,
+      PayloadCarryingRpcController controller) {
+    super(connection, tableName, scan, scanMetrics, controller);
+    this.hci = connection;
+  }
+
+  private int nextTarget() {
+    if (replicas == null) {
+      HRegionInfo hri = getHRegionInfo();
+      if (hri == null) {
+        // The primary region was never located; nothing to fail over to yet
+        return 0;
+      }
+      try {
+        replicas = hci.locateRegionReplicas(hri, true);
+      } catch (IOException e) {
+        LOG.debug("Failed locating the read replicas of " + hri.getRegionNameAsString(), e);
+        replicas = Collections.emptyList();
+      }
+    }
+    return (target + 1) % (replicas.size() + 1);
+  }
+
+  @Override
+  public void prepare(boolean reload) throws IOException {
+    if (!reload) {
+      // Stays on the replica the scanner was opened on, if any
+      super.prepare(false);
+      return;
+    }
+    if (isScannerOpen()) {
+      target = 0;
+      super.prepare(true);
+      return;
+    }
+    target = nextTarget();
+    if (target == 0) {
+      super.prepare(true);
+      return;
+    }
+    HRegionLocation replica = replicas.get(target - 1);
+    setLocation(replica);
+    setStub(getConnection().getClient(replica.getServerName()));
+    checkIfRegionServerIsRemote();
+    instantiated = true;
+  }
+
+  @Override
+  public void throwable(Throwable t, boolean retrying) {
+    super.throwable(t, retrying);
+    if (target != 0) {
+      hci.clearReplicaCache(getLocation().getRegionInfo());
+    }
+  }
+
+  @Override
+  public long sleep(long pause, int tries) {
+    if (!isScannerOpen() && nextTarget() != 0) {
+      return 0;
+    }
+    return super.sleep(pause, tries);
+  }
+
+  @Override
+  public Result[] call() throws IOException {
+    Result[] results = super.call();
+    if (target != 0 && results != null) {
+      for (int i = 0; i < results.length; i++) {
+        results[i] = ReadReplicaCaller.markStale(results[i]);
+      }
+    }
+    return results;
+  }
+}
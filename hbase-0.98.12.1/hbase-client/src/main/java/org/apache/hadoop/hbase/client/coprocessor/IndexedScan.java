@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client.coprocessor;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A {@link Scan} that looks up the rows whose latest version of a column holds a given value,
+ * through the region-local index kept by
+ * <code>org.apache.hadoop.hbase.coprocessor.RegionIndexObserver</code> on the table. Each
+ * region seeks the matching rows directly rather than filtering all of its rows, so the
+ * column must be one the table indexes. On a table without the observer, it is a plain scan
+ * returning every row.
+ * <p>
+ * Start and stop rows, families, columns, time range, max versions and filter apply to the
+ * rows looked up as they would to any scan. Rows come back sorted within a region. Batching
+ * rows into partial results is not supported.
+ * <p>
+ * Example:
+ * <code><pre>
+ * Scan scan = new IndexedScan(Bytes.toBytes("f"), Bytes.toBytes("email"),
+ *     Bytes.toBytes("someone@example.com"));
+ * ResultScanner scanner = table.getScanner(scan);
+ * </pre></code>
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class IndexedScan extends Scan {
+  /** Scan attribute holding the column and value to look up */
+  public static final String INDEX_LOOKUP_ATTRIBUTE = "_region_index.lookup";
+
+  /**
+   * Looks up the rows of the whole table whose column holds the value.
+   * @param family family of the indexed column
+   * @param qualifier qualifier of the indexed column
+   * @param value the value to look up
+   */
+  public IndexedScan(byte[] family, byte[] qualifier, byte[] value) {
+    super();
+    setIndexLookup(this, family, qualifier, value);
+  }
+
+  /**
+   * Looks up the rows within the range, families and filter of a scan.
+   * @param scan the scan to copy
+   * @param family family of the indexed column
+   * @param qualifier qualifier of the indexed column
+   * @param value the value to look up
+   * @throws IOException if the scan cannot be copied
+   */
+  public IndexedScan(Scan scan, byte[] family, byte[] qualifier, byte[] value)
+      throws IOException {
+    super(scan);
+    setIndexLookup(this, family, qualifier, value);
+  }
+
+  /**
+   * Makes the scan an index lookup.
+   * @param scan the scan
+   * @param family family of the indexed column
+   * @param qualifier qualifier of the indexed column
+   * @param value the value to look up
+   */
+  public static void setIndexLookup(Scan scan, byte[] family, byte[] qualifier, byte[] value) {
+    byte[] lookup = new byte[Bytes.SIZEOF_SHORT * 2 + family.length + qualifier.length
+        + value.length];
+    int offset = Bytes.putShort(lookup, 0, (short) family.length);
+    offset = Bytes.putBytes(lookup, offset, family, 0, family.length);
+    offset = Bytes.putShort(lookup, offset, (short) qualifier.length);
+    offset = Bytes.putBytes(lookup, offset, qualifier, 0, qualifier.length);
+    Bytes.putBytes(lookup, offset, value, 0, value.length);
+    scan.setAttribute(INDEX_LOOKUP_ATTRIBUTE, lookup);
+  }
+
+  /**
+   * @param scan the scan
+   * @return The family, qualifier and value the scan looks up, or null if it is not an index
+   * lookup
+   */
+  public static byte[][] getIndexLookup(Scan scan) {
+    byte[] lookup = scan.getAttribute(INDEX_LOOKUP_ATTRIBUTE);
+    if (lookup == null) {
+      return null;
+    }
+    int offset = 0;
+    short familyLength = Bytes.toShort(lookup, offset);
+    offset += Bytes.SIZEOF_SHORT;
+    byte[] family = Bytes.copy(lookup, offset, familyLength);
+    offset += familyLength;
+    short qualifierLength = Bytes.toShort(lookup, offset);
+    offset += Bytes.SIZEOF_SHORT;
+    byte[] qualifier = Bytes.copy(lookup, offset, qualifierLength);
+    offset += qualifierLength;
+    byte[] value = Bytes.copy(lookup, offset, lookup.length - offset);
+    return new byte[][] { family, qualifier, value };
+  }
+}
@@ -0,0 +1,660 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.ipc;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.ByteBufferOutputStream;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.CellBlockMeta;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ConnectionHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ExceptionResponse;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.ResponseHeader;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.UserInformation;
+import org.apache.hadoop.hbase.protobuf.generated.TracingProtos.RPCTInfo;
+import org.apache.hadoop.hbase.security.AuthMethod;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.security.UserProvider;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.cloudera.htrace.Span;
+import org.cloudera.htrace.Trace;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.Message.Builder;
+
+/**
+ * An {@link RpcClient} that does all of its network I/O on one selector thread rather than
+ * running a reader thread per connection and parking every caller on its Call. There is a
+ * single non-blocking socket per server, user and service; requests are pipelined over it and
+ * each call completes a {@link ListenableFuture} when its response comes in, so callers going
+ * via {@link #createRpcChannel(ServerName, User, int)} never wait. Blocking stubs keep working
+ * unchanged and simply wait on the future.
+ * <p>
+ * Listeners of the futures, and so the callbacks of rpc channels, run on the selector thread
+ * and must not block. The rpc timeout is enforced per call rather than per connection, so one
+ * slow call does not fail the others sharing its socket.
+ * <p>
+ * SASL is not implemented on the non-blocking path: when HBase security is enabled all calls
+ * go via the blocking connections of {@link RpcClient}. Set
+ * {@link RpcClientFactory#CUSTOM_RPC_CLIENT_IMPL_CONF_KEY} to this class to use it.
+ */
+@InterfaceAudience.Private
+public class AsyncRpcClient extends RpcClient {
+  /** Size of the buffer the selector thread reads responses into */
+  static final int READ_BUFFER_SIZE = 64 * 1024;
+  /** Most queued requests handed to the socket in one gathering write */
+  static final int MAX_GATHERED_WRITES = 64;
+  /** How often, in ms, outstanding calls are checked against their timeout */
+  static final int TIMEOUT_CHECK_INTERVAL = 100;
+
+  private final boolean secure;
+  private final int connectTimeout;
+  private final ConcurrentMap<ConnectionId, AsyncConnection> asyncConnections =
+    new ConcurrentHashMap<ConnectionId, AsyncConnection>();
+  private final Reactor reactor;
+
+  public AsyncRpcClient(Configuration conf, String clusterId) {
+    this(conf, clusterId, null);
+  }
+
+  public AsyncRpcClient(Configuration conf, String clusterId, SocketAddress localAddr) {
+    super(conf, clusterId, localAddr);
+    this.secure = UserProvider.instantiate(conf).isHBaseSecurityEnabled();
+    this.connectTimeout = getSocketTimeout(conf);
+    try {
+      this.reactor = new Reactor();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to open selector", e);
+    }
+    this.reactor.start();
+    if (this.secure) {
+      LOG.info("HBase security is enabled; rpcs will go via blocking connections");
+    }
+  }
+
+  /** A call whose completion is signalled through a future rather than notify. */
+  protected class AsyncCall extends Call {
+    final SettableFuture<Pair<Message, CellScanner>> future = SettableFuture.create();
+    final InetSocketAddress addr;
+    final int rpcTimeout;
+
+    protected AsyncCall(final MethodDescriptor md, final Message param, final CellScanner cells,
+        final Message responseDefaultType, final InetSocketAddress addr, final int rpcTimeout) {
+      super(md, param, cells, responseDefaultType);
+      this.addr = addr;
+      this.rpcTimeout = rpcTimeout;
+    }
+
+    @Override
+    protected void callComplete() {
+      this.done = true;
+      if (this.error == null) {
+        this.future.set(new Pair<Message, CellScanner>(this.response, this.cells));
+      } else if (this.error instanceof RemoteException) {
+        this.future.setException(this.error);
+      } else {
+        this.future.setException(wrapException(this.addr, this.error));
+      }
+    }
+
+    boolean isExpired(final long now) {
+      return this.rpcTimeout > 0 && now - getStartTime() >= this.rpcTimeout;
+    }
+  }
+
+  @Override
+  ListenableFuture<Pair<Message, CellScanner>> callAsync(MethodDescriptor md, Message param,
+      CellScanner cells, Message returnType, User ticket, InetSocketAddress addr,
+      int rpcTimeout, int priority) {
+    if (this.secure) {
+      return super.callAsync(md, param, cells, returnType, ticket, addr, rpcTimeout, priority);
+    }
+    AsyncCall call = new AsyncCall(md, param, cells, returnType, addr, rpcTimeout);
+    try {
+      ByteBuffer request = null;
+      // A connection closed under us, say for being idle, is dropped from the pool right after,
+      // so retrying gets a new one.
+      AsyncConnection connection;
+      do {
+        connection = getAsyncConnection(ticket, md, addr);
+        if (request == null) request = connection.buildRequest(call, priority);
+      } while (!connection.sendCall(call, request));
+    } catch (IOException e) {
+      call.setException(e);
+    }
+    return call.future;
+  }
+
+  @Override
+  Pair<Message, CellScanner> call(MethodDescriptor md, Message param, CellScanner cells,
+      Message returnType, User ticket, InetSocketAddress addr, int rpcTimeout, int priority)
+  throws InterruptedException, IOException {
+    if (this.secure) {
+      return super.call(md, param, cells, returnType, ticket, addr, rpcTimeout, priority);
+    }
+    try {
+      return callAsync(md, param, cells, returnType, ticket, addr, rpcTimeout, priority).get();
+    } catch (ExecutionException e) {
+      Throwable t = e.getCause();
+      if (t instanceof RemoteException) {
+        t.fillInStackTrace();
+      }
+      if (t instanceof IOException) throw (IOException)t;
+      throw new IOException(t);
+    }
+  }
+
+  private AsyncConnection getAsyncConnection(User ticket, MethodDescriptor md,
+      InetSocketAddress addr) throws IOException {
+    if (!running.get()) throw new StoppedRpcClientException();
+    // Unlike the blocking connections these are not keyed by rpc timeout, it is kept per call.
+    ConnectionId remoteId = new ConnectionId(ticket, md.getService().getName(), addr, 0);
+    AsyncConnection connection = this.asyncConnections.get(remoteId);
+    if (connection == null) {
+      synchronized (this.asyncConnections) {
+        connection = this.asyncConnections.get(remoteId);
+        if (connection == null) {
+          if (failedServers.isFailedServer(addr)) {
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Not trying to connect to " + addr +
+                " this server is in the failed servers list");
+            }
+            throw new FailedServerException("This server is in the failed servers list: " + addr);
+          }
+          connection = new AsyncConnection(remoteId);
+          this.asyncConnections.put(remoteId, connection);
+          this.reactor.register(connection);
+        }
+      }
+    }
+    return connection;
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    this.reactor.selector.wakeup();
+    try {
+      this.reactor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void cancelConnections(String hostname, int port, IOException ioe) {
+    super.cancelConnections(hostname, port, ioe);
+    for (AsyncConnection connection : this.asyncConnections.values()) {
+      InetSocketAddress address = connection.remoteId.getAddress();
+      if (address.getPort() == port && address.getHostName().equals(hostname)) {
+        LOG.info("The server on " + hostname + ":" + port +
+          " is dead - stopping the connection " + connection.remoteId);
+        connection.close(ioe);
+      }
+    }
+  }
+
+  /**
+   * A non-blocking socket to one server, shared by all the calls made as one user against one
+   * service. Callers serialize their requests and queue them; everything else happens on the
+   * {@link Reactor} thread.
+   */
+  protected class AsyncConnection {
+    final ConnectionId remoteId;
+    // currently active calls
+    final ConcurrentSkipListMap<Integer, AsyncCall> calls =
+      new ConcurrentSkipListMap<Integer, AsyncCall>();
+    // requests not yet written out; the connection preamble and header go first
+    private final ConcurrentLinkedQueue<ByteBuffer> outQueue =
+      new ConcurrentLinkedQueue<ByteBuffer>();
+    // set while the reactor has a flush of outQueue pending
+    private final AtomicBoolean writePending = new AtomicBoolean(true);
+    private final long createTime = System.currentTimeMillis();
+    private volatile long lastActivity = createTime;
+    private boolean closed;
+    private IOException closeException;
+
+    // Only touched by the reactor thread
+    private SocketChannel channel;
+    private SelectionKey key;
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(Bytes.SIZEOF_INT);
+    private byte [] frame;
+    private int framePos;
+
+    AsyncConnection(final ConnectionId remoteId) throws IOException {
+      if (remoteId.getAddress().isUnresolved()) {
+        throw new UnknownHostException("unknown host: " + remoteId.getAddress().getHostName());
+      }
+      this.remoteId = remoteId;
+      this.outQueue.add(buildConnectionHeader());
+    }
+
+    /**
+     * @return The preamble -- MAGIC, version and auth -- followed by the connection header
+     */
+    private ByteBuffer buildConnectionHeader() throws IOException {
+      ConnectionHeader.Builder builder = ConnectionHeader.newBuilder();
+      builder.setServiceName(this.remoteId.getServiceName());
+      UserGroupInformation ugi = this.remoteId.getTicket() == null? null:
+        this.remoteId.getTicket().getUGI();
+      if (ugi != null) {
+        UserInformation.Builder userInfoPB = UserInformation.newBuilder();
+        userInfoPB.setEffectiveUser(ugi.getUserName());
+        if (ugi.getRealUser() != null) {
+          userInfoPB.setRealUser(ugi.getRealUser().getUserName());
+        }
+        builder.setUserInfo(userInfoPB.build());
+      }
+      if (codec != null) {
+        builder.setCellBlockCodecClass(codec.getClass().getCanonicalName());
+      }
+      if (compressor != null) {
+        builder.setCellBlockCompressorClass(compressor.getClass().getCanonicalName());
+      }
+      ConnectionHeader header = builder.build();
+      int rpcHeaderLen = HConstants.RPC_HEADER.array().length;
+      ByteBufferOutputStream bbos = new ByteBufferOutputStream(rpcHeaderLen + 2 +
+        Bytes.SIZEOF_INT + header.getSerializedSize());
+      bbos.write(HConstants.RPC_HEADER.array());
+      bbos.write(HConstants.RPC_CURRENT_VERSION);
+      bbos.write(AuthMethod.SIMPLE.code);
+      bbos.write(Bytes.toBytes(header.getSerializedSize()));
+      header.writeTo(bbos);
+      return bbos.getByteBuffer();
+    }
+
+    /**
+     * Serializes a request; done in the calling thread so the reactor only copies bytes.
+     */
+    ByteBuffer buildRequest(final AsyncCall call, final int priority) throws IOException {
+      RequestHeader.Builder builder = RequestHeader.newBuilder();
+      builder.setCallId(call.id);
+      if (Trace.isTracing()) {
+        Span s = Trace.currentSpan();
+        builder.setTraceInfo(RPCTInfo.newBuilder().
+          setParentId(s.getSpanId()).setTraceId(s.getTraceId()));
+      }
+      builder.setMethodName(call.md.getName());
+      builder.setRequestParam(call.param != null);
+      ByteBuffer cellBlock = ipcUtil.buildCellBlock(codec, compressor, call.cells);
+      if (cellBlock != null) {
+        CellBlockMeta.Builder cellBlockBuilder = CellBlockMeta.newBuilder();
+        cellBlockBuilder.setLength(cellBlock.limit());
+        builder.setCellBlockMeta(cellBlockBuilder.build());
+      }
+      // Only pass priority if there one.  Let zero be same as no priority.
+      if (priority != 0) builder.setPriority(priority);
+      RequestHeader header = builder.build();
+      int totalSize = IPCUtil.getTotalSizeWhenWrittenDelimited(header, call.param);
+      if (cellBlock != null) totalSize += cellBlock.remaining();
+      ByteBufferOutputStream bbos = new ByteBufferOutputStream(Bytes.SIZEOF_INT + totalSize);
+      IPCUtil.write(bbos, header, call.param, cellBlock);
+      return bbos.getByteBuffer();
+    }
+
+    /**
+     * Queues a request for writing.
+     * @return false if the connection is closed and the call should go to a new one
+     */
+    boolean sendCall(final AsyncCall call, final ByteBuffer request) {
+      synchronized (this) {
+        if (this.closed) return false;
+        this.calls.put(call.id, call);
+        this.outQueue.add(request);
+      }
+      if (this.writePending.compareAndSet(false, true)) {
+        reactor.scheduleWrite(this);
+      }
+      return true;
+    }
+
+    void connect(final Selector selector) throws IOException {
+      try {
+        this.channel = SocketChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.socket().setTcpNoDelay(tcpNoDelay);
+        this.channel.socket().setKeepAlive(tcpKeepAlive);
+        if (localAddr != null) {
+          this.channel.socket().bind(localAddr);
+        }
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Connecting to " + this.remoteId.getAddress());
+        }
+        if (this.channel.connect(this.remoteId.getAddress())) {
+          this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+          doWrite();
+        } else {
+          this.key = this.channel.register(selector, SelectionKey.OP_CONNECT, this);
+        }
+      } catch (IOException e) {
+        failedServers.addToFailedServers(this.remoteId.getAddress());
+        throw e;
+      }
+    }
+
+    void finishConnect() throws IOException {
+      try {
+        if (!this.channel.finishConnect()) return;
+      } catch (IOException e) {
+        failedServers.addToFailedServers(this.remoteId.getAddress());
+        throw e;
+      }
+      this.key.interestOps(SelectionKey.OP_READ);
+      doWrite();
+    }
+
+    /**
+     * Hands as many queued requests to the socket as it takes without blocking.
+     */
+    void doWrite() throws IOException {
+      if (this.channel == null || !this.channel.isConnected()) return;
+      // Clear before draining: a request queued after this either goes out now or schedules
+      // another flush.
+      this.writePending.set(false);
+      ByteBuffer [] batch = reactor.writeBatch;
+      try {
+        while (true) {
+          int n = 0;
+          for (Iterator<ByteBuffer> it = this.outQueue.iterator();
+              it.hasNext() && n < batch.length;) {
+            batch[n++] = it.next();
+          }
+          if (n == 0) break;
+          this.channel.write(batch, 0, n);
+          int written = 0;
+          while (written < n && !batch[written].hasRemaining()) {
+            this.outQueue.poll();
+            written++;
+          }
+          if (written < n) break;
+        }
+      } finally {
+        Arrays.fill(batch, null);
+      }
+      this.lastActivity = System.currentTimeMillis();
+      this.key.interestOps(this.outQueue.isEmpty()? SelectionKey.OP_READ:
+        SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Reads what is available and completes the calls whose responses are now whole.
+     */
+    void doRead(final ByteBuffer readBuffer) throws IOException {
+      readBuffer.clear();
+      int count = this.channel.read(readBuffer);
+      if (count < 0) {
+        throw new EOFException("Connection to " + this.remoteId.getAddress() +
+          " closed by peer");
+      }
+      this.lastActivity = System.currentTimeMillis();
+      readBuffer.flip();
+      while (readBuffer.hasRemaining()) {
+        if (this.frame == null) {
+          while (this.lengthBuffer.hasRemaining() && readBuffer.hasRemaining()) {
+            this.lengthBuffer.put(readBuffer.get());
+          }
+          if (this.lengthBuffer.hasRemaining()) break;
+          this.lengthBuffer.flip();
+          int totalSize = this.lengthBuffer.getInt();
+          this.lengthBuffer.clear();
+          if (totalSize <= 0) {
+            throw new IOException("Bad response length " + totalSize + " from " +
+              this.remoteId.getAddress());
+          }
+          this.frame = new byte [totalSize];
+          this.framePos = 0;
+        }
+        int length = Math.min(readBuffer.remaining(), this.frame.length - this.framePos);
+        readBuffer.get(this.frame, this.framePos, length);
+        this.framePos += length;
+        if (this.framePos == this.frame.length) {
+          byte [] response = this.frame;
+          this.frame = null;
+          processResponse(response);
+        }
+      }
+    }
+
+    private void processResponse(final byte [] response) throws IOException {
+      ByteArrayInputStream in = new ByteArrayInputStream(response);
+      ResponseHeader responseHeader = ResponseHeader.parseDelimitedFrom(in);
+      int id = responseHeader.getCallId();
+      AsyncCall call = this.calls.remove(id);
+      if (responseHeader.hasException()) {
+        ExceptionResponse exceptionResponse = responseHeader.getException();
+        RemoteException re = createRemoteException(exceptionResponse);
+        if (call != null) call.setException(re);
+        if (isFatalConnectionException(exceptionResponse)) throw re;
+        return;
+      }
+      if (call == null) {
+        // Timed out and cleaned up already; nothing to do with the response.
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Unknown callId: " + id + ", skipping over this response of " +
+            response.length + " bytes");
+        }
+        return;
+      }
+      Message value = null;
+      if (call.responseDefaultType != null) {
+        Builder builder = call.responseDefaultType.newBuilderForType();
+        builder.mergeDelimitedFrom(in);
+        value = builder.build();
+      }
+      CellScanner cellBlockScanner = null;
+      if (responseHeader.hasCellBlockMeta()) {
+        // The cell block, when there is one, is the tail of the response.
+        int size = responseHeader.getCellBlockMeta().getLength();
+        cellBlockScanner = ipcUtil.createCellScanner(codec, compressor, response,
+          response.length - size, size);
+      }
+      call.setResponse(value, cellBlockScanner);
+    }
+
+    /**
+     * Fails the calls that have run past their timeout and, if there is nothing outstanding
+     * and the connection has been idle too long, closes it.
+     */
+    void checkTimeouts(final long now) {
+      if (this.channel != null && !this.channel.isConnected() &&
+          now - this.createTime >= connectTimeout) {
+        failedServers.addToFailedServers(this.remoteId.getAddress());
+        close(new SocketTimeoutException("Timed out connecting to " + this.remoteId.getAddress() +
+          " after " + connectTimeout + "ms"));
+        return;
+      }
+      for (Iterator<AsyncCall> it = this.calls.values().iterator(); it.hasNext();) {
+        AsyncCall call = it.next();
+        if (call.isExpired(now)) {
+          it.remove();
+          call.setException(new CallTimeoutException("Call id=" + call.id +
+            ", waitTime=" + (now - call.getStartTime()) + ", rpcTimeout=" + call.rpcTimeout));
+        }
+      }
+      synchronized (this) {
+        if (this.closed || !this.calls.isEmpty() || !this.outQueue.isEmpty() ||
+            now - this.lastActivity < maxIdleTime) {
+          return;
+        }
+        this.closed = true;
+        this.closeException = new IOException("Connection to " + this.remoteId.getAddress() +
+          " closed after being idle for " + maxIdleTime + "ms");
+      }
+      cleanup();
+    }
+
+    /**
+     * Closes the socket and fails the outstanding calls with <code>e</code>. Safe to call more
+     * than once and from any thread.
+     */
+    void close(final IOException e) {
+      synchronized (this) {
+        if (this.closed) return;
+        this.closed = true;
+        this.closeException = e;
+      }
+      cleanup();
+    }
+
+    private void cleanup() {
+      asyncConnections.remove(this.remoteId, this);
+      if (this.key != null) this.key.cancel();
+      IOUtils.closeStream(this.channel);
+      for (Iterator<AsyncCall> it = this.calls.values().iterator(); it.hasNext();) {
+        AsyncCall call = it.next();
+        it.remove();
+        call.setException(this.closeException);
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Closed async connection to " + this.remoteId + ": " +
+          this.closeException.getMessage());
+      }
+    }
+  }
+
+  /**
+   * The one thread that connects, writes and reads on behalf of all the
+   * {@link AsyncConnection}s of this client.
+   */
+  private class Reactor extends Thread {
+    final Selector selector;
+    final ByteBuffer [] writeBatch = new ByteBuffer [MAX_GATHERED_WRITES];
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ConcurrentLinkedQueue<AsyncConnection> pendingConnects =
+      new ConcurrentLinkedQueue<AsyncConnection>();
+    private final ConcurrentLinkedQueue<AsyncConnection> pendingWrites =
+      new ConcurrentLinkedQueue<AsyncConnection>();
+    private long lastTimeoutCheck = System.currentTimeMillis();
+
+    Reactor() throws IOException {
+      super("IPC Client (" + socketFactory.hashCode() + ") async reactor");
+      setDaemon(true);
+      this.selector = Selector.open();
+    }
+
+    void register(final AsyncConnection connection) {
+      this.pendingConnects.add(connection);
+      this.selector.wakeup();
+    }
+
+    void scheduleWrite(final AsyncConnection connection) {
+      this.pendingWrites.add(connection);
+      this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running.get()) {
+          this.selector.select(TIMEOUT_CHECK_INTERVAL);
+          AsyncConnection connection;
+          while ((connection = this.pendingConnects.poll()) != null) {
+            try {
+              connection.connect(this.selector);
+            } catch (IOException e) {
+              connection.close(e);
+            }
+          }
+          while ((connection = this.pendingWrites.poll()) != null) {
+            try {
+              connection.doWrite();
+            } catch (IOException e) {
+              connection.close(e);
+            } catch (CancelledKeyException e) {
+              // closed by another thread
+            }
+          }
+          for (Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+              it.hasNext();) {
+            SelectionKey key = it.next();
+            it.remove();
+            connection = (AsyncConnection)key.attachment();
+            try {
+              if (key.isValid() && key.isConnectable()) connection.finishConnect();
+              if (key.isValid() && key.isReadable()) connection.doRead(this.readBuffer);
+              if (key.isValid() && key.isWritable()) connection.doWrite();
+            } catch (IOException e) {
+              connection.close(e);
+            } catch (CancelledKeyException e) {
+              // closed by another thread
+            }
+          }
+          long now = System.currentTimeMillis();
+          if (now - this.lastTimeoutCheck >= TIMEOUT_CHECK_INTERVAL) {
+            this.lastTimeoutCheck = now;
+            for (AsyncConnection c : asyncConnections.values()) {
+              c.checkTimeouts(now);
+            }
+          }
+        }
+      } catch (Throwable t) {
+        LOG.error(getName() + ": unexpected exception, stopping", t);
+        // Nothing would make progress on the calls anymore; have new ones fail instead.
+        running.set(false);
+      } finally {
+        IOException stopped = new StoppedRpcClientException("Rpc client stopped");
+        for (AsyncConnection c : asyncConnections.values()) {
+          c.close(stopped);
+        }
+        AsyncConnection c;
+        while ((c = this.pendingConnects.poll()) != null) {
+          c.close(stopped);
+        }
+        try {
+          this.selector.close();
+        } catch (IOException e) {
+          LOG.warn(getName() + ": failed closing selector", e);
+        }
+        if (LOG.isDebugEnabled()) LOG.debug(getName() + ": stopped");
+      }
+    }
+  }
+}
@@ -23,6 +23,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
@@ -32,6 +34,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.HBaseIOException;
 import org.apache.hadoop.hbase.codec.Codec;
+import org.apache.hadoop.hbase.codec.KeyValueCodec;
+import org.apache.hadoop.hbase.codec.KeyValueCodecWithTags;
 import org.apache.hadoop.hbase.io.BoundedByteBufferPool;
 import org.apache.hadoop.hbase.io.ByteBufferOutputStream;
 import org.apache.hadoop.hbase.io.HeapSize;
@@ -112,6 +116,34 @@ class IPCUtil {
   @SuppressWarnings("resource")
   public ByteBuffer buildCellBlock(final Codec codec, final CompressionCodec compressor,
     final CellScanner cellScanner, final BoundedByteBufferPool pool)
+  throws IOException {
+    return buildCellBlock(codec, compressor, cellScanner, pool, Integer.MAX_VALUE, null);
+  }
+
+  /**
+   * Puts CellScanner Cells into a cell block as
+   * {@link #buildCellBlock(Codec, CompressionCodec, CellScanner, BoundedByteBufferPool)} does,
+   * except that cells of <code>spliceThreshold</code> bytes or more are not copied into the
+   * returned buffer when <code>codec</code> writes them straight out of their backing arrays,
+   * i.e. it is a {@link KeyValueCodec} or {@link KeyValueCodecWithTags} and there is no
+   * <code>compressor</code>. The cell block is then the buffers added to <code>chain</code>:
+   * views of the returned buffer, with the backing arrays of the large cells spliced in between.
+   * The caller must not write them out after the arrays of the cells may have been reused.
+   * @param codec
+   * @param compressor
+   * @param cellScanner
+   * @param pool Pool of ByteBuffers to make use of. Can be null.
+   * @param spliceThreshold Size from which a cell is spliced in rather than copied
+   * @param chain Where to add the buffers the cell block is made of, in order. If null, nothing
+   * is spliced in and the returned buffer is the whole cell block.
+   * @return Null if no cells, else the buffer holding what was copied of the cell block; if it
+   * came out of <code>pool</code>, it should be returned there when done.
+   * @throws IOException
+   */
+  @SuppressWarnings("resource")
+  public ByteBuffer buildCellBlock(final Codec codec, final CompressionCodec compressor,
+    final CellScanner cellScanner, final BoundedByteBufferPool pool, final int spliceThreshold,
+    final List<ByteBuffer> chain)
   throws IOException {
     if (cellScanner == null) return null;
     if (codec == null) throw new CellScannerButNoCodecException();
@@ -134,6 +166,13 @@ class IPCUtil {
       baos = new ByteBufferOutputStream(bufferSize);
     }
     OutputStream os = baos;
+    SplicingOutputStream splicer = null;
+    // Only codecs known to write a cell out of its own backing array, not a scratch buffer
+    if (chain != null && compressor == null && (codec.getClass() == KeyValueCodec.class ||
+        codec.getClass() == KeyValueCodecWithTags.class)) {
+      splicer = new SplicingOutputStream(baos, spliceThreshold);
+      os = splicer;
+    }
     Compressor poolCompressor = null;
     try {
       if (compressor != null) {
@@ -161,7 +200,69 @@ class IPCUtil {
           "; up hbase.ipc.cellblock.building.initial.buffersize?");
       }
     }
-    return baos.getByteBuffer();
+    ByteBuffer bb = baos.getByteBuffer();
+    if (chain != null) {
+      int start = 0;
+      if (splicer != null) {
+        for (int i = 0; i < splicer.positions.size(); i++) {
+          int position = splicer.positions.get(i);
+          if (position > start) chain.add(view(bb, start, position));
+          chain.add(splicer.spliced.get(i));
+          start = position;
+        }
+      }
+      if (bb.limit() > start) chain.add(view(bb, start, bb.limit()));
+    }
+    return bb;
+  }
+
+  private static ByteBuffer view(final ByteBuffer bb, final int start, final int end) {
+    ByteBuffer view = bb.duplicate();
+    view.position(start);
+    view.limit(end);
+    return view;
+  }
+
+  /**
+   * Copies what is written to it into the wrapped stream, but for writes of at least a
+   * threshold in size: those are only remembered, with the position in the wrapped stream
+   * where they belong.
+   */
+  private static class SplicingOutputStream extends OutputStream {
+    private final ByteBufferOutputStream out;
+    private final int threshold;
+    final List<Integer> positions = new ArrayList<Integer>();
+    final List<ByteBuffer> spliced = new ArrayList<ByteBuffer>();
+
+    SplicingOutputStream(final ByteBufferOutputStream out, final int threshold) {
+      this.out = out;
+      this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len < threshold) {
+        out.write(b, off, len);
+        return;
+      }
+      positions.add(out.size());
+      spliced.add(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
   }
 
   /**
@@ -201,7 +302,7 @@ class IPCUtil {
       try {
         // TODO: This is ugly.  The buffer will be resized on us if we guess wrong.
         // TODO: Reuse buffers.
-        bbos = new ByteBufferOutputStream((length - offset) *
+        bbos = new ByteBufferOutputStream(length *
           this.cellBlockDecompressionMultiplier);
         IOUtils.copy(cis, bbos);
         bbos.close();
@@ -17,6 +17,7 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
@@ -56,6 +57,11 @@ public class PayloadCarryingRpcController implements RpcController, CellScannabl
    */
   private CellScanner cellScanner;
 
+  /**
+   * Set when a call made via a non-blocking rpc channel fails.
+   */
+  private IOException exception;
+
   public PayloadCarryingRpcController() {
     this((CellScanner)null);
   }
@@ -81,12 +87,12 @@ public class PayloadCarryingRpcController implements RpcController, CellScannabl
 
   @Override
   public String errorText() {
-    throw new UnsupportedOperationException();
+    return this.exception != null? this.exception.getMessage(): null;
   }
 
   @Override
   public boolean failed() {
-    throw new UnsupportedOperationException();
+    return this.exception != null;
   }
 
   @Override
@@ -101,12 +107,27 @@ public class PayloadCarryingRpcController implements RpcController, CellScannabl
 
   @Override
   public void reset() {
-    throw new UnsupportedOperationException();
+    this.exception = null;
+    this.cellScanner = null;
   }
 
   @Override
-  public void setFailed(String arg0) {
-    throw new UnsupportedOperationException();
+  public void setFailed(String reason) {
+    this.exception = new IOException(reason);
+  }
+
+  /**
+   * @param e Why the call failed
+   */
+  public void setFailed(final IOException e) {
+    this.exception = e;
+  }
+
+  /**
+   * @return Why the call failed, or null if it did not
+   */
+  public IOException getFailed() {
+    return this.exception;
   }
 
   @Override
@@ -26,6 +26,7 @@ import java.io.DataOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
@@ -96,10 +97,15 @@ import org.cloudera.htrace.Span;
 import org.cloudera.htrace.Trace;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.BlockingRpcChannel;
 import com.google.protobuf.Descriptors.MethodDescriptor;
 import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
+import com.google.protobuf.RpcCallback;
+import com.google.protobuf.RpcChannel;
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
 import com.google.protobuf.TextFormat;
@@ -127,9 +133,9 @@ public class RpcClient {
   protected final boolean tcpKeepAlive; // if T then use keepalives
   protected int pingInterval; // how often sends ping to the server in msecs
   protected FailedServers failedServers;
-  private final Codec codec;
-  private final CompressionCodec compressor;
-  private final IPCUtil ipcUtil;
+  protected final Codec codec;
+  protected final CompressionCodec compressor;
+  protected final IPCUtil ipcUtil;
 
   protected final SocketFactory socketFactory;           // how to create sockets
   protected String clusterId;
@@ -1140,30 +1146,6 @@ public class RpcClient {
       }
     }
 
-    /**
-     * @param e
-     * @return True if the exception is a fatal connection exception.
-     */
-    private boolean isFatalConnectionException(final ExceptionResponse e) {
-      return e.getExceptionClassName().
-        equals(FatalConnectionException.class.getName());
-    }
-
-    /**
-     * @param e
-     * @return RemoteException made from passed <code>e</code>
-     */
-    private RemoteException createRemoteException(final ExceptionResponse e) {
-      String innerExceptionClassName = e.getExceptionClassName();
-      boolean doNotRetry = e.getDoNotRetry();
-      return e.hasHostname()?
-        // If a hostname then add it to the RemoteWithExtrasException
-        new RemoteWithExtrasException(innerExceptionClassName,
-          e.getStackTrace(), e.getHostname(), e.getPort(), doNotRetry):
-        new RemoteWithExtrasException(innerExceptionClassName,
-          e.getStackTrace(), doNotRetry);
-    }
-
     protected synchronized void markClosed(IOException e) {
       if (shouldCloseConnection.compareAndSet(false, true)) {
         closeException = e;
@@ -1221,6 +1203,30 @@ public class RpcClient {
     }
   }
 
+  /**
+   * @param e
+   * @return True if the exception is a fatal connection exception.
+   */
+  static boolean isFatalConnectionException(final ExceptionResponse e) {
+    return e.getExceptionClassName().
+      equals(FatalConnectionException.class.getName());
+  }
+
+  /**
+   * @param e
+   * @return RemoteException made from passed <code>e</code>
+   */
+  static RemoteException createRemoteException(final ExceptionResponse e) {
+    String innerExceptionClassName = e.getExceptionClassName();
+    boolean doNotRetry = e.getDoNotRetry();
+    return e.hasHostname()?
+      // If a hostname then add it to the RemoteWithExtrasException
+      new RemoteWithExtrasException(innerExceptionClassName,
+        e.getStackTrace(), e.getHostname(), e.getPort(), doNotRetry):
+      new RemoteWithExtrasException(innerExceptionClassName,
+        e.getStackTrace(), doNotRetry);
+  }
+
   @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="IS2_INCONSISTENT_SYNC",
     justification="Presume sync not needed setting socket timeout")
   private static void setSocketTimeout(final Socket socket, final int rpcTimeout)
@@ -1464,6 +1470,27 @@ public class RpcClient {
     }
   }
 
+  /**
+   * Make a call without waiting on its result. The returned future completes with the response
+   * Message and the Cell data (if any), or fails with the IOException that {@link #call} would
+   * have thrown. This implementation makes the call in the calling thread; see
+   * {@link AsyncRpcClient} for one that returns as soon as the request is queued.
+   */
+  ListenableFuture<Pair<Message, CellScanner>> callAsync(MethodDescriptor md, Message param,
+      CellScanner cells, Message returnType, User ticket, InetSocketAddress addr,
+      int rpcTimeout, int priority) {
+    try {
+      return Futures.immediateFuture(
+        call(md, param, cells, returnType, ticket, addr, rpcTimeout, priority));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Futures.immediateFailedFuture(
+        (IOException)new InterruptedIOException("Interrupted calling " + addr).initCause(e));
+    } catch (IOException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
+
   /**
    * Take an IOException and the address we were trying to connect to
    * and return an IOException with the input exception as the cause.
@@ -1692,6 +1719,74 @@ public class RpcClient {
     return new BlockingRpcChannelImplementation(this, sn, ticket, rpcTimeout);
   }
 
+  /**
+   * Creates a "channel" that can be used by a protobuf service stub, i.e. one whose methods take
+   * an {@link RpcCallback} rather than returning the response. The callback is given null when
+   * the call fails, in which case the {@link PayloadCarryingRpcController} passed in, if any,
+   * carries the cause.
+   * @param sn
+   * @param ticket
+   * @param rpcTimeout
+   * @return An rpc channel that goes via this rpc client instance.
+   */
+  public RpcChannel createRpcChannel(final ServerName sn, final User ticket,
+      final int rpcTimeout) {
+    return new RpcChannelImplementation(this, sn, ticket, rpcTimeout);
+  }
+
+  /**
+   * Non-blocking rpc channel that goes via hbase rpc. Only as non-blocking as
+   * {@link RpcClient#callAsync} is; the callback is run by whichever thread completes the call.
+   */
+  public static class RpcChannelImplementation implements RpcChannel {
+    private final InetSocketAddress isa;
+    private final RpcClient rpcClient;
+    private final int rpcTimeout;
+    private final User ticket;
+
+    protected RpcChannelImplementation(final RpcClient rpcClient, final ServerName sn,
+        final User ticket, final int rpcTimeout) {
+      this.isa = new InetSocketAddress(sn.getHostname(), sn.getPort());
+      this.rpcClient = rpcClient;
+      this.rpcTimeout = getRpcTimeout(rpcTimeout);
+      this.ticket = ticket;
+    }
+
+    @Override
+    public void callMethod(MethodDescriptor md, RpcController controller, Message param,
+        Message returnType, final RpcCallback<Message> done) {
+      final PayloadCarryingRpcController pcrc = (PayloadCarryingRpcController)controller;
+      CellScanner cells = null;
+      if (pcrc != null) {
+        cells = pcrc.cellScanner();
+        // Clear it here so we don't by mistake try and these cells processing results.
+        pcrc.setCellScanner(null);
+      }
+      ListenableFuture<Pair<Message, CellScanner>> future = this.rpcClient.callAsync(md, param,
+        cells, returnType, this.ticket, this.isa, this.rpcTimeout,
+        pcrc != null? pcrc.getPriority(): HConstants.NORMAL_QOS);
+      Futures.addCallback(future, new FutureCallback<Pair<Message, CellScanner>>() {
+        @Override
+        public void onSuccess(Pair<Message, CellScanner> val) {
+          if (pcrc != null) {
+            if (val.getSecond() != null) pcrc.setCellScanner(val.getSecond());
+          } else if (val.getSecond() != null) {
+            LOG.warn("Client dropping data on the floor!");
+          }
+          done.run(val.getFirst());
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          if (pcrc != null) {
+            pcrc.setFailed(t instanceof IOException? (IOException)t: new IOException(t));
+          }
+          done.run(null);
+        }
+      });
+    }
+  }
+
   /**
    * Blocking rpc channel that goes via hbase rpc.
    */
@@ -19,6 +19,7 @@ package org.apache.hadoop.hbase.protobuf;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.hbase.util.ByteStringer;
 
@@ -75,6 +76,7 @@ import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutationProto.Mut
 import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.RegionAction;
 import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
 import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.CompareType;
+import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.NameBytesPair;
 import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.RegionSpecifier;
 import org.apache.hadoop.hbase.protobuf.generated.HBaseProtos.RegionSpecifier.RegionSpecifierType;
 import org.apache.hadoop.hbase.protobuf.generated.MasterProtos.AddColumnRequest;
@@ -489,6 +491,35 @@ public final class RequestConverter {
     return builder.build();
   }
 
+  /**
+   * Create a protocol buffer ScanRequest for a client Scan, with attributes the request carries
+   * on top of those of the Scan, which is left alone
+   *
+   * @param regionName
+   * @param scan
+   * @param numberOfRows
+   * @param closeScanner
+   * @param requestAttributes attributes to add to the scan of the request
+   * @return a scan request
+   * @throws IOException
+   */
+  public static ScanRequest buildScanRequest(final byte[] regionName,
+      final Scan scan, final int numberOfRows, final boolean closeScanner,
+      final Map<String, byte[]> requestAttributes) throws IOException {
+    ScanRequest request = buildScanRequest(regionName, scan, numberOfRows, closeScanner);
+    if (requestAttributes == null || requestAttributes.isEmpty()) {
+      return request;
+    }
+    ClientProtos.Scan.Builder scanBuilder = request.getScan().toBuilder();
+    NameBytesPair.Builder attributeBuilder = NameBytesPair.newBuilder();
+    for (Map.Entry<String, byte[]> attribute : requestAttributes.entrySet()) {
+      attributeBuilder.setName(attribute.getKey());
+      attributeBuilder.setValue(ByteStringer.wrap(attribute.getValue()));
+      scanBuilder.addAttribute(attributeBuilder.build());
+    }
+    return request.toBuilder().setScan(scanBuilder).build();
+  }
+
   /**
    * Create a protocol buffer ScanRequest for a scanner id
    *
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+
+/**
+ * A throttle quota of a user, a table or a namespace, to set with
+ * {@link org.apache.hadoop.hbase.client.HBaseAdmin#setQuota(QuotaSettings)}.
+ * Use {@link QuotaSettingsFactory} to create one.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class QuotaSettings {
+  private final String userName;
+  private final TableName tableName;
+  private final String namespace;
+  private final ThrottleType throttleType;
+  private final long limit;
+  private final TimeUnit timeUnit;
+
+  QuotaSettings(final String userName, final TableName tableName, final String namespace,
+      final ThrottleType throttleType, final long limit, final TimeUnit timeUnit) {
+    this.userName = userName;
+    this.tableName = tableName;
+    this.namespace = namespace;
+    this.throttleType = throttleType;
+    this.limit = limit;
+    this.timeUnit = timeUnit;
+  }
+
+  /** @return The user the quota is of, or null */
+  public String getUserName() {
+    return userName;
+  }
+
+  /** @return The table the quota is of, or null */
+  public TableName getTableName() {
+    return tableName;
+  }
+
+  /** @return The namespace the quota is of, or null */
+  public String getNamespace() {
+    return namespace;
+  }
+
+  /** @return What the quota limits, or null to remove all the throttles of its subject */
+  public ThrottleType getThrottleType() {
+    return throttleType;
+  }
+
+  /** @return How many requests or bytes are allowed per {@link #getTimeUnit()} */
+  public long getLimit() {
+    return limit;
+  }
+
+  /** @return The time unit of the limit, null when the throttles are removed */
+  public TimeUnit getTimeUnit() {
+    return timeUnit;
+  }
+
+  /** @return Whether these settings remove the throttles of their subject */
+  public boolean isRemove() {
+    return throttleType == null;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    if (userName != null) builder.append("USER => '").append(userName).append("', ");
+    if (tableName != null) builder.append("TABLE => '").append(tableName).append("', ");
+    if (namespace != null) builder.append("NAMESPACE => '").append(namespace).append("', ");
+    if (isRemove()) {
+      builder.append("THROTTLE => NONE");
+    } else {
+      builder.append("THROTTLE_TYPE => ").append(throttleType).append(", LIMIT => ")
+        .append(limit).append('/').append(timeUnit);
+    }
+    return builder.toString();
+  }
+}
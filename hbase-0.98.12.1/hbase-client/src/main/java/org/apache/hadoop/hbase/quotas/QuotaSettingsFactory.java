@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+
+/**
+ * Creates the {@link QuotaSettings} to throttle, or stop throttling, the requests of a user, on
+ * a table or on the tables of a namespace. For instance, to limit user 'batch' to 1000 requests
+ * per second:
+ * <pre>
+ * admin.setQuota(QuotaSettingsFactory.throttleUser("batch", ThrottleType.REQUEST_NUMBER,
+ *   1000, TimeUnit.SECONDS));
+ * </pre>
+ * Each throttle type is set on its own, a subject can have the three. The limits are enforced
+ * by each region server on its own, so the cluster-wide limit is the per-server one times the
+ * number of servers the requests spread on.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class QuotaSettingsFactory {
+  private QuotaSettingsFactory() {
+  }
+
+  /**
+   * @param userName the user to throttle
+   * @param type what to limit
+   * @param limit how many requests or bytes are allowed per timeUnit
+   * @param timeUnit the time unit of the limit
+   * @return the quota settings to throttle the requests of the user
+   */
+  public static QuotaSettings throttleUser(final String userName, final ThrottleType type,
+      final long limit, final TimeUnit timeUnit) {
+    return throttle(userName, null, null, type, limit, timeUnit);
+  }
+
+  /**
+   * @param tableName the table to throttle
+   * @param type what to limit
+   * @param limit how many requests or bytes are allowed per timeUnit
+   * @param timeUnit the time unit of the limit
+   * @return the quota settings to throttle the requests on the table
+   */
+  public static QuotaSettings throttleTable(final TableName tableName, final ThrottleType type,
+      final long limit, final TimeUnit timeUnit) {
+    return throttle(null, tableName, null, type, limit, timeUnit);
+  }
+
+  /**
+   * @param namespace the namespace to throttle
+   * @param type what to limit
+   * @param limit how many requests or bytes are allowed per timeUnit
+   * @param timeUnit the time unit of the limit
+   * @return the quota settings to throttle the requests on the tables of the namespace
+   */
+  public static QuotaSettings throttleNamespace(final String namespace, final ThrottleType type,
+      final long limit, final TimeUnit timeUnit) {
+    return throttle(null, null, namespace, type, limit, timeUnit);
+  }
+
+  /**
+   * @param userName the user to stop throttling
+   * @return the quota settings to remove all the throttles of the user
+   */
+  public static QuotaSettings unthrottleUser(final String userName) {
+    return new QuotaSettings(userName, null, null, null, 0, null);
+  }
+
+  /**
+   * @param tableName the table to stop throttling
+   * @return the quota settings to remove all the throttles of the table
+   */
+  public static QuotaSettings unthrottleTable(final TableName tableName) {
+    return new QuotaSettings(null, tableName, null, null, 0, null);
+  }
+
+  /**
+   * @param namespace the namespace to stop throttling
+   * @return the quota settings to remove all the throttles of the namespace
+   */
+  public static QuotaSettings unthrottleNamespace(final String namespace) {
+    return new QuotaSettings(null, null, namespace, null, 0, null);
+  }
+
+  private static QuotaSettings throttle(final String userName, final TableName tableName,
+      final String namespace, final ThrottleType type, final long limit,
+      final TimeUnit timeUnit) {
+    if (type == null || timeUnit == null) {
+      throw new IllegalArgumentException("A throttle type and a time unit are required");
+    }
+    if (limit <= 0) {
+      throw new IllegalArgumentException("The limit must be positive, got " + limit);
+    }
+    return new QuotaSettings(userName, tableName, namespace, type, limit, timeUnit);
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.NamespaceDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Layout of the quota table, <code>hbase:quota</code>.
+ * <pre>
+ *     ROW-KEY          FAM/QUAL            DATA
+ *   u.&lt;user&gt;       q:&lt;throttle type&gt;   &lt;limit&gt;&lt;time unit&gt;
+ *   t.&lt;table&gt;      q:&lt;throttle type&gt;   &lt;limit&gt;&lt;time unit&gt;
+ *   n.&lt;namespace&gt;  q:&lt;throttle type&gt;   &lt;limit&gt;&lt;time unit&gt;
+ * </pre>
+ * The limit is a long, followed by the name of the time unit.
+ */
+@InterfaceAudience.Private
+public class QuotaTableUtil {
+  /** Whether the quotas are enforced, and the quota table created */
+  public static final String QUOTA_ENABLED_CONF_KEY = "hbase.quota.enabled";
+  public static final boolean QUOTA_ENABLED_DEFAULT = false;
+
+  public static final TableName QUOTA_TABLE_NAME =
+    TableName.valueOf(NamespaceDescriptor.SYSTEM_NAMESPACE_NAME_STR, "quota");
+
+  public static final byte[] QUOTA_FAMILY = Bytes.toBytes("q");
+
+  public static final byte[] QUOTA_USER_ROW_KEY_PREFIX = Bytes.toBytes("u.");
+  public static final byte[] QUOTA_TABLE_ROW_KEY_PREFIX = Bytes.toBytes("t.");
+  public static final byte[] QUOTA_NAMESPACE_ROW_KEY_PREFIX = Bytes.toBytes("n.");
+
+  public static final HTableDescriptor QUOTA_TABLE_DESC = new HTableDescriptor(QUOTA_TABLE_NAME);
+  static {
+    QUOTA_TABLE_DESC.addFamily(new HColumnDescriptor(QUOTA_FAMILY)
+      .setMaxVersions(1)
+      .setInMemory(true)
+      .setBlocksize(8 * 1024)
+      .setScope(HConstants.REPLICATION_SCOPE_LOCAL));
+  }
+
+  private QuotaTableUtil() {
+  }
+
+  public static byte[] getUserRowKey(final String userName) {
+    return Bytes.add(QUOTA_USER_ROW_KEY_PREFIX, Bytes.toBytes(userName));
+  }
+
+  public static byte[] getTableRowKey(final TableName tableName) {
+    return Bytes.add(QUOTA_TABLE_ROW_KEY_PREFIX, tableName.getName());
+  }
+
+  public static byte[] getNamespaceRowKey(final String namespace) {
+    return Bytes.add(QUOTA_NAMESPACE_ROW_KEY_PREFIX, Bytes.toBytes(namespace));
+  }
+
+  /**
+   * @return The row key of the subject of the quota settings
+   */
+  public static byte[] getRowKey(final QuotaSettings settings) {
+    if (settings.getUserName() != null) {
+      return getUserRowKey(settings.getUserName());
+    } else if (settings.getTableName() != null) {
+      return getTableRowKey(settings.getTableName());
+    } else if (settings.getNamespace() != null) {
+      return getNamespaceRowKey(settings.getNamespace());
+    }
+    throw new IllegalArgumentException("No user, table or namespace in " + settings);
+  }
+
+  /**
+   * @return The put or delete applying the quota settings to the quota table
+   */
+  public static Mutation makeMutation(final QuotaSettings settings) {
+    byte[] row = getRowKey(settings);
+    if (settings.isRemove()) {
+      Delete delete = new Delete(row);
+      delete.deleteFamily(QUOTA_FAMILY);
+      return delete;
+    }
+    Put put = new Put(row);
+    put.add(QUOTA_FAMILY, Bytes.toBytes(settings.getThrottleType().name()),
+      Bytes.add(Bytes.toBytes(settings.getLimit()),
+        Bytes.toBytes(settings.getTimeUnit().name())));
+    return put;
+  }
+
+  /**
+   * @param qualifier the qualifier of a quota cell
+   * @return The throttle type it holds the limit of, or null if it is not one
+   */
+  public static ThrottleType parseThrottleType(final byte[] qualifier) {
+    try {
+      return ThrottleType.valueOf(Bytes.toString(qualifier));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** @return The limit in the value of a quota cell */
+  public static long parseLimit(final byte[] value) {
+    return Bytes.toLong(value, 0, Bytes.SIZEOF_LONG);
+  }
+
+  /** @return The time unit in the value of a quota cell */
+  public static TimeUnit parseTimeUnit(final byte[] value) {
+    return TimeUnit.valueOf(
+      Bytes.toString(value, Bytes.SIZEOF_LONG, value.length - Bytes.SIZEOF_LONG));
+  }
+}
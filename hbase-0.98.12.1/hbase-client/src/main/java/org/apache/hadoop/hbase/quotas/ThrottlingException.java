@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+import org.apache.hadoop.ipc.RemoteException;
+
+/**
+ * Thrown by a region server when a request goes over a throttle quota. It carries how long to
+ * wait before the quota allows the request, which the client waits at least before retrying.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ThrottlingException extends IOException {
+  private static final long serialVersionUID = 1406576492085155743L;
+
+  private static final String WAIT_PREFIX = " exceeded - wait ";
+  private static final String WAIT_SUFFIX = "ms";
+  // The message reaches the client in a stack trace, the wait hint is parsed out of it
+  private static final Pattern WAIT_PATTERN =
+    Pattern.compile(WAIT_PREFIX + "(\\d+)" + WAIT_SUFFIX);
+
+  private final long waitInterval;
+
+  public ThrottlingException(final String msg) {
+    super(msg);
+    long wait = 0;
+    if (msg != null) {
+      Matcher matcher = WAIT_PATTERN.matcher(msg);
+      if (matcher.find()) {
+        wait = Long.parseLong(matcher.group(1));
+      }
+    }
+    this.waitInterval = wait;
+  }
+
+  public ThrottlingException(final ThrottleType type, final long waitInterval) {
+    super(type + WAIT_PREFIX + waitInterval + WAIT_SUFFIX);
+    this.waitInterval = waitInterval;
+  }
+
+  /**
+   * @return How long, in milliseconds, to wait before the quota allows the request
+   */
+  public long getWaitInterval() {
+    return waitInterval;
+  }
+
+  /**
+   * @param t an exception a call failed with, possibly a remote one
+   * @return How long, in milliseconds, to wait before retrying if the call was throttled, else 0
+   */
+  public static long getWaitInterval(Throwable t) {
+    if (t instanceof RemoteException) {
+      t = ((RemoteException)t).unwrapRemoteException();
+    }
+    return t instanceof ThrottlingException ? ((ThrottlingException)t).getWaitInterval() : 0;
+  }
+}
@@ -36,5 +36,16 @@ public enum BloomType {
   /**
    * Bloom enabled with Table row & column (family+qualifier) as Key
    */
-  ROWCOL
+  ROWCOL,
+  /**
+   * Bloom enabled with a fixed length prefix of the Table row as Key. The length is set with
+   * the RowPrefixBloomFilter.prefix_length configuration value of the column family.
+   */
+  ROWPREFIX_FIXED_LENGTH,
+  /**
+   * Bloom enabled with the Table row up to and including a delimiter as Key. The delimiter is
+   * set with the RowPrefixDelimitedBloomFilter.delimiter configuration value of the column
+   * family.
+   */
+  ROWPREFIX_DELIMITED
 }
@@ -94,11 +94,14 @@ public class PoolMap<K, V> implements Map<K, V> {
   }
 
   /**
-   * @deprecated Will be removed for Java 8, use {@link #removeValue} instead
+   * Takes <code>Object</code>s rather than <code>K</code> and <code>V</code> so that, on Java 8,
+   * it overrides <code>Map.remove(Object, Object)</code> instead of clashing with it.
+   * @deprecated Use {@link #removeValue} instead
    */
   @Deprecated
-  public boolean remove(K key, V value) {
-    return removeValue(key, value);
+  @SuppressWarnings("unchecked")
+  public boolean remove(Object key, Object value) {
+    return removeValue((K) key, (V) value);
   }
 
   public boolean removeValue(K key, V value) {
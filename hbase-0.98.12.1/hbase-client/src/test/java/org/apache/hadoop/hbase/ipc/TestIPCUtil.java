@@ -18,10 +18,15 @@
 package org.apache.hadoop.hbase.ipc;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.lang.time.StopWatch;
 import org.apache.commons.logging.Log;
@@ -65,6 +70,47 @@ public class TestIPCUtil {
     doBuildCellBlockUndoCellBlock(this.util, new KeyValueCodec(), new GzipCodec());
   }
 
+  @Test
+  public void testBuildSplicedCellBlock() throws IOException {
+    // Small cells, copied, and large ones, spliced in
+    Cell [] cells = new Cell[6];
+    for (int i = 0; i < cells.length; i++) {
+      byte [] row = Bytes.toBytes(i);
+      cells[i] = new KeyValue(row, Bytes.toBytes("f"), row, new byte[i % 2 == 0? 10: 2048]);
+    }
+    List<ByteBuffer> chain = new ArrayList<ByteBuffer>();
+    ByteBuffer bb = this.util.buildCellBlock(new KeyValueCodec(), null,
+      CellUtil.createCellScanner(cells), null, 1024, chain);
+    assertEquals(6, chain.size());
+    int length = 0;
+    for (ByteBuffer b : chain) {
+      length += b.remaining();
+    }
+    assertTrue(bb.limit() < length);
+    // The large cells are not copied: their buffers are views of the cell arrays
+    assertSame(((KeyValue)cells[1]).getBuffer(), chain.get(1).array());
+
+    byte [] cellBlock = new byte[length];
+    ByteBuffer all = ByteBuffer.wrap(cellBlock);
+    for (ByteBuffer b : chain) {
+      all.put(b.duplicate());
+    }
+    CellScanner cellScanner =
+      this.util.createCellScanner(new KeyValueCodec(), null, cellBlock, 0, length);
+    for (Cell cell : cells) {
+      assertTrue(cellScanner.advance());
+      assertEquals(cell, cellScanner.current());
+    }
+    assertFalse(cellScanner.advance());
+
+    // Nothing is spliced in when compressing
+    chain.clear();
+    bb = this.util.buildCellBlock(new KeyValueCodec(), new DefaultCodec(),
+      CellUtil.createCellScanner(cells), null, 1024, chain);
+    assertEquals(1, chain.size());
+    assertEquals(bb.limit(), chain.get(0).remaining());
+  }
+
   static void doBuildCellBlockUndoCellBlock(final IPCUtil util,
       final Codec codec, final CompressionCodec compressor)
   throws IOException {
@@ -698,6 +698,18 @@ public final class HConstants {
    */
   public static final int DEFAULT_HBASE_CLIENT_SCANNER_CACHING = 100;
 
+  /**
+   * Parameter name for whether client scanners load the next results in the background, for
+   * the scans that do not say
+   */
+  public static final String HBASE_CLIENT_SCANNER_ASYNC_PREFETCH =
+      "hbase.client.scanner.async.prefetch";
+
+  /**
+   * Default value for {@link #HBASE_CLIENT_SCANNER_ASYNC_PREFETCH}
+   */
+  public static final boolean DEFAULT_HBASE_CLIENT_SCANNER_ASYNC_PREFETCH = false;
+
   /**
    * Parameter name for number of versions, kept by meta table.
    */
@@ -19,8 +19,6 @@
 package org.apache.hadoop.hbase.util;
 
 import java.nio.ByteBuffer;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -30,7 +28,9 @@ import org.apache.hadoop.util.StringUtils;
 /**
  * This class manages an array of ByteBuffers with a default size 4MB. These
  * buffers are sequential and could be considered as a large buffer.It supports
- * reading/writing data from this large buffer with a position and offset
+ * reading/writing data from this large buffer with a position and offset.
+ * Accesses work on duplicates of the buffers, so concurrent accesses do not
+ * contend, even on large buffers such as the segments of a mapped file.
  */
 @InterfaceAudience.Private
 public final class ByteBufferArray {
@@ -38,7 +38,6 @@ public final class ByteBufferArray {
 
   static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
   private ByteBuffer buffers[];
-  private Lock locks[];
   private int bufferSize;
   private int bufferCount;
 
@@ -58,9 +57,7 @@ public final class ByteBufferArray {
         + " , sizePerBuffer=" + StringUtils.byteDesc(bufferSize) + ", count="
         + bufferCount);
     buffers = new ByteBuffer[bufferCount + 1];
-    locks = new Lock[bufferCount + 1];
     for (int i = 0; i <= bufferCount; i++) {
-      locks[i] = new ReentrantLock();
       if (i < bufferCount) {
         buffers[i] = directByteBuffer ? ByteBuffer.allocateDirect(bufferSize)
             : ByteBuffer.allocate(bufferSize);
@@ -71,6 +68,21 @@ public final class ByteBufferArray {
     }
   }
 
+  /**
+   * Wraps buffers the caller allocated, e.g. the segments of a memory mapped
+   * file.
+   * @param buffers the buffers, each of <code>bufferSize</code> bytes but the
+   *          last, which may be shorter and must not be accessed past its end
+   * @param bufferSize size of each buffer
+   */
+  public ByteBufferArray(ByteBuffer[] buffers, int bufferSize) {
+    this.bufferSize = bufferSize;
+    this.bufferCount = buffers.length;
+    this.buffers = new ByteBuffer[bufferCount + 1];
+    System.arraycopy(buffers, 0, this.buffers, 0, bufferCount);
+    this.buffers[bufferCount] = ByteBuffer.allocate(0);
+  }
+
   private long roundUp(long n, long to) {
     return ((n + to - 1) / to) * to;
   }
@@ -145,8 +157,8 @@ public final class ByteBufferArray {
 
   /**
    * Access(read or write) this buffer array with a position and length as the
-   * given array. Here we will only lock one buffer even if it may be need visit
-   * several buffers. The consistency is guaranteed by the caller.
+   * given array. Buffers are not locked, the consistency is guaranteed by the
+   * caller.
    * @param start start offset of this buffer array
    * @param len The maximum number of bytes to be accessed
    * @param array The array from/to which bytes are to be read/written
@@ -163,7 +175,7 @@ public final class ByteBufferArray {
     assert startBuffer >= 0 && startBuffer < bufferCount;
     assert endBuffer >= 0 && endBuffer < bufferCount
         || (endBuffer == bufferCount && endOffset == 0);
-    if (startBuffer >= locks.length || startBuffer < 0) {
+    if (startBuffer >= buffers.length || startBuffer < 0) {
       String msg = "Failed multiple, start=" + start + ",startBuffer="
           + startBuffer + ",bufferSize=" + bufferSize;
       LOG.error(msg);
@@ -171,27 +183,22 @@ public final class ByteBufferArray {
     }
     int srcIndex = 0, cnt = -1;
     for (int i = startBuffer; i <= endBuffer; ++i) {
-      Lock lock = locks[i];
-      lock.lock();
-      try {
-        ByteBuffer bb = buffers[i];
-        if (i == startBuffer) {
-          cnt = bufferSize - startOffset;
-          if (cnt > len) cnt = len;
-          bb.limit(startOffset + cnt).position(
-              startOffset );
-        } else if (i == endBuffer) {
-          cnt = endOffset;
-          bb.limit(cnt).position(0);
-        } else {
-          cnt = bufferSize ;
-          bb.limit(cnt).position(0);
-        }
-        visitor.visit(bb, array, srcIndex + arrayOffset, cnt);
-        srcIndex += cnt;
-      } finally {
-        lock.unlock();
+      // A duplicate has its own position and limit, so needs no lock
+      ByteBuffer bb = buffers[i].duplicate();
+      if (i == startBuffer) {
+        cnt = bufferSize - startOffset;
+        if (cnt > len) cnt = len;
+        bb.limit(startOffset + cnt).position(
+            startOffset );
+      } else if (i == endBuffer) {
+        cnt = endOffset;
+        bb.limit(cnt).position(0);
+      } else {
+        cnt = bufferSize ;
+        bb.limit(cnt).position(0);
       }
+      visitor.visit(bb, array, srcIndex + arrayOffset, cnt);
+      srcIndex += cnt;
     }
     assert srcIndex == len;
   }
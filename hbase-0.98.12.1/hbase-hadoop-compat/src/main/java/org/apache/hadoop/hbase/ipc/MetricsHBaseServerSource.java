@@ -55,6 +55,18 @@ public interface MetricsHBaseServerSource extends BaseSource {
   String NUM_OPEN_CONNECTIONS_DESC = "Number of open connections.";
   String NUM_ACTIVE_HANDLER_NAME = "numActiveHandler";
   String NUM_ACTIVE_HANDLER_DESC = "Number of active rpc handlers.";
+  String NUM_ACTIVE_CALL_QUEUE_KEYS_NAME = "numActiveCallQueueKeys";
+  String NUM_ACTIVE_CALL_QUEUE_KEYS_DESC =
+      "Number of users, tables or namespaces with calls in the fair share general call queue.";
+  String OLDEST_GENERAL_CALL_AGE_NAME = "oldestGeneralCallAge";
+  String OLDEST_GENERAL_CALL_AGE_DESC =
+      "Time in milliseconds the oldest call in the fair share general call queue has waited.";
+  String NUM_GENERAL_CALLS_DROPPED_NAME = "numGeneralCallsDropped";
+  String NUM_GENERAL_CALLS_DROPPED_DESC =
+      "Total number of calls in general queue which were dropped by CoDel RPC executor";
+  String NUM_LIFO_MODE_SWITCHES_NAME = "numLifoModeSwitches";
+  String NUM_LIFO_MODE_SWITCHES_DESC =
+      "Total number of calls in general queue which were served from the tail of the queue";
 
   void authorizationSuccess();
 
@@ -26,4 +26,8 @@ public interface MetricsHBaseServerWrapper {
   int getPriorityQueueLength();
   int getNumOpenConnections();
   int getActiveRpcHandlerCount();
+  int getActiveCallQueueKeyCount();
+  long getOldestGeneralCallAge();
+  long getNumGeneralCallsDropped();
+  long getNumLifoModeSwitches();
 }
@@ -117,7 +117,15 @@ public class MetricsHBaseServerSourceImpl extends BaseSourceImpl
           .addGauge(NUM_OPEN_CONNECTIONS_NAME,
               NUM_OPEN_CONNECTIONS_DESC, wrapper.getNumOpenConnections())
           .addGauge(NUM_ACTIVE_HANDLER_NAME,
-              NUM_ACTIVE_HANDLER_DESC, wrapper.getActiveRpcHandlerCount());
+              NUM_ACTIVE_HANDLER_DESC, wrapper.getActiveRpcHandlerCount())
+          .addGauge(NUM_ACTIVE_CALL_QUEUE_KEYS_NAME,
+              NUM_ACTIVE_CALL_QUEUE_KEYS_DESC, wrapper.getActiveCallQueueKeyCount())
+          .addGauge(OLDEST_GENERAL_CALL_AGE_NAME,
+              OLDEST_GENERAL_CALL_AGE_DESC, wrapper.getOldestGeneralCallAge())
+          .addCounter(NUM_GENERAL_CALLS_DROPPED_NAME,
+              NUM_GENERAL_CALLS_DROPPED_DESC, wrapper.getNumGeneralCallsDropped())
+          .addCounter(NUM_LIFO_MODE_SWITCHES_NAME,
+              NUM_LIFO_MODE_SWITCHES_DESC, wrapper.getNumLifoModeSwitches());
     }
 
     metricsRegistry.snapshot(mrb, all);
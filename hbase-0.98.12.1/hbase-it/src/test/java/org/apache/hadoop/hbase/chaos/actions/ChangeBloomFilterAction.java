@@ -25,6 +25,7 @@ import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.regionserver.RowPrefixBloom;
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
@@ -71,6 +72,11 @@ public class ChangeBloomFilterAction extends Action {
           + bloomArray[bloomFilterIndex] + " on column "
           + descriptor.getNameAsString() + " of table " + tableName);
       descriptor.setBloomFilterType(bloomArray[bloomFilterIndex]);
+      if (bloomArray[bloomFilterIndex] == BloomType.ROWPREFIX_FIXED_LENGTH) {
+        descriptor.setConfiguration(RowPrefixBloom.PREFIX_LENGTH_KEY, "10");
+      } else if (bloomArray[bloomFilterIndex] == BloomType.ROWPREFIX_DELIMITED) {
+        descriptor.setConfiguration(RowPrefixBloom.DELIMITER_KEY, "#");
+      }
       LOG.debug("Performing action: Just set bloom filter type to "
           + bloomArray[bloomFilterIndex] + " on column "
           + descriptor.getNameAsString() + " of table " + tableName);
@@ -0,0 +1,689 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.coprocessor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HConstants.OperationStatusCode;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceStability;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.IndexedScan;
+import org.apache.hadoop.hbase.filter.ColumnRangeFilter;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.MiniBatchOperationInProgress;
+import org.apache.hadoop.hbase.regionserver.OperationStatus;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Keeps a secondary index of some columns within each region of a table, and looks rows up
+ * by value through it for {@link IndexedScan}s.
+ * <p>
+ * The index entries of a region are rows of a shadow family of the table, in the key range of
+ * the region: the index row of a value starts with the region start key, so that the entries
+ * of a row are always in the same region as the row. The index row of a value holds one empty
+ * cell per data row, qualified by the data row key. The entries are added to the Puts and
+ * Deletes in {@link #preBatchMutate(ObserverContext, MiniBatchOperationInProgress)}, under the
+ * row lock of the data row: they are applied to the memstore and written to the WAL in the
+ * same edit as the data, so they never get out of sync with it, not even on a crash.
+ * <p>
+ * A lookup reads the index row of the value, then gets the data rows it points to directly,
+ * checking they still hold the value. Scans other than lookups, when they read data families,
+ * do not read the shadow family.
+ * <p>
+ * The index row of a value also carries the id of the region, which a region split or merge
+ * changes: the first time a region opens, it drops the index entries of the regions it came
+ * from and indexes its rows again. The build runs in the background: the region serves requests
+ * meanwhile, its writes maintaining their index entries as usual, but lookups are rejected until
+ * the index is marked as built. Entries the build adds for values a concurrent write has just
+ * replaced are left behind, which only costs the lookups of these values a useless get.
+ * <p>
+ * Setup is through the table descriptor (or the coprocessor arguments):
+ * <ul>
+ * <li>{@value #INDEX_COLUMNS_KEY}: comma separated <code>family:qualifier</code> columns to
+ * index</li>
+ * <li>{@value #INDEX_FAMILY_KEY}: the shadow family, which the table must have; defaults to
+ * {@value #DEFAULT_INDEX_FAMILY}</li>
+ * </ul>
+ * Only the latest version of a column is indexed. Indexed columns must be written by Puts and
+ * Deletes: Increments, Appends and {@link HRegion#mutateRowsWithLocks} do not maintain the
+ * index.
+ */
+@InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.COPROC)
+@InterfaceStability.Evolving
+public class RegionIndexObserver extends BaseRegionObserver {
+  private static final Log LOG = LogFactory.getLog(RegionIndexObserver.class);
+
+  /** Comma separated family:qualifier columns to index */
+  public static final String INDEX_COLUMNS_KEY = "hbase.region.index.columns";
+  /** Family of the table holding the index entries */
+  public static final String INDEX_FAMILY_KEY = "hbase.region.index.family";
+  public static final String DEFAULT_INDEX_FAMILY = "_index";
+
+  /** Qualifier of the cell marking the index of a region as built */
+  static final byte[] BUILT_QUALIFIER = Bytes.toBytes("built");
+  private static final int BUILD_BATCH_SIZE = 100;
+  private static final int LOOKUP_BATCH_SIZE = 100;
+
+  private static final Comparator<Cell> NEWEST_FIRST = new Comparator<Cell>() {
+    @Override
+    public int compare(Cell left, Cell right) {
+      long l = left.getTimestamp();
+      long r = right.getTimestamp();
+      return l > r ? -1 : (l == r ? 0 : 1);
+    }
+  };
+
+  private byte[] indexFamily;
+  private final List<IndexedColumn> columns = new ArrayList<IndexedColumn>();
+  /** What the index rows of the region start with, null if the region is not indexed */
+  private volatile byte[] indexRowPrefix;
+  /** Whether the index of the region is complete, so that lookups can use it */
+  private volatile boolean built = false;
+  /** Builds the index of the region in the background, null if not building it */
+  private volatile Thread builder;
+  private volatile boolean stopping = false;
+  /**
+   * Last timestamp of the index entries. They have their own, always increasing, so that an
+   * entry added back after being deleted is never masked by the delete
+   */
+  private final AtomicLong lastTimestamp = new AtomicLong();
+
+  /** A column to index */
+  private static class IndexedColumn {
+    final byte[] family;
+    final byte[] qualifier;
+    /** What the index rows of the column start with, after the region prefix */
+    final byte[] id;
+
+    IndexedColumn(byte[] family, byte[] qualifier) {
+      this.family = family;
+      this.qualifier = qualifier;
+      this.id = Bytes.add(Bytes.add(Bytes.toBytes((short) family.length), family),
+        Bytes.add(Bytes.toBytes((short) qualifier.length), qualifier));
+    }
+
+    @Override
+    public String toString() {
+      return Bytes.toStringBinary(family) + ":" + Bytes.toStringBinary(qualifier);
+    }
+  }
+
+  @Override
+  public void start(CoprocessorEnvironment env) throws IOException {
+    if (!(env instanceof RegionCoprocessorEnvironment)) {
+      throw new CoprocessorException("Must be loaded on a table region!");
+    }
+    HTableDescriptor htd = ((RegionCoprocessorEnvironment) env).getRegion().getTableDesc();
+    this.indexFamily = Bytes.toBytes(env.getConfiguration().get(INDEX_FAMILY_KEY,
+      DEFAULT_INDEX_FAMILY));
+    if (!htd.hasFamily(indexFamily)) {
+      LOG.error("Table " + htd.getTableName() + " has no index family "
+          + Bytes.toStringBinary(indexFamily) + ", not indexing it");
+      return;
+    }
+    String[] specs = env.getConfiguration().getStrings(INDEX_COLUMNS_KEY);
+    if (specs == null) {
+      return;
+    }
+    for (String spec : specs) {
+      int colon = spec.indexOf(':');
+      byte[] family = colon > 0 ? Bytes.toBytes(spec.substring(0, colon)) : null;
+      if (family == null || !htd.hasFamily(family) || Bytes.equals(family, indexFamily)) {
+        LOG.error("Cannot index column " + spec + " of table " + htd.getTableName());
+        continue;
+      }
+      columns.add(new IndexedColumn(family, Bytes.toBytes(spec.substring(colon + 1))));
+    }
+  }
+
+  @Override
+  public void postOpen(ObserverContext<RegionCoprocessorEnvironment> e) {
+    if (columns.isEmpty()) {
+      return;
+    }
+    HRegion region = e.getEnvironment().getRegion();
+    HRegionInfo info = region.getRegionInfo();
+    byte[] prefix = Bytes.add(info.getStartKey(), new byte[] { 0 },
+      Bytes.toBytes(info.getRegionId()));
+    byte[] endKey = info.getEndKey();
+    if (!info.containsRow(prefix) || (endKey.length > 0 && Bytes.startsWith(endKey, prefix))) {
+      LOG.error("No room for index rows in " + region + ", not indexing it");
+      return;
+    }
+    // Writes maintain the index from now on, whether it is built already or not
+    this.indexRowPrefix = prefix;
+    Thread t = new Thread(new IndexBuilder(region, prefix));
+    this.builder = t;
+    Threads.setDaemonThreadRunning(t, "RegionIndexBuilder-" + info.getEncodedName());
+  }
+
+  @Override
+  public void preClose(ObserverContext<RegionCoprocessorEnvironment> c, boolean abortRequested) {
+    stopBuilding();
+  }
+
+  @Override
+  public void stop(CoprocessorEnvironment e) {
+    stopBuilding();
+  }
+
+  private void stopBuilding() {
+    stopping = true;
+    Thread t = this.builder;
+    if (t != null) {
+      t.interrupt();
+      Threads.shutdown(t);
+    }
+  }
+
+  /**
+   * Builds the index of a region, unless it was built already, then opens it to lookups.
+   */
+  private class IndexBuilder implements Runnable {
+    private final HRegion region;
+    private final byte[] prefix;
+
+    IndexBuilder(HRegion region, byte[] prefix) {
+      this.region = region;
+      this.prefix = prefix;
+    }
+
+    @Override
+    public void run() {
+      try {
+        Get marker = new Get(prefix);
+        marker.addColumn(indexFamily, BUILT_QUALIFIER);
+        if (region.get(marker, false).isEmpty()) {
+          buildIndex(region, prefix);
+        }
+        built = true;
+      } catch (IOException ioe) {
+        // Lookups fail until the region opens again, which builds the index again as it is
+        // only marked as built once complete
+        if (stopping) {
+          LOG.info("Stopped building the index of " + region);
+        } else {
+          LOG.error("Failed to build the index of " + region + ", lookups will fail", ioe);
+        }
+      } finally {
+        builder = null;
+      }
+    }
+  }
+
+  private void checkStopping(HRegion region) throws InterruptedIOException {
+    if (stopping || Thread.currentThread().isInterrupted()) {
+      throw new InterruptedIOException("Region " + region + " is closing");
+    }
+  }
+
+  /**
+   * Indexes the rows of a region, then writes the marker of its index being built.
+   */
+  private void buildIndex(HRegion region, byte[] prefix) throws IOException {
+    long start = EnvironmentEdgeManager.currentTimeMillis();
+    List<Mutation> batch = new ArrayList<Mutation>();
+    List<Cell> cells = new ArrayList<Cell>();
+    boolean more;
+
+    // Drop the index of the regions this one was split or merged from
+    Scan scan = new Scan();
+    scan.addFamily(indexFamily);
+    scan.setFilter(new FirstKeyOnlyFilter());
+    scan.setCacheBlocks(false);
+    RegionScanner scanner = region.getScanner(scan);
+    try {
+      do {
+        more = scanner.next(cells);
+        if (!cells.isEmpty() && !Bytes.startsWith(CellUtil.cloneRow(cells.get(0)), prefix)) {
+          Delete delete = new Delete(CellUtil.cloneRow(cells.get(0)));
+          delete.deleteFamily(indexFamily);
+          batch.add(delete);
+          if (batch.size() >= BUILD_BATCH_SIZE) {
+            checkStopping(region);
+            applyIndexMutations(region, batch);
+          }
+        }
+        cells.clear();
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+
+    scan = new Scan();
+    for (IndexedColumn column : columns) {
+      scan.addColumn(column.family, column.qualifier);
+    }
+    scan.setCacheBlocks(false);
+    long entries = 0;
+    scanner = region.getScanner(scan);
+    try {
+      do {
+        more = scanner.next(cells);
+        for (Cell cell : cells) {
+          IndexedColumn column = getColumn(CellUtil.cloneFamily(cell),
+            CellUtil.cloneQualifier(cell));
+          if (column != null) {
+            Put put = new Put(indexRow(prefix, column, CellUtil.cloneValue(cell)));
+            put.add(indexFamily, CellUtil.cloneRow(cell), nextTimestamp(),
+              HConstants.EMPTY_BYTE_ARRAY);
+            batch.add(put);
+            entries++;
+          }
+        }
+        if (batch.size() >= BUILD_BATCH_SIZE) {
+          checkStopping(region);
+          applyIndexMutations(region, batch);
+        }
+        cells.clear();
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+    Put put = new Put(prefix);
+    put.add(indexFamily, BUILT_QUALIFIER, Bytes.toBytes(region.getRegionInfo().getRegionId()));
+    batch.add(put);
+    checkStopping(region);
+    applyIndexMutations(region, batch);
+    LOG.info("Built the index of " + region + ", " + entries + " entries in "
+        + (EnvironmentEdgeManager.currentTimeMillis() - start) + "ms");
+  }
+
+  private void applyIndexMutations(HRegion region, List<Mutation> batch) throws IOException {
+    OperationStatus[] statuses = region.batchMutate(batch.toArray(new Mutation[batch.size()]));
+    for (OperationStatus status : statuses) {
+      if (status.getOperationStatusCode() != OperationStatusCode.SUCCESS) {
+        throw new IOException("Failed to write index entries of " + region + ": "
+            + status.getExceptionMsg());
+      }
+    }
+    batch.clear();
+  }
+
+  /**
+   * Adds the index entries the mutations of the batch change to the mutations themselves.
+   */
+  @Override
+  public void preBatchMutate(ObserverContext<RegionCoprocessorEnvironment> c,
+      MiniBatchOperationInProgress<Mutation> miniBatchOp) throws IOException {
+    byte[] prefix = this.indexRowPrefix;
+    if (prefix == null) {
+      return;
+    }
+    HRegion region = c.getEnvironment().getRegion();
+    // Versions of the indexed columns of the rows, as the batch leaves them so far
+    Map<byte[], Map<IndexedColumn, List<Cell>>> rows = null;
+    for (int i = 0; i < miniBatchOp.size(); i++) {
+      if (miniBatchOp.getOperationStatus(i).getOperationStatusCode()
+          != OperationStatusCode.NOT_RUN) {
+        continue;
+      }
+      Mutation m = miniBatchOp.getOperation(i);
+      Map<byte[], List<Cell>> familyMap = m.getFamilyCellMap();
+      List<Cell> indexCells = null;
+      for (IndexedColumn column : columns) {
+        List<Cell> cells = familyMap.get(column.family);
+        if (cells == null) {
+          continue;
+        }
+        if (rows == null) {
+          rows = new TreeMap<byte[], Map<IndexedColumn, List<Cell>>>(Bytes.BYTES_COMPARATOR);
+        }
+        Map<IndexedColumn, List<Cell>> rowColumns = rows.get(m.getRow());
+        if (rowColumns == null) {
+          rowColumns = new HashMap<IndexedColumn, List<Cell>>();
+          rows.put(m.getRow(), rowColumns);
+        }
+        List<Cell> versions = rowColumns.get(column);
+        if (versions == null) {
+          Get get = new Get(m.getRow());
+          get.addColumn(column.family, column.qualifier);
+          get.setMaxVersions();
+          versions = new ArrayList<Cell>(region.get(get, false));
+          rowColumns.put(column, versions);
+        }
+        Cell before = versions.isEmpty() ? null : versions.get(0);
+        if (!applyToVersions(cells, column, versions)) {
+          continue;
+        }
+        Cell after = versions.isEmpty() ? null : versions.get(0);
+        if (indexCells == null) {
+          indexCells = new ArrayList<Cell>();
+        }
+        addIndexCells(prefix, column, m.getRow(), before, after, indexCells);
+      }
+      if (indexCells != null && !indexCells.isEmpty()) {
+        List<Cell> cells = familyMap.get(indexFamily);
+        if (cells == null) {
+          familyMap.put(indexFamily, indexCells);
+        } else {
+          cells.addAll(indexCells);
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the cells a mutation has for the family of a column to the versions of the column.
+   * @return Whether the mutation touches the column
+   */
+  private static boolean applyToVersions(List<Cell> cells, IndexedColumn column,
+      List<Cell> versions) {
+    boolean touched = false;
+    for (Cell cell : cells) {
+      KeyValue.Type type = KeyValue.Type.codeToType(cell.getTypeByte());
+      boolean familyWide = type == KeyValue.Type.DeleteFamily
+          || type == KeyValue.Type.DeleteFamilyVersion;
+      if (!familyWide && !CellUtil.matchingQualifier(cell, column.qualifier)) {
+        continue;
+      }
+      touched = true;
+      long ts = cell.getTimestamp();
+      boolean allUpTo = type == KeyValue.Type.DeleteFamily || type == KeyValue.Type.DeleteColumn;
+      for (Iterator<Cell> it = versions.iterator(); it.hasNext();) {
+        long versionTs = it.next().getTimestamp();
+        if (versionTs == ts || (allUpTo && versionTs < ts)) {
+          it.remove();
+        }
+      }
+      if (type == KeyValue.Type.Put) {
+        versions.add(cell);
+        Collections.sort(versions, NEWEST_FIRST);
+      }
+    }
+    return touched;
+  }
+
+  /**
+   * Adds the index cells moving a data row from the index row of a value to the one of another.
+   * @param before the latest version of the column before the change, null if none
+   * @param after the latest version after the change, null if none
+   */
+  private void addIndexCells(byte[] prefix, IndexedColumn column, byte[] row, Cell before,
+      Cell after, List<Cell> indexCells) {
+    if (before != null && after != null && CellUtil.matchingValue(before, after)) {
+      return;
+    }
+    if (before != null) {
+      indexCells.add(new KeyValue(indexRow(prefix, column, CellUtil.cloneValue(before)),
+          indexFamily, row, nextTimestamp(), KeyValue.Type.DeleteColumn));
+    }
+    if (after != null) {
+      indexCells.add(new KeyValue(indexRow(prefix, column, CellUtil.cloneValue(after)),
+          indexFamily, row, nextTimestamp(), KeyValue.Type.Put, HConstants.EMPTY_BYTE_ARRAY));
+    }
+  }
+
+  @Override
+  public RegionScanner preScannerOpen(ObserverContext<RegionCoprocessorEnvironment> e,
+      Scan scan, RegionScanner s) throws IOException {
+    byte[][] lookup = IndexedScan.getIndexLookup(scan);
+    byte[] prefix = this.indexRowPrefix;
+    if (lookup == null) {
+      // The index entries are rows of their own, keep them out of the scans of the data
+      if (prefix != null && scan.getFamilyMap().size() > 1) {
+        scan.getFamilyMap().remove(indexFamily);
+      }
+      return s;
+    }
+    IndexedColumn column = getColumn(lookup[0], lookup[1]);
+    if (prefix != null && column != null && !built && builder != null) {
+      // Let the client retry until the build completes
+      throw new IOException("The index of " + e.getEnvironment().getRegion()
+          + " is being built");
+    }
+    if (prefix == null || column == null || !built) {
+      throw new DoNotRetryIOException("Column " + Bytes.toStringBinary(lookup[0]) + ":"
+          + Bytes.toStringBinary(lookup[1]) + " is not indexed in "
+          + e.getEnvironment().getRegion());
+    }
+    if (scan.isReversed()) {
+      throw new DoNotRetryIOException("Index lookups cannot be reversed");
+    }
+    e.bypass();
+    return new IndexLookupScanner(e.getEnvironment().getRegion(), scan,
+        indexRow(prefix, column, lookup[2]), column, lookup[2]);
+  }
+
+  private IndexedColumn getColumn(byte[] family, byte[] qualifier) {
+    for (IndexedColumn column : columns) {
+      if (Bytes.equals(family, column.family) && Bytes.equals(qualifier, column.qualifier)) {
+        return column;
+      }
+    }
+    return null;
+  }
+
+  private static byte[] indexRow(byte[] prefix, IndexedColumn column, byte[] value) {
+    return Bytes.add(prefix, column.id, value);
+  }
+
+  private long nextTimestamp() {
+    while (true) {
+      long last = lastTimestamp.get();
+      long ts = Math.max(EnvironmentEdgeManager.currentTimeMillis(), last + 1);
+      if (lastTimestamp.compareAndSet(last, ts)) {
+        return ts;
+      }
+    }
+  }
+
+  /**
+   * Scans the data rows the index row of a value points to.
+   */
+  private class IndexLookupScanner implements RegionScanner {
+    private final HRegion region;
+    private final Scan scan;
+    private final RegionScanner indexScanner;
+    private final IndexedColumn column;
+    /** Families and columns to get from the data rows */
+    private final Map<byte[], NavigableSet<byte[]>> families;
+    /** Whether the indexed column is read only to check the value */
+    private final boolean stripColumn;
+    private final FilterList filter;
+    /** Data rows read from the index and not returned yet, in order */
+    private final LinkedList<byte[]> rows = new LinkedList<byte[]>();
+    private boolean indexDone = false;
+    /** Row the scanner was reseeked to, data rows before it are skipped */
+    private byte[] minRow = null;
+
+    IndexLookupScanner(HRegion region, Scan scan, byte[] indexRow, IndexedColumn column,
+        byte[] value) throws IOException {
+      this.region = region;
+      this.scan = scan;
+      this.column = column;
+      this.families = new TreeMap<byte[], NavigableSet<byte[]>>(Bytes.BYTES_COMPARATOR);
+      this.families.putAll(scan.getFamilyMap());
+      this.families.remove(indexFamily);
+      if (families.isEmpty()) {
+        for (byte[] family : region.getTableDesc().getFamiliesKeys()) {
+          if (!Bytes.equals(family, indexFamily)) {
+            families.put(family, null);
+          }
+        }
+      }
+      NavigableSet<byte[]> qualifiers = families.get(column.family);
+      this.stripColumn = !families.containsKey(column.family)
+          || (qualifiers != null && !qualifiers.contains(column.qualifier));
+
+      // Rows updated since the index was read may not hold the value any more
+      SingleColumnValueFilter check = new SingleColumnValueFilter(column.family,
+          column.qualifier, CompareOp.EQUAL, value);
+      check.setFilterIfMissing(true);
+      check.setLatestVersionOnly(true);
+      this.filter = new FilterList(FilterList.Operator.MUST_PASS_ALL, check);
+      if (scan.getFilter() != null) {
+        filter.addFilter(scan.getFilter());
+      }
+
+      Scan indexScan = new Scan(indexRow, Bytes.add(indexRow, new byte[] { 0 }));
+      indexScan.addFamily(indexFamily);
+      indexScan.setBatch(LOOKUP_BATCH_SIZE);
+      indexScan.setCacheBlocks(scan.getCacheBlocks());
+      byte[] startRow = scan.getStartRow();
+      byte[] stopRow = scan.getStopRow();
+      indexScan.setFilter(new ColumnRangeFilter(startRow.length > 0 ? startRow : null, true,
+          stopRow.length > 0 ? stopRow : null, false));
+      this.indexScanner = region.getScanner(indexScan);
+    }
+
+    private Get getDataRow(byte[] row) throws IOException {
+      Get get = new Get(row);
+      for (Map.Entry<byte[], NavigableSet<byte[]>> entry : families.entrySet()) {
+        if (entry.getValue() == null) {
+          get.addFamily(entry.getKey());
+        } else {
+          for (byte[] qualifier : entry.getValue()) {
+            get.addColumn(entry.getKey(), qualifier);
+          }
+        }
+      }
+      if (stripColumn) {
+        get.addColumn(column.family, column.qualifier);
+      }
+      get.setMaxVersions(scan.getMaxVersions());
+      get.setTimeRange(scan.getTimeRange().getMin(), scan.getTimeRange().getMax());
+      get.setCacheBlocks(scan.getCacheBlocks());
+      get.setFilter(filter);
+      return get;
+    }
+
+    @Override
+    public boolean nextRaw(List<Cell> result) throws IOException {
+      while (true) {
+        if (rows.isEmpty()) {
+          if (indexDone) {
+            return false;
+          }
+          List<Cell> entries = new ArrayList<Cell>();
+          indexDone = !indexScanner.nextRaw(entries);
+          for (Cell entry : entries) {
+            byte[] row = CellUtil.cloneQualifier(entry);
+            if (minRow == null || Bytes.compareTo(row, minRow) >= 0) {
+              rows.add(row);
+            }
+          }
+          continue;
+        }
+        List<Cell> cells = region.get(getDataRow(rows.removeFirst()), false);
+        if (cells.isEmpty()) {
+          continue;
+        }
+        for (Cell cell : cells) {
+          if (!stripColumn || !CellUtil.matchingColumn(cell, column.family, column.qualifier)) {
+            result.add(cell);
+          }
+        }
+        return !indexDone || !rows.isEmpty();
+      }
+    }
+
+    @Override
+    public boolean nextRaw(List<Cell> result, int limit) throws IOException {
+      return nextRaw(result);
+    }
+
+    @Override
+    public boolean next(List<Cell> result) throws IOException {
+      region.startRegionOperation();
+      try {
+        return nextRaw(result);
+      } finally {
+        region.closeRegionOperation();
+      }
+    }
+
+    @Override
+    public boolean next(List<Cell> result, int limit) throws IOException {
+      return next(result);
+    }
+
+    @Override
+    public HRegionInfo getRegionInfo() {
+      return region.getRegionInfo();
+    }
+
+    @Override
+    public boolean isFilterDone() throws IOException {
+      return false;
+    }
+
+    @Override
+    public boolean reseek(byte[] row) throws IOException {
+      // The index row lists the data rows in order: drop the queued ones before the target, and
+      // skip the ones still to be read from the index as they come
+      if (minRow == null || Bytes.compareTo(row, minRow) > 0) {
+        minRow = row;
+      }
+      while (!rows.isEmpty() && Bytes.compareTo(rows.getFirst(), minRow) < 0) {
+        rows.removeFirst();
+      }
+      return !indexDone || !rows.isEmpty();
+    }
+
+    @Override
+    public long getMaxResultSize() {
+      return scan.getMaxResultSize();
+    }
+
+    @Override
+    public long getMvccReadPoint() {
+      return indexScanner.getMvccReadPoint();
+    }
+
+    @Override
+    public void close() throws IOException {
+      indexScanner.close();
+    }
+  }
+}
@@ -32,10 +32,26 @@ public class BlockCacheKey implements HeapSize, java.io.Serializable {
   private final String hfileName;
   private final long offset;
   private final DataBlockEncoding encoding;
+  /** Block cache partition the block is accounted to, not part of the identity of the key */
+  private final String partition;
 
   public BlockCacheKey(String file, long offset, DataBlockEncoding encoding,
       BlockType blockType) {
+    this(file, offset, encoding, blockType, null);
+  }
+
+  /**
+   * Construct a new BlockCacheKey
+   * @param file The name of the HFile this block belongs to.
+   * @param offset Offset of the block into the file
+   * @param encoding The data block encoding of the file
+   * @param blockType The type of the block, null if unknown
+   * @param partition The block cache partition of the family of the file, null if none
+   */
+  public BlockCacheKey(String file, long offset, DataBlockEncoding encoding,
+      BlockType blockType, String partition) {
     this.hfileName = file;
+    this.partition = partition;
     this.offset = offset;
     // We add encoding to the cache key only for data blocks. If the block type
     // is unknown (this should never be the case in production), we just use
@@ -84,7 +100,7 @@ public class BlockCacheKey implements HeapSize, java.io.Serializable {
   @Override
   public long heapSize() {
     return ClassSize.align(ClassSize.OBJECT + 2 * hfileName.length() +
-        Bytes.SIZEOF_LONG + 2 * ClassSize.REFERENCE);
+        Bytes.SIZEOF_LONG + 3 * ClassSize.REFERENCE);
   }
 
   // can't avoid this unfortunately
@@ -102,4 +118,11 @@ public class BlockCacheKey implements HeapSize, java.io.Serializable {
   public long getOffset() {
     return offset;
   }
+
+  /**
+   * @return The block cache partition of the block, null if it is not in any
+   */
+  public String getPartition() {
+    return partition;
+  }
 }
@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * The partitions of a block cache, as named by the BLOCKCACHE_PARTITION attribute of tables
+ * and column families. The blocks of a partition are guaranteed a minimum share of the
+ * capacity of the cache, and capped at a maximum one, so that a table reading through a lot
+ * of blocks does not evict the working set of the others. The shares are configured on the
+ * region server with <code>hbase.blockcache.partition.&lt;name&gt;.min.share</code> and
+ * <code>hbase.blockcache.partition.&lt;name&gt;.max.share</code>; a partition that is not
+ * configured has no guarantee and no cap. Blocks not in any partition are not accounted.
+ * <p>
+ * Each cache keeps its own instance, since the sizes of the partitions are relative to its
+ * capacity. The cache tells the size of the blocks it adds and removes, and evicts according
+ * to {@link Partition#getMinSize(long)} and {@link Partition#getMaxSize(long)}.
+ */
+@InterfaceAudience.Private
+public class BlockCachePartitions {
+  static final Log LOG = LogFactory.getLog(BlockCachePartitions.class);
+
+  public static final String PARTITION_CONF_PREFIX = "hbase.blockcache.partition.";
+  public static final String MIN_SHARE_CONF_SUFFIX = ".min.share";
+  public static final String MAX_SHARE_CONF_SUFFIX = ".max.share";
+  public static final float DEFAULT_MIN_SHARE = 0f;
+  public static final float DEFAULT_MAX_SHARE = 1f;
+
+  private final Configuration conf;
+  private final ConcurrentMap<String, Partition> partitions =
+    new ConcurrentHashMap<String, Partition>();
+
+  /**
+   * @param conf The configuration to read the shares of the partitions from, null for
+   * partitions with no guarantee and no cap
+   * @throws IllegalArgumentException if the minimum shares add up to more than the whole cache
+   */
+  public BlockCachePartitions(Configuration conf) {
+    this.conf = conf;
+    if (conf == null) return;
+    // Create the configured partitions up front, to check their minimum shares add up
+    float minShares = 0;
+    for (Map.Entry<String, String> e : conf) {
+      String key = e.getKey();
+      if (key.startsWith(PARTITION_CONF_PREFIX) && key.endsWith(MIN_SHARE_CONF_SUFFIX)) {
+        String name = key.substring(PARTITION_CONF_PREFIX.length(),
+          key.length() - MIN_SHARE_CONF_SUFFIX.length());
+        minShares += get(name).getMinShare();
+      }
+    }
+    if (minShares > 1) {
+      throw new IllegalArgumentException("Minimum shares of the block cache partitions add up to "
+        + minShares + ", more than the whole cache: the guarantees cannot all hold");
+    }
+  }
+
+  /**
+   * @param key The key of a block
+   * @return The partition of the block, null if it is not in any
+   */
+  public Partition get(BlockCacheKey key) {
+    String name = key.getPartition();
+    return name == null ? null : get(name);
+  }
+
+  /**
+   * @param name The name of a partition
+   * @return The partition, created with its configured shares on first use
+   */
+  public Partition get(String name) {
+    Partition partition = partitions.get(name);
+    if (partition == null) {
+      partition = new Partition(name, getShare(name, MIN_SHARE_CONF_SUFFIX, DEFAULT_MIN_SHARE),
+        getShare(name, MAX_SHARE_CONF_SUFFIX, DEFAULT_MAX_SHARE));
+      Partition existing = partitions.putIfAbsent(name, partition);
+      if (existing != null) partition = existing;
+    }
+    return partition;
+  }
+
+  private float getShare(String name, String suffix, float defaultShare) {
+    if (conf == null) return defaultShare;
+    String key = PARTITION_CONF_PREFIX + name + suffix;
+    float share = conf.getFloat(key, defaultShare);
+    if (share < 0 || share > 1) {
+      LOG.warn(key + " must be between 0.0 and 1.0, using " + defaultShare + " instead of " +
+        share);
+      return defaultShare;
+    }
+    return share;
+  }
+
+  /**
+   * @return The partitions blocks were cached in or configured so far
+   */
+  public Collection<Partition> getPartitions() {
+    return partitions.values();
+  }
+
+  /**
+   * Accounts a block added to or removed from the cache.
+   * @param key The key of the block
+   * @param delta The size of the block, negative if removed
+   * @return The partition of the block, null if it is not in any
+   */
+  public Partition add(BlockCacheKey key, long delta) {
+    Partition partition = get(key);
+    if (partition != null) partition.addSize(delta);
+    return partition;
+  }
+
+  /**
+   * Records a lookup of a block in the statistics of its partition.
+   * @param key The key looked up
+   * @param hit Whether the block was found
+   * @param caching Whether the caller caches the block on a miss
+   */
+  public void access(BlockCacheKey key, boolean hit, boolean caching) {
+    Partition partition = get(key);
+    if (partition == null) return;
+    if (hit) {
+      partition.stats.hit(caching);
+    } else {
+      partition.stats.miss(caching);
+    }
+  }
+
+  /**
+   * @param key The key of a cached block
+   * @param blockSize The size of the block
+   * @param capacity The capacity of the cache
+   * @return Whether evicting the block keeps its partition over its minimum share
+   */
+  public boolean canEvict(BlockCacheKey key, long blockSize, long capacity) {
+    Partition partition = get(key);
+    return partition == null || partition.getSize() - blockSize >= partition.getMinSize(capacity);
+  }
+
+  /**
+   * A block cache partition, with its shares, the size of its blocks in the cache and its
+   * statistics.
+   */
+  public static class Partition {
+    private final String name;
+    private final float minShare;
+    private final float maxShare;
+    private final AtomicLong size = new AtomicLong(0);
+    private final CacheStats stats = new CacheStats();
+
+    Partition(String name, float minShare, float maxShare) {
+      this.name = name;
+      this.minShare = minShare;
+      this.maxShare = Math.max(minShare, maxShare);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public float getMinShare() {
+      return minShare;
+    }
+
+    public float getMaxShare() {
+      return maxShare;
+    }
+
+    /**
+     * @return The size of the blocks of the partition in the cache
+     */
+    public long getSize() {
+      return size.get();
+    }
+
+    /**
+     * Accounts a block of the partition added to or removed from the cache.
+     * @param delta The size of the block, negative if removed
+     * @return The new size of the partition
+     */
+    public long addSize(long delta) {
+      return size.addAndGet(delta);
+    }
+
+    /**
+     * @return The hit and miss statistics of the lookups of blocks of the partition
+     */
+    public CacheStats getStats() {
+      return stats;
+    }
+
+    /**
+     * @param capacity The capacity of the cache
+     * @return The size the blocks of the partition are guaranteed to keep in the cache
+     */
+    public long getMinSize(long capacity) {
+      return (long) Math.floor(capacity * minShare);
+    }
+
+    /**
+     * @param capacity The capacity of the cache
+     * @return The size the blocks of the partition can take at most in the cache
+     */
+    public long getMaxSize(long capacity) {
+      return (long) Math.floor(capacity * maxShare);
+    }
+
+    @Override
+    public String toString() {
+      return "partition=" + name + ", size=" + StringUtils.byteDesc(getSize()) +
+        ", minShare=" + minShare + ", maxShare=" + maxShare + ", " + stats;
+    }
+  }
+}
@@ -28,6 +28,7 @@ import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.util.DirectMemoryUtils;
@@ -80,6 +81,8 @@ public class CacheConfig {
   public static final String BUCKET_CACHE_SIZE_KEY = "hbase.bucketcache.size";
   public static final String BUCKET_CACHE_PERSISTENT_PATH_KEY = 
       "hbase.bucketcache.persistent.path";
+  public static final String BUCKET_CACHE_PERSISTENT_CHECKPOINT_PERIOD_KEY =
+      "hbase.bucketcache.persistent.checkpoint.period";
   public static final String BUCKET_CACHE_COMBINED_KEY = 
       "hbase.bucketcache.combinedcache.enabled";
   public static final String BUCKET_CACHE_COMBINED_PERCENTAGE_KEY = 
@@ -116,6 +119,14 @@ public class CacheConfig {
    */
   public static final String BLOCKCACHE_BLOCKSIZE_KEY = "hbase.offheapcache.minblocksize";
 
+  /**
+   * Configuration key for the eviction policy of the on heap block cache, which is also the
+   * first level of the combined cache: "LRU" for the {@link LruBlockCache}, or "TinyLFU" for the
+   * {@link TinyLfuBlockCache}, which admits the blocks by recent access frequency.
+   */
+  public static final String BLOCKCACHE_POLICY_KEY = "hfile.block.cache.policy";
+  public static final String BLOCKCACHE_POLICY_DEFAULT = "LRU";
+
   // Defaults
 
   public static final boolean DEFAULT_CACHE_DATA_ON_READ = true;
@@ -157,6 +168,9 @@ public class CacheConfig {
   /** Whether data blocks should be prefetched into the cache */
   private final boolean prefetchOnOpen;
 
+  /** The block cache partition blocks are cached in, null if none */
+  private final String blockCachePartition;
+
   /**
    * Create a cache configuration using the specified configuration object and
    * family descriptor.
@@ -164,6 +178,18 @@ public class CacheConfig {
    * @param family column family configuration
    */
   public CacheConfig(Configuration conf, HColumnDescriptor family) {
+    this(conf, null, family);
+  }
+
+  /**
+   * Create a cache configuration using the specified configuration object and
+   * table and family descriptors.
+   * @param conf hbase configuration
+   * @param table table configuration, for the block cache partition of the family if it
+   * does not name one; can be null
+   * @param family column family configuration
+   */
+  public CacheConfig(Configuration conf, HTableDescriptor table, HColumnDescriptor family) {
     this(CacheConfig.instantiateBlockCache(conf),
         family.isBlockCacheEnabled(),
         family.isInMemory(),
@@ -179,7 +205,9 @@ public class CacheConfig {
             DEFAULT_EVICT_ON_CLOSE) || family.shouldEvictBlocksOnClose(),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_CACHE_DATA_COMPRESSED),
         conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY,
-            DEFAULT_PREFETCH_ON_OPEN) || family.shouldPrefetchBlocksOnOpen()
+            DEFAULT_PREFETCH_ON_OPEN) || family.shouldPrefetchBlocksOnOpen(),
+        family.getBlockCachePartition() != null || table == null ?
+            family.getBlockCachePartition() : table.getBlockCachePartition()
      );
   }
 
@@ -198,7 +226,8 @@ public class CacheConfig {
         conf.getBoolean(CACHE_BLOOM_BLOCKS_ON_WRITE_KEY, DEFAULT_CACHE_BLOOMS_ON_WRITE),
         conf.getBoolean(EVICT_BLOCKS_ON_CLOSE_KEY, DEFAULT_EVICT_ON_CLOSE),
         conf.getBoolean(CACHE_DATA_BLOCKS_COMPRESSED_KEY, DEFAULT_CACHE_DATA_COMPRESSED),
-        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN)
+        conf.getBoolean(PREFETCH_BLOCKS_ON_OPEN_KEY, DEFAULT_PREFETCH_ON_OPEN),
+        null
     );
   }
 
@@ -220,6 +249,23 @@ public class CacheConfig {
       final boolean cacheDataOnWrite, final boolean cacheIndexesOnWrite,
       final boolean cacheBloomsOnWrite, final boolean evictOnClose,
       final boolean cacheDataCompressed, final boolean prefetchOnOpen) {
+    this(blockCache, cacheDataOnRead, inMemory, cacheDataOnWrite, cacheIndexesOnWrite,
+      cacheBloomsOnWrite, evictOnClose, cacheDataCompressed, prefetchOnOpen, null);
+  }
+
+  /**
+   * Create a block cache configuration with the specified cache and
+   * configuration parameters.
+   * @param blockCachePartition the block cache partition to cache blocks in, null if none
+   * @see #CacheConfig(BlockCache, boolean, boolean, boolean, boolean, boolean, boolean,
+   * boolean, boolean)
+   */
+  CacheConfig(final BlockCache blockCache,
+      final boolean cacheDataOnRead, final boolean inMemory,
+      final boolean cacheDataOnWrite, final boolean cacheIndexesOnWrite,
+      final boolean cacheBloomsOnWrite, final boolean evictOnClose,
+      final boolean cacheDataCompressed, final boolean prefetchOnOpen,
+      final String blockCachePartition) {
     this.blockCache = blockCache;
     this.cacheDataOnRead = cacheDataOnRead;
     this.inMemory = inMemory;
@@ -229,6 +275,7 @@ public class CacheConfig {
     this.evictOnClose = evictOnClose;
     this.cacheDataCompressed = cacheDataCompressed;
     this.prefetchOnOpen = prefetchOnOpen;
+    this.blockCachePartition = blockCachePartition;
   }
 
   /**
@@ -239,7 +286,8 @@ public class CacheConfig {
     this(cacheConf.blockCache, cacheConf.cacheDataOnRead, cacheConf.inMemory,
         cacheConf.cacheDataOnWrite, cacheConf.cacheIndexesOnWrite,
         cacheConf.cacheBloomsOnWrite, cacheConf.evictOnClose,
-        cacheConf.cacheDataCompressed, cacheConf.prefetchOnOpen);
+        cacheConf.cacheDataCompressed, cacheConf.prefetchOnOpen,
+        cacheConf.blockCachePartition);
   }
 
   /**
@@ -364,6 +412,13 @@ public class CacheConfig {
     return isBlockCacheEnabled() && this.prefetchOnOpen;
   }
 
+  /**
+   * @return the block cache partition blocks are cached in, null if none
+   */
+  public String getBlockCachePartition() {
+    return this.blockCachePartition;
+  }
+
   @Override
   public String toString() {
     if (!isBlockCacheEnabled()) {
@@ -376,7 +431,8 @@ public class CacheConfig {
       "[cacheBloomsOnWrite=" + shouldCacheBloomsOnWrite() + "] " +
       "[cacheEvictOnClose=" + shouldEvictOnClose() + "] " +
       "[cacheDataCompressed=" + shouldCacheDataCompressed() + "] " +
-      "[prefetchOnOpen=" + shouldPrefetchOnOpen() + "]";
+      "[prefetchOnOpen=" + shouldPrefetchOnOpen() + "]" +
+      (blockCachePartition == null ? "" : " [partition=" + blockCachePartition + "]");
   }
 
   // Static block cache reference and methods
@@ -454,22 +510,22 @@ public class CacheConfig {
           int ioErrorsTolerationDuration = conf.getInt(
               "hbase.bucketcache.ioengine.errors.tolerated.duration",
               BucketCache.DEFAULT_ERROR_TOLERATION_DURATION);
+          int checkpointPeriod = conf.getInt(BUCKET_CACHE_PERSISTENT_CHECKPOINT_PERIOD_KEY,
+              BucketCache.DEFAULT_CHECKPOINT_PERIOD);
           bucketCache = new BucketCache(bucketCacheIOEngineName,
               bucketCacheSize, blockSize, bucketSizes, writerThreads, writerQueueLen, persistentPath,
-              ioErrorsTolerationDuration);
+              ioErrorsTolerationDuration, checkpointPeriod, conf);
         } catch (IOException ioex) {
           LOG.error("Can't instantiate bucket cache", ioex);
           throw new RuntimeException(ioex);
         }
       }
-      LOG.info("Allocating LruBlockCache with maximum size " +
-        StringUtils.humanReadableInt(lruCacheSize));
-      LruBlockCache lruCache = new LruBlockCache(lruCacheSize, blockSize, true, conf);
-      lruCache.setVictimCache(bucketCache);
+      FirstLevelBlockCache l1Cache = getL1(lruCacheSize, blockSize, conf);
+      l1Cache.setVictimCache(bucketCache);
       if (bucketCache != null && combinedWithLru) {
-        GLOBAL_BLOCK_CACHE_INSTANCE = new CombinedBlockCache(lruCache, bucketCache);
+        GLOBAL_BLOCK_CACHE_INSTANCE = new CombinedBlockCache(l1Cache, bucketCache);
       } else {
-        GLOBAL_BLOCK_CACHE_INSTANCE = lruCache;
+        GLOBAL_BLOCK_CACHE_INSTANCE = l1Cache;
       }
     } else {
       LOG.warn("SlabCache is deprecated. Consider BucketCache as a replacement.");
@@ -478,4 +534,23 @@ public class CacheConfig {
     }
     return GLOBAL_BLOCK_CACHE_INSTANCE;
   }
+
+  /**
+   * @return The on heap block cache with the policy of {@link #BLOCKCACHE_POLICY_KEY}
+   */
+  private static FirstLevelBlockCache getL1(long cacheSize, int blockSize, Configuration conf) {
+    String policy = conf.get(BLOCKCACHE_POLICY_KEY, BLOCKCACHE_POLICY_DEFAULT);
+    if (policy.equalsIgnoreCase("LRU")) {
+      LOG.info("Allocating LruBlockCache with maximum size " +
+        StringUtils.humanReadableInt(cacheSize));
+      return new LruBlockCache(cacheSize, blockSize, true, conf);
+    } else if (policy.equalsIgnoreCase("TinyLFU")) {
+      LOG.info("Allocating TinyLfuBlockCache with maximum size " +
+        StringUtils.humanReadableInt(cacheSize));
+      return new TinyLfuBlockCache(cacheSize, blockSize);
+    } else {
+      throw new IllegalArgumentException("Unknown block cache policy " + policy +
+        ", expected LRU or TinyLFU");
+    }
+  }
 }
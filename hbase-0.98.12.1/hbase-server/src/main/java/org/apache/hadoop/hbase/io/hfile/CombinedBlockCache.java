@@ -27,9 +27,9 @@ import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 
 /**
  * CombinedBlockCache is an abstraction layer that combines
- * {@link LruBlockCache} and {@link BucketCache}. The smaller lruCache is used
- * to cache bloom blocks and index blocks , the larger bucketCache is used to
- * cache data blocks. getBlock reads first from the smaller lruCache before
+ * {@link FirstLevelBlockCache}, such as the {@link LruBlockCache}, and {@link BucketCache}.
+ * The smaller l1Cache is used to cache bloom blocks and index blocks , the larger
+ * bucketCache is used to cache data blocks. getBlock reads first from the smaller l1Cache before
  * looking for the block in the bucketCache. Metrics are the combined size and
  * hits and misses of both caches.
  * 
@@ -37,27 +37,27 @@ import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 @InterfaceAudience.Private
 public class CombinedBlockCache implements BlockCache, HeapSize {
 
-  private final LruBlockCache lruCache;
+  private final FirstLevelBlockCache l1Cache;
   private final BucketCache bucketCache;
   private final CombinedCacheStats combinedCacheStats;
 
-  public CombinedBlockCache(LruBlockCache lruCache, BucketCache bucketCache) {
-    this.lruCache = lruCache;
+  public CombinedBlockCache(FirstLevelBlockCache l1Cache, BucketCache bucketCache) {
+    this.l1Cache = l1Cache;
     this.bucketCache = bucketCache;
-    this.combinedCacheStats = new CombinedCacheStats(lruCache.getStats(),
+    this.combinedCacheStats = new CombinedCacheStats(l1Cache.getStats(),
         bucketCache.getStats());
   }
 
   @Override
   public long heapSize() {
-    return lruCache.heapSize() + bucketCache.heapSize();
+    return l1Cache.heapSize() + bucketCache.heapSize();
   }
 
   @Override
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
     boolean isMetaBlock = buf.getBlockType().getCategory() != BlockCategory.DATA;
     if (isMetaBlock) {
-      lruCache.cacheBlock(cacheKey, buf, inMemory);
+      l1Cache.cacheBlock(cacheKey, buf, inMemory);
     } else {
       bucketCache.cacheBlock(cacheKey, buf, inMemory);
     }
@@ -71,20 +71,20 @@ public class CombinedBlockCache implements BlockCache, HeapSize {
   @Override
   public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching,
       boolean repeat, boolean updateCacheMetrics) {
-    if (lruCache.containsBlock(cacheKey)) {
-      return lruCache.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
+    if (l1Cache.containsBlock(cacheKey)) {
+      return l1Cache.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
     }
     return bucketCache.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
   }
 
   @Override
   public boolean evictBlock(BlockCacheKey cacheKey) {
-    return lruCache.evictBlock(cacheKey) || bucketCache.evictBlock(cacheKey);
+    return l1Cache.evictBlock(cacheKey) || bucketCache.evictBlock(cacheKey);
   }
 
   @Override
   public int evictBlocksByHfileName(String hfileName) {
-    return lruCache.evictBlocksByHfileName(hfileName)
+    return l1Cache.evictBlocksByHfileName(hfileName)
         + bucketCache.evictBlocksByHfileName(hfileName);
   }
 
@@ -95,28 +95,28 @@ public class CombinedBlockCache implements BlockCache, HeapSize {
 
   @Override
   public void shutdown() {
-    lruCache.shutdown();
+    l1Cache.shutdown();
     bucketCache.shutdown();
   }
 
   @Override
   public long size() {
-    return lruCache.size() + bucketCache.size();
+    return l1Cache.size() + bucketCache.size();
   }
 
   @Override
   public long getFreeSize() {
-    return lruCache.getFreeSize() + bucketCache.getFreeSize();
+    return l1Cache.getFreeSize() + bucketCache.getFreeSize();
   }
 
   @Override
   public long getCurrentSize() {
-    return lruCache.getCurrentSize() + bucketCache.getCurrentSize();
+    return l1Cache.getCurrentSize() + bucketCache.getCurrentSize();
   }
 
   @Override
   public long getBlockCount() {
-    return lruCache.getBlockCount() + bucketCache.getBlockCount();
+    return l1Cache.getBlockCount() + bucketCache.getBlockCount();
   }
 
   private static class CombinedCacheStats extends CacheStats {
@@ -201,7 +201,7 @@ public class CombinedBlockCache implements BlockCache, HeapSize {
 
   @Override
   public BlockCache[] getBlockCaches() {
-    return new BlockCache [] {this.lruCache, this.bucketCache};
+    return new BlockCache [] {this.l1Cache, this.bucketCache};
   }
 }
 
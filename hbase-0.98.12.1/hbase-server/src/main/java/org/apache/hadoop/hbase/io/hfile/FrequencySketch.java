@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * A probabilistic estimate of how often each block was recently accessed, for the admission
+ * filter of the {@link TinyLfuBlockCache}.
+ * <p>
+ * A count-min sketch of 4-bit counters: each block is counted in four counters picked by its
+ * hash, and its frequency is the least of them, which over-estimates only on collisions. Sixteen
+ * counters are packed in each long of the table, and updated with a compare-and-set so the
+ * sketch takes no lock. Once as many increments as ten times the expected number of blocks went
+ * in, all the counters are halved, so that the history ages and blocks popular in the past do not
+ * hold the cache forever.
+ */
+@InterfaceAudience.Private
+public class FrequencySketch {
+  static final long[] SEED = new long[] { // A mixture of seeds from FNV-1a, CityHash, and Murmur3
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+  static final long RESET_MASK = 0x7777777777777777L;
+
+  private final AtomicLongArray table;
+  private final int tableMask;
+  /** Number of increments after which the counters are halved */
+  private final int sampleSize;
+  private final AtomicInteger size = new AtomicInteger(0);
+
+  /**
+   * @param maximumSize the expected number of distinct blocks in the cache
+   */
+  public FrequencySketch(long maximumSize) {
+    int maximum = (int) Math.min(Math.max(maximumSize, 1), 1 << 30);
+    this.table = new AtomicLongArray(ceilingPowerOfTwo(maximum));
+    this.tableMask = table.length() - 1;
+    this.sampleSize = (maximum > Integer.MAX_VALUE / 10) ? Integer.MAX_VALUE : 10 * maximum;
+  }
+
+  /**
+   * @return the estimated number of recent accesses of the element, up to 15
+   */
+  public int frequency(Object e) {
+    int hash = spread(e.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table.get(index) >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Counts an access of the element, aging all the counters if the sample is full.
+   */
+  public void increment(Object e) {
+    int hash = spread(e.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && size.incrementAndGet() == sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * Increments the j-th 4-bit counter of the long at index i, unless it is already at 15.
+   * @return whether it was incremented
+   */
+  private boolean incrementAt(int i, int j) {
+    int offset = j << 2;
+    long mask = (0xfL << offset);
+    while (true) {
+      long value = table.get(i);
+      if ((value & mask) == mask) {
+        return false;
+      }
+      if (table.compareAndSet(i, value, value + (1L << offset))) {
+        return true;
+      }
+    }
+  }
+
+  /** Halves all the counters. Increments that race with it are at worst halved too. */
+  private void reset() {
+    for (int i = 0; i < table.length(); i++) {
+      while (true) {
+        long value = table.get(i);
+        if (table.compareAndSet(i, value, (value >>> 1) & RESET_MASK)) {
+          break;
+        }
+      }
+    }
+    size.addAndGet(-(sampleSize >>> 1));
+  }
+
+  private int indexOf(int item, int i) {
+    long hash = (item + SEED[i]) * SEED[i];
+    hash += (hash >>> 32);
+    return ((int) hash) & tableMask;
+  }
+
+  /** Applies a supplemental hash function, against poor quality hash codes. */
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+
+  private static int ceilingPowerOfTwo(int x) {
+    return 1 << (Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(x, 2) - 1));
+  }
+
+  /**
+   * @return the heap size of a sketch for the given expected number of blocks
+   */
+  public static long estimatedHeapSize(long maximumSize) {
+    int maximum = (int) Math.min(Math.max(maximumSize, 1), 1 << 30);
+    return ClassSize.align(ClassSize.OBJECT + 2 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT)
+        + ClassSize.ATOMIC_INTEGER + ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE)
+        + ClassSize.align(ClassSize.ARRAY + (long) Bytes.SIZEOF_LONG * ceilingPowerOfTwo(maximum));
+  }
+}
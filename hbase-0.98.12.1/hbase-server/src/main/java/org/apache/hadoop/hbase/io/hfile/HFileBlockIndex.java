@@ -950,7 +950,8 @@ public class HFileBlockIndex {
         HFileBlock blockForCaching = blockWriter.getBlockForCaching(cacheConf);
         cacheConf.getBlockCache().cacheBlock(new BlockCacheKey(nameForCaching,
           beginOffset, DataBlockEncoding.NONE,
-          blockForCaching.getBlockType()), blockForCaching);
+          blockForCaching.getBlockType(), cacheConf.getBlockCachePartition()),
+          blockForCaching);
       }
 
       // Add intermediate index block size
@@ -276,7 +276,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
       // Check cache for block. If found return.
       long metaBlockOffset = metaBlockIndexReader.getRootBlockOffset(block);
       BlockCacheKey cacheKey = new BlockCacheKey(name, metaBlockOffset,
-          DataBlockEncoding.NONE, BlockType.META);
+          DataBlockEncoding.NONE, BlockType.META, cacheConf.getBlockCachePartition());
 
       cacheBlock &= cacheConf.shouldCacheDataOnRead();
       if (cacheConf.isBlockCacheEnabled()) {
@@ -342,7 +342,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
     BlockCacheKey cacheKey =
         new BlockCacheKey(name, dataBlockOffset,
             dataBlockEncoder.getDataBlockEncoding(),
-            expectedBlockType);
+            expectedBlockType, cacheConf.getBlockCachePartition());
 
     boolean useLock = false;
     IdLock.Entry lockEntry = null;
@@ -195,7 +195,8 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     HFileBlock cacheFormatBlock = fsBlockWriter.getBlockForCaching(cacheConf);
     cacheConf.getBlockCache().cacheBlock(
         new BlockCacheKey(name, offset, blockEncoder.getDataBlockEncoding(),
-            cacheFormatBlock.getBlockType()), cacheFormatBlock);
+            cacheFormatBlock.getBlockType(), cacheConf.getBlockCachePartition()),
+        cacheFormatBlock);
   }
 
   /**
@@ -21,6 +21,7 @@ package org.apache.hadoop.hbase.io.hfile;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -28,6 +29,7 @@ import java.util.PriorityQueue;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -92,7 +94,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  */
 @InterfaceAudience.Private
 @JsonIgnoreProperties({"encodingCountsForTest"})
-public class LruBlockCache implements BlockCache, HeapSize {
+public class LruBlockCache implements FirstLevelBlockCache {
 
   static final Log LOG = LogFactory.getLog(LruBlockCache.class);
 
@@ -130,7 +132,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
   static final int statThreadPeriod = 60 * 5;
 
   /** Concurrent map (the cache) */
-  private final Map<BlockCacheKey,LruCachedBlock> map;
+  private final ConcurrentMap<BlockCacheKey,LruCachedBlock> map;
 
   /** Eviction lock (locked when eviction in process) */
   private final ReentrantLock evictionLock = new ReentrantLock(true);
@@ -191,6 +193,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** Where to send victims (blocks evicted from the cache) */
   private BucketCache victimHandler = null;
 
+  /** Partitions of the cache, with their shares and statistics */
+  private final BlockCachePartitions partitions;
+
   /**
    * Default constructor.  Specify maximum size and expected average block
    * size (approximation is fine).
@@ -229,7 +234,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
         conf.getFloat(LRU_SINGLE_PERCENTAGE_CONFIG_NAME, DEFAULT_SINGLE_FACTOR),
         conf.getFloat(LRU_MULTI_PERCENTAGE_CONFIG_NAME, DEFAULT_MULTI_FACTOR),
         conf.getFloat(LRU_MEMORY_PERCENTAGE_CONFIG_NAME, DEFAULT_MEMORY_FACTOR),
-        conf.getBoolean(LRU_IN_MEMORY_FORCE_MODE_CONFIG_NAME, DEFAULT_IN_MEMORY_FORCE_MODE)
+        conf.getBoolean(LRU_IN_MEMORY_FORCE_MODE_CONFIG_NAME, DEFAULT_IN_MEMORY_FORCE_MODE),
+        conf
         );
   }
 
@@ -255,6 +261,19 @@ public class LruBlockCache implements BlockCache, HeapSize {
       int mapInitialSize, float mapLoadFactor, int mapConcurrencyLevel,
       float minFactor, float acceptableFactor, float singleFactor,
       float multiFactor, float memoryFactor, boolean forceInMemory) {
+    this(maxSize, blockSize, evictionThread, mapInitialSize, mapLoadFactor, mapConcurrencyLevel,
+      minFactor, acceptableFactor, singleFactor, multiFactor, memoryFactor, forceInMemory, null);
+  }
+
+  /**
+   * Configurable constructor, with the shares of the partitions read from the configuration.
+   * @param conf configuration of the partitions, null if they have no guarantee and no cap
+   * @see BlockCachePartitions
+   */
+  public LruBlockCache(long maxSize, long blockSize, boolean evictionThread,
+      int mapInitialSize, float mapLoadFactor, int mapConcurrencyLevel,
+      float minFactor, float acceptableFactor, float singleFactor,
+      float multiFactor, float memoryFactor, boolean forceInMemory, Configuration conf) {
     if(singleFactor + multiFactor + memoryFactor != 1 ||
         singleFactor < 0 || multiFactor < 0 || memoryFactor < 0) {
       throw new IllegalArgumentException("Single, multi, and memory factors " +
@@ -277,6 +296,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
     this.multiFactor = multiFactor;
     this.memoryFactor = memoryFactor;
     this.stats = new CacheStats();
+    this.partitions = new BlockCachePartitions(conf);
     this.count = new AtomicLong(0);
     this.elements = new AtomicLong(0);
     this.overhead = calculateOverhead(maxSize, blockSize, mapConcurrencyLevel);
@@ -331,7 +351,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
       long size = map.size();
       assertCounterSanity(size, val);
     }
-    if (newSize > acceptableSize() && !evictionInProgress) {
+    if ((newSize > acceptableSize() || isOverMaxShare(partitions.get(cacheKey)))
+        && !evictionInProgress) {
       runEviction();
     }
   }
@@ -391,6 +412,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
     if (evict) {
       heapsize *= -1;
     }
+    partitions.add(cb.getCacheKey(), heapsize);
     return size.addAndGet(heapsize);
   }
 
@@ -408,12 +430,18 @@ public class LruBlockCache implements BlockCache, HeapSize {
       boolean updateCacheMetrics) {
     LruCachedBlock cb = map.get(cacheKey);
     if(cb == null) {
-      if (!repeat && updateCacheMetrics) stats.miss(caching);
+      if (!repeat && updateCacheMetrics) {
+        stats.miss(caching);
+        partitions.access(cacheKey, false, caching);
+      }
       if (victimHandler != null)
         return victimHandler.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
       return null;
     }
-    if (updateCacheMetrics) stats.hit(caching);
+    if (updateCacheMetrics) {
+      stats.hit(caching);
+      partitions.access(cacheKey, true, caching);
+    }
     cb.access(count.incrementAndGet());
     return cb.getBuffer();
   }
@@ -423,6 +451,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
    * @param cacheKey
    * @return true if contains the block
    */
+  @Override
   public boolean containsBlock(BlockCacheKey cacheKey) {
     return map.containsKey(cacheKey);
   }
@@ -469,7 +498,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
    * @return the heap size of evicted block
    */
   protected long evictBlock(LruCachedBlock block, boolean evictedByEvictionProcess) {
-    map.remove(block.getCacheKey());
+    // Already evicted by a concurrent call, do not account it twice
+    if (!map.remove(block.getCacheKey(), block)) return 0;
     updateSizeMetrics(block, true);
     long val = elements.decrementAndGet();
     if (LOG.isTraceEnabled()) {
@@ -507,6 +537,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
     try {
       evictionInProgress = true;
+      freePartitions();
       long currentSize = this.size.get();
       long bytesToFree = currentSize - minSize();
 
@@ -526,8 +557,12 @@ public class LruBlockCache implements BlockCache, HeapSize {
       BlockBucket bucketMemory = new BlockBucket("memory", bytesToFree, blockSize,
           memorySize());
 
-      // Scan entire map putting into appropriate buckets
+      // Scan entire map putting into appropriate buckets, leaving out the blocks whose
+      // partition is down to its minimum share
       for(LruCachedBlock cachedBlock : map.values()) {
+        if (!partitions.canEvict(cachedBlock.getCacheKey(), cachedBlock.heapSize(), maxSize)) {
+          continue;
+        }
         switch(cachedBlock.getPriority()) {
           case SINGLE: {
             bucketSingle.add(cachedBlock);
@@ -623,6 +658,52 @@ public class LruBlockCache implements BlockCache, HeapSize {
     }
   }
 
+  /**
+   * Evicts the least recently used blocks of the partitions over their maximum share, down to
+   * the minimum factor of their maximum share.
+   */
+  private void freePartitions() {
+    Map<String, LruCachedBlockQueue> queues = null;
+    Map<String, Long> bytesToFree = null;
+    for (BlockCachePartitions.Partition partition : partitions.getPartitions()) {
+      if (isOverMaxShare(partition)) {
+        long toFree = partition.getSize() -
+          (long)Math.floor(partition.getMaxSize(maxSize) * minFactor);
+        if (queues == null) {
+          queues = new HashMap<String, LruCachedBlockQueue>();
+          bytesToFree = new HashMap<String, Long>();
+        }
+        queues.put(partition.getName(), new LruCachedBlockQueue(toFree, blockSize));
+        bytesToFree.put(partition.getName(), toFree);
+      }
+    }
+    if (queues == null) return;
+    for (LruCachedBlock cachedBlock : map.values()) {
+      String name = cachedBlock.getCacheKey().getPartition();
+      LruCachedBlockQueue queue = name == null ? null : queues.get(name);
+      if (queue != null) queue.add(cachedBlock);
+    }
+    for (Map.Entry<String, LruCachedBlockQueue> e : queues.entrySet()) {
+      long toFree = bytesToFree.get(e.getKey());
+      long freedBytes = 0;
+      LruCachedBlock cb;
+      while (freedBytes < toFree && (cb = e.getValue().pollLast()) != null) {
+        freedBytes += evictBlock(cb, true);
+      }
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("freed " + StringUtils.byteDesc(freedBytes) + " from partition " + e.getKey());
+      }
+    }
+  }
+
+  /**
+   * @return Whether the partition is over the acceptable factor of its maximum share
+   */
+  private boolean isOverMaxShare(BlockCachePartitions.Partition partition) {
+    return partition != null &&
+      partition.getSize() > (long)Math.floor(partition.getMaxSize(maxSize) * acceptableFactor);
+  }
+
   @Override
   public String toString() {
     return Objects.toStringHelper(this)
@@ -672,6 +753,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
       LruCachedBlock cb;
       long freedBytes = 0;
       while ((cb = queue.pollLast()) != null) {
+        if (!partitions.canEvict(cb.getCacheKey(), cb.heapSize(), maxSize)) continue;
         freedBytes += evictBlock(cb, true);
         if (freedBytes >= toFree) {
           return freedBytes;
@@ -843,6 +925,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
         "evictions=" + stats.getEvictionCount() + ", " +
         "evicted=" + stats.getEvictedCount() + ", " +
         "evictedPerRun=" + stats.evictedPerEviction());
+    for (BlockCachePartitions.Partition partition : partitions.getPartitions()) {
+      LruBlockCache.LOG.debug(partition);
+    }
   }
 
   /**
@@ -855,8 +940,15 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return this.stats;
   }
 
+  /**
+   * @return The partitions of this cache, with the statistics of each
+   */
+  public BlockCachePartitions getPartitions() {
+    return this.partitions;
+  }
+
   public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
-      (3 * Bytes.SIZEOF_LONG) + (9 * ClassSize.REFERENCE) +
+      (3 * Bytes.SIZEOF_LONG) + (10 * ClassSize.REFERENCE) +
       (5 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN
       + ClassSize.OBJECT);
 
@@ -990,7 +1082,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
       List<Runnable> runnables = this.scheduleThreadPool.shutdownNow();
       LOG.debug("Still running " + runnables);
     }
-    this.evictionThread.shutdown();
+    if (this.evictionThread != null) {
+      this.evictionThread.shutdown();
+    }
   }
 
   /** Clears the cache. Used in tests. */
@@ -1037,6 +1131,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return counts;
   }
 
+  @Override
   public void setVictimCache(BucketCache handler) {
     assert victimHandler == null;
     victimHandler = handler;
@@ -0,0 +1,748 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.Threads;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A block cache that, unlike the {@link LruBlockCache}, keeps the blocks that are accessed often
+ * rather than the ones accessed last, so a scan reading many blocks once does not push the hot
+ * index and data blocks out, and that evicts inline, in the thread that caches a block, without
+ * taking any lock.<p>
+ *
+ * It follows the W-TinyLFU policy. A new block enters a small admission window, which is
+ * {@link #WINDOW_FACTOR} of the cache. The blocks leaving the window go to the main space if it
+ * has room; when it is full, the block leaving the window is admitted only if a
+ * {@link FrequencySketch} estimates it was accessed more often recently than the block the main
+ * space would evict for it. The main space is a segmented LRU: the blocks admitted are on
+ * probation, and the ones accessed again are protected, for up to {@link #PROTECTED_FACTOR} of the
+ * main space. Blocks are evicted from probation first.<p>
+ *
+ * The window is a lock-free FIFO queue. The main space is not ordered at all: its blocks sit in a
+ * table of slots, and the block to evict is the least recently accessed of a sample of
+ * {@link #SAMPLE_SIZE} of them, which keeps close to an exact LRU. All the state of a block, that
+ * is the part of the cache it is in or whether it was evicted, changes with a compare-and-set, so
+ * threads caching, reading and evicting blocks at the same time agree on the sizes.<p>
+ *
+ * Blocks cached in-memory are protected right away. As with the LruBlockCache, the blocks evicted
+ * because the cache is full go to the victim cache, if any.
+ */
+@InterfaceAudience.Private
+public class TinyLfuBlockCache implements FirstLevelBlockCache {
+
+  static final Log LOG = LogFactory.getLog(TinyLfuBlockCache.class);
+
+  /** Part of the cache for the admission window */
+  static final float WINDOW_FACTOR = 0.01f;
+
+  /** Part of the main space for the protected blocks */
+  static final float PROTECTED_FACTOR = 0.8f;
+
+  /** Number of blocks of the main space compared to pick the one to evict */
+  static final int SAMPLE_SIZE = 8;
+
+  /** Number of slots looked at for a sample, or for a free slot, before giving up */
+  static final int PROBE_LIMIT = SAMPLE_SIZE * 16;
+
+  /** Statistics thread */
+  static final int statThreadPeriod = 60 * 5;
+
+  /** Part of the cache a block is in */
+  static final int WINDOW = 0;
+  static final int PROBATION = 1;
+  static final int PROTECTED = 2;
+  static final int EVICTED = 3;
+
+  /** Concurrent map (the cache) */
+  private final ConcurrentHashMap<BlockCacheKey, TinyLfuCachedBlock> map;
+
+  /** Blocks of the window, oldest first */
+  private final ConcurrentLinkedQueue<TinyLfuCachedBlock> window;
+
+  /** Blocks of the main space, where the block to evict is sampled from */
+  private final AtomicReferenceArray<TinyLfuCachedBlock> slots;
+  private final int slotMask;
+
+  /** Recent access frequencies, for the admission */
+  private final FrequencySketch sketch;
+
+  /** Current size of cache, including the overhead */
+  private final AtomicLong size;
+
+  /** Current size of the blocks in each part of the cache */
+  private final AtomicLong[] regionSizes;
+
+  /** Current number of cached elements */
+  private final AtomicLong elements;
+
+  /** Cache access count (sequential ID) */
+  private final AtomicLong count;
+
+  /** Cache statistics */
+  private final CacheStats stats;
+
+  /** Maximum allowable size of cache (block put if size > max, evict) */
+  private volatile long maxSize;
+
+  /** Overhead of the structure itself */
+  private final long overhead;
+
+  /** Where to send victims (blocks evicted from the cache) */
+  private volatile BucketCache victimHandler = null;
+
+  /** Statistics thread schedule pool */
+  private final ScheduledExecutorService scheduleThreadPool =
+    Executors.newScheduledThreadPool(1,
+      new ThreadFactoryBuilder()
+        .setNameFormat("TinyLfuStats #%d")
+        .setDaemon(true)
+        .build());
+
+  /**
+   * Default constructor.  Specify maximum size and expected average block
+   * size (approximation is fine).
+   * @param maxSize maximum size of cache, in bytes
+   * @param blockSize approximate size of each block, in bytes
+   */
+  public TinyLfuBlockCache(long maxSize, long blockSize) {
+    long expectedBlocks = Math.max(1, (long) Math.ceil(1.2 * maxSize / blockSize));
+    this.maxSize = maxSize;
+    this.map = new ConcurrentHashMap<BlockCacheKey, TinyLfuCachedBlock>(
+        (int) Math.min(expectedBlocks, Integer.MAX_VALUE / 2),
+        LruBlockCache.DEFAULT_LOAD_FACTOR, LruBlockCache.DEFAULT_CONCURRENCY_LEVEL);
+    this.window = new ConcurrentLinkedQueue<TinyLfuCachedBlock>();
+    int numSlots = slotCount(expectedBlocks);
+    this.slots = new AtomicReferenceArray<TinyLfuCachedBlock>(numSlots);
+    this.slotMask = numSlots - 1;
+    this.sketch = new FrequencySketch(expectedBlocks);
+    this.regionSizes = new AtomicLong[] { new AtomicLong(0), new AtomicLong(0),
+      new AtomicLong(0) };
+    this.stats = new CacheStats();
+    this.count = new AtomicLong(0);
+    this.elements = new AtomicLong(0);
+    this.overhead = calculateOverhead(maxSize, blockSize);
+    this.size = new AtomicLong(this.overhead);
+    this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
+        statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+  }
+
+  public void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+    evictFromWindow();
+    evict();
+  }
+
+  // BlockCache implementation
+
+  /**
+   * Cache the block with the specified name and buffer, evicting blocks if the cache is full.
+   * @param cacheKey block's cache key
+   * @param buf block buffer
+   * @param inMemory if block is in-memory
+   */
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory) {
+    TinyLfuCachedBlock cb = map.get(cacheKey);
+    if (cb != null) {
+      // compare the contents, if they are not equal, we are in big trouble
+      if (compare(buf, cb.getBuffer()) != 0) {
+        throw new RuntimeException("Cached block contents differ, which should not have happened."
+          + "cacheKey:" + cacheKey);
+      }
+      String msg = "Cached an already cached block: " + cacheKey + " cb:" + cb.getCacheKey();
+      msg += ". This is harmless and can happen in rare cases (see HBASE-8547)";
+      LOG.warn(msg);
+      return;
+    }
+    cb = new TinyLfuCachedBlock(cacheKey, buf, count.incrementAndGet(), inMemory);
+    if (map.putIfAbsent(cacheKey, cb) != null) {
+      // Another reader cached the same block meanwhile
+      return;
+    }
+    size.addAndGet(cb.heapSize());
+    regionSizes[inMemory ? PROTECTED : WINDOW].addAndGet(cb.heapSize());
+    elements.incrementAndGet();
+    if (!inMemory) {
+      window.offer(cb);
+      evictFromWindow();
+    } else if (!claimSlot(cb)) {
+      evictBlock(cb, true);
+    }
+    if (size.get() > maxSize) {
+      stats.evict();
+      evict();
+    }
+  }
+
+  private int compare(Cacheable left, Cacheable right) {
+    ByteBuffer l = ByteBuffer.allocate(left.getSerializedLength());
+    left.serialize(l);
+    ByteBuffer r = ByteBuffer.allocate(right.getSerializedLength());
+    right.serialize(r);
+    return Bytes.compareTo(l.array(), l.arrayOffset(), l.limit(),
+      r.array(), r.arrayOffset(), r.limit());
+  }
+
+  @Override
+  public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf) {
+    cacheBlock(cacheKey, buf, false);
+  }
+
+  /**
+   * Get the buffer of the block with the specified name.
+   * @param cacheKey block's cache key
+   * @param caching true if the caller caches blocks on cache misses
+   * @param repeat Whether this is a repeat lookup for the same block
+   *        (used to avoid double counting cache misses when doing double-check locking)
+   * @param updateCacheMetrics Whether to update cache metrics or not
+   * @return buffer of specified cache key, or null if not in cache
+   */
+  @Override
+  public Cacheable getBlock(BlockCacheKey cacheKey, boolean caching, boolean repeat,
+      boolean updateCacheMetrics) {
+    if (!repeat) {
+      // Misses count too: they are what a block competes with to be admitted
+      sketch.increment(cacheKey);
+    }
+    TinyLfuCachedBlock cb = map.get(cacheKey);
+    if (cb == null) {
+      if (!repeat && updateCacheMetrics) stats.miss(caching);
+      BucketCache victimHandler = this.victimHandler;
+      if (victimHandler != null) {
+        return victimHandler.getBlock(cacheKey, caching, repeat, updateCacheMetrics);
+      }
+      return null;
+    }
+    if (updateCacheMetrics) stats.hit(caching);
+    cb.access(count.incrementAndGet());
+    if (cb.region == PROBATION && cb.transition(PROBATION, PROTECTED)) {
+      move(cb, PROBATION, PROTECTED);
+      if (regionSizes[PROTECTED].get() > protectedMaxSize()) {
+        // Make room by putting the least recently used protected block back on probation
+        TinyLfuCachedBlock demoted = sampleLeastRecentlyUsed(PROTECTED);
+        if (demoted != null && demoted.transition(PROTECTED, PROBATION)) {
+          move(demoted, PROTECTED, PROBATION);
+        }
+      }
+    }
+    return cb.getBuffer();
+  }
+
+  @Override
+  public boolean containsBlock(BlockCacheKey cacheKey) {
+    return map.containsKey(cacheKey);
+  }
+
+  @Override
+  public boolean evictBlock(BlockCacheKey cacheKey) {
+    TinyLfuCachedBlock cb = map.get(cacheKey);
+    return cb != null && evictBlock(cb, false);
+  }
+
+  /**
+   * Evicts all blocks for a specific HFile, with a linear-time search through all blocks in the
+   * cache.
+   * @return the number of blocks evicted
+   */
+  @Override
+  public int evictBlocksByHfileName(String hfileName) {
+    int numEvicted = 0;
+    for (BlockCacheKey key : map.keySet()) {
+      if (key.getHfileName().equals(hfileName)) {
+        if (evictBlock(key))
+          ++numEvicted;
+      }
+    }
+    BucketCache victimHandler = this.victimHandler;
+    if (victimHandler != null) {
+      numEvicted += victimHandler.evictBlocksByHfileName(hfileName);
+    }
+    return numEvicted;
+  }
+
+  /**
+   * Evict the block, and it will be cached by the victim handler if exists &&
+   * block may be read again later
+   * @param block
+   * @param evictedByEvictionProcess true if the block is evicted because the cache is full
+   * @return true if this call evicted the block, false if it was already evicted
+   */
+  private boolean evictBlock(TinyLfuCachedBlock block, boolean evictedByEvictionProcess) {
+    int region;
+    do {
+      region = block.region;
+      if (region == EVICTED) return false;
+    } while (!block.transition(region, EVICTED));
+    map.remove(block.getCacheKey(), block);
+    int slot = block.slot;
+    if (slot >= 0) {
+      slots.compareAndSet(slot, block, null);
+    }
+    regionSizes[region].addAndGet(-block.heapSize());
+    size.addAndGet(-block.heapSize());
+    elements.decrementAndGet();
+    stats.evicted();
+    BucketCache victimHandler = this.victimHandler;
+    if (evictedByEvictionProcess && victimHandler != null) {
+      // Do not make the reader that caches a block wait on the victim cache
+      victimHandler.cacheBlockWithWait(block.getCacheKey(), block.getBuffer(),
+          block.inMemory, false);
+    }
+    return true;
+  }
+
+  /**
+   * Moves the blocks leaving the window, if it is over its size, to the main space, evicting
+   * them or the blocks they replace there depending on their frequency.
+   */
+  private void evictFromWindow() {
+    while (regionSizes[WINDOW].get() > windowMaxSize()) {
+      TinyLfuCachedBlock candidate = window.poll();
+      if (candidate == null) return;
+      if (candidate.region != WINDOW) continue;
+      TinyLfuCachedBlock victim = null;
+      if (regionSizes[PROBATION].get() + regionSizes[PROTECTED].get() + candidate.heapSize() >
+          mainMaxSize()) {
+        victim = sampleLeastRecentlyUsed(PROBATION);
+      }
+      if (victim != null &&
+          sketch.frequency(candidate.getCacheKey()) <= sketch.frequency(victim.getCacheKey())) {
+        // Not accessed more often than what is already cached: not admitted
+        evictBlock(candidate, true);
+        continue;
+      }
+      if (victim != null) {
+        evictBlock(victim, true);
+      }
+      if (candidate.transition(WINDOW, PROBATION)) {
+        move(candidate, WINDOW, PROBATION);
+        if (!claimSlot(candidate)) {
+          evictBlock(candidate, true);
+        }
+      }
+    }
+  }
+
+  /**
+   * Evicts blocks of the main space, or of the window if the main space is empty, until the
+   * cache is under its maximum size.
+   */
+  private void evict() {
+    while (size.get() > maxSize) {
+      TinyLfuCachedBlock victim = sampleLeastRecentlyUsed(PROBATION);
+      if (victim == null) {
+        victim = window.poll();
+        if (victim == null) return;
+      }
+      evictBlock(victim, true);
+    }
+  }
+
+  /**
+   * Samples blocks of the main space from a random slot.
+   * @param preferredRegion the part of the main space to pick from, if the sample has any of it
+   * @return the least recently used block of the sample in the preferred region, else the least
+   *         recently used of the sample, or null if the main space is empty
+   */
+  private TinyLfuCachedBlock sampleLeastRecentlyUsed(int preferredRegion) {
+    int start = mix(count.get() ^ System.nanoTime());
+    int length = slots.length();
+    TinyLfuCachedBlock preferred = null;
+    TinyLfuCachedBlock other = null;
+    int sampled = 0;
+    for (int i = 0; i < length && sampled < SAMPLE_SIZE; i++) {
+      if (i >= PROBE_LIMIT && (preferred != null || other != null)) break;
+      int index = (start + i) & slotMask;
+      TinyLfuCachedBlock cb = slots.get(index);
+      if (cb == null) continue;
+      int region = cb.region;
+      if (region == EVICTED) {
+        slots.compareAndSet(index, cb, null);
+        continue;
+      }
+      sampled++;
+      if (region == preferredRegion) {
+        if (preferred == null || cb.accessTime < preferred.accessTime) preferred = cb;
+      } else if (other == null || cb.accessTime < other.accessTime) {
+        other = cb;
+      }
+    }
+    return preferred != null ? preferred : other;
+  }
+
+  /**
+   * Puts a block of the main space in a free slot, evicting blocks if the table of slots is full.
+   * @return false if no slot was found
+   */
+  private boolean claimSlot(TinyLfuCachedBlock cb) {
+    int start = mix(cb.accessTime);
+    int limit = Math.min(slots.length(), PROBE_LIMIT);
+    for (int i = 0; i < limit; i++) {
+      if (tryClaimSlot((start + i) & slotMask, cb)) return true;
+    }
+    // More blocks than expected from the average block size: take the slot of a victim
+    for (int attempt = 0; attempt < 3; attempt++) {
+      TinyLfuCachedBlock victim = sampleLeastRecentlyUsed(PROBATION);
+      if (victim == null || victim == cb) return false;
+      int slot = victim.slot;
+      evictBlock(victim, true);
+      if (slot >= 0 && tryClaimSlot(slot, cb)) return true;
+    }
+    return false;
+  }
+
+  private boolean tryClaimSlot(int index, TinyLfuCachedBlock cb) {
+    TinyLfuCachedBlock current = slots.get(index);
+    if ((current == null || current.region == EVICTED) &&
+        slots.compareAndSet(index, current, cb)) {
+      cb.slot = index;
+      if (cb.region == EVICTED) {
+        // Evicted before it had its slot
+        slots.compareAndSet(index, cb, null);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private void move(TinyLfuCachedBlock cb, int from, int to) {
+    regionSizes[from].addAndGet(-cb.heapSize());
+    regionSizes[to].addAndGet(cb.heapSize());
+  }
+
+  private static int mix(long x) {
+    x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+    x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return (int) (x ^ (x >>> 33));
+  }
+
+  private static int slotCount(long expectedBlocks) {
+    long slots = Math.min(Math.max(2 * expectedBlocks, 16), 1 << 30);
+    return (int) Long.highestOneBit(slots - 1) << 1;
+  }
+
+  // Simple calculators of sizes given factors and maxSize
+
+  private long windowMaxSize() {
+    return (long) Math.floor(this.maxSize * WINDOW_FACTOR);
+  }
+  private long mainMaxSize() {
+    return this.maxSize - this.overhead - windowMaxSize();
+  }
+  private long protectedMaxSize() {
+    return (long) Math.floor(mainMaxSize() * PROTECTED_FACTOR);
+  }
+
+  /**
+   * Get the maximum size of this cache.
+   * @return max size in bytes
+   */
+  public long getMaxSize() {
+    return this.maxSize;
+  }
+
+  @Override
+  public long getCurrentSize() {
+    return this.size.get();
+  }
+
+  @Override
+  public long getFreeSize() {
+    return getMaxSize() - getCurrentSize();
+  }
+
+  @Override
+  public long size() {
+    return getMaxSize();
+  }
+
+  @Override
+  public long getBlockCount() {
+    return this.elements.get();
+  }
+
+  @VisibleForTesting
+  long getRegionSize(int region) {
+    return regionSizes[region].get();
+  }
+
+  @VisibleForTesting
+  int getRegion(BlockCacheKey cacheKey) {
+    TinyLfuCachedBlock cb = map.get(cacheKey);
+    return cb == null ? EVICTED : cb.region;
+  }
+
+  /**
+   * Get counter statistics for this cache.
+   */
+  @Override
+  public CacheStats getStats() {
+    return this.stats;
+  }
+
+  public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
+      (Bytes.SIZEOF_LONG * 2) + Bytes.SIZEOF_INT + (13 * ClassSize.REFERENCE)
+      + ClassSize.OBJECT);
+
+  // HeapSize implementation
+  @Override
+  public long heapSize() {
+    return getCurrentSize();
+  }
+
+  public static long calculateOverhead(long maxSize, long blockSize) {
+    long expectedBlocks = Math.max(1, (long) Math.ceil(1.2 * maxSize / blockSize));
+    return CACHE_FIXED_OVERHEAD + ClassSize.CONCURRENT_HASHMAP +
+        (expectedBlocks * ClassSize.CONCURRENT_HASHMAP_ENTRY) +
+        ((long) LruBlockCache.DEFAULT_CONCURRENCY_LEVEL * ClassSize.CONCURRENT_HASHMAP_SEGMENT) +
+        ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) +
+        ClassSize.align(ClassSize.ARRAY + (long) ClassSize.REFERENCE * slotCount(expectedBlocks)) +
+        FrequencySketch.estimatedHeapSize(expectedBlocks) +
+        ClassSize.align(ClassSize.ARRAY + 3 * ClassSize.REFERENCE) + 6 * ClassSize.ATOMIC_LONG;
+  }
+
+  /*
+   * Statistics thread.  Periodically prints the cache statistics to the log.
+   */
+  static class StatisticsThread extends Thread {
+    private final TinyLfuBlockCache cache;
+
+    public StatisticsThread(TinyLfuBlockCache cache) {
+      super("TinyLfuBlockCache.StatisticsThread");
+      setDaemon(true);
+      this.cache = cache;
+    }
+
+    @Override
+    public void run() {
+      cache.logStats();
+    }
+  }
+
+  public void logStats() {
+    if (!LOG.isDebugEnabled()) return;
+    long totalSize = heapSize();
+    LOG.debug("Total=" + StringUtils.byteDesc(totalSize) + ", " +
+        "free=" + StringUtils.byteDesc(maxSize - totalSize) + ", " +
+        "max=" + StringUtils.byteDesc(this.maxSize) + ", " +
+        "window=" + StringUtils.byteDesc(regionSizes[WINDOW].get()) + ", " +
+        "probation=" + StringUtils.byteDesc(regionSizes[PROBATION].get()) + ", " +
+        "protected=" + StringUtils.byteDesc(regionSizes[PROTECTED].get()) + ", " +
+        "blockCount=" + getBlockCount() + ", " +
+        "accesses=" + stats.getRequestCount() + ", " +
+        "hits=" + stats.getHitCount() + ", " +
+        "hitRatio=" + (stats.getHitCount() == 0 ? "0" :
+          StringUtils.formatPercent(stats.getHitRatio(), 2)) + ", " +
+        "evictions=" + stats.getEvictionCount() + ", " +
+        "evicted=" + stats.getEvictedCount());
+  }
+
+  @Override
+  public Iterator<CachedBlock> iterator() {
+    final Iterator<TinyLfuCachedBlock> iterator = map.values().iterator();
+
+    return new Iterator<CachedBlock>() {
+      private final long now = System.nanoTime();
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public CachedBlock next() {
+        final TinyLfuCachedBlock b = iterator.next();
+        return new CachedBlock() {
+          @Override
+          public String toString() {
+            return BlockCacheUtil.toString(this, now);
+          }
+
+          @Override
+          public BlockPriority getBlockPriority() {
+            return b.getPriority();
+          }
+
+          @Override
+          public BlockType getBlockType() {
+            return b.getBuffer().getBlockType();
+          }
+
+          @Override
+          public long getOffset() {
+            return b.getCacheKey().getOffset();
+          }
+
+          @Override
+          public long getSize() {
+            return b.getBuffer().heapSize();
+          }
+
+          @Override
+          public long getCachedTime() {
+            return b.cachedTime;
+          }
+
+          @Override
+          public String getFilename() {
+            return b.getCacheKey().getHfileName();
+          }
+
+          @Override
+          public int compareTo(CachedBlock other) {
+            int diff = this.getFilename().compareTo(other.getFilename());
+            if (diff != 0) return diff;
+            diff = (int)(this.getOffset() - other.getOffset());
+            if (diff != 0) return diff;
+            return (int)(other.getCachedTime() - this.getCachedTime());
+          }
+
+          @Override
+          public int hashCode() {
+            return b.hashCode();
+          }
+
+          @Override
+          public boolean equals(Object obj) {
+            if (obj instanceof CachedBlock) {
+              CachedBlock cb = (CachedBlock)obj;
+              return compareTo(cb) == 0;
+            } else {
+              return false;
+            }
+          }
+        };
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  @Override
+  public void setVictimCache(BucketCache handler) {
+    assert victimHandler == null;
+    victimHandler = handler;
+  }
+
+  @Override
+  public void shutdown() {
+    BucketCache victimHandler = this.victimHandler;
+    if (victimHandler != null)
+      victimHandler.shutdown();
+    this.scheduleThreadPool.shutdown();
+    for (int i = 0; i < 10; i++) {
+      if (!this.scheduleThreadPool.isShutdown()) Threads.sleep(10);
+    }
+    if (!this.scheduleThreadPool.isShutdown()) {
+      List<Runnable> runnables = this.scheduleThreadPool.shutdownNow();
+      LOG.debug("Still running " + runnables);
+    }
+  }
+
+  @Override
+  public BlockCache[] getBlockCaches() {
+    return null;
+  }
+
+  /**
+   * An entry of the cache: the block, when it was last accessed and where it is in the cache.
+   */
+  static class TinyLfuCachedBlock implements HeapSize {
+    static final long PER_BLOCK_OVERHEAD = ClassSize.align(
+      ClassSize.OBJECT + (2 * ClassSize.REFERENCE) + (3 * Bytes.SIZEOF_LONG) +
+      (2 * Bytes.SIZEOF_INT) + Bytes.SIZEOF_BOOLEAN) +
+      // The node of the window queue
+      ClassSize.align(ClassSize.OBJECT + (2 * ClassSize.REFERENCE));
+
+    private static final AtomicIntegerFieldUpdater<TinyLfuCachedBlock> REGION_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(TinyLfuCachedBlock.class, "region");
+
+    private final BlockCacheKey cacheKey;
+    private final Cacheable buf;
+    private final long size;
+    private final long cachedTime = System.nanoTime();
+    final boolean inMemory;
+    volatile long accessTime;
+    volatile int region;
+    /** Index in the table of slots, -1 while in the window */
+    volatile int slot = -1;
+
+    TinyLfuCachedBlock(BlockCacheKey cacheKey, Cacheable buf, long accessTime,
+        boolean inMemory) {
+      this.cacheKey = cacheKey;
+      this.buf = buf;
+      this.accessTime = accessTime;
+      this.inMemory = inMemory;
+      this.region = inMemory ? PROTECTED : WINDOW;
+      this.size = ClassSize.align(cacheKey.heapSize())
+          + ClassSize.align(buf.heapSize()) + PER_BLOCK_OVERHEAD;
+    }
+
+    void access(long accessTime) {
+      this.accessTime = accessTime;
+    }
+
+    boolean transition(int from, int to) {
+      return REGION_UPDATER.compareAndSet(this, from, to);
+    }
+
+    BlockPriority getPriority() {
+      if (inMemory) return BlockPriority.MEMORY;
+      return region == PROTECTED ? BlockPriority.MULTI : BlockPriority.SINGLE;
+    }
+
+    @Override
+    public long heapSize() {
+      return size;
+    }
+
+    Cacheable getBuffer() {
+      return buf;
+    }
+
+    BlockCacheKey getCacheKey() {
+      return cacheKey;
+    }
+  }
+}
@@ -20,17 +20,15 @@
  */
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -48,10 +46,12 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockCachePartitions;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheUtil;
 import org.apache.hadoop.hbase.io.hfile.BlockPriority;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
@@ -76,7 +76,8 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * BucketCache uses {@link BucketAllocator} to allocate/free block, and use
  * {@link BucketCache#ramCache} and {@link BucketCache#backingMap} in order to
  * determine if a given element is in the cache. The bucket cache can use on-heap or
- * off-heap memory {@link ByteBufferIOEngine} or in a file {@link FileIOEngine} to
+ * off-heap memory {@link ByteBufferIOEngine} or in a file {@link FileIOEngine}, read
+ * through system calls, or {@link FileMmapEngine}, mapped in memory, to
  * store/read the block data.
  *
  * <p>Eviction is via a similar algorithm as used in
@@ -109,6 +110,9 @@ public class BucketCache implements BlockCache, HeapSize {
   final static int DEFAULT_WRITER_THREADS = 3;
   final static int DEFAULT_WRITER_QUEUE_ITEMS = 64;
 
+  /** Period, in ms, of the checkpoints of the index of a persistent cache */
+  public static final int DEFAULT_CHECKPOINT_PERIOD = 10 * 1000;
+
   // Store/read block data
   IOEngine ioEngine;
 
@@ -164,7 +168,12 @@ public class BucketCache implements BlockCache, HeapSize {
 
   private BucketCacheStats cacheStats = new BucketCacheStats();
 
+  /** Partitions of the cache, with their shares and statistics */
+  private final BlockCachePartitions partitions;
+
   private String persistencePath;
+  /** Keeps the index in the file at persistencePath, null if the cache is not persistent */
+  private BucketCachePersister persister;
   private long cacheCapacity;
   /** Approximate block size */
   private final long blockSize;
@@ -221,6 +230,29 @@ public class BucketCache implements BlockCache, HeapSize {
   public BucketCache(String ioEngineName, long capacity, int blockSize, int[] bucketSizes,
       int writerThreadNum, int writerQLen, String persistencePath, int ioErrorsTolerationDuration)
       throws FileNotFoundException, IOException {
+    this(ioEngineName, capacity, blockSize, bucketSizes, writerThreadNum, writerQLen,
+      persistencePath, ioErrorsTolerationDuration, DEFAULT_CHECKPOINT_PERIOD);
+  }
+
+  /**
+   * @param checkpointPeriod period, in ms, of the checkpoints of the index kept at
+   *   <code>persistencePath</code>, if the io engine is persistent
+   */
+  public BucketCache(String ioEngineName, long capacity, int blockSize, int[] bucketSizes,
+      int writerThreadNum, int writerQLen, String persistencePath, int ioErrorsTolerationDuration,
+      int checkpointPeriod) throws FileNotFoundException, IOException {
+    this(ioEngineName, capacity, blockSize, bucketSizes, writerThreadNum, writerQLen,
+      persistencePath, ioErrorsTolerationDuration, checkpointPeriod, null);
+  }
+
+  /**
+   * @param conf configuration of the partitions of the cache, null if they have no guarantee
+   *   and no cap, see {@link BlockCachePartitions}
+   */
+  public BucketCache(String ioEngineName, long capacity, int blockSize, int[] bucketSizes,
+      int writerThreadNum, int writerQLen, String persistencePath, int ioErrorsTolerationDuration,
+      int checkpointPeriod, Configuration conf) throws FileNotFoundException, IOException {
+    this.partitions = new BlockCachePartitions(conf);
     this.ioEngine = getIOEngineFromName(ioEngineName, capacity);
     this.writerThreads = new WriterThread[writerThreadNum];
     this.cacheWaitSignals = new Object[writerThreadNum];
@@ -251,9 +283,7 @@ public class BucketCache implements BlockCache, HeapSize {
         retrieveFromFile(bucketSizes);
       } catch (IOException ioex) {
         LOG.error("Can't restore from file because of", ioex);
-      } catch (ClassNotFoundException cnfe) {
-        LOG.error("Can't restore from file in rebuild because can't deserialise",cnfe);
-        throw new RuntimeException(cnfe);
+        this.persister = null;
       }
     }
     final String threadName = Thread.currentThread().getName();
@@ -268,6 +298,14 @@ public class BucketCache implements BlockCache, HeapSize {
     // Run the statistics thread periodically to print the cache statistics log
     this.scheduleThreadPool.scheduleAtFixedRate(new StatisticsThread(this),
         statThreadPeriod, statThreadPeriod, TimeUnit.SECONDS);
+    if (this.persister != null) {
+      this.scheduleThreadPool.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          checkpoint();
+        }
+      }, checkpointPeriod, checkpointPeriod, TimeUnit.MILLISECONDS);
+    }
     LOG.info("Started bucket cache; ioengine=" + ioEngineName +
         ", capacity=" + StringUtils.byteDesc(capacity) +
       ", blockSize=" + StringUtils.byteDesc(blockSize) + ", writerThreadNum=" +
@@ -295,6 +333,13 @@ public class BucketCache implements BlockCache, HeapSize {
     return this.cacheCapacity;
   }
 
+  /**
+   * @return The partitions of this cache, with the statistics of each
+   */
+  public BlockCachePartitions getPartitions() {
+    return this.partitions;
+  }
+
   public String getIoEngine() {
     return ioEngine.toString();
   }
@@ -310,13 +355,15 @@ public class BucketCache implements BlockCache, HeapSize {
       throws IOException {
     if (ioEngineName.startsWith("file:"))
       return new FileIOEngine(ioEngineName.substring(5), capacity);
+    else if (ioEngineName.startsWith("mmap:"))
+      return new FileMmapEngine(ioEngineName.substring(5), capacity);
     else if (ioEngineName.startsWith("offheap"))
       return new ByteBufferIOEngine(capacity, true);
     else if (ioEngineName.startsWith("heap"))
       return new ByteBufferIOEngine(capacity, false);
     else
       throw new IllegalArgumentException(
-          "Don't understand io engine name for cache - prefix with file:, heap or offheap");
+          "Don't understand io engine name for cache - prefix with file:, mmap:, heap or offheap");
   }
 
   /**
@@ -401,7 +448,10 @@ public class BucketCache implements BlockCache, HeapSize {
       return null;
     RAMQueueEntry re = ramCache.get(key);
     if (re != null) {
-      if (updateCacheMetrics) cacheStats.hit(caching);
+      if (updateCacheMetrics) {
+        cacheStats.hit(caching);
+        partitions.access(key, true, caching);
+      }
       re.access(accessCount.incrementAndGet());
       return re.getData();
     }
@@ -425,6 +475,7 @@ public class BucketCache implements BlockCache, HeapSize {
           if (updateCacheMetrics) {
             cacheStats.hit(caching);
             cacheStats.ioHit(timeTaken);
+            partitions.access(key, true, caching);
           }
           bucketEntry.access(accessCount.incrementAndGet());
           if (this.ioErrorStartTime > 0) {
@@ -441,7 +492,10 @@ public class BucketCache implements BlockCache, HeapSize {
         }
       }
     }
-    if (!repeat && updateCacheMetrics) cacheStats.miss(caching);
+    if (!repeat && updateCacheMetrics) {
+      cacheStats.miss(caching);
+      partitions.access(key, false, caching);
+    }
     return null;
   }
 
@@ -466,8 +520,15 @@ public class BucketCache implements BlockCache, HeapSize {
     try {
       lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
       if (bucketEntry.equals(backingMap.remove(cacheKey))) {
-        bucketAllocator.freeBlock(bucketEntry.offset());
+        // A persistent index must not point at freed space, so the persister frees it once
+        // the eviction is checkpointed
+        if (persister == null || !persister.evicted(cacheKey, bucketEntry)) {
+          bucketAllocator.freeBlock(bucketEntry.offset());
+        }
         realCacheSize.addAndGet(-1 * bucketEntry.getLength());
+        if (bucketEntry.partition != null) {
+          bucketEntry.partition.addSize(-1 * bucketEntry.getLength());
+        }
         blocksByHFile.remove(cacheKey.getHfileName(), cacheKey);
         if (removedBlock == null) {
           this.blockNumber.decrementAndGet();
@@ -530,6 +591,9 @@ public class BucketCache implements BlockCache, HeapSize {
         "evictions=" + cacheStats.getEvictionCount() + ", " +
         "evicted=" + cacheStats.getEvictedCount() + ", " +
         "evictedPerRun=" + cacheStats.evictedPerEviction());
+    for (BlockCachePartitions.Partition partition : partitions.getPartitions()) {
+      LOG.debug(partition);
+    }
     cacheStats.reset();
   }
 
@@ -537,6 +601,59 @@ public class BucketCache implements BlockCache, HeapSize {
     return (long) Math.floor(bucketAllocator.getTotalSize() * DEFAULT_ACCEPT_FACTOR);
   }
 
+  /**
+   * @return Whether the partition is over the acceptable factor of its maximum share
+   */
+  private boolean isOverMaxShare(BlockCachePartitions.Partition partition) {
+    return partition.getSize() > (long) Math.floor(
+      partition.getMaxSize(bucketAllocator.getTotalSize()) * DEFAULT_ACCEPT_FACTOR);
+  }
+
+  private boolean isAnyPartitionOverMaxShare() {
+    for (BlockCachePartitions.Partition partition : partitions.getPartitions()) {
+      if (isOverMaxShare(partition)) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Evicts the least recently used blocks of the partitions over their maximum share, down to
+   * the minimum factor of their maximum share.
+   * @return The bytes freed
+   */
+  private long freePartitions() {
+    Map<String, BucketEntryGroup> groups = null;
+    Map<String, Long> bytesToFree = null;
+    long totalSize = bucketAllocator.getTotalSize();
+    for (BlockCachePartitions.Partition partition : partitions.getPartitions()) {
+      if (isOverMaxShare(partition)) {
+        long toFree = partition.getSize() -
+          (long) Math.floor(partition.getMaxSize(totalSize) * DEFAULT_MIN_FACTOR);
+        if (groups == null) {
+          groups = new HashMap<String, BucketEntryGroup>();
+          bytesToFree = new HashMap<String, Long>();
+        }
+        groups.put(partition.getName(), new BucketEntryGroup(toFree, blockSize, 0));
+        bytesToFree.put(partition.getName(), toFree);
+      }
+    }
+    if (groups == null) return 0;
+    for (Map.Entry<BlockCacheKey, BucketEntry> bucketEntryWithKey : backingMap.entrySet()) {
+      String name = bucketEntryWithKey.getKey().getPartition();
+      BucketEntryGroup group = name == null ? null : groups.get(name);
+      if (group != null) group.add(bucketEntryWithKey);
+    }
+    long bytesFreed = 0;
+    for (Map.Entry<String, BucketEntryGroup> e : groups.entrySet()) {
+      long freed = e.getValue().free(bytesToFree.get(e.getKey()));
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Freed " + StringUtils.byteDesc(freed) + " from partition " + e.getKey());
+      }
+      bytesFreed += freed;
+    }
+    return bytesFreed;
+  }
+
   private long singleSize() {
     return (long) Math.floor(bucketAllocator.getTotalSize()
         * DEFAULT_SINGLE_FACTOR * DEFAULT_MIN_FACTOR);
@@ -563,6 +680,10 @@ public class BucketCache implements BlockCache, HeapSize {
     if (!freeSpaceLock.tryLock()) return;
     try {
       freeInProgress = true;
+      if (freePartitions() > 0) {
+        // Checkpoint the evictions so their space is free now
+        checkpoint();
+      }
       long bytesToFreeWithoutExtra = 0;
       // Calculate free byte for each bucketSizeinfo
       StringBuffer msgBuffer = LOG.isDebugEnabled()? new StringBuffer(): null;
@@ -608,8 +729,12 @@ public class BucketCache implements BlockCache, HeapSize {
           blockSize, memorySize());
 
       // Scan entire map putting bucket entry into appropriate bucket entry
-      // group
+      // group, leaving out the entries whose partition is down to its minimum share
       for (Map.Entry<BlockCacheKey, BucketEntry> bucketEntryWithKey : backingMap.entrySet()) {
+        if (!partitions.canEvict(bucketEntryWithKey.getKey(),
+            bucketEntryWithKey.getValue().getLength(), totalSize)) {
+          continue;
+        }
         switch (bucketEntryWithKey.getValue().getPriority()) {
           case SINGLE: {
             bucketSingle.add(bucketEntryWithKey);
@@ -675,6 +800,9 @@ public class BucketCache implements BlockCache, HeapSize {
         }
       }
 
+      // Checkpoint the evictions so their space is free now
+      checkpoint();
+
       if (LOG.isDebugEnabled()) {
         long single = bucketSingle.totalSize();
         long multi = bucketMulti.totalSize();
@@ -821,6 +949,10 @@ public class BucketCache implements BlockCache, HeapSize {
         BlockCacheKey key = entries.get(i).getKey();
         // Only add if non-null entry.
         if (bucketEntries[i] != null) {
+          if (persister != null) {
+            persister.added(key, bucketEntries[i]);
+          }
+          bucketEntries[i].partition = partitions.add(key, bucketEntries[i].getLength());
           backingMap.put(key, bucketEntries[i]);
         }
         // Always remove from ramCache even if we failed adding it to the block cache above.
@@ -833,6 +965,8 @@ public class BucketCache implements BlockCache, HeapSize {
       long used = bucketAllocator.getUsedSize();
       if (used > acceptableSize()) {
         freeSpace("Used=" + used + " > acceptable=" + acceptableSize());
+      } else if (isAnyPartitionOverMaxShare()) {
+        freeSpace("Partition over its maximum share");
       }
       return;
     }
@@ -858,72 +992,49 @@ public class BucketCache implements BlockCache, HeapSize {
     return receptical;
   }
 
-  private void persistToFile() throws IOException {
-    assert !cacheEnabled;
-    FileOutputStream fos = null;
-    ObjectOutputStream oos = null;
-    try {
-      if (!ioEngine.isPersistent())
-        throw new IOException(
-            "Attempt to persist non-persistent cache mappings!");
-      fos = new FileOutputStream(persistencePath, false);
-      oos = new ObjectOutputStream(fos);
-      oos.writeLong(cacheCapacity);
-      oos.writeUTF(ioEngine.getClass().getName());
-      oos.writeUTF(backingMap.getClass().getName());
-      oos.writeObject(deserialiserMap);
-      oos.writeObject(backingMap);
-    } finally {
-      if (oos != null) oos.close();
-      if (fos != null) fos.close();
+  /**
+   * Writes the changes of the index since the last checkpoint, if the cache is persistent.
+   */
+  @VisibleForTesting
+  void checkpoint() {
+    if (persister != null) {
+      persister.checkpoint(backingMap, deserialiserMap, bucketAllocator);
     }
   }
 
-  @SuppressWarnings("unchecked")
-  private void retrieveFromFile(int[] bucketSizes) throws IOException, BucketAllocatorException,
-      ClassNotFoundException {
-    File persistenceFile = new File(persistencePath);
-    if (!persistenceFile.exists()) {
+  /**
+   * Reads back the index a previous run of a persistent cache left, even if it crashed, and
+   * rebuilds the allocator from it.
+   */
+  private void retrieveFromFile(int[] bucketSizes) throws IOException {
+    assert !cacheEnabled;
+    persister = new BucketCachePersister(persistencePath, cacheCapacity,
+      ioEngine.getClass().getName(), bucketSizes);
+    if (!persister.load(backingMap, deserialiserMap)) {
       return;
     }
-    assert !cacheEnabled;
-    FileInputStream fis = null;
-    ObjectInputStream ois = null;
     try {
-      if (!ioEngine.isPersistent())
-        throw new IOException(
-            "Attempt to restore non-persistent cache mappings!");
-      fis = new FileInputStream(persistencePath);
-      ois = new ObjectInputStream(fis);
-      long capacitySize = ois.readLong();
-      if (capacitySize != cacheCapacity)
-        throw new IOException("Mismatched cache capacity:"
-            + StringUtils.byteDesc(capacitySize) + ", expected: "
-            + StringUtils.byteDesc(cacheCapacity));
-      String ioclass = ois.readUTF();
-      String mapclass = ois.readUTF();
-      if (!ioEngine.getClass().getName().equals(ioclass))
-        throw new IOException("Class name for IO engine mismatch: " + ioclass
-            + ", expected:" + ioEngine.getClass().getName());
-      if (!backingMap.getClass().getName().equals(mapclass))
-        throw new IOException("Class name for cache map mismatch: " + mapclass
-            + ", expected:" + backingMap.getClass().getName());
-      UniqueIndexMap<Integer> deserMap = (UniqueIndexMap<Integer>) ois
-          .readObject();
-      BucketAllocator allocator = new BucketAllocator(cacheCapacity, bucketSizes,
-          backingMap, realCacheSize);
-      backingMap = (ConcurrentHashMap<BlockCacheKey, BucketEntry>) ois
-          .readObject();
-      bucketAllocator = allocator;
-      deserialiserMap = deserMap;
-    } finally {
-      if (ois != null) ois.close();
-      if (fis != null) fis.close();
-      if (!persistenceFile.delete()) {
-        throw new IOException("Failed deleting persistence file "
-            + persistenceFile.getAbsolutePath());
-      }
+      bucketAllocator = new BucketAllocator(cacheCapacity, bucketSizes, backingMap,
+        realCacheSize);
+    } catch (BucketAllocatorException e) {
+      LOG.error("Inconsistent bucket cache index " + persistencePath
+        + "; starting with an empty cache", e);
+      backingMap.clear();
+      realCacheSize.set(0);
+      persister.disable(null);
+      persister = new BucketCachePersister(persistencePath, cacheCapacity,
+        ioEngine.getClass().getName(), bucketSizes);
+      persister.load(backingMap, deserialiserMap);
+      return;
+    }
+    long lastAccess = 0;
+    for (Map.Entry<BlockCacheKey, BucketEntry> e : backingMap.entrySet()) {
+      blocksByHFile.put(e.getKey().getHfileName(), e.getKey());
+      e.getValue().partition = partitions.add(e.getKey(), e.getValue().getLength());
+      lastAccess = Math.max(lastAccess, e.getValue().accessTime);
     }
+    blockNumber.set(backingMap.size());
+    accessCount.set(lastAccess);
   }
 
   /**
@@ -957,7 +1068,7 @@ public class BucketCache implements BlockCache, HeapSize {
     for (int i = 0; i < writerThreads.length; ++i)
       writerThreads[i].interrupt();
     this.ramCache.clear();
-    if (!ioEngine.isPersistent() || persistencePath == null) {
+    if (persister == null) {
       this.backingMap.clear();
     }
   }
@@ -972,12 +1083,10 @@ public class BucketCache implements BlockCache, HeapSize {
     disableCache();
     LOG.info("Shutdown bucket cache: IO persistent=" + ioEngine.isPersistent()
         + "; path to write=" + persistencePath);
-    if (ioEngine.isPersistent() && persistencePath != null) {
+    if (persister != null) {
       try {
         join();
-        persistToFile();
-      } catch (IOException ex) {
-        LOG.error("Unable to persist data on exit: " + ex.toString(), ex);
+        persister.close(backingMap, deserialiserMap, bucketAllocator);
       } catch (InterruptedException e) {
         LOG.warn("Failed to persist data on exit", e);
       }
@@ -1060,6 +1169,8 @@ public class BucketCache implements BlockCache, HeapSize {
     byte deserialiserIndex;
     private volatile long accessTime;
     private BlockPriority priority;
+    /** Partition the entry is accounted to, null if none */
+    transient BlockCachePartitions.Partition partition;
     /**
      * Time this block was cached.  Presumes we are created just before we are added to the cache.
      */
@@ -1120,6 +1231,29 @@ public class BucketCache implements BlockCache, HeapSize {
       return this.priority;
     }
 
+    /**
+     * Writes the entry in the persisted index, see {@link BucketCachePersister}.
+     */
+    void write(DataOutput out) throws IOException {
+      out.writeInt(offsetBase);
+      out.writeByte(offset1);
+      out.writeInt(length);
+      out.writeByte(deserialiserIndex);
+      out.writeLong(accessTime);
+      out.writeByte(priority.ordinal());
+    }
+
+    static BucketEntry read(DataInput in) throws IOException {
+      BucketEntry entry = new BucketEntry(0, 0, 0, false);
+      entry.offsetBase = in.readInt();
+      entry.offset1 = in.readByte();
+      entry.length = in.readInt();
+      entry.deserialiserIndex = in.readByte();
+      entry.accessTime = in.readLong();
+      entry.priority = BlockPriority.values()[in.readByte()];
+      return entry;
+    }
+
     @Override
     public int compareTo(BucketEntry that) {
       if(this.accessTime == that.accessTime) return 0;
@@ -1163,6 +1297,10 @@ public class BucketCache implements BlockCache, HeapSize {
       Map.Entry<BlockCacheKey, BucketEntry> entry;
       long freedBytes = 0;
       while ((entry = queue.pollLast()) != null) {
+        if (!partitions.canEvict(entry.getKey(), entry.getValue().getLength(),
+            bucketAllocator.getTotalSize())) {
+          continue;
+        }
         evictBlock(entry.getKey());
         freedBytes += entry.getValue().getLength();
         if (freedBytes >= toFree) {
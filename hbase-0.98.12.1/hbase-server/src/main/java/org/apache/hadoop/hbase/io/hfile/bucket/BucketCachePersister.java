@@ -0,0 +1,480 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
+
+/**
+ * Keeps the index of a persistent {@link BucketCache}, the backing map of block keys to
+ * {@link BucketEntry}s, in a local file so a restarted server, even after a crash, reuses
+ * the blocks its cache file holds.
+ * <p>
+ * The file is a sequence of batches, each made of a magic number, the length of its payload,
+ * the payload and a CRC32 of the payload. A payload is a sequence of binary records: a header
+ * naming the capacity, io engine and bucket sizes the index is valid for, the deserialisers,
+ * and the additions and evictions of blocks. A full rewrite writes the header and every live
+ * entry; later checkpoints only append a batch with the changes since. Loading replays the
+ * batches up to the first torn or corrupt one, which is where a crash leaves off.
+ * <p>
+ * A crash may lose the changes of the last checkpoint period. Losing additions only leaks
+ * their space until the next restart. Losing evictions is not as benign: the index would
+ * point at space since handed to other blocks. So while the persister is enabled, the space of
+ * evicted blocks is only given back to the {@link BucketAllocator} once their eviction is on
+ * disk.
+ */
+@InterfaceAudience.Private
+class BucketCachePersister {
+  private static final Log LOG = LogFactory.getLog(BucketCachePersister.class);
+
+  private static final int BATCH_MAGIC = 0x42434958;
+  /** Version 2 adds the partition of the blocks to their keys */
+  private static final int VERSION = 2;
+
+  private static final byte HEADER = 0;
+  private static final byte ADD = 1;
+  private static final byte EVICT = 2;
+  private static final byte DESERIALISER = 3;
+
+  /** Records per batch, to bound the memory of a full rewrite */
+  private static final int RECORDS_PER_BATCH = 16 * 1024;
+  /** Appended records below which the file is never rewritten */
+  private static final int MIN_RECORDS_BEFORE_REWRITE = 64 * 1024;
+
+  private final File file;
+  private final long capacity;
+  private final String ioEngineClass;
+  private final int[] bucketSizes;
+
+  /** Additions and evictions not checkpointed yet, in order */
+  private final ConcurrentLinkedQueue<Change> changes = new ConcurrentLinkedQueue<Change>();
+  /** Changes taken off {@link #changes} whose evicted space is not freed yet */
+  private final List<Change> unfreed = new ArrayList<Change>();
+  /** Guards {@link #enabled} against concurrent evictions */
+  private final Object enabledLock = new Object();
+  private volatile boolean enabled = true;
+
+  private FileOutputStream out;
+  /** Records appended since the last full rewrite */
+  private long appended = 0;
+
+  private static class Change {
+    final BlockCacheKey key;
+    final BucketEntry entry;
+    final boolean add;
+
+    Change(BlockCacheKey key, BucketEntry entry, boolean add) {
+      this.key = key;
+      this.entry = entry;
+      this.add = add;
+    }
+  }
+
+  /**
+   * @param path path of the index file
+   * @param capacity capacity of the cache
+   * @param ioEngineClass class of the io engine of the cache
+   * @param bucketSizes configured bucket sizes, null for the default ones
+   */
+  BucketCachePersister(String path, long capacity, String ioEngineClass, int[] bucketSizes) {
+    this.file = new File(path);
+    this.capacity = capacity;
+    this.ioEngineClass = ioEngineClass;
+    this.bucketSizes = bucketSizes == null ? new int[0] : bucketSizes;
+  }
+
+  /**
+   * Reads back the index, if any, and leaves the file ready for the next checkpoints.
+   * @param map receives the entries of the index
+   * @param deserialisers receives the deserialisers the entries refer to
+   * @return true if an index was read back
+   */
+  boolean load(Map<BlockCacheKey, BucketEntry> map, UniqueIndexMap<Integer> deserialisers)
+      throws IOException {
+    long goodLength = 0;
+    if (file.exists()) {
+      InputStream in = new FileInputStream(file);
+      try {
+        goodLength = replay(new DataInputStream(new BufferedInputStream(in)), map,
+          deserialisers);
+      } catch (IOException e) {
+        LOG.warn("Failed reading bucket cache index " + file + "; ignoring it", e);
+        goodLength = 0;
+      } finally {
+        in.close();
+      }
+    }
+    if (goodLength > 0) {
+      // Cut off a torn tail so the next checkpoints follow the last good batch
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        raf.setLength(goodLength);
+      } finally {
+        raf.close();
+      }
+      this.out = new FileOutputStream(file, true);
+      LOG.info("Read back " + map.size() + " bucket cache entries from " + file);
+      return true;
+    }
+    map.clear();
+    rewrite(map, deserialisers, null);
+    return false;
+  }
+
+  /**
+   * @return length of the file up to the end of the last good batch, 0 if the file does not
+   *   hold a valid index for this cache
+   */
+  private long replay(DataInputStream in, Map<BlockCacheKey, BucketEntry> map,
+      UniqueIndexMap<Integer> deserialisers) throws IOException {
+    long goodLength = 0;
+    boolean headerSeen = false;
+    while (true) {
+      byte[] payload;
+      try {
+        if (in.readInt() != BATCH_MAGIC) break;
+        int length = in.readInt();
+        if (length < 0 || length > 64 * 1024 * 1024) break;
+        payload = new byte[length];
+        in.readFully(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, length);
+        if (in.readLong() != crc.getValue()) break;
+      } catch (EOFException e) {
+        break;
+      }
+      DataInputStream records = new DataInputStream(new ByteArrayInputStream(payload));
+      while (records.available() > 0) {
+        byte type = records.readByte();
+        if (type == HEADER) {
+          if (!checkHeader(records)) return 0;
+          headerSeen = true;
+        } else if (!headerSeen) {
+          LOG.warn("Bucket cache index " + file + " has no header; ignoring it");
+          return 0;
+        } else if (type == ADD) {
+          BlockCacheKey key = readKey(records);
+          map.put(key, BucketEntry.read(records));
+        } else if (type == EVICT) {
+          BlockCacheKey key = readKey(records);
+          long offset = records.readLong();
+          BucketEntry entry = map.get(key);
+          if (entry != null && entry.offset() == offset) {
+            map.remove(key);
+          }
+        } else if (type == DESERIALISER) {
+          int index = records.readInt();
+          deserialisers.restore(records.readInt(), index);
+        } else {
+          throw new IOException("Unknown record type " + type + " in " + file);
+        }
+      }
+      goodLength += 4 + 4 + payload.length + 8;
+    }
+    return headerSeen ? goodLength : 0;
+  }
+
+  private boolean checkHeader(DataInputStream in) throws IOException {
+    int version = in.readInt();
+    long fileCapacity = in.readLong();
+    String fileIoEngineClass = in.readUTF();
+    int[] fileBucketSizes = new int[in.readInt()];
+    for (int i = 0; i < fileBucketSizes.length; i++) {
+      fileBucketSizes[i] = in.readInt();
+    }
+    if (version != VERSION || fileCapacity != capacity
+        || !fileIoEngineClass.equals(ioEngineClass)
+        || !Arrays.equals(fileBucketSizes, bucketSizes)) {
+      LOG.warn("Bucket cache index " + file + " is for another cache configuration: version="
+        + version + ", capacity=" + fileCapacity + ", ioEngine=" + fileIoEngineClass
+        + ", bucketSizes=" + Arrays.toString(fileBucketSizes) + "; ignoring it");
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Records the addition of a block, before it is put in the backing map.
+   */
+  void added(BlockCacheKey key, BucketEntry entry) {
+    if (enabled) {
+      changes.add(new Change(key, entry, true));
+    }
+  }
+
+  /**
+   * Records the eviction of a block, once it is out of the backing map.
+   * @return true if the persister frees the space of the block once the eviction is
+   *   checkpointed; false if the caller should free it now
+   */
+  boolean evicted(BlockCacheKey key, BucketEntry entry) {
+    synchronized (enabledLock) {
+      if (!enabled) return false;
+      changes.add(new Change(key, entry, false));
+      return true;
+    }
+  }
+
+  /**
+   * Writes the changes since the last checkpoint, or rewrites the whole index if the appended
+   * changes outnumber its entries, then frees the space of the evicted blocks. On failure the
+   * index is deleted and the persister disabled: the cache goes on, but will start empty.
+   * @param map the backing map of the cache
+   * @param deserialisers the deserialisers of the cache
+   * @param allocator frees the space of the blocks evicted
+   */
+  synchronized void checkpoint(Map<BlockCacheKey, BucketEntry> map,
+      UniqueIndexMap<Integer> deserialisers, BucketAllocator allocator) {
+    if (!enabled) return;
+    try {
+      if (appended > Math.max(map.size(), MIN_RECORDS_BEFORE_REWRITE)) {
+        rewrite(map, deserialisers, allocator);
+        return;
+      }
+      List<Change> batch = drainChanges();
+      if (batch.isEmpty()) return;
+      BatchWriter writer = new BatchWriter(out);
+      writeDeserialisers(writer, deserialisers);
+      for (Change change : batch) {
+        writeChange(writer, change);
+      }
+      writer.flush();
+      out.getChannel().force(false);
+      appended += batch.size();
+      freeUnfreed(allocator);
+    } catch (IOException e) {
+      LOG.error("Failed checkpointing bucket cache index " + file
+        + "; disabling persistence", e);
+      disable(allocator);
+    }
+  }
+
+  /**
+   * Writes a fresh index next to the current one and swaps it in.
+   */
+  private void rewrite(Map<BlockCacheKey, BucketEntry> map,
+      UniqueIndexMap<Integer> deserialisers, BucketAllocator allocator) throws IOException {
+    // The entries written below supersede the changes so far, but the evicted space can only
+    // be freed once the new index is in place
+    drainChanges();
+    File tmp = new File(file.getPath() + ".tmp");
+    FileOutputStream tmpOut = new FileOutputStream(tmp, false);
+    List<Change> concurrent;
+    long written = 0;
+    try {
+      BatchWriter writer = new BatchWriter(tmpOut);
+      writer.startRecord(HEADER);
+      writer.data.writeInt(VERSION);
+      writer.data.writeLong(capacity);
+      writer.data.writeUTF(ioEngineClass);
+      writer.data.writeInt(bucketSizes.length);
+      for (int size : bucketSizes) {
+        writer.data.writeInt(size);
+      }
+      writeDeserialisers(writer, deserialisers);
+      for (Map.Entry<BlockCacheKey, BucketEntry> e : map.entrySet()) {
+        writer.startRecord(ADD);
+        writeKey(writer.data, e.getKey());
+        e.getValue().write(writer.data);
+        written++;
+      }
+      // Replay whatever changed while iterating; applying a change twice is harmless
+      concurrent = drainChanges();
+      for (Change change : concurrent) {
+        writeChange(writer, change);
+      }
+      writer.flush();
+      tmpOut.getChannel().force(true);
+    } finally {
+      tmpOut.close();
+    }
+    if (out != null) {
+      out.close();
+      out = null;
+    }
+    if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+      throw new IOException("Failed renaming " + tmp + " to " + file);
+    }
+    out = new FileOutputStream(file, true);
+    appended = concurrent.size();
+    freeUnfreed(allocator);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Rewrote bucket cache index " + file + " with " + written + " entries");
+    }
+  }
+
+  /**
+   * Stops persisting: deletes the index and frees the space of the evictions not yet
+   * checkpointed.
+   */
+  synchronized void disable(BucketAllocator allocator) {
+    synchronized (enabledLock) {
+      enabled = false;
+    }
+    drainChanges();
+    freeUnfreed(allocator);
+    try {
+      if (out != null) out.close();
+    } catch (IOException e) {
+      LOG.warn("Failed closing bucket cache index " + file, e);
+    }
+    if (file.exists() && !file.delete()) {
+      LOG.warn("Failed deleting bucket cache index " + file);
+    }
+  }
+
+  /**
+   * Checkpoints one last time and closes the index.
+   */
+  synchronized void close(Map<BlockCacheKey, BucketEntry> map,
+      UniqueIndexMap<Integer> deserialisers, BucketAllocator allocator) {
+    checkpoint(map, deserialisers, allocator);
+    if (!enabled) return;
+    try {
+      out.close();
+    } catch (IOException e) {
+      LOG.warn("Failed closing bucket cache index " + file, e);
+    }
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  private List<Change> drainChanges() {
+    List<Change> drained = new ArrayList<Change>();
+    Change change;
+    while ((change = changes.poll()) != null) {
+      drained.add(change);
+    }
+    unfreed.addAll(drained);
+    return drained;
+  }
+
+  private void freeUnfreed(BucketAllocator allocator) {
+    if (allocator != null) {
+      for (Change change : unfreed) {
+        if (!change.add) {
+          allocator.freeBlock(change.entry.offset());
+        }
+      }
+    }
+    unfreed.clear();
+  }
+
+  private static void writeDeserialisers(BatchWriter writer,
+      UniqueIndexMap<Integer> deserialisers) throws IOException {
+    for (Map.Entry<Integer, Integer> e : deserialisers.mReverseMap.entrySet()) {
+      writer.startRecord(DESERIALISER);
+      writer.data.writeInt(e.getKey());
+      writer.data.writeInt(e.getValue());
+    }
+  }
+
+  private static void writeChange(BatchWriter writer, Change change) throws IOException {
+    writer.startRecord(change.add ? ADD : EVICT);
+    writeKey(writer.data, change.key);
+    if (change.add) {
+      change.entry.write(writer.data);
+    } else {
+      writer.data.writeLong(change.entry.offset());
+    }
+  }
+
+  private static void writeKey(DataOutputStream out, BlockCacheKey key) throws IOException {
+    out.writeUTF(key.getHfileName());
+    out.writeLong(key.getOffset());
+    out.writeShort(key.getDataBlockEncoding().getId());
+    String partition = key.getPartition();
+    out.writeBoolean(partition != null);
+    if (partition != null) {
+      out.writeUTF(partition);
+    }
+  }
+
+  private static BlockCacheKey readKey(DataInputStream in) throws IOException {
+    String hfileName = in.readUTF();
+    long offset = in.readLong();
+    DataBlockEncoding encoding = DataBlockEncoding.getEncodingById(in.readShort());
+    String partition = in.readBoolean() ? in.readUTF() : null;
+    return new BlockCacheKey(hfileName, offset, encoding, null, partition);
+  }
+
+  /**
+   * Groups records in checksummed batches of at most {@link #RECORDS_PER_BATCH} records.
+   */
+  private static class BatchWriter {
+    private final FileOutputStream out;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final DataOutputStream data = new DataOutputStream(buffer);
+    private int records = 0;
+
+    BatchWriter(FileOutputStream out) {
+      this.out = out;
+    }
+
+    void startRecord(byte type) throws IOException {
+      if (records == RECORDS_PER_BATCH) {
+        flush();
+      }
+      data.writeByte(type);
+      records++;
+    }
+
+    void flush() throws IOException {
+      if (records == 0) return;
+      data.flush();
+      byte[] payload = buffer.toByteArray();
+      CRC32 crc = new CRC32();
+      crc.update(payload, 0, payload.length);
+      DataOutputStream batch = new DataOutputStream(out);
+      batch.writeInt(BATCH_MAGIC);
+      batch.writeInt(payload.length);
+      batch.write(payload);
+      batch.writeLong(crc.getValue());
+      batch.flush();
+      buffer.reset();
+      records = 0;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.ByteBufferArray;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * IO engine that stores data in a file on the local file system, mapped in memory in large
+ * segments accessed through a {@link ByteBufferArray}. Unlike {@link FileIOEngine}, a read is
+ * a copy from the page cache straight into the destination buffer, without a system call, so
+ * a cache larger than memory, e.g. on an SSD or tmpfs, costs no more than an off heap one for
+ * its blocks in the page cache.
+ */
+@InterfaceAudience.Private
+public class FileMmapEngine implements IOEngine {
+  static final Log LOG = LogFactory.getLog(FileMmapEngine.class);
+
+  /** Largest segment mapped at once; a mapping is limited to 2GB */
+  static final int MAX_SEGMENT_SIZE = 1024 * 1024 * 1024;
+
+  private final String path;
+  private final long size;
+  private final RandomAccessFile raf;
+  private final FileChannel fileChannel;
+  private final MappedByteBuffer[] segments;
+  private final int segmentSize;
+  private final ByteBufferArray bufferArray;
+  /** Segments written since their last sync, as 0 or 1 */
+  private final AtomicIntegerArray dirty;
+
+  public FileMmapEngine(String filePath, long fileSize) throws IOException {
+    this(filePath, fileSize, MAX_SEGMENT_SIZE);
+  }
+
+  @VisibleForTesting
+  FileMmapEngine(String filePath, long fileSize, int maxSegmentSize) throws IOException {
+    this.path = filePath;
+    this.size = fileSize;
+    this.segmentSize = (int) Math.min(maxSegmentSize, fileSize);
+    int segmentCount = (int) ((fileSize + segmentSize - 1) / segmentSize);
+    try {
+      raf = new RandomAccessFile(filePath, "rw");
+    } catch (java.io.FileNotFoundException fex) {
+      LOG.error("Can't create bucket cache file " + filePath, fex);
+      throw fex;
+    }
+    try {
+      raf.setLength(fileSize);
+      fileChannel = raf.getChannel();
+      segments = new MappedByteBuffer[segmentCount];
+      for (int i = 0; i < segmentCount; i++) {
+        // The last segment only maps what is left of the file
+        long position = (long) i * segmentSize;
+        segments[i] = fileChannel.map(FileChannel.MapMode.READ_WRITE, position,
+          Math.min(segmentSize, fileSize - position));
+      }
+    } catch (IOException ioex) {
+      LOG.error("Can't map bucket cache file " + filePath + " of "
+        + StringUtils.byteDesc(fileSize), ioex);
+      raf.close();
+      throw ioex;
+    }
+    bufferArray = new ByteBufferArray(segments, segmentSize);
+    dirty = new AtomicIntegerArray(segmentCount);
+    LOG.info("Mapped " + StringUtils.byteDesc(fileSize) + " in " + segmentCount
+      + " segments of " + StringUtils.byteDesc(segmentSize) + ", on the path:" + filePath);
+  }
+
+  @Override
+  public String toString() {
+    return "ioengine=" + this.getClass().getSimpleName() + ", path=" + this.path +
+      ", size=" + String.format("%,d", this.size);
+  }
+
+  /**
+   * File IO engine is always able to support persistent storage for the cache
+   * @return true
+   */
+  @Override
+  public boolean isPersistent() {
+    return true;
+  }
+
+  /**
+   * Transfers data from the mapped file to the given byte buffer
+   * @param dstBuffer the given byte buffer into which bytes are to be written
+   * @param offset The offset in the file where the first byte to be read
+   * @return number of bytes read
+   * @throws IOException
+   */
+  @Override
+  public int read(ByteBuffer dstBuffer, long offset) throws IOException {
+    assert dstBuffer.hasArray();
+    return bufferArray.getMultiple(offset, dstBuffer.remaining(), dstBuffer.array(),
+        dstBuffer.arrayOffset());
+  }
+
+  /**
+   * Transfers data from the given byte buffer to the mapped file
+   * @param srcBuffer the given byte buffer from which bytes are to be read
+   * @param offset The offset in the file where the first byte to be written
+   * @throws IOException
+   */
+  @Override
+  public void write(ByteBuffer srcBuffer, long offset) throws IOException {
+    assert srcBuffer.hasArray();
+    int len = srcBuffer.remaining();
+    bufferArray.putMultiple(offset, len, srcBuffer.array(), srcBuffer.arrayOffset());
+    if (len == 0) return;
+    int last = (int) ((offset + len - 1) / segmentSize);
+    for (int i = (int) (offset / segmentSize); i <= last; i++) {
+      dirty.set(i, 1);
+    }
+  }
+
+  /**
+   * Flushes the segments written since the last sync to the file. Synchronized so a sync
+   * only returns once the writes before it are on the file, even those another sync is
+   * flushing.
+   * @throws IOException
+   */
+  @Override
+  public synchronized void sync() throws IOException {
+    for (int i = 0; i < segments.length; i++) {
+      if (dirty.getAndSet(i, 0) == 1) {
+        segments[i].force();
+      }
+    }
+  }
+
+  /**
+   * Flushes and closes the file. The segments stay mapped until they are garbage collected.
+   */
+  @Override
+  public void shutdown() {
+    try {
+      sync();
+      fileChannel.close();
+      raf.close();
+    } catch (IOException ex) {
+      LOG.error("Can't shutdown cleanly", ex);
+    }
+  }
+}
@@ -48,6 +48,15 @@ public final class UniqueIndexMap<T> implements Serializable {
     return nexti;
   }
 
+  // Put back a mapping read from a persisted index
+  void restore(T parameter, int index) {
+    mForwardMap.put(parameter, index);
+    mReverseMap.put(index, parameter);
+    while (mIndex.get() < index) {
+      mIndex.compareAndSet(mIndex.get(), index);
+    }
+  }
+
   T unmap(int leni) {
     Integer len = Integer.valueOf(leni);
     assert mReverseMap.containsKey(len);
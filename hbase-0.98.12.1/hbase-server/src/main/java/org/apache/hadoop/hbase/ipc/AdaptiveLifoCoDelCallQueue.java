@@ -0,0 +1,286 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * A call queue that keeps serving calls in time when calls come in faster than the handlers
+ * serve them, rather than have every call wait in a full queue until the client gave up on it.
+ * <p>
+ * It tracks the least time calls waited in the queue over an interval, as CoDel (controlled
+ * delay) does. If even that least wait is over the target delay, the queue is not draining: it
+ * is overloaded until an interval where some call waits less. Meanwhile, calls that waited more
+ * than twice the target are dropped, the client getting a {@link
+ * org.apache.hadoop.hbase.CallDroppedException} to retry, so the handlers serve calls that can
+ * still make it.
+ * <p>
+ * Besides, when the queue is more than a threshold full, the handlers take the newest calls
+ * first (LIFO): the oldest ones are the most likely to have timed out already.
+ */
+@InterfaceAudience.Private
+public class AdaptiveLifoCoDelCallQueue implements BlockingQueue<CallRunner> {
+
+  private final LinkedBlockingDeque<CallRunner> queue;
+  private final int maxCapacity;
+  /** The least time calls should wait in the queue, in milliseconds */
+  private final int codelTargetDelay;
+  /** Interval over which the least wait is tracked, in milliseconds */
+  private final int codelInterval;
+  /** How full the queue is, as a fraction, when calls are taken newest first */
+  private final double lifoThreshold;
+
+  private final AtomicLong numGeneralCallsDropped;
+  private final AtomicLong numLifoModeSwitches;
+
+  /** Least wait of the calls taken in the current interval, -1 if none yet */
+  private long minDelay = -1;
+  private long intervalEnd;
+  private volatile boolean isOverloaded = false;
+
+  public AdaptiveLifoCoDelCallQueue(int capacity, int targetDelay, int interval,
+      double lifoThreshold, AtomicLong numGeneralCallsDropped, AtomicLong numLifoModeSwitches) {
+    this.maxCapacity = capacity;
+    this.queue = new LinkedBlockingDeque<CallRunner>(capacity);
+    this.codelTargetDelay = targetDelay;
+    this.codelInterval = interval;
+    this.lifoThreshold = lifoThreshold;
+    this.numGeneralCallsDropped = numGeneralCallsDropped;
+    this.numLifoModeSwitches = numLifoModeSwitches;
+    this.intervalEnd = EnvironmentEdgeManager.currentTimeMillis() + interval;
+  }
+
+  /**
+   * Takes the next call to serve, dropping the ones that waited too long on the way.
+   * @return The call to serve
+   */
+  @Override
+  public CallRunner take() throws InterruptedException {
+    CallRunner cr;
+    while (true) {
+      if (((double) queue.size() / this.maxCapacity) > lifoThreshold) {
+        numLifoModeSwitches.incrementAndGet();
+        cr = queue.takeLast();
+      } else {
+        cr = queue.takeFirst();
+      }
+      if (needToDrop(cr)) {
+        numGeneralCallsDropped.incrementAndGet();
+        cr.drop();
+      } else {
+        return cr;
+      }
+    }
+  }
+
+  @Override
+  public CallRunner poll() {
+    CallRunner cr;
+    while (true) {
+      boolean lifo = ((double) queue.size() / this.maxCapacity) > lifoThreshold;
+      cr = lifo ? queue.pollLast() : queue.pollFirst();
+      if (cr == null) return null;
+      if (lifo) numLifoModeSwitches.incrementAndGet();
+      if (needToDrop(cr)) {
+        numGeneralCallsDropped.incrementAndGet();
+        cr.drop();
+      } else {
+        return cr;
+      }
+    }
+  }
+
+  /**
+   * @param callRunner The call taken
+   * @return Whether to drop the call rather than serve it
+   */
+  private boolean needToDrop(CallRunner callRunner) {
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    long callDelay = now - callRunner.getCall().timestamp;
+    synchronized (this) {
+      if (now >= intervalEnd) {
+        // Overloaded if no call waited less than the target over the interval. An interval
+        // with no call taken leaves it as it was.
+        if (minDelay >= 0) {
+          isOverloaded = minDelay > codelTargetDelay;
+        }
+        minDelay = -1;
+        intervalEnd = now + codelInterval;
+      }
+      if (minDelay < 0 || callDelay < minDelay) {
+        minDelay = callDelay;
+      }
+    }
+    return isOverloaded && callDelay > 2 * codelTargetDelay;
+  }
+
+  /**
+   * @return Whether the queue has been overloaded over the last interval
+   */
+  public boolean isOverloaded() {
+    return isOverloaded;
+  }
+
+  // Generic BlockingQueue methods we support
+  @Override
+  public boolean offer(CallRunner callRunner) {
+    return queue.offer(callRunner);
+  }
+
+  @Override
+  public boolean offer(CallRunner callRunner, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    return queue.offer(callRunner, timeout, unit);
+  }
+
+  @Override
+  public void put(CallRunner callRunner) throws InterruptedException {
+    queue.put(callRunner);
+  }
+
+  @Override
+  public boolean add(CallRunner callRunner) {
+    return queue.add(callRunner);
+  }
+
+  @Override
+  public int size() {
+    return queue.size();
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return queue.remainingCapacity();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return queue.isEmpty();
+  }
+
+  @Override
+  public Iterator<CallRunner> iterator() {
+    return queue.iterator();
+  }
+
+  @Override
+  public String toString() {
+    return queue.toString();
+  }
+
+  // This class does NOT provide generic purpose BlockingQueue implementation,
+  // so to prevent other usages, throw exception on the methods the handlers do not use.
+
+  @Override
+  public CallRunner poll(long timeout, TimeUnit unit) throws InterruptedException {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public CallRunner peek() {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public Object[] toArray() {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public <T> T[] toArray(T[] a) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c, int maxElements) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public CallRunner remove() {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public CallRunner element() {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends CallRunner> c) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public boolean containsAll(Collection<?> c) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    throw new UnsupportedOperationException("This class doesn't support anything,"
+      + " but take(), poll() and offer() methods");
+  }
+}
@@ -57,8 +57,10 @@ class BufferChain {
     byte [] bytes = new byte [this.remaining];
     int offset = 0;
     for (ByteBuffer bb: this.buffers) {
-      System.arraycopy(bb.array(), bb.arrayOffset(), bytes, offset, bb.limit());
-      offset += bb.capacity();
+      // A buffer can be a view of part of a bigger one, e.g. of a cell block
+      System.arraycopy(bb.array(), bb.arrayOffset() + bb.position(), bytes, offset,
+        bb.remaining());
+      offset += bb.remaining();
     }
     return bytes;
   }
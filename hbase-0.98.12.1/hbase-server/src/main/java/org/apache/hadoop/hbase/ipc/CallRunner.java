@@ -16,9 +16,11 @@ package org.apache.hadoop.hbase.ipc;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
 
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.CallDroppedException;
 import org.apache.hadoop.hbase.CellScanner;
 import org.apache.hadoop.hbase.ipc.RpcServer.Call;
 import org.apache.hadoop.hbase.monitoring.MonitoredRPCHandler;
@@ -148,6 +150,39 @@ public class CallRunner {
     }
   }
 
+  /**
+   * When we want to drop this call because the server is overloaded, rather than run it:
+   * answers the client with a {@link CallDroppedException} it can retry on.
+   */
+  public void drop() {
+    try {
+      if (!call.connection.channel.isOpen()) {
+        if (RpcServer.LOG.isDebugEnabled()) {
+          RpcServer.LOG.debug(Thread.currentThread().getName() + ": skipped " + call);
+        }
+        return;
+      }
+      // Set the response
+      InetSocketAddress address = rpcServer.getListenerAddress();
+      call.setResponse(null, null, new CallDroppedException(), "Call dropped, server "
+        + (address != null ? address : "(channel closed)") + " is overloaded, please retry.");
+      call.sendResponseIfReady();
+    } catch (ClosedChannelException cce) {
+      InetSocketAddress address = rpcServer.getListenerAddress();
+      RpcServer.LOG.warn(Thread.currentThread().getName() + ": caught a ClosedChannelException, " +
+          "this means that the server " + (address != null ? address : "(channel closed)") +
+          " was processing a request but the client went away. The error message was: " +
+          cce.getMessage());
+    } catch (Exception e) {
+      RpcServer.LOG.warn(Thread.currentThread().getName()
+          + ": caught: " + StringUtils.stringifyException(e));
+    } finally {
+      // regardless if succesful or not we need to reset the callQueueSize
+      this.rpcServer.addCallSize(call.getSize() * -1);
+      cleanup();
+    }
+  }
+
   MonitoredRPCHandler getStatus() {
     // It is ugly the way we park status up in RpcServer.  Let it be for now.  TODO.
     MonitoredRPCHandler status = RpcServer.MONITORED_RPC.get();
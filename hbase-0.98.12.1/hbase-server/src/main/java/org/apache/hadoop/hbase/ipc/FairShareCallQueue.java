@@ -0,0 +1,452 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.Message;
+
+/**
+ * A call queue that shares the handlers reading from it fairly among the users, tables or
+ * namespaces its calls are for, rather than serving calls first come, first served.
+ * <p>
+ * Each user, table or namespace, the key of a call, has a queue of its own, ordered by deadline:
+ * the time the call was received plus the delay {@link PriorityFunction#getDeadline} gives it,
+ * so e.g. the next call of a long running scan is served after gets received a bit later. The
+ * handlers take the next call from the queue of the key that has had the least handler time, in
+ * proportion to its weight (start-time fair queuing). The handler time of a call is only known
+ * once it has run, when its handler comes back for another call; until then the key is charged
+ * the mean handler time of its previous calls.
+ * <p>
+ * Weights are configured per key as <code>hbase.ipc.server.fairshare.weight.KEY</code>, e.g.
+ * <code>hbase.ipc.server.fairshare.weight.alice</code> set to 2 gives user alice twice the
+ * handler time of other users when they all have calls waiting. Calls with no known user or
+ * table share the empty key.
+ */
+@InterfaceAudience.Private
+public class FairShareCallQueue extends AbstractQueue<CallRunner>
+    implements BlockingQueue<CallRunner> {
+
+  /** What calls are shared by: 'user', 'table' or 'namespace' */
+  public static final String KEY_TYPE_CONF_KEY = "hbase.ipc.server.fairshare.key";
+  public static final String WEIGHT_CONF_KEY_PREFIX = "hbase.ipc.server.fairshare.weight.";
+  /** Longest delay {@link PriorityFunction#getDeadline} can put on a call, in milliseconds */
+  public static final String MAX_CALL_DELAY_CONF_KEY = "hbase.ipc.server.queue.max.call.delay";
+
+  /** Function to figure the table of a request */
+  public interface TableFunction {
+    /**
+     * @param header
+     * @param param
+     * @return The table the request is for, or null if not known
+     */
+    TableName getTable(RequestHeader header, Message param);
+  }
+
+  enum KeyType { USER, TABLE, NAMESPACE }
+
+  /** Calls of one key */
+  private static class Flow {
+    final String key;
+    final double weight;
+    final long id;
+    final PriorityQueue<Entry> calls = new PriorityQueue<Entry>(11, ENTRY_COMPARATOR);
+    /** Handler time had, over the weight; compared with that of the other keys */
+    double virtualTime;
+    /** Mean handler time of the calls, as a moving average */
+    double meanServiceTime = 1;
+    /** Calls taken out and not charged yet */
+    int inService;
+
+    Flow(String key, double weight, long id) {
+      this.key = key;
+      this.weight = weight;
+      this.id = id;
+    }
+  }
+
+  private static class Entry {
+    final CallRunner task;
+    final long deadline;
+    final long seqId;
+    final long enqueueTime;
+
+    Entry(CallRunner task, long deadline, long seqId, long enqueueTime) {
+      this.task = task;
+      this.deadline = deadline;
+      this.seqId = seqId;
+      this.enqueueTime = enqueueTime;
+    }
+  }
+
+  private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry a, Entry b) {
+      if (a.deadline != b.deadline) return a.deadline < b.deadline ? -1 : 1;
+      return a.seqId < b.seqId ? -1 : (a.seqId == b.seqId ? 0 : 1);
+    }
+  };
+
+  private static final Comparator<Flow> FLOW_COMPARATOR = new Comparator<Flow>() {
+    @Override
+    public int compare(Flow a, Flow b) {
+      int c = Double.compare(a.virtualTime, b.virtualTime);
+      if (c != 0) return c;
+      return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+    }
+  };
+
+  /** A call taken by a handler thread, charged when the thread comes back for the next */
+  private static class Charge {
+    final Flow flow;
+    final long start;
+    final double estimate;
+
+    Charge(Flow flow, long start, double estimate) {
+      this.flow = flow;
+      this.start = start;
+      this.estimate = estimate;
+    }
+  }
+
+  private final ThreadLocal<Charge> charges = new ThreadLocal<Charge>();
+
+  private final Configuration conf;
+  private final PriorityFunction priority;
+  private final TableFunction tables;
+  private final KeyType keyType;
+  private final int maxDelay;
+  private final int capacity;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Map<String, Flow> flows = new HashMap<String, Flow>();
+  /** Keys with calls waiting, the one to serve next first */
+  private final TreeSet<Flow> active = new TreeSet<Flow>(FLOW_COMPARATOR);
+  /** Virtual time of the key served last; where a key that had no calls waiting starts */
+  private double systemVirtualTime = 0;
+  private long nextFlowId = 0;
+  private long nextSeqId = 0;
+  private int count = 0;
+
+  public FairShareCallQueue(final int capacity, final Configuration conf,
+      final PriorityFunction priority, final TableFunction tables) {
+    this.capacity = capacity;
+    this.conf = conf;
+    this.priority = priority;
+    this.tables = tables;
+    this.keyType = KeyType.valueOf(conf.get(KEY_TYPE_CONF_KEY, "user").toUpperCase());
+    this.maxDelay = conf.getInt(MAX_CALL_DELAY_CONF_KEY, 5000);
+  }
+
+  /**
+   * @return The user, table or namespace the call is shared by
+   */
+  @VisibleForTesting
+  String getKey(final RpcServer.Call call) {
+    if (keyType == KeyType.USER) {
+      String user = call.getRequestUserName();
+      return user == null ? "" : user;
+    }
+    TableName table = tables.getTable(call.getHeader(), call.param);
+    if (table == null) return "";
+    return keyType == KeyType.TABLE ? table.getNameAsString() : table.getNamespaceAsString();
+  }
+
+  private long getDeadline(final RpcServer.Call call) {
+    long delay = priority == null ? 0 : priority.getDeadline(call.getHeader(), call.param);
+    return call.timestamp + Math.min(delay, maxDelay);
+  }
+
+  @Override
+  public boolean offer(CallRunner task) {
+    lock.lock();
+    try {
+      if (count >= capacity) return false;
+      enqueue(task);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(CallRunner task) throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (count >= capacity) {
+        notFull.await();
+      }
+      enqueue(task);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public boolean offer(CallRunner task, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (count >= capacity) {
+        if (nanos <= 0) return false;
+        nanos = notFull.awaitNanos(nanos);
+      }
+      enqueue(task);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void enqueue(final CallRunner task) {
+    RpcServer.Call call = task.getCall();
+    String key = getKey(call);
+    Flow flow = flows.get(key);
+    if (flow == null) {
+      float weight = conf.getFloat(WEIGHT_CONF_KEY_PREFIX + key, 1.0f);
+      flow = new Flow(key, weight > 0 ? weight : 1.0f, nextFlowId++);
+      flows.put(key, flow);
+    }
+    if (flow.calls.isEmpty()) {
+      // An idle key gets no credit for the time it had no calls
+      flow.virtualTime = Math.max(flow.virtualTime, systemVirtualTime);
+      active.add(flow);
+    }
+    flow.calls.add(new Entry(task, getDeadline(call), nextSeqId++,
+      EnvironmentEdgeManager.currentTimeMillis()));
+    count++;
+    notEmpty.signal();
+  }
+
+  @Override
+  public CallRunner take() throws InterruptedException {
+    chargeLastCall();
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        notEmpty.await();
+      }
+      return dequeue(true);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public CallRunner poll(long timeout, TimeUnit unit) throws InterruptedException {
+    chargeLastCall();
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (count == 0) {
+        if (nanos <= 0) return null;
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue(true);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public CallRunner poll() {
+    chargeLastCall();
+    lock.lock();
+    try {
+      return count == 0 ? null : dequeue(true);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @param run Whether the call is taken by a handler to run, rather than drained
+   */
+  private CallRunner dequeue(final boolean run) {
+    Flow flow = active.pollFirst();
+    systemVirtualTime = flow.virtualTime;
+    Entry entry = flow.calls.poll();
+    count--;
+    if (run) {
+      // Charge the estimate now so the other handlers do not all pick this key meanwhile
+      flow.virtualTime += flow.meanServiceTime / flow.weight;
+      flow.inService++;
+      charges.set(new Charge(flow, EnvironmentEdgeManager.currentTimeMillis(),
+        flow.meanServiceTime));
+    }
+    if (!flow.calls.isEmpty()) {
+      active.add(flow);
+    } else if (flow.inService == 0) {
+      flows.remove(flow.key);
+    }
+    notFull.signal();
+    return entry.task;
+  }
+
+  /**
+   * Charges the key of the call this thread took last with the time it took to run, in place of
+   * the estimate charged when it was taken.
+   */
+  private void chargeLastCall() {
+    Charge charge = charges.get();
+    if (charge == null) return;
+    charges.remove();
+    double serviceTime =
+      Math.max(1, EnvironmentEdgeManager.currentTimeMillis() - charge.start);
+    Flow flow = charge.flow;
+    lock.lock();
+    try {
+      boolean waiting = active.remove(flow);
+      flow.virtualTime += (serviceTime - charge.estimate) / flow.weight;
+      flow.meanServiceTime = 0.9 * flow.meanServiceTime + 0.1 * serviceTime;
+      flow.inService--;
+      if (waiting) {
+        active.add(flow);
+      } else if (flow.inService == 0) {
+        flows.remove(flow.key);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public CallRunner peek() {
+    lock.lock();
+    try {
+      return count == 0 ? null : active.first().calls.peek().task;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    lock.lock();
+    try {
+      return capacity - count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super CallRunner> c, int maxElements) {
+    if (c == this) throw new IllegalArgumentException();
+    lock.lock();
+    try {
+      int n = 0;
+      while (n < maxElements && count > 0) {
+        c.add(dequeue(false));
+        n++;
+      }
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return A snapshot of the calls waiting, in no particular order
+   */
+  @Override
+  public Iterator<CallRunner> iterator() {
+    lock.lock();
+    try {
+      List<CallRunner> tasks = new ArrayList<CallRunner>(count);
+      for (Flow flow : active) {
+        for (Entry entry : flow.calls) {
+          tasks.add(entry.task);
+        }
+      }
+      return Collections.unmodifiableList(tasks).iterator();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return Number of users, tables or namespaces with calls waiting
+   */
+  public int getActiveKeyCount() {
+    lock.lock();
+    try {
+      return active.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return How long the call waiting the longest has been in the queue, in milliseconds
+   */
+  public long getOldestCallAge() {
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    long oldest = now;
+    lock.lock();
+    try {
+      for (Flow flow : active) {
+        for (Entry entry : flow.calls) {
+          oldest = Math.min(oldest, entry.enqueueTime);
+        }
+      }
+    } finally {
+      lock.unlock();
+    }
+    return now - oldest;
+  }
+}
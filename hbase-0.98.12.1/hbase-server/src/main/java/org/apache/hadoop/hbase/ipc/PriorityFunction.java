@@ -35,4 +35,14 @@ public interface PriorityFunction {
    * @return Priority of this request.
    */
   int getPriority(RequestHeader header, Message param);
+
+  /**
+   * Returns the deadline of the specified request.
+   * The returned value is used to sort requests of the same priority: a call waits at most
+   * that many milliseconds, past the time it was received, behind calls that came after it.
+   * @param header
+   * @param param
+   * @return Deadline of this request. 0 now, otherwise msec of 'delay'
+   */
+  long getDeadline(RequestHeader header, Message param);
 }
@@ -159,7 +159,7 @@ public class RWQueueRpcExecutor extends RpcExecutor {
    * Calculate the number of writers based on the "total count" and the read share.
    * You'll get at least one writer.
    */
-  private static int calcNumWriters(final int count, final float readShare) {
+  static int calcNumWriters(final int count, final float readShare) {
     return Math.max(1, count - Math.max(1, (int)Math.round(count * readShare)));
   }
 
@@ -167,7 +167,7 @@ public class RWQueueRpcExecutor extends RpcExecutor {
    * Calculate the number of readers based on the "total count" and the read share.
    * You'll get at least one reader.
    */
-  private static int calcNumReaders(final int count, final float readShare) {
+  static int calcNumReaders(final int count, final float readShare) {
     return count - calcNumWriters(count, readShare);
   }
 }
@@ -71,4 +71,36 @@ public abstract class RpcScheduler {
 
   /** Retrieves the number of active handler. */
   public abstract int getActiveRpcHandlerCount();
+
+  /**
+   * Retrieves the number of users, tables or namespaces with calls waiting in the general queue,
+   * for metrics. 0 if the scheduler does not queue calls by those.
+   */
+  public int getActiveCallQueueKeyCount() {
+    return 0;
+  }
+
+  /**
+   * Retrieves how long, in milliseconds, the call waiting the longest in the general queue has
+   * been there, for metrics. 0 if the scheduler does not track it.
+   */
+  public long getOldestGeneralCallAge() {
+    return 0;
+  }
+
+  /**
+   * Retrieves the number of general calls dropped by the call queues, because they waited too
+   * long while the server was overloaded, for metrics.
+   */
+  public long getNumGeneralCallsDropped() {
+    return 0;
+  }
+
+  /**
+   * Retrieves the number of times the call queues took the newest call first because they were
+   * filling up, for metrics.
+   */
+  public long getNumLifoModeSwitches() {
+    return 0;
+  }
 }
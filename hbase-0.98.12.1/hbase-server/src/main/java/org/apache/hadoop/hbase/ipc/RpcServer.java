@@ -44,6 +44,7 @@ import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -267,6 +268,8 @@ public class RpcServer implements RpcServerInterface {
   private UserProvider userProvider;
 
   private final BoundedByteBufferPool reservoir;
+  /** Size from which a cell is spliced into a response rather than copied */
+  private final int cellBlockSpliceThreshold;
 
 
   /**
@@ -437,12 +440,19 @@ public class RpcServer implements RpcServerInterface {
         // Pass reservoir to buildCellBlock. Keep reference to returne so can add it back to the
         // reservoir when finished. This is hacky and the hack is not contained but benefits are
         // high when we can avoid a big buffer allocation on each rpc.
+        // Large cells are not copied into it but spliced into the response out of the arrays
+        // backing them, blocks of the block cache mostly; cellBlockChain is the whole cell block.
+        List<ByteBuffer> cellBlockChain = new ArrayList<ByteBuffer>();
         this.cellBlock = ipcUtil.buildCellBlock(this.connection.codec,
-          this.connection.compressionCodec, cells, reservoir);
+          this.connection.compressionCodec, cells, reservoir, cellBlockSpliceThreshold,
+          cellBlockChain);
+        int cellBlockLength = 0;
         if (this.cellBlock != null) {
+          for (ByteBuffer bb : cellBlockChain) {
+            cellBlockLength += bb.remaining();
+          }
           CellBlockMeta.Builder cellBlockBuilder = CellBlockMeta.newBuilder();
-          // Presumes the cellBlock bytebuffer has been flipped so limit has total size in it.
-          cellBlockBuilder.setLength(this.cellBlock.limit());
+          cellBlockBuilder.setLength(cellBlockLength);
           headerBuilder.setCellBlockMeta(cellBlockBuilder.build());
         }
         Message header = headerBuilder.build();
@@ -452,9 +462,10 @@ public class RpcServer implements RpcServerInterface {
         ByteBuffer bbHeader = IPCUtil.getDelimitedMessageAsByteBuffer(header);
         ByteBuffer bbResult = IPCUtil.getDelimitedMessageAsByteBuffer(result);
         int totalSize = bbHeader.capacity() + (bbResult == null? 0: bbResult.limit()) +
-          (this.cellBlock == null? 0: this.cellBlock.limit());
+          cellBlockLength;
         ByteBuffer bbTotalSize = ByteBuffer.wrap(Bytes.toBytes(totalSize));
-        bc = new BufferChain(bbTotalSize, bbHeader, bbResult, this.cellBlock);
+        cellBlockChain.addAll(0, Arrays.asList(bbTotalSize, bbHeader, bbResult));
+        bc = new BufferChain(cellBlockChain.toArray(new ByteBuffer[cellBlockChain.size()]));
         if (connection.useWrap) {
           bc = wrapWithSasl(bc);
         }
@@ -1918,6 +1929,11 @@ public class RpcServer implements RpcServerInterface {
       conf.getInt("hbase.ipc.server.reservoir.initial.max",
         conf.getInt(HConstants.REGION_SERVER_HANDLER_COUNT,
           HConstants.DEFAULT_REGION_SERVER_HANDLER_COUNT) * 2));
+    // A spliced cell must stay as it is until the response is written out, which a memstore
+    // chunk pool does not ensure: it hands the chunks of a flushed memstore out again.
+    this.cellBlockSpliceThreshold =
+      conf.getFloat("hbase.hregion.memstore.chunkpool.maxsize", 0.0f) > 0 ? Integer.MAX_VALUE
+        : conf.getInt("hbase.ipc.server.cellblock.splice.threshold", 8 * 1024);
     this.services = services;
     this.isa = isa;
     this.conf = conf;
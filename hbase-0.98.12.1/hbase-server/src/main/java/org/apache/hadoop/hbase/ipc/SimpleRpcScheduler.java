@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.hbase.ipc;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -42,6 +44,26 @@ public class SimpleRpcScheduler extends RpcScheduler {
   public static final String CALL_QUEUE_MAX_LENGTH_CONF_KEY =
     "hbase.ipc.server.max.callqueue.length";
 
+  /** If set to 'codel', the general call queues are {@link AdaptiveLifoCoDelCallQueue}s */
+  public static final String CALL_QUEUE_TYPE_CONF_KEY = "hbase.ipc.server.callqueue.type";
+  public static final String CALL_QUEUE_TYPE_CODEL_CONF_VALUE = "codel";
+  public static final String CALL_QUEUE_TYPE_FIFO_CONF_VALUE = "fifo";
+
+  // These 3 are only used by the CoDel call queues
+  public static final String CALL_QUEUE_CODEL_TARGET_DELAY =
+    "hbase.ipc.server.callqueue.codel.target.delay";
+  public static final String CALL_QUEUE_CODEL_INTERVAL =
+    "hbase.ipc.server.callqueue.codel.interval";
+  public static final String CALL_QUEUE_CODEL_LIFO_THRESHOLD =
+    "hbase.ipc.server.callqueue.codel.lifo.threshold";
+
+  public static final int CALL_QUEUE_CODEL_DEFAULT_TARGET_DELAY = 100;
+  public static final int CALL_QUEUE_CODEL_DEFAULT_INTERVAL = 100;
+  public static final float CALL_QUEUE_CODEL_DEFAULT_LIFO_THRESHOLD = 0.8f;
+
+  private final AtomicLong numGeneralCallsDropped = new AtomicLong();
+  private final AtomicLong numLifoModeSwitches = new AtomicLong();
+
   private int port;
   private final PriorityFunction priority;
   private final RpcExecutor callExecutor;
@@ -83,9 +105,34 @@ public class SimpleRpcScheduler extends RpcScheduler {
       conf.getFloat("ipc.server.callqueue.handler.factor", 0));
     int numCallQueues = Math.max(1, (int)Math.round(handlerCount * callQueuesHandlersFactor));
 
-    LOG.info("Using default user call queue, count=" + numCallQueues);
-
-    if (numCallQueues > 1 && callqReadShare > 0) {
+    String callQueueType = conf.get(CALL_QUEUE_TYPE_CONF_KEY, CALL_QUEUE_TYPE_FIFO_CONF_VALUE);
+    boolean codel = CALL_QUEUE_TYPE_CODEL_CONF_VALUE.equals(callQueueType);
+
+    LOG.info("Using " + callQueueType + " as user call queue, count=" + numCallQueues);
+
+    if (codel) {
+      int codelTargetDelay = conf.getInt(CALL_QUEUE_CODEL_TARGET_DELAY,
+        CALL_QUEUE_CODEL_DEFAULT_TARGET_DELAY);
+      int codelInterval = conf.getInt(CALL_QUEUE_CODEL_INTERVAL,
+        CALL_QUEUE_CODEL_DEFAULT_INTERVAL);
+      double codelLifoThreshold = conf.getFloat(CALL_QUEUE_CODEL_LIFO_THRESHOLD,
+        CALL_QUEUE_CODEL_DEFAULT_LIFO_THRESHOLD);
+      Object[] callQueueInitArgs = {maxQueueLength, codelTargetDelay, codelInterval,
+        codelLifoThreshold, numGeneralCallsDropped, numLifoModeSwitches};
+      if (numCallQueues > 1 && callqReadShare > 0) {
+        callExecutor = new RWQueueRpcExecutor("RW.CodelBQ.Default",
+          RWQueueRpcExecutor.calcNumWriters(handlerCount, callqReadShare),
+          RWQueueRpcExecutor.calcNumReaders(handlerCount, callqReadShare),
+          RWQueueRpcExecutor.calcNumWriters(numCallQueues, callqReadShare),
+          RWQueueRpcExecutor.calcNumReaders(numCallQueues, callqReadShare),
+          conf, abortable,
+          AdaptiveLifoCoDelCallQueue.class, callQueueInitArgs,
+          AdaptiveLifoCoDelCallQueue.class, callQueueInitArgs);
+      } else {
+        callExecutor = new BalancedQueueRpcExecutor("CodelBQ.Default", handlerCount,
+          numCallQueues, conf, abortable, AdaptiveLifoCoDelCallQueue.class, callQueueInitArgs);
+      }
+    } else if (numCallQueues > 1 && callqReadShare > 0) {
       // multiple read/write queues
       callExecutor = new RWQueueRpcExecutor("RW.Default", handlerCount, numCallQueues,
         callqReadShare, maxQueueLength, conf, abortable);
@@ -156,5 +203,15 @@ public class SimpleRpcScheduler extends RpcScheduler {
            (priorityExecutor == null ? 0 : priorityExecutor.getActiveHandlerCount()) +
            (replicationExecutor == null ? 0 : replicationExecutor.getActiveHandlerCount());
   }
+
+  @Override
+  public long getNumGeneralCallsDropped() {
+    return numGeneralCallsDropped.get();
+  }
+
+  @Override
+  public long getNumLifoModeSwitches() {
+    return numLifoModeSwitches.get();
+  }
 }
 
@@ -0,0 +1,151 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Chore that expires the region servers the {@link PhiAccrualFailureDetector} suspects,
+ * without waiting for their ZooKeeper session to time out. A suspected server is first fenced
+ * by {@link MasterFileSystem#fenceServer(ServerName)}, so it cannot write anymore even if it is
+ * only paused. Fencing may wait long for the leases of the WALs, so it runs in a pool rather
+ * than in the chore, which keeps judging the other servers meanwhile.
+ * <p>
+ * When the chore itself runs late, e.g. because of a garbage collection pause of the master,
+ * the reports of the servers were held up just the same: the chore then suspects no server
+ * for as long again, so that they get to report.
+ */
+@InterfaceAudience.Private
+public class FailureDetectorChore extends Chore {
+  private static final Log LOG = LogFactory.getLog(FailureDetectorChore.class);
+
+  /** Whether the master expires servers on the verdict of the failure detector */
+  static final String ENABLED_KEY = "hbase.master.failuredetector.enabled";
+  static final String PERIOD_KEY = "hbase.master.failuredetector.period";
+  static final int DEFAULT_PERIOD = 200;
+  static final String PHI_THRESHOLD_KEY = "hbase.master.failuredetector.phi.threshold";
+  static final double DEFAULT_PHI_THRESHOLD = 8.0;
+  /** How many servers may be fenced at the same time */
+  static final String FENCING_THREADS_KEY = "hbase.master.failuredetector.fencing.threads";
+  static final int DEFAULT_FENCING_THREADS = 5;
+
+  private final MasterServices services;
+  private final int period;
+  private final double threshold;
+  private final ThreadPoolExecutor fencingPool;
+  /** Servers being fenced, to expire once done */
+  private final Set<ServerName> fencingServers =
+      Collections.newSetFromMap(new ConcurrentHashMap<ServerName, Boolean>());
+  /** When the chore last ran, 0 if never */
+  private long lastRun = 0;
+  /** Time before which no server is suspected, after the chore ran late */
+  private long suspicionResumesAt = 0;
+
+  public FailureDetectorChore(final HMaster master) {
+    this(master, master, master.getConfiguration());
+  }
+
+  FailureDetectorChore(final MasterServices services, final Stoppable stopper,
+      final Configuration conf) {
+    super(services.getServerName() + "-FailureDetectorChore",
+      conf.getInt(PERIOD_KEY, DEFAULT_PERIOD), stopper);
+    this.services = services;
+    this.period = conf.getInt(PERIOD_KEY, DEFAULT_PERIOD);
+    this.threshold = conf.getFloat(PHI_THRESHOLD_KEY, (float) DEFAULT_PHI_THRESHOLD);
+    this.fencingPool = Threads.getBoundedCachedThreadPool(
+      conf.getInt(FENCING_THREADS_KEY, DEFAULT_FENCING_THREADS), 60, TimeUnit.SECONDS,
+      Threads.newDaemonThreadFactory(services.getServerName() + "-FailureDetectorFencing"));
+  }
+
+  @Override
+  protected void chore() {
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    long sinceLastRun = now - lastRun;
+    if (lastRun > 0 && sinceLastRun > 2 * period) {
+      // We were paused: so were the reports, which come now
+      suspicionResumesAt = Math.max(suspicionResumesAt, now + sinceLastRun);
+      LOG.warn("Ran " + sinceLastRun + "ms after the previous run instead of " + period
+        + "ms; suspecting no server for " + sinceLastRun + "ms");
+    }
+    lastRun = now;
+    if (now < suspicionResumesAt) return;
+
+    ServerManager serverManager = services.getServerManager();
+    PhiAccrualFailureDetector detector = serverManager.getFailureDetector();
+    for (ServerName sn : serverManager.getOnlineServersList()) {
+      if (this.stopper.isStopped()) return;
+      if (fencingServers.contains(sn)) continue;
+      double phi = detector.phi(sn, now);
+      if (phi < threshold) continue;
+      LOG.warn("Suspecting " + sn + " with phi=" + phi + " >= " + threshold
+        + "; fencing and expiring it");
+      fencingServers.add(sn);
+      fencingPool.execute(new FenceAndExpire(sn));
+    }
+  }
+
+  @Override
+  protected void cleanup() {
+    fencingPool.shutdownNow();
+  }
+
+  /**
+   * Fences a suspected server, then expires it.
+   */
+  private class FenceAndExpire implements Runnable {
+    private final ServerName serverName;
+
+    FenceAndExpire(final ServerName serverName) {
+      this.serverName = serverName;
+    }
+
+    @Override
+    public void run() {
+      try {
+        services.getMasterFileSystem().fenceServer(serverName);
+      } catch (IOException e) {
+        // Log splitting renames the log directory and recovers the leases anyway before the
+        // regions are reassigned
+        LOG.warn("Failed fencing " + serverName + "; expiring it anyway", e);
+      }
+      try {
+        if (!stopper.isStopped()) {
+          services.getServerManager().expireServer(serverName);
+        }
+      } finally {
+        fencingServers.remove(serverName);
+      }
+    }
+  }
+}
@@ -107,6 +107,7 @@ import org.apache.hadoop.hbase.master.handler.TableDeleteFamilyHandler;
 import org.apache.hadoop.hbase.master.handler.TableModifyFamilyHandler;
 import org.apache.hadoop.hbase.master.handler.TruncateTableHandler;
 import org.apache.hadoop.hbase.master.snapshot.SnapshotManager;
+import org.apache.hadoop.hbase.mob.MobFileCleanerChore;
 import org.apache.hadoop.hbase.monitoring.MemoryBoundedLogMessageBuffer;
 import org.apache.hadoop.hbase.monitoring.MonitoredTask;
 import org.apache.hadoop.hbase.monitoring.TaskMonitor;
@@ -220,6 +221,7 @@ import org.apache.hadoop.hbase.protobuf.generated.RegionServerStatusProtos.Repor
 import org.apache.hadoop.hbase.protobuf.generated.RegionServerStatusProtos.ReportRegionStateTransitionRequest;
 import org.apache.hadoop.hbase.protobuf.generated.RegionServerStatusProtos.ReportRegionStateTransitionResponse;
 import org.apache.hadoop.hbase.protobuf.generated.ZooKeeperProtos.SplitLogTask.RecoveryMode;
+import org.apache.hadoop.hbase.quotas.MasterQuotaManager;
 import org.apache.hadoop.hbase.regionserver.RegionCoprocessorHost;
 import org.apache.hadoop.hbase.regionserver.RegionSplitPolicy;
 import org.apache.hadoop.hbase.replication.regionserver.Replication;
@@ -370,6 +372,7 @@ MasterServices, Server {
 
   /** Namespace stuff */
   private TableNamespaceManager tableNamespaceManager;
+  private MasterQuotaManager quotaManager;
 
   /**
    * This servers address.
@@ -417,9 +420,11 @@ MasterServices, Server {
   private LoadBalancer balancer;
   private Thread balancerChore;
   private Thread clusterStatusChore;
+  private Thread failureDetectorChore;
   private ClusterStatusPublisher clusterStatusPublisherChore = null;
 
   private CatalogJanitor catalogJanitorChore;
+  private MobFileCleanerChore mobFileCleanerChore;
   private LogCleaner logCleaner;
   private HFileCleaner hfileCleaner;
 
@@ -1006,13 +1011,22 @@ MasterServices, Server {
       status.setStatus("Starting balancer and catalog janitor");
       this.clusterStatusChore = getAndStartClusterStatusChore(this);
       this.balancerChore = getAndStartBalancerChore(this);
+      if (conf.getBoolean(FailureDetectorChore.ENABLED_KEY, false)) {
+        this.failureDetectorChore = Threads.setDaemonThreadRunning(
+          new FailureDetectorChore(this).getThread());
+      }
       this.catalogJanitorChore = new CatalogJanitor(this, this);
       startCatalogJanitorChore();
+      this.mobFileCleanerChore = new MobFileCleanerChore(this);
+      Threads.setDaemonThreadRunning(mobFileCleanerChore.getThread());
     }
 
     status.setStatus("Starting namespace manager");
     initNamespace();
 
+    status.setStatus("Starting quota manager");
+    initQuotaManager();
+
     if (this.cpHost != null) {
       try {
         this.cpHost.preMasterInitialization();
@@ -1166,6 +1180,11 @@ MasterServices, Server {
     tableNamespaceManager.start();
   }
 
+  void initQuotaManager() throws IOException {
+    quotaManager = new MasterQuotaManager(this);
+    quotaManager.start();
+  }
+
   private void splitMetaLogBeforeAssignment(ServerName currentMetaServer) throws IOException {
     if (RecoveryMode.LOG_REPLAY == this.getMasterFileSystem().getLogRecoveryMode()) {
       // In log replay mode, we mark hbase:meta region as recovering in ZK
@@ -1380,9 +1399,15 @@ MasterServices, Server {
     if (this.clusterStatusChore != null) {
       this.clusterStatusChore.interrupt();
     }
+    if (this.failureDetectorChore != null) {
+      this.failureDetectorChore.interrupt();
+    }
     if (this.catalogJanitorChore != null) {
       this.catalogJanitorChore.interrupt();
     }
+    if (this.mobFileCleanerChore != null) {
+      this.mobFileCleanerChore.interrupt();
+    }
     if (this.clusterStatusPublisherChore != null){
       clusterStatusPublisherChore.interrupt();
     }
@@ -288,6 +288,37 @@ public class MasterFileSystem {
     splitLog(serverNames);
   }
 
+  /**
+   * Fences a region server suspected dead, even if it is only paused. Its HLog directory is
+   * renamed for splitting, as log splitting does, so it cannot create new HLogs, and the leases
+   * of its HLogs are recovered, so it cannot sync the current one. Once it resumes, its sync
+   * fails, the log roll that follows too, and it aborts.
+   * @param serverName the suspected server
+   * @throws IOException
+   */
+  public void fenceServer(final ServerName serverName) throws IOException {
+    Path logDir = new Path(this.rootdir, HLogUtil.getHLogDirectoryName(serverName.toString()));
+    Path splitDir = logDir.suffix(HLog.SPLITTING_EXT);
+    if (this.fs.exists(logDir)) {
+      if (!this.fs.rename(logDir, splitDir)) {
+        throw new IOException("Failed fs.rename for fencing: " + logDir);
+      }
+      LOG.debug("Renamed log directory: " + splitDir);
+    } else if (!this.fs.exists(splitDir)) {
+      LOG.info("Log dir for server " + serverName + " does not exist; nothing to fence");
+      return;
+    }
+    FileStatus[] logs = FSUtils.listStatus(this.fs, splitDir, null);
+    if (logs == null) {
+      logs = new FileStatus[0];
+    }
+    FSUtils fsUtils = FSUtils.getInstance(this.fs, this.conf);
+    for (FileStatus log : logs) {
+      fsUtils.recoverFileLease(this.fs, log.getPath(), this.conf, null);
+    }
+    LOG.info("Fenced " + serverName + ", recovered the leases of " + logs.length + " HLog(s)");
+  }
+
   /**
    * Specialized method to handle the splitting for meta HLog
    * @param serverName
@@ -0,0 +1,168 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * Phi accrual failure detector over the reports region servers send to the master.
+ * <p>
+ * Rather than a yes/no verdict after a fixed timeout, the detector gives a suspicion level
+ * <code>phi</code> for each server: -log10 of the probability that a report arrives even
+ * later than the time already elapsed since the last one, given the mean and standard
+ * deviation of the recent intervals between reports of that server, approximated by a normal
+ * distribution. A phi of 1 means roughly a 10% chance that a report is still coming, 2 a 1%
+ * chance, 3 a 0.1% chance and so on. The threshold thus adapts to how regularly each
+ * server reports.
+ * <p>
+ * See Hayashibara et al., "The phi accrual failure detector".
+ */
+@InterfaceAudience.Private
+public class PhiAccrualFailureDetector {
+  /** Number of intervals between reports kept per server */
+  static final String WINDOW_SIZE_KEY = "hbase.master.failuredetector.window.size";
+  static final int DEFAULT_WINDOW_SIZE = 100;
+
+  /** Lower bound of the standard deviation, in ms, so regular reports do not make phi jumpy */
+  static final String MIN_STD_DEVIATION_KEY = "hbase.master.failuredetector.min.stddev";
+  static final int DEFAULT_MIN_STD_DEVIATION = 200;
+
+  /** Pause, in ms, added to the mean interval, to tolerate e.g. garbage collection pauses */
+  static final String ACCEPTABLE_PAUSE_KEY = "hbase.master.failuredetector.acceptable.pause";
+  static final int DEFAULT_ACCEPTABLE_PAUSE = 1000;
+
+  private final int windowSize;
+  private final double minStdDeviation;
+  private final long acceptablePause;
+  private final long firstIntervalEstimate;
+
+  private final ConcurrentMap<ServerName, History> histories =
+    new ConcurrentHashMap<ServerName, History>();
+
+  /**
+   * Last report time and the intervals between the recent reports of one server, in a ring.
+   */
+  private static class History {
+    private final long[] intervals;
+    private int count = 0;
+    private int next = 0;
+    private long sum = 0;
+    private long sumOfSquares = 0;
+    private long lastReport;
+
+    History(int windowSize, long now, long firstIntervalEstimate) {
+      this.intervals = new long[windowSize];
+      this.lastReport = now;
+      // Seed with a guess so a server is judged before it reported twice; two samples
+      // around the guess give it a non zero deviation
+      add(firstIntervalEstimate - firstIntervalEstimate / 4);
+      add(firstIntervalEstimate + firstIntervalEstimate / 4);
+    }
+
+    private void add(long interval) {
+      if (count == intervals.length) {
+        long old = intervals[next];
+        sum -= old;
+        sumOfSquares -= old * old;
+      } else {
+        count++;
+      }
+      intervals[next] = interval;
+      next = (next + 1) % intervals.length;
+      sum += interval;
+      sumOfSquares += interval * interval;
+    }
+
+    synchronized void report(long now) {
+      long interval = now - lastReport;
+      if (interval <= 0) return;
+      lastReport = now;
+      add(interval);
+    }
+
+    synchronized double phi(long now, double minStdDeviation, long acceptablePause) {
+      double mean = (double) sum / count;
+      double variance = (double) sumOfSquares / count - mean * mean;
+      double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0)), minStdDeviation);
+      return PhiAccrualFailureDetector.phi(now - lastReport, mean + acceptablePause,
+        stdDeviation);
+    }
+  }
+
+  PhiAccrualFailureDetector(final Configuration conf) {
+    this.windowSize = Math.max(2, conf.getInt(WINDOW_SIZE_KEY, DEFAULT_WINDOW_SIZE));
+    this.minStdDeviation = conf.getInt(MIN_STD_DEVIATION_KEY, DEFAULT_MIN_STD_DEVIATION);
+    this.acceptablePause = conf.getInt(ACCEPTABLE_PAUSE_KEY, DEFAULT_ACCEPTABLE_PAUSE);
+    this.firstIntervalEstimate = conf.getInt("hbase.regionserver.msginterval", 3 * 1000);
+  }
+
+  /**
+   * Records a report of a server.
+   * @param sn the server
+   * @param now time of the report, in ms
+   */
+  void heartbeat(final ServerName sn, final long now) {
+    History history = histories.get(sn);
+    if (history == null) {
+      history = new History(windowSize, now, firstIntervalEstimate);
+      History existing = histories.putIfAbsent(sn, history);
+      if (existing == null) return;
+      history = existing;
+    }
+    history.report(now);
+  }
+
+  /**
+   * @param sn the server
+   * @param now the current time, in ms
+   * @return the suspicion level of the server; 0 for a server that never reported
+   */
+  double phi(final ServerName sn, final long now) {
+    History history = histories.get(sn);
+    return history == null ? 0.0 : history.phi(now, minStdDeviation, acceptablePause);
+  }
+
+  /**
+   * Forgets a server, e.g. once it is expired.
+   */
+  void remove(final ServerName sn) {
+    histories.remove(sn);
+  }
+
+  /**
+   * Phi of a delay, using the logistic approximation of the cumulative normal distribution.
+   * @param timeDiff time since the last report
+   * @param mean mean interval between reports
+   * @param stdDeviation standard deviation of the intervals between reports
+   */
+  static double phi(long timeDiff, double mean, double stdDeviation) {
+    double y = (timeDiff - mean) / stdDeviation;
+    double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+    if (timeDiff > mean) {
+      return -Math.log10(e / (1.0 + e));
+    } else {
+      return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+  }
+}
@@ -68,6 +68,7 @@ import org.apache.hadoop.hbase.protobuf.generated.ZooKeeperProtos.SplitLogTask.R
 import org.apache.hadoop.hbase.regionserver.RegionOpeningState;
 import org.apache.hadoop.hbase.regionserver.RegionServerStoppedException;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.util.Triple;
 import org.apache.hadoop.hbase.util.RetryCounter;
 import org.apache.hadoop.hbase.util.RetryCounterFactory;
@@ -143,6 +144,8 @@ public class ServerManager {
 
   private final DeadServer deadservers = new DeadServer();
 
+  private final PhiAccrualFailureDetector failureDetector;
+
   private final long maxSkew;
   private final long warningSkew;
 
@@ -212,6 +215,7 @@ public class ServerManager {
     int pingSleepInterval = Math.max(1, master.getConfiguration().getInt(
       "hbase.master.ping.server.retry.sleep.interval", 100));
     this.pingRetryCounterFactory = new RetryCounterFactory(pingMaxAttempts, pingSleepInterval);
+    this.failureDetector = new PhiAccrualFailureDetector(c);
   }
 
   /**
@@ -255,6 +259,8 @@ public class ServerManager {
     if (!checkAndRecordNewServer(sn, ServerLoad.EMPTY_SERVERLOAD)) {
       LOG.warn("THIS SHOULD NOT HAPPEN, RegionServerStartup"
         + " could not record the server: " + sn);
+    } else {
+      this.failureDetector.heartbeat(sn, EnvironmentEdgeManager.currentTimeMillis());
     }
     return sn;
   }
@@ -300,6 +306,7 @@ public class ServerManager {
         return; // Not recorded, so no need to move on
       }
     }
+    this.failureDetector.heartbeat(sn, EnvironmentEdgeManager.currentTimeMillis());
     updateLastFlushedSequenceIds(sn, sl);
   }
 
@@ -471,6 +478,13 @@ public class ServerManager {
   }
 
 
+  /**
+   * @return the failure detector fed with the reports of the region servers
+   */
+  PhiAccrualFailureDetector getFailureDetector() {
+    return this.failureDetector;
+  }
+
   public DeadServer getDeadServers() {
     return this.deadservers;
   }
@@ -539,6 +553,7 @@ public class ServerManager {
       this.onlineServers.remove(serverName);
       onlineServers.notifyAll();
     }
+    this.failureDetector.remove(serverName);
     this.rsAdmins.remove(serverName);
     // If cluster is going down, yes, servers are going to be expiring; don't
     // process as a dead server
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mob;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.Tag;
+import org.apache.hadoop.hbase.TagType;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The constants of MOB (medium object) storage, where the large values of the families with
+ * {@link org.apache.hadoop.hbase.HColumnDescriptor#IS_MOB} set are written to MOB files apart
+ * from the store files.
+ */
+@InterfaceAudience.Private
+public final class MobConstants {
+
+  /** The directory under the root directory holding the MOB files of all the tables */
+  public static final String MOB_DIR_NAME = "mobdir";
+
+  /**
+   * Key of the names of the MOB files the cells of a store file refer to, comma separated, in
+   * the file info of the store files of MOB families.
+   */
+  public static final byte[] MOB_FILE_REFS = Bytes.toBytes("MOB_FILE_REFS");
+
+  /**
+   * Scan attribute to get the references to the MOB files, rather than the values they hold.
+   */
+  public static final String MOB_SCAN_RAW = "hbase.mob.scan.raw";
+
+  /** How many MOB files each store keeps open */
+  public static final String MOB_FILE_CACHE_SIZE_KEY = "hbase.mob.file.cache.size";
+  public static final int DEFAULT_MOB_FILE_CACHE_SIZE = 100;
+
+  /**
+   * Major compactions rewrite the values of the MOB files smaller than this into a new MOB
+   * file, so a family does not end up with many small MOB files.
+   */
+  public static final String MOB_COMPACTION_MERGEABLE_THRESHOLD =
+      "hbase.mob.compaction.mergeable.threshold";
+  public static final long DEFAULT_MOB_COMPACTION_MERGEABLE_THRESHOLD = 128 * 1024 * 1024;
+
+  /** Period of the master chore deleting the MOB files no store file refers to anymore */
+  public static final String MOB_CLEANER_PERIOD = "hbase.master.mob.cleaner.period";
+  public static final int DEFAULT_MOB_CLEANER_PERIOD = 24 * 60 * 60 * 1000;
+
+  /**
+   * How old a MOB file no store file refers to is before it is deleted, for the store files
+   * being flushed or compacted to refer to the new MOB files.
+   */
+  public static final String MOB_CLEANER_DELAY = "hbase.mob.cleaner.delay";
+  public static final long DEFAULT_MOB_CLEANER_DELAY = 60 * 60 * 1000;
+
+  /** The tag marking the cells whose value is a reference to a MOB file */
+  public static final Tag MOB_REF_TAG = new Tag(TagType.MOB_REFERENCE_TAG_TYPE,
+      HConstants.EMPTY_BYTE_ARRAY);
+
+  private MobConstants() {
+  }
+}
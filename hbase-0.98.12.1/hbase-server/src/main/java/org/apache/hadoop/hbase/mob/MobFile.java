@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mob;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+
+/**
+ * An open MOB file, read by exact key with positional reads. It is shared by the readers of a
+ * store through {@link MobFileCache}, which counts them so the file is only closed once it is
+ * both out of the cache and no longer read.
+ */
+@InterfaceAudience.Private
+public class MobFile {
+
+  private final StoreFile sf;
+  /** One for the cache, plus one per read in progress */
+  private final AtomicInteger refCount = new AtomicInteger(1);
+
+  /**
+   * Opens a MOB file.
+   * @param sf The MOB file, whose reader is created here
+   */
+  public MobFile(StoreFile sf) throws IOException {
+    this.sf = sf;
+    sf.createReader();
+  }
+
+  /**
+   * @return the name of the MOB file
+   */
+  public String getFileName() {
+    return sf.getPath().getName();
+  }
+
+  /**
+   * Reads the cell a reference cell refers to.
+   * @param reference The reference cell, with the same key as the cell to read
+   * @param cacheBlocks Whether to cache the blocks read
+   * @return The cell, or null if the file has no cell with the key of the reference
+   */
+  public Cell readCell(Cell reference, boolean cacheBlocks) throws IOException {
+    KeyValue search = KeyValueUtil.ensureKeyValue(reference);
+    StoreFileScanner scanner = sf.getReader().getStoreFileScanner(cacheBlocks, true, false,
+      Long.MAX_VALUE);
+    try {
+      if (scanner.seek(search)) {
+        KeyValue kv = scanner.peek();
+        if (kv != null && CellComparator.equalsIgnoreMvccVersion(kv, search)) {
+          return kv;
+        }
+      }
+      return null;
+    } finally {
+      scanner.close();
+    }
+  }
+
+  /**
+   * Counts a new user of the file.
+   * @return false if the file was closed already, then it cannot be used
+   */
+  boolean open() {
+    while (true) {
+      int count = refCount.get();
+      if (count == 0) {
+        return false;
+      }
+      if (refCount.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Counts a user of the file out, closing it after the last one.
+   */
+  void close() throws IOException {
+    if (refCount.decrementAndGet() == 0) {
+      sf.closeReader(false);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mob;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.regionserver.BloomType;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+
+/**
+ * Keeps the most recently read MOB files of a store open, up to
+ * {@link MobConstants#MOB_FILE_CACHE_SIZE_KEY}, rather than open a file on every read.
+ */
+@InterfaceAudience.Private
+public class MobFileCache {
+  private static final Log LOG = LogFactory.getLog(MobFileCache.class);
+
+  private final Configuration conf;
+  private final FileSystem fs;
+  private final Path familyPath;
+  private final CacheConfig cacheConf;
+  private final int capacity;
+  /** The open files by name, least recently read first */
+  private final LinkedHashMap<String, MobFile> files;
+
+  /**
+   * @param conf The store configuration
+   * @param fs The file system of the MOB files
+   * @param familyPath The directory of the MOB files of the family
+   * @param cacheConf The cache configuration of the store
+   */
+  public MobFileCache(Configuration conf, FileSystem fs, Path familyPath, CacheConfig cacheConf) {
+    this.conf = conf;
+    this.fs = fs;
+    this.familyPath = familyPath;
+    this.cacheConf = cacheConf;
+    this.capacity = Math.max(1, conf.getInt(MobConstants.MOB_FILE_CACHE_SIZE_KEY,
+      MobConstants.DEFAULT_MOB_FILE_CACHE_SIZE));
+    this.files = new LinkedHashMap<String, MobFile>(capacity, 0.75f, true);
+  }
+
+  /**
+   * Opens a MOB file, or gets it from the cache. The file must be given back to
+   * {@link #closeFile(MobFile)} after reading it.
+   * @param fileName The name of the MOB file
+   * @return The open file
+   * @throws java.io.FileNotFoundException if the file does not exist
+   */
+  public MobFile openFile(String fileName) throws IOException {
+    synchronized (files) {
+      MobFile file = files.get(fileName);
+      if (file != null && file.open()) {
+        return file;
+      }
+    }
+    // Open the file out of the lock, not to hold up the reads of the cached files
+    MobFile opened = new MobFile(new StoreFile(fs, new Path(familyPath, fileName), conf,
+        cacheConf, BloomType.NONE));
+    List<MobFile> evicted = new ArrayList<MobFile>();
+    MobFile file;
+    synchronized (files) {
+      file = files.get(fileName);
+      if (file == null || !file.open()) {
+        file = opened;
+        file.open();
+        files.put(fileName, file);
+        Iterator<MobFile> it = files.values().iterator();
+        while (files.size() > capacity) {
+          evicted.add(it.next());
+          it.remove();
+        }
+      } else {
+        evicted.add(opened);
+      }
+    }
+    for (MobFile f : evicted) {
+      f.close();
+    }
+    return file;
+  }
+
+  /**
+   * Gives back a file got from {@link #openFile(String)}.
+   */
+  public void closeFile(MobFile file) {
+    try {
+      file.close();
+    } catch (IOException e) {
+      LOG.warn("Failed to close MOB file " + file.getFileName(), e);
+    }
+  }
+
+  /**
+   * @return the number of open files in the cache
+   */
+  public int getCacheSize() {
+    synchronized (files) {
+      return files.size();
+    }
+  }
+
+  /**
+   * Closes the cached files, each one once it is no longer read.
+   */
+  public void close() {
+    List<MobFile> cached;
+    synchronized (files) {
+      cached = new ArrayList<MobFile>(files.values());
+      files.clear();
+    }
+    for (MobFile file : cached) {
+      closeFile(file);
+    }
+  }
+}
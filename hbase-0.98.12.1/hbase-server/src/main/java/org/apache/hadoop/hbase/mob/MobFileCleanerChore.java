@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mob;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.TableDescriptors;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.master.HMaster;
+import org.apache.hadoop.hbase.regionserver.StoreFileInfo;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.HFileArchiveUtil;
+
+/**
+ * Chore of the master deleting the MOB files no store file refers to anymore, because the cells
+ * referring to them were deleted, expired or had their values rewritten by a major compaction.
+ * <p>
+ * The MOB files a family refers to are the union of the {@link MobConstants#MOB_FILE_REFS} of
+ * its store files, archived ones included, as those may still be in snapshots. A family with a
+ * store file missing them, or a store file going away while they are read, is left alone until
+ * the next run. The MOB files are only deleted once older than
+ * {@link MobConstants#MOB_CLEANER_DELAY}, for the flushes and compactions in progress to commit
+ * the store files referring to their new MOB files.
+ */
+@InterfaceAudience.Private
+public class MobFileCleanerChore extends Chore {
+  private static final Log LOG = LogFactory.getLog(MobFileCleanerChore.class);
+
+  private final Configuration conf;
+  private final FileSystem fs;
+  private final Path rootDir;
+  private final TableDescriptors tableDescriptors;
+  private final CacheConfig cacheConf;
+  private final long delay;
+
+  public MobFileCleanerChore(HMaster master) {
+    this(master.getServerName() + "-MobFileCleanerChore",
+        master.getConfiguration().getInt(MobConstants.MOB_CLEANER_PERIOD,
+          MobConstants.DEFAULT_MOB_CLEANER_PERIOD),
+        master, master.getConfiguration(), master.getMasterFileSystem().getFileSystem(),
+        master.getMasterFileSystem().getRootDir(), master.getTableDescriptors());
+  }
+
+  public MobFileCleanerChore(String name, int period, Stoppable stopper, Configuration conf,
+      FileSystem fs, Path rootDir, TableDescriptors tableDescriptors) {
+    super(name, period, stopper);
+    this.conf = conf;
+    this.fs = fs;
+    this.rootDir = rootDir;
+    this.tableDescriptors = tableDescriptors;
+    this.cacheConf = new CacheConfig(conf);
+    this.delay = conf.getLong(MobConstants.MOB_CLEANER_DELAY,
+      MobConstants.DEFAULT_MOB_CLEANER_DELAY);
+  }
+
+  @Override
+  protected void chore() {
+    try {
+      for (HTableDescriptor htd : tableDescriptors.getAll().values()) {
+        for (HColumnDescriptor hcd : htd.getColumnFamilies()) {
+          if (hcd.isMobEnabled()) {
+            cleanMobFiles(htd.getTableName(), hcd.getNameAsString());
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to clean the MOB files", e);
+    }
+  }
+
+  /**
+   * Deletes the MOB files of a family no store file refers to.
+   * @return The number of MOB files deleted
+   */
+  public int cleanMobFiles(TableName tableName, String family) throws IOException {
+    Path mobFamilyPath = MobUtils.getMobFamilyPath(conf, tableName, family);
+    FileStatus[] mobFiles = FSUtils.listStatus(fs, mobFamilyPath);
+    if (mobFiles == null) {
+      return 0;
+    }
+    Set<String> refs = new HashSet<String>();
+    try {
+      if (!collectMobFileRefs(FSUtils.getTableDir(rootDir, tableName), family, refs)
+          || !collectMobFileRefs(HFileArchiveUtil.getTableArchivePath(rootDir, tableName),
+            family, refs)) {
+        return 0;
+      }
+    } catch (FileNotFoundException e) {
+      LOG.info("A store file of " + tableName + ":" + family
+          + " went away while reading the MOB files it refers to, retrying on next run", e);
+      return 0;
+    }
+
+    long oldest = EnvironmentEdgeManager.currentTimeMillis() - delay;
+    int deleted = 0;
+    for (FileStatus file : mobFiles) {
+      Path path = file.getPath();
+      if (file.isDir()) {
+        if (path.getName().equals(HConstants.HBASE_TEMP_DIRECTORY)) {
+          // The MOB files of the flushes and compactions that failed
+          deleted += deleteOldFiles(FSUtils.listStatus(fs, path), oldest);
+        }
+      } else if (!refs.contains(path.getName())) {
+        deleted += deleteOldFiles(new FileStatus[] { file }, oldest);
+      }
+    }
+    if (deleted > 0) {
+      LOG.info("Deleted " + deleted + " MOB files of " + tableName + ":" + family);
+    }
+    return deleted;
+  }
+
+  private int deleteOldFiles(FileStatus[] files, long oldest) throws IOException {
+    int deleted = 0;
+    if (files == null) {
+      return deleted;
+    }
+    for (FileStatus file : files) {
+      if (!file.isDir() && file.getModificationTime() < oldest) {
+        if (fs.delete(file.getPath(), false)) {
+          deleted++;
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Deleted MOB file " + file.getPath());
+          }
+        }
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Adds the MOB files the store files of a family refer to.
+   * @param tableDir The table directory, in the data or archive directory
+   * @return false if a store file does not record the MOB files it refers to
+   */
+  private boolean collectMobFileRefs(Path tableDir, String family, Set<String> refs)
+      throws IOException {
+    if (!fs.exists(tableDir)) {
+      return true;
+    }
+    for (Path regionDir : FSUtils.getRegionDirs(fs, tableDir)) {
+      FileStatus[] files = FSUtils.listStatus(fs, new Path(regionDir, family));
+      if (files == null) {
+        continue;
+      }
+      for (FileStatus file : files) {
+        Path path = file.getPath();
+        // References and links point to store files of other regions or tables, collected
+        // there
+        if (file.isDir() || !StoreFileInfo.isHFile(path)) {
+          continue;
+        }
+        HFile.Reader reader = HFile.createReader(fs, path, cacheConf, conf);
+        try {
+          byte[] value = reader.loadFileInfo().get(MobConstants.MOB_FILE_REFS);
+          if (value == null) {
+            LOG.warn("The store file " + path + " of the MOB family " + family
+                + " does not record the MOB files it refers to, not cleaning its MOB files");
+            return false;
+          }
+          refs.addAll(MobUtils.deserializeMobFileRefs(value));
+        } finally {
+          reader.close(false);
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.mob;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.Tag;
+import org.apache.hadoop.hbase.TagType;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+
+/**
+ * Utilities of MOB storage.
+ * <p>
+ * The MOB files of a family are in <code>mobdir/data/&lt;namespace&gt;/&lt;table&gt;/&lt;family&gt;
+ * </code> under the root directory: they are shared by all the regions of the table, so splits
+ * and merges do not touch them. A store file refers to a value in a MOB file with a cell of the
+ * same key, tagged with {@link MobConstants#MOB_REF_TAG}, whose value is the length of the
+ * value as an int followed by the name of the MOB file.
+ */
+@InterfaceAudience.Private
+public final class MobUtils {
+
+  private static final char FILE_REFS_SEPARATOR = ',';
+
+  private MobUtils() {
+  }
+
+  /**
+   * @return the directory holding the MOB files of all the tables
+   */
+  public static Path getMobHome(Configuration conf) throws IOException {
+    return new Path(FSUtils.getRootDir(conf), MobConstants.MOB_DIR_NAME);
+  }
+
+  /**
+   * @return the directory holding the MOB files of a family
+   */
+  public static Path getMobFamilyPath(Configuration conf, TableName tableName, String family)
+      throws IOException {
+    return new Path(FSUtils.getTableDir(getMobHome(conf), tableName), family);
+  }
+
+  /**
+   * @return a new unique MOB file name
+   */
+  public static String generateMobFileName() {
+    return UUID.randomUUID().toString().replaceAll("-", "");
+  }
+
+  /**
+   * @return whether the value of the cell is a reference to a MOB file
+   */
+  public static boolean isMobReferenceCell(Cell cell) {
+    if (cell.getTypeByte() != KeyValue.Type.Put.getCode()) {
+      return false;
+    }
+    int tagsLength = cell.getTagsLengthUnsigned();
+    return tagsLength > 0 && Tag.getTag(cell.getTagsArray(), cell.getTagsOffset(), tagsLength,
+      TagType.MOB_REFERENCE_TAG_TYPE) != null;
+  }
+
+  /**
+   * Creates the cell referring to the value of a cell written to a MOB file.
+   * @param cell The cell written to the MOB file
+   * @param fileName The name of the MOB file
+   * @return The reference cell, with the same key, memstore timestamp and tags as the cell
+   */
+  public static KeyValue createMobRefKeyValue(Cell cell, String fileName) {
+    KeyValue kv = KeyValueUtil.ensureKeyValue(cell);
+    List<Tag> tags = new ArrayList<Tag>(kv.getTags());
+    tags.add(MobConstants.MOB_REF_TAG);
+    byte[] value = Bytes.add(Bytes.toBytes(kv.getValueLength()), Bytes.toBytes(fileName));
+    KeyValue reference = new KeyValue(kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(),
+        kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength(),
+        kv.getQualifierArray(), kv.getQualifierOffset(), kv.getQualifierLength(),
+        kv.getTimestamp(), KeyValue.Type.Put, value, 0, value.length, tags);
+    reference.setMvccVersion(kv.getMvccVersion());
+    return reference;
+  }
+
+  /**
+   * @return the length of the value a reference cell refers to
+   */
+  public static int getMobValueLength(Cell reference) {
+    return Bytes.toInt(reference.getValueArray(), reference.getValueOffset(), Bytes.SIZEOF_INT);
+  }
+
+  /**
+   * @return the name of the MOB file a reference cell refers to
+   */
+  public static String getMobFileName(Cell reference) {
+    return Bytes.toString(reference.getValueArray(),
+      reference.getValueOffset() + Bytes.SIZEOF_INT,
+      reference.getValueLength() - Bytes.SIZEOF_INT);
+  }
+
+  /**
+   * @return whether the scan gets the references to the MOB files rather than their values
+   */
+  public static boolean isRawMobScan(Scan scan) {
+    byte[] raw = scan.getAttribute(MobConstants.MOB_SCAN_RAW);
+    return raw != null && Bytes.toBoolean(raw);
+  }
+
+  /**
+   * @return the value of {@link MobConstants#MOB_FILE_REFS} for the given MOB file names
+   */
+  public static byte[] serializeMobFileRefs(Collection<String> fileNames) {
+    StringBuilder sb = new StringBuilder();
+    for (String fileName : fileNames) {
+      if (sb.length() > 0) {
+        sb.append(FILE_REFS_SEPARATOR);
+      }
+      sb.append(fileName);
+    }
+    return Bytes.toBytes(sb.toString());
+  }
+
+  /**
+   * @param refs The value of {@link MobConstants#MOB_FILE_REFS}
+   * @return the MOB file names
+   */
+  public static Set<String> deserializeMobFileRefs(byte[] refs) {
+    Set<String> fileNames = new HashSet<String>();
+    String s = Bytes.toString(refs);
+    int start = 0;
+    while (start < s.length()) {
+      int end = s.indexOf(FILE_REFS_SEPARATOR, start);
+      if (end < 0) {
+        end = s.length();
+      }
+      fileNames.add(s.substring(start, end));
+      start = end + 1;
+    }
+    return fileNames;
+  }
+}
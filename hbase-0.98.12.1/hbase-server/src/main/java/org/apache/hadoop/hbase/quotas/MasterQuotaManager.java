@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.catalog.MetaReader;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.master.MasterServices;
+import org.apache.hadoop.hbase.master.handler.CreateTableHandler;
+
+/**
+ * Creates the quota table when quotas are enabled. The quotas are set by writing to it, see
+ * {@link org.apache.hadoop.hbase.client.HBaseAdmin#setQuota(QuotaSettings)}.
+ */
+@InterfaceAudience.Private
+public class MasterQuotaManager {
+  private static final Log LOG = LogFactory.getLog(MasterQuotaManager.class);
+
+  private final MasterServices masterServices;
+
+  public MasterQuotaManager(final MasterServices masterServices) {
+    this.masterServices = masterServices;
+  }
+
+  public void start() throws IOException {
+    if (!RegionServerQuotaManager.isQuotaEnabled(masterServices.getConfiguration())) {
+      return;
+    }
+    if (!MetaReader.tableExists(masterServices.getCatalogTracker(),
+        QuotaTableUtil.QUOTA_TABLE_NAME)) {
+      LOG.info("Quota table not found. Creating...");
+      createQuotaTable();
+    }
+  }
+
+  private void createQuotaTable() throws IOException {
+    HRegionInfo newRegions[] = new HRegionInfo[] {
+        new HRegionInfo(QuotaTableUtil.QUOTA_TABLE_DESC.getTableName(), null, null)};
+
+    // we need to create the table this way to bypass checkInitialized
+    masterServices.getExecutorService()
+        .submit(new CreateTableHandler(masterServices,
+            masterServices.getMasterFileSystem(),
+            QuotaTableUtil.QUOTA_TABLE_DESC,
+            masterServices.getConfiguration(),
+            newRegions,
+            masterServices).prepare());
+  }
+}
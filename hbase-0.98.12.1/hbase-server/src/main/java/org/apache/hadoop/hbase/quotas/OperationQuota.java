@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Result;
+
+/**
+ * The quota an operation takes from the throttles of its user, table and namespace. As what an
+ * operation reads or writes is known only once done, it takes an estimate up front, and
+ * corrects it with what it did on {@link #close()}.
+ */
+@InterfaceAudience.Private
+public class OperationQuota {
+  public enum OperationType { GET, MUTATE, SCAN }
+
+  /** The quota of an operation nothing throttles */
+  public static final OperationQuota NOOP = new OperationQuota(
+    Collections.<QuotaLimiter>emptyList());
+
+  /** Size in bytes a read or write is estimated to, before it is done */
+  static final long ESTIMATED_OPERATION_SIZE = 100;
+
+  private final List<QuotaLimiter> limiters;
+  private long writeConsumed = 0;
+  private long readConsumed = 0;
+  private long writeSize = -1;
+  private long readSize = -1;
+
+  public OperationQuota(final List<QuotaLimiter> limiters) {
+    this.limiters = limiters;
+  }
+
+  /**
+   * Checks the operation is allowed by all the throttles, and takes its estimated quota.
+   * @param numWrites how many writes it does
+   * @param numReads how many gets it does
+   * @param numScans how many scans it does
+   * @throws ThrottlingException if a throttle does not allow the operation now
+   */
+  public void checkQuota(final int numWrites, final int numReads, final int numScans)
+      throws ThrottlingException {
+    if (limiters.isEmpty()) return;
+    long numRequests = numWrites + numReads + numScans;
+    writeConsumed = numWrites * ESTIMATED_OPERATION_SIZE;
+    readConsumed = (numReads + numScans) * ESTIMATED_OPERATION_SIZE;
+    for (QuotaLimiter limiter : limiters) {
+      limiter.checkQuota(numRequests, writeConsumed, readConsumed);
+    }
+    for (QuotaLimiter limiter : limiters) {
+      limiter.grabQuota(numRequests, writeConsumed, readConsumed);
+    }
+  }
+
+  /** Adds what a write of the operation wrote */
+  public void addMutation(final Mutation mutation) {
+    if (limiters.isEmpty()) return;
+    writeSize = Math.max(writeSize, 0) + mutation.heapSize();
+  }
+
+  /** Adds what a get of the operation read */
+  public void addGetResult(final Result result) {
+    if (limiters.isEmpty() || result == null) return;
+    readSize = Math.max(readSize, 0) + getResultSize(result);
+  }
+
+  /** Adds what a scan of the operation read */
+  public void addScanResult(final List<Result> results) {
+    if (limiters.isEmpty() || results == null) return;
+    long size = 0;
+    for (Result result : results) {
+      size += getResultSize(result);
+    }
+    readSize = Math.max(readSize, 0) + size;
+  }
+
+  /**
+   * Corrects the quota taken with what the operation did. Where nothing was added, the
+   * estimate stands.
+   */
+  public void close() {
+    if (limiters.isEmpty()) return;
+    long writeDiff = writeSize < 0 ? 0 : writeSize - writeConsumed;
+    long readDiff = readSize < 0 ? 0 : readSize - readConsumed;
+    for (QuotaLimiter limiter : limiters) {
+      if (writeDiff != 0) limiter.consumeWrite(writeDiff);
+      if (readDiff != 0) limiter.consumeRead(readDiff);
+    }
+  }
+
+  private static long getResultSize(final Result result) {
+    long size = 0;
+    Cell[] cells = result.rawCells();
+    if (cells != null) {
+      for (Cell cell : cells) {
+        size += KeyValueUtil.length(cell);
+      }
+    }
+    return size;
+  }
+}
@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Cache of the throttles in the quota table, reloaded every hbase.quota.refresh.period. The
+ * quota table is small, a row by throttled user, table or namespace, so it is read whole. The
+ * limiters are kept across reloads, with what their operations consumed.
+ */
+@InterfaceAudience.Private
+public class QuotaCache extends Chore {
+  private static final Log LOG = LogFactory.getLog(QuotaCache.class);
+
+  public static final String REFRESH_CONF_KEY = "hbase.quota.refresh.period";
+  private static final int REFRESH_DEFAULT_PERIOD = 5 * 60000; // 5min
+
+  private final Configuration conf;
+  private final ConcurrentHashMap<String, QuotaLimiter> userLimiters =
+    new ConcurrentHashMap<String, QuotaLimiter>();
+  private final ConcurrentHashMap<TableName, QuotaLimiter> tableLimiters =
+    new ConcurrentHashMap<TableName, QuotaLimiter>();
+  private final ConcurrentHashMap<String, QuotaLimiter> namespaceLimiters =
+    new ConcurrentHashMap<String, QuotaLimiter>();
+
+  public QuotaCache(final Configuration conf, final Stoppable stopper) {
+    super("QuotaCache", conf.getInt(REFRESH_CONF_KEY, REFRESH_DEFAULT_PERIOD), stopper);
+    this.conf = conf;
+  }
+
+  @Override
+  protected boolean initialChore() {
+    chore();
+    return true;
+  }
+
+  @Override
+  protected void chore() {
+    try {
+      refresh();
+    } catch (TableNotFoundException e) {
+      LOG.debug("The quota table is not created yet, nothing is throttled");
+    } catch (IOException e) {
+      LOG.warn("Failed to reload the quotas, keeping the previous ones", e);
+    }
+  }
+
+  /**
+   * Reloads the throttles from the quota table.
+   */
+  @VisibleForTesting
+  public void refresh() throws IOException {
+    Map<String, Map<ThrottleType, Pair<Long, TimeUnit>>> users =
+      new HashMap<String, Map<ThrottleType, Pair<Long, TimeUnit>>>();
+    Map<TableName, Map<ThrottleType, Pair<Long, TimeUnit>>> tables =
+      new HashMap<TableName, Map<ThrottleType, Pair<Long, TimeUnit>>>();
+    Map<String, Map<ThrottleType, Pair<Long, TimeUnit>>> namespaces =
+      new HashMap<String, Map<ThrottleType, Pair<Long, TimeUnit>>>();
+
+    HTable table = new HTable(conf, QuotaTableUtil.QUOTA_TABLE_NAME);
+    try {
+      Scan scan = new Scan();
+      scan.addFamily(QuotaTableUtil.QUOTA_FAMILY);
+      ResultScanner scanner = table.getScanner(scan);
+      try {
+        for (Result result : scanner) {
+          byte[] row = result.getRow();
+          Map<ThrottleType, Pair<Long, TimeUnit>> throttles = parseThrottles(result);
+          if (Bytes.startsWith(row, QuotaTableUtil.QUOTA_USER_ROW_KEY_PREFIX)) {
+            users.put(Bytes.toString(row, QuotaTableUtil.QUOTA_USER_ROW_KEY_PREFIX.length,
+              row.length - QuotaTableUtil.QUOTA_USER_ROW_KEY_PREFIX.length), throttles);
+          } else if (Bytes.startsWith(row, QuotaTableUtil.QUOTA_TABLE_ROW_KEY_PREFIX)) {
+            tables.put(TableName.valueOf(Bytes.tail(row,
+              row.length - QuotaTableUtil.QUOTA_TABLE_ROW_KEY_PREFIX.length)), throttles);
+          } else if (Bytes.startsWith(row, QuotaTableUtil.QUOTA_NAMESPACE_ROW_KEY_PREFIX)) {
+            namespaces.put(Bytes.toString(row,
+              QuotaTableUtil.QUOTA_NAMESPACE_ROW_KEY_PREFIX.length,
+              row.length - QuotaTableUtil.QUOTA_NAMESPACE_ROW_KEY_PREFIX.length), throttles);
+          } else {
+            LOG.warn("Skipping unexpected row in the quota table: " + Bytes.toStringBinary(row));
+          }
+        }
+      } finally {
+        scanner.close();
+      }
+    } finally {
+      table.close();
+    }
+
+    update(userLimiters, users);
+    update(tableLimiters, tables);
+    update(namespaceLimiters, namespaces);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Reloaded quotas of " + users.size() + " users, " + tables.size()
+        + " tables and " + namespaces.size() + " namespaces");
+    }
+  }
+
+  private static Map<ThrottleType, Pair<Long, TimeUnit>> parseThrottles(final Result result) {
+    Map<ThrottleType, Pair<Long, TimeUnit>> throttles =
+      new EnumMap<ThrottleType, Pair<Long, TimeUnit>>(ThrottleType.class);
+    for (Cell cell : result.rawCells()) {
+      ThrottleType type = QuotaTableUtil.parseThrottleType(CellUtil.cloneQualifier(cell));
+      if (type == null) {
+        LOG.warn("Skipping unknown throttle type in the quota table: " + cell);
+        continue;
+      }
+      byte[] value = CellUtil.cloneValue(cell);
+      throttles.put(type, new Pair<Long, TimeUnit>(QuotaTableUtil.parseLimit(value),
+        QuotaTableUtil.parseTimeUnit(value)));
+    }
+    return throttles;
+  }
+
+  private static <K> void update(final ConcurrentHashMap<K, QuotaLimiter> limiters,
+      final Map<K, Map<ThrottleType, Pair<Long, TimeUnit>>> throttles) {
+    Set<K> removed = new HashSet<K>(limiters.keySet());
+    removed.removeAll(throttles.keySet());
+    for (K key : removed) {
+      limiters.remove(key);
+    }
+    for (Map.Entry<K, Map<ThrottleType, Pair<Long, TimeUnit>>> entry : throttles.entrySet()) {
+      QuotaLimiter limiter = limiters.get(entry.getKey());
+      if (limiter == null) {
+        limiter = new QuotaLimiter();
+        limiter.update(entry.getValue());
+        limiters.put(entry.getKey(), limiter);
+      } else {
+        limiter.update(entry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @param userName the user of the operation, can be null
+   * @param tableName the table of the operation
+   * @return The limiters throttling the operation, empty if none
+   */
+  public List<QuotaLimiter> getLimiters(final String userName, final TableName tableName) {
+    List<QuotaLimiter> limiters = new ArrayList<QuotaLimiter>(3);
+    addLimiter(limiters, userName == null ? null : userLimiters.get(userName));
+    addLimiter(limiters, tableLimiters.get(tableName));
+    addLimiter(limiters, namespaceLimiters.get(tableName.getNamespaceAsString()));
+    return limiters;
+  }
+
+  private static void addLimiter(final List<QuotaLimiter> limiters, final QuotaLimiter limiter) {
+    if (limiter != null && !limiter.isBypass()) {
+      limiters.add(limiter);
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.Pair;
+
+/**
+ * The throttles of a user, a table or a namespace: a {@link RateLimiter} per
+ * {@link ThrottleType}.
+ */
+@InterfaceAudience.Private
+public class QuotaLimiter {
+  private final RateLimiter reqsLimiter = new RateLimiter();
+  private final RateLimiter readSizeLimiter = new RateLimiter();
+  private final RateLimiter writeSizeLimiter = new RateLimiter();
+
+  /**
+   * Sets the limits of the throttle types given, and removes the others.
+   * @param throttles the limit and time unit by throttle type
+   */
+  public void update(final Map<ThrottleType, Pair<Long, TimeUnit>> throttles) {
+    for (ThrottleType type : ThrottleType.values()) {
+      Pair<Long, TimeUnit> throttle = throttles.get(type);
+      if (throttle == null) {
+        getLimiter(type).unset();
+      } else {
+        getLimiter(type).set(throttle.getFirst(), throttle.getSecond());
+      }
+    }
+  }
+
+  /** @return Whether nothing is throttled */
+  public boolean isBypass() {
+    return reqsLimiter.isBypass() && readSizeLimiter.isBypass() && writeSizeLimiter.isBypass();
+  }
+
+  /**
+   * @param numRequests how many reads and writes the operation does
+   * @param writeSize how many bytes it is expected to write
+   * @param readSize how many bytes it is expected to read
+   * @throws ThrottlingException if a throttle does not allow the operation now
+   */
+  public void checkQuota(final long numRequests, final long writeSize, final long readSize)
+      throws ThrottlingException {
+    if (!reqsLimiter.canExecute(numRequests)) {
+      throw new ThrottlingException(ThrottleType.REQUEST_NUMBER,
+        reqsLimiter.waitInterval(numRequests));
+    }
+    if (writeSize > 0 && !writeSizeLimiter.canExecute(writeSize)) {
+      throw new ThrottlingException(ThrottleType.WRITE_SIZE,
+        writeSizeLimiter.waitInterval(writeSize));
+    }
+    if (readSize > 0 && !readSizeLimiter.canExecute(readSize)) {
+      throw new ThrottlingException(ThrottleType.READ_SIZE,
+        readSizeLimiter.waitInterval(readSize));
+    }
+  }
+
+  /**
+   * Takes what the operation is expected to use once {@link #checkQuota(long, long, long)}
+   * allowed it.
+   */
+  public void grabQuota(final long numRequests, final long writeSize, final long readSize) {
+    reqsLimiter.consume(numRequests);
+    if (writeSize > 0) writeSizeLimiter.consume(writeSize);
+    if (readSize > 0) readSizeLimiter.consume(readSize);
+  }
+
+  /**
+   * Corrects the write size taken with what the operation actually wrote.
+   * @param size the difference, negative to give back
+   */
+  public void consumeWrite(final long size) {
+    writeSizeLimiter.consume(size);
+  }
+
+  /**
+   * Corrects the read size taken with what the operation actually read.
+   * @param size the difference, negative to give back
+   */
+  public void consumeRead(final long size) {
+    readSizeLimiter.consume(size);
+  }
+
+  RateLimiter getLimiter(final ThrottleType type) {
+    switch (type) {
+      case REQUEST_NUMBER: return reqsLimiter;
+      case READ_SIZE: return readSizeLimiter;
+      case WRITE_SIZE: return writeSizeLimiter;
+      default: throw new IllegalArgumentException("Unknown throttle type " + type);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "QuotaLimiter(reqs=" + reqsLimiter + ", read=" + readSizeLimiter + ", write="
+      + writeSizeLimiter + ")";
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * A token bucket: it holds up to <code>limit</code> tokens, and refills at <code>limit</code>
+ * tokens per time unit. An operation can run when there are as many tokens as it needs, or a
+ * full bucket for one needing more than the limit. It can consume more tokens than there are,
+ * the debt delaying the next operations.
+ */
+@InterfaceAudience.Private
+public class RateLimiter {
+  /** Length of the time unit, in milliseconds */
+  private long tunit = 1000;
+  private long limit = Long.MAX_VALUE;
+  private long avail = Long.MAX_VALUE;
+  private long lastRefill = -1;
+
+  /**
+   * Sets the limit, keeping the tokens there are up to it.
+   * @param limit how many tokens refill per time unit, and the bucket holds
+   * @param timeUnit the time unit
+   */
+  public synchronized void set(final long limit, final TimeUnit timeUnit) {
+    if (limit <= 0) {
+      throw new IllegalArgumentException("The limit must be positive, got " + limit);
+    }
+    boolean wasBypass = isBypass();
+    this.tunit = Math.max(1, timeUnit.toMillis(1));
+    this.limit = limit;
+    this.avail = wasBypass ? limit : Math.min(avail, limit);
+  }
+
+  /**
+   * Removes the limit.
+   */
+  public synchronized void unset() {
+    this.tunit = 1000;
+    this.limit = Long.MAX_VALUE;
+    this.avail = Long.MAX_VALUE;
+    this.lastRefill = -1;
+  }
+
+  /** @return Whether there is no limit */
+  public synchronized boolean isBypass() {
+    return limit == Long.MAX_VALUE;
+  }
+
+  /** @return How many tokens refill per time unit */
+  public synchronized long getLimit() {
+    return limit;
+  }
+
+  /** @return How many tokens there are now, negative for a debt */
+  public synchronized long getAvailable() {
+    refill();
+    return avail;
+  }
+
+  /**
+   * @param amount how many tokens the operation needs
+   * @return Whether there are enough tokens for the operation
+   */
+  public synchronized boolean canExecute(final long amount) {
+    if (isBypass()) return true;
+    refill();
+    return avail >= Math.min(amount, limit);
+  }
+
+  /**
+   * Takes the tokens an operation needed, or gives back tokens for a negative amount.
+   * @param amount how many tokens the operation needed
+   */
+  public synchronized void consume(final long amount) {
+    if (isBypass()) return;
+    refill();
+    avail = Math.min(limit, avail - amount);
+  }
+
+  /**
+   * @param amount how many tokens the operation needs
+   * @return How long, in milliseconds, until there are enough tokens for the operation
+   */
+  public synchronized long waitInterval(final long amount) {
+    if (isBypass()) return 0;
+    refill();
+    long needed = Math.min(amount, limit) - avail;
+    if (needed <= 0) return 0;
+    // Part of the next token may already have refilled since the last refill
+    long wait = (long)Math.ceil((double)needed * tunit / limit)
+      - (EnvironmentEdgeManager.currentTimeMillis() - lastRefill);
+    return Math.max(1, wait);
+  }
+
+  private void refill() {
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    if (lastRefill < 0) {
+      lastRefill = now;
+      return;
+    }
+    long elapsed = now - lastRefill;
+    long refill = elapsed >= tunit ? limit : (long)((double)elapsed * limit / tunit);
+    // Until a whole token refilled, the time elapsed counts toward the next refill
+    if (refill > 0) {
+      avail = avail > limit - refill ? limit : avail + refill;
+      lastRefill = now;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    if (isBypass()) return "RateLimiter(Bypass)";
+    return "RateLimiter(avail=" + avail + " limit=" + limit + " tunit=" + tunit + "ms)";
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.ipc.RpcServer;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.security.User;
+
+/**
+ * Enforces the throttles of the quota table on the operations of a region server. The
+ * operations on system tables are not throttled.
+ */
+@InterfaceAudience.Private
+public class RegionServerQuotaManager {
+  private static final Log LOG = LogFactory.getLog(RegionServerQuotaManager.class);
+
+  private final QuotaCache quotaCache;
+
+  /**
+   * @param conf the region server configuration
+   * @param stopper stops the quota cache reloads
+   */
+  public RegionServerQuotaManager(final Configuration conf, final Stoppable stopper) {
+    if (isQuotaEnabled(conf)) {
+      LOG.info("Quotas are enabled");
+      this.quotaCache = new QuotaCache(conf, stopper);
+    } else {
+      this.quotaCache = null;
+    }
+  }
+
+  public static boolean isQuotaEnabled(final Configuration conf) {
+    return conf.getBoolean(QuotaTableUtil.QUOTA_ENABLED_CONF_KEY,
+      QuotaTableUtil.QUOTA_ENABLED_DEFAULT);
+  }
+
+  /**
+   * @return The chore reloading the quotas, to run with the other region server chores, or
+   * null if quotas are disabled
+   */
+  public QuotaCache getQuotaCache() {
+    return quotaCache;
+  }
+
+  /**
+   * Checks the quota of a single operation, and takes its estimated quota. Once done, the
+   * operation is to add what it read or wrote to the quota returned, and close it.
+   * @param region the region the operation is on
+   * @param type the type of operation
+   * @return The quota of the operation
+   * @throws ThrottlingException if a throttle does not allow the operation now
+   */
+  public OperationQuota checkQuota(final HRegion region,
+      final OperationQuota.OperationType type) throws ThrottlingException {
+    switch (type) {
+      case SCAN:   return checkQuota(region, 0, 0, 1);
+      case GET:    return checkQuota(region, 0, 1, 0);
+      case MUTATE: return checkQuota(region, 1, 0, 0);
+      default: throw new IllegalArgumentException("Unknown operation type " + type);
+    }
+  }
+
+  /**
+   * Checks the quota of the actions of a multi on a region, and takes their estimated quota.
+   * @param region the region the actions are on
+   * @param actions the actions
+   * @return The quota of the actions
+   * @throws ThrottlingException if a throttle does not allow the actions now
+   */
+  public OperationQuota checkQuota(final HRegion region,
+      final List<ClientProtos.Action> actions) throws ThrottlingException {
+    int numWrites = 0;
+    int numReads = 0;
+    for (ClientProtos.Action action : actions) {
+      if (action.hasMutation()) {
+        numWrites++;
+      } else if (action.hasGet()) {
+        numReads++;
+      }
+    }
+    return checkQuota(region, numWrites, numReads, 0);
+  }
+
+  private OperationQuota checkQuota(final HRegion region, final int numWrites,
+      final int numReads, final int numScans) throws ThrottlingException {
+    TableName table = region.getRegionInfo().getTable();
+    if (quotaCache == null || table.isSystemTable()) {
+      return OperationQuota.NOOP;
+    }
+    User user = RpcServer.getRequestUser();
+    List<QuotaLimiter> limiters =
+      quotaCache.getLimiters(user == null ? null : user.getShortName(), table);
+    if (limiters.isEmpty()) {
+      return OperationQuota.NOOP;
+    }
+    OperationQuota quota = new OperationQuota(limiters);
+    try {
+      quota.checkQuota(numWrites, numReads, numScans);
+    } catch (ThrottlingException e) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Throttling " + (user == null ? "" : user.getShortName() + " ") + "on "
+          + table + ": " + e.getMessage());
+      }
+      throw e;
+    }
+    return quota;
+  }
+}
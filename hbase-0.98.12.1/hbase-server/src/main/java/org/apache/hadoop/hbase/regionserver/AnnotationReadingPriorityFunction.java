@@ -17,15 +17,18 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.ipc.PriorityFunction;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.CloseRegionRequest;
 import org.apache.hadoop.hbase.protobuf.generated.AdminProtos.CompactRegionRequest;
@@ -75,6 +78,10 @@ class AnnotationReadingPriorityFunction implements PriorityFunction {
   //We need to mock the regionserver instance for some unit tests (set via
   //setRegionServer method.
   private HRegionServer hRegionServer;
+
+  /** Weight of the number of calls a scanner has served in the deadline of its next call */
+  public static final String SCAN_VTIME_WEIGHT_CONF_KEY = "hbase.ipc.server.scan.vtime.weight";
+  private final float scanVirtualTimeWeight;
   @SuppressWarnings("unchecked")
   private final Class<? extends Message>[] knownArgumentClasses = new Class[]{
       GetRegionInfoRequest.class,
@@ -96,6 +103,9 @@ class AnnotationReadingPriorityFunction implements PriorityFunction {
 
   AnnotationReadingPriorityFunction(final HRegionServer hrs) {
     this.hRegionServer = hrs;
+    Configuration conf = hrs == null ? null : hrs.getConfiguration();
+    this.scanVirtualTimeWeight =
+      conf == null ? 1.0f : conf.getFloat(SCAN_VTIME_WEIGHT_CONF_KEY, 1.0f);
     Map<String, Integer> qosMap = new HashMap<String, Integer>();
     for (Method m : HRegionServer.class.getMethods()) {
       QosPriority p = m.getAnnotation(QosPriority.class);
@@ -201,6 +211,64 @@ class AnnotationReadingPriorityFunction implements PriorityFunction {
     return HConstants.NORMAL_QOS;
   }
 
+  /**
+   * Based on the number of calls a scanner has served, the next call of a long running scan gets
+   * a deadline further out than that of gets, mutations and short scans, so it does not keep
+   * them waiting.
+   * @param header
+   * @param param
+   * @return Deadline of this request. 0 now, otherwise msec of 'delay'
+   */
+  @Override
+  public long getDeadline(RequestHeader header, Message param) {
+    if (param instanceof ScanRequest) {
+      ScanRequest request = (ScanRequest)param;
+      if (!request.hasScannerId() || !request.hasNextCallSeq()) {
+        return 0;
+      }
+      // The square root gives a nice curve: the delay grows slower the longer the scan runs.
+      // The client sequence is checked against the scanner's when the call runs.
+      return Math.round(Math.sqrt(request.getNextCallSeq() * scanVirtualTimeWeight));
+    }
+    return 0;
+  }
+
+  /**
+   * @param header
+   * @param param
+   * @return The table the request is for, null if not for a table or its region is not online
+   */
+  public TableName getTable(RequestHeader header, Message param) {
+    if (param == null) {
+      return null;
+    }
+    try {
+      if (param instanceof MultiRequest) {
+        // Count a multi against the table of its first region action
+        MultiRequest multi = (MultiRequest)param;
+        return multi.getRegionActionCount() == 0 ? null :
+          getTable(multi.getRegionAction(0).getRegion());
+      }
+      if (param instanceof ScanRequest && ((ScanRequest)param).hasScannerId()) {
+        RegionScanner scanner = hRegionServer.getScanner(((ScanRequest)param).getScannerId());
+        return scanner == null ? null : scanner.getRegionInfo().getTable();
+      }
+      Class<? extends Message> rpcArgClass = argumentToClassMap.get(param.getClass().getName());
+      Method hasRegion = methodMap.get("hasRegion").get(rpcArgClass);
+      if (hasRegion != null && (Boolean)hasRegion.invoke(param, (Object[])null)) {
+        Method getRegion = methodMap.get("getRegion").get(rpcArgClass);
+        return getTable((RegionSpecifier)getRegion.invoke(param, (Object[])null));
+      }
+    } catch (Exception ex) {
+      if (LOG.isTraceEnabled()) LOG.trace("No table after getting exception=" + ex);
+    }
+    return null;
+  }
+
+  private TableName getTable(final RegionSpecifier regionSpecifier) throws IOException {
+    return hRegionServer.getRegion(regionSpecifier).getRegionInfo().getTable();
+  }
+
   @VisibleForTesting
   void setRegionServer(final HRegionServer hrs) {
     this.hRegionServer = hrs;
@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -67,6 +68,7 @@ public class CompactSplitThread implements CompactionRequestor {
   private final ThreadPoolExecutor smallCompactions;
   private final ThreadPoolExecutor splits;
   private final ThreadPoolExecutor mergePool;
+  private final ThreadPoolExecutor subCompactions;
 
   private final CompactionThroughputController compactionThroughputController;
 
@@ -141,6 +143,18 @@ public class CompactSplitThread implements CompactionRequestor {
           }
         });
 
+    int subCompactionThreads = Math.max(1,
+      conf.getInt("hbase.regionserver.thread.compaction.sub", 4));
+    this.subCompactions = (ThreadPoolExecutor) Executors.newFixedThreadPool(
+        subCompactionThreads, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setName(n + "-subCompactions-" + System.currentTimeMillis());
+            return t;
+          }
+        });
+
     // compaction throughput controller
     this.compactionThroughputController =
         CompactionThroughputControllerFactory.create(server, conf);
@@ -363,6 +377,7 @@ public class CompactSplitThread implements CompactionRequestor {
     mergePool.shutdown();
     largeCompactions.shutdown();
     smallCompactions.shutdown();
+    subCompactions.shutdown();
   }
 
   private void waitFor(ThreadPoolExecutor t, String name) {
@@ -385,6 +400,7 @@ public class CompactSplitThread implements CompactionRequestor {
     waitFor(mergePool, "Merge Thread");
     waitFor(largeCompactions, "Large Compaction Thread");
     waitFor(smallCompactions, "Small Compaction Thread");
+    waitFor(subCompactions, "Sub-Compaction Thread");
   }
 
   /**
@@ -558,6 +574,14 @@ public class CompactSplitThread implements CompactionRequestor {
     }
   }
 
+  /**
+   * @return The pool the sub-compactions of large compactions run in, separate from the
+   * compaction pools so the compactions waiting on them cannot starve them
+   */
+  public ExecutorService getSubCompactionPool() {
+    return subCompactions;
+  }
+
   @VisibleForTesting
   public CompactionThroughputController getCompactionThroughputController() {
     return compactionThroughputController;
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionContext;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionThroughputController;
+import org.apache.hadoop.hbase.regionserver.compactions.DateTieredCompactionPolicy;
+import org.apache.hadoop.hbase.regionserver.compactions.DateTieredCompactor;
+
+/**
+ * The store engine of the date tiered compaction scheme: the default flusher and store file
+ * manager, with {@link DateTieredCompactionPolicy} selecting compactions and
+ * {@link DateTieredCompactor} writing their output split at the time window boundaries.
+ */
+@InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.CONFIG)
+public class DateTieredStoreEngine extends StoreEngine<DefaultStoreFlusher,
+  DateTieredCompactionPolicy, DateTieredCompactor, DefaultStoreFileManager> {
+
+  @Override
+  public boolean needsCompaction(List<StoreFile> filesCompacting) {
+    return compactionPolicy.needsCompaction(storeFileManager.getStorefiles(), filesCompacting);
+  }
+
+  @Override
+  public CompactionContext createCompaction() {
+    return new DateTieredCompactionContext();
+  }
+
+  @Override
+  protected void createComponents(
+      Configuration conf, Store store, KVComparator kvComparator) throws IOException {
+    this.compactionPolicy = new DateTieredCompactionPolicy(conf, store);
+    this.storeFileManager =
+        new DefaultStoreFileManager(kvComparator, conf, compactionPolicy.getConf());
+    this.storeFlusher = new DefaultStoreFlusher(conf, store);
+    this.compactor = new DateTieredCompactor(conf, store);
+  }
+
+  private final class DateTieredCompactionContext extends CompactionContext {
+    @Override
+    public List<StoreFile> preSelect(List<StoreFile> filesCompacting) {
+      return compactionPolicy.preSelectCompactionForCoprocessor(
+          storeFileManager.getStorefiles(), filesCompacting);
+    }
+
+    @Override
+    public boolean select(List<StoreFile> filesCompacting, boolean isUserCompaction,
+        boolean mayUseOffPeak, boolean forceMajor) throws IOException {
+      request = compactionPolicy.selectCompaction(storeFileManager.getStorefiles(),
+          filesCompacting, isUserCompaction, mayUseOffPeak, forceMajor);
+      return request != null;
+    }
+
+    @Override
+    public List<Path> compact(CompactionThroughputController throughputController)
+        throws IOException {
+      return compactor.compact(request, compactionPolicy.getCompactionBoundaries(request),
+        throughputController);
+    }
+  }
+}
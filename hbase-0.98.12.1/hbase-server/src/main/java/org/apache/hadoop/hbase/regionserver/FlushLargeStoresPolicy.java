@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+
+/**
+ * A {@link FlushPolicy} that only flushes the stores whose memstore is larger than a lower bound,
+ * so that the small column families of a region are not flushed into many tiny files each time
+ * a large one fills the memstore. The stores that hold too many changes or too old edits are
+ * flushed too, so that the WAL files can still be archived. If no store qualifies, all of them
+ * are flushed.
+ * <p>
+ * The lower bound is {@value #HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND}, which a column family
+ * or a table can override in its configuration values.
+ */
+@InterfaceAudience.Private
+public class FlushLargeStoresPolicy extends FlushPolicy {
+
+  private static final Log LOG = LogFactory.getLog(FlushLargeStoresPolicy.class);
+
+  public static final String HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND =
+      "hbase.hregion.percolumnfamilyflush.size.lower.bound";
+
+  public static final long DEFAULT_HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND = 1024 * 1024 * 16L;
+
+  /** Lower bound of each store of the region, by family name */
+  private Map<String, Long> flushSizeLowerBounds;
+
+  @Override
+  protected void configureForRegion(HRegion region) {
+    super.configureForRegion(region);
+    HTableDescriptor htd = region.getTableDesc();
+    long defaultBound = getLowerBound(htd.getConfigurationValue(
+      HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND), getConf().getLong(
+        HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND,
+        DEFAULT_HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND));
+    this.flushSizeLowerBounds = new HashMap<String, Long>();
+    for (HColumnDescriptor family : htd.getColumnFamilies()) {
+      long bound = getLowerBound(
+        family.getConfigurationValue(HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND), defaultBound);
+      this.flushSizeLowerBounds.put(family.getNameAsString(), bound);
+    }
+  }
+
+  private long getLowerBound(String value, long defaultBound) {
+    if (value == null) {
+      return defaultBound;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      LOG.warn("Number format exception when parsing "
+          + HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND + " for table "
+          + region.getTableDesc().getTableName() + ":" + value + ". " + e
+          + ", use " + defaultBound + " instead");
+      return defaultBound;
+    }
+  }
+
+  /**
+   * @return the lower bound of the memstore size of the store to get flushed
+   */
+  long getFlushSizeLowerBound(Store store) {
+    Long bound = flushSizeLowerBounds.get(store.getColumnFamilyName());
+    return bound == null ? DEFAULT_HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND : bound.longValue();
+  }
+
+  private boolean shouldFlush(Store store) {
+    if (store.getMemStoreSize() > getFlushSizeLowerBound(store)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Flush column family " + store.getColumnFamilyName() + " of "
+            + region.getRegionInfo().getEncodedName() + " because memstoreSize="
+            + store.getMemStoreSize() + " > lower bound=" + getFlushSizeLowerBound(store));
+      }
+      return true;
+    }
+    if (region.shouldFlushStore(store)) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Flush column family " + store.getColumnFamilyName() + " of "
+            + region.getRegionInfo().getEncodedName()
+            + " because it has too many changes or too old edits");
+      }
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public Collection<Store> selectStoresToFlush() {
+    Collection<Store> stores = region.getStores().values();
+    List<Store> specificStoresToFlush = new ArrayList<Store>();
+    for (Store store : stores) {
+      if (shouldFlush(store)) {
+        specificStoresToFlush.add(store);
+      }
+    }
+    if (!specificStoresToFlush.isEmpty()) {
+      return specificStoresToFlush;
+    }
+    // Nothing is large enough: flush all, as the region memstore as a whole is over its limit.
+    return stores;
+  }
+
+}
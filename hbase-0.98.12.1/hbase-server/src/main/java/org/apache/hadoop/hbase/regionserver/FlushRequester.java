@@ -30,8 +30,10 @@ public interface FlushRequester {
    * Tell the listener the cache needs to be flushed.
    *
    * @param region the HRegion requesting the cache flush
+   * @param forceFlushAllStores whether we want to flush all stores, e.g., when the request is
+   *          made to archive old WAL files
    */
-  void requestFlush(HRegion region);
+  void requestFlush(HRegion region, boolean forceFlushAllStores);
   /**
    * Tell the listener the cache needs to be flushed after a delay
    *
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.NavigableSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.mob.MobFile;
+import org.apache.hadoop.hbase.mob.MobFileCache;
+import org.apache.hadoop.hbase.mob.MobUtils;
+
+import com.google.common.collect.ImmutableCollection;
+
+/**
+ * The store of a family with {@link HColumnDescriptor#IS_MOB} set. Its flushes and compactions
+ * write the values at least {@link HColumnDescriptor#getMobThreshold()} long to MOB files,
+ * leaving references to them in the store files, and its scanners read the values back from
+ * the MOB files.
+ * <p>
+ * Only the store files are compacted: a MOB file is only rewritten by a major compaction when
+ * it is small, see {@link org.apache.hadoop.hbase.regionserver.compactions.DefaultMobStoreCompactor}.
+ * The MOB files no store file refers to anymore are deleted by the
+ * {@link org.apache.hadoop.hbase.mob.MobFileCleanerChore} of the master.
+ */
+@InterfaceAudience.Private
+public class HMobStore extends HStore {
+  private static final Log LOG = LogFactory.getLog(HMobStore.class);
+
+  private final Path mobFamilyPath;
+  private final MobFileCache mobFileCache;
+
+  public HMobStore(final HRegion region, final HColumnDescriptor family,
+      final Configuration confParam) throws IOException {
+    super(region, family, confParam);
+    this.mobFamilyPath = MobUtils.getMobFamilyPath(conf, getTableName(),
+      family.getNameAsString());
+    this.mobFileCache = new MobFileCache(conf, getFileSystem(), mobFamilyPath,
+      getCacheConfig());
+  }
+
+  @Override
+  protected StoreEngine<?, ?, ?, ?> createStoreEngine(Store store, Configuration conf,
+      KeyValue.KVComparator kvComparator) throws IOException {
+    // The references to the MOB files are tags
+    if (HFile.getFormatVersion(conf) < HFile.MIN_FORMAT_VERSION_WITH_TAGS) {
+      throw new IOException("The MOB family " + store.getColumnFamilyName() + " requires "
+          + HFile.FORMAT_VERSION_KEY + " " + HFile.MIN_FORMAT_VERSION_WITH_TAGS + " at least");
+    }
+    MobStoreEngine engine = new MobStoreEngine();
+    engine.createComponents(conf, store, kvComparator);
+    return engine;
+  }
+
+  /**
+   * @return the directory of the MOB files of this store
+   */
+  public Path getMobFamilyPath() {
+    return mobFamilyPath;
+  }
+
+  /**
+   * Creates a writer of a new MOB file, in the temporary directory of the MOB files of the
+   * family until {@link #commitMobFile(Path)}.
+   * @param maxKeyCount Estimated maximum number of cells
+   * @param compression Compression algorithm to use
+   * @return The writer
+   */
+  public StoreFile.Writer createMobWriterInTmp(long maxKeyCount,
+      Compression.Algorithm compression) throws IOException {
+    // The values are large and seldom read again soon, don't cache them on write
+    CacheConfig writerCacheConf = new CacheConfig(getCacheConfig());
+    writerCacheConf.setCacheDataOnWrite(false);
+    Path path = new Path(new Path(mobFamilyPath, HConstants.HBASE_TEMP_DIRECTORY),
+        MobUtils.generateMobFileName());
+    return new StoreFile.WriterBuilder(conf, writerCacheConf, getFileSystem())
+        .withFilePath(path)
+        .withComparator(getComparator())
+        .withBloomType(BloomType.NONE)
+        .withMaxKeyCount(maxKeyCount)
+        .withFileContext(createFileContext(compression, true, true))
+        .build();
+  }
+
+  /**
+   * Moves a MOB file written by {@link #createMobWriterInTmp(long, Compression.Algorithm)}
+   * among the MOB files of the family. This must be done before committing the store file
+   * referring to it.
+   * @param path The path of the closed MOB file
+   * @return The path of the committed MOB file
+   */
+  public Path commitMobFile(Path path) throws IOException {
+    Path dst = new Path(mobFamilyPath, path.getName());
+    if (!getFileSystem().exists(mobFamilyPath) && !getFileSystem().mkdirs(mobFamilyPath)) {
+      throw new IOException("Failed creating " + mobFamilyPath);
+    }
+    if (!getFileSystem().rename(path, dst)) {
+      throw new IOException("Failed rename of " + path + " to " + dst);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Committed MOB file " + dst + " of store " + this);
+    }
+    return dst;
+  }
+
+  /**
+   * Reads the cell a reference cell refers to.
+   * @param reference The reference cell
+   * @param cacheBlocks Whether to cache the blocks read
+   * @return The cell in the MOB file
+   * @throws IOException if the MOB file or the cell in it is missing
+   */
+  public Cell resolve(Cell reference, boolean cacheBlocks) throws IOException {
+    String fileName = MobUtils.getMobFileName(reference);
+    MobFile file;
+    try {
+      file = mobFileCache.openFile(fileName);
+    } catch (FileNotFoundException e) {
+      throw new IOException("The MOB file " + fileName + " of store " + this
+          + " is missing", e);
+    }
+    Cell cell;
+    try {
+      cell = file.readCell(reference, cacheBlocks);
+    } finally {
+      mobFileCache.closeFile(file);
+    }
+    if (cell == null) {
+      throw new IOException("The MOB file " + fileName + " of store " + this
+          + " has no cell for the reference " + reference);
+    }
+    return cell;
+  }
+
+  /**
+   * @return the cache of the open MOB files of this store
+   */
+  public MobFileCache getMobFileCache() {
+    return mobFileCache;
+  }
+
+  @Override
+  public KeyValueScanner getScanner(Scan scan, final NavigableSet<byte []> targetCols,
+      long readPt) throws IOException {
+    lock.readLock().lock();
+    try {
+      KeyValueScanner scanner = null;
+      if (this.getCoprocessorHost() != null) {
+        scanner = this.getCoprocessorHost().preStoreScannerOpen(this, scan, targetCols);
+      }
+      if (scanner == null) {
+        scanner = scan.isReversed() ? new ReversedMobStoreScanner(this, getScanInfo(), scan,
+            targetCols, readPt) : new MobStoreScanner(this, getScanInfo(), scan, targetCols,
+            readPt);
+      }
+      return scanner;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public ImmutableCollection<StoreFile> close() throws IOException {
+    try {
+      return super.close();
+    } finally {
+      mobFileCache.close();
+    }
+  }
+}
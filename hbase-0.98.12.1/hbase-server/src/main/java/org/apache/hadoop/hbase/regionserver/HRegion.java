@@ -38,6 +38,7 @@ import java.util.NavigableSet;
 import java.util.RandomAccess;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
@@ -353,6 +354,10 @@ public class HRegion implements HeapSize { // , Writable{
   // when a region is in recovering state, it can only accept writes not reads
   private volatile boolean isRecovering = false;
 
+  // a read replica serves the store files of a primary region opened elsewhere; it never
+  // writes to the file system and only sees what the primary has flushed
+  private boolean readReplica = false;
+
   /**
    * @return The smallest mvcc readPoint across all the scanners in this
    * region. Writes older than this readPoint, are included  in every
@@ -519,6 +524,9 @@ public class HRegion implements HeapSize { // , Writable{
 
   private HTableDescriptor htableDescriptor = null;
   private RegionSplitPolicy splitPolicy;
+  private FlushPolicy flushPolicy;
+  // Groups the concurrent increments of a row, null unless enabled
+  private final RegionIncrementCoalescer incrementCoalescer;
 
   private final MetricsRegion metricsRegion;
   private final MetricsRegionWrapperImpl metricsRegionWrapper;
@@ -601,6 +609,8 @@ public class HRegion implements HeapSize { // , Writable{
 
     this.rowLockWaitDuration = conf.getInt("hbase.rowlock.wait.duration",
                     DEFAULT_ROWLOCK_WAIT_DURATION);
+    this.incrementCoalescer = RegionIncrementCoalescer.isEnabled(conf)
+        ? new RegionIncrementCoalescer(this, conf) : null;
 
     this.isLoadingCfsOnDemandDefault = conf.getBoolean(LOAD_CFS_ON_DEMAND_CONFIG_KEY, true);
     this.htableDescriptor = htd;
@@ -730,32 +740,39 @@ public class HRegion implements HeapSize { // , Writable{
       coprocessorHost.preOpen();
     }
 
-    // Write HRI to a file in case we need to recover hbase:meta
-    status.setStatus("Writing region info on filesystem");
-    fs.checkRegionInfoOnFilesystem();
+    if (!this.readReplica) {
+      // Write HRI to a file in case we need to recover hbase:meta
+      status.setStatus("Writing region info on filesystem");
+      fs.checkRegionInfoOnFilesystem();
 
-    // Remove temporary data left over from old regions
-    status.setStatus("Cleaning up temporary data from old regions");
-    fs.cleanupTempDir();
+      // Remove temporary data left over from old regions
+      status.setStatus("Cleaning up temporary data from old regions");
+      fs.cleanupTempDir();
+    }
 
     // Initialize all the HStores
     status.setStatus("Initializing all the Stores");
     long maxSeqId = initializeRegionStores(reporter, status);
 
-    status.setStatus("Cleaning up detritus from prior splits");
-    // Get rid of any splits or merges that were lost in-progress.  Clean out
-    // these directories here on open.  We may be opening a region that was
-    // being split but we crashed in the middle of it all.
-    fs.cleanupAnySplitDetritus();
-    fs.cleanupMergesDir();
+    if (!this.readReplica) {
+      status.setStatus("Cleaning up detritus from prior splits");
+      // Get rid of any splits or merges that were lost in-progress.  Clean out
+      // these directories here on open.  We may be opening a region that was
+      // being split but we crashed in the middle of it all.
+      fs.cleanupAnySplitDetritus();
+      fs.cleanupMergesDir();
+    }
 
-    this.writestate.setReadOnly(this.htableDescriptor.isReadOnly());
+    this.writestate.setReadOnly(this.readReplica || this.htableDescriptor.isReadOnly());
     this.writestate.flushRequested = false;
     this.writestate.compacting = 0;
 
     // Initialize split policy
     this.splitPolicy = RegionSplitPolicy.create(this, conf);
 
+    // Initialize flush policy
+    this.flushPolicy = FlushPolicyFactory.create(this, conf);
+
     this.lastFlushTime = EnvironmentEdgeManager.currentTimeMillis();
     // Use maximum of log sequenceid or that which was found in stores
     // (particularly if no recovered edits, seqid will be -1).
@@ -846,6 +863,10 @@ public class HRegion implements HeapSize { // , Writable{
       }
     }
     mvcc.initialize(maxMemstoreTS + 1);
+    if (this.readReplica) {
+      // Recovered edits belong to the primary
+      return maxSeqId;
+    }
     // Recover any edits if available.
     maxSeqId = Math.max(maxSeqId, replayRecoveredEditsIfAny(
         this.fs.getRegionDir(), maxSeqIdInStores, reporter, status));
@@ -949,7 +970,7 @@ public class HRegion implements HeapSize { // , Writable{
    * @return Instance of {@link RegionServerServices} used by this HRegion.
    * Can be null.
    */
-  RegionServerServices getRegionServerServices() {
+  public RegionServerServices getRegionServerServices() {
     return this.rsServices;
   }
 
@@ -1006,6 +1027,29 @@ public class HRegion implements HeapSize { // , Writable{
     return this.isRecovering;
   }
 
+  /**
+   * @return True if this is a read replica of a region whose primary is opened elsewhere
+   */
+  public boolean isReadReplica() {
+    return this.readReplica;
+  }
+
+  /**
+   * Picks up the store files the primary region flushed, compacted or bulk loaded since
+   * the last refresh. Only for read replicas.
+   * @return true if any store changed
+   */
+  public boolean refreshStoreFiles() throws IOException {
+    if (!this.readReplica) {
+      throw new IllegalStateException("Only read replicas refresh their store files");
+    }
+    boolean changed = false;
+    for (Store store : this.stores.values()) {
+      changed |= ((HStore) store).refreshStoreFiles();
+    }
+    return changed;
+  }
+
   /** @return true if region is available (not closed and not closing) */
   public boolean isAvailable() {
     return !isClosed() && !isClosing();
@@ -1566,6 +1610,21 @@ public class HRegion implements HeapSize { // , Writable{
    * because a Snapshot was not properly persisted.
    */
   public FlushResult flushcache() throws IOException {
+    return flushcache(true);
+  }
+
+  /**
+   * Flush the cache, as {@link #flushcache()} does.
+   *
+   * @param forceFlushAllStores whether to flush all stores, rather than the ones selected by
+   * the {@link FlushPolicy} of the region
+   * @return object describing the flush's state
+   *
+   * @throws IOException general io exceptions
+   * @throws DroppedSnapshotException Thrown when replay of hlog is required
+   * because a Snapshot was not properly persisted.
+   */
+  public FlushResult flushcache(boolean forceFlushAllStores) throws IOException {
     // fail-fast instead of waiting on the lock
     if (this.closing.get()) {
       String msg = "Skipping flush on " + this + " because closing";
@@ -1608,7 +1667,11 @@ public class HRegion implements HeapSize { // , Writable{
         }
       }
       try {
-        FlushResult fs = internalFlushcache(status);
+        Collection<Store> specificStoresToFlush =
+            forceFlushAllStores ? stores.values() : flushPolicy.selectStoresToFlush();
+        FlushResult fs = specificStoresToFlush.size() == stores.size()
+            ? internalFlushcache(status)
+            : internalFlushcache(this.log, -1, specificStoresToFlush, status);
 
         if (coprocessorHost != null) {
           status.setStatus("Running post-flush coprocessor hooks");
@@ -1658,6 +1721,28 @@ public class HRegion implements HeapSize { // , Writable{
     return false;
   }
 
+  /**
+   * Should the memstore of the given store be flushed now, although it may be small, so that
+   * the WAL files holding its edits can be archived. It is the store-level counterpart of
+   * {@link #shouldFlush()}.
+   */
+  boolean shouldFlushStore(Store store) {
+    HLog wal = this.log;
+    if (wal != null) {
+      long earliest = wal.getEarliestMemstoreSeqNum(getRegionInfo().getEncodedNameAsBytes(),
+        store.getFamily().getName());
+      if (earliest != HConstants.NO_SEQNUM
+          && earliest + this.flushPerChanges < this.sequenceId.get()) {
+        return true;
+      }
+    }
+    if (flushCheckInterval <= 0) { //disabled
+      return false;
+    }
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    return store.timeOfOldestEdit() < now - flushCheckInterval;
+  }
+
   /**
    * Flush the memstore.
    *
@@ -1709,6 +1794,22 @@ public class HRegion implements HeapSize { // , Writable{
    */
   protected FlushResult internalFlushcache(
       final HLog wal, final long myseqid, MonitoredTask status)
+  throws IOException {
+    return internalFlushcache(wal, myseqid, stores.values(), status);
+  }
+
+  /**
+   * @param wal Null if we're NOT to go via hlog/wal.
+   * @param myseqid The seqid to use if <code>wal</code> is null writing out
+   * flush file.
+   * @param storesToFlush The stores to flush, all stores of the region or some of them
+   * @param status
+   * @return object describing the flush's state
+   * @throws IOException
+   * @see #internalFlushcache(MonitoredTask)
+   */
+  protected FlushResult internalFlushcache(final HLog wal, final long myseqid,
+      final Collection<Store> storesToFlush, MonitoredTask status)
   throws IOException {
     if (this.rsServices != null && this.rsServices.isAborted()) {
       // Don't flush when server aborting, it's unsafe
@@ -1724,10 +1825,27 @@ public class HRegion implements HeapSize { // , Writable{
       return new FlushResult(FlushResult.Result.CANNOT_FLUSH_MEMSTORE_EMPTY, "Nothing to flush");
     }
 
-    LOG.info("Started memstore flush for " + this +
-      ", current region memstore size " +
-      StringUtils.humanReadableInt(this.memstoreSize.get()) +
-      ((wal != null)? "": "; wal is null, using passed sequenceid=" + myseqid));
+    boolean flushAllStores = storesToFlush.size() == stores.size();
+    Set<byte[]> flushedFamilyNames = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    for (Store store : storesToFlush) {
+      flushedFamilyNames.add(store.getFamily().getName());
+    }
+    if (LOG.isInfoEnabled()) {
+      StringBuilder perCfExtras = null;
+      if (!flushAllStores) {
+        perCfExtras = new StringBuilder();
+        for (Store store : storesToFlush) {
+          perCfExtras.append("; ").append(store.getColumnFamilyName()).append("=")
+            .append(StringUtils.humanReadableInt(store.getMemStoreSize()));
+        }
+      }
+      LOG.info("Started memstore flush for " + this +
+        ", current region memstore size " +
+        StringUtils.humanReadableInt(this.memstoreSize.get()) + " for " +
+        storesToFlush.size() + "/" + stores.size() + " column families" +
+        ((perCfExtras != null) ? perCfExtras.toString() : "") +
+        ((wal != null)? "": "; wal is null, using passed sequenceid=" + myseqid));
+    }
 
     // Stop updates while we snapshot the memstore of all stores. We only have
     // to do this for a moment.  Its quick.  The subsequent sequence id that
@@ -1746,27 +1864,38 @@ public class HRegion implements HeapSize { // , Writable{
     this.updatesLock.writeLock().lock();
     long totalFlushableSize = 0;
     status.setStatus("Preparing to flush by snapshotting stores");
-    List<StoreFlushContext> storeFlushCtxs = new ArrayList<StoreFlushContext>(stores.size());
+    List<StoreFlushContext> storeFlushCtxs =
+      new ArrayList<StoreFlushContext>(storesToFlush.size());
     long flushSeqId = -1L;
+    // The edits up to this id are all in files once the flush completes
+    long flushedSeqId = -1L;
     try {
       // Record the mvcc for all transactions in progress.
       w = mvcc.beginMemstoreInsert();
       mvcc.advanceMemstore(w);
       // check if it is not closing.
       if (wal != null) {
-        if (!wal.startCacheFlush(this.getRegionInfo().getEncodedNameAsBytes())) {
+        byte[] encodedRegionName = this.getRegionInfo().getEncodedNameAsBytes();
+        boolean started = flushAllStores ? wal.startCacheFlush(encodedRegionName)
+          : wal.startCacheFlush(encodedRegionName, flushedFamilyNames);
+        if (!started) {
           String msg = "Flush will not be started for ["
               + this.getRegionInfo().getEncodedName() + "] - because the WAL is closing.";
           status.setStatus(msg);
           return new FlushResult(FlushResult.Result.CANNOT_FLUSH, msg);
         }
         flushSeqId = this.sequenceId.incrementAndGet();
+        // The stores not flushed may hold older edits than the flush sequence id; the region is
+        // only flushed up to the oldest of them.
+        long oldestUnflushedSeqId = wal.getEarliestMemstoreSeqNum(encodedRegionName);
+        flushedSeqId = (oldestUnflushedSeqId == HConstants.NO_SEQNUM)
+          ? flushSeqId : oldestUnflushedSeqId - 1;
       } else {
         // use the provided sequence Id as WAL is not being used for this flush.
-        flushSeqId = myseqid;
+        flushedSeqId = flushSeqId = myseqid;
       }
 
-      for (Store s : stores.values()) {
+      for (Store s : storesToFlush) {
         totalFlushableSize += s.getFlushableSize();
         storeFlushCtxs.add(s.createFlushContext(flushSeqId));
       }
@@ -1853,7 +1982,7 @@ public class HRegion implements HeapSize { // , Writable{
     this.lastFlushTime = EnvironmentEdgeManager.currentTimeMillis();
 
     // Update the last flushed sequence id for region
-    completeSequenceId = flushSeqId;
+    completeSequenceId = flushedSeqId;
 
     // C. Finally notify anyone waiting on memstore to clear:
     // e.g. checkResources().
@@ -3227,7 +3356,7 @@ public class HRegion implements HeapSize { // , Writable{
       writestate.flushRequested = true;
     }
     // Make request outside of synchronize block; HBASE-818.
-    this.rsServices.getFlushRequester().requestFlush(this);
+    this.rsServices.getFlushRequester().requestFlush(this, false);
     if (LOG.isDebugEnabled()) {
       LOG.debug("Flush requested on " + this);
     }
@@ -3584,6 +3713,9 @@ public class HRegion implements HeapSize { // , Writable{
   }
 
   protected HStore instantiateHStore(final HColumnDescriptor family) throws IOException {
+    if (family.isMobEnabled()) {
+      return new HMobStore(this, family, this.conf);
+    }
     return new HStore(this, family, this.conf);
   }
 
@@ -3911,6 +4043,8 @@ public class HRegion implements HeapSize { // , Writable{
     protected KeyValue joinedContinuationRow = null;
     // KeyValue indicating that limit is reached when scanning
     private final KeyValue KV_LIMIT = new KeyValue();
+    /** Cells read at a time from the rows that may be returned in parts */
+    private static final int PARTIAL_RESULT_CELLS_STEP = 16;
     protected final byte[] stopRow;
     private final FilterWrapper filter;
     private int batch;
@@ -3919,6 +4053,14 @@ public class HRegion implements HeapSize { // , Writable{
     private long readPt;
     private long maxResultSize;
     protected HRegion region;
+    /** Whether the client takes empty responses keeping the scan alive */
+    private final boolean allowHeartbeats;
+    /** Whether the client stitches back together the parts of a row it gets */
+    private final boolean allowPartialResults;
+    /** Time after which to return without a row, as a heartbeat; 0 if none */
+    private long heartbeatDeadline = 0;
+    /** Size of cells over which to return the part of a row read so far; 0 if none */
+    private long partialResultSizeLimit = 0;
 
     @Override
     public HRegionInfo getRegionInfo() {
@@ -3937,6 +4079,12 @@ public class HRegion implements HeapSize { // , Writable{
       }
 
       this.batch = scan.getBatch();
+      this.allowHeartbeats = scan.getAttribute(Scan.SCAN_ATTRIBUTES_HEARTBEATS_ENABLE) != null;
+      // Rows are cut in parts only where the batch limit could cut them
+      this.allowPartialResults =
+          scan.getAttribute(Scan.SCAN_ATTRIBUTES_PARTIAL_RESULTS_ENABLE) != null
+          && this.batch <= 0 && !scan.isReversed()
+          && (this.filter == null || !this.filter.hasFilterRow());
       if (Bytes.equals(scan.getStopRow(), HConstants.EMPTY_END_ROW) && !scan.isGetScan()) {
         this.stopRow = null;
       } else {
@@ -3999,6 +4147,21 @@ public class HRegion implements HeapSize { // , Writable{
       return this.readPt;
     }
 
+    /**
+     * Sets the limits of the next calls, when the client of the scan supports them. Rows
+     * filtered out for a long time make the scanner return with no row before the client
+     * times out, rather than in a failure; rows bigger than the size limit are returned in parts.
+     * @param heartbeatDeadline time after which to return without a row; 0 if none
+     * @param partialResultSizeLimit size of cells over which to return the part of a row read
+     *   so far; 0 if none
+     * @return Whether the scanner returns without a row past the deadline
+     */
+    boolean setScanLimits(long heartbeatDeadline, long partialResultSizeLimit) {
+      this.heartbeatDeadline = allowHeartbeats ? heartbeatDeadline : 0;
+      this.partialResultSizeLimit = allowPartialResults ? partialResultSizeLimit : 0;
+      return this.heartbeatDeadline > 0;
+    }
+
     /**
      * Reset both the filter and the old filter.
      *
@@ -4099,12 +4262,34 @@ public class HRegion implements HeapSize { // , Writable{
     private KeyValue populateResult(List<Cell> results, KeyValueHeap heap, int limit,
         byte[] currentRow, int offset, short length) throws IOException {
       KeyValue nextKv;
+      long size = 0;
+      if (partialResultSizeLimit > 0) {
+        for (Cell cell : results) {
+          size += KeyValueUtil.ensureKeyValue(cell).heapSizeWithoutTags();
+        }
+      }
       do {
-        heap.next(results, limit - results.size());
+        int before = results.size();
+        int remaining = limit - before;
+        if (partialResultSizeLimit > 0) {
+          // Read the row a few cells at a time, to stop close to the size limit
+          remaining = limit > 0 ? Math.min(remaining, PARTIAL_RESULT_CELLS_STEP)
+              : PARTIAL_RESULT_CELLS_STEP;
+        }
+        heap.next(results, remaining);
         if (limit > 0 && results.size() == limit) {
           return KV_LIMIT;
         }
         nextKv = heap.peek();
+        if (partialResultSizeLimit > 0) {
+          for (int i = before; i < results.size(); i++) {
+            size += KeyValueUtil.ensureKeyValue(results.get(i)).heapSizeWithoutTags();
+          }
+          if (size >= partialResultSizeLimit && nextKv != null
+              && nextKv.matchingRow(currentRow, offset, length)) {
+            return KV_LIMIT;
+          }
+        }
       } while (nextKv != null && nextKv.matchingRow(currentRow, offset, length));
 
       return nextKv;
@@ -4134,6 +4319,12 @@ public class HRegion implements HeapSize { // , Writable{
       // "true" if there's more data to read, "false" if there isn't (storeHeap is at a stop row,
       // and joinedHeap has no more data to read for the last row (if set, joinedContinuationRow).
       while (true) {
+        if (heartbeatDeadline > 0 && results.isEmpty() && joinedContinuationRow == null
+            && EnvironmentEdgeManager.currentTimeMillis() >= heartbeatDeadline) {
+          // Filters have been skipping rows for long: return nothing, but that there are more
+          // rows, so that the client hears from us before it times out
+          return true;
+        }
         if (rpcCall != null) {
           // If a user specifies a too-restrictive or too-slow scanner, the
           // client might time out and disconnect while the server side
@@ -4687,6 +4878,35 @@ public class HRegion implements HeapSize { // , Writable{
   }
 
 
+  /**
+   * Open a read replica of a region. The replica serves the store files of the primary
+   * region, which is opened on another server: it has no WAL and no memstore content,
+   * accepts no writes and never flushes, compacts or splits. Call
+   * {@link #refreshStoreFiles()} to see what the primary flushed since.
+   * @param conf The Configuration object to use.
+   * @param fs Filesystem to use
+   * @param rootDir Root directory for HBase instance
+   * @param info Info of the primary region.
+   * @param htd the table descriptor
+   * @param rsServices An interface we can request flushes against.
+   * @param reporter An interface we can report progress against.
+   * @return new HRegion
+   * @throws IOException
+   */
+  public static HRegion openReadReplica(final Configuration conf, final FileSystem fs,
+      final Path rootDir, final HRegionInfo info, final HTableDescriptor htd,
+      final RegionServerServices rsServices, final CancelableProgressable reporter)
+      throws IOException {
+    if (info == null) throw new NullPointerException("Passed region info is null");
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Opening read replica of region: " + info);
+    }
+    HRegion r = HRegion.newHRegion(FSUtils.getTableDir(rootDir, info.getTable()), null, fs,
+      conf, info, htd, rsServices);
+    r.readReplica = true;
+    return r.openHRegion(reporter);
+  }
+
   /**
    * Useful when reopening a closed region (normally for unit tests)
    * @param other original object
@@ -5552,6 +5772,26 @@ public class HRegion implements HeapSize { // , Writable{
    * @throws IOException
    */
   public Result increment(Increment increment, long nonceGroup, long nonce)
+  throws IOException {
+    if (this.incrementCoalescer != null) {
+      return this.incrementCoalescer.increment(increment, nonceGroup, nonce);
+    }
+    return doIncrement(increment, nonceGroup, nonce);
+  }
+
+  /**
+   * @return the coalescer of the increments of the region, null if not enabled
+   */
+  @VisibleForTesting
+  RegionIncrementCoalescer getIncrementCoalescer() {
+    return this.incrementCoalescer;
+  }
+
+  /**
+   * Applies an increment, or a group of increments of a row coalesced into one.
+   * @see #increment(Increment, long, long)
+   */
+  Result doIncrement(Increment increment, long nonceGroup, long nonce)
   throws IOException {
     byte [] row = increment.getRow();
     checkRow(row, "increment");
@@ -5774,7 +6014,7 @@ public class HRegion implements HeapSize { // , Writable{
   public static final long FIXED_OVERHEAD = ClassSize.align(
       ClassSize.OBJECT +
       ClassSize.ARRAY +
-      42 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT +
+      44 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT +
       (12 * Bytes.SIZEOF_LONG) +
       5 * Bytes.SIZEOF_BOOLEAN);
 
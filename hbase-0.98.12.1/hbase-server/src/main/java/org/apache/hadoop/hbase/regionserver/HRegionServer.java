@@ -92,6 +92,7 @@ import org.apache.hadoop.hbase.catalog.CatalogTracker;
 import org.apache.hadoop.hbase.catalog.MetaEditor;
 import org.apache.hadoop.hbase.catalog.MetaReader;
 import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Consistency;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HConnectionManager;
@@ -116,11 +117,13 @@ import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.ipc.FairShareCallQueue;
 import org.apache.hadoop.hbase.ipc.HBaseRPCErrorHandler;
 import org.apache.hadoop.hbase.ipc.PayloadCarryingRpcController;
 import org.apache.hadoop.hbase.ipc.PriorityFunction;
 import org.apache.hadoop.hbase.ipc.RpcCallContext;
 import org.apache.hadoop.hbase.ipc.RpcClient;
+import org.apache.hadoop.hbase.ipc.RpcClientFactory;
 import org.apache.hadoop.hbase.ipc.RpcServer;
 import org.apache.hadoop.hbase.ipc.RpcServer.BlockingServiceAndInterface;
 import org.apache.hadoop.hbase.ipc.RpcServerInterface;
@@ -205,6 +208,8 @@ import org.apache.hadoop.hbase.protobuf.generated.RegionServerStatusProtos.Repor
 import org.apache.hadoop.hbase.protobuf.generated.RegionServerStatusProtos.ReportRegionStateTransitionRequest;
 import org.apache.hadoop.hbase.protobuf.generated.RegionServerStatusProtos.ReportRegionStateTransitionResponse;
 import org.apache.hadoop.hbase.protobuf.generated.WALProtos.CompactionDescriptor;
+import org.apache.hadoop.hbase.quotas.OperationQuota;
+import org.apache.hadoop.hbase.quotas.RegionServerQuotaManager;
 import org.apache.hadoop.hbase.regionserver.HRegion.Operation;
 import org.apache.hadoop.hbase.regionserver.Leases.LeaseStillHeldException;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
@@ -217,6 +222,7 @@ import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
 import org.apache.hadoop.hbase.regionserver.wal.HLogSplitter;
 import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
+import org.apache.hadoop.hbase.regionserver.wal.RegionGroupingHLogProvider;
 import org.apache.hadoop.hbase.regionserver.wal.WALActionsListener;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.replication.regionserver.ReplicationLoad;
@@ -271,7 +277,7 @@ import com.google.protobuf.TextFormat;
 @SuppressWarnings("deprecation")
 public class HRegionServer implements ClientProtos.ClientService.BlockingInterface,
   AdminProtos.AdminService.BlockingInterface, Runnable, RegionServerServices,
-  HBaseRPCErrorHandler, LastSequenceId {
+  HBaseRPCErrorHandler, LastSequenceId, FairShareCallQueue.TableFunction {
 
   public static final Log LOG = LogFactory.getLog(HRegionServer.class);
 
@@ -433,6 +439,17 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
    */
   Chore periodicFlusher;
 
+  /*
+   * Places, opens and refreshes read replicas
+   */
+  ReadReplicaChore readReplicaChore;
+
+  /**
+   * Read replicas of regions whose primary is opened on another server, by encoded
+   * region name. Only reachable by timeline consistent reads.
+   */
+  final Map<String, HRegion> replicaRegions = new ConcurrentHashMap<String, HRegion>();
+
   // HLog and HLog roller. log is protected rather than private to avoid
   // eclipse warning when accessed by inner classes
   protected volatile HLog hlog;
@@ -442,6 +459,10 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
 
   LogRoller hlogRoller;
   LogRoller metaHLogRoller;
+  // Maps regions onto hlog and the additional WAL groups, if any. The
+  // rollers of the additional groups are kept in group order.
+  private volatile RegionGroupingHLogProvider hlogProvider;
+  final List<LogRoller> groupHLogRollers = new ArrayList<LogRoller>();
 
   // flag set after we're done setting up server threads (used for testing)
   protected volatile boolean isOnline;
@@ -474,6 +495,8 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
   /** The nonce manager chore. */
   private Chore nonceManagerChore;
 
+  private RegionServerQuotaManager rsQuotaManager;
+
   private Map<String, Service> coprocessorServiceHandlers = Maps.newHashMap();
 
   /**
@@ -512,7 +535,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
   /**
    * The reference to the priority extraction function
    */
-  private final PriorityFunction priority;
+  private final AnnotationReadingPriorityFunction priority;
 
   private RegionServerCoprocessorHost rsHost;
 
@@ -723,6 +746,16 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return priority.getPriority(header, param);
   }
 
+  @Override
+  public long getDeadline(RequestHeader header, Message param) {
+    return priority.getDeadline(header, param);
+  }
+
+  @Override
+  public TableName getTable(RequestHeader header, Message param) {
+    return priority.getTable(header, param);
+  }
+
   @Retention(RetentionPolicy.RUNTIME)
   protected @interface QosPriority {
     int priority() default 0;
@@ -732,6 +765,14 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return priority;
   }
 
+  /**
+   * @return the number of scanners the clients have open on this server
+   */
+  @VisibleForTesting
+  public int getNumberOfOpenScanners() {
+    return this.scanners.size();
+  }
+
   RegionScanner getScanner(long scannerId) {
     String scannerIdString = Long.toString(scannerId);
     RegionScannerHolder scannerHolder = scanners.get(scannerIdString);
@@ -851,6 +892,13 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     // in a while. It will take care of not checking too frequently on store-by-store basis.
     this.compactionChecker = new CompactionChecker(this, this.threadWakeFrequency, this);
     this.periodicFlusher = new PeriodicMemstoreFlusher(this.threadWakeFrequency, this);
+    int readReplicaPeriod = conf.getInt(ReadReplicaChore.PERIOD_KEY,
+      ReadReplicaChore.DEFAULT_PERIOD);
+    if (readReplicaPeriod > 0) {
+      this.readReplicaChore = new ReadReplicaChore(this, readReplicaPeriod,
+        conf.getLong(ReadReplicaChore.PLACEMENT_PERIOD_KEY,
+          ReadReplicaChore.DEFAULT_PLACEMENT_PERIOD));
+    }
     // Health checker thread.
     int sleepTime = this.conf.getInt(HConstants.HEALTH_CHORE_WAKE_FREQ,
       HConstants.DEFAULT_THREAD_WAKE_FREQUENCY);
@@ -868,8 +916,11 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
       nonceManagerChore = this.nonceManager.createCleanupChore(this);
     }
 
+    // Enforces the quotas, reloading them with a chore when enabled
+    this.rsQuotaManager = new RegionServerQuotaManager(conf, this);
+
     // Setup RPC client for master communication
-    rpcClient = new RpcClient(conf, clusterId, new InetSocketAddress(
+    rpcClient = RpcClientFactory.createClient(conf, clusterId, new InetSocketAddress(
         this.isa.getAddress(), 0));
     this.pauseMonitor = new JvmPauseMonitor(conf);
     pauseMonitor.start();
@@ -991,11 +1042,20 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     if (this.compactSplitThread != null) this.compactSplitThread.interruptIfNecessary();
     if (this.hlogRoller != null) this.hlogRoller.interruptIfNecessary();
     if (this.metaHLogRoller != null) this.metaHLogRoller.interruptIfNecessary();
+    for (LogRoller roller : this.groupHLogRollers) {
+      roller.interruptIfNecessary();
+    }
     if (this.compactionChecker != null)
       this.compactionChecker.interrupt();
+    if (this.readReplicaChore != null) {
+      this.readReplicaChore.interrupt();
+    }
     if (this.healthCheckChore != null) {
       this.healthCheckChore.interrupt();
     }
+    if (this.rsQuotaManager != null && this.rsQuotaManager.getQuotaCache() != null) {
+      this.rsQuotaManager.getQuotaCache().interrupt();
+    }
     if (this.nonceManagerChore != null) {
       this.nonceManagerChore.interrupt();
     }
@@ -1010,10 +1070,12 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     } else if (abortRequested) {
       if (this.fsOk) {
         closeUserRegions(abortRequested); // Don't leave any open file handles
+        closeReadReplicas(abortRequested);
       }
       LOG.info("aborting server " + this.serverNameFromMasterPOV);
     } else {
       closeUserRegions(abortRequested);
+      closeReadReplicas(abortRequested);
       closeAllScanners();
       LOG.info("stopping server " + this.serverNameFromMasterPOV);
     }
@@ -1260,6 +1322,16 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         LOG.error("Metalog close and delete failed", RemoteExceptionHandler.checkThrowable(e));
       }
     }
+    if (this.hlogProvider != null) {
+      // Same as for meta, the group hlogs share the directory of the default one.
+      for (HLog log : this.hlogProvider.getGroupWALs()) {
+        try {
+          log.close();
+        } catch (Throwable e) {
+          LOG.error("Group log close failed", RemoteExceptionHandler.checkThrowable(e));
+        }
+      }
+    }
     if (this.hlog != null) {
       try {
         if (delete) {
@@ -1593,7 +1665,15 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     // log directories.
     createNewReplicationInstance(conf, this, this.fs, logdir, oldLogDir);
 
-    return instantiateHLog(rootDir, logName);
+    HLog log = instantiateHLog(rootDir, logName);
+    this.hlogProvider = new RegionGroupingHLogProvider(conf, log,
+      this.serverNameFromMasterPOV.toString(), new RegionGroupingHLogProvider.HLogCreator() {
+        @Override
+        public HLog createHLog(int group, String prefix) throws IOException {
+          return instantiateGroupHLog(rootDir, logName, prefix);
+        }
+      });
+    return log;
   }
 
   private HLog getMetaWAL() throws IOException {
@@ -1618,6 +1698,31 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
       getWALActionListeners(), this.serverNameFromMasterPOV.toString());
   }
 
+  /**
+   * Called by {@link #setupWALAndReplication()} creating the WAL of each additional
+   * WAL group. Each gets its own log roller.
+   * @param rootdir
+   * @param logName
+   * @param prefix file name prefix of the group
+   * @return WAL instance.
+   * @throws IOException
+   */
+  protected HLog instantiateGroupHLog(Path rootdir, String logName, String prefix)
+  throws IOException {
+    List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
+    LogRoller roller = new LogRoller(this, this);
+    listeners.add(roller);
+    if (this.replicationSourceHandler != null &&
+        this.replicationSourceHandler.getWALActionsListener() != null) {
+      listeners.add(this.replicationSourceHandler.getWALActionsListener());
+    }
+    HLog log = HLogFactory.createGroupHLog(this.fs.getBackingFs(), rootdir, logName, this.conf,
+      listeners, prefix);
+    roller.setWAL(log);
+    this.groupHLogRollers.add(roller);
+    return log;
+  }
+
   /**
    * Called by {@link #instantiateHLog(Path, String)} setting up WAL instance.
    * Add any {@link WALActionsListener}s you want inserted before WAL startup.
@@ -1699,11 +1804,19 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
 
     Threads.setDaemonThreadRunning(this.hlogRoller.getThread(), n + ".logRoller",
         uncaughtExceptionHandler);
+    for (int i = 0; i < this.groupHLogRollers.size(); i++) {
+      Threads.setDaemonThreadRunning(this.groupHLogRollers.get(i).getThread(),
+        n + ".logRoller.g" + (i + 1), uncaughtExceptionHandler);
+    }
     this.cacheFlusher.start(uncaughtExceptionHandler);
     Threads.setDaemonThreadRunning(this.compactionChecker.getThread(), n +
       ".compactionChecker", uncaughtExceptionHandler);
     Threads.setDaemonThreadRunning(this.periodicFlusher.getThread(), n +
         ".periodicFlusher", uncaughtExceptionHandler);
+    if (this.readReplicaChore != null) {
+      Threads.setDaemonThreadRunning(this.readReplicaChore.getThread(), n + ".readReplicas",
+        uncaughtExceptionHandler);
+    }
     if (this.healthCheckChore != null) {
       Threads.setDaemonThreadRunning(this.healthCheckChore.getThread(), n + ".healthChecker",
             uncaughtExceptionHandler);
@@ -1712,6 +1825,10 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
       Threads.setDaemonThreadRunning(this.nonceManagerChore.getThread(), n + ".nonceCleaner",
             uncaughtExceptionHandler);
     }
+    if (this.rsQuotaManager.getQuotaCache() != null) {
+      Threads.setDaemonThreadRunning(this.rsQuotaManager.getQuotaCache().getThread(),
+        n + ".quotaCache", uncaughtExceptionHandler);
+    }
 
     // Leases is not a Thread. Internally it runs a daemon thread. If it gets
     // an unhandled exception, it will just exit.
@@ -1804,6 +1921,12 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
       stop("Meta HLog roller thread is no longer alive -- stop");
       return false;
     }
+    for (LogRoller roller : groupHLogRollers) {
+      if (!roller.isAlive()) {
+        stop("Group HLog roller thread is no longer alive -- stop");
+        return false;
+      }
+    }
     return true;
   }
 
@@ -1825,9 +1948,25 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     if (regionInfo != null && regionInfo.isMetaTable()) {
       return getMetaWAL();
     }
+    RegionGroupingHLogProvider provider = this.hlogProvider;
+    if (provider != null) {
+      return provider.getWAL(regionInfo);
+    }
     return this.hlog;
   }
 
+  /**
+   * @return the default HLog followed by those of the additional WAL groups, if any.
+   * Does not include the meta HLog.
+   */
+  List<HLog> getWALs() {
+    RegionGroupingHLogProvider provider = this.hlogProvider;
+    if (provider != null) {
+      return provider.getWALs();
+    }
+    return this.hlog == null ? Collections.<HLog>emptyList() : Collections.singletonList(this.hlog);
+  }
+
   @Override
   public CatalogTracker getCatalogTracker() {
     return this.catalogTracker;
@@ -1978,12 +2117,18 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     if (this.nonceManagerChore != null) {
       Threads.shutdown(this.nonceManagerChore.getThread());
     }
+    if (this.rsQuotaManager != null && this.rsQuotaManager.getQuotaCache() != null) {
+      Threads.shutdown(this.rsQuotaManager.getQuotaCache().getThread());
+    }
     if (this.compactionChecker != null) {
       Threads.shutdown(this.compactionChecker.getThread());
     }
     if (this.periodicFlusher != null) {
       Threads.shutdown(this.periodicFlusher.getThread());
     }
+    if (this.readReplicaChore != null) {
+      Threads.shutdown(this.readReplicaChore.getThread());
+    }
     if (this.cacheFlusher != null) {
       this.cacheFlusher.join();
     }
@@ -1999,6 +2144,9 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     if (this.metaHLogRoller != null) {
       Threads.shutdown(this.metaHLogRoller.getThread());
     }
+    for (LogRoller roller : this.groupHLogRollers) {
+      Threads.shutdown(roller.getThread());
+    }
     if (this.compactSplitThread != null) {
       this.compactSplitThread.join();
     }
@@ -2236,6 +2384,46 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     }
   }
 
+  /**
+   * Closes the read replicas this server hosts.
+   * @param abort Whether we're running an abort.
+   */
+  void closeReadReplicas(final boolean abort) {
+    if (this.readReplicaChore != null) {
+      this.readReplicaChore.closeAllReplicas(abort);
+    }
+  }
+
+  /**
+   * @return the read replicas this server hosts
+   */
+  public Collection<HRegion> getReadReplicas() {
+    return Collections.unmodifiableCollection(this.replicaRegions.values());
+  }
+
+  /**
+   * Returns the region a read is addressed to. If this server does not host the region but
+   * a read replica of it, timeline consistent reads are served by the replica.
+   * @param regionSpecifier the region the read is addressed to
+   * @param consistency the consistency the read asks for
+   * @return the online region or its read replica
+   * @throws NotServingRegionException if neither is hosted here
+   */
+  protected HRegion getRegionForRead(final RegionSpecifier regionSpecifier,
+      final Consistency consistency) throws IOException {
+    try {
+      return getRegion(regionSpecifier);
+    } catch (NotServingRegionException e) {
+      if (consistency != Consistency.TIMELINE) throw e;
+      byte[] value = regionSpecifier.getValue().toByteArray();
+      String encodedName = regionSpecifier.getType() == RegionSpecifierType.ENCODED_REGION_NAME
+        ? Bytes.toString(value) : HRegionInfo.encodeRegionName(value);
+      HRegion replica = this.replicaRegions.get(encodedName);
+      if (replica == null) throw e;
+      return replica;
+    }
+  }
+
   /** @return the info server */
   public InfoServer getInfoServer() {
     return infoServer;
@@ -2597,7 +2785,8 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         LOG.info("Scanner " + this.scannerName + " lease expired on region "
             + s.getRegionInfo().getRegionNameAsString());
         try {
-          HRegion region = getRegion(s.getRegionInfo().getRegionName());
+          HRegion region = rsh.r.isReadReplica() ? rsh.r
+            : getRegion(s.getRegionInfo().getRegionName());
           if (region != null && region.getCoprocessorHost() != null) {
             region.getCoprocessorHost().preScannerClose(s);
           }
@@ -2764,7 +2953,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     HRegion toReturn = this.onlineRegions.remove(r.getRegionInfo().getEncodedName());
 
     if (destination != null) {
-      HLog wal = getWAL();
+      HLog wal = r.getLog() != null ? r.getLog() : getWAL();
       long closeSeqNum = wal.getEarliestMemstoreSeqNum(r.getRegionInfo().getEncodedNameAsBytes());
       if (closeSeqNum == HConstants.NO_SEQNUM) {
         // No edits in WAL for this region; get the sequence number when the region was opened.
@@ -2942,13 +3131,18 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
   public GetResponse get(final RpcController controller,
       final GetRequest request) throws ServiceException {
     long before = EnvironmentEdgeManager.currentTimeMillis();
+    OperationQuota quota = null;
     try {
       checkOpen();
       requestCount.increment();
-      HRegion region = getRegion(request.getRegion());
+      ClientProtos.Get get = request.getGet();
+      Get clientGet = ProtobufUtil.toGet(get);
+      HRegion region = getRegionForRead(request.getRegion(),
+        get.hasClosestRowBefore() && get.getClosestRowBefore() ? Consistency.STRONG
+          : clientGet.getConsistency());
+      quota = rsQuotaManager.checkQuota(region, OperationQuota.OperationType.GET);
 
       GetResponse.Builder builder = GetResponse.newBuilder();
-      ClientProtos.Get get = request.getGet();
       Boolean existence = null;
       Result r = null;
 
@@ -2962,7 +3156,6 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         byte[] family = get.getColumn(0).getFamily().toByteArray();
         r = region.getClosestRowBefore(row, family);
       } else {
-        Get clientGet = ProtobufUtil.toGet(get);
         if (get.getExistenceOnly() && region.getCoprocessorHost() != null) {
           existence = region.getCoprocessorHost().preExists(clientGet);
         }
@@ -2984,11 +3177,15 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         ClientProtos.Result pbr = ProtobufUtil.toResult(r);
         builder.setResult(pbr);
       }
+      quota.addGetResult(r);
       return builder.build();
     } catch (IOException ie) {
       throw new ServiceException(ie);
     } finally {
       metricsRegionServer.updateGet(EnvironmentEdgeManager.currentTimeMillis() - before);
+      if (quota != null) {
+        quota.close();
+      }
     }
   }
 
@@ -3009,10 +3206,12 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     CellScanner cellScanner = controller != null? controller.cellScanner(): null;
     // Clear scanner so we are not holding on to reference across call.
     if (controller != null) controller.setCellScanner(null);
+    OperationQuota quota = null;
     try {
       checkOpen();
       requestCount.increment();
       HRegion region = getRegion(request.getRegion());
+      quota = rsQuotaManager.checkQuota(region, OperationQuota.OperationType.MUTATE);
       MutateResponse.Builder builder = MutateResponse.newBuilder();
       MutationProto mutation = request.getMutation();
       if (!region.getRegionInfo().isMetaTable()) {
@@ -3034,6 +3233,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         break;
       case PUT:
         Put put = ProtobufUtil.toPut(mutation, cellScanner);
+        quota.addMutation(put);
         if (request.hasCondition()) {
           Condition condition = request.getCondition();
           byte[] row = condition.getRow().toByteArray();
@@ -3062,6 +3262,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         break;
       case DELETE:
         Delete delete = ProtobufUtil.toDelete(mutation, cellScanner);
+        quota.addMutation(delete);
         if (request.hasCondition()) {
           Condition condition = request.getCondition();
           byte[] row = condition.getRow().toByteArray();
@@ -3098,6 +3299,10 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     } catch (IOException ie) {
       checkFileSystem();
       throw new ServiceException(ie);
+    } finally {
+      if (quota != null) {
+        quota.close();
+      }
     }
   }
 
@@ -3138,6 +3343,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
   throws ServiceException {
     Leases.Lease lease = null;
     String scannerName = null;
+    OperationQuota quota = null;
     try {
       if (!request.hasScannerId() && !request.hasScan()) {
         throw new DoNotRetryIOException(
@@ -3188,16 +3394,24 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         }
         scanner = rsh.s;
         HRegionInfo hri = scanner.getRegionInfo();
-        region = getRegion(hri.getRegionName());
+        region = rsh.r.isReadReplica() ? this.replicaRegions.get(hri.getEncodedName())
+          : getRegion(hri.getRegionName());
         if (region != rsh.r) { // Yes, should be the same instance
           throw new NotServingRegionException("Region was re-opened after the scanner"
             + scannerName + " was created: " + hri.getRegionNameAsString());
         }
+        // Before the nextCallSeq is bumped, for the client to retry the same call
+        if (rows > 0) {
+          quota = rsQuotaManager.checkQuota(region, OperationQuota.OperationType.SCAN);
+        }
       } else {
-        region = getRegion(request.getRegion());
         ClientProtos.Scan protoScan = request.getScan();
         boolean isLoadingCfsOnDemandSet = protoScan.hasLoadColumnFamiliesOnDemand();
         Scan scan = ProtobufUtil.toScan(protoScan);
+        region = getRegionForRead(request.getRegion(), scan.getConsistency());
+        if (rows > 0) {
+          quota = rsQuotaManager.checkQuota(region, OperationQuota.OperationType.SCAN);
+        }
         // if the request doesn't set this, get the default region setting.
         if (!isLoadingCfsOnDemandSet) {
           scan.setLoadColumnFamiliesOnDemand(region.isLoadingCfsOnDemandDefault());
@@ -3273,6 +3487,14 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
               maxResultSize = maxScannerResultSize;
             }
             List<Cell> values = new ArrayList<Cell>();
+            // Scans opened by the client scanner hear from us before they time out, and get big
+            // rows in parts. Not so for small scans, which close the scanner in the same call.
+            HRegion.RegionScannerImpl limitedScanner =
+                !closeScanner && scanner instanceof HRegion.RegionScannerImpl
+                    ? (HRegion.RegionScannerImpl) scanner : null;
+            long heartbeatDeadline = EnvironmentEdgeManager.currentTimeMillis()
+                + Math.min(scannerLeaseTimeoutPeriod, rpcTimeout) / 2;
+            boolean heartbeats = false;
             region.startRegionOperation(Operation.SCAN);
             try {
               int i = 0;
@@ -3285,6 +3507,10 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
                     builder.setMoreResultsInRegion(true);
                     break;
                   }
+                  if (limitedScanner != null) {
+                    heartbeats = limitedScanner.setScanLimits(heartbeatDeadline,
+                      maxResultSize < Long.MAX_VALUE ? maxResultSize - currentScanResultSize : 0);
+                  }
                   // Collect values to be returned here
                   moreRows = scanner.nextRaw(values);
                   if (!values.isEmpty()) {
@@ -3299,8 +3525,15 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
                   if (!moreRows) {
                     break;
                   }
+                  if (values.isEmpty() && heartbeats) {
+                    // Nothing but a heartbeat: the client hears from us before it times out
+                    break;
+                  }
                   values.clear();
                 }
+                if (limitedScanner != null) {
+                  limitedScanner.setScanLimits(0, 0);
+                }
                 if (currentScanResultSize >= maxResultSize || i >= rows || moreRows) {
                   // We stopped prematurely
                   builder.setMoreResultsInRegion(true);
@@ -3324,6 +3557,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
           // If the scanner's filter - if any - is done with the scan
           // and wants to tell the client to stop the scan. This is done by passing
           // a null result, and setting moreResults to false.
+          quota.addScanResult(results);
           if (scanner.isFilterDone() && results.isEmpty()) {
             moreResults = false;
             results = null;
@@ -3380,6 +3614,10 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         }
       }
       throw new ServiceException(ie);
+    } finally {
+      if (quota != null) {
+        quota.close();
+      }
     }
   }
 
@@ -3565,9 +3803,11 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     for (RegionAction regionAction : request.getRegionActionList()) {
       this.requestCount.add(regionAction.getActionCount());
       HRegion region;
+      OperationQuota quota;
       regionActionResultBuilder.clear();
       try {
         region = getRegion(regionAction.getRegion());
+        quota = rsQuotaManager.checkQuota(region, regionAction.getActionList());
       } catch (IOException e) {
         regionActionResultBuilder.setException(ResponseConverter.buildException(e));
         responseBuilder.addRegionActionResult(regionActionResultBuilder.build());
@@ -3604,9 +3844,10 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         }
       } else {
         // doNonAtomicRegionMutation manages the exception internally
-        cellsToReturn = doNonAtomicRegionMutation(region, regionAction, cellScanner,
+        cellsToReturn = doNonAtomicRegionMutation(region, quota, regionAction, cellScanner,
             regionActionResultBuilder, cellsToReturn, nonceGroup);
       }
+      quota.close();
       responseBuilder.addRegionActionResult(regionActionResultBuilder.build());
     }
     // Load the controller with the Cells to return.
@@ -3621,6 +3862,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
    * Run through the regionMutation <code>rm</code> and per Mutation, do the work, and then when
    * done, add an instance of a {@link ResultOrException} that corresponds to each Mutation.
    * @param region
+   * @param quota the quota of the actions, to add what they read and wrote to
    * @param actions
    * @param cellScanner
    * @param builder
@@ -3629,7 +3871,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
    * @return Return the <code>cellScanner</code> passed
    */
   private List<CellScannable> doNonAtomicRegionMutation(final HRegion region,
-      final RegionAction actions, final CellScanner cellScanner,
+      final OperationQuota quota, final RegionAction actions, final CellScanner cellScanner,
       final RegionActionResult.Builder builder, List<CellScannable> cellsToReturn, long nonceGroup) {
     // Gather up CONTIGUOUS Puts and Deletes in this mutations List.  Idea is that rather than do
     // one at a time, we instead pass them in batch.  Be aware that the corresponding
@@ -3643,6 +3885,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
         if (action.hasGet()) {
           Get get = ProtobufUtil.toGet(action.getGet());
           r = region.get(get);
+          quota.addGetResult(r);
         } else if (action.hasServiceCall()) {
           resultOrExceptionBuilder = ResultOrException.newBuilder();
           try {
@@ -3662,7 +3905,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
           if (type != MutationType.PUT && type != MutationType.DELETE && mutations != null &&
               !mutations.isEmpty()) {
             // Flush out any Puts or Deletes already collected.
-            doBatchOp(builder, region, mutations, cellScanner);
+            doBatchOp(builder, region, quota, mutations, cellScanner);
             mutations.clear();
           }
           switch (type) {
@@ -3715,7 +3958,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     }
     // Finish up any outstanding mutations
     if (mutations != null && !mutations.isEmpty()) {
-      doBatchOp(builder, region, mutations, cellScanner);
+      doBatchOp(builder, region, quota, mutations, cellScanner);
     }
     return cellsToReturn;
   }
@@ -4328,12 +4571,13 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
       if (this.rsHost != null) {
         this.rsHost.preRollWALWriterRequest();
       }
-      HLog wal = this.getWAL();
-      byte[][] regionsToFlush = wal.rollWriter(true);
       RollWALWriterResponse.Builder builder = RollWALWriterResponse.newBuilder();
-      if (regionsToFlush != null) {
-        for (byte[] region: regionsToFlush) {
-          builder.addRegionToFlush(ByteStringer.wrap(region));
+      for (HLog wal : getWALs()) {
+        byte[][] regionsToFlush = wal.rollWriter(true);
+        if (regionsToFlush != null) {
+          for (byte[] region: regionsToFlush) {
+            builder.addRegionToFlush(ByteStringer.wrap(region));
+          }
         }
       }
       return builder.build();
@@ -4504,15 +4748,24 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
     return this.nonceManager;
   }
 
+  /**
+   * @return The manager enforcing the quotas on the operations of this region server
+   */
+  public RegionServerQuotaManager getRegionServerQuotaManager() {
+    return this.rsQuotaManager;
+  }
+
   /**
    * Execute a list of Put/Delete mutations.
    *
    * @param builder
    * @param region
+   * @param quota the quota of the mutations, to add what they write to
    * @param mutations
    */
   protected void doBatchOp(final RegionActionResult.Builder builder, final HRegion region,
-      final List<ClientProtos.Action> mutations, final CellScanner cells) {
+      final OperationQuota quota, final List<ClientProtos.Action> mutations,
+      final CellScanner cells) {
     Mutation[] mArray = new Mutation[mutations.size()];
     long before = EnvironmentEdgeManager.currentTimeMillis();
     boolean batchContainsPuts = false, batchContainsDelete = false;
@@ -4529,6 +4782,7 @@ public class HRegionServer implements ClientProtos.ClientService.BlockingInterfa
           batchContainsDelete = true;
         }
         mArray[i++] = mutation;
+        quota.addMutation(mutation);
       }
 
       if (!region.getRegionInfo().isMetaTable()) {
@@ -26,6 +26,7 @@ import java.security.KeyException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableSet;
@@ -38,6 +39,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -87,6 +89,7 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ChecksumType;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Threads;
 import org.apache.hadoop.util.StringUtils;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -128,12 +131,15 @@ public class HStore implements Store {
 
   static final Log LOG = LogFactory.getLog(HStore.class);
 
+  // Runs the in-memory compactions of the memstores of all stores
+  private static ThreadPoolExecutor inMemoryCompactionPool;
+
   protected final MemStore memstore;
   // This stores directory in the filesystem.
   private final HRegion region;
   private final HColumnDescriptor family;
   private final HRegionFileSystem fs;
-  private final Configuration conf;
+  protected final Configuration conf;
   private final CacheConfig cacheConf;
   private long lastCompactSize = 0;
   volatile boolean forceMajor = false;
@@ -240,7 +246,7 @@ public class HStore implements Store {
     this.offPeakHours = OffPeakHours.getInstance(conf);
 
     // Setting up cache configuration for this family
-    this.cacheConf = new CacheConfig(conf, family);
+    this.cacheConf = new CacheConfig(conf, region.getTableDesc(), family);
 
     this.verifyBulkLoads = conf.getBoolean("hbase.hstore.bulkload.verify", false);
 
@@ -259,7 +265,7 @@ public class HStore implements Store {
           "hbase.hstore.close.check.interval", 10*1000*1000 /* 10 MB */);
     }
 
-    this.storeEngine = StoreEngine.create(this, this.conf, this.comparator);
+    this.storeEngine = createStoreEngine(this, this.conf, this.comparator);
     this.storeEngine.getStoreFileManager().loadFiles(loadStoreFiles());
 
     // Initialize checksum type from name. The names are CRC32, CRC32C, etc.
@@ -485,6 +491,19 @@ public class HStore implements Store {
     this.dataBlockEncoder = blockEncoder;
   }
 
+  /**
+   * Creates the store engine, called from the constructor before the store files are loaded.
+   * @param store The store. An unfortunate dependency needed due to it
+   *              being passed to coprocessors via the compactor.
+   * @param conf Store configuration.
+   * @param kvComparator KVComparator for storeFileManager.
+   * @return StoreEngine to use.
+   */
+  protected StoreEngine<?, ?, ?, ?> createStoreEngine(Store store, Configuration conf,
+      KeyValue.KVComparator kvComparator) throws IOException {
+    return StoreEngine.create(store, conf, kvComparator);
+  }
+
   /**
    * Creates an unsorted list of StoreFile loaded in parallel
    * from the given directory.
@@ -571,12 +590,63 @@ public class HStore implements Store {
 
   @Override
   public long add(final KeyValue kv) {
+    long delta;
     lock.readLock().lock();
     try {
-      return this.memstore.add(kv);
+      delta = this.memstore.add(kv);
     } finally {
       lock.readLock().unlock();
     }
+    maybeCompactMemStoreInMemory();
+    return delta;
+  }
+
+  /**
+   * Merge the memstore into its flat segment in the background if it has
+   * grown past the in-memory compaction threshold.  Only freezing the
+   * memstore happens under the write lock; the merge does not hold up
+   * writers, and the change in memstore size is accounted to the region when
+   * it is done.
+   */
+  private void maybeCompactMemStoreInMemory() {
+    if (!this.memstore.shouldCompactInMemory()) {
+      return;
+    }
+    this.lock.writeLock().lock();
+    try {
+      // Another writer may have done it while we waited for the lock
+      if (!this.memstore.shouldCompactInMemory() ||
+          !this.memstore.startInMemoryCompaction()) {
+        return;
+      }
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+    getInMemoryCompactionPool(this.conf).execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          long delta = memstore.compactInMemory();
+          if (delta != 0) {
+            region.addAndGetGlobalMemstoreSize(delta);
+          }
+        } catch (Throwable t) {
+          // The pipeline stays in the memstore until the next flush
+          LOG.warn("In-memory compaction of " + HStore.this + " failed", t);
+        }
+      }
+    });
+  }
+
+  private static synchronized ThreadPoolExecutor getInMemoryCompactionPool(
+      final Configuration conf) {
+    if (inMemoryCompactionPool == null) {
+      int threads = conf.getInt(MemStore.INMEMORY_COMPACTION_THREADS_KEY,
+        MemStore.INMEMORY_COMPACTION_THREADS_DEFAULT);
+      inMemoryCompactionPool = Threads.getBoundedCachedThreadPool(threads, 60,
+        TimeUnit.SECONDS, Threads.newDaemonThreadFactory("MemStoreInMemoryCompaction"));
+    }
+    return inMemoryCompactionPool;
   }
 
   @Override
@@ -591,12 +661,15 @@ public class HStore implements Store {
    * @return memstore size delta
    */
   protected long delete(final KeyValue kv) {
+    long delta;
     lock.readLock().lock();
     try {
-      return this.memstore.delete(kv);
+      delta = this.memstore.delete(kv);
     } finally {
       lock.readLock().unlock();
     }
+    maybeCompactMemStoreInMemory();
+    return delta;
   }
 
   @Override
@@ -906,8 +979,7 @@ public class HStore implements Store {
       favoredNodes = region.getRegionServerServices().getFavoredNodesForRegion(
           region.getRegionInfo().getEncodedName());
     }
-    HFileContext hFileContext = createFileContext(compression, includeMVCCReadpoint, includesTag,
-      cryptoContext);
+    HFileContext hFileContext = createFileContext(compression, includeMVCCReadpoint, includesTag);
     StoreFile.Writer w = new StoreFile.WriterBuilder(conf, writerCacheConf,
         this.getFileSystem())
             .withFilePath(fs.createTempName())
@@ -920,8 +992,11 @@ public class HStore implements Store {
     return w;
   }
 
-  private HFileContext createFileContext(Compression.Algorithm compression,
-      boolean includeMVCCReadpoint, boolean includesTag, Encryption.Context cryptoContext) {
+  /**
+   * Creates the context of a new file of this store.
+   */
+  protected HFileContext createFileContext(Compression.Algorithm compression,
+      boolean includeMVCCReadpoint, boolean includesTag) {
     if (compression == null) {
       compression = HFile.DEFAULT_COMPRESSION_ALGORITHM;
     }
@@ -1599,6 +1674,70 @@ public class HStore implements Store {
     }
   }
 
+  /**
+   * Reloads the list of store files from the file system, opening the files that appeared
+   * and dropping the ones that are gone. Used by read replicas, which do not write files
+   * themselves, to pick up the flushes, compactions and bulk loads of the primary region.
+   * @return true if the list of store files changed
+   */
+  boolean refreshStoreFiles() throws IOException {
+    Collection<StoreFileInfo> infos = fs.getStoreFiles(getColumnFamilyName());
+    Set<Path> paths = new HashSet<Path>();
+    List<StoreFileInfo> toOpen = new ArrayList<StoreFileInfo>();
+    Set<Path> current = new HashSet<Path>();
+    for (StoreFile sf : this.storeEngine.getStoreFileManager().getStorefiles()) {
+      current.add(sf.getPath());
+    }
+    if (infos != null) {
+      for (StoreFileInfo info : infos) {
+        paths.add(info.getPath());
+        if (!current.contains(info.getPath())) {
+          toOpen.add(info);
+        }
+      }
+    }
+    List<StoreFile> removed = new ArrayList<StoreFile>();
+    for (StoreFile sf : this.storeEngine.getStoreFileManager().getStorefiles()) {
+      if (!paths.contains(sf.getPath())) {
+        removed.add(sf);
+      }
+    }
+    if (toOpen.isEmpty() && removed.isEmpty()) {
+      return false;
+    }
+    List<StoreFile> opened = new ArrayList<StoreFile>(toOpen.size());
+    try {
+      for (StoreFileInfo info : toOpen) {
+        opened.add(createStoreFileAndReader(info));
+      }
+    } catch (IOException e) {
+      for (StoreFile sf : opened) {
+        sf.closeReader(true);
+      }
+      throw e;
+    }
+    replaceStoreFiles(removed, opened);
+    // As in completeCompaction, move the scanners over before closing the old readers.
+    notifyChangedReadersObservers();
+    for (StoreFile sf : removed) {
+      sf.closeReader(true);
+    }
+    long size = 0L;
+    long uncompressed = 0L;
+    for (StoreFile sf : this.storeEngine.getStoreFileManager().getStorefiles()) {
+      StoreFile.Reader r = sf.getReader();
+      if (r != null) {
+        size += r.length();
+        uncompressed += r.getTotalUncompressedBytes();
+      }
+    }
+    this.storeSize = size;
+    this.totalUncompressedBytes = uncompressed;
+    LOG.info("Refreshed store files of " + this + ", added=" + opened.size() +
+      ", removed=" + removed.size());
+    return true;
+  }
+
   /*
    * @param wantedVersions How many versions were asked for.
    * @return wantedVersions or this families' {@link HConstants#VERSIONS}.
@@ -2047,13 +2186,16 @@ public class HStore implements Store {
       memstore.snapshot();
       this.snapshot = memstore.getSnapshot();
       this.snapshotTimeRangeTracker = memstore.getSnapshotTimeRangeTracker();
-      this.flushedCount = this.snapshot.size();
     }
 
     @Override
     public void flushCache(MonitoredTask status) throws IOException {
+      // Merge the segments of the snapshot here rather than in prepare(),
+      // which runs while the region blocks updates
+      SortedSet<KeyValue> toFlush = memstore.getSnapshotForFlush();
+      this.flushedCount = toFlush.size();
       tempFiles = HStore.this.flushCache(
-        cacheFlushSeqNum, snapshot, snapshotTimeRangeTracker, flushedSize, status);
+        cacheFlushSeqNum, toFlush, snapshotTimeRangeTracker, flushedSize, status);
     }
 
     @Override
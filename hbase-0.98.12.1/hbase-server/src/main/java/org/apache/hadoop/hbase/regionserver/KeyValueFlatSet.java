@@ -0,0 +1,644 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * An immutable, sorted {@link java.util.Set} of {@link KeyValue}s kept in a
+ * flat cell index rather than in a skip list.
+ * <p>
+ * This is the segment in-memory compaction of the {@link MemStore} produces.
+ * Instead of a skip list node plus a KeyValue object per cell, a cell costs
+ * four array slots: the buffer it lives in, its offset, its length and its
+ * memstoreTS. Cell data is either referenced where it already lives (the
+ * MSLAB chunks of the active set) or copied into the chunks of a
+ * {@link MemStoreLAB}, which may be off-heap. KeyValues are materialized on
+ * access; for off-heap data that implies a copy out of direct memory. Lookups
+ * only compare keys, read in place, and only materialize the cells they
+ * return.
+ * <p>
+ * The set is built once, in order, by {@link #merge}. The only mutation it
+ * supports afterwards is {@link #remove(Object)}, which marks a cell deleted;
+ * MemStore needs that for rollback and for the cleanup of expired cells.
+ * Views returned by {@link #headSet} and {@link #tailSet} share the index.
+ */
+@InterfaceAudience.Private
+public class KeyValueFlatSet implements NavigableSet<KeyValue>, HeapSize {
+
+  /** Index overhead of a single cell: buffer index, offset, length, memstoreTS */
+  static final long PER_CELL_OVERHEAD = 3 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG;
+
+  static final long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT
+      + 8 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG
+      + 5 * ClassSize.ARRAY);
+
+  private final Segment segment;
+  // Index range of this view, lower inclusive, upper exclusive
+  private final int lower;
+  private final int upper;
+
+  private KeyValueFlatSet(final Segment segment, final int lower, final int upper) {
+    this.segment = segment;
+    this.lower = lower;
+    this.upper = upper;
+  }
+
+  /**
+   * @param c comparator
+   * @return an empty set
+   */
+  static KeyValueFlatSet empty(final KeyValue.KVComparator c) {
+    return new Builder(c, 0, null).build();
+  }
+
+  /**
+   * Merge a flat set with a newer set of KeyValues into a new flat set. The
+   * data of the older set is referenced, never copied. If a KeyValue exists
+   * in both sets, the one from the newer set wins.
+   * @param c comparator
+   * @param older the current flat set; its allocators are handed over to the
+   * result, so it must not be closed afterwards
+   * @param newer sorted KeyValues to fold in
+   * @param newerAllocator allocator backing <code>newer</code>, retained by
+   * the result if the data of <code>newer</code> is referenced; may be null
+   * @param copyTo if not null, the data of <code>newer</code> is copied into
+   * this allocator instead of being referenced
+   * @return the merged set
+   */
+  static KeyValueFlatSet merge(final KeyValue.KVComparator c,
+      final KeyValueFlatSet older, final SortedSet<KeyValue> newer,
+      final MemStoreLAB newerAllocator, final MemStoreLAB copyTo) {
+    Builder builder = new Builder(c, older.size() + newer.size(), copyTo);
+    Segment os = older.segment;
+    Probe probe = os.newProbe();
+    int i = older.nextLive(older.lower);
+    Iterator<KeyValue> it = newer.iterator();
+    KeyValue n = it.hasNext() ? it.next() : null;
+    while (i < older.upper || n != null) {
+      int cmp;
+      if (i >= older.upper) {
+        cmp = 1;
+      } else if (n == null) {
+        cmp = -1;
+      } else {
+        cmp = os.compare(i, n, probe);
+      }
+      if (cmp < 0) {
+        builder.add(os, i);
+        i = older.nextLive(i + 1);
+      } else {
+        if (cmp == 0) {
+          // Same key and memstoreTS, the newer write overwrites as in the skip list
+          i = older.nextLive(i + 1);
+        }
+        builder.add(n);
+        n = it.hasNext() ? it.next() : null;
+      }
+    }
+    builder.retain(os.allocators);
+    if (copyTo == null && newerAllocator != null) {
+      builder.retain(Collections.singletonList(newerAllocator));
+    }
+    return builder.build();
+  }
+
+  /**
+   * Called when opening a scanner on this set
+   */
+  void incScannerCount() {
+    for (MemStoreLAB allocator : segment.allocators) {
+      allocator.incScannerCount();
+    }
+  }
+
+  /**
+   * Called when closing a scanner on this set
+   */
+  void decScannerCount() {
+    for (MemStoreLAB allocator : segment.allocators) {
+      allocator.decScannerCount();
+    }
+  }
+
+  /**
+   * Release the memory this set holds once it is no longer used. The chunks
+   * go back to the pool when the last open scanner closes.
+   */
+  void close() {
+    for (MemStoreLAB allocator : segment.allocators) {
+      allocator.close();
+    }
+  }
+
+  /**
+   * @return the estimated memory held by the cells of the whole index,
+   * including data kept off-heap
+   */
+  @Override
+  public long heapSize() {
+    return segment.heapSize;
+  }
+
+  /**
+   * @return true if some of the cell data lives in direct memory
+   */
+  boolean isOffheap() {
+    return segment.offheap;
+  }
+
+  private int nextLive(int i) {
+    if (segment.removed.isEmpty()) {
+      return i;
+    }
+    while (i < upper && segment.removed.contains(i)) {
+      i++;
+    }
+    return i;
+  }
+
+  private int previousLive(int i) {
+    if (segment.removed.isEmpty()) {
+      return i;
+    }
+    while (i >= lower && segment.removed.contains(i)) {
+      i--;
+    }
+    return i;
+  }
+
+  /**
+   * @return index of the first cell of this view not smaller than
+   * <code>key</code> (or bigger, if not inclusive)
+   */
+  private int search(final KeyValue key, final boolean inclusive) {
+    Probe probe = segment.newProbe();
+    int low = lower;
+    int high = upper;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int cmp = segment.compare(mid, key, probe);
+      if (cmp < 0 || (cmp == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  public KeyValue ceiling(KeyValue e) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public Iterator<KeyValue> descendingIterator() {
+    return new DescendingIterator();
+  }
+
+  public NavigableSet<KeyValue> descendingSet() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public KeyValue floor(KeyValue e) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public SortedSet<KeyValue> headSet(final KeyValue toElement) {
+    return headSet(toElement, false);
+  }
+
+  public NavigableSet<KeyValue> headSet(final KeyValue toElement,
+      boolean inclusive) {
+    return new KeyValueFlatSet(segment, lower, search(toElement, !inclusive));
+  }
+
+  public KeyValue higher(KeyValue e) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public Iterator<KeyValue> iterator() {
+    return new AscendingIterator();
+  }
+
+  public KeyValue lower(KeyValue e) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public KeyValue pollFirst() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public KeyValue pollLast() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public SortedSet<KeyValue> subSet(KeyValue fromElement, KeyValue toElement) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public NavigableSet<KeyValue> subSet(KeyValue fromElement,
+      boolean fromInclusive, KeyValue toElement, boolean toInclusive) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public SortedSet<KeyValue> tailSet(KeyValue fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  public NavigableSet<KeyValue> tailSet(KeyValue fromElement, boolean inclusive) {
+    return new KeyValueFlatSet(segment, search(fromElement, inclusive), upper);
+  }
+
+  public Comparator<? super KeyValue> comparator() {
+    return segment.comparator;
+  }
+
+  public KeyValue first() {
+    int i = nextLive(lower);
+    if (i >= upper) {
+      throw new NoSuchElementException();
+    }
+    return segment.get(i);
+  }
+
+  public KeyValue last() {
+    int i = previousLive(upper - 1);
+    if (i < lower) {
+      throw new NoSuchElementException();
+    }
+    return segment.get(i);
+  }
+
+  public boolean add(KeyValue e) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean addAll(Collection<? extends KeyValue> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public void clear() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean contains(Object o) {
+    return o instanceof KeyValue && get((KeyValue) o) != null;
+  }
+
+  public boolean containsAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean isEmpty() {
+    return nextLive(lower) >= upper;
+  }
+
+  public boolean remove(Object o) {
+    if (!(o instanceof KeyValue)) {
+      return false;
+    }
+    int i = search((KeyValue) o, true);
+    if (i < upper && segment.compare(i, (KeyValue) o, segment.newProbe()) == 0) {
+      return segment.removed.add(i);
+    }
+    return false;
+  }
+
+  public boolean removeAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean retainAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public KeyValue get(KeyValue kv) {
+    int i = search(kv, true);
+    if (i < upper && !segment.removed.contains(i)
+        && segment.compare(i, kv, segment.newProbe()) == 0) {
+      return segment.get(i);
+    }
+    return null;
+  }
+
+  public int size() {
+    if (segment.removed.isEmpty()) {
+      return upper - lower;
+    }
+    return upper - lower - segment.removed.subSet(lower, upper).size();
+  }
+
+  public Object[] toArray() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public <T> T[] toArray(T[] a) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  private class AscendingIterator implements Iterator<KeyValue> {
+    private int next = nextLive(lower);
+    private int last = -1;
+
+    @Override
+    public boolean hasNext() {
+      return next < upper;
+    }
+
+    @Override
+    public KeyValue next() {
+      if (next >= upper) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      next = nextLive(next + 1);
+      return segment.get(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      segment.removed.add(last);
+      last = -1;
+    }
+  }
+
+  private class DescendingIterator implements Iterator<KeyValue> {
+    private int next = previousLive(upper - 1);
+    private int last = -1;
+
+    @Override
+    public boolean hasNext() {
+      return next >= lower;
+    }
+
+    @Override
+    public KeyValue next() {
+      if (next < lower) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      next = previousLive(next - 1);
+      return segment.get(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      segment.removed.add(last);
+      last = -1;
+    }
+  }
+
+  /**
+   * The cell index shared by a set and all of its views.
+   */
+  private static final class Segment {
+    private final KeyValue.KVComparator comparator;
+    private final ByteBuffer[] buffers;
+    private final int[] bufferIndexes;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final long[] mvccVersions;
+    private final List<MemStoreLAB> allocators;
+    private final long heapSize;
+    private final boolean offheap;
+    // Cells removed after the segment was built; rare, so kept out of the index
+    private final ConcurrentSkipListSet<Integer> removed =
+        new ConcurrentSkipListSet<Integer>();
+
+    Segment(KeyValue.KVComparator comparator, ByteBuffer[] buffers,
+        int[] bufferIndexes, int[] offsets, int[] lengths, long[] mvccVersions,
+        List<MemStoreLAB> allocators, long heapSize, boolean offheap) {
+      this.comparator = comparator;
+      this.buffers = buffers;
+      this.bufferIndexes = bufferIndexes;
+      this.offsets = offsets;
+      this.lengths = lengths;
+      this.mvccVersions = mvccVersions;
+      this.allocators = allocators;
+      this.heapSize = heapSize;
+      this.offheap = offheap;
+    }
+
+    KeyValue get(int i) {
+      ByteBuffer buffer = buffers[bufferIndexes[i]];
+      KeyValue kv;
+      if (buffer.hasArray()) {
+        kv = new KeyValue(buffer.array(), buffer.arrayOffset() + offsets[i], lengths[i]);
+      } else {
+        byte[] copy = new byte[lengths[i]];
+        ByteBuffer dup = buffer.duplicate();
+        dup.position(offsets[i]);
+        dup.get(copy);
+        kv = new KeyValue(copy, 0, copy.length);
+      }
+      kv.setMvccVersion(mvccVersions[i]);
+      return kv;
+    }
+
+    /**
+     * @return scratch space for the comparisons of one lookup, null if no key
+     * needs copying out of direct memory
+     */
+    Probe newProbe() {
+      return offheap ? new Probe() : null;
+    }
+
+    /**
+     * Compares the cell at <code>i</code> with <code>kv</code> as the comparator
+     * compares KeyValues, without materializing the cell: its key is read in
+     * place, or copied into <code>probe</code> if off-heap. Only when the keys
+     * are equal, where log replay tags and memstoreTS decide, is the whole
+     * cell materialized.
+     */
+    int compare(int i, KeyValue kv, Probe probe) {
+      ByteBuffer buffer = buffers[bufferIndexes[i]];
+      int offset = offsets[i];
+      byte[] key;
+      int keyOffset;
+      int keyLength;
+      if (buffer.hasArray()) {
+        key = buffer.array();
+        offset += buffer.arrayOffset();
+        keyLength = Bytes.toInt(key, offset);
+        keyOffset = offset + KeyValue.ROW_OFFSET;
+      } else {
+        keyLength = buffer.getInt(offset);
+        key = probe.read(buffer, offset + KeyValue.ROW_OFFSET, keyLength);
+        keyOffset = 0;
+      }
+      int cmp = comparator.compareFlatKey(key, keyOffset, keyLength,
+          kv.getBuffer(), kv.getKeyOffset(), kv.getKeyLength());
+      return cmp != 0 ? cmp : comparator.compare(get(i), kv);
+    }
+  }
+
+  /**
+   * Scratch space for the off-heap keys one lookup compares, reused from probe
+   * to probe.
+   */
+  private static final class Probe {
+    private byte[] key;
+
+    byte[] read(ByteBuffer buffer, int offset, int length) {
+      if (key == null || key.length < length) {
+        key = new byte[Math.max(length, 64)];
+      }
+      for (int j = 0; j < length; j++) {
+        key[j] = buffer.get(offset + j);
+      }
+      return key;
+    }
+  }
+
+  /**
+   * Accumulates sorted cells into a new segment.
+   */
+  private static class Builder {
+    private final KeyValue.KVComparator comparator;
+    private final MemStoreLAB copyTo;
+    private final Map<Object, Integer> bufferIds = new IdentityHashMap<Object, Integer>();
+    private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    private final List<MemStoreLAB> allocators = new ArrayList<MemStoreLAB>();
+    private int[] bufferIndexes;
+    private int[] offsets;
+    private int[] lengths;
+    private long[] mvccVersions;
+    private int count = 0;
+    private long dataSize = 0;
+    private boolean offheap = false;
+
+    Builder(KeyValue.KVComparator comparator, int expectedCount, MemStoreLAB copyTo) {
+      this.comparator = comparator;
+      this.copyTo = copyTo;
+      this.bufferIndexes = new int[expectedCount];
+      this.offsets = new int[expectedCount];
+      this.lengths = new int[expectedCount];
+      this.mvccVersions = new long[expectedCount];
+      if (copyTo != null) {
+        this.allocators.add(copyTo);
+      }
+    }
+
+    /**
+     * Add a KeyValue, copying its data into the target allocator if any.
+     */
+    void add(KeyValue kv) {
+      int len = kv.getLength();
+      Allocation alloc = copyTo == null ? null : copyTo.allocateBytes(len);
+      if (alloc == null) {
+        // Not copying, or too large for the allocator; reference in place
+        add(kv.getBuffer(), null, kv.getOffset(), len, kv.getMvccVersion());
+        return;
+      }
+      ByteBuffer dup = alloc.getBuffer().duplicate();
+      dup.position(alloc.getOffset());
+      dup.put(kv.getBuffer(), kv.getOffset(), len);
+      add(alloc.getBuffer(), alloc.getBuffer(), alloc.getOffset(), len,
+          kv.getMvccVersion());
+    }
+
+    /**
+     * Add a cell of another segment by reference.
+     */
+    void add(Segment other, int i) {
+      ByteBuffer buffer = other.buffers[other.bufferIndexes[i]];
+      add(buffer, buffer, other.offsets[i], other.lengths[i], other.mvccVersions[i]);
+    }
+
+    private void add(Object owner, ByteBuffer buffer, int offset, int length, long mvcc) {
+      Integer id = bufferIds.get(owner);
+      if (id == null) {
+        id = buffers.size();
+        if (buffer == null) {
+          buffer = ByteBuffer.wrap((byte[]) owner);
+        }
+        offheap |= !buffer.hasArray();
+        buffers.add(buffer);
+        bufferIds.put(owner, id);
+      }
+      if (count == offsets.length) {
+        grow();
+      }
+      bufferIndexes[count] = id;
+      offsets[count] = offset;
+      lengths[count] = length;
+      mvccVersions[count] = mvcc;
+      count++;
+      dataSize += ClassSize.align(length);
+    }
+
+    private void grow() {
+      int newLength = Math.max(16, count * 2);
+      bufferIndexes = Arrays.copyOf(bufferIndexes, newLength);
+      offsets = Arrays.copyOf(offsets, newLength);
+      lengths = Arrays.copyOf(lengths, newLength);
+      mvccVersions = Arrays.copyOf(mvccVersions, newLength);
+    }
+
+    void retain(List<MemStoreLAB> labs) {
+      for (MemStoreLAB lab : labs) {
+        if (!allocators.contains(lab)) {
+          allocators.add(lab);
+        }
+      }
+    }
+
+    KeyValueFlatSet build() {
+      if (count < offsets.length) {
+        bufferIndexes = Arrays.copyOf(bufferIndexes, count);
+        offsets = Arrays.copyOf(offsets, count);
+        lengths = Arrays.copyOf(lengths, count);
+        mvccVersions = Arrays.copyOf(mvccVersions, count);
+      }
+      long heapSize = FIXED_OVERHEAD + dataSize
+          + ClassSize.align(count * PER_CELL_OVERHEAD)
+          + buffers.size() * ClassSize.align(ClassSize.BYTE_BUFFER + ClassSize.REFERENCE);
+      Segment segment = new Segment(comparator,
+          buffers.toArray(new ByteBuffer[buffers.size()]), bufferIndexes, offsets,
+          lengths, mvccVersions, allocators, heapSize, offheap);
+      return new KeyValueFlatSet(segment, 0, count);
+    }
+  }
+}
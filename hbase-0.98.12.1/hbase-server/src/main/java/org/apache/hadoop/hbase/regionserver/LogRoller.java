@@ -53,6 +53,8 @@ class LogRoller extends HasThread implements WALActionsListener {
   // Period to roll log.
   private final long rollperiod;
   private final int threadWakeFrequency;
+  // HLog to roll; the region server's default one if null
+  private volatile HLog wal;
 
   /** @param server */
   public LogRoller(final Server server, final RegionServerServices services) {
@@ -130,7 +132,7 @@ class LogRoller extends HasThread implements WALActionsListener {
     if (r != null) {
       requester = this.services.getFlushRequester();
       if (requester != null) {
-        requester.requestFlush(r);
+        requester.requestFlush(r, true);
         scheduled = true;
       }
     }
@@ -161,8 +163,17 @@ class LogRoller extends HasThread implements WALActionsListener {
     }
   }
 
+  /**
+   * Have this roller take care of the passed HLog rather than the region server's
+   * default one. Used for the additional WAL groups, which get a roller each.
+   */
+  void setWAL(final HLog wal) {
+    this.wal = wal;
+  }
+
   protected HLog getWAL() throws IOException {
-    return this.services.getWAL(null);
+    HLog log = this.wal;
+    return log != null ? log : this.services.getWAL(null);
   }
 
   @Override
@@ -23,6 +23,7 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.rmi.UnexpectedException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -45,6 +46,7 @@ import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.util.StringUtils;
 import org.cloudera.htrace.Trace;
 
 /**
@@ -57,6 +59,17 @@ import org.cloudera.htrace.Trace;
  * The MemStore functions should not be called in parallel. Callers should hold
  *  write and read locks. This is done in {@link HStore}.
  *  </p>
+ * <p>
+ * With in-memory compaction enabled, the current memstore is periodically
+ * merged into an immutable {@link KeyValueFlatSet} once it grows past a
+ * threshold. The flat segment keeps cells in a flat index instead of a skip
+ * list, optionally with its data in off-heap chunks, so the same amount of
+ * edits costs far less heap and flushes can be fewer and larger. The merge
+ * runs in the background: the memstore is first frozen into a pipeline that
+ * scanners keep reading, and the merged segment replaces pipeline and flat
+ * segment when done. A snapshot takes all of these by reference; the flusher
+ * merges them outside of the region locks.
+ * </p>
  *
  * TODO: Adjust size of the memstore when we remove items because they have
  * been deleted.
@@ -71,6 +84,22 @@ public class MemStore implements HeapSize {
     "hbase.hregion.memstore.mslab.enabled";
   private static final boolean USEMSLAB_DEFAULT = true;
 
+  static final String INMEMORY_COMPACTION_KEY =
+    "hbase.hregion.memstore.inmemorycompaction.enabled";
+  private static final boolean INMEMORY_COMPACTION_DEFAULT = false;
+
+  static final String INMEMORY_COMPACTION_THRESHOLD_KEY =
+    "hbase.hregion.memstore.inmemorycompaction.threshold";
+  private static final long INMEMORY_COMPACTION_THRESHOLD_DEFAULT = 8 * 1024 * 1024;
+
+  static final String INMEMORY_COMPACTION_OFFHEAP_KEY =
+    "hbase.hregion.memstore.inmemorycompaction.offheap";
+  private static final boolean INMEMORY_COMPACTION_OFFHEAP_DEFAULT = false;
+
+  static final String INMEMORY_COMPACTION_THREADS_KEY =
+    "hbase.hregion.memstore.inmemorycompaction.threads";
+  static final int INMEMORY_COMPACTION_THREADS_DEFAULT = 2;
+
   private Configuration conf;
 
   // MemStore.  Use a KeyValueSkipListSet rather than SkipListSet because of the
@@ -80,14 +109,35 @@ public class MemStore implements HeapSize {
   // reference passed.
   volatile KeyValueSkipListSet kvset;
 
+  // kvset as frozen by a running in-memory compaction, which merges it into
+  // flatset in the background.  Null unless a compaction is running.
+  volatile KeyValueSkipListSet pipeline;
+
+  // Result of in-memory compaction of kvset.  Empty unless enabled.
+  volatile KeyValueFlatSet flatset;
+
   // Snapshot of memstore.  Made for flusher.
-  volatile KeyValueSkipListSet snapshot;
+  volatile NavigableSet<KeyValue> snapshot;
+
+  // Pipeline and flat segment at the time of the snapshot.  The flusher
+  // merges them with snapshot, see getSnapshotForFlush().
+  volatile KeyValueSkipListSet snapshotPipeline;
+  volatile KeyValueFlatSet snapshotFlatset;
 
   final KeyValue.KVComparator comparator;
 
   // Used to track own heapSize
   final AtomicLong size;
   private volatile long snapshotSize;
+  // Part of size held by pipeline and flatset
+  private volatile long pipelineSize;
+  private volatile long flatsetSize;
+  // Incremented by every snapshot, so that a running in-memory compaction
+  // can tell the segments it merged went to the flusher.  Guarded by this.
+  private long snapshotId;
+  // Cells rolled back from pipeline or flatset while they were being merged.
+  // Guarded by this, null unless a compaction is running.
+  private List<KeyValue> pipelineRollbacks;
 
   // Used to track when to flush
   volatile long timeOfOldestEdit = Long.MAX_VALUE;
@@ -97,7 +147,14 @@ public class MemStore implements HeapSize {
 
   MemStoreChunkPool chunkPool;
   volatile MemStoreLAB allocator;
+  volatile MemStoreLAB pipelineAllocator;
   volatile MemStoreLAB snapshotAllocator;
+  volatile MemStoreLAB snapshotPipelineAllocator;
+
+  // Size of kvset that triggers in-memory compaction, 0 if disabled
+  private final long inMemoryCompactionThreshold;
+  // Whether in-memory compaction copies cell data into off-heap chunks
+  private final boolean inMemoryCompactionOffheap;
 
   /**
    * Default constructor. Used for tests.
@@ -115,11 +172,15 @@ public class MemStore implements HeapSize {
     this.conf = conf;
     this.comparator = c;
     this.kvset = new KeyValueSkipListSet(c);
+    this.flatset = KeyValueFlatSet.empty(c);
     this.snapshot = new KeyValueSkipListSet(c);
+    this.snapshotFlatset = KeyValueFlatSet.empty(c);
     timeRangeTracker = new TimeRangeTracker();
     snapshotTimeRangeTracker = new TimeRangeTracker();
     this.size = new AtomicLong(DEEP_OVERHEAD);
     this.snapshotSize = 0;
+    this.pipelineSize = 0;
+    this.flatsetSize = 0;
     if (conf.getBoolean(USEMSLAB_KEY, USEMSLAB_DEFAULT)) {
       this.chunkPool = MemStoreChunkPool.getPool(conf);
       this.allocator = new MemStoreLAB(conf, chunkPool);
@@ -127,38 +188,96 @@ public class MemStore implements HeapSize {
       this.allocator = null;
       this.chunkPool = null;
     }
+    if (conf.getBoolean(INMEMORY_COMPACTION_KEY, INMEMORY_COMPACTION_DEFAULT)) {
+      this.inMemoryCompactionThreshold = conf.getLong(INMEMORY_COMPACTION_THRESHOLD_KEY,
+        INMEMORY_COMPACTION_THRESHOLD_DEFAULT);
+      this.inMemoryCompactionOffheap = conf.getBoolean(INMEMORY_COMPACTION_OFFHEAP_KEY,
+        INMEMORY_COMPACTION_OFFHEAP_DEFAULT);
+      if (this.chunkPool == null && this.inMemoryCompactionOffheap) {
+        this.chunkPool = MemStoreChunkPool.getPool(conf);
+      }
+    } else {
+      this.inMemoryCompactionThreshold = 0;
+      this.inMemoryCompactionOffheap = false;
+    }
   }
 
   void dump() {
     for (KeyValue kv: this.kvset) {
       LOG.info(kv);
     }
+    for (NavigableSet<KeyValue> set: getSegments(this.pipeline, this.flatset)) {
+      for (KeyValue kv: set) {
+        LOG.info(kv);
+      }
+    }
     for (KeyValue kv: this.snapshot) {
       LOG.info(kv);
     }
+    for (NavigableSet<KeyValue> set: getSegments(this.snapshotPipeline, this.snapshotFlatset)) {
+      for (KeyValue kv: set) {
+        LOG.info(kv);
+      }
+    }
+  }
+
+  /*
+   * @return the passed pipeline and flat segment, leaving out null or empty
+   * ones.  The pipeline comes first: a compaction that finishes concurrently
+   * sets the new flat segment before it drops the pipeline, so reading in
+   * this order may see cells twice but never misses any.
+   */
+  private static List<NavigableSet<KeyValue>> getSegments(
+      final KeyValueSkipListSet pipeline, final KeyValueFlatSet flat) {
+    List<NavigableSet<KeyValue>> segments = new ArrayList<NavigableSet<KeyValue>>(2);
+    if (pipeline != null) {
+      segments.add(pipeline);
+    }
+    if (!flat.isEmpty()) {
+      segments.add(flat);
+    }
+    return segments;
   }
 
   /**
    * Creates a snapshot of the current memstore.
    * Snapshot must be cleared by call to {@link #clearSnapshot(SortedSet)}
    * To get the snapshot made by this method, use {@link #getSnapshot()}
+   * <p>
+   * The current memstore, the pipeline of a running in-memory compaction and
+   * the flat segment are all taken by reference, so this is cheap enough to
+   * run while holding the region's update lock. The flusher gets them as one
+   * sorted set from {@link #getSnapshotForFlush()}.
    */
-  void snapshot() {
+  synchronized void snapshot() {
     // If snapshot currently has entries, then flusher failed or didn't call
     // cleanup.  Log a warning.
-    if (!this.snapshot.isEmpty()) {
+    if (!this.snapshot.isEmpty() || this.snapshotPipeline != null ||
+        !this.snapshotFlatset.isEmpty()) {
       LOG.warn("Snapshot called again without clearing previous. " +
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
     } else {
-      if (!this.kvset.isEmpty()) {
+      if (!this.kvset.isEmpty() || this.pipeline != null || !this.flatset.isEmpty()) {
         this.snapshotSize = keySize();
         this.snapshot = this.kvset;
+        this.snapshotAllocator = this.allocator;
+        this.snapshotPipeline = this.pipeline;
+        this.snapshotPipelineAllocator = this.pipelineAllocator;
+        this.snapshotFlatset = this.flatset;
         this.kvset = new KeyValueSkipListSet(this.comparator);
+        // A running in-memory compaction will find its input gone and drop
+        // its result
+        this.snapshotId++;
+        this.pipeline = null;
+        this.pipelineAllocator = null;
+        this.pipelineRollbacks = null;
+        this.pipelineSize = 0;
+        this.flatset = KeyValueFlatSet.empty(this.comparator);
+        this.flatsetSize = 0;
         this.snapshotTimeRangeTracker = this.timeRangeTracker;
         this.timeRangeTracker = new TimeRangeTracker();
         // Reset heap to not include any keys
         this.size.set(DEEP_OVERHEAD);
-        this.snapshotAllocator = this.allocator;
         // Reset allocator so we get a fresh buffer for the new memstore
         if (allocator != null) {
           this.allocator = new MemStoreLAB(conf, chunkPool);
@@ -176,10 +295,35 @@ public class MemStore implements HeapSize {
    * @see #snapshot()
    * @see #clearSnapshot(SortedSet)
    */
-  KeyValueSkipListSet getSnapshot() {
+  NavigableSet<KeyValue> getSnapshot() {
     return this.snapshot;
   }
 
+  /**
+   * Return all of the current snapshot as a single sorted set, merging the
+   * segments {@link #snapshot()} took by reference.  This is linear in the
+   * size of the snapshot, so call it outside of the region locks.  The merged
+   * set references the cells of the snapshot; it is only valid until
+   * {@link #clearSnapshot(SortedSet)} and must not be closed.
+   * @return the sorted cells to flush
+   */
+  SortedSet<KeyValue> getSnapshotForFlush() {
+    NavigableSet<KeyValue> ss = this.snapshot;
+    KeyValueSkipListSet pipelineSs = this.snapshotPipeline;
+    KeyValueFlatSet flatSs = this.snapshotFlatset;
+    if (pipelineSs == null && flatSs.isEmpty()) {
+      return ss;
+    }
+    KeyValueFlatSet merged = flatSs;
+    if (pipelineSs != null) {
+      merged = KeyValueFlatSet.merge(this.comparator, merged, pipelineSs, null, null);
+    }
+    if (!ss.isEmpty()) {
+      merged = KeyValueFlatSet.merge(this.comparator, merged, ss, null, null);
+    }
+    return merged;
+  }
+
   /**
    * On flush, how much memory we will clear.
    * Flush will first clear out the data in snapshot if any (It will take a second flush
@@ -198,7 +342,7 @@ public class MemStore implements HeapSize {
    * @throws UnexpectedException
    * @see #snapshot()
    */
-  void clearSnapshot(final SortedSet<KeyValue> ss)
+  synchronized void clearSnapshot(final SortedSet<KeyValue> ss)
   throws UnexpectedException {
     MemStoreLAB tmpAllocator = null;
     if (this.snapshot != ss) {
@@ -207,11 +351,18 @@ public class MemStore implements HeapSize {
     }
     // OK. Passed in snapshot is same as current snapshot.  If not-empty,
     // create a new snapshot and let the old one go.
-    if (!ss.isEmpty()) {
+    if (!ss.isEmpty() || this.snapshotPipeline != null || !this.snapshotFlatset.isEmpty()) {
       this.snapshot = new KeyValueSkipListSet(this.comparator);
       this.snapshotTimeRangeTracker = new TimeRangeTracker();
     }
+    this.snapshotFlatset.close();
+    this.snapshotFlatset = KeyValueFlatSet.empty(this.comparator);
+    this.snapshotPipeline = null;
     this.snapshotSize = 0;
+    if (this.snapshotPipelineAllocator != null) {
+      this.snapshotPipelineAllocator.close();
+      this.snapshotPipelineAllocator = null;
+    }
     if (this.snapshotAllocator != null) {
       tmpAllocator = this.snapshotAllocator;
       this.snapshotAllocator = null;
@@ -235,6 +386,110 @@ public class MemStore implements HeapSize {
     return timeOfOldestEdit;
   }
 
+  /**
+   * @return true if in-memory compaction is enabled, none is running and the
+   * current memstore has grown past its threshold
+   */
+  boolean shouldCompactInMemory() {
+    return this.inMemoryCompactionThreshold > 0 && this.pipeline == null &&
+        keySize() - this.flatsetSize >= this.inMemoryCompactionThreshold;
+  }
+
+  /**
+   * Start an in-memory compaction: freeze the current memstore into the
+   * pipeline, where scanners keep seeing it, and start a new one.  The merge
+   * itself is left to {@link #compactInMemory()}.
+   * <p>
+   * Callers must hold the write lock.
+   * @return false if the memstore is empty or a compaction is running already
+   */
+  synchronized boolean startInMemoryCompaction() {
+    if (this.pipeline != null || this.kvset.isEmpty()) {
+      return false;
+    }
+    this.pipelineSize = keySize() - this.flatsetSize;
+    this.pipelineRollbacks = new ArrayList<KeyValue>();
+    this.pipelineAllocator = this.allocator;
+    this.pipeline = this.kvset;
+    this.kvset = new KeyValueSkipListSet(this.comparator);
+    if (this.allocator != null) {
+      this.allocator = new MemStoreLAB(conf, chunkPool);
+    }
+    return true;
+  }
+
+  /**
+   * Merge the pipeline into the flat segment, then swap the result in for
+   * both.  The cells are either referenced in the MSLAB chunks they already
+   * live in, or copied into off-heap chunks if so configured.  Scanners
+   * already open keep reading the sets they were created on.
+   * <p>
+   * The merge runs without any lock held; writers keep adding to the current
+   * memstore meanwhile.  If a snapshot took the pipeline in the meantime the
+   * result is dropped, the flusher takes care of those cells.
+   * @return change in memstore size
+   */
+  long compactInMemory() {
+    KeyValueSkipListSet toMerge;
+    KeyValueFlatSet older;
+    MemStoreLAB toMergeAllocator;
+    long startSnapshotId;
+    synchronized (this) {
+      if (this.pipeline == null) {
+        return 0;
+      }
+      toMerge = this.pipeline;
+      older = this.flatset;
+      toMergeAllocator = this.pipelineAllocator;
+      startSnapshotId = this.snapshotId;
+    }
+    MemStoreLAB copyTo = this.inMemoryCompactionOffheap ?
+        new MemStoreLAB(conf, chunkPool, true) : null;
+    boolean swapped = false;
+    try {
+      KeyValueFlatSet merged = KeyValueFlatSet.merge(this.comparator, older, toMerge,
+        toMergeAllocator, copyTo);
+      long inputSize;
+      synchronized (this) {
+        if (this.snapshotId != startSnapshotId) {
+          LOG.debug("Memstore was snapshotted during in-memory compaction, dropping result");
+          return 0;
+        }
+        // Rollbacks the merge may have missed
+        for (KeyValue kv : this.pipelineRollbacks) {
+          KeyValue found = merged.get(kv);
+          if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
+            merged.remove(kv);
+          }
+        }
+        inputSize = this.flatsetSize + this.pipelineSize;
+        // Set the flat segment before dropping the pipeline, see getSegments()
+        this.flatset = merged;
+        this.flatsetSize = merged.heapSize();
+        this.pipeline = null;
+        this.pipelineAllocator = null;
+        this.pipelineRollbacks = null;
+        this.pipelineSize = 0;
+        this.size.addAndGet(merged.heapSize() - inputSize);
+        swapped = true;
+      }
+      if (toMergeAllocator != null && copyTo != null) {
+        // The data was copied, nothing references the old chunks any more
+        toMergeAllocator.close();
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("In-memory compaction merged memstore into flat segment of " +
+          merged.size() + " cells, size " + StringUtils.byteDesc(inputSize) + " -> " +
+          StringUtils.byteDesc(merged.heapSize()));
+      }
+      return merged.heapSize() - inputSize;
+    } finally {
+      if (!swapped && copyTo != null) {
+        copyTo.close();
+      }
+    }
+  }
+
   private boolean addToKVSet(KeyValue e) {
     boolean b = this.kvset.add(e);
     setOldestEditTimeToNow();
@@ -293,18 +548,50 @@ public class MemStore implements HeapSize {
    * error recovery), we can leave those optimization for the future.
    * @param kv
    */
-  void rollback(final KeyValue kv) {
+  synchronized void rollback(final KeyValue kv) {
     // If the key is in the snapshot, delete it. We should not update
     // this.size, because that tracks the size of only the memstore and
     // not the snapshot. The flush of this snapshot to disk has not
     // yet started because Store.flush() waits for all rwcc transactions to
     // commit before starting the flush to disk.
-    KeyValue found = this.snapshot.get(kv);
+    KeyValue found = getFromSet(this.snapshot, kv);
     if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
       this.snapshot.remove(kv);
       long sz = heapSizeChange(kv, true);
       this.snapshotSize -= sz;
     }
+    if (this.snapshotPipeline != null) {
+      found = this.snapshotPipeline.get(kv);
+      if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
+        this.snapshotPipeline.remove(kv);
+        this.snapshotSize -= heapSizeChange(kv, true);
+      }
+    }
+    found = this.snapshotFlatset.get(kv);
+    if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
+      this.snapshotFlatset.remove(kv);
+    }
+    // If the key is in the pipeline of a running in-memory compaction,
+    // remember it so it can be removed from the merged segment as well.
+    if (this.pipeline != null) {
+      found = this.pipeline.get(kv);
+      if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
+        this.pipeline.remove(kv);
+        long s = heapSizeChange(kv, true);
+        this.pipelineSize -= s;
+        this.size.addAndGet(-s);
+        this.pipelineRollbacks.add(kv);
+      }
+    }
+    // If the key was moved to the flat segment, mark it deleted there.  The
+    // size of the flat segment does not change.
+    found = this.flatset.get(kv);
+    if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
+      this.flatset.remove(kv);
+      if (this.pipelineRollbacks != null) {
+        this.pipelineRollbacks.add(kv);
+      }
+    }
     // If the key is in the memstore, delete it. Update this.size.
     found = this.kvset.get(kv);
     if (found != null && found.getMvccVersion() == kv.getMvccVersion()) {
@@ -334,7 +621,22 @@ public class MemStore implements HeapSize {
    * @return Next row or null if none found.
    */
   KeyValue getNextRow(final KeyValue kv) {
-    return getLowest(getNextRow(kv, this.kvset), getNextRow(kv, this.snapshot));
+    KeyValue lowest = getNextRow(kv, this.kvset);
+    for (NavigableSet<KeyValue> set: getSegments(this.pipeline, this.flatset)) {
+      lowest = getLowest(lowest, getNextRow(kv, set));
+    }
+    lowest = getLowest(lowest, getNextRow(kv, this.snapshot));
+    for (NavigableSet<KeyValue> set: getSegments(this.snapshotPipeline, this.snapshotFlatset)) {
+      lowest = getLowest(lowest, getNextRow(kv, set));
+    }
+    return lowest;
+  }
+
+  private static KeyValue getFromSet(final NavigableSet<KeyValue> set, final KeyValue kv) {
+    if (set instanceof KeyValueFlatSet) {
+      return ((KeyValueFlatSet) set).get(kv);
+    }
+    return ((KeyValueSkipListSet) set).get(kv);
   }
 
   /*
@@ -379,7 +681,13 @@ public class MemStore implements HeapSize {
    */
   void getRowKeyAtOrBefore(final GetClosestRowBeforeTracker state) {
     getRowKeyAtOrBefore(kvset, state);
+    for (NavigableSet<KeyValue> set: getSegments(pipeline, flatset)) {
+      getRowKeyAtOrBefore(set, state);
+    }
     getRowKeyAtOrBefore(snapshot, state);
+    for (NavigableSet<KeyValue> set: getSegments(snapshotPipeline, snapshotFlatset)) {
+      getRowKeyAtOrBefore(set, state);
+    }
   }
 
   /*
@@ -673,34 +981,34 @@ public class MemStore implements HeapSize {
 
   /*
    * MemStoreScanner implements the KeyValueScanner.
-   * It lets the caller scan the contents of a memstore -- both current
-   * map and snapshot.
+   * It lets the caller scan the contents of a memstore -- current map, the
+   * pipeline and flat segment of in-memory compaction, and the same of the
+   * snapshot.
    * This behaves as if it were a real scanner but does not maintain position.
    */
   protected class MemStoreScanner extends NonLazyKeyValueScanner {
-    // Next row information for either kvset or snapshot
-    private KeyValue kvsetNextRow = null;
-    private KeyValue snapshotNextRow = null;
-
-    // last iterated KVs for kvset and snapshot (to restore iterator state after reseek)
-    private KeyValue kvsetItRow = null;
-    private KeyValue snapshotItRow = null;
-    
-    // iterator based scanning.
-    private Iterator<KeyValue> kvsetIt;
-    private Iterator<KeyValue> snapshotIt;
-
-    // The kvset and snapshot at the time of creating this scanner
-    private KeyValueSkipListSet kvsetAtCreation;
-    private KeyValueSkipListSet snapshotAtCreation;
+    // The sets at the time of creating this scanner: kvset and snapshot,
+    // plus whichever pipelines and flat segments were in use
+    private final List<NavigableSet<KeyValue>> setsAtCreation;
+
+    // Next row information for each set
+    private final KeyValue[] nextRows;
+
+    // last iterated KVs for each set (to restore iterator state after reseek)
+    private final KeyValue[] itRows;
+
+    // iterator based scanning, one iterator per set
+    private final List<Iterator<KeyValue>> its;
 
     // the pre-calculated KeyValue to be returned by peek() or next()
     private KeyValue theNext;
 
-    // The allocator and snapshot allocator at the time of creating this scanner
-    volatile MemStoreLAB allocatorAtCreation;
-    volatile MemStoreLAB snapshotAllocatorAtCreation;
-    
+    // The allocators and flat segments at the time of creating this scanner,
+    // which must not release their chunks while it is open
+    private final List<MemStoreLAB> allocatorsAtCreation = new ArrayList<MemStoreLAB>();
+    private final List<KeyValueFlatSet> flatsetsRetained = new ArrayList<KeyValueFlatSet>();
+    private volatile boolean retained;
+
     // A flag represents whether could stop skipping KeyValues for MVCC
     // if have encountered the next row. Only used for reversed scan
     private boolean stopSkippingKVsIfNextRow = false;
@@ -732,22 +1040,52 @@ public class MemStore implements HeapSize {
       super();
 
       this.readPoint = readPoint;
-      kvsetAtCreation = kvset;
-      snapshotAtCreation = snapshot;
-      if (allocator != null) {
-        this.allocatorAtCreation = allocator;
-        this.allocatorAtCreation.incScannerCount();
-      }
-      if (snapshotAllocator != null) {
-        this.snapshotAllocatorAtCreation = snapshotAllocator;
-        this.snapshotAllocatorAtCreation.incScannerCount();
+      this.setsAtCreation = new ArrayList<NavigableSet<KeyValue>>(6);
+      // Snapshots and in-memory compactions swap the sets under the
+      // MemStore lock; take them all in one consistent state, newest first
+      synchronized (MemStore.this) {
+        setsAtCreation.add(kvset);
+        retainAllocator(allocator);
+        retainPipeline(pipeline, pipelineAllocator);
+        retainFlatset(flatset);
+        setsAtCreation.add(snapshot);
+        retainAllocator(snapshotAllocator);
+        retainPipeline(snapshotPipeline, snapshotPipelineAllocator);
+        retainFlatset(snapshotFlatset);
       }
+      this.retained = true;
+      this.nextRows = new KeyValue[setsAtCreation.size()];
+      this.itRows = new KeyValue[setsAtCreation.size()];
+      this.its = new ArrayList<Iterator<KeyValue>>(setsAtCreation.size());
       if (Trace.isTracing() && Trace.currentSpan() != null) {
         Trace.currentSpan().addTimelineAnnotation("Creating MemStoreScanner");
       }
     }
 
-    private KeyValue getNext(Iterator<KeyValue> it) {
+    private void retainPipeline(KeyValueSkipListSet set, MemStoreLAB lab) {
+      if (set != null) {
+        setsAtCreation.add(set);
+        retainAllocator(lab);
+      }
+    }
+
+    private void retainFlatset(KeyValueFlatSet set) {
+      if (!set.isEmpty()) {
+        setsAtCreation.add(set);
+        set.incScannerCount();
+        flatsetsRetained.add(set);
+      }
+    }
+
+    private void retainAllocator(MemStoreLAB lab) {
+      if (lab != null) {
+        lab.incScannerCount();
+        allocatorsAtCreation.add(lab);
+      }
+    }
+
+    private KeyValue getNext(int i) {
+      Iterator<KeyValue> it = its.get(i);
       KeyValue startKV = theNext;
       KeyValue v = null;
       try {
@@ -766,11 +1104,7 @@ public class MemStore implements HeapSize {
       } finally {
         if (v != null) {
           // in all cases, remember the last KV iterated to
-          if (it == snapshotIt) {
-            snapshotItRow = v;
-          } else {
-            kvsetItRow = v;
-          }
+          itRows[i] = v;
         }
       }
     }
@@ -789,12 +1123,13 @@ public class MemStore implements HeapSize {
         return false;
       }
 
-      // kvset and snapshot will never be null.
+      // the sets will never be null.
       // if tailSet can't find anything, SortedSet is empty (not null).
-      kvsetIt = kvsetAtCreation.tailSet(key).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(key).iterator();
-      kvsetItRow = null;
-      snapshotItRow = null;
+      its.clear();
+      for (int i = 0; i < setsAtCreation.size(); i++) {
+        its.add(setsAtCreation.get(i).tailSet(key).iterator());
+        itRows[i] = null;
+      }
 
       return seekInSubLists(key);
     }
@@ -804,11 +1139,12 @@ public class MemStore implements HeapSize {
      * (Re)initialize the iterators after a seek or a reseek.
      */
     private synchronized boolean seekInSubLists(KeyValue key){
-      kvsetNextRow = getNext(kvsetIt);
-      snapshotNextRow = getNext(snapshotIt);
-
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      theNext = null;
+      for (int i = 0; i < nextRows.length; i++) {
+        nextRows[i] = getNext(i);
+        theNext = getLowest(theNext, nextRows[i]);
+      }
 
       // has data
       return (theNext != null);
@@ -835,8 +1171,10 @@ public class MemStore implements HeapSize {
        the reseeked set to at least that point.
        */
 
-      kvsetIt = kvsetAtCreation.tailSet(getHighest(key, kvsetItRow)).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(getHighest(key, snapshotItRow)).iterator();
+      its.clear();
+      for (int i = 0; i < setsAtCreation.size(); i++) {
+        its.add(setsAtCreation.get(i).tailSet(getHighest(key, itRows[i])).iterator());
+      }
 
       return seekInSubLists(key);
     }
@@ -856,16 +1194,17 @@ public class MemStore implements HeapSize {
 
       final KeyValue ret = theNext;
 
-      // Advance one of the iterators
-      if (theNext == kvsetNextRow) {
-        kvsetNextRow = getNext(kvsetIt);
-      } else {
-        snapshotNextRow = getNext(snapshotIt);
+      // Advance one of the iterators, then calculate the next value
+      theNext = null;
+      boolean advanced = false;
+      for (int i = 0; i < nextRows.length; i++) {
+        if (!advanced && nextRows[i] == ret) {
+          nextRows[i] = getNext(i);
+          advanced = true;
+        }
+        theNext = getLowest(theNext, nextRows[i]);
       }
 
-      // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
-
       //long readpoint = ReadWriteConsistencyControl.getThreadReadPoint();
       //DebugPrint.println(" MS@" + hashCode() + " next: " + theNext + " next_next: " +
       //    getLowest() + " threadpoint=" + readpoint);
@@ -905,23 +1244,20 @@ public class MemStore implements HeapSize {
     }
 
     public synchronized void close() {
-      this.kvsetNextRow = null;
-      this.snapshotNextRow = null;
-
-      this.kvsetIt = null;
-      this.snapshotIt = null;
-      
-      if (allocatorAtCreation != null) {
-        this.allocatorAtCreation.decScannerCount();
-        this.allocatorAtCreation = null;
-      }
-      if (snapshotAllocatorAtCreation != null) {
-        this.snapshotAllocatorAtCreation.decScannerCount();
-        this.snapshotAllocatorAtCreation = null;
+      Arrays.fill(this.nextRows, null);
+      this.its.clear();
+
+      if (this.retained) {
+        for (KeyValueFlatSet set : this.flatsetsRetained) {
+          set.decScannerCount();
+        }
+        for (MemStoreLAB lab : this.allocatorsAtCreation) {
+          lab.decScannerCount();
+        }
+        this.retained = false;
       }
 
-      this.kvsetItRow = null;
-      this.snapshotItRow = null;
+      Arrays.fill(this.itRows, null);
     }
 
     /**
@@ -954,20 +1290,18 @@ public class MemStore implements HeapSize {
     }
 
     /**
-     * Separately get the KeyValue before the specified key from kvset and
-     * snapshotset, and use the row of higher one as the previous row of
+     * Separately get the KeyValue before the specified key from each of the
+     * sets, and use the row of the highest one as the previous row of
      * specified key, then seek to the first KeyValue of previous row
      */
     @Override
     public synchronized boolean seekToPreviousRow(KeyValue key) {
       KeyValue firstKeyOnRow = KeyValue.createFirstOnRow(key.getRow());
-      SortedSet<KeyValue> kvHead = kvsetAtCreation.headSet(firstKeyOnRow);
-      KeyValue kvsetBeforeRow = kvHead.isEmpty() ? null : kvHead.last();
-      SortedSet<KeyValue> snapshotHead = snapshotAtCreation
-          .headSet(firstKeyOnRow);
-      KeyValue snapshotBeforeRow = snapshotHead.isEmpty() ? null : snapshotHead
-          .last();
-      KeyValue lastKVBeforeRow = getHighest(kvsetBeforeRow, snapshotBeforeRow);
+      KeyValue lastKVBeforeRow = null;
+      for (NavigableSet<KeyValue> set : setsAtCreation) {
+        SortedSet<KeyValue> head = set.headSet(firstKeyOnRow);
+        lastKVBeforeRow = getHighest(lastKVBeforeRow, head.isEmpty() ? null : head.last());
+      }
       if (lastKVBeforeRow == null) {
         theNext = null;
         return false;
@@ -986,11 +1320,10 @@ public class MemStore implements HeapSize {
 
     @Override
     public synchronized boolean seekToLastRow() {
-      KeyValue first = kvsetAtCreation.isEmpty() ? null : kvsetAtCreation
-          .last();
-      KeyValue second = snapshotAtCreation.isEmpty() ? null
-          : snapshotAtCreation.last();
-      KeyValue higherKv = getHighest(first, second);
+      KeyValue higherKv = null;
+      for (NavigableSet<KeyValue> set : setsAtCreation) {
+        higherKv = getHighest(higherKv, set.isEmpty() ? null : set.last());
+      }
       if (higherKv == null) {
         return false;
       }
@@ -1005,7 +1338,8 @@ public class MemStore implements HeapSize {
   }
 
   public final static long FIXED_OVERHEAD = ClassSize.align(
-      ClassSize.OBJECT + (10 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_LONG));
+      ClassSize.OBJECT + (17 * ClassSize.REFERENCE) + (6 * Bytes.SIZEOF_LONG) +
+      Bytes.SIZEOF_BOOLEAN);
 
   public final static long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD +
       ClassSize.ATOMIC_LONG + (2 * ClassSize.TIMERANGE_TRACKER) +
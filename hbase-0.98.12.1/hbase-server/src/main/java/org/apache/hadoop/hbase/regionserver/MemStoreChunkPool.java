@@ -48,6 +48,10 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * {@link MemStoreChunkPool#getChunk()} is called when MemStoreLAB allocating
  * bytes, and {@link MemStoreChunkPool#putbackChunks(BlockingQueue)} is called
  * when MemStore clearing snapshot for flush
+ *
+ * Chunks allocated from direct memory, used by the flat segments of in-memory
+ * compaction, are pooled separately through {@link #getOffheapChunk()}; each
+ * of the two pools holds at most the configured max count.
  */
 @InterfaceAudience.Private
 public class MemStoreChunkPool {
@@ -66,6 +70,8 @@ public class MemStoreChunkPool {
 
   // A queue of reclaimed chunks
   private final BlockingQueue<Chunk> reclaimedChunks;
+  // A queue of reclaimed off-heap chunks
+  private final BlockingQueue<Chunk> reclaimedOffheapChunks;
   private final int chunkSize;
 
   /** Statistics thread schedule pool */
@@ -80,6 +86,7 @@ public class MemStoreChunkPool {
     this.maxCount = maxCount;
     this.chunkSize = chunkSize;
     this.reclaimedChunks = new LinkedBlockingQueue<Chunk>();
+    this.reclaimedOffheapChunks = new LinkedBlockingQueue<Chunk>();
     for (int i = 0; i < initialCount; i++) {
       Chunk chunk = new Chunk(chunkSize);
       chunk.init();
@@ -99,9 +106,22 @@ public class MemStoreChunkPool {
    * @return a chunk
    */
   Chunk getChunk() {
-    Chunk chunk = reclaimedChunks.poll();
+    return getChunk(reclaimedChunks, false);
+  }
+
+  /**
+   * Poll an off-heap chunk from the pool, reset it if not null, else create a
+   * new off-heap chunk to return
+   * @return a chunk whose memory is allocated outside the java heap
+   */
+  Chunk getOffheapChunk() {
+    return getChunk(reclaimedOffheapChunks, true);
+  }
+
+  private Chunk getChunk(BlockingQueue<Chunk> reclaimed, boolean offheap) {
+    Chunk chunk = reclaimed.poll();
     if (chunk == null) {
-      chunk = new Chunk(chunkSize);
+      chunk = new Chunk(chunkSize, offheap);
       createdChunkCount.incrementAndGet();
     } else {
       chunk.reset();
@@ -116,11 +136,10 @@ public class MemStoreChunkPool {
    * @param chunks
    */
   void putbackChunks(BlockingQueue<Chunk> chunks) {
-    int maxNumToPutback = this.maxCount - reclaimedChunks.size();
-    if (maxNumToPutback <= 0) {
-      return;
+    Chunk chunk;
+    while ((chunk = chunks.poll()) != null) {
+      putbackChunk(chunk);
     }
-    chunks.drainTo(reclaimedChunks, maxNumToPutback);
   }
 
   /**
@@ -129,21 +148,28 @@ public class MemStoreChunkPool {
    * @param chunk
    */
   void putbackChunk(Chunk chunk) {
-    if (reclaimedChunks.size() >= this.maxCount) {
+    BlockingQueue<Chunk> reclaimed = chunk.isOffheap() ? reclaimedOffheapChunks
+        : reclaimedChunks;
+    if (reclaimed.size() >= this.maxCount) {
       return;
     }
-    reclaimedChunks.add(chunk);
+    reclaimed.add(chunk);
   }
 
   int getPoolSize() {
     return this.reclaimedChunks.size();
   }
 
+  int getOffheapPoolSize() {
+    return this.reclaimedOffheapChunks.size();
+  }
+
   /*
    * Only used in testing
    */
   void clearChunks() {
     this.reclaimedChunks.clear();
+    this.reclaimedOffheapChunks.clear();
   }
 
   private static class StatisticsThread extends Thread {
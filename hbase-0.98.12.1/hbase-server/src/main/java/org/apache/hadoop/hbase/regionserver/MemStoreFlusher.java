@@ -208,7 +208,7 @@ class MemStoreFlusher implements FlushRequester {
       Preconditions.checkState(regionToFlush.memstoreSize.get() > 0);
 
       LOG.info("Flush of region " + regionToFlush + " due to global heap pressure");
-      flushedOne = flushRegion(regionToFlush, true);
+      flushedOne = flushRegion(regionToFlush, true, false);
       if (!flushedOne) {
         LOG.info("Excluding unflushable region " + regionToFlush +
           " - trying to find a different region to flush.");
@@ -321,14 +321,19 @@ class MemStoreFlusher implements FlushRequester {
       getGlobalMemstoreSize() >= globalMemStoreLimitLowMark;
   }
 
-  public void requestFlush(HRegion r) {
+  @Override
+  public void requestFlush(HRegion r, boolean forceFlushAllStores) {
     synchronized (regionsInQueue) {
-      if (!regionsInQueue.containsKey(r)) {
+      FlushRegionEntry existing = regionsInQueue.get(r);
+      if (existing == null) {
         // This entry has no delay so it will be added at the top of the flush
         // queue.  It'll come out near immediately.
-        FlushRegionEntry fqe = new FlushRegionEntry(r);
+        FlushRegionEntry fqe = new FlushRegionEntry(r, forceFlushAllStores);
         this.regionsInQueue.put(r, fqe);
         this.flushQueue.add(fqe);
+      } else if (forceFlushAllStores) {
+        // A flush of all stores was requested for a region already queued
+        existing.forceFlushAllStores = true;
       }
     }
   }
@@ -337,7 +342,7 @@ class MemStoreFlusher implements FlushRequester {
     synchronized (regionsInQueue) {
       if (!regionsInQueue.containsKey(r)) {
         // This entry has some delay
-        FlushRegionEntry fqe = new FlushRegionEntry(r);
+        FlushRegionEntry fqe = new FlushRegionEntry(r, false);
         fqe.requeue(delay);
         this.regionsInQueue.put(r, fqe);
         this.flushQueue.add(fqe);
@@ -432,7 +437,7 @@ class MemStoreFlusher implements FlushRequester {
         return true;
       }
     }
-    return flushRegion(region, false);
+    return flushRegion(region, false, fqe.forceFlushAllStores);
   }
 
   /*
@@ -447,13 +452,15 @@ class MemStoreFlusher implements FlushRequester {
    * false, there will be accompanying log messages explaining why the region was
    * not flushed.
    */
-  private boolean flushRegion(final HRegion region, final boolean emergencyFlush) {
+  private boolean flushRegion(final HRegion region, final boolean emergencyFlush,
+      boolean forceFlushAllStores) {
     long startTime = 0;
     synchronized (this.regionsInQueue) {
       FlushRegionEntry fqe = this.regionsInQueue.remove(region);
       // Use the start time of the FlushRegionEntry if available
       if (fqe != null) {
         startTime = fqe.createTime;
+        forceFlushAllStores |= fqe.forceFlushAllStores;
       }
       if (fqe != null && emergencyFlush) {
         // Need to remove from region from delay queue.  When NOT an
@@ -469,7 +476,7 @@ class MemStoreFlusher implements FlushRequester {
     }
     lock.readLock().lock();
     try {
-      HRegion.FlushResult flushResult = region.flushcache();
+      HRegion.FlushResult flushResult = region.flushcache(forceFlushAllStores);
       boolean shouldCompact = flushResult.isCompactionNeeded();
       // We just want to check the size
       boolean shouldSplit = region.checkSplit() != null;
@@ -627,9 +634,12 @@ class MemStoreFlusher implements FlushRequester {
     private final long createTime;
     private long whenToExpire;
     private int requeueCount = 0;
+    /** Whether to flush all stores, rather than the ones the flush policy selects */
+    private volatile boolean forceFlushAllStores;
 
-    FlushRegionEntry(final HRegion r) {
+    FlushRegionEntry(final HRegion r, boolean forceFlushAllStores) {
       this.region = r;
+      this.forceFlushAllStores = forceFlushAllStores;
       this.createTime = System.currentTimeMillis();
       this.whenToExpire = this.createTime;
     }
@@ -18,6 +18,7 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -45,6 +46,11 @@ import com.google.common.base.Preconditions;
  * interleaved throughout the heap, and the old generation gets progressively
  * more fragmented until a stop-the-world compacting collection occurs.
  * <p>
+ * An allocator created in off-heap mode hands out slices of direct memory
+ * chunks instead. Those can't back a {@link org.apache.hadoop.hbase.KeyValue}
+ * directly, so they are only used to hold the data of the flat segments built
+ * by in-memory compaction, see {@link KeyValueFlatSet}.
+ * <p>
  * TODO: we should probably benchmark whether word-aligning the allocations
  * would provide a performance improvement - probably would speed up the
  * Bytes.toLong/Bytes.toInt calls in KeyValue, but some of those are cached
@@ -65,6 +71,8 @@ public class MemStoreLAB {
   final int maxAlloc;
 
   private final MemStoreChunkPool chunkPool;
+  // Whether chunks are allocated from direct memory
+  private final boolean offheap;
 
   // This flag is for closing this instance, its set when clearing snapshot of
   // memstore
@@ -85,6 +93,11 @@ public class MemStoreLAB {
   }
 
   public MemStoreLAB(Configuration conf, MemStoreChunkPool pool) {
+    this(conf, pool, false);
+  }
+
+  public MemStoreLAB(Configuration conf, MemStoreChunkPool pool, boolean offheap) {
+    this.offheap = offheap;
     chunkSize = conf.getInt(CHUNK_SIZE_KEY, CHUNK_SIZE_DEFAULT);
     maxAlloc = conf.getInt(MAX_ALLOC_KEY, MAX_ALLOC_DEFAULT);
     this.chunkPool = pool;
@@ -118,7 +131,7 @@ public class MemStoreLAB {
       if (allocOffset != -1) {
         // We succeeded - this is the common case - small alloc
         // from a big buffer
-        return new Allocation(c.data, allocOffset);
+        return new Allocation(c.data, c.buffer, allocOffset);
       }
 
       // not enough space!
@@ -127,6 +140,10 @@ public class MemStoreLAB {
     }
   }
 
+  boolean isOffheap() {
+    return offheap;
+  }
+
   /**
    * Close this instance since it won't be used any more, try to put the chunks
    * back to pool
@@ -189,7 +206,11 @@ public class MemStoreLAB {
       // No current chunk, so we want to allocate one. We race
       // against other allocators to CAS in an uninitialized chunk
       // (which is cheap to allocate)
-      c = (chunkPool != null) ? chunkPool.getChunk() : new Chunk(chunkSize);
+      if (chunkPool != null) {
+        c = offheap ? chunkPool.getOffheapChunk() : chunkPool.getChunk();
+      } else {
+        c = new Chunk(chunkSize, offheap);
+      }
       if (curChunk.compareAndSet(null, c)) {
         // we won race - now we need to actually do the expensive
         // allocation step
@@ -208,9 +229,15 @@ public class MemStoreLAB {
    * A chunk of memory out of which allocations are sliced.
    */
   static class Chunk {
-    /** Actual underlying data */
+    /** Actual underlying data, null for an off-heap chunk */
     private byte[] data;
 
+    /** Buffer over the underlying data; wraps data or is direct memory */
+    private ByteBuffer buffer;
+
+    /** Whether the memory of this chunk is allocated outside the java heap */
+    private final boolean offheap;
+
     private static final int UNINITIALIZED = -1;
     private static final int OOM = -2;
     /**
@@ -231,7 +258,17 @@ public class MemStoreLAB {
      * @param size in bytes
      */
     Chunk(int size) {
+      this(size, false);
+    }
+
+    /**
+     * Create an uninitialized chunk.
+     * @param size in bytes
+     * @param offheap whether to allocate the memory from direct memory on init
+     */
+    Chunk(int size, boolean offheap) {
       this.size = size;
+      this.offheap = offheap;
     }
 
     /**
@@ -242,8 +279,13 @@ public class MemStoreLAB {
     public void init() {
       assert nextFreeOffset.get() == UNINITIALIZED;
       try {
-        if (data == null) {
-          data = new byte[size];
+        if (buffer == null) {
+          if (offheap) {
+            buffer = ByteBuffer.allocateDirect(size);
+          } else {
+            data = new byte[size];
+            buffer = ByteBuffer.wrap(data);
+          }
         }
       } catch (OutOfMemoryError e) {
         boolean failInit = nextFreeOffset.compareAndSet(UNINITIALIZED, OOM);
@@ -289,7 +331,7 @@ public class MemStoreLAB {
           return -1;
         }
 
-        if (oldOffset + size > data.length) {
+        if (oldOffset + size > this.size) {
           return -1; // alloc doesn't fit
         }
 
@@ -303,11 +345,15 @@ public class MemStoreLAB {
       }
     }
 
+    boolean isOffheap() {
+      return offheap;
+    }
+
     @Override
     public String toString() {
       return "Chunk@" + System.identityHashCode(this) +
         " allocs=" + allocCount.get() + "waste=" +
-        (data.length - nextFreeOffset.get());
+        (size - nextFreeOffset.get());
     }
   }
 
@@ -318,23 +364,35 @@ public class MemStoreLAB {
    */
   public static class Allocation {
     private final byte[] data;
+    private final ByteBuffer buffer;
     private final int offset;
 
-    private Allocation(byte[] data, int off) {
+    private Allocation(byte[] data, ByteBuffer buffer, int off) {
       this.data = data;
+      this.buffer = buffer;
       this.offset = off;
     }
 
     @Override
     public String toString() {
-      return "Allocation(" + "capacity=" + data.length + ", off=" + offset
+      return "Allocation(" + "capacity=" + buffer.capacity() + ", off=" + offset
           + ")";
     }
 
+    /**
+     * @return the backing array, or null if the allocation is off-heap
+     */
     byte[] getData() {
       return data;
     }
 
+    /**
+     * @return the buffer over the whole chunk the allocation points into
+     */
+    ByteBuffer getBuffer() {
+      return buffer;
+    }
+
     int getOffset() {
       return offset;
     }
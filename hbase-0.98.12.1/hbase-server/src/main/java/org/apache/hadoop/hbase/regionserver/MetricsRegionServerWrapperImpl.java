@@ -32,6 +32,7 @@ import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.metrics2.MetricsExecutor;
@@ -490,14 +491,18 @@ class MetricsRegionServerWrapperImpl
 
       //Copy over computed values so that no thread sees half computed values.
       numStores = tempNumStores;
-      long tempNumHLogFiles = regionServer.hlog.getNumLogFiles();
+      long tempNumHLogFiles = 0;
+      long tempHlogFileSize = 0;
+      for (HLog log : regionServer.getWALs()) {
+        tempNumHLogFiles += log.getNumLogFiles();
+        tempHlogFileSize += log.getLogFileSize();
+      }
       // meta logs
       if (regionServer.hlogForMeta != null) {
         tempNumHLogFiles += regionServer.hlogForMeta.getNumLogFiles();
       }
       numHLogFiles = tempNumHLogFiles;
       
-      long tempHlogFileSize = regionServer.hlog.getLogFileSize();
       if (regionServer.hlogForMeta != null) {
         tempHlogFileSize += regionServer.hlogForMeta.getLogFileSize();
       }
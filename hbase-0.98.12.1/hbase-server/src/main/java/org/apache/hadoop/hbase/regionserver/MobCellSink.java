@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.mob.MobConstants;
+import org.apache.hadoop.hbase.mob.MobUtils;
+import org.apache.hadoop.hbase.regionserver.compactions.Compactor;
+
+/**
+ * Writes the cells of a flush or compaction of a {@link HMobStore}: the values at least the MOB
+ * threshold long go to a new MOB file, and references to them to the store file. Once all the
+ * cells are appended, {@link #commit(long)} commits the MOB file and records the MOB files the
+ * store file refers to in its file info, under {@link MobConstants#MOB_FILE_REFS}.
+ */
+@InterfaceAudience.Private
+public class MobCellSink implements Compactor.CellSink {
+  private static final Log LOG = LogFactory.getLog(MobCellSink.class);
+
+  private final HMobStore store;
+  private final StoreFile.Writer writer;
+  private final long maxKeyCount;
+  private final long threshold;
+  /** MOB files smaller than this have their values rewritten, 0 to keep all the references */
+  private final long mergeableThreshold;
+  /** Whether the MOB files referred to are mergeable, by name */
+  private final Map<String, Boolean> mergeable = new HashMap<String, Boolean>();
+  /** The MOB files the store file refers to */
+  private final Set<String> refs = new HashSet<String>();
+  private StoreFile.Writer mobWriter;
+  private String mobFileName;
+  private long mobCells = 0;
+
+  /**
+   * @param store The store
+   * @param writer The writer of the store file
+   * @param maxKeyCount Estimated maximum number of cells, for the MOB file
+   * @param mergeableThreshold The values of the MOB files smaller than this, referred to by the
+   * cells appended, are written to the new MOB file. 0 keeps the references as they are.
+   */
+  public MobCellSink(HMobStore store, StoreFile.Writer writer, long maxKeyCount,
+      long mergeableThreshold) {
+    this.store = store;
+    this.writer = writer;
+    this.maxKeyCount = maxKeyCount;
+    this.threshold = store.getFamily().getMobThreshold();
+    this.mergeableThreshold = mergeableThreshold;
+  }
+
+  @Override
+  public void append(KeyValue kv) throws IOException {
+    if (MobUtils.isMobReferenceCell(kv)) {
+      String fileName = MobUtils.getMobFileName(kv);
+      if (isMergeable(fileName)) {
+        KeyValue value = KeyValueUtil.ensureKeyValue(store.resolve(kv, false)).shallowCopy();
+        value.setMvccVersion(kv.getMvccVersion());
+        appendMob(value);
+      } else {
+        refs.add(fileName);
+        writer.append(kv);
+      }
+    } else if (kv.getTypeByte() == KeyValue.Type.Put.getCode()
+        && kv.getValueLength() >= threshold) {
+      appendMob(kv);
+    } else {
+      writer.append(kv);
+    }
+  }
+
+  private void appendMob(KeyValue kv) throws IOException {
+    if (mobWriter == null) {
+      mobWriter = store.createMobWriterInTmp(maxKeyCount, store.getFamily().getCompression());
+      mobFileName = mobWriter.getPath().getName();
+    }
+    mobWriter.append(kv);
+    writer.append(MobUtils.createMobRefKeyValue(kv, mobFileName));
+    mobCells++;
+  }
+
+  private boolean isMergeable(String fileName) throws IOException {
+    if (mergeableThreshold <= 0) {
+      return false;
+    }
+    Boolean result = mergeable.get(fileName);
+    if (result == null) {
+      try {
+        result = store.getFileSystem().getFileStatus(
+          new Path(store.getMobFamilyPath(), fileName)).getLen() < mergeableThreshold;
+      } catch (FileNotFoundException e) {
+        LOG.warn("The MOB file " + fileName + " of store " + store + " is missing");
+        result = false;
+      }
+      mergeable.put(fileName, result);
+    }
+    return result;
+  }
+
+  /**
+   * @return the number of values written to the new MOB file
+   */
+  public long getMobCellsCount() {
+    return mobCells;
+  }
+
+  /**
+   * Commits the new MOB file, if any, and records the MOB files the store file refers to. To
+   * call before closing the writer of the store file.
+   * @param maxSeqId The maximum sequence id of the cells
+   */
+  public void commit(long maxSeqId) throws IOException {
+    if (mobWriter != null) {
+      mobWriter.appendMetadata(maxSeqId, false);
+      mobWriter.close();
+      store.commitMobFile(mobWriter.getPath());
+      refs.add(mobFileName);
+      mobWriter = null;
+    }
+    writer.appendFileInfo(MobConstants.MOB_FILE_REFS, MobUtils.serializeMobFileRefs(refs));
+  }
+
+  /**
+   * Deletes the new MOB file, if any, when the flush or compaction failed.
+   */
+  public void abort() {
+    if (mobWriter != null) {
+      Path path = mobWriter.getPath();
+      try {
+        mobWriter.close();
+        store.getFileSystem().delete(path, false);
+      } catch (IOException e) {
+        LOG.warn("Failed to delete the MOB file " + path + " of store " + store, e);
+      }
+      mobWriter = null;
+    }
+  }
+}
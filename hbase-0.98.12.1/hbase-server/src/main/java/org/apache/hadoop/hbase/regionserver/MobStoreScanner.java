@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NavigableSet;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.mob.MobUtils;
+
+/**
+ * A {@link StoreScanner} of a {@link HMobStore}, which returns the values the references to
+ * the MOB files refer to, unless the scan has
+ * {@link org.apache.hadoop.hbase.mob.MobConstants#MOB_SCAN_RAW} set. The filters of the scan
+ * see the references.
+ */
+@InterfaceAudience.Private
+public class MobStoreScanner extends StoreScanner {
+
+  private final HMobStore mobStore;
+  private final boolean cacheMobBlocks;
+  private final boolean rawMobScan;
+
+  public MobStoreScanner(Store store, ScanInfo scanInfo, Scan scan,
+      NavigableSet<byte[]> columns, long readPt) throws IOException {
+    super(store, scanInfo, scan, columns, readPt);
+    this.mobStore = (HMobStore) store;
+    this.cacheMobBlocks = scan.getCacheBlocks();
+    this.rawMobScan = MobUtils.isRawMobScan(scan);
+  }
+
+  @Override
+  public boolean next(List<Cell> outResult, int limit) throws IOException {
+    // The list may hold the cells of other stores already
+    int start = outResult.size();
+    boolean result = super.next(outResult, limit);
+    if (!rawMobScan) {
+      for (int i = start; i < outResult.size(); i++) {
+        Cell cell = outResult.get(i);
+        if (MobUtils.isMobReferenceCell(cell)) {
+          outResult.set(i, mobStore.resolve(cell, cacheMobBlocks));
+        }
+      }
+    }
+    return result;
+  }
+}
@@ -18,7 +18,9 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -29,23 +31,52 @@ import org.apache.hadoop.hbase.util.ClassSize;
  * an interface for readers to determine what entries to ignore, and
  * a mechanism for writers to obtain new write numbers, then "commit"
  * the new writes for readers to read (thus forming atomic transactions).
+ * <p>
+ * Writers and readers do not share a lock. Write numbers come from an atomic counter, and a
+ * completed write marks its slot in a ring of the pending writes. Whoever completes a write
+ * then advances the read point, with compare-and-set, over the completed writes that follow
+ * it. Only the threads that have to wait for the read point to catch up block on a monitor.
  */
 @InterfaceAudience.Private
 public class MultiVersionConsistencyControl {
-  private volatile long memstoreRead = 0;
-  private volatile long memstoreWrite = 0;
+  /** Default number of writes that can be pending at once before new writes have to wait */
+  static final int DEFAULT_RING_SIZE = 1024;
 
-  private final Object readWaiters = new Object();
+  private final AtomicLong memstoreRead = new AtomicLong(0);
+  private final AtomicLong memstoreWrite = new AtomicLong(0);
 
-  // This is the pending queue of writes.
-  private final LinkedList<WriteEntry> writeQueue =
-      new LinkedList<WriteEntry>();
+  /**
+   * Slot <code>n & ringMask</code> holds write number <code>n</code> once that write completed.
+   * A slot is only reused once the read point went past the write it held.
+   */
+  private final AtomicLongArray completedWrites;
+  private final int ringMask;
+
+  /** Threads waiting on readWaiters; only notified when there are some */
+  private final AtomicInteger numReadWaiters = new AtomicInteger(0);
+  private final Object readWaiters = new Object();
 
   /**
    * Default constructor. Initializes the memstoreRead/Write points to 0.
    */
   public MultiVersionConsistencyControl() {
-    this.memstoreRead = this.memstoreWrite = 0;
+    this(DEFAULT_RING_SIZE);
+  }
+
+  /**
+   * @param ringSize Number of writes that can be pending at once, rounded up to a power of two
+   */
+  MultiVersionConsistencyControl(int ringSize) {
+    int size = Integer.highestOneBit(Math.max(ringSize, 2) - 1) << 1;
+    this.completedWrites = new AtomicLongArray(size);
+    this.ringMask = size - 1;
+    clearCompletedWrites();
+  }
+
+  private void clearCompletedWrites() {
+    for (int i = 0; i < completedWrites.length(); i++) {
+      completedWrites.set(i, -1);
+    }
   }
 
   /**
@@ -53,12 +84,13 @@ public class MultiVersionConsistencyControl {
    * @param startPoint
    */
   public void initialize(long startPoint) {
-    synchronized (writeQueue) {
-      if (this.memstoreWrite != this.memstoreRead) {
+    synchronized (readWaiters) {
+      if (this.memstoreWrite.get() != this.memstoreRead.get()) {
         throw new RuntimeException("Already used this mvcc. Too late to initialize");
       }
-
-      this.memstoreRead = this.memstoreWrite = startPoint;
+      clearCompletedWrites();
+      this.memstoreWrite.set(startPoint);
+      this.memstoreRead.set(startPoint);
     }
   }
 
@@ -68,12 +100,11 @@ public class MultiVersionConsistencyControl {
    * call {@link #completeMemstoreInsert(WriteEntry)}.
    */
   public WriteEntry beginMemstoreInsert() {
-    synchronized (writeQueue) {
-      long nextWriteNumber = ++memstoreWrite;
-      WriteEntry e = new WriteEntry(nextWriteNumber);
-      writeQueue.add(e);
-      return e;
-    }
+    long nextWriteNumber = memstoreWrite.incrementAndGet();
+    // If the ring is full, wait for its oldest write to become visible to reuse its slot.
+    // The writes pending are bounded by the handlers, so this should hardly ever happen.
+    waitForReadPoint(nextWriteNumber - completedWrites.length());
+    return new WriteEntry(nextWriteNumber);
   }
 
   /**
@@ -99,45 +130,37 @@ public class MultiVersionConsistencyControl {
    * @return true if e is visible to MVCC readers (that is, readpoint >= e.writeNumber)
    */
   boolean advanceMemstore(WriteEntry e) {
-    synchronized (writeQueue) {
-      e.markCompleted();
-
-      long nextReadValue = -1;
-      boolean ranOnce=false;
-      while (!writeQueue.isEmpty()) {
-        ranOnce=true;
-        WriteEntry queueFirst = writeQueue.getFirst();
-
-        if (nextReadValue > 0) {
-          if (nextReadValue+1 != queueFirst.getWriteNumber()) {
-            throw new RuntimeException("invariant in completeMemstoreInsert violated, prev: "
-                + nextReadValue + " next: " + queueFirst.getWriteNumber());
-          }
-        }
-
-        if (queueFirst.isCompleted()) {
-          nextReadValue = queueFirst.getWriteNumber();
-          writeQueue.removeFirst();
-        } else {
-          break;
-        }
-      }
-
-      if (!ranOnce) {
-        throw new RuntimeException("never was a first");
+    long writeNumber = e.getWriteNumber();
+    if (e.isCompleted() || writeNumber <= memstoreRead.get()) {
+      throw new RuntimeException("invariant in completeMemstoreInsert violated, write "
+          + writeNumber + " already completed, read point: " + memstoreRead.get());
+    }
+    e.markCompleted();
+    completedWrites.set(slot(writeNumber), writeNumber);
+
+    // Whichever of two consecutive writes completes last sees the other one completed, so
+    // the read point never stays behind a completed write.
+    boolean advanced = false;
+    while (true) {
+      long readPoint = memstoreRead.get();
+      long nextReadValue = readPoint + 1;
+      if (completedWrites.get(slot(nextReadValue)) != nextReadValue) {
+        break;
       }
-
-      if (nextReadValue > 0) {
-        synchronized (readWaiters) {
-          memstoreRead = nextReadValue;
-          readWaiters.notifyAll();
-        }
+      if (memstoreRead.compareAndSet(readPoint, nextReadValue)) {
+        advanced = true;
       }
-      if (memstoreRead >= e.getWriteNumber()) {
-        return true;
+    }
+    if (advanced && numReadWaiters.get() > 0) {
+      synchronized (readWaiters) {
+        readWaiters.notifyAll();
       }
-      return false;
     }
+    return memstoreRead.get() >= writeNumber;
+  }
+
+  private int slot(long writeNumber) {
+    return (int) (writeNumber & ringMask);
   }
 
   /**
@@ -145,23 +168,35 @@ public class MultiVersionConsistencyControl {
    * the specified transaction number.
    */
   public void waitForRead(WriteEntry e) {
+    waitForReadPoint(e.getWriteNumber());
+  }
+
+  private void waitForReadPoint(long writeNumber) {
+    if (memstoreRead.get() >= writeNumber) {
+      return;
+    }
     boolean interrupted = false;
-    synchronized (readWaiters) {
-      while (memstoreRead < e.getWriteNumber()) {
-        try {
-          readWaiters.wait(0);
-        } catch (InterruptedException ie) {
-          // We were interrupted... finish the loop -- i.e. cleanup --and then
-          // on our way out, reset the interrupt flag.
-          interrupted = true;
+    numReadWaiters.incrementAndGet();
+    try {
+      synchronized (readWaiters) {
+        while (memstoreRead.get() < writeNumber) {
+          try {
+            readWaiters.wait(0);
+          } catch (InterruptedException ie) {
+            // We were interrupted... finish the loop -- i.e. cleanup --and then
+            // on our way out, reset the interrupt flag.
+            interrupted = true;
+          }
         }
       }
+    } finally {
+      numReadWaiters.decrementAndGet();
     }
     if (interrupted) Thread.currentThread().interrupt();
   }
 
   public long memstoreReadPoint() {
-    return memstoreRead;
+    return memstoreRead.get();
   }
 
 
@@ -184,7 +219,12 @@ public class MultiVersionConsistencyControl {
 
   public static final long FIXED_SIZE = ClassSize.align(
       ClassSize.OBJECT +
-      2 * Bytes.SIZEOF_LONG +
-      2 * ClassSize.REFERENCE);
+      Bytes.SIZEOF_INT +
+      5 * ClassSize.REFERENCE +
+      2 * ClassSize.ATOMIC_LONG +
+      ClassSize.ATOMIC_INTEGER +
+      ClassSize.OBJECT +
+      ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) +
+      ClassSize.align(ClassSize.ARRAY + DEFAULT_RING_SIZE * Bytes.SIZEOF_LONG));
 
 }
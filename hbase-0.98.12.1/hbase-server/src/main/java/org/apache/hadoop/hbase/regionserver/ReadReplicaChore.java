@@ -0,0 +1,314 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.Chore;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.catalog.MetaEditor;
+import org.apache.hadoop.hbase.catalog.MetaReader;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RegionReplicaUtil;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.Hash;
+import org.apache.hadoop.hbase.util.MurmurHash;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.hbase.zookeeper.ZKTableReadOnly;
+import org.apache.hadoop.hbase.zookeeper.ZKUtil;
+import org.apache.zookeeper.KeeperException;
+
+/**
+ * Hosts the read replicas of the regions of tables with a
+ * {@link HTableDescriptor#getRegionReplication() region replication} above one.
+ * <p>
+ * Every region server runs this chore and computes the same placement: replica
+ * <code>n</code> of a region goes to the live server with the highest hash of the region,
+ * <code>n</code> and the server, leaving out the server of the primary and of the lower
+ * replicas. A server opens the replicas placed on it, publishes them in hbase:meta (see
+ * {@link RegionReplicaUtil}) and closes the ones placed elsewhere. The new host of a replica
+ * overwrites the columns of the previous one, so they are never deleted.
+ * <p>
+ * Computing the placement reads the locations of the regions of the replicated tables from
+ * hbase:meta, so it is only done when the live servers or the replicated tables changed, or
+ * while regions wait for their primary to be assigned, and otherwise once per
+ * {@value #PLACEMENT_PERIOD_KEY}: new regions of existing tables, from splits or merges, get
+ * their replicas within that period.
+ * <p>
+ * On every run the hosted replicas also pick up the store files the primaries flushed or
+ * compacted since; a replica never sees edits still in the memstore of its primary.
+ */
+@InterfaceAudience.Private
+class ReadReplicaChore extends Chore {
+  private static final Log LOG = LogFactory.getLog(ReadReplicaChore.class);
+
+  /**
+   * Period, in milliseconds, of the store file refresh of read replicas, and of the check of
+   * whether their placement changed
+   */
+  static final String PERIOD_KEY = "hbase.regionserver.readreplica.period";
+  static final int DEFAULT_PERIOD = 30000;
+  /**
+   * Maximum period, in milliseconds, between two computations of the placement when neither
+   * the live servers nor the replication of the tables change
+   */
+  static final String PLACEMENT_PERIOD_KEY = "hbase.regionserver.readreplica.placement.period";
+  static final long DEFAULT_PLACEMENT_PERIOD = 300000;
+
+  private final HRegionServer server;
+  private final long placementPeriod;
+  private final Hash hash = MurmurHash.getInstance();
+
+  /** Inputs of the last placement, null before the first one */
+  private List<ServerName> placedServers = null;
+  /** Region replication of the replicated tables */
+  private Map<TableName, Integer> placedTables = null;
+  private long lastPlacement = 0;
+  /** Whether the last placement left out regions whose primary was not assigned */
+  private boolean placementIncomplete = false;
+  /** Regions this server should host a read replica of, by encoded name, as last placed */
+  private Map<String, HRegionInfo> wanted = new HashMap<String, HRegionInfo>();
+  /** The hbase:meta edit announcing each replica of {@link #wanted} */
+  private Map<String, Put> publish = new HashMap<String, Put>();
+
+  ReadReplicaChore(final HRegionServer server, final int period, final long placementPeriod) {
+    super(server.getServerName() + "-ReadReplicaChore", period, server);
+    this.server = server;
+    this.placementPeriod = placementPeriod;
+  }
+
+  @Override
+  protected void chore() {
+    try {
+      if (updatePlacement()) {
+        for (Map.Entry<String, HRegion> e : server.replicaRegions.entrySet()) {
+          if (!wanted.containsKey(e.getKey())) {
+            closeReplica(e.getKey(), false);
+          }
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed computing read replica placement; will retry", e);
+    } catch (KeeperException e) {
+      LOG.warn("Failed listing region servers; will retry", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    for (HRegion replica : server.replicaRegions.values()) {
+      try {
+        replica.refreshStoreFiles();
+      } catch (IOException e) {
+        LOG.warn("Failed refreshing store files of read replica " + replica + "; will retry", e);
+      }
+    }
+
+    List<Put> puts = new ArrayList<Put>();
+    for (Map.Entry<String, HRegionInfo> e : wanted.entrySet()) {
+      if (server.replicaRegions.containsKey(e.getKey())) continue;
+      if (server.isStopped()) return;
+      HRegionInfo hri = e.getValue();
+      try {
+        HTableDescriptor htd = server.tableDescriptors.get(hri.getTable());
+        HRegion replica = HRegion.openReadReplica(server.getConfiguration(),
+          server.getFileSystem(), server.getRootDir(), hri, htd, server, null);
+        server.replicaRegions.put(e.getKey(), replica);
+        puts.add(publish.get(e.getKey()));
+        LOG.info("Opened read replica of " + hri.getRegionNameAsString());
+      } catch (IOException ioe) {
+        LOG.warn("Failed opening read replica of " + hri.getRegionNameAsString()
+          + "; will retry", ioe);
+      }
+    }
+    if (puts.isEmpty()) return;
+    try {
+      MetaEditor.putsToMetaTable(server.getCatalogTracker(), puts);
+    } catch (IOException e) {
+      LOG.warn("Failed publishing " + puts.size() + " read replicas in hbase:meta", e);
+    }
+  }
+
+  /**
+   * Computes the placement again if its inputs changed or the placement period elapsed.
+   * @return true if the placement was computed again
+   */
+  private boolean updatePlacement() throws IOException, KeeperException, InterruptedException {
+    List<String> servers = ZKUtil.listChildrenNoWatch(server.getZooKeeper(),
+      server.getZooKeeper().rsZNode);
+    List<ServerName> live = new ArrayList<ServerName>();
+    if (servers != null) {
+      for (String s : servers) {
+        live.add(ServerName.parseServerName(s));
+      }
+    }
+    Collections.sort(live);
+    Set<TableName> disabled = ZKTableReadOnly.getDisabledOrDisablingTables(
+      server.getZooKeeper());
+    List<HTableDescriptor> tables = new ArrayList<HTableDescriptor>();
+    Map<TableName, Integer> replication = new HashMap<TableName, Integer>();
+    for (HTableDescriptor htd : server.tableDescriptors.getAll().values()) {
+      if (htd.getRegionReplication() > 1 && !htd.getTableName().isSystemTable()
+          && !disabled.contains(htd.getTableName())) {
+        tables.add(htd);
+        replication.put(htd.getTableName(), htd.getRegionReplication());
+      }
+    }
+
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    if (!placementIncomplete && live.equals(placedServers)
+        && replication.equals(placedTables) && now - lastPlacement < placementPeriod) {
+      return false;
+    }
+    Map<String, HRegionInfo> newWanted = new HashMap<String, HRegionInfo>();
+    Map<String, Put> newPublish = new HashMap<String, Put>();
+    boolean incomplete = false;
+    if (live.size() >= 2) {
+      for (HTableDescriptor htd : tables) {
+        incomplete |= !computeReplicasOfThisServer(htd, live, newWanted, newPublish);
+      }
+    }
+    this.placementIncomplete = incomplete;
+    this.wanted = newWanted;
+    this.publish = newPublish;
+    this.placedServers = live;
+    this.placedTables = replication;
+    this.lastPlacement = now;
+    return true;
+  }
+
+  /**
+   * @param htd a table with a region replication above one
+   * @param live the live servers, sorted
+   * @param wanted receives the regions of the table this server should host a read replica
+   *   of, by encoded name
+   * @param publish receives the hbase:meta edit announcing each replica of this server
+   * @return false if regions of the table were left out as their primary is not assigned
+   */
+  private boolean computeReplicasOfThisServer(HTableDescriptor htd, List<ServerName> live,
+      Map<String, HRegionInfo> wanted, Map<String, Put> publish)
+      throws IOException, InterruptedException {
+    ServerName self = server.getServerName();
+    int replication = htd.getRegionReplication();
+    boolean complete = true;
+    List<Pair<HRegionInfo, ServerName>> regions = MetaReader.getTableRegionsAndLocations(
+      server.getCatalogTracker(), htd.getTableName(), true);
+    for (Pair<HRegionInfo, ServerName> region : regions) {
+      HRegionInfo hri = region.getFirst();
+      ServerName primary = region.getSecond();
+      if (hri.isOffline() || hri.isSplit()) continue;
+      if (primary == null) {
+        complete = false;
+        continue;
+      }
+      List<ServerName> taken = new ArrayList<ServerName>(replication);
+      taken.add(primary);
+      for (int replicaId = 1; replicaId < replication; replicaId++) {
+        ServerName chosen = choose(hri, replicaId, live, taken);
+        if (chosen == null) break;
+        taken.add(chosen);
+        if (chosen.equals(self)) {
+          wanted.put(hri.getEncodedName(), hri);
+          publish.put(hri.getEncodedName(), makeLocationPut(hri, replicaId, self));
+          break;
+        }
+      }
+    }
+    return complete;
+  }
+
+  /**
+   * Rendezvous hashing: the live server not yet taken with the highest hash of region,
+   * replica and server. Host and port rather than the full server name are hashed so a
+   * restarted server gets its replicas back.
+   */
+  private ServerName choose(HRegionInfo hri, int replicaId, List<ServerName> live,
+      List<ServerName> taken) {
+    ServerName best = null;
+    int bestHash = 0;
+    for (ServerName sn : live) {
+      boolean isTaken = false;
+      for (ServerName t : taken) {
+        if (ServerName.isSameHostnameAndPort(sn, t)) {
+          isTaken = true;
+          break;
+        }
+      }
+      if (isTaken) continue;
+      byte[] key = Bytes.toBytes(hri.getEncodedName() + "," + replicaId + ","
+        + sn.getHostAndPort());
+      int h = hash.hash(key);
+      if (best == null || h > bestHash) {
+        best = sn;
+        bestHash = h;
+      }
+    }
+    return best;
+  }
+
+  private static Put makeLocationPut(HRegionInfo hri, int replicaId, ServerName sn) {
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+    Put put = new Put(hri.getRegionName());
+    put.addImmutable(HConstants.CATALOG_FAMILY, RegionReplicaUtil.getServerColumn(replicaId),
+      now, Bytes.toBytes(sn.getHostAndPort()));
+    put.addImmutable(HConstants.CATALOG_FAMILY,
+      RegionReplicaUtil.getStartCodeColumn(replicaId), now, Bytes.toBytes(sn.getStartcode()));
+    return put;
+  }
+
+  /**
+   * Closes the read replica of a region, if this server hosts one.
+   * @param encodedName encoded name of the region
+   * @param abort true if the server is aborting
+   */
+  void closeReplica(final String encodedName, final boolean abort) {
+    HRegion replica = server.replicaRegions.remove(encodedName);
+    if (replica == null) return;
+    try {
+      replica.close(abort);
+      LOG.info("Closed read replica of " + replica.getRegionNameAsString());
+    } catch (IOException e) {
+      LOG.warn("Failed closing read replica of " + replica.getRegionNameAsString(), e);
+    }
+  }
+
+  /**
+   * Closes all the read replicas of this server.
+   * @param abort true if the server is aborting
+   */
+  void closeAllReplicas(final boolean abort) {
+    for (String encodedName : server.replicaRegions.keySet()) {
+      closeReplica(encodedName, abort);
+    }
+  }
+}
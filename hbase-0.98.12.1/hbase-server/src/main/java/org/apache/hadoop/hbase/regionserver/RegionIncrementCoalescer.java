@@ -0,0 +1,356 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Durability;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.HashedBytes;
+
+/**
+ * Groups the concurrent Increments of a row of a region into a single one, so that a hot
+ * counter row takes one row lock, one read, one memstore update and one WAL append and sync for
+ * a whole group rather than for each Increment. Each caller still gets back the values its own
+ * Increment would have returned, had the group been applied one Increment after the other.
+ * <p>
+ * The first Increment of a row opens a group and leads it: it waits for the row lock, which the
+ * previous group of the row holds while it is applied, while the Increments coming meanwhile
+ * join the group. The leader then closes the group, applies the sum of the amounts, and hands
+ * its share of the result, or the failure, to each member.
+ * <p>
+ * Coalescing is opt-in, with {@value #INCREMENT_COALESCING_KEY} in the configuration of the
+ * server or of the table. Increments with a time range, a TTL, attributes or tags, and those
+ * with another durability than their group, are applied on their own. As the group is applied
+ * as a single Increment, region observers see the summed Increment, and the WAL records the
+ * nonce of the leader only: after a server failure, the retry of another member of the group
+ * is not recognized as such.
+ */
+@InterfaceAudience.Private
+public class RegionIncrementCoalescer {
+  public static final String INCREMENT_COALESCING_KEY = "hbase.region.increment.coalescing";
+  public static final String MAX_BATCH_SIZE_KEY =
+      "hbase.region.increment.coalescing.max.batch";
+  static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+  private final HRegion region;
+  private final int maxBatchSize;
+  private final ConcurrentMap<HashedBytes, Batch> openBatches =
+      new ConcurrentHashMap<HashedBytes, Batch>();
+  /** Increments applied as part of the group of another one */
+  private final AtomicLong coalescedIncrements = new AtomicLong();
+
+  /**
+   * A group of Increments of a row.
+   */
+  private static class Batch {
+    private final Durability durability;
+    private final List<Increment> increments = new ArrayList<Increment>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private boolean closed = false;
+    private Result[] results;
+    private IOException exception;
+
+    /**
+     * @param leader The Increment opening the group, at index 0
+     */
+    Batch(Increment leader) {
+      this.durability = leader.getDurability();
+      this.increments.add(leader);
+    }
+
+    /**
+     * @return the index of the Increment in the group, -1 if the group is already closed, -2 if
+     * the Increment cannot join it
+     */
+    synchronized int add(Increment increment, int maxSize) {
+      if (closed) {
+        return -1;
+      }
+      if (increments.size() >= maxSize || increment.getDurability() != durability) {
+        return -2;
+      }
+      increments.add(increment);
+      return increments.size() - 1;
+    }
+
+    synchronized List<Increment> close() {
+      closed = true;
+      return increments;
+    }
+
+    synchronized int size() {
+      return increments.size();
+    }
+
+    void complete(Result[] results, IOException exception) {
+      synchronized (this) {
+        this.results = results;
+        this.exception = exception;
+      }
+      done.countDown();
+    }
+
+    Result await(int index) throws IOException {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        InterruptedIOException iie = new InterruptedIOException(
+            "Interrupted waiting for the increments of the row to be applied");
+        iie.initCause(e);
+        throw iie;
+      }
+      synchronized (this) {
+        if (exception != null) {
+          throw exception;
+        }
+        return results[index];
+      }
+    }
+  }
+
+  RegionIncrementCoalescer(HRegion region, Configuration conf) {
+    this.region = region;
+    this.maxBatchSize = conf.getInt(MAX_BATCH_SIZE_KEY, DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  /**
+   * @return Whether coalescing is enabled in the given configuration
+   */
+  static boolean isEnabled(Configuration conf) {
+    return conf.getBoolean(INCREMENT_COALESCING_KEY, false);
+  }
+
+  /**
+   * Applies the Increment, along with the concurrent Increments of the same row.
+   * @return the new values of the columns the Increment updates
+   */
+  Result increment(Increment increment, long nonceGroup, long nonce) throws IOException {
+    if (!canCoalesce(increment)) {
+      return region.doIncrement(increment, nonceGroup, nonce);
+    }
+    HashedBytes row = new HashedBytes(increment.getRow());
+    Batch batch;
+    int index = 0;
+    boolean leader = false;
+    while (true) {
+      batch = openBatches.get(row);
+      if (batch == null) {
+        batch = new Batch(increment);
+        if (openBatches.putIfAbsent(row, batch) != null) {
+          continue;
+        }
+        leader = true;
+        break;
+      }
+      index = batch.add(increment, maxBatchSize);
+      if (index == -2) {
+        return region.doIncrement(increment, nonceGroup, nonce);
+      }
+      if (index >= 0) {
+        break;
+      }
+      // The group was just closed, its leader is about to remove it
+      Thread.yield();
+    }
+    if (!leader) {
+      return batch.await(index);
+    }
+    return applyBatch(increment, row, batch, nonceGroup, nonce);
+  }
+
+  /**
+   * Applies the group the leader opened, and hands each member its result.
+   * @return the result of the leader
+   */
+  private Result applyBatch(Increment increment, HashedBytes row, Batch batch, long nonceGroup,
+      long nonce) throws IOException {
+    Result[] results = null;
+    IOException exception = null;
+    try {
+      // Let the group grow while the previous one of the row is being applied
+      region.getRowLock(increment.getRow()).release();
+      openBatches.remove(row, batch);
+      List<Increment> increments = batch.close();
+      if (increments.size() == 1) {
+        results = new Result[] { region.doIncrement(increment, nonceGroup, nonce) };
+      } else {
+        Result combined = region.doIncrement(combine(increments, batch.durability),
+          nonceGroup, nonce);
+        results = splitResult(combined, increments);
+        coalescedIncrements.addAndGet(increments.size() - 1);
+      }
+      return results[0];
+    } catch (IOException e) {
+      exception = e;
+      throw e;
+    } finally {
+      if (results == null && exception == null) {
+        exception = new IOException("Failed to apply the increments of row "
+            + Bytes.toStringBinary(increment.getRow()));
+      }
+      openBatches.remove(row, batch);
+      batch.close();
+      batch.complete(results, exception);
+    }
+  }
+
+  /**
+   * Validates the Increment before it joins a group, so that a bad one fails on its own rather
+   * than with its whole group.
+   * @return Whether the Increment may join a group
+   * @throws NoSuchColumnFamilyException if the Increment updates a family the table lacks
+   * @throws DoNotRetryIOException if an amount of the Increment is not 64 bits wide
+   */
+  private boolean canCoalesce(Increment increment) throws IOException {
+    region.checkFamilies(increment.getFamilyCellMap().keySet());
+    boolean canCoalesce = increment.getTimeRange().isAllTime()
+        && increment.getTTL() == Long.MAX_VALUE && increment.getAttributesMap().isEmpty();
+    for (List<Cell> cells : increment.getFamilyCellMap().values()) {
+      for (Cell cell : cells) {
+        if (cell.getValueLength() != Bytes.SIZEOF_LONG) {
+          throw new DoNotRetryIOException("Attempted to increment column "
+              + Bytes.toStringBinary(CellUtil.cloneFamily(cell)) + ":"
+              + Bytes.toStringBinary(CellUtil.cloneQualifier(cell))
+              + " by an amount that isn't 64 bits wide");
+        }
+        if (cell.getTagsLengthUnsigned() > 0) {
+          canCoalesce = false;
+        }
+      }
+    }
+    return canCoalesce;
+  }
+
+  /**
+   * @return the amounts of the Increment, by family and qualifier
+   */
+  private static Map<byte[], Map<byte[], Long>> getAmounts(Increment increment) {
+    Map<byte[], Map<byte[], Long>> amounts =
+        new TreeMap<byte[], Map<byte[], Long>>(Bytes.BYTES_COMPARATOR);
+    for (Map.Entry<byte[], List<Cell>> family : increment.getFamilyCellMap().entrySet()) {
+      Map<byte[], Long> columns = amounts.get(family.getKey());
+      if (columns == null) {
+        columns = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+        amounts.put(family.getKey(), columns);
+      }
+      for (Cell cell : family.getValue()) {
+        byte[] qualifier = CellUtil.cloneQualifier(cell);
+        long amount = Bytes.toLong(cell.getValueArray(), cell.getValueOffset(),
+          cell.getValueLength());
+        Long previous = columns.get(qualifier);
+        columns.put(qualifier, previous == null ? amount : previous + amount);
+      }
+    }
+    return amounts;
+  }
+
+  private static Increment combine(List<Increment> increments, Durability durability) {
+    Increment combined = new Increment(increments.get(0).getRow());
+    combined.setDurability(durability);
+    Map<byte[], Map<byte[], Long>> sums =
+        new TreeMap<byte[], Map<byte[], Long>>(Bytes.BYTES_COMPARATOR);
+    for (Increment increment : increments) {
+      for (Map.Entry<byte[], Map<byte[], Long>> family : getAmounts(increment).entrySet()) {
+        Map<byte[], Long> columns = sums.get(family.getKey());
+        if (columns == null) {
+          columns = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+          sums.put(family.getKey(), columns);
+        }
+        for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+          Long previous = columns.get(column.getKey());
+          columns.put(column.getKey(),
+            previous == null ? column.getValue() : previous + column.getValue());
+        }
+      }
+    }
+    for (Map.Entry<byte[], Map<byte[], Long>> family : sums.entrySet()) {
+      for (Map.Entry<byte[], Long> column : family.getValue().entrySet()) {
+        combined.addColumn(family.getKey(), column.getKey(), column.getValue());
+      }
+    }
+    return combined;
+  }
+
+  /**
+   * Works out the result of each Increment of the group from the result of the combined one,
+   * going back from the last Increment: each one sees the values before the ones after it.
+   */
+  private static Result[] splitResult(Result combined, List<Increment> increments) {
+    Cell[] finalCells = combined.rawCells();
+    if (finalCells == null) {
+      finalCells = new Cell[0];
+    }
+    long[] values = new long[finalCells.length];
+    for (int i = 0; i < finalCells.length; i++) {
+      Cell cell = finalCells[i];
+      values[i] = Bytes.toLong(cell.getValueArray(), cell.getValueOffset(),
+        cell.getValueLength());
+    }
+    Result[] results = new Result[increments.size()];
+    for (int k = increments.size() - 1; k >= 0; k--) {
+      Map<byte[], Map<byte[], Long>> amounts = getAmounts(increments.get(k));
+      List<Cell> cells = new ArrayList<Cell>();
+      for (int i = 0; i < finalCells.length; i++) {
+        Cell cell = finalCells[i];
+        Map<byte[], Long> columns = amounts.get(CellUtil.cloneFamily(cell));
+        Long amount = columns == null ? null : columns.get(CellUtil.cloneQualifier(cell));
+        if (amount == null) {
+          continue;
+        }
+        cells.add(new KeyValue(CellUtil.cloneRow(cell), CellUtil.cloneFamily(cell),
+          CellUtil.cloneQualifier(cell), cell.getTimestamp(), Bytes.toBytes(values[i])));
+        values[i] -= amount;
+      }
+      results[k] = Result.create(cells);
+    }
+    return results;
+  }
+
+  /**
+   * @return the number of Increments applied as part of the group of another one
+   */
+  long getCoalescedIncrements() {
+    return coalescedIncrements.get();
+  }
+
+  /**
+   * @return the number of Increments in the open group of the row, waiting to be applied
+   */
+  int getPendingIncrements(byte[] row) {
+    Batch batch = openBatches.get(new HashedBytes(row));
+    return batch == null ? 0 : batch.size();
+  }
+}
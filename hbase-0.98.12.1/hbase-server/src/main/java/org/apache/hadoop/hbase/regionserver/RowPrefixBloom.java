@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Works out the row prefixes that the {@link BloomType#ROWPREFIX_FIXED_LENGTH} and
+ * {@link BloomType#ROWPREFIX_DELIMITED} Bloom filters hold, and the prefix a scan is limited
+ * to, if any.
+ * <p>
+ * The prefix of a row is its first {@value #PREFIX_LENGTH_KEY} bytes, or the row up to and
+ * including the first {@value #DELIMITER_KEY}; the whole row if it is shorter or has no
+ * delimiter. Including the delimiter keeps the prefixes of sorted rows sorted, as the Bloom
+ * filter requires.
+ */
+@InterfaceAudience.Private
+public class RowPrefixBloom {
+  /** Column family configuration key of the prefix length of ROWPREFIX_FIXED_LENGTH */
+  public static final String PREFIX_LENGTH_KEY = "RowPrefixBloomFilter.prefix_length";
+  /** Column family configuration key of the delimiter of ROWPREFIX_DELIMITED */
+  public static final String DELIMITER_KEY = "RowPrefixDelimitedBloomFilter.delimiter";
+
+  private final BloomType bloomType;
+  private final int prefixLength;
+  private final byte[] delimiter;
+
+  private RowPrefixBloom(BloomType bloomType, int prefixLength, byte[] delimiter) {
+    this.bloomType = bloomType;
+    this.prefixLength = prefixLength;
+    this.delimiter = delimiter;
+  }
+
+  /**
+   * @return the prefix settings of the Bloom type in the given configuration, null if the type
+   * is not a row prefix one or if they are missing or invalid
+   */
+  public static RowPrefixBloom create(BloomType bloomType, Configuration conf) {
+    switch (bloomType) {
+      case ROWPREFIX_FIXED_LENGTH:
+        int length = conf.getInt(PREFIX_LENGTH_KEY, -1);
+        return length > 0 ? new RowPrefixBloom(bloomType, length, null) : null;
+      case ROWPREFIX_DELIMITED:
+        String delimiter = conf.get(DELIMITER_KEY);
+        return delimiter != null && !delimiter.isEmpty()
+            ? new RowPrefixBloom(bloomType, -1, Bytes.toBytes(delimiter)) : null;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @param bytes the settings as written by {@link #toBytes()}
+   * @return the prefix settings of the Bloom type, null if the type is not a row prefix one or
+   * if the settings are missing
+   */
+  public static RowPrefixBloom fromBytes(BloomType bloomType, byte[] bytes) {
+    if (bytes == null) {
+      return null;
+    }
+    switch (bloomType) {
+      case ROWPREFIX_FIXED_LENGTH:
+        return new RowPrefixBloom(bloomType, Bytes.toInt(bytes), null);
+      case ROWPREFIX_DELIMITED:
+        return new RowPrefixBloom(bloomType, -1, bytes);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return the settings, to store in the file info of the file
+   */
+  public byte[] toBytes() {
+    return bloomType == BloomType.ROWPREFIX_FIXED_LENGTH ? Bytes.toBytes(prefixLength)
+        : delimiter;
+  }
+
+  /**
+   * @return the length of the prefix of the row
+   */
+  public int getPrefixLength(byte[] row, int offset, int length) {
+    if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH) {
+      return Math.min(length, prefixLength);
+    }
+    int index = indexOfDelimiter(row, offset, length);
+    return index < 0 ? length : index - offset + delimiter.length;
+  }
+
+  private int indexOfDelimiter(byte[] row, int offset, int length) {
+    for (int i = offset; i <= offset + length - delimiter.length; i++) {
+      if (Bytes.equals(row, i, delimiter.length, delimiter, 0, delimiter.length)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the row prefix of all the rows the scan can return, or null if they may have
+   * different prefixes
+   */
+  public byte[] getScanPrefix(Scan scan) {
+    byte[] startRow = scan.getStartRow();
+    if (scan.isGetScan()) {
+      return Arrays.copyOf(startRow, getPrefixLength(startRow, 0, startRow.length));
+    }
+    byte[] stopRow = scan.getStopRow();
+    if (scan.isReversed() || startRow.length == 0
+        || Bytes.equals(stopRow, HConstants.EMPTY_END_ROW)) {
+      return null;
+    }
+    if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH ? startRow.length < prefixLength
+        : indexOfDelimiter(startRow, 0, startRow.length) < 0) {
+      // The rows after the start row may be longer, with other prefixes
+      return null;
+    }
+    int length = getPrefixLength(startRow, 0, startRow.length);
+    byte[] prefix = Arrays.copyOf(startRow, length);
+    // The rows in [start, stop) have the prefix if the stop row has it, or is right after it
+    if (Bytes.startsWith(stopRow, prefix)) {
+      return prefix;
+    }
+    byte last = prefix[length - 1];
+    if (last != (byte) 0xFF && stopRow.length == length
+        && Bytes.equals(stopRow, 0, length - 1, prefix, 0, length - 1)
+        && stopRow[length - 1] == (byte) (last + 1)) {
+      return prefix;
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return bloomType == BloomType.ROWPREFIX_FIXED_LENGTH ? PREFIX_LENGTH_KEY + "=" + prefixLength
+        : DELIMITER_KEY + "=" + Bytes.toStringBinary(delimiter);
+  }
+}
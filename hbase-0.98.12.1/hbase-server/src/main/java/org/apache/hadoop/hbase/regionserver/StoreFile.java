@@ -105,6 +105,9 @@ public class StoreFile {
   /** Last Bloom filter key in FileInfo */
   private static final byte[] LAST_BLOOM_KEY = Bytes.toBytes("LAST_BLOOM_KEY");
 
+  /** Row prefix settings of the Bloom filter in FileInfo */
+  public static final byte[] BLOOM_FILTER_PARAM_KEY = Bytes.toBytes("BLOOM_FILTER_PARAM");
+
   /** Key for Timerange information in metadata*/
   public static final byte[] TIMERANGE_KEY = Bytes.toBytes("TIMERANGE");
 
@@ -707,6 +710,7 @@ public class StoreFile {
     private final BloomFilterWriter generalBloomFilterWriter;
     private final BloomFilterWriter deleteFamilyBloomFilterWriter;
     private final BloomType bloomType;
+    private final RowPrefixBloom rowPrefixBloom;
     private byte[] lastBloomKey;
     private int lastBloomKeyOffset, lastBloomKeyLen;
     private KVComparator kvComparator;
@@ -761,6 +765,20 @@ public class StoreFile {
 
       this.kvComparator = comparator;
 
+      if (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH
+          || bloomType == BloomType.ROWPREFIX_DELIMITED) {
+        this.rowPrefixBloom = RowPrefixBloom.create(bloomType, conf);
+        if (this.rowPrefixBloom == null) {
+          LOG.warn("No valid " + (bloomType == BloomType.ROWPREFIX_FIXED_LENGTH
+              ? RowPrefixBloom.PREFIX_LENGTH_KEY : RowPrefixBloom.DELIMITER_KEY)
+              + " configured for the " + bloomType + " Bloom filter of " + path
+              + ", using a ROW Bloom filter");
+          bloomType = BloomType.ROW;
+        }
+      } else {
+        this.rowPrefixBloom = null;
+      }
+
       generalBloomFilterWriter = BloomFilterFactory.createGeneralBloomAtWrite(
           conf, cacheConf, bloomType,
           (int) Math.min(maxKeys, Integer.MAX_VALUE), writer);
@@ -841,6 +859,8 @@ public class StoreFile {
       if (this.generalBloomFilterWriter != null) {
         // only add to the bloom filter on a new, unique key
         boolean newKey = true;
+        int prefixLen = rowPrefixBloom == null ? 0
+            : rowPrefixBloom.getPrefixLength(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
         if (this.lastKv != null) {
           switch(bloomType) {
           case ROW:
@@ -849,12 +869,16 @@ public class StoreFile {
           case ROWCOL:
             newKey = ! kvComparator.matchingRowColumn(kv, lastKv);
             break;
+          case ROWPREFIX_FIXED_LENGTH:
+          case ROWPREFIX_DELIMITED:
+            newKey = ! Bytes.equals(kv.getBuffer(), kv.getRowOffset(), prefixLen,
+                lastBloomKey, lastBloomKeyOffset, lastBloomKeyLen);
+            break;
           case NONE:
             newKey = false;
             break;
           default:
-            throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+            throw new IOException("Invalid Bloom filter type: " + bloomType);
           }
         }
         if (newKey) {
@@ -885,9 +909,14 @@ public class StoreFile {
             bloomKeyOffset = 0;
             bloomKeyLen = bloomKey.length;
             break;
+          case ROWPREFIX_FIXED_LENGTH:
+          case ROWPREFIX_DELIMITED:
+            bloomKey = kv.getBuffer();
+            bloomKeyOffset = kv.getRowOffset();
+            bloomKeyLen = prefixLen;
+            break;
           default:
-            throw new IOException("Invalid Bloom filter type: " + bloomType +
-                " (ROW or ROWCOL expected)");
+            throw new IOException("Invalid Bloom filter type: " + bloomType);
           }
           generalBloomFilterWriter.add(bloomKey, bloomKeyOffset, bloomKeyLen);
           if (lastBloomKey != null
@@ -969,6 +998,9 @@ public class StoreFile {
         writer.addGeneralBloomFilter(generalBloomFilterWriter);
         writer.appendFileInfo(BLOOM_FILTER_TYPE_KEY,
             Bytes.toBytes(bloomType.toString()));
+        if (rowPrefixBloom != null) {
+          writer.appendFileInfo(BLOOM_FILTER_PARAM_KEY, rowPrefixBloom.toBytes());
+        }
         if (lastBloomKey != null) {
           writer.appendFileInfo(LAST_BLOOM_KEY, Arrays.copyOfRange(
               lastBloomKey, lastBloomKeyOffset, lastBloomKeyOffset
@@ -1034,6 +1066,7 @@ public class StoreFile {
     protected TimeRangeTracker timeRangeTracker = null;
     protected long sequenceID = -1;
     private byte[] lastBloomKey;
+    private RowPrefixBloom rowPrefixBloom;
     private long deleteFamilyCnt = -1;
     private boolean bulkLoadResult = false;
 
@@ -1168,6 +1201,14 @@ public class StoreFile {
      */
      boolean passesBloomFilter(Scan scan,
         final SortedSet<byte[]> columns) {
+      if (this.bloomFilterType == BloomType.ROWPREFIX_FIXED_LENGTH
+          || this.bloomFilterType == BloomType.ROWPREFIX_DELIMITED) {
+        // Row prefix Bloom filters also apply to the scans limited to one prefix
+        byte[] prefix = rowPrefixBloom == null ? null : rowPrefixBloom.getScanPrefix(scan);
+        return prefix == null
+            || passesGeneralBloomFilter(prefix, 0, prefix.length, null, 0, 0);
+      }
+
       // Multi-column non-get scans will use Bloom filters through the
       // lower-level API function that this function calls.
       if (!scan.isGetScan()) {
@@ -1264,6 +1305,16 @@ public class StoreFile {
               colOffset, colLen);
           break;
 
+        case ROWPREFIX_FIXED_LENGTH:
+        case ROWPREFIX_DELIMITED:
+          if (col != null) {
+            throw new RuntimeException("Row prefix Bloom filter called with " +
+                "column specified");
+          }
+          key = (rowOffset == 0 && rowLen == row.length) ? row
+              : Arrays.copyOfRange(row, rowOffset, rowOffset + rowLen);
+          break;
+
         default:
           return true;
       }
@@ -1365,6 +1416,7 @@ public class StoreFile {
       byte[] b = fi.get(BLOOM_FILTER_TYPE_KEY);
       if (b != null) {
         bloomFilterType = BloomType.valueOf(Bytes.toString(b));
+        rowPrefixBloom = RowPrefixBloom.fromBytes(bloomFilterType, fi.get(BLOOM_FILTER_PARAM_KEY));
       }
 
       lastBloomKey = fi.get(LAST_BLOOM_KEY);
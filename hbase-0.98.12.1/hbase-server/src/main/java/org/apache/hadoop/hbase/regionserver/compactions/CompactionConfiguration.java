@@ -53,6 +53,18 @@ public class CompactionConfiguration {
   public static final String MIN_KEY = CONFIG_PREFIX + "min";
   public static final String MAX_KEY = CONFIG_PREFIX + "max";
 
+  /*
+   * The date tiered compaction policy settings, see {@link DateTieredCompactionPolicy}.
+   */
+  public static final String DATE_TIERED_MAX_AGE_KEY =
+      CONFIG_PREFIX + "date.tiered.max.storefile.age.millis";
+  public static final String DATE_TIERED_BASE_WINDOW_KEY =
+      CONFIG_PREFIX + "date.tiered.base.window.millis";
+  public static final String DATE_TIERED_WINDOWS_PER_TIER_KEY =
+      CONFIG_PREFIX + "date.tiered.windows.per.tier";
+  public static final String DATE_TIERED_INCOMING_WINDOW_MIN_KEY =
+      CONFIG_PREFIX + "date.tiered.incoming.window.min";
+
   Configuration conf;
   StoreConfigInformation storeConfigInfo;
 
@@ -66,6 +78,10 @@ public class CompactionConfiguration {
   long majorCompactionPeriod;
   float majorCompactionJitter;
   final float minLocalityToForceCompact;
+  long dateTieredMaxStoreFileAgeMillis;
+  long dateTieredBaseWindowMillis;
+  int dateTieredWindowsPerTier;
+  int dateTieredIncomingWindowMin;
 
 
   CompactionConfiguration(Configuration conf, StoreConfigInformation storeConfigInfo) {
@@ -88,6 +104,13 @@ public class CompactionConfiguration {
     majorCompactionJitter = conf.getFloat("hbase.hregion.majorcompaction.jitter", 0.50F);
     minLocalityToForceCompact = conf.getFloat(HBASE_HSTORE_MIN_LOCALITY_TO_SKIP_MAJOR_COMPACT, 0f);
 
+    dateTieredMaxStoreFileAgeMillis = conf.getLong(DATE_TIERED_MAX_AGE_KEY, Long.MAX_VALUE);
+    dateTieredBaseWindowMillis = Math.max(1,
+      conf.getLong(DATE_TIERED_BASE_WINDOW_KEY, 1000 * 60 * 60 * 6));
+    dateTieredWindowsPerTier = Math.max(2, conf.getInt(DATE_TIERED_WINDOWS_PER_TIER_KEY, 4));
+    dateTieredIncomingWindowMin = Math.max(2,
+      conf.getInt(DATE_TIERED_INCOMING_WINDOW_MIN_KEY, 6));
+
     LOG.info(this);
   }
 
@@ -182,4 +205,34 @@ public class CompactionConfiguration {
   float getMinLocalityToForceCompact() {
     return minLocalityToForceCompact;
   }
+
+  /**
+   * @return Age in milliseconds past which the date tiered policy leaves the files out of
+   * minor compactions
+   */
+  long getDateTieredMaxStoreFileAgeMillis() {
+    return dateTieredMaxStoreFileAgeMillis;
+  }
+
+  /**
+   * @return Size in milliseconds of the newest time windows of the date tiered policy
+   */
+  long getDateTieredBaseWindowMillis() {
+    return dateTieredBaseWindowMillis;
+  }
+
+  /**
+   * @return How many windows of a size the date tiered policy has before windows that many
+   * times larger
+   */
+  int getDateTieredWindowsPerTier() {
+    return dateTieredWindowsPerTier;
+  }
+
+  /**
+   * @return Least number of files the date tiered policy compacts in the incoming window
+   */
+  int getDateTieredIncomingWindowMin() {
+    return dateTieredIncomingWindowMin;
+  }
 }
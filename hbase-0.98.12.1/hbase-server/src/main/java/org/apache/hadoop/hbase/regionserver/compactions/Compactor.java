@@ -219,8 +219,7 @@ public abstract class Compactor {
     if (LOG.isDebugEnabled()) {
       lastMillis = EnvironmentEdgeManager.currentTimeMillis();
     }
-    String compactionName =
-        store.getRegionInfo().getRegionNameAsString() + "#" + store.getFamily().getNameAsString();
+    String compactionName = getCompactionName();
     long now = 0;
     boolean hasMore;
     throughputController.start(compactionName);
@@ -284,6 +283,14 @@ public abstract class Compactor {
     return true;
   }
 
+  /**
+   * @return The name the compaction is known by to the throughput controller and in the logs
+   */
+  protected String getCompactionName() {
+    return store.getRegionInfo().getRegionNameAsString() + "#"
+        + store.getFamily().getNameAsString();
+  }
+
   /**
    * @param store store
    * @param scanners Store file scanners.
@@ -0,0 +1,277 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseInterfaceAudience;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.regionserver.StoreConfigInformation;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreUtils;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+
+/**
+ * A compaction policy for time series data, where cells come in roughly in timestamp order and
+ * recent cells are read the most.
+ * <p>
+ * Store files are grouped into time windows by their max timestamp. The newest windows are
+ * {@link CompactionConfiguration#DATE_TIERED_BASE_WINDOW_KEY} long; going back in time, every
+ * {@link CompactionConfiguration#DATE_TIERED_WINDOWS_PER_TIER_KEY} windows of a size are
+ * followed by windows that many times larger. Minor compactions only compact files within one
+ * window, newest window first, so old data, once compacted into its window, is not rewritten
+ * again with every flush. The incoming window needs
+ * {@link CompactionConfiguration#DATE_TIERED_INCOMING_WINDOW_MIN_KEY} files, the older ones the
+ * usual minimum. Files older than
+ * {@link CompactionConfiguration#DATE_TIERED_MAX_AGE_KEY} are left out of minor compactions.
+ * <p>
+ * The requests carry the window boundaries;
+ * {@link org.apache.hadoop.hbase.regionserver.DateTieredStoreEngine} splits the output of
+ * compactions on them, so a major compaction writes one file per window. With the default store
+ * engine, compactions write a single file.
+ */
+@InterfaceAudience.LimitedPrivate(HBaseInterfaceAudience.CONFIG)
+public class DateTieredCompactionPolicy extends RatioBasedCompactionPolicy {
+  private static final Log LOG = LogFactory.getLog(DateTieredCompactionPolicy.class);
+
+  public DateTieredCompactionPolicy(Configuration conf, StoreConfigInformation storeConfigInfo) {
+    super(conf, storeConfigInfo);
+  }
+
+  @Override
+  public CompactionRequest selectCompaction(Collection<StoreFile> candidateFiles,
+      final List<StoreFile> filesCompacting, final boolean isUserCompaction,
+      final boolean mayUseOffPeak, final boolean forceMajor) throws IOException {
+    int futureFiles = filesCompacting.isEmpty() ? 0 : 1;
+    boolean mayBeStuck = (candidateFiles.size() - filesCompacting.size() + futureFiles)
+        >= storeConfigInfo.getBlockingFileCount();
+    ArrayList<StoreFile> candidates = new ArrayList<StoreFile>(
+        preSelectCompactionForCoprocessor(candidateFiles, filesCompacting));
+    LOG.debug("Selecting date tiered compaction from " + candidateFiles.size()
+        + " store files, " + filesCompacting.size() + " compacting, " + candidates.size()
+        + " eligible, " + storeConfigInfo.getBlockingFileCount() + " blocking");
+    long now = EnvironmentEdgeManager.currentTimeMillis();
+
+    boolean majorCompaction = (forceMajor && isUserCompaction)
+        || ((forceMajor || isMajorCompaction(candidates))
+            && (candidates.size() < comConf.getMaxFilesToCompact()))
+        || StoreUtils.hasReferences(candidates);
+    if (majorCompaction) {
+      return new DateTieredCompactionRequest(candidates,
+        getMajorCompactionBoundaries(candidates, now));
+    }
+
+    CompactionRequest result = selectMinorCompaction(candidates, mayUseOffPeak, now);
+    if (result == null && mayBeStuck) {
+      // Nothing to compact within the windows, but flushes are about to block: fall back to
+      // the ratio selection over all the files.
+      ArrayList<StoreFile> selection = applyCompactionPolicy(candidates, mayUseOffPeak, true);
+      result = new DateTieredCompactionRequest(trimToMaxFiles(selection),
+        Collections.singletonList(Long.MIN_VALUE));
+    }
+    if (result == null) {
+      result = new CompactionRequest(new ArrayList<StoreFile>());
+    }
+    result.setOffPeak(!result.getFiles().isEmpty() && mayUseOffPeak);
+    return result;
+  }
+
+  /**
+   * Walks the files from the newest to the oldest, window by window, and selects the files of
+   * the newest window that has enough of them.
+   * @param candidates The eligible files, ordered from oldest to newest
+   * @return The request, or null if no window has enough files
+   */
+  private CompactionRequest selectMinorCompaction(ArrayList<StoreFile> candidates,
+      boolean mayUseOffPeak, long now) throws IOException {
+    long maxAge = comConf.getDateTieredMaxStoreFileAgeMillis();
+    long oldestToCompact = maxAge >= now ? Long.MIN_VALUE : now - maxAge;
+    int count = candidates.size();
+    // Max timestamps made non-decreasing with the sequence id, so that windows never go
+    // forward in time again as we walk back through the files.
+    long[] maxTimestamps = new long[count];
+    long maxTimestamp = Long.MIN_VALUE;
+    for (int i = 0; i < count; ++i) {
+      maxTimestamp = Math.max(maxTimestamp, candidates.get(i).getReader().getMaxTimestamp());
+      maxTimestamps[i] = maxTimestamp;
+    }
+
+    Window window = getIncomingWindow(now);
+    int minThreshold = comConf.getDateTieredIncomingWindowMin();
+    int windowEnd = count;
+    int i = count - 1;
+    while (i >= 0 && maxTimestamps[i] >= oldestToCompact) {
+      if (window.compareToTimestamp(maxTimestamps[i]) > 0) {
+        // The file is older than the window: done with the files of this window.
+        CompactionRequest request = selectInWindow(candidates.subList(i + 1, windowEnd),
+          window, minThreshold, mayUseOffPeak);
+        if (request != null) {
+          return request;
+        }
+        window = window.nextEarlierWindow();
+        minThreshold = comConf.getMinFilesToCompact();
+        windowEnd = i + 1;
+      } else {
+        --i;
+      }
+    }
+    return selectInWindow(candidates.subList(i + 1, windowEnd), window, minThreshold,
+      mayUseOffPeak);
+  }
+
+  private CompactionRequest selectInWindow(List<StoreFile> windowFiles, Window window,
+      int minThreshold, boolean mayUseOffPeak) throws IOException {
+    if (windowFiles.size() < minThreshold) {
+      return null;
+    }
+    ArrayList<StoreFile> selection = applyCompactionPolicy(
+      new ArrayList<StoreFile>(windowFiles), mayUseOffPeak, false);
+    if (selection.size() < Math.max(2, comConf.getMinFilesToCompact())) {
+      return null;
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Selected " + selection.size() + " of " + windowFiles.size()
+          + " files in window " + window);
+    }
+    List<Long> boundaries = new ArrayList<Long>(2);
+    boundaries.add(Long.MIN_VALUE);
+    boundaries.add(window.startMillis());
+    return new DateTieredCompactionRequest(trimToMaxFiles(selection), boundaries);
+  }
+
+  private ArrayList<StoreFile> trimToMaxFiles(ArrayList<StoreFile> selection) {
+    int excess = selection.size() - comConf.getMaxFilesToCompact();
+    if (excess > 0) {
+      selection.subList(comConf.getMaxFilesToCompact(), selection.size()).clear();
+    }
+    return selection;
+  }
+
+  /**
+   * @return The lower bounds of all the windows from the incoming one back to the one holding
+   * the oldest timestamp of the files, ascending
+   */
+  private List<Long> getMajorCompactionBoundaries(Collection<StoreFile> files, long now) {
+    long minTimestamp = Long.MAX_VALUE;
+    for (StoreFile file : files) {
+      Long fileMinTimestamp = file.getMinimumTimestamp();
+      if (fileMinTimestamp == null) {
+        // A file without time range may hold any timestamp, do not split the output
+        return Collections.singletonList(Long.MIN_VALUE);
+      }
+      minTimestamp = Math.min(minTimestamp, fileMinTimestamp.longValue());
+    }
+    List<Long> boundaries = new ArrayList<Long>();
+    Window window = getIncomingWindow(now);
+    while (window.startMillis() > minTimestamp && window.startMillis() > Long.MIN_VALUE) {
+      boundaries.add(window.startMillis());
+      window = window.nextEarlierWindow();
+    }
+    boundaries.add(Long.MIN_VALUE);
+    Collections.reverse(boundaries);
+    return boundaries;
+  }
+
+  /**
+   * @param request A request selected by this policy, or one a coprocessor replaced
+   * @return The lower bounds of the time windows to split the output on, ascending
+   */
+  public List<Long> getCompactionBoundaries(CompactionRequest request) {
+    if (request instanceof DateTieredCompactionRequest) {
+      return ((DateTieredCompactionRequest) request).getBoundaries();
+    }
+    if (request.isMajor()) {
+      return getMajorCompactionBoundaries(request.getFiles(),
+        EnvironmentEdgeManager.currentTimeMillis());
+    }
+    return Collections.singletonList(Long.MIN_VALUE);
+  }
+
+  private Window getIncomingWindow(long now) {
+    long windowMillis = comConf.getDateTieredBaseWindowMillis();
+    return new Window(windowMillis, floorDiv(now, windowMillis),
+      comConf.getDateTieredWindowsPerTier());
+  }
+
+  private static long floorDiv(long dividend, long divisor) {
+    long quotient = dividend / divisor;
+    return (dividend % divisor < 0) ? quotient - 1 : quotient;
+  }
+
+  /**
+   * A time window, [divPosition * windowMillis, (divPosition + 1) * windowMillis).
+   */
+  static final class Window {
+    private final long windowMillis;
+    private final long divPosition;
+    private final int windowsPerTier;
+
+    Window(long windowMillis, long divPosition, int windowsPerTier) {
+      this.windowMillis = windowMillis;
+      this.divPosition = divPosition;
+      this.windowsPerTier = windowsPerTier;
+    }
+
+    /**
+     * @return 1 if the timestamp is before the window, -1 if after it, 0 if inside
+     */
+    int compareToTimestamp(long timestamp) {
+      long position = floorDiv(timestamp, windowMillis);
+      return position < divPosition ? 1 : (position > divPosition ? -1 : 0);
+    }
+
+    /**
+     * @return The window right before this one, larger if this one starts a tier
+     */
+    Window nextEarlierWindow() {
+      if (divPosition - floorDiv(divPosition, windowsPerTier) * windowsPerTier != 0
+          || windowMillis > Long.MAX_VALUE / windowsPerTier) {
+        return new Window(windowMillis, divPosition - 1, windowsPerTier);
+      }
+      return new Window(windowMillis * windowsPerTier,
+        floorDiv(divPosition, windowsPerTier) - 1, windowsPerTier);
+    }
+
+    /**
+     * @return The start of the window, or Long.MIN_VALUE if it is out of range
+     */
+    long startMillis() {
+      if (divPosition < Long.MIN_VALUE / windowMillis) {
+        return Long.MIN_VALUE;
+      }
+      return divPosition * windowMillis;
+    }
+
+    long endMillis() {
+      long start = startMillis();
+      return start > Long.MAX_VALUE - windowMillis ? Long.MAX_VALUE : start + windowMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "[" + startMillis() + ", " + endMillis() + ")";
+    }
+  }
+}
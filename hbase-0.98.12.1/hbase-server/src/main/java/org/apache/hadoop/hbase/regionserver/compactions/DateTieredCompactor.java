@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+
+/**
+ * Compacts store files into one file per time window, on the boundaries that
+ * {@link DateTieredCompactionPolicy} selected.
+ */
+@InterfaceAudience.Private
+public class DateTieredCompactor extends Compactor {
+  private static final Log LOG = LogFactory.getLog(DateTieredCompactor.class);
+
+  public DateTieredCompactor(Configuration conf, Store store) {
+    super(conf, store);
+  }
+
+  /**
+   * @param request The compaction request
+   * @param lowerBoundaries The lower bounds of the output windows, ascending, starting with
+   *          Long.MIN_VALUE
+   * @param throughputController Controls the throughput of the compaction
+   * @return The paths of the output files, one per window that got cells
+   */
+  public List<Path> compact(CompactionRequest request, List<Long> lowerBoundaries,
+      CompactionThroughputController throughputController) throws IOException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Executing compaction with " + lowerBoundaries.size()
+          + " windows, lower boundaries: " + lowerBoundaries);
+    }
+    final Collection<StoreFile> filesToCompact = request.getFiles();
+    final FileDetails fd = getFileDetails(filesToCompact, request.isMajor());
+    this.progress = new CompactionProgress(fd.maxKeyCount);
+
+    long smallestReadPoint = getSmallestReadPoint();
+    List<StoreFileScanner> scanners = createFileScanners(filesToCompact, smallestReadPoint);
+
+    boolean finished = false;
+    InternalScanner scanner = null;
+    WindowMultiWriter writer = null;
+    try {
+      ScanType scanType = request.isMajor()
+          ? ScanType.COMPACT_DROP_DELETES : ScanType.COMPACT_RETAIN_DELETES;
+      scanner = preCreateCoprocScanner(request, scanType, fd.earliestPutTs, scanners);
+      if (scanner == null) {
+        scanner = createScanner(store, scanners, scanType, smallestReadPoint, fd.earliestPutTs);
+      }
+      scanner = postCreateCoprocScanner(request, scanType, scanner);
+      if (scanner == null) {
+        // NULL scanner returned from coprocessor hooks means skip normal processing.
+        return new ArrayList<Path>();
+      }
+
+      boolean needMvcc = fd.maxMVCCReadpoint >= smallestReadPoint;
+      writer = new WindowMultiWriter(lowerBoundaries, fd, needMvcc);
+      finished = performCompaction(scanner, writer, smallestReadPoint, throughputController);
+      if (!finished) {
+        throw new InterruptedIOException("Aborting compaction of store " + store +
+            " in region " + store.getRegionInfo().getRegionNameAsString() +
+            " because it was interrupted.");
+      }
+    } finally {
+      if (scanner != null) {
+        try {
+          scanner.close();
+        } catch (Throwable t) {
+          // Don't fail the compaction if this fails.
+          LOG.error("Failed to close scanner after compaction.", t);
+        }
+      }
+      if (!finished && writer != null) {
+        for (Path leftoverFile : writer.abortWriters()) {
+          try {
+            store.getFileSystem().delete(leftoverFile, false);
+          } catch (Exception ex) {
+            LOG.error("Failed to delete the leftover file after an unfinished compaction.", ex);
+          }
+        }
+      }
+    }
+    return writer.commitWriters(fd.maxSeqId, request.isMajor());
+  }
+
+  /**
+   * Cell sink that writes each cell to the file of the window of its timestamp, opening the
+   * files as the first cell of their window comes.
+   */
+  private class WindowMultiWriter implements CellSink {
+    private final NavigableMap<Long, StoreFile.Writer> lowerBoundary2Writer =
+        new TreeMap<Long, StoreFile.Writer>();
+    private final FileDetails fd;
+    private final boolean needMvcc;
+    private final Compression.Algorithm compression;
+
+    WindowMultiWriter(List<Long> lowerBoundaries, FileDetails fd, boolean needMvcc) {
+      for (Long lowerBoundary : lowerBoundaries) {
+        lowerBoundary2Writer.put(lowerBoundary, null);
+      }
+      this.fd = fd;
+      this.needMvcc = needMvcc;
+      this.compression = store.getFamily().getCompactionCompression();
+    }
+
+    @Override
+    public void append(KeyValue kv) throws IOException {
+      Map.Entry<Long, StoreFile.Writer> entry = lowerBoundary2Writer.floorEntry(kv.getTimestamp());
+      StoreFile.Writer writer = entry.getValue();
+      if (writer == null) {
+        writer = createWriter();
+        lowerBoundary2Writer.put(entry.getKey(), writer);
+      }
+      writer.append(kv);
+    }
+
+    private StoreFile.Writer createWriter() throws IOException {
+      return store.createWriterInTmp(fd.maxKeyCount, compression, true, needMvcc,
+        fd.maxTagsLength > 0);
+    }
+
+    List<Path> commitWriters(long maxSeqId, boolean isMajor) throws IOException {
+      if (isEmpty()) {
+        // Write an empty file to preserve the metadata, as the default compactor does.
+        lowerBoundary2Writer.put(lowerBoundary2Writer.firstKey(), createWriter());
+      }
+      List<Path> paths = new ArrayList<Path>();
+      for (StoreFile.Writer writer : lowerBoundary2Writer.values()) {
+        if (writer == null) {
+          continue;
+        }
+        writer.appendMetadata(maxSeqId, isMajor);
+        paths.add(writer.getPath());
+        writer.close();
+      }
+      return paths;
+    }
+
+    private boolean isEmpty() {
+      for (StoreFile.Writer writer : lowerBoundary2Writer.values()) {
+        if (writer != null) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    List<Path> abortWriters() {
+      List<Path> paths = new ArrayList<Path>();
+      for (StoreFile.Writer writer : lowerBoundary2Writer.values()) {
+        if (writer == null) {
+          continue;
+        }
+        try {
+          paths.add(writer.getPath());
+          writer.close();
+        } catch (Exception ex) {
+          LOG.error("Failed to close the writer after an unfinished compaction.", ex);
+        }
+      }
+      return paths;
+    }
+  }
+}
@@ -22,18 +22,35 @@ import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.hfile.HFileBlockIndex;
+import org.apache.hadoop.hbase.regionserver.CompactSplitThread;
+import org.apache.hadoop.hbase.regionserver.HStore;
 import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.RegionServerServices;
 import org.apache.hadoop.hbase.regionserver.ScanType;
 import org.apache.hadoop.hbase.regionserver.Store;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
+import org.apache.hadoop.hbase.regionserver.StoreScanner;
+import org.apache.hadoop.hbase.util.ReflectionUtils;
 
 /**
  * Compact passed set of files. Create an instance and then call
@@ -43,6 +60,21 @@ import org.apache.hadoop.hbase.regionserver.StoreFileScanner;
 public class DefaultCompactor extends Compactor {
   private static final Log LOG = LogFactory.getLog(DefaultCompactor.class);
 
+  /**
+   * Most sub-compactions a compaction is split into, running in parallel on the sub-compaction
+   * pool of the region server. 1, the default, never splits compactions.
+   */
+  public static final String SUB_COMPACTION_MAX_COUNT_KEY = "hbase.hstore.compaction.sub.max";
+  public static final int DEFAULT_SUB_COMPACTION_MAX_COUNT = 1;
+  /** Least amount of data, in bytes, of the files compacted per sub-compaction */
+  public static final String SUB_COMPACTION_MIN_SIZE_KEY = "hbase.hstore.compaction.sub.min.size";
+  public static final long DEFAULT_SUB_COMPACTION_MIN_SIZE = 1024L * 1024 * 1024;
+
+  /** The sub-compactions running, null unless a compaction is split */
+  private volatile List<DefaultCompactor> subCompactors;
+  /** Appended to the compaction name by sub-compactors */
+  private String subCompactionSuffix = "";
+
   public DefaultCompactor(final Configuration conf, final Store store) {
     super(conf, store);
   }
@@ -52,6 +84,8 @@ public class DefaultCompactor extends Compactor {
    */
   public List<Path> compact(final CompactionRequest request,
       CompactionThroughputController throughputController) throws IOException {
+    List<byte[]> splitRows = getSubCompactionSplitRows(request);
+    ExecutorService pool = splitRows.isEmpty() ? null : getSubCompactionPool();
     FileDetails fd = getFileDetails(request.getFiles(), request.isMajor());
     this.progress = new CompactionProgress(fd.maxKeyCount);
 
@@ -63,40 +97,75 @@ public class DefaultCompactor extends Compactor {
     if (this.conf.getBoolean("hbase.regionserver.compaction.private.readers", false)) {
       // clone all StoreFiles, so we'll do the compaction on a independent copy of StoreFiles,
       // HFileFiles, and their readers
-      readersToClose = new ArrayList<StoreFile>(request.getFiles().size());
-      for (StoreFile f : request.getFiles()) {
-        readersToClose.add(new StoreFile(f));
-      }
+      readersToClose = openPrivateReaders(request);
       scanners = createFileScanners(readersToClose, smallestReadPoint);
     } else {
       readersToClose = Collections.emptyList();
       scanners = createFileScanners(request.getFiles(), smallestReadPoint);
     }
 
+    try {
+      /* Include deletes, unless we are doing a major compaction */
+      ScanType scanType =
+          request.isMajor() ? ScanType.COMPACT_DROP_DELETES : ScanType.COMPACT_RETAIN_DELETES;
+      // The coprocessor hooks see the compaction as a whole, split or not
+      InternalScanner scanner = preCreateCoprocScanner(request, scanType, fd.earliestPutTs,
+        scanners);
+      InternalScanner defaultScanner = null;
+      if (scanner == null) {
+        scanner = createScanner(store, scanners, scanType, smallestReadPoint, fd.earliestPutTs);
+        defaultScanner = scanner;
+      }
+      try {
+        scanner = postCreateCoprocScanner(request, scanType, scanner);
+      } catch (IOException ioe) {
+        if (defaultScanner != null) {
+          defaultScanner.close();
+        }
+        throw ioe;
+      }
+      if (scanner == null) {
+        // NULL scanner returned from coprocessor hooks means skip normal processing.
+        if (defaultScanner != null) {
+          defaultScanner.close();
+        }
+        return new ArrayList<Path>();
+      }
+      if (pool != null && scanner == defaultScanner) {
+        // Nothing replaced or wrapped the scanner, so the sub-compactions can do with scanners
+        // of their row ranges instead
+        scanner.close();
+        return compactInParallel(request, fd, smallestReadPoint, scanType, splitRows, pool,
+          throughputController);
+      }
+      if (pool != null) {
+        LOG.info("Not splitting the compaction of " + store + " in region "
+            + store.getRegionInfo().getRegionNameAsString()
+            + ", a coprocessor provides its scanner");
+      }
+      return compact(request, fd, scanner, smallestReadPoint, throughputController);
+    } finally {
+      closeReaders(readersToClose);
+    }
+  }
+
+  /**
+   * Writes the cells of the scanner to a new file, then closes the scanner.
+   * @return The new file; none if the compaction was skipped
+   */
+  private List<Path> compact(final CompactionRequest request, FileDetails fd,
+      InternalScanner scanner, long smallestReadPoint,
+      CompactionThroughputController throughputController) throws IOException {
     StoreFile.Writer writer = null;
     List<Path> newFiles = new ArrayList<Path>();
     IOException e = null;
     try {
-      InternalScanner scanner = null;
       try {
-        /* Include deletes, unless we are doing a major compaction */
-        ScanType scanType =
-            request.isMajor() ? ScanType.COMPACT_DROP_DELETES : ScanType.COMPACT_RETAIN_DELETES;
-        scanner = preCreateCoprocScanner(request, scanType, fd.earliestPutTs, scanners);
-        if (scanner == null) {
-          scanner = createScanner(store, scanners, scanType, smallestReadPoint, fd.earliestPutTs);
-        }
-        scanner = postCreateCoprocScanner(request, scanType, scanner);
-        if (scanner == null) {
-          // NULL scanner returned from coprocessor hooks means skip normal processing.
-          return newFiles;
-        }
         // Create the writer even if no kv(Empty store file is also ok),
         // because we need record the max seq id for the store file, see HBASE-6059
-        writer = store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
-            fd.maxMVCCReadpoint >= smallestReadPoint, fd.maxTagsLength > 0);
-        boolean finished =
-            performCompaction(scanner, writer, smallestReadPoint, throughputController);
+        writer = createTmpWriter(fd, smallestReadPoint);
+        boolean finished = performCompaction(request, fd, scanner, writer, smallestReadPoint,
+          throughputController);
         if (!finished) {
           writer.close();
           store.getFileSystem().delete(writer.getPath(), false);
@@ -106,38 +175,375 @@ public class DefaultCompactor extends Compactor {
               " because it was interrupted.");
          }
        } finally {
-         if (scanner != null) {
-           scanner.close();
-         }
+         scanner.close();
       }
     } catch (IOException ioe) {
       e = ioe;
       // Throw the exception;
       throw ioe;
     } finally {
-      try {
-        if (writer != null) {
-          if (e != null) {
-            writer.close();
-          } else {
-            writer.appendMetadata(fd.maxSeqId, request.isMajor());
-            writer.close();
-            newFiles.add(writer.getPath());
-          }
+      if (writer != null) {
+        if (e != null) {
+          writer.close();
+          // Do not leave the partial output behind
+          store.getFileSystem().delete(writer.getPath(), false);
+        } else {
+          writer.appendMetadata(fd.maxSeqId, request.isMajor());
+          writer.close();
+          newFiles.add(writer.getPath());
         }
-      } finally {
-        for (StoreFile f : readersToClose) {
+      }
+    }
+    return newFiles;
+  }
+
+  /**
+   * Runs the compaction as one sub-compaction per row range, in parallel, each writing its own
+   * file. The files are only returned, to be committed together, if all sub-compactions
+   * succeeded. As soon as one fails, the others stop and all of their output is deleted.
+   * @param splitRows The rows the ranges are split at, ascending
+   */
+  private List<Path> compactInParallel(final CompactionRequest request, final FileDetails fd,
+      final long smallestReadPoint, ScanType scanType, List<byte[]> splitRows,
+      ExecutorService pool, final CompactionThroughputController throughputController)
+      throws IOException {
+    final int count = splitRows.size() + 1;
+    LOG.info("Splitting the compaction of " + request.getFiles().size() + " files of " + store
+        + " in region " + store.getRegionInfo().getRegionNameAsString() + " into " + count
+        + " sub-compactions");
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    List<DefaultCompactor> compactors = new ArrayList<DefaultCompactor>(count);
+    List<InternalScanner> scanners = new ArrayList<InternalScanner>(count);
+    List<Collection<StoreFile>> readers = new ArrayList<Collection<StoreFile>>(count);
+    try {
+      // Each sub-compaction reads its range through readers of its own
+      for (int i = 0; i < count; i++) {
+        byte[] startRow = (i == 0) ? null : splitRows.get(i - 1);
+        byte[] stopRow = (i == count - 1) ? null : splitRows.get(i);
+        Collection<StoreFile> rangeReaders = openPrivateReaders(request);
+        readers.add(rangeReaders);
+        InternalScanner scanner = createSubCompactionScanner(
+          createFileScanners(rangeReaders, smallestReadPoint), scanType, smallestReadPoint,
+          fd.earliestPutTs, startRow);
+        scanners.add(new RowRangeScanner(scanner, stopRow, store.getComparator(), failed));
+        compactors.add(createSubCompactor(i));
+      }
+    } catch (IOException ioe) {
+      for (InternalScanner scanner : scanners) {
+        scanner.close();
+      }
+      for (Collection<StoreFile> rangeReaders : readers) {
+        closeReaders(rangeReaders);
+      }
+      throw ioe;
+    }
+
+    CompletionService<List<Path>> completionService =
+        new ExecutorCompletionService<List<Path>>(pool);
+    for (int i = 0; i < count; i++) {
+      final DefaultCompactor compactor = compactors.get(i);
+      final InternalScanner scanner = scanners.get(i);
+      final Collection<StoreFile> rangeReaders = readers.get(i);
+      completionService.submit(new Callable<List<Path>>() {
+        @Override
+        public List<Path> call() throws IOException {
           try {
-            f.closeReader(true);
+            if (failed.get()) {
+              // Cancelled before it started
+              scanner.close();
+              return Collections.emptyList();
+            }
+            compactor.progress = new CompactionProgress(fd.maxKeyCount / count);
+            return compactor.compact(request, fd, scanner, smallestReadPoint,
+              throughputController);
           } catch (IOException ioe) {
-            LOG.warn("Exception closing " + f, ioe);
+            failed.set(true);
+            throw ioe;
+          } finally {
+            closeReaders(rangeReaders);
           }
         }
+      });
+    }
+    this.subCompactors = compactors;
+
+    List<Path> newFiles = new ArrayList<Path>();
+    IOException error = null;
+    boolean interrupted = false;
+    // Wait for all of them, also after a failure: the others stop at their next row, and
+    // whatever they wrote has to go
+    for (int i = 0; i < count; i++) {
+      try {
+        newFiles.addAll(completionService.take().get());
+      } catch (InterruptedException ie) {
+        if (error == null) {
+          error = (IOException) new InterruptedIOException("Interrupted waiting for the "
+              + "sub-compactions of store " + store).initCause(ie);
+        }
+        failed.set(true);
+        interrupted = true;
+        i--;
+      } catch (ExecutionException ee) {
+        Throwable cause = ee.getCause();
+        // Report the failure that stopped the others rather than their cancellation
+        if (error == null || (error instanceof SubCompactionCancelledException
+            && !(cause instanceof SubCompactionCancelledException))) {
+          error = (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    this.progress = getProgress();
+    this.subCompactors = null;
+    if (error != null) {
+      for (Path newFile : newFiles) {
+        try {
+          store.getFileSystem().delete(newFile, false);
+        } catch (IOException ioe) {
+          LOG.warn("Failed to delete " + newFile + " after a failed sub-compaction", ioe);
+        }
       }
+      throw error;
     }
     return newFiles;
   }
 
+  private Collection<StoreFile> openPrivateReaders(CompactionRequest request) {
+    Collection<StoreFile> readers = new ArrayList<StoreFile>(request.getFiles().size());
+    for (StoreFile f : request.getFiles()) {
+      readers.add(new StoreFile(f));
+    }
+    return readers;
+  }
+
+  private static void closeReaders(Collection<StoreFile> readers) {
+    for (StoreFile f : readers) {
+      try {
+        f.closeReader(true);
+      } catch (IOException ioe) {
+        LOG.warn("Exception closing " + f, ioe);
+      }
+    }
+  }
+
+  @Override
+  public CompactionProgress getProgress() {
+    List<DefaultCompactor> compactors = this.subCompactors;
+    if (compactors == null) {
+      return this.progress;
+    }
+    long totalCompactingKVs = 0;
+    long currentCompactedKVs = 0;
+    long totalCompactedSize = 0;
+    for (DefaultCompactor compactor : compactors) {
+      CompactionProgress subProgress = compactor.progress;
+      if (subProgress != null) {
+        totalCompactingKVs += subProgress.totalCompactingKVs;
+        currentCompactedKVs += subProgress.currentCompactedKVs;
+        totalCompactedSize += subProgress.totalCompactedSize;
+      }
+    }
+    CompactionProgress progress = new CompactionProgress(totalCompactingKVs);
+    progress.currentCompactedKVs = currentCompactedKVs;
+    progress.totalCompactedSize = totalCompactedSize;
+    return progress;
+  }
+
+  @Override
+  protected String getCompactionName() {
+    return super.getCompactionName() + subCompactionSuffix;
+  }
+
+  /**
+   * Picks the rows to split a large compaction at from the root level of the data block index
+   * of its largest file, so the ranges hold about the same amount of data.
+   * @return The split rows, ascending; empty if the compaction should not be split
+   */
+  List<byte[]> getSubCompactionSplitRows(CompactionRequest request) {
+    int maxCount = conf.getInt(SUB_COMPACTION_MAX_COUNT_KEY, DEFAULT_SUB_COMPACTION_MAX_COUNT);
+    long minSize = Math.max(1,
+      conf.getLong(SUB_COMPACTION_MIN_SIZE_KEY, DEFAULT_SUB_COMPACTION_MIN_SIZE));
+    long count = Math.min(maxCount, request.getSize() / minSize);
+    if (count < 2) {
+      return Collections.emptyList();
+    }
+    StoreFile.Reader largest = null;
+    for (StoreFile file : request.getFiles()) {
+      StoreFile.Reader reader = file.getReader();
+      if (reader != null && (largest == null || reader.length() > largest.length())) {
+        largest = reader;
+      }
+    }
+    if (largest == null) {
+      return Collections.emptyList();
+    }
+    HFileBlockIndex.BlockIndexReader index =
+        largest.getHFileReader().getDataBlockIndexReader();
+    int rootCount = index.getRootBlockCount();
+    KVComparator comparator = store.getComparator();
+    List<byte[]> splitRows = new ArrayList<byte[]>();
+    byte[] lastRow = null;
+    for (long i = 1; i < count; i++) {
+      // The first key of the root level is the first key of the file, no use splitting there
+      int position = (int) (i * rootCount / count);
+      if (position == 0) {
+        continue;
+      }
+      byte[] row = KeyValue.createKeyValueFromKey(index.getRootBlockKey(position)).getRow();
+      if (lastRow == null
+          || comparator.compareRows(row, 0, row.length, lastRow, 0, lastRow.length) > 0) {
+        splitRows.add(row);
+        lastRow = row;
+      }
+    }
+    return splitRows;
+  }
+
+  /**
+   * @return The pool of the region server to run sub-compactions in, or null if there is none
+   */
+  protected ExecutorService getSubCompactionPool() {
+    if (!(store instanceof HStore)) {
+      return null;
+    }
+    RegionServerServices services = ((HStore) store).getHRegion().getRegionServerServices();
+    if (services == null || !(services.getCompactionRequester() instanceof CompactSplitThread)) {
+      return null;
+    }
+    return ((CompactSplitThread) services.getCompactionRequester()).getSubCompactionPool();
+  }
+
+  /**
+   * @param index Index of the sub-compaction
+   * @return A compactor of the same kind as this one to run a sub-compaction with
+   */
+  protected DefaultCompactor createSubCompactor(int index) throws IOException {
+    DefaultCompactor compactor;
+    try {
+      compactor = ReflectionUtils.instantiateWithCustomCtor(getClass().getName(),
+        new Class[] { Configuration.class, Store.class }, new Object[] { conf, store });
+    } catch (Exception e) {
+      throw new IOException("Unable to create a sub-compactor of " + getClass().getName(), e);
+    }
+    compactor.subCompactionSuffix = "#sub" + index;
+    return compactor;
+  }
+
+  /**
+   * Creates the scanner of a sub-compaction, seeked to the start row of its range, if any.
+   */
+  private InternalScanner createSubCompactionScanner(List<StoreFileScanner> scanners,
+      ScanType scanType, long smallestReadPoint, long earliestPutTs, byte[] startRow)
+      throws IOException {
+    Scan scan = new Scan();
+    scan.setMaxVersions(store.getFamily().getMaxVersions());
+    if (startRow != null) {
+      scan.setStartRow(startRow);
+    }
+    return new StoreScanner(store, store.getScanInfo(), scan, scanners, scanType,
+        smallestReadPoint, earliestPutTs);
+  }
+
+  /**
+   * Thrown by the sub-compactions that stop because another one failed.
+   */
+  private static class SubCompactionCancelledException extends InterruptedIOException {
+    private static final long serialVersionUID = 1L;
+
+    SubCompactionCancelledException() {
+      super("Cancelled, another sub-compaction failed");
+    }
+  }
+
+  /**
+   * Passes on the cells up to the stop row of a range only; the scanner it wraps starts at the
+   * start row. Compaction scanners return the cells of a row at most per call, so the scan ends
+   * at the first call past the range. Fails once another
+   * sub-compaction of the same compaction has failed.
+   */
+  private static class RowRangeScanner implements InternalScanner {
+    private final InternalScanner delegate;
+    private final byte[] stopRow;
+    private final KVComparator comparator;
+    private final AtomicBoolean failed;
+    private boolean done = false;
+
+    RowRangeScanner(InternalScanner delegate, byte[] stopRow, KVComparator comparator,
+        AtomicBoolean failed) {
+      this.delegate = delegate;
+      this.stopRow = stopRow;
+      this.comparator = comparator;
+      this.failed = failed;
+    }
+
+    @Override
+    public boolean next(List<Cell> results) throws IOException {
+      return next(results, -1);
+    }
+
+    @Override
+    public boolean next(List<Cell> results, int limit) throws IOException {
+      if (done) {
+        return false;
+      }
+      if (failed.get()) {
+        throw new SubCompactionCancelledException();
+      }
+      int first = results.size();
+      boolean hasMore = delegate.next(results, limit);
+      Iterator<Cell> it = results.listIterator(first);
+      while (it.hasNext()) {
+        Cell cell = it.next();
+        if (stopRow != null && comparator.compareRows(cell.getRowArray(), cell.getRowOffset(),
+            cell.getRowLength(), stopRow, 0, stopRow.length) >= 0) {
+          // Past the range: drop the rest
+          it.remove();
+          while (it.hasNext()) {
+            it.next();
+            it.remove();
+          }
+          done = true;
+          return false;
+        }
+      }
+      return hasMore;
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+  }
+
+  /**
+   * Creates the writer of the file the compaction writes to.
+   * @param fd The details of the files compacted
+   * @param smallestReadPoint Smallest read point
+   * @return The writer
+   */
+  protected StoreFile.Writer createTmpWriter(FileDetails fd, long smallestReadPoint)
+      throws IOException {
+    return store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
+        fd.maxMVCCReadpoint >= smallestReadPoint, fd.maxTagsLength > 0);
+  }
+
+  /**
+   * Performs the compaction, into a writer not closed yet.
+   * @param request The compaction request
+   * @param fd The details of the files compacted
+   * @param scanner Where to read from.
+   * @param writer Where to write to.
+   * @param smallestReadPoint Smallest read point.
+   * @return Whether compaction ended; false if it was interrupted for some reason.
+   */
+  protected boolean performCompaction(CompactionRequest request, FileDetails fd,
+      InternalScanner scanner, StoreFile.Writer writer, long smallestReadPoint,
+      CompactionThroughputController throughputController) throws IOException {
+    return performCompaction(scanner, writer, smallestReadPoint, throughputController);
+  }
+
   /**
    * Compact a list of files for testing. Creates a fake {@link CompactionRequest} to pass to
    * {@link #compact(CompactionRequest, CompactionThroughputController)};
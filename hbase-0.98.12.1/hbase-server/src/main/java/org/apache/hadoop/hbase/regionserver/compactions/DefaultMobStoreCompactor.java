@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.mob.MobConstants;
+import org.apache.hadoop.hbase.regionserver.HMobStore;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.MobCellSink;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+
+/**
+ * The compactor of a {@link HMobStore}. The compactions keep the references to the MOB files
+ * as they are, and write to a new MOB file the values at least the MOB threshold long still in
+ * the store files, e.g. written before the family was a MOB one. Major compactions also
+ * rewrite there the values of the MOB files smaller than
+ * {@link MobConstants#MOB_COMPACTION_MERGEABLE_THRESHOLD}, so the small MOB files of the
+ * flushes end up merged.
+ */
+@InterfaceAudience.Private
+public class DefaultMobStoreCompactor extends DefaultCompactor {
+
+  private final long mergeableThreshold;
+
+  public DefaultMobStoreCompactor(final Configuration conf, final Store store) {
+    super(conf, store);
+    this.mergeableThreshold = conf.getLong(MobConstants.MOB_COMPACTION_MERGEABLE_THRESHOLD,
+      MobConstants.DEFAULT_MOB_COMPACTION_MERGEABLE_THRESHOLD);
+  }
+
+  @Override
+  protected StoreFile.Writer createTmpWriter(FileDetails fd, long smallestReadPoint)
+      throws IOException {
+    // The references to the MOB files are tags
+    return store.createWriterInTmp(fd.maxKeyCount, this.compactionCompression, true,
+        fd.maxMVCCReadpoint >= smallestReadPoint, true);
+  }
+
+  @Override
+  protected boolean performCompaction(CompactionRequest request, FileDetails fd,
+      InternalScanner scanner, StoreFile.Writer writer, long smallestReadPoint,
+      CompactionThroughputController throughputController) throws IOException {
+    MobCellSink sink = new MobCellSink((HMobStore) store, writer, fd.maxKeyCount,
+        request.isMajor() ? mergeableThreshold : 0);
+    boolean finished = false;
+    try {
+      finished = performCompaction(scanner, sink, smallestReadPoint, throughputController);
+      if (finished) {
+        sink.commit(fd.maxSeqId);
+      }
+    } finally {
+      if (!finished) {
+        sink.abort();
+      }
+    }
+    return finished;
+  }
+}
@@ -28,16 +28,20 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
@@ -113,6 +117,13 @@ class FSHLog implements HLog, Syncable {
 
   private static final int DEFAULT_SLOW_SYNC_TIME_MS = 100; // in ms
 
+  /** Use the ring buffer write pipeline instead of AsyncWriter/AsyncSyncer/AsyncNotifier */
+  static final String RING_BUFFER_ENABLED_KEY = "hbase.regionserver.hlog.ringbuffer.enabled";
+  /** Number of slots in the ring; rounded up to a power of two */
+  static final String RING_BUFFER_SIZE_KEY = "hbase.regionserver.hlog.ringbuffer.size";
+  static final int DEFAULT_RING_BUFFER_SIZE = 1024;
+  private static final long RING_BUFFER_FULL_BACKOFF_NS = 1000;
+
   private final FileSystem fs;
   private final Path rootDir;
   private final Path dir;
@@ -166,17 +177,20 @@ class FSHLog implements HLog, Syncable {
   private final ReentrantLock rollWriterLock = new ReentrantLock(true);
 
   /**
-   * Map of encoded region names to their most recent sequence/edit id in their memstore.
+   * Map of encoded region names to the sequence/edit id of the oldest edit in the memstore of
+   * each of their families. Tracked per family, as a region may flush some families only.
    */
-  private final ConcurrentSkipListMap<byte [], Long> oldestUnflushedSeqNums =
-    new ConcurrentSkipListMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+  private final ConcurrentSkipListMap<byte [], ConcurrentSkipListMap<byte[], Long>>
+    oldestUnflushedSeqNums =
+      new ConcurrentSkipListMap<byte [], ConcurrentSkipListMap<byte[], Long>>(
+        Bytes.BYTES_COMPARATOR);
   /**
-   * Map of encoded region names to their most recent sequence/edit id in their memstore;
-   * contains the regions that are currently flushing. That way we can store two numbers for
-   * flushing and non-flushing (oldestUnflushedSeqNums) memstore for the same region.
+   * Map of encoded region names to the sequence/edit id of the oldest edit in the memstore of
+   * each of their families that are currently flushing. That way we can store two numbers for
+   * flushing and non-flushing (oldestUnflushedSeqNums) memstore for the same family.
    */
-  private final Map<byte[], Long> oldestFlushingSeqNums =
-    new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+  private final Map<byte[], Map<byte[], Long>> oldestFlushingSeqNums =
+    new TreeMap<byte[], Map<byte[], Long>>(Bytes.BYTES_COMPARATOR);
 
   private volatile boolean closed = false;
 
@@ -242,6 +256,17 @@ class FSHLog implements HLog, Syncable {
   private final AsyncSyncer[] asyncSyncers;
   private final AsyncNotifier asyncNotifier;
 
+  // Alternate write pipeline, used instead of the AsyncWriter/AsyncSyncer/
+  // AsyncNotifier threads above when hbase.regionserver.hlog.ringbuffer.enabled
+  // is set. Appending handlers publish into a preallocated ring under the
+  // updateLock, a single consumer drains the ring in batches, and the sync
+  // runners hand completion back to the waiting handlers without taking
+  // a monitor. See RingBufferConsumer.
+  private final RingBufferConsumer ringBufferConsumer;
+  private final RingSyncRunner[] ringSyncRunners;
+  private final ConcurrentLinkedQueue<SyncWaiter> syncWaiters =
+    new ConcurrentLinkedQueue<SyncWaiter>();
+
   /** Number of log close errors tolerated before we abort */
   private final int closeErrorsTolerated;
 
@@ -431,19 +456,38 @@ class FSHLog implements HLog, Syncable {
 
     final String n = Thread.currentThread().getName();
 
-
-    asyncWriter = new AsyncWriter(n + "-WAL.AsyncWriter");
-    asyncWriter.start();
-   
     int syncerNums = conf.getInt("hbase.hlog.asyncer.number", 5);
-    asyncSyncers = new AsyncSyncer[syncerNums];
-    for (int i = 0; i < asyncSyncers.length; ++i) {
-      asyncSyncers[i] = new AsyncSyncer(n + "-WAL.AsyncSyncer" + i);
-      asyncSyncers[i].start();
-    }
+    if (conf.getBoolean(RING_BUFFER_ENABLED_KEY, false)) {
+      asyncWriter = null;
+      asyncSyncers = null;
+      asyncNotifier = null;
+
+      ringBufferConsumer = new RingBufferConsumer(n + "-WAL.RingBufferConsumer",
+        conf.getInt(RING_BUFFER_SIZE_KEY, DEFAULT_RING_BUFFER_SIZE));
+      ringSyncRunners = new RingSyncRunner[syncerNums];
+      for (int i = 0; i < ringSyncRunners.length; ++i) {
+        ringSyncRunners[i] = new RingSyncRunner(n + "-WAL.RingSyncRunner" + i);
+        ringSyncRunners[i].start();
+      }
+      ringBufferConsumer.start();
+      LOG.info("Using ring buffer write pipeline, slots=" + ringBufferConsumer.slots.length +
+        ", syncRunners=" + syncerNums);
+    } else {
+      ringBufferConsumer = null;
+      ringSyncRunners = null;
 
-    asyncNotifier = new AsyncNotifier(n + "-WAL.AsyncNotifier");
-    asyncNotifier.start();
+      asyncWriter = new AsyncWriter(n + "-WAL.AsyncWriter");
+      asyncWriter.start();
+
+      asyncSyncers = new AsyncSyncer[syncerNums];
+      for (int i = 0; i < asyncSyncers.length; ++i) {
+        asyncSyncers[i] = new AsyncSyncer(n + "-WAL.AsyncSyncer" + i);
+        asyncSyncers[i].start();
+      }
+
+      asyncNotifier = new AsyncNotifier(n + "-WAL.AsyncNotifier");
+      asyncNotifier.start();
+    }
 
     coprocessorHost = new WALCoprocessorHost(this, conf);
 
@@ -647,8 +691,8 @@ class FSHLog implements HLog, Syncable {
     List<Path> logsToArchive = new ArrayList<Path>();
     // make a local copy so as to avoid locking when we iterate over these maps.
     synchronized (oldestSeqNumsLock) {
-      oldestFlushingSeqNumsLocal = new HashMap<byte[], Long>(this.oldestFlushingSeqNums);
-      oldestUnflushedSeqNumsLocal = new HashMap<byte[], Long>(this.oldestUnflushedSeqNums);
+      oldestFlushingSeqNumsLocal = getOldestSeqNumsOfRegions(this.oldestFlushingSeqNums);
+      oldestUnflushedSeqNumsLocal = getOldestSeqNumsOfRegions(this.oldestUnflushedSeqNums);
     }
     for (Map.Entry<Path, Map<byte[], Long>> e : hlogSequenceNums.entrySet()) {
       // iterate over the log file.
@@ -668,6 +712,37 @@ class FSHLog implements HLog, Syncable {
     }
   }
 
+  /**
+   * @param familySeqNums Map of regions to the oldest sequence ids of their families
+   * @return Map of the regions to the oldest sequence id of any of their families
+   */
+  private static Map<byte[], Long> getOldestSeqNumsOfRegions(
+      Map<byte[], ? extends Map<byte[], Long>> familySeqNums) {
+    Map<byte[], Long> result = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+    for (Map.Entry<byte[], ? extends Map<byte[], Long>> e : familySeqNums.entrySet()) {
+      long oldest = getOldestSeqNum(e.getValue());
+      if (oldest != HConstants.NO_SEQNUM) {
+        result.put(e.getKey(), oldest);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return The oldest of the sequence ids of the families, or HConstants.NO_SEQNUM if none
+   */
+  private static long getOldestSeqNum(Map<byte[], Long> familySeqNums) {
+    long oldest = HConstants.NO_SEQNUM;
+    if (familySeqNums != null) {
+      for (Long seqNum : familySeqNums.values()) {
+        if (oldest == HConstants.NO_SEQNUM || seqNum.longValue() < oldest) {
+          oldest = seqNum.longValue();
+        }
+      }
+    }
+    return oldest;
+  }
+
   /**
    * Takes a region:sequenceId map for a WAL file, and checks whether the file can be archived.
    * It compares the region entries present in the passed sequenceNums map with the local copy of
@@ -710,8 +785,8 @@ class FSHLog implements HLog, Syncable {
     // Keeping the old behavior of iterating unflushedSeqNums under oldestSeqNumsLock.
     synchronized (oldestSeqNumsLock) {
       for (Map.Entry<byte[], Long> e : regionsSequenceNums.entrySet()) {
-        Long unFlushedVal = this.oldestUnflushedSeqNums.get(e.getKey());
-        if (unFlushedVal != null && unFlushedVal <= e.getValue()) {
+        long unFlushedVal = getOldestSeqNum(this.oldestUnflushedSeqNums.get(e.getKey()));
+        if (unFlushedVal != HConstants.NO_SEQNUM && unFlushedVal <= e.getValue()) {
           if (regionsToFlush == null) regionsToFlush = new ArrayList<byte[]>();
           regionsToFlush.add(e.getKey());
         }
@@ -902,30 +977,50 @@ class FSHLog implements HLog, Syncable {
       return;
     }
 
-    try {
-      asyncNotifier.interrupt();
-      asyncNotifier.join();
-    } catch (InterruptedException e) {
-      LOG.error("Exception while waiting for " + asyncNotifier.getName() +
-          " threads to die", e);
-    }
+    if (ringBufferConsumer != null) {
+      try {
+        ringBufferConsumer.interrupt();
+        ringBufferConsumer.join();
+      } catch (InterruptedException e) {
+        LOG.error("Exception while waiting for " + ringBufferConsumer.getName() +
+            " thread to die", e);
+      }
 
-    for (int i = 0; i < asyncSyncers.length; ++i) {
+      for (int i = 0; i < ringSyncRunners.length; ++i) {
+        try {
+          ringSyncRunners[i].interrupt();
+          ringSyncRunners[i].join();
+        } catch (InterruptedException e) {
+          LOG.error("Exception while waiting for " + ringSyncRunners[i].getName() +
+              " threads to die", e);
+        }
+      }
+    } else {
       try {
-        asyncSyncers[i].interrupt();
-        asyncSyncers[i].join();
+        asyncNotifier.interrupt();
+        asyncNotifier.join();
       } catch (InterruptedException e) {
-        LOG.error("Exception while waiting for " + asyncSyncers[i].getName() +
+        LOG.error("Exception while waiting for " + asyncNotifier.getName() +
             " threads to die", e);
       }
-    }
 
-    try {
-      asyncWriter.interrupt();
-      asyncWriter.join();
-    } catch (InterruptedException e) {
-      LOG.error("Exception while waiting for " + asyncWriter.getName() +
-          " thread to die", e);
+      for (int i = 0; i < asyncSyncers.length; ++i) {
+        try {
+          asyncSyncers[i].interrupt();
+          asyncSyncers[i].join();
+        } catch (InterruptedException e) {
+          LOG.error("Exception while waiting for " + asyncSyncers[i].getName() +
+              " threads to die", e);
+        }
+      }
+
+      try {
+        asyncWriter.interrupt();
+        asyncWriter.join();
+      } catch (InterruptedException e) {
+        LOG.error("Exception while waiting for " + asyncWriter.getName() +
+            " thread to die", e);
+      }
     }
 
     try {
@@ -1025,16 +1120,23 @@ class FSHLog implements HLog, Syncable {
           // Use encoded name.  Its shorter, guaranteed unique and a subset of
           // actual  name.
           byte [] encodedRegionName = info.getEncodedNameAsBytes();
-          if (isInMemstore) this.oldestUnflushedSeqNums.putIfAbsent(encodedRegionName, seqNum);
+          if (isInMemstore) updateOldestUnflushedSeqNums(encodedRegionName, edits, seqNum);
           HLogKey logKey = makeKey(
             encodedRegionName, tableName, seqNum, now, clusterIds, nonceGroup, nonce);
 
-          synchronized (pendingWritesLock) {
+          if (this.ringBufferConsumer != null) {
+            // We are the only producer while holding the updateLock; doWrite
+            // publishes straight into the ring and advances unflushedEntries.
             doWrite(info, logKey, edits, htd);
-            txid = this.unflushedEntries.incrementAndGet();
+            txid = this.unflushedEntries.get();
+          } else {
+            synchronized (pendingWritesLock) {
+              doWrite(info, logKey, edits, htd);
+              txid = this.unflushedEntries.incrementAndGet();
+            }
+            this.asyncWriter.setPendingTxid(txid);
           }
           this.numEntries.incrementAndGet();
-          this.asyncWriter.setPendingTxid(txid);
 
           if (htd.isDeferredLogFlush()) {
             lastUnSyncedTxid = txid;
@@ -1260,16 +1362,7 @@ class FSHLog implements HLog, Syncable {
 
             this.isSyncing = false;
           }
-          final long took = EnvironmentEdgeManager.currentTimeMillis() - now;
-          metrics.finishSync(took);
-          if (took > (slowSyncNs/1000000)) {
-            String msg =
-                new StringBuilder().append("Slow sync cost: ")
-                    .append(took).append(" ms, current pipeline: ")
-                    .append(Arrays.toString(getPipeLine())).toString();
-            Trace.addTimelineAnnotation(msg);
-            LOG.info(msg);
-          }
+          finishSync(now);
 
           // 3. wake up AsyncNotifier to notify(wake-up) all pending 'put'
           // handler threads on 'sync()'
@@ -1277,21 +1370,7 @@ class FSHLog implements HLog, Syncable {
           asyncNotifier.setFlushedTxid(this.lastSyncedTxid);
 
           // 4. check and do logRoll if needed
-          boolean lowReplication = false;
-          if (rollWriterLock.tryLock()) {
-            try {
-              lowReplication = checkLowReplication();
-            } finally {
-              rollWriterLock.unlock();
-            }            
-            try {
-              if (lowReplication || writer != null && writer.getLength() > logrollsize) {
-                requestLogRoll(lowReplication);
-              }
-            } catch (IOException e) {
-              LOG.warn("writer.getLength() failed,this failure won't block here");
-            }
-          }
+          checkLogRoll();
         }
       } catch (InterruptedException e) {
         LOG.debug(getName() + " interrupted while waiting for " +
@@ -1358,6 +1437,232 @@ class FSHLog implements HLog, Syncable {
     }
   }
 
+  /* The ring buffer write pipeline, enabled by hbase.regionserver.hlog.ringbuffer.enabled:
+   * 1). Write handler threads publish their edit into the next slot of a preallocated ring.
+   *     Publishing happens under the updateLock, so there is a single producer at any time
+   *     and the slot sequence is the txid; the volatile write of unflushedEntries makes the
+   *     slot visible to the consumer. If the ring is full the producer backs off until the
+   *     consumer frees slots;
+   * 2). A single RingBufferConsumer thread drains every slot published since its last pass
+   *     and appends the whole batch to the writer, so edits from all handlers that arrived
+   *     during the previous append/sync share the next sync;
+   * 3). The consumer hands the highest txid it appended to an idle RingSyncRunner, which
+   *     syncs the writer and advances syncedTillHere with a CAS;
+   * 4). Handlers waiting in syncer() park on their own thread; the sync runner that covers
+   *     their txid unparks them directly. There is no shared monitor and no notifyAll.
+   */
+  private class RingBufferConsumer extends HasThread {
+    private final Entry[] slots;
+    private final int mask;
+    // highest txid whose slot has been appended to the writer and may be reused
+    private volatile long consumedTxid = 0;
+
+    public RingBufferConsumer(String name, int size) {
+      super(name);
+      int capacity = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
+      this.slots = new Entry[capacity];
+      this.mask = capacity - 1;
+    }
+
+    // called by the (single) producer holding the updateLock
+    public void publish(Entry entry) {
+      long txid = unflushedEntries.get() + 1;
+      while (txid - this.consumedTxid > this.slots.length) {
+        // ring is full, wait for the consumer to catch up
+        LockSupport.unpark(getThread());
+        LockSupport.parkNanos(RING_BUFFER_FULL_BACKOFF_NS);
+      }
+      this.slots[(int)(txid & this.mask)] = entry;
+      unflushedEntries.set(txid);
+      LockSupport.unpark(getThread());
+    }
+
+    public void run() {
+      try {
+        while (!this.isInterrupted()) {
+          // 1. wait until producers have published past what we consumed
+          long publishedTxid = unflushedEntries.get();
+          if (publishedTxid <= this.consumedTxid) {
+            LockSupport.park(this);
+            continue;
+          }
+
+          // 2. append the whole batch to HDFS (append, without sync)
+          try {
+            for (long txid = this.consumedTxid + 1; txid <= publishedTxid; txid++) {
+              int idx = (int)(txid & this.mask);
+              Entry e = this.slots[idx];
+              this.slots[idx] = null;
+              writer.append(e);
+            }
+          } catch (IOException e) {
+            LOG.error("Error while RingBufferConsumer write, request close of hlog ", e);
+            requestLogRoll();
+
+            asyncIOE = e;
+            failedTxid.set(publishedTxid);
+            for (long txid = this.consumedTxid + 1; txid <= publishedTxid; txid++) {
+              this.slots[(int)(txid & this.mask)] = null;
+            }
+          }
+          this.consumedTxid = publishedTxid;
+
+          // 3. hand the batch to a sync runner, preferring an idle one
+          RingSyncRunner runner = null;
+          for (int i = 0; i < ringSyncRunners.length; ++i) {
+            if (!ringSyncRunners[i].isSyncing()) {
+              runner = ringSyncRunners[i];
+              break;
+            }
+          }
+          if (runner == null) {
+            runner = ringSyncRunners[(int)(publishedTxid % ringSyncRunners.length)];
+          }
+          runner.offer(publishedTxid);
+        }
+      } catch (Exception e) {
+        LOG.error("UNEXPECTED", e);
+      } finally {
+        LOG.info(getName() + " exiting");
+      }
+    }
+  }
+
+  // thread to sync the batches appended by the RingBufferConsumer and release
+  // the handlers parked in syncer()
+  private class RingSyncRunner extends HasThread {
+    private final AtomicLong txidToSync = new AtomicLong(0);
+    private long lastSyncedTxid = 0;
+    private volatile boolean isSyncing = false;
+
+    public RingSyncRunner(String name) {
+      super(name);
+    }
+
+    public boolean isSyncing() {
+      return this.isSyncing;
+    }
+
+    public void offer(long txid) {
+      long current;
+      while ((current = this.txidToSync.get()) < txid) {
+        if (this.txidToSync.compareAndSet(current, txid)) {
+          LockSupport.unpark(getThread());
+          return;
+        }
+      }
+    }
+
+    public void run() {
+      try {
+        while (!this.isInterrupted()) {
+          long txid = this.txidToSync.get();
+          if (txid <= this.lastSyncedTxid) {
+            LockSupport.park(this);
+            continue;
+          }
+          // already covered by a sync issued by another runner
+          if (txid <= syncedTillHere.get()) {
+            this.lastSyncedTxid = txid;
+            continue;
+          }
+
+          long now = EnvironmentEdgeManager.currentTimeMillis();
+          try {
+            if (writer == null) {
+              // see the comment in AsyncSyncer.run
+              LOG.fatal("should never happen: has unsynced writes but writer is null!");
+              asyncIOE = new IOException("has unsynced writes but writer is null!");
+              failedTxid.set(txid);
+            } else {
+              this.isSyncing = true;
+              writer.sync();
+              this.isSyncing = false;
+            }
+            postSync();
+          } catch (IOException e) {
+            LOG.fatal("Error while RingSyncRunner sync, request close of hlog ", e);
+            requestLogRoll();
+
+            asyncIOE = e;
+            failedTxid.set(txid);
+
+            this.isSyncing = false;
+          }
+          finishSync(now);
+
+          this.lastSyncedTxid = txid;
+          advanceSyncedTillHere(txid);
+
+          checkLogRoll();
+        }
+      } catch (Exception e) {
+        LOG.error("UNEXPECTED", e);
+      } finally {
+        LOG.info(getName() + " exiting");
+      }
+    }
+  }
+
+  // a handler thread parked in syncer() until syncedTillHere reaches txid
+  private static class SyncWaiter {
+    final long txid;
+    final Thread thread;
+
+    SyncWaiter(long txid, Thread thread) {
+      this.txid = txid;
+      this.thread = thread;
+    }
+  }
+
+  private void advanceSyncedTillHere(long txid) {
+    long current;
+    while ((current = this.syncedTillHere.get()) < txid) {
+      if (this.syncedTillHere.compareAndSet(current, txid)) {
+        break;
+      }
+    }
+    long synced = this.syncedTillHere.get();
+    for (Iterator<SyncWaiter> it = this.syncWaiters.iterator(); it.hasNext();) {
+      SyncWaiter waiter = it.next();
+      if (waiter.txid <= synced) {
+        it.remove();
+        LockSupport.unpark(waiter.thread);
+      }
+    }
+  }
+
+  private void finishSync(long start) {
+    final long took = EnvironmentEdgeManager.currentTimeMillis() - start;
+    metrics.finishSync(took);
+    if (took > (slowSyncNs/1000000)) {
+      String msg =
+          new StringBuilder().append("Slow sync cost: ")
+              .append(took).append(" ms, current pipeline: ")
+              .append(Arrays.toString(getPipeLine())).toString();
+      Trace.addTimelineAnnotation(msg);
+      LOG.info(msg);
+    }
+  }
+
+  private void checkLogRoll() {
+    boolean lowReplication = false;
+    if (rollWriterLock.tryLock()) {
+      try {
+        lowReplication = checkLowReplication();
+      } finally {
+        rollWriterLock.unlock();
+      }
+      try {
+        if (lowReplication || writer != null && writer.getLength() > logrollsize) {
+          requestLogRoll(lowReplication);
+        }
+      } catch (IOException e) {
+        LOG.warn("writer.getLength() failed,this failure won't block here");
+      }
+    }
+  }
+
   // sync all known transactions
   private void syncer() throws IOException {
     syncer(this.unflushedEntries.get()); // sync all pending items
@@ -1365,12 +1670,24 @@ class FSHLog implements HLog, Syncable {
 
   // sync all transactions upto the specified txid
   private void syncer(long txid) throws IOException {
-    synchronized (this.syncedTillHere) {
-      while (this.syncedTillHere.get() < txid) {
-        try {
-          this.syncedTillHere.wait();
-        } catch (InterruptedException e) {
-          LOG.debug("interrupted while waiting for notification from AsyncNotifier");
+    if (this.ringBufferConsumer != null) {
+      if (this.syncedTillHere.get() < txid) {
+        this.syncWaiters.add(new SyncWaiter(txid, Thread.currentThread()));
+        while (this.syncedTillHere.get() < txid) {
+          LockSupport.park(this);
+          if (Thread.interrupted()) {
+            LOG.debug("interrupted while waiting for notification from RingSyncRunner");
+          }
+        }
+      }
+    } else {
+      synchronized (this.syncedTillHere) {
+        while (this.syncedTillHere.get() < txid) {
+          try {
+            this.syncedTillHere.wait();
+          } catch (InterruptedException e) {
+            LOG.debug("interrupted while waiting for notification from AsyncNotifier");
+          }
         }
       }
     }
@@ -1519,7 +1836,11 @@ class FSHLog implements HLog, Syncable {
           logKey.setScopes(null);
         }
         // write to our buffer for the Hlog file.
-        this.pendingWrites.add(new HLog.Entry(logKey, logEdit));
+        if (this.ringBufferConsumer != null) {
+          this.ringBufferConsumer.publish(new HLog.Entry(logKey, logEdit));
+        } else {
+          this.pendingWrites.add(new HLog.Entry(logKey, logEdit));
+        }
       }
       long took = EnvironmentEdgeManager.currentTimeMillis() - now;
       coprocessorHost.postWALWrite(info, logKey, logEdit);
@@ -1559,23 +1880,73 @@ class FSHLog implements HLog, Syncable {
     return totalLogSize.get() + curLogSize;
   }
   
+  /**
+   * Records the sequence id of an edit as the oldest one in the memstore of its families, for
+   * those that have none older.
+   */
+  private void updateOldestUnflushedSeqNums(byte[] encodedRegionName, WALEdit edits,
+      long seqNum) {
+    ConcurrentSkipListMap<byte[], Long> familySeqNums =
+      this.oldestUnflushedSeqNums.get(encodedRegionName);
+    if (familySeqNums == null) {
+      familySeqNums = new ConcurrentSkipListMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+      ConcurrentSkipListMap<byte[], Long> existing =
+        this.oldestUnflushedSeqNums.putIfAbsent(encodedRegionName, familySeqNums);
+      if (existing != null) familySeqNums = existing;
+    }
+    KeyValue previous = null;
+    for (KeyValue kv : edits.getKeyValues()) {
+      // The edits of a family usually come together, skip the lookups for the same family
+      if (previous != null && Bytes.equals(kv.getFamilyArray(), kv.getFamilyOffset(),
+          kv.getFamilyLength(), previous.getFamilyArray(), previous.getFamilyOffset(),
+          previous.getFamilyLength())) {
+        continue;
+      }
+      previous = kv;
+      if (!familySeqNums.containsKey(kv.getFamily())) {
+        familySeqNums.putIfAbsent(kv.getFamily(), seqNum);
+      }
+    }
+  }
+
   @Override
   public boolean startCacheFlush(final byte[] encodedRegionName) {
-    Long oldRegionSeqNum = null;
+    return startCacheFlush(encodedRegionName, null);
+  }
+
+  @Override
+  public boolean startCacheFlush(final byte[] encodedRegionName,
+      final Set<byte[]> flushedFamilyNames) {
+    Map<byte[], Long> flushingSeqNums = null;
     if (!closeBarrier.beginOp()) {
       LOG.info("Flush will not be started for " + Bytes.toString(encodedRegionName) +
         " - because the server is closing.");
       return false;
     }
     synchronized (oldestSeqNumsLock) {
-      oldRegionSeqNum = this.oldestUnflushedSeqNums.remove(encodedRegionName);
-      if (oldRegionSeqNum != null) {
-        Long oldValue = this.oldestFlushingSeqNums.put(encodedRegionName, oldRegionSeqNum);
-        assert oldValue == null : "Flushing map not cleaned up for "
-          + Bytes.toString(encodedRegionName);
+      ConcurrentSkipListMap<byte[], Long> unflushedSeqNums =
+        this.oldestUnflushedSeqNums.get(encodedRegionName);
+      if (unflushedSeqNums != null) {
+        flushingSeqNums = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+        Iterable<byte[]> families = (flushedFamilyNames == null)
+          ? new ArrayList<byte[]>(unflushedSeqNums.keySet()) : flushedFamilyNames;
+        for (byte[] family : families) {
+          Long seqNum = unflushedSeqNums.remove(family);
+          if (seqNum != null) flushingSeqNums.put(family, seqNum);
+        }
+        // The region is not taking updates while it starts flushing, nothing is being added
+        if (unflushedSeqNums.isEmpty()) this.oldestUnflushedSeqNums.remove(encodedRegionName);
+        if (flushingSeqNums.isEmpty()) {
+          flushingSeqNums = null;
+        } else {
+          Map<byte[], Long> oldValue =
+            this.oldestFlushingSeqNums.put(encodedRegionName, flushingSeqNums);
+          assert oldValue == null : "Flushing map not cleaned up for "
+            + Bytes.toString(encodedRegionName);
+        }
       }
     }
-    if (oldRegionSeqNum == null) {
+    if (flushingSeqNums == null) {
       // TODO: if we have no oldRegionSeqNum, and WAL is not disabled, presumably either
       //       the region is already flushing (which would make this call invalid), or there
       //       were no appends after last flush, so why are we starting flush? Maybe we should
@@ -1598,23 +1969,34 @@ class FSHLog implements HLog, Syncable {
 
   @Override
   public void abortCacheFlush(byte[] encodedRegionName) {
-    Long currentSeqNum = null, seqNumBeforeFlushStarts = null;
+    Map<byte[], Long> seqNumsBeforeFlushStarts = null;
+    Map<byte[], Long> currentSeqNums = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
     synchronized (oldestSeqNumsLock) {
-      seqNumBeforeFlushStarts = this.oldestFlushingSeqNums.remove(encodedRegionName);
-      if (seqNumBeforeFlushStarts != null) {
-        currentSeqNum =
-          this.oldestUnflushedSeqNums.put(encodedRegionName, seqNumBeforeFlushStarts);
+      seqNumsBeforeFlushStarts = this.oldestFlushingSeqNums.remove(encodedRegionName);
+      if (seqNumsBeforeFlushStarts != null) {
+        ConcurrentSkipListMap<byte[], Long> unflushedSeqNums =
+          this.oldestUnflushedSeqNums.get(encodedRegionName);
+        if (unflushedSeqNums == null) {
+          unflushedSeqNums = new ConcurrentSkipListMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+          this.oldestUnflushedSeqNums.put(encodedRegionName, unflushedSeqNums);
+        }
+        for (Map.Entry<byte[], Long> e : seqNumsBeforeFlushStarts.entrySet()) {
+          Long currentSeqNum = unflushedSeqNums.put(e.getKey(), e.getValue());
+          if (currentSeqNum != null) currentSeqNums.put(e.getKey(), currentSeqNum);
+        }
       }
     }
     closeBarrier.endOp();
-    if ((currentSeqNum != null)
-        && (currentSeqNum.longValue() <= seqNumBeforeFlushStarts.longValue())) {
-      String errorStr = "Region " + Bytes.toString(encodedRegionName) +
-          "acquired edits out of order current memstore seq=" + currentSeqNum
-          + ", previous oldest unflushed id=" + seqNumBeforeFlushStarts;
-      LOG.error(errorStr);
-      assert false : errorStr;
-      Runtime.getRuntime().halt(1);
+    for (Map.Entry<byte[], Long> e : currentSeqNums.entrySet()) {
+      long seqNumBeforeFlushStarts = seqNumsBeforeFlushStarts.get(e.getKey());
+      if (e.getValue().longValue() <= seqNumBeforeFlushStarts) {
+        String errorStr = "Region " + Bytes.toString(encodedRegionName) +
+            "acquired edits out of order current memstore seq=" + e.getValue()
+            + ", previous oldest unflushed id=" + seqNumBeforeFlushStarts;
+        LOG.error(errorStr);
+        assert false : errorStr;
+        Runtime.getRuntime().halt(1);
+      }
     }
   }
 
@@ -1680,7 +2062,13 @@ class FSHLog implements HLog, Syncable {
 
   @Override
   public long getEarliestMemstoreSeqNum(byte[] encodedRegionName) {
-    Long result = oldestUnflushedSeqNums.get(encodedRegionName);
+    return getOldestSeqNum(oldestUnflushedSeqNums.get(encodedRegionName));
+  }
+
+  @Override
+  public long getEarliestMemstoreSeqNum(byte[] encodedRegionName, byte[] familyName) {
+    Map<byte[], Long> familySeqNums = oldestUnflushedSeqNums.get(encodedRegionName);
+    Long result = familySeqNums == null ? null : familySeqNums.get(familyName);
     return result == null ? HConstants.NO_SEQNUM : result.longValue();
   }
 
@@ -23,6 +23,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
@@ -332,6 +333,14 @@ public interface HLog {
    */
   boolean startCacheFlush(final byte[] encodedRegionName);
 
+  /**
+   * Like {@link #startCacheFlush(byte[])}, for a flush of some of the families of the region
+   * only: the WAL keeps tracking the oldest edits of the others.
+   * @param flushedFamilyNames The families flushed
+   * @return true if the flush can proceed, false in case wal is closing
+   */
+  boolean startCacheFlush(final byte[] encodedRegionName, Set<byte[]> flushedFamilyNames);
+
   /**
    * Complete the cache flush.
    * @param encodedRegionName Encoded region name.
@@ -365,4 +374,12 @@ public interface HLog {
    * @return The number if present, HConstants.NO_SEQNUM if absent.
    */
   long getEarliestMemstoreSeqNum(byte[] encodedRegionName);
+
+  /**
+   * Gets the earliest sequence number in the memstore of a family of a region.
+   * @param encodedRegionName The region to get the number for.
+   * @param familyName The family to get the number for.
+   * @return The number if present, HConstants.NO_SEQNUM if absent.
+   */
+  long getEarliestMemstoreSeqNum(byte[] encodedRegionName, byte[] familyName);
 }
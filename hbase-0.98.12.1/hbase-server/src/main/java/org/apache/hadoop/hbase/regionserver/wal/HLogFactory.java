@@ -58,6 +58,18 @@ public class HLogFactory {
       return new FSHLog(fs, root, logName, conf, listeners, prefix);
     }
 
+    /**
+     * Create an additional HLog in an already existing log directory. Used for the
+     * non-default groups of a {@link RegionGroupingHLogProvider}; <code>prefix</code> must
+     * differ from that of every other HLog writing to <code>logName</code>.
+     */
+    public static HLog createGroupHLog(final FileSystem fs, final Path root, final String logName,
+        final Configuration conf, final List<WALActionsListener> listeners,
+        final String prefix) throws IOException {
+      return new FSHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME,
+            conf, listeners, false, prefix, false);
+    }
+
     public static HLog createMetaHLog(final FileSystem fs, final Path root, final String logName,
         final Configuration conf, final List<WALActionsListener> listeners,
         final String prefix) throws IOException {
@@ -256,6 +256,23 @@ public class HLogUtil {
     return false;
   }
 
+  /**
+   * Get the id of the WAL group a hlog file belongs to. All files rolled by the same
+   * {@link HLog} instance share the group id, which is the file name minus the
+   * trailing <code>.&lt;filenum&gt;</code> (and meta extension, if any). Names without
+   * a filenum all belong to the default group, the empty string.
+   * @param hlogName name of the hlog file, without its parent directory
+   * @return the WAL group id
+   */
+  public static String getWALGroupId(String hlogName) {
+    String name = hlogName;
+    if (isMetaFile(name)) {
+      name = name.substring(0, name.length() - HLog.META_HLOG_FILE_EXTN.length());
+    }
+    int idx = name.lastIndexOf('.');
+    return idx < 0 ? "" : name.substring(0, idx);
+  }
+
   /**
    * Write the marker that a compaction has succeeded and is about to be committed.
    * This provides info to the HMaster to allow it to recover the compaction if
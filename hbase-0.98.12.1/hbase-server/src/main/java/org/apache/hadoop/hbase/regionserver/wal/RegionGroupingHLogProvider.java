@@ -0,0 +1,196 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Spreads the regions of a region server over a fixed number of independent
+ * {@link HLog}s, each with its own writer, HDFS pipeline and sync threads, so that
+ * write throughput is not capped by a single WAL. The meta WAL is not managed here.
+ * <p>
+ * Group 0 is the region server's default HLog and keeps its usual file names. Group
+ * <code>i</code> writes files named <code>&lt;prefix&gt;.g&lt;i&gt;.&lt;filenum&gt;</code>
+ * into the same log directory, so log splitting and archiving need no changes; see
+ * {@link HLogUtil#getWALGroupId(String)} for how replication tells the groups apart.
+ * A region must always map to the same group while it is open, since its sequence id
+ * accounting lives in that group's HLog.
+ */
+@InterfaceAudience.Private
+public class RegionGroupingHLogProvider {
+  static final Log LOG = LogFactory.getLog(RegionGroupingHLogProvider.class);
+
+  /** Number of WAL groups per region server; 1 means a single WAL as before */
+  public static final String NUM_GROUPS_KEY = "hbase.regionserver.hlog.groups";
+  public static final int DEFAULT_NUM_GROUPS = 1;
+  /** How regions are mapped onto groups: "bounded", "namespace" or a class name */
+  public static final String STRATEGY_KEY = "hbase.regionserver.hlog.grouping.strategy";
+  public static final String DEFAULT_STRATEGY = "bounded";
+
+  static final String GROUP_PREFIX_SEPARATOR = ".g";
+
+  /**
+   * Maps a region onto one of the WAL groups.
+   */
+  public interface RegionGroupingStrategy {
+    /**
+     * @return the group, in <code>[0, numGroups)</code>, the region writes to. Must be
+     * stable for a given region.
+     */
+    int getGroup(HRegionInfo info, int numGroups);
+  }
+
+  /**
+   * Hashes the encoded region name, spreading regions evenly over all groups.
+   */
+  public static class BoundedHashStrategy implements RegionGroupingStrategy {
+    @Override
+    public int getGroup(HRegionInfo info, int numGroups) {
+      return (info.getEncodedName().hashCode() & Integer.MAX_VALUE) % numGroups;
+    }
+  }
+
+  /**
+   * Hashes the namespace, so that all the regions of a namespace share a WAL and
+   * namespaces do not compete with each other for sync bandwidth when there are at
+   * least as many groups as namespaces.
+   */
+  public static class NamespaceStrategy implements RegionGroupingStrategy {
+    @Override
+    public int getGroup(HRegionInfo info, int numGroups) {
+      String ns = info.getTable().getNamespaceAsString();
+      return (ns.hashCode() & Integer.MAX_VALUE) % numGroups;
+    }
+  }
+
+  /**
+   * Creates the HLogs of the non-default groups.
+   */
+  public interface HLogCreator {
+    /**
+     * @param group index of the group, greater than 0
+     * @param prefix file name prefix to use for the group's HLog
+     */
+    HLog createHLog(int group, String prefix) throws IOException;
+  }
+
+  private final HLog[] logs;
+  private final RegionGroupingStrategy strategy;
+
+  /**
+   * @param conf configuration
+   * @param defaultLog the HLog of group 0
+   * @param prefix the file name prefix of <code>defaultLog</code>
+   * @param creator used to create the remaining groups' HLogs
+   */
+  public RegionGroupingHLogProvider(final Configuration conf, final HLog defaultLog,
+      final String prefix, final HLogCreator creator) throws IOException {
+    int numGroups = Math.max(1, conf.getInt(NUM_GROUPS_KEY, DEFAULT_NUM_GROUPS));
+    this.strategy = getStrategy(conf);
+    this.logs = new HLog[numGroups];
+    this.logs[0] = defaultLog;
+    try {
+      for (int i = 1; i < numGroups; i++) {
+        this.logs[i] = creator.createHLog(i, getGroupPrefix(prefix, i));
+      }
+    } catch (IOException e) {
+      for (int i = 1; i < numGroups && this.logs[i] != null; i++) {
+        try {
+          this.logs[i].close();
+        } catch (IOException ioe) {
+          LOG.warn("Failed close of group " + i + " HLog", ioe);
+        }
+      }
+      throw e;
+    }
+    if (numGroups > 1) {
+      LOG.info("Using " + numGroups + " WAL groups, strategy=" +
+        this.strategy.getClass().getSimpleName());
+    }
+  }
+
+  static RegionGroupingStrategy getStrategy(final Configuration conf) {
+    String name = conf.get(STRATEGY_KEY, DEFAULT_STRATEGY);
+    if ("bounded".equals(name)) {
+      return new BoundedHashStrategy();
+    } else if ("namespace".equals(name)) {
+      return new NamespaceStrategy();
+    }
+    try {
+      Class<? extends RegionGroupingStrategy> clazz =
+        conf.getClassByName(name).asSubclass(RegionGroupingStrategy.class);
+      return ReflectionUtils.newInstance(clazz, conf);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException("Unknown WAL grouping strategy " + name, e);
+    }
+  }
+
+  /**
+   * @return the file name prefix for the HLog of the given group
+   */
+  public static String getGroupPrefix(final String prefix, final int group) {
+    return group == 0 ? prefix : prefix + GROUP_PREFIX_SEPARATOR + group;
+  }
+
+  /**
+   * @return the HLog the passed region writes to
+   */
+  public HLog getWAL(final HRegionInfo info) {
+    if (info == null || this.logs.length == 1) {
+      return this.logs[0];
+    }
+    return this.logs[this.strategy.getGroup(info, this.logs.length)];
+  }
+
+  /**
+   * @return the HLog of the given group
+   */
+  public HLog getWAL(final int group) {
+    return this.logs[group];
+  }
+
+  public int getNumGroups() {
+    return this.logs.length;
+  }
+
+  /**
+   * @return all the HLogs, default group first
+   */
+  public List<HLog> getWALs() {
+    return Collections.unmodifiableList(Arrays.asList(this.logs));
+  }
+
+  /**
+   * @return the HLogs of the non-default groups
+   */
+  public List<HLog> getGroupWALs() {
+    return new ArrayList<HLog>(Arrays.asList(this.logs).subList(1, this.logs.length));
+  }
+}
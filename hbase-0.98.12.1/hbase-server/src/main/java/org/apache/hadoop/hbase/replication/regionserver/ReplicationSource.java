@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -41,6 +42,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.Stoppable;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
+import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.replication.ChainWALEntryFilter;
 import org.apache.hadoop.hbase.replication.ReplicationEndpoint;
@@ -72,7 +74,17 @@ public class ReplicationSource extends Thread
     implements ReplicationSourceInterface {
 
   public static final Log LOG = LogFactory.getLog(ReplicationSource.class);
-  // Queue of logs to process
+  // Queues of logs to process, one per WAL group, see HLogUtil#getWALGroupId.
+  // The files of one group are read in order, and the source round-robins
+  // between the groups so that a live log in one group does not hold back
+  // the others.
+  private final ConcurrentSkipListMap<String, WALGroup> walGroups =
+    new ConcurrentSkipListMap<String, WALGroup>();
+  // Id of the group the fields below are currently pointing at
+  private String currentWALGroupId;
+  // Number of groups that came up empty in a row, see allWALGroupsIdle
+  private int idleWALGroups = 0;
+  // Queue of logs to process of the current group
   private PriorityBlockingQueue<Path> queue;
   private ReplicationQueues replicationQueues;
   private ReplicationPeers replicationPeers;
@@ -159,10 +171,6 @@ public class ReplicationSource extends Thread
     this.replicationQueueNbCapacity =
         this.conf.getInt("replication.source.nb.capacity", 25000);
     this.maxRetriesMultiplier = this.conf.getInt("replication.source.maxretriesmultiplier", 10);
-    this.queue =
-        new PriorityBlockingQueue<Path>(
-            this.conf.getInt("hbase.regionserver.maxlogs", 32),
-            new LogsComparator());
     long bandwidth = this.conf.getLong("replication.source.per.peer.node.bandwidth", 0);
     this.throttler = new ReplicationThrottler((double)bandwidth/10.0);
     this.replicationQueues = replicationQueues;
@@ -172,7 +180,6 @@ public class ReplicationSource extends Thread
         this.conf.getLong("replication.source.sleepforretries", 1000);
     this.fs = fs;
     this.metrics = metrics;
-    this.repLogReader = new ReplicationHLogReaderManager(this.fs, this.conf);
     this.clusterId = clusterId;
 
     this.peerClusterZnode = peerClusterZnode;
@@ -194,9 +201,19 @@ public class ReplicationSource extends Thread
 
   @Override
   public void enqueueLog(Path log) {
-    this.queue.put(log);
-    int queueSize = queue.size();
-    this.metrics.setSizeOfLogQueue(queueSize);
+    String walGroupId = HLogUtil.getWALGroupId(log.getName());
+    WALGroup group = this.walGroups.get(walGroupId);
+    if (group == null) {
+      group = new WALGroup(this.conf.getInt("hbase.regionserver.maxlogs", 32),
+        new ReplicationHLogReaderManager(this.fs, this.conf));
+      WALGroup existing = this.walGroups.putIfAbsent(walGroupId, group);
+      if (existing != null) {
+        group = existing;
+      }
+    }
+    group.queue.put(log);
+    int queueSize = group.queue.size();
+    this.metrics.setSizeOfLogQueue(getSizeOfLogQueue());
     // This will log a warning for each new log that gets created above the warn threshold
     if (queueSize > this.logQueueWarnThreshold) {
       LOG.warn("Queue size: " + queueSize +
@@ -271,21 +288,6 @@ public class ReplicationSource extends Thread
     }
     LOG.info("Replicating "+clusterId + " -> " + peerClusterId);
 
-    // If this is recovered, the queue is already full and the first log
-    // normally has a position (unless the RS failed between 2 logs)
-    if (this.replicationQueueInfo.isQueueRecovered()) {
-      try {
-        this.repLogReader.setPosition(this.replicationQueues.getLogPosition(this.peerClusterZnode,
-          this.queue.peek().getName()));
-        if (LOG.isTraceEnabled()) {
-          LOG.trace("Recovered queue started with log " + this.queue.peek() +
-              " at position " + this.repLogReader.getPosition());
-        }
-      } catch (ReplicationException e) {
-        this.terminate("Couldn't get the position of this recovered queue " +
-            this.peerClusterZnode, e);
-      }
-    }
     // Loop until we close down
     while (isActive()) {
       // Sleep until replication is enabled again
@@ -295,6 +297,7 @@ public class ReplicationSource extends Thread
         }
         continue;
       }
+      switchWALGroup();
       Path oldPath = getCurrentPath(); //note that in the current scenario,
                                        //oldPath will be null when a log roll
                                        //happens.
@@ -394,6 +397,10 @@ public class ReplicationSource extends Thread
           // if there was nothing to ship and it's not an error
           // set "ageOfLastShippedOp" to <now> to indicate that we're current
           this.metrics.setAgeOfLastShippedOp(System.currentTimeMillis());
+          // other groups may have something, only back off after trying them all
+          if (!allWALGroupsIdle()) {
+            continue;
+          }
         }
         if (sleepForRetries("Nothing to replicate", sleepMultiplier)) {
           sleepMultiplier++;
@@ -401,6 +408,7 @@ public class ReplicationSource extends Thread
         continue;
       }
       sleepMultiplier = 1;
+      this.idleWALGroups = 0;
       shipEdits(currentWALisBeingWrittenTo, entries);
     }
     uninitialize();
@@ -480,12 +488,31 @@ public class ReplicationSource extends Thread
   protected boolean getNextPath() {
     try {
       if (this.currentPath == null) {
+        if (this.queue == null) {
+          // nothing enqueued yet
+          return false;
+        }
         this.currentPath = queue.poll(this.sleepForRetries, TimeUnit.MILLISECONDS);
-        this.metrics.setSizeOfLogQueue(queue.size());
+        this.metrics.setSizeOfLogQueue(getSizeOfLogQueue());
         if (this.currentPath != null) {
           this.manager.cleanOldLogs(this.currentPath.getName(),
               this.peerId,
               this.replicationQueueInfo.isQueueRecovered());
+          // If this is recovered, each group's first log normally has a
+          // position (unless the RS failed between 2 logs)
+          if (this.replicationQueueInfo.isQueueRecovered()) {
+            try {
+              this.repLogReader.setPosition(this.replicationQueues.getLogPosition(
+                this.peerClusterZnode, this.currentPath.getName()));
+              if (LOG.isTraceEnabled()) {
+                LOG.trace("Recovered queue continues with log " + this.currentPath +
+                    " at position " + this.repLogReader.getPosition());
+              }
+            } catch (ReplicationException e) {
+              this.terminate("Couldn't get the position of this recovered queue " +
+                  this.peerClusterZnode, e);
+            }
+          }
           if (LOG.isTraceEnabled()) {
             LOG.trace("New log: " + this.currentPath);
           }
@@ -747,6 +774,16 @@ public class ReplicationSource extends Thread
       this.reader = null;
       return true;
     } else if (this.replicationQueueInfo.isQueueRecovered()) {
+      // This group is done, but others may still have logs to go through
+      this.currentPath = null;
+      this.repLogReader.finishCurrentFile();
+      this.reader = null;
+      saveWALGroup();
+      for (WALGroup group : this.walGroups.values()) {
+        if (group.currentPath != null || !group.queue.isEmpty()) {
+          return true;
+        }
+      }
       this.manager.closeRecoveredQueue(this);
       LOG.info("Finished recovering the queue with the following stats " + getStats());
       this.running = false;
@@ -755,6 +792,81 @@ public class ReplicationSource extends Thread
     return false;
   }
 
+  /**
+   * Point the current log fields at the next WAL group, in round-robin order,
+   * that has a log to work on. Stays on the current group if no other has one.
+   */
+  private void switchWALGroup() {
+    if (this.walGroups.isEmpty()) {
+      return;
+    }
+    saveWALGroup();
+    String id = this.currentWALGroupId;
+    for (int i = 0; i < this.walGroups.size(); i++) {
+      id = id == null ? null : this.walGroups.higherKey(id);
+      if (id == null) {
+        id = this.walGroups.firstKey();
+      }
+      WALGroup group = this.walGroups.get(id);
+      if (group.currentPath != null || !group.queue.isEmpty()) {
+        loadWALGroup(id, group);
+        return;
+      }
+    }
+    if (this.currentWALGroupId == null) {
+      id = this.walGroups.firstKey();
+      loadWALGroup(id, this.walGroups.get(id));
+    }
+  }
+
+  private void saveWALGroup() {
+    if (this.currentWALGroupId != null) {
+      WALGroup group = this.walGroups.get(this.currentWALGroupId);
+      group.currentPath = this.currentPath;
+      group.lastLoggedPosition = this.lastLoggedPosition;
+    }
+  }
+
+  private void loadWALGroup(String id, WALGroup group) {
+    this.currentWALGroupId = id;
+    this.queue = group.queue;
+    this.repLogReader = group.repLogReader;
+    this.currentPath = group.currentPath;
+    this.lastLoggedPosition = group.lastLoggedPosition;
+  }
+
+  /**
+   * @return true once every WAL group in turn had nothing to replicate, which
+   * is when the source should back off
+   */
+  private boolean allWALGroupsIdle() {
+    return ++this.idleWALGroups >= this.walGroups.size();
+  }
+
+  private int getSizeOfLogQueue() {
+    int size = 0;
+    for (WALGroup group : this.walGroups.values()) {
+      size += group.queue.size();
+    }
+    return size;
+  }
+
+  /**
+   * Replication state of one WAL group: its queue of logs and where we are
+   * in the log being read.
+   */
+  private static class WALGroup {
+    final PriorityBlockingQueue<Path> queue;
+    final ReplicationHLogReaderManager repLogReader;
+    Path currentPath;
+    long lastLoggedPosition = -1;
+
+    WALGroup(int initialCapacity, ReplicationHLogReaderManager repLogReader) {
+      this.queue = new PriorityBlockingQueue<Path>(initialCapacity, new LogsComparator());
+      this.repLogReader = repLogReader;
+    }
+  }
+
   @Override
   public void startup() {
     String n = Thread.currentThread().getName();
@@ -851,7 +963,7 @@ public class ReplicationSource extends Thread
 
   @Override
   public String getStats() {
-    long position = this.repLogReader.getPosition();
+    long position = this.repLogReader == null ? 0 : this.repLogReader.getPosition();
     return "Total replicated edits: " + totalReplicatedEdits +
       ", currently replicating from: " + this.currentPath +
       " at position: " + position;
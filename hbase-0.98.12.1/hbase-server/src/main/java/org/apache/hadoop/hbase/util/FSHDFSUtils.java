@@ -165,7 +165,8 @@ public class FSHDFSUtils extends FSUtils {
    * 6. If it returns true, break.
    * 7. If it returns false, repeat starting at step 5. above.
    *
-   * If HDFS-4525 is available, call it every second and we might be able to exit early.
+   * If HDFS-4525 is available, call it every hbase.lease.recovery.pause while waiting, in
+   * the first pause too, and we might be able to exit early.
    */
   boolean recoverDFSFileLease(final DistributedFileSystem dfs, final Path p,
       final Configuration conf, final CancelableProgressable reporter)
@@ -183,9 +184,16 @@ public class FSHDFSUtils extends FSUtils {
     // default value for DFS_CLIENT_SOCKET_TIMEOUT_KEY.
     long subsequentPause = conf.getInt("hbase.lease.recovery.dfs.timeout", 61 * 1000);
     
+    // How often to check, while waiting, whether the recovery completed.
+    long pause = conf.getInt("hbase.lease.recovery.pause", 1000);
+
+    // isFileClosed is in hadoop 2.0.5 and later, not in hadoop 1.
     Method isFileClosedMeth = null;
-    // whether we need to look for isFileClosed method
-    boolean findIsFileClosedMeth = true;
+    try {
+      isFileClosedMeth = dfs.getClass().getMethod("isFileClosed", new Class[]{ Path.class });
+    } catch (NoSuchMethodException nsme) {
+      LOG.debug("isFileClosed not available");
+    }
     boolean recovered = false;
     // We break the loop if we succeed the lease recovery, timeout, or we throw an exception.
     for (int nbAttempt = 0; !recovered; nbAttempt++) {
@@ -194,27 +202,19 @@ public class FSHDFSUtils extends FSUtils {
       checkIfCancelled(reporter);
       if (checkIfTimedout(conf, recoveryTimeout, nbAttempt, p, startWaiting)) break;
       try {
-        // On the first time through wait the short 'firstPause'.
-        if (nbAttempt == 0) {
-          Thread.sleep(firstPause);
+        // On the first time through wait the short 'firstPause', then 'subsequentPause'.
+        long wait = nbAttempt == 0 ? firstPause : subsequentPause;
+        if (isFileClosedMeth == null) {
+          Thread.sleep(wait);
         } else {
-          // Cycle here until subsequentPause elapses.  While spinning, check isFileClosed if
-          // available (should be in hadoop 2.0.5... not in hadoop 1 though.
+          // Cycle here until the wait elapses, checking isFileClosed so a quick recovery,
+          // the usual case when the writer died but its datanodes did not, is noticed
+          // within a pause rather than after the whole wait.
           long localStartWaiting = EnvironmentEdgeManager.currentTimeMillis();
-          while ((EnvironmentEdgeManager.currentTimeMillis() - localStartWaiting) <
-              subsequentPause) {
-            Thread.sleep(conf.getInt("hbase.lease.recovery.pause", 1000));
-            if (findIsFileClosedMeth) {
-              try {
-                isFileClosedMeth = dfs.getClass().getMethod("isFileClosed",
-                  new Class[]{ Path.class });
-              } catch (NoSuchMethodException nsme) {
-                LOG.debug("isFileClosed not available");
-              } finally {
-                findIsFileClosedMeth = false;
-              }
-            }
-            if (isFileClosedMeth != null && isFileClosed(dfs, isFileClosedMeth, p)) {
+          while ((EnvironmentEdgeManager.currentTimeMillis() - localStartWaiting) < wait) {
+            Thread.sleep(Math.min(pause,
+              wait - (EnvironmentEdgeManager.currentTimeMillis() - localStartWaiting)));
+            if (isFileClosed(dfs, isFileClosedMeth, p)) {
               recovered = true;
               break;
             }
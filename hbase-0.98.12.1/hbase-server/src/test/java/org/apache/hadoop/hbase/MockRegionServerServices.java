@@ -226,6 +226,11 @@ class MockRegionServerServices implements RegionServerServices {
     return 0;
   }
 
+  @Override
+  public long getDeadline(RPCProtos.RequestHeader header, Message param) {
+    return 0;
+  }
+
   @Override
   public ServerNonceManager getNonceManager() {
     // TODO Auto-generated method stub
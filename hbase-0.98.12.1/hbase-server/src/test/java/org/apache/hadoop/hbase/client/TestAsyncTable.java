@@ -0,0 +1,272 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.Waiter;
+import org.apache.hadoop.hbase.ipc.AsyncRpcClient;
+import org.apache.hadoop.hbase.ipc.RpcClientFactory;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.JVMClusterUtil;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Test the {@link AsyncTable} over a non-blocking rpc client.
+ */
+@Category(MediumTests.class)
+public class TestAsyncTable {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final TableName TABLE = TableName.valueOf("testAsyncTable");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final byte[][] SPLITS = new byte[][] {
+    Bytes.toBytes("row-3"), Bytes.toBytes("row-6")
+  };
+
+  private static HConnection connection;
+  private static AsyncTable table;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.getConfiguration().set(RpcClientFactory.CUSTOM_RPC_CLIENT_IMPL_CONF_KEY,
+      AsyncRpcClient.class.getName());
+    TEST_UTIL.startMiniCluster(2);
+    TEST_UTIL.createTable(TABLE, FAMILY, SPLITS).close();
+    TEST_UTIL.waitUntilAllRegionsAssigned(TABLE);
+    connection = HConnectionManager.createConnection(TEST_UTIL.getConfiguration());
+    table = connection.getAsyncTable(TABLE);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    connection.close();
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private static Put put(String row, long value) {
+    Put put = new Put(Bytes.toBytes(row));
+    put.add(FAMILY, QUALIFIER, Bytes.toBytes(value));
+    return put;
+  }
+
+  private static long value(Result result) {
+    return Bytes.toLong(result.getValue(FAMILY, QUALIFIER));
+  }
+
+  @Test
+  public void testSingleRowOperations() throws Exception {
+    List<ListenableFuture<Void>> puts = new ArrayList<ListenableFuture<Void>>();
+    for (int i = 0; i < 9; i++) {
+      puts.add(table.put(put("single-" + i, i)));
+    }
+    for (ListenableFuture<Void> f : puts) {
+      f.get();
+    }
+    for (int i = 0; i < 9; i++) {
+      assertEquals(i, value(table.get(new Get(Bytes.toBytes("single-" + i))).get()));
+    }
+
+    byte[] row = Bytes.toBytes("single-1");
+    Increment increment = new Increment(row);
+    increment.addColumn(FAMILY, QUALIFIER, 10);
+    assertEquals(11, value(table.increment(increment).get()));
+
+    assertFalse(table.checkAndPut(row, FAMILY, QUALIFIER, Bytes.toBytes(1L),
+      put("single-1", 100)).get());
+    assertTrue(table.checkAndPut(row, FAMILY, QUALIFIER, Bytes.toBytes(11L),
+      put("single-1", 100)).get());
+    assertEquals(100, value(table.get(new Get(row)).get()));
+
+    table.delete(new Delete(row)).get();
+    assertTrue(table.get(new Get(row)).get().isEmpty());
+
+    try {
+      table.put(new Put(row)).get();
+      fail("Empty put should fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    List<Row> actions = new ArrayList<Row>();
+    for (int i = 0; i < 9; i++) {
+      actions.add(put("row-" + i, i));
+    }
+    Object[] results = table.batch(actions).get();
+    assertEquals(9, results.length);
+
+    actions.clear();
+    for (int i = 0; i < 9; i++) {
+      actions.add(new Get(Bytes.toBytes("row-" + i)));
+    }
+    Increment increment = new Increment(Bytes.toBytes("row-7"));
+    increment.addColumn(FAMILY, QUALIFIER, 1);
+    actions.add(increment);
+    results = table.batch(actions).get();
+    for (int i = 0; i < 9; i++) {
+      assertEquals(i, value((Result) results[i]));
+    }
+    assertEquals(8, value((Result) results[9]));
+
+    actions.clear();
+    Put badFamily = new Put(Bytes.toBytes("row-1"));
+    badFamily.add(Bytes.toBytes("nosuchfamily"), QUALIFIER, Bytes.toBytes(1L));
+    actions.add(badFamily);
+    actions.add(put("row-2", 2));
+    try {
+      table.batch(actions).get();
+      fail("Put to a missing family should fail");
+    } catch (ExecutionException e) {
+      RetriesExhaustedWithDetailsException cause =
+        (RetriesExhaustedWithDetailsException) e.getCause();
+      assertEquals(1, cause.getNumExceptions());
+      assertArrayEquals(Bytes.toBytes("row-1"), cause.getRow(0).getRow());
+    }
+  }
+
+  @Test
+  public void testScan() throws Exception {
+    List<Row> actions = new ArrayList<Row>();
+    for (int i = 0; i < 100; i++) {
+      actions.add(put(String.format("scan-%03d", i), i));
+    }
+    actions.add(put("row-5", 5));
+    table.batch(actions).get();
+
+    Scan scan = new Scan(Bytes.toBytes("scan-"), Bytes.toBytes("scan-~"));
+    scan.setCaching(7);
+    List<Result> results = table.scanAll(scan).get();
+    assertEquals(100, results.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, value(results.get(i)));
+    }
+
+    // A scan the client scanner would get heartbeats and parts of rows for still gets every row
+    Scan limitedScan = new Scan(scan);
+    limitedScan.setMaxResultSize(1);
+    limitedScan.setAttribute(Scan.SCAN_ATTRIBUTES_HEARTBEATS_ENABLE, Bytes.toBytes(Boolean.TRUE));
+    limitedScan.setAttribute(Scan.SCAN_ATTRIBUTES_PARTIAL_RESULTS_ENABLE,
+      Bytes.toBytes(Boolean.TRUE));
+    results = table.scanAll(limitedScan).get();
+    assertEquals(100, results.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, value(results.get(i)));
+    }
+
+    // Whole table, across all regions
+    results = table.scanAll(new Scan()).get();
+    assertTrue(results.size() > 100);
+    for (int i = 1; i < results.size(); i++) {
+      assertTrue(Bytes.compareTo(results.get(i - 1).getRow(), results.get(i).getRow()) < 0);
+    }
+
+    // The scanners of the regions scanned through are all closed
+    TEST_UTIL.waitFor(10000, new Waiter.Predicate<Exception>() {
+      @Override
+      public boolean evaluate() throws Exception {
+        for (JVMClusterUtil.RegionServerThread rst :
+            TEST_UTIL.getMiniHBaseCluster().getLiveRegionServerThreads()) {
+          if (rst.getRegionServer().getNumberOfOpenScanners() > 0) {
+            return false;
+          }
+        }
+        return true;
+      }
+    });
+
+    // Stop early
+    final AtomicInteger seen = new AtomicInteger();
+    final CountDownLatch latch = new CountDownLatch(1);
+    table.scan(scan, new AsyncTable.ScanResultConsumer() {
+      @Override
+      public boolean onNext(Result[] rows) {
+        seen.addAndGet(rows.length);
+        latch.countDown();
+        return false;
+      }
+
+      @Override
+      public void onError(Throwable error) {
+        fail(error.toString());
+      }
+
+      @Override
+      public void onComplete() {
+        fail("Stopped scan should not complete");
+      }
+    });
+    latch.await();
+    assertEquals(7, seen.get());
+  }
+
+  @Test
+  public void testRegionMove() throws Exception {
+    byte[] row = Bytes.toBytes("moved");
+    table.put(put("moved", 1)).get();
+    HRegionLocation location = ((HConnectionManager.HConnectionImplementation) connection)
+      .getCachedLocation(TABLE, row);
+    assertNotNull(location);
+
+    HRegionServer destServer = null;
+    for (int i = 0; i < 2; i++) {
+      HRegionServer rs = TEST_UTIL.getMiniHBaseCluster().getRegionServer(i);
+      if (!rs.getServerName().equals(location.getServerName())) {
+        destServer = rs;
+      }
+    }
+    ServerName dest = destServer.getServerName();
+    TEST_UTIL.getHBaseAdmin().move(location.getRegionInfo().getEncodedNameAsBytes(),
+      Bytes.toBytes(dest.getServerName()));
+    while (destServer.getOnlineRegion(location.getRegionInfo().getRegionName()) == null ||
+        TEST_UTIL.getMiniHBaseCluster().getMaster().getAssignmentManager().getRegionStates()
+          .isRegionsInTransition()) {
+      Thread.sleep(10);
+    }
+
+    // The cached location is stale; the get has to find the region again.
+    assertEquals(1, value(table.get(new Get(row)).get()));
+    assertEquals(dest, ((HConnectionManager.HConnectionImplementation) connection)
+      .getCachedLocation(TABLE, row).getServerName());
+  }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(MediumTests.class)
+public class TestClientAsyncPrefetchScanner {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] TABLE = Bytes.toBytes("testClientAsyncPrefetchScanner");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int ROWS = 1000;
+  private static HTable table;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniCluster();
+    byte[][] splitKeys = new byte[][] { row(250), row(500), row(750) };
+    table = TEST_UTIL.createTable(TABLE, FAMILY, splitKeys);
+    byte[] value = new byte[100];
+    for (int i = 0; i < ROWS; i++) {
+      Put put = new Put(row(i));
+      put.add(FAMILY, FAMILY, value);
+      table.put(put);
+    }
+    table.flushCommits();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    table.close();
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row-%04d", i));
+  }
+
+  private static void assertRows(ResultScanner scanner, int from, int to) throws IOException {
+    for (int i = from; i < to; i++) {
+      Result result = scanner.next();
+      assertTrue(Bytes.equals(row(i), result.getRow()));
+    }
+  }
+
+  @Test
+  public void testScanAcrossRegions() throws Exception {
+    Scan scan = new Scan();
+    scan.setAsyncPrefetch(true);
+    scan.setCaching(7);
+    scan.setAttribute(Scan.SCAN_ATTRIBUTES_METRICS_ENABLE, Bytes.toBytes(Boolean.TRUE));
+    ResultScanner scanner = table.getScanner(scan);
+    try {
+      assertTrue(scanner instanceof ClientAsyncPrefetchScanner);
+      assertRows(scanner, 0, ROWS);
+      assertNull(scanner.next());
+      assertNull(scanner.next());
+    } finally {
+      scanner.close();
+    }
+    ScanMetrics metrics =
+        ProtobufUtil.toScanMetrics(scan.getAttribute(Scan.SCAN_ATTRIBUTES_METRICS_DATA));
+    assertEquals(4, metrics.countOfRegions.get());
+
+    // Bounded by the max result size rather than the caching, from a start row
+    scan = new Scan(row(100), row(900));
+    scan.setAsyncPrefetch(true);
+    scan.setMaxResultSize(1024);
+    scanner = table.getScanner(scan);
+    try {
+      assertRows(scanner, 100, 900);
+      assertNull(scanner.next());
+    } finally {
+      scanner.close();
+    }
+  }
+
+  @Test
+  public void testCloseWhilePrefetching() throws Exception {
+    Scan scan = new Scan();
+    scan.setAsyncPrefetch(true);
+    scan.setCaching(10);
+    ResultScanner scanner = table.getScanner(scan);
+    assertRows(scanner, 0, 15);
+    scanner.close();
+    assertNull(scanner.next());
+  }
+
+  @Test
+  public void testDefaultFromConfiguration() throws Exception {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setBoolean(HConstants.HBASE_CLIENT_SCANNER_ASYNC_PREFETCH, true);
+    HTable prefetchingTable = new HTable(conf, TABLE);
+    try {
+      ResultScanner scanner = prefetchingTable.getScanner(new Scan());
+      try {
+        assertTrue(scanner instanceof ClientAsyncPrefetchScanner);
+        assertRows(scanner, 0, ROWS);
+        assertNull(scanner.next());
+      } finally {
+        scanner.close();
+      }
+
+      // Scans may still say otherwise
+      scanner = prefetchingTable.getScanner(new Scan().setAsyncPrefetch(false));
+      try {
+        assertTrue(!(scanner instanceof ClientAsyncPrefetchScanner));
+      } finally {
+        scanner.close();
+      }
+    } finally {
+      prefetchingTable.close();
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SortedMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.catalog.MetaReader;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.JVMClusterUtil.RegionServerThread;
+import org.apache.hadoop.hbase.util.Threads;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test timeline consistent reads served by read replicas.
+ */
+@Category(MediumTests.class)
+public class TestReadReplicas {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final TableName TABLE = TableName.valueOf("testReadReplicas");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private static HTable table;
+  private static HRegionInfo region;
+
+  /**
+   * Slows down or fails reads of the primary region on demand; replicas are left alone.
+   */
+  public static class SlowPrimaryObserver extends BaseRegionObserver {
+    static volatile long sleepMillis = 0;
+    static volatile boolean failScannerOpen = false;
+
+    private static boolean isPrimary(ObserverContext<RegionCoprocessorEnvironment> e) {
+      return !e.getEnvironment().getRegion().isReadReplica();
+    }
+
+    @Override
+    public void preGetOp(final ObserverContext<RegionCoprocessorEnvironment> e,
+        final Get get, final List<Cell> results) throws IOException {
+      if (isPrimary(e) && sleepMillis > 0) {
+        Threads.sleep(sleepMillis);
+      }
+    }
+
+    @Override
+    public RegionScanner preScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> e,
+        final Scan scan, final RegionScanner s) throws IOException {
+      if (isPrimary(e) && failScannerOpen) {
+        throw new IOException("Primary scanner open refused by test");
+      }
+      return s;
+    }
+  }
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    conf.setInt("hbase.regionserver.readreplica.period", 200);
+    conf.setInt(ReadReplicaCaller.PRIMARY_CALL_TIMEOUT_KEY, 100000);
+    TEST_UTIL.startMiniCluster(3);
+
+    HTableDescriptor htd = new HTableDescriptor(TABLE);
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    htd.setRegionReplication(2);
+    htd.addCoprocessor(SlowPrimaryObserver.class.getName());
+    TEST_UTIL.getHBaseAdmin().createTable(htd);
+    TEST_UTIL.waitUntilAllRegionsAssigned(TABLE);
+    table = new HTable(conf, TABLE);
+    region = table.getRegionLocations().keySet().iterator().next();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    table.close();
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @After
+  public void tearDown() {
+    SlowPrimaryObserver.sleepMillis = 0;
+    SlowPrimaryObserver.failScannerOpen = false;
+  }
+
+  private static Put put(String row, long value) {
+    Put put = new Put(Bytes.toBytes(row));
+    put.add(FAMILY, QUALIFIER, Bytes.toBytes(value));
+    return put;
+  }
+
+  private static Get timelineGet(String row) {
+    Get get = new Get(Bytes.toBytes(row));
+    get.setConsistency(Consistency.TIMELINE);
+    return get;
+  }
+
+  /**
+   * @param flushed a row flushed by the primary
+   * @return the replica, once published in hbase:meta and refreshed up to <code>flushed</code>
+   */
+  private static HRegion waitForReplica(String flushed) throws Exception {
+    for (int i = 0; i < 300; i++) {
+      Result r = MetaReader.getRegionResult(
+        TEST_UTIL.getMiniHBaseCluster().getMaster().getCatalogTracker(), region.getRegionName());
+      SortedMap<Integer, ServerName> replicas = RegionReplicaUtil.getReplicaServerNames(r);
+      if (!replicas.isEmpty()) {
+        assertEquals(1, replicas.size());
+        ServerName sn = replicas.get(1);
+        assertFalse(sn.equals(HRegionInfo.getServerName(r)));
+        HRegionServer rs = null;
+        for (RegionServerThread t : TEST_UTIL.getMiniHBaseCluster().getLiveRegionServerThreads()) {
+          if (t.getRegionServer().getServerName().equals(sn)) {
+            rs = t.getRegionServer();
+          }
+        }
+        assertNotNull(rs);
+        return waitForRefresh(rs, Bytes.toBytes(flushed));
+      }
+      Thread.sleep(100);
+    }
+    throw new AssertionError("Read replica never published");
+  }
+
+  /**
+   * Waits for a replica to see a flushed row.
+   */
+  private static HRegion waitForRefresh(HRegionServer rs, byte[] row) throws Exception {
+    for (int i = 0; i < 300; i++) {
+      for (HRegion replica : rs.getReadReplicas()) {
+        if (!replica.get(new Get(row)).isEmpty()) {
+          return replica;
+        }
+      }
+      Thread.sleep(100);
+    }
+    throw new AssertionError("Read replica never saw row " + Bytes.toString(row));
+  }
+
+  @Test
+  public void testTimelineReads() throws Exception {
+    table.put(put("row", 1));
+    TEST_UTIL.getHBaseAdmin().flush(TABLE.getName());
+    HRegion replica = waitForReplica("row");
+    assertNotNull(replica);
+    assertTrue(replica.isReadReplica());
+    try {
+      replica.put(put("row", 2));
+      fail("Read replicas refuse writes");
+    } catch (IOException e) {
+      // expected
+    }
+
+    // A responsive primary answers timeline gets itself
+    Result result = table.get(timelineGet("row"));
+    assertFalse(result.isStale());
+    assertEquals(1, Bytes.toLong(result.getValue(FAMILY, QUALIFIER)));
+
+    // A slow primary is bypassed by timeline gets, but not by strong ones
+    SlowPrimaryObserver.sleepMillis = 3000;
+    result = table.get(timelineGet("row"));
+    assertTrue(result.isStale());
+    assertEquals(1, Bytes.toLong(result.getValue(FAMILY, QUALIFIER)));
+    result = table.get(new Get(Bytes.toBytes("row")));
+    assertFalse(result.isStale());
+
+    // Unflushed edits are not seen by the replica
+    table.put(put("unflushed", 2));
+    result = table.get(timelineGet("unflushed"));
+    assertTrue(result.isStale());
+    assertTrue(result.isEmpty());
+  }
+
+  @Test
+  public void testTimelineScanFailsOver() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      table.put(put(String.format("scan-%02d", i), i));
+    }
+    TEST_UTIL.getHBaseAdmin().flush(TABLE.getName());
+    waitForReplica("scan-09");
+
+    SlowPrimaryObserver.failScannerOpen = true;
+    Scan scan = new Scan(Bytes.toBytes("scan-"), Bytes.toBytes("scan-~"));
+    scan.setConsistency(Consistency.TIMELINE);
+    ResultScanner scanner = table.getScanner(scan);
+    int count = 0;
+    for (Result r : scanner) {
+      assertTrue(r.isStale());
+      assertEquals(count, Bytes.toLong(r.getValue(FAMILY, QUALIFIER)));
+      count++;
+    }
+    scanner.close();
+    assertEquals(10, count);
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests scans that filter rows out for longer than the timeouts, and scans of rows bigger than
+ * the max result size.
+ */
+@Category(MediumTests.class)
+public class TestScannerHeartbeatsAndPartialResults {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int TIMEOUT = 3000;
+  private static final int SLOW_ROWS = 40;
+  private static final byte[] LAST_SLOW_ROW = Bytes.toBytes("row-" + (SLOW_ROWS - 1));
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    conf.setInt(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD, TIMEOUT);
+    conf.setInt(HConstants.HBASE_RPC_TIMEOUT_KEY, TIMEOUT);
+    conf.setInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER, 1);
+    TEST_UTIL.startMiniCluster();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  /**
+   * Filters out all the rows but the last of the slow table, taking a while for each.
+   */
+  public static class SlowFilter extends FilterBase {
+    @Override
+    public boolean filterRowKey(byte[] buffer, int offset, int length) {
+      Threads.sleep(TIMEOUT / 20);
+      return !Bytes.equals(buffer, offset, length, LAST_SLOW_ROW, 0, LAST_SLOW_ROW.length);
+    }
+
+    public static SlowFilter parseFrom(final byte[] pbBytes) {
+      return new SlowFilter();
+    }
+  }
+
+  private static ScanMetrics getScanMetrics(Scan scan) {
+    return ProtobufUtil.toScanMetrics(scan.getAttribute(Scan.SCAN_ATTRIBUTES_METRICS_DATA));
+  }
+
+  @Test
+  public void testHeartbeats() throws Exception {
+    HTable table = TEST_UTIL.createTable(Bytes.toBytes("testHeartbeats"), FAMILY);
+    try {
+      for (int i = 0; i < SLOW_ROWS; i++) {
+        Put put = new Put(Bytes.toBytes("row-" + i));
+        put.add(FAMILY, FAMILY, Bytes.toBytes(i));
+        table.put(put);
+      }
+      // Filtering the rows out takes twice the timeouts
+      Scan scan = new Scan();
+      scan.setFilter(new SlowFilter());
+      scan.setAttribute(Scan.SCAN_ATTRIBUTES_METRICS_ENABLE, Bytes.toBytes(Boolean.TRUE));
+      ResultScanner scanner = table.getScanner(scan);
+      try {
+        Result result = scanner.next();
+        assertTrue(Bytes.equals(LAST_SLOW_ROW, result.getRow()));
+        assertNull(scanner.next());
+      } finally {
+        scanner.close();
+      }
+      // Heartbeats every half timeout
+      assertTrue(getScanMetrics(scan).countOfRPCcalls.get() >= 4);
+      // Only the requests asked for them, not the scan of the application
+      assertNull(scan.getAttribute(Scan.SCAN_ATTRIBUTES_HEARTBEATS_ENABLE));
+      assertNull(scan.getAttribute(Scan.SCAN_ATTRIBUTES_PARTIAL_RESULTS_ENABLE));
+    } finally {
+      table.close();
+    }
+  }
+
+  private static int countCells(HTable table, Scan scan, int rows) throws IOException {
+    ResultScanner scanner = table.getScanner(scan);
+    int cells = 0;
+    try {
+      for (int i = 0; i < rows; i++) {
+        Result result = scanner.next();
+        assertTrue(Bytes.equals(Bytes.toBytes("row-" + i), result.getRow()));
+        cells += result.size();
+      }
+      assertNull(scanner.next());
+    } finally {
+      scanner.close();
+    }
+    return cells;
+  }
+
+  @Test
+  public void testPartialResults() throws Exception {
+    HTable table = TEST_UTIL.createTable(Bytes.toBytes("testPartialResults"), FAMILY);
+    try {
+      // A row of a thousand 1KB cells between two small ones
+      byte[] value = new byte[1024];
+      for (int i = 0; i < 3; i++) {
+        Put put = new Put(Bytes.toBytes("row-" + i));
+        for (int j = 0; j < (i == 1 ? 1000 : 1); j++) {
+          put.add(FAMILY, Bytes.toBytes(j), value);
+        }
+        table.put(put);
+      }
+
+      // The wide row comes in parts of about 20KB, read a few cells over, stitched back together
+      Scan scan = new Scan();
+      scan.setMaxResultSize(20 * 1024);
+      scan.setAttribute(Scan.SCAN_ATTRIBUTES_METRICS_ENABLE, Bytes.toBytes(Boolean.TRUE));
+      assertEquals(1002, countCells(table, scan, 3));
+      assertTrue(getScanMetrics(scan).countOfRPCcalls.get() >= 1000 / 40);
+
+      // Batches are still returned one by one
+      scan = new Scan();
+      scan.setMaxResultSize(20 * 1024);
+      scan.setBatch(400);
+      ResultScanner scanner = table.getScanner(scan);
+      try {
+        assertEquals(1, scanner.next().size());
+        assertEquals(400, scanner.next().size());
+        assertEquals(400, scanner.next().size());
+        assertEquals(200, scanner.next().size());
+        assertEquals(1, scanner.next().size());
+        assertNull(scanner.next());
+      } finally {
+        scanner.close();
+      }
+    } finally {
+      table.close();
+    }
+  }
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.coprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.IndexedScan;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(MediumTests.class)
+public class TestRegionIndexObserver {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] INDEXED = Bytes.toBytes("color");
+  private static final byte[] OTHER = Bytes.toBytes("size");
+  private static final byte[] RED = Bytes.toBytes("red");
+  private static final byte[] BLUE = Bytes.toBytes("blue");
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.startMiniCluster();
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private static HTableDescriptor getDescriptor(String name) {
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf(name));
+    HColumnDescriptor hcd = new HColumnDescriptor(FAMILY);
+    hcd.setMaxVersions(3);
+    htd.addFamily(hcd);
+    htd.addFamily(new HColumnDescriptor(RegionIndexObserver.DEFAULT_INDEX_FAMILY));
+    return htd;
+  }
+
+  private static void addIndex(HTableDescriptor htd) throws IOException {
+    htd.setValue(RegionIndexObserver.INDEX_COLUMNS_KEY, "f:color");
+    htd.addCoprocessor(RegionIndexObserver.class.getName());
+  }
+
+  private HTable createTable(String name) throws IOException {
+    HTableDescriptor htd = getDescriptor(name);
+    addIndex(htd);
+    TEST_UTIL.getHBaseAdmin().createTable(htd);
+    return new HTable(TEST_UTIL.getConfiguration(), name);
+  }
+
+  private static void putRow(HTable table, int i, byte[] color) throws IOException {
+    Put put = new Put(Bytes.toBytes("row" + i));
+    put.add(FAMILY, INDEXED, color);
+    put.add(FAMILY, OTHER, Bytes.toBytes(i));
+    table.put(put);
+  }
+
+  private static List<String> getRows(HTable table, Scan scan) throws IOException {
+    List<String> rows = new ArrayList<String>();
+    ResultScanner scanner = table.getScanner(scan);
+    try {
+      for (Result result : scanner) {
+        rows.add(Bytes.toString(result.getRow()));
+      }
+    } finally {
+      scanner.close();
+    }
+    return rows;
+  }
+
+  private static List<String> lookup(HTable table, byte[] color) throws IOException {
+    return getRows(table, new IndexedScan(FAMILY, INDEXED, color));
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    HTable table = createTable("testLookup");
+    try {
+      for (int i = 0; i < 8; i++) {
+        putRow(table, i, i % 2 == 0 ? RED : BLUE);
+      }
+      assertEquals("[row0, row2, row4, row6]", lookup(table, RED).toString());
+      assertEquals("[row1, row3, row5, row7]", lookup(table, BLUE).toString());
+      assertTrue(lookup(table, Bytes.toBytes("green")).isEmpty());
+
+      // The index follows the updates and deletes
+      putRow(table, 0, BLUE);
+      Delete delete = new Delete(Bytes.toBytes("row2"));
+      delete.deleteColumns(FAMILY, INDEXED);
+      table.delete(delete);
+      table.delete(new Delete(Bytes.toBytes("row4")));
+      assertEquals("[row6]", lookup(table, RED).toString());
+      assertEquals("[row0, row1, row3, row5, row7]", lookup(table, BLUE).toString());
+
+      // Deleting the latest version brings back the value of the previous one
+      putRow(table, 6, BLUE);
+      delete = new Delete(Bytes.toBytes("row6"));
+      delete.deleteColumn(FAMILY, INDEXED);
+      table.delete(delete);
+      assertEquals("[row6]", lookup(table, RED).toString());
+
+      // The lookup is restricted like any scan
+      Scan scan = new Scan(Bytes.toBytes("row1"), Bytes.toBytes("row7"));
+      scan.addColumn(FAMILY, OTHER);
+      ResultScanner scanner = table.getScanner(new IndexedScan(scan, FAMILY, INDEXED, BLUE));
+      try {
+        List<String> rows = new ArrayList<String>();
+        for (Result result : scanner) {
+          rows.add(Bytes.toString(result.getRow()));
+          for (Cell cell : result.rawCells()) {
+            assertTrue(CellUtil.matchingQualifier(cell, OTHER));
+          }
+        }
+        assertEquals("[row1, row3, row5]", rows.toString());
+      } finally {
+        scanner.close();
+      }
+
+      // Other scans do not see the index entries
+      assertEquals(7, getRows(table, new Scan()).size());
+    } finally {
+      table.close();
+    }
+  }
+
+  @Test
+  public void testIndexAfterSplit() throws Exception {
+    HTable table = createTable("testIndexAfterSplit");
+    try {
+      for (int i = 0; i < 8; i++) {
+        putRow(table, i, i % 2 == 0 ? RED : BLUE);
+      }
+      TEST_UTIL.getHBaseAdmin().split("testIndexAfterSplit", "row4");
+      TableName tableName = TableName.valueOf("testIndexAfterSplit");
+      while (TEST_UTIL.getMiniHBaseCluster().getRegions(tableName).size() < 2) {
+        Thread.sleep(100);
+      }
+      TEST_UTIL.waitUntilAllRegionsAssigned(tableName);
+      table.clearRegionCache();
+
+      // Both daughters indexed their rows
+      assertEquals("[row0, row2, row4, row6]", lookup(table, RED).toString());
+      putRow(table, 5, RED);
+      putRow(table, 1, RED);
+      assertEquals("[row0, row1, row2, row4, row5, row6]", lookup(table, RED).toString());
+      assertEquals("[row3, row7]", lookup(table, BLUE).toString());
+      assertEquals(8, getRows(table, new Scan()).size());
+    } finally {
+      table.close();
+    }
+  }
+
+  @Test
+  public void testBuildIndexOfExistingRows() throws Exception {
+    HTableDescriptor htd = getDescriptor("testBuildIndexOfExistingRows");
+    HBaseAdmin admin = TEST_UTIL.getHBaseAdmin();
+    admin.createTable(htd);
+    HTable table = new HTable(TEST_UTIL.getConfiguration(), htd.getTableName());
+    try {
+      for (int i = 0; i < 8; i++) {
+        putRow(table, i, i % 2 == 0 ? RED : BLUE);
+      }
+      addIndex(htd);
+      admin.disableTable(htd.getTableName());
+      admin.modifyTable(htd.getTableName(), htd);
+      admin.enableTable(htd.getTableName());
+
+      // The region indexes its rows in the background, the lookups retrying meanwhile
+      assertEquals("[row0, row2, row4, row6]", lookup(table, RED).toString());
+      putRow(table, 2, BLUE);
+      assertEquals("[row0, row4, row6]", lookup(table, RED).toString());
+      assertEquals("[row1, row2, row3, row5, row7]", lookup(table, BLUE).toString());
+    } finally {
+      table.close();
+    }
+  }
+
+  @Test
+  public void testReseek() throws Exception {
+    HTable table = createTable("testReseek");
+    try {
+      for (int i = 0; i < 8; i++) {
+        putRow(table, i, i % 2 == 0 ? RED : BLUE);
+      }
+      // Wait for the index to be built
+      assertEquals("[row0, row2, row4, row6]", lookup(table, RED).toString());
+      HRegion region = TEST_UTIL.getMiniHBaseCluster()
+          .getRegions(TableName.valueOf("testReseek")).get(0);
+      RegionScanner scanner = region.getCoprocessorHost().preScannerOpen(
+        new IndexedScan(FAMILY, INDEXED, RED));
+      try {
+        // Before reading the index, then after
+        assertTrue(scanner.reseek(Bytes.toBytes("row1")));
+        List<Cell> cells = new ArrayList<Cell>();
+        assertTrue(scanner.next(cells));
+        assertEquals("row2", Bytes.toString(CellUtil.cloneRow(cells.get(0))));
+        assertTrue(scanner.reseek(Bytes.toBytes("row5")));
+        cells.clear();
+        assertTrue(!scanner.next(cells));
+        assertEquals("row6", Bytes.toString(CellUtil.cloneRow(cells.get(0))));
+      } finally {
+        scanner.close();
+      }
+    } finally {
+      table.close();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * Compares the hit ratio of the block cache policies, {@link LruBlockCache} and
+ * {@link TinyLfuBlockCache}, by replaying a trace of block reads: each read that misses caches
+ * the block, as a region server does.<p>
+ *
+ * The trace is either a file, with a block per line as "hfileName offset", or generated: point
+ * reads of blocks following a Zipf distribution, mixed with scans reading once each block of
+ * another set of blocks, for scanPercent of the reads.<p>
+ *
+ * Usage: BlockCacheHitRatioEvaluation [-trace file] [-cacheBlocks n] [-blockSize bytes]
+ * [-blocks n] [-reads n] [-scanPercent p] [-sigma s]
+ */
+@InterfaceAudience.Private
+public class BlockCacheHitRatioEvaluation {
+  private String traceFile = null;
+  private int cacheBlocks = 1000;
+  private int blockSize = 64 * 1024;
+  private int blocks = 10000;
+  private int reads = 1000000;
+  private int scanPercent = 30;
+  private double sigma = 1.1;
+
+  private List<BlockCacheKey> getTrace() throws IOException {
+    List<BlockCacheKey> trace = new ArrayList<BlockCacheKey>();
+    if (traceFile != null) {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(traceFile), "UTF-8"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] fields = line.trim().split("\\s+");
+          if (fields[0].isEmpty()) continue;
+          trace.add(new BlockCacheKey(fields[0],
+            fields.length > 1 ? Long.parseLong(fields[1]) : 0));
+        }
+      } finally {
+        reader.close();
+      }
+      return trace;
+    }
+    Random random = new Random(0);
+    RandomDistribution.DiscreteRNG zipf = new RandomDistribution.Zipf(random, 0, blocks, sigma);
+    long scanOffset = 0;
+    while (trace.size() < reads) {
+      if (random.nextInt(100) < scanPercent) {
+        // Scans read blocks never read before, and never again
+        trace.add(new BlockCacheKey("scan", scanOffset++ * blockSize));
+      } else {
+        trace.add(new BlockCacheKey("get", (long) zipf.nextInt() * blockSize));
+      }
+    }
+    return trace;
+  }
+
+  private double replay(FirstLevelBlockCache cache, List<BlockCacheKey> trace) {
+    Block block = new Block(blockSize);
+    long start = System.nanoTime();
+    for (BlockCacheKey key : trace) {
+      if (cache.getBlock(key, true, false, true) == null) {
+        cache.cacheBlock(key, block);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    System.out.println(String.format("%-20s hitRatio=%.2f%% evicted=%d time=%dms",
+      cache.getClass().getSimpleName(), cache.getStats().getHitRatio() * 100,
+      cache.getStats().getEvictedCount(), elapsed / 1000000));
+    cache.shutdown();
+    return cache.getStats().getHitRatio();
+  }
+
+  private int run(String[] args) throws IOException {
+    for (int i = 0; i < args.length; i += 2) {
+      if (i + 1 >= args.length) return usage();
+      String value = args[i + 1];
+      if (args[i].equals("-trace")) traceFile = value;
+      else if (args[i].equals("-cacheBlocks")) cacheBlocks = Integer.parseInt(value);
+      else if (args[i].equals("-blockSize")) blockSize = Integer.parseInt(value);
+      else if (args[i].equals("-blocks")) blocks = Integer.parseInt(value);
+      else if (args[i].equals("-reads")) reads = Integer.parseInt(value);
+      else if (args[i].equals("-scanPercent")) scanPercent = Integer.parseInt(value);
+      else if (args[i].equals("-sigma")) sigma = Double.parseDouble(value);
+      else return usage();
+    }
+    List<BlockCacheKey> trace = getTrace();
+    System.out.println("Replaying " + trace.size() + " block reads in a cache of " +
+      cacheBlocks + " blocks of " + blockSize + " bytes");
+    long maxSize = (long) cacheBlocks * blockSize;
+    // No eviction thread, for the runs to be repeatable
+    replay(new LruBlockCache(maxSize, blockSize, false), trace);
+    replay(new TinyLfuBlockCache(maxSize, blockSize), trace);
+    return 0;
+  }
+
+  private static int usage() {
+    System.err.println("Usage: BlockCacheHitRatioEvaluation [-trace file] [-cacheBlocks n]" +
+      " [-blockSize bytes] [-blocks n] [-reads n] [-scanPercent p] [-sigma s]");
+    return 1;
+  }
+
+  /** A block of the given size, with no content */
+  private static class Block implements Cacheable {
+    private final int size;
+
+    Block(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public long heapSize() {
+      return ClassSize.align(size);
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    System.exit(new BlockCacheHitRatioEvaluation().run(args));
+  }
+}
@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Threads;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the shares and statistics of the {@link BlockCachePartitions} of the block caches.
+ */
+@Category(SmallTests.class)
+public class TestBlockCachePartitions {
+  private static final int BLOCK_SIZE = 1024;
+  private static final long MAX_SIZE = 200 * BLOCK_SIZE;
+
+  private Configuration conf;
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+  }
+
+  private static String minShareKey(String partition) {
+    return BlockCachePartitions.PARTITION_CONF_PREFIX + partition +
+      BlockCachePartitions.MIN_SHARE_CONF_SUFFIX;
+  }
+
+  private static String maxShareKey(String partition) {
+    return BlockCachePartitions.PARTITION_CONF_PREFIX + partition +
+      BlockCachePartitions.MAX_SHARE_CONF_SUFFIX;
+  }
+
+  private static BlockCacheKey key(HFileBlockPair block, String partition) {
+    BlockCacheKey key = block.getBlockName();
+    return new BlockCacheKey(key.getHfileName(), key.getOffset(), DataBlockEncoding.NONE,
+      BlockType.DATA, partition);
+  }
+
+  private LruBlockCache createLruCache() {
+    return new LruBlockCache(MAX_SIZE, BLOCK_SIZE, false, conf);
+  }
+
+  @Test
+  public void testShares() {
+    conf.setFloat(minShareKey("a"), 0.3f);
+    conf.setFloat(maxShareKey("a"), 0.5f);
+    conf.setFloat(maxShareKey("b"), 2f);
+    BlockCachePartitions partitions = new BlockCachePartitions(conf);
+    assertEquals(0.3f, partitions.get("a").getMinShare(), 0);
+    assertEquals(0.5f, partitions.get("a").getMaxShare(), 0);
+    assertEquals(300, partitions.get("a").getMinSize(1000));
+    assertEquals(500, partitions.get("a").getMaxSize(1000));
+    // Out of range shares fall back to the defaults
+    assertEquals(1f, partitions.get("b").getMaxShare(), 0);
+    assertEquals(0f, partitions.get("c").getMinShare(), 0);
+    assertNull(partitions.get(new BlockCacheKey("f", 0)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMinSharesOverWholeCache() {
+    conf.setFloat(minShareKey("a"), 0.6f);
+    conf.setFloat(minShareKey("b"), 0.5f);
+    new BlockCachePartitions(conf);
+  }
+
+  @Test
+  public void testLruMaxShare() {
+    conf.setFloat(maxShareKey("noisy"), 0.2f);
+    LruBlockCache cache = createLruCache();
+    try {
+      HFileBlockPair[] others = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 50);
+      for (HFileBlockPair block : others) {
+        cache.cacheBlock(key(block, "other"), block.getBlock());
+      }
+      HFileBlockPair[] noisy = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 150);
+      for (HFileBlockPair block : noisy) {
+        cache.cacheBlock(key(block, "noisy"), block.getBlock());
+      }
+      BlockCachePartitions.Partition partition = cache.getPartitions().get("noisy");
+      assertTrue(partition.getSize() <= partition.getMaxSize(MAX_SIZE));
+      // The noisy partition evicted its own blocks, the least recently used first
+      assertTrue(cache.containsBlock(key(noisy[noisy.length - 1], "noisy")));
+      assertTrue(!cache.containsBlock(key(noisy[0], "noisy")));
+      for (HFileBlockPair block : others) {
+        assertTrue(cache.containsBlock(key(block, "other")));
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testLruMinShare() {
+    conf.setFloat(minShareKey("critical"), 0.3f);
+    LruBlockCache cache = createLruCache();
+    try {
+      BlockCachePartitions.Partition partition = cache.getPartitions().get("critical");
+      List<BlockCacheKey> critical = new ArrayList<BlockCacheKey>();
+      for (HFileBlockPair block : CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 100)) {
+        BlockCacheKey key = key(block, "critical");
+        cache.cacheBlock(key, block.getBlock());
+        if (partition.getSize() > partition.getMinSize(MAX_SIZE)) {
+          cache.evictBlock(key);
+          break;
+        }
+        critical.add(key);
+      }
+      long criticalSize = partition.getSize();
+
+      // Blocks read since do not evict the critical ones, older as they are
+      for (HFileBlockPair block : CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 500)) {
+        cache.cacheBlock(key(block, null), block.getBlock());
+      }
+      assertTrue(cache.getStats().getEvictedCount() > 0);
+      assertEquals(criticalSize, partition.getSize());
+      for (BlockCacheKey key : critical) {
+        assertTrue(cache.containsBlock(key));
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testLruStats() {
+    LruBlockCache cache = createLruCache();
+    try {
+      HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 2);
+      cache.cacheBlock(key(blocks[0], "a"), blocks[0].getBlock());
+      assertNotNull(cache.getBlock(key(blocks[0], "a"), true, false, true));
+      assertNotNull(cache.getBlock(key(blocks[0], "a"), true, false, true));
+      assertNull(cache.getBlock(key(blocks[1], "a"), true, false, true));
+      assertNull(cache.getBlock(key(blocks[1], "b"), true, false, true));
+
+      CacheStats stats = cache.getPartitions().get("a").getStats();
+      assertEquals(2, stats.getHitCount());
+      assertEquals(1, stats.getMissCount());
+      stats = cache.getPartitions().get("b").getStats();
+      assertEquals(0, stats.getHitCount());
+      assertEquals(1, stats.getMissCount());
+
+      cache.evictBlock(key(blocks[0], "a"));
+      assertEquals(0, cache.getPartitions().get("a").getSize());
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testBucketCacheMaxShare() throws Exception {
+    conf.setFloat(maxShareKey("noisy"), 0.1f);
+    // A single bucket size, for the cache not to run out of buckets of the size of the blocks
+    BucketCache cache = new BucketCache("heap", 32 * 1024 * 1024, 8192, new int[] { 9216 }, 1,
+      1000, null, BucketCache.DEFAULT_ERROR_TOLERATION_DURATION, BucketCache.DEFAULT_CHECKPOINT_PERIOD, conf);
+    try {
+      BlockCachePartitions.Partition partition = cache.getPartitions().get("noisy");
+      HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(8192, 1000);
+      for (HFileBlockPair block : blocks) {
+        cache.cacheBlockWithWait(key(block, "noisy"), block.getBlock(), false, true);
+      }
+      // Wait for the writers to drain the blocks to the io engine, and to evict the blocks over
+      // the share once they have
+      long maxSize = partition.getMaxSize(cache.getAllocator().getTotalSize());
+      for (int i = 0; i < 100 && (cache.heapSize() > 0 || partition.getSize() > maxSize); i++) {
+        Threads.sleep(100);
+      }
+      assertTrue(partition.getSize() > 0);
+      assertTrue(partition.getSize() <= maxSize);
+      assertNotNull(cache.getBlock(key(blocks[blocks.length - 1], "noisy"), true, false, true));
+      assertEquals(1, partition.getStats().getHitCount());
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testCacheConfigPartition() {
+    HTableDescriptor table = new HTableDescriptor(TableName.valueOf("t"));
+    table.setBlockCachePartition("table");
+    HColumnDescriptor family = new HColumnDescriptor("f");
+    assertEquals("table", new CacheConfig(conf, table, family).getBlockCachePartition());
+    family.setBlockCachePartition("family");
+    assertEquals("family", new CacheConfig(conf, table, family).getBlockCachePartition());
+    assertNull(new CacheConfig(conf).getBlockCachePartition());
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the admission, eviction and size accounting of the TinyLfuBlockCache.
+ */
+@Category(SmallTests.class)
+public class TestTinyLfuBlockCache {
+  private static final int BLOCK_SIZE = 100000;
+  /** Room for 19 blocks, once the overhead is accounted */
+  private static final long MAX_SIZE = 20 * BLOCK_SIZE;
+
+  @Test
+  public void testCacheSimple() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(MAX_SIZE, BLOCK_SIZE);
+    long emptySize = cache.heapSize();
+    CachedItem[] blocks = generateBlocks(10, "block");
+    for (CachedItem block : blocks) {
+      assertNull(cache.getBlock(block.cacheKey, true, false, true));
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    for (CachedItem block : blocks) {
+      assertTrue(cache.getBlock(block.cacheKey, true, false, true) == block);
+    }
+    assertEquals(10, cache.getBlockCount());
+    assertEquals(0, cache.getStats().getEvictedCount());
+    assertEquals(10, cache.evictBlocksByHfileName("block"));
+    assertEquals(0, cache.getBlockCount());
+    assertEquals(emptySize, cache.heapSize());
+
+    CacheTestUtils.testHeapSizeChanges(cache, BLOCK_SIZE);
+    cache.shutdown();
+  }
+
+  @Test
+  public void testSegments() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(MAX_SIZE, BLOCK_SIZE);
+    CachedItem[] blocks = generateBlocks(2, "block");
+    // The window is smaller than a block: a new block goes on probation right away
+    cache.cacheBlock(blocks[0].cacheKey, blocks[0]);
+    assertEquals(TinyLfuBlockCache.PROBATION, cache.getRegion(blocks[0].cacheKey));
+    cache.getBlock(blocks[0].cacheKey, true, false, true);
+    assertEquals(TinyLfuBlockCache.PROTECTED, cache.getRegion(blocks[0].cacheKey));
+    // In-memory blocks are protected right away
+    cache.cacheBlock(blocks[1].cacheKey, blocks[1], true);
+    assertEquals(TinyLfuBlockCache.PROTECTED, cache.getRegion(blocks[1].cacheKey));
+    assertEquals(0, cache.getRegionSize(TinyLfuBlockCache.WINDOW));
+    assertEquals(0, cache.getRegionSize(TinyLfuBlockCache.PROBATION));
+    assertEquals(cache.heapSize() - TinyLfuBlockCache.calculateOverhead(MAX_SIZE, BLOCK_SIZE),
+      cache.getRegionSize(TinyLfuBlockCache.PROTECTED));
+    cache.shutdown();
+  }
+
+  @Test
+  public void testScanResistance() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(MAX_SIZE, BLOCK_SIZE);
+    CachedItem[] hot = generateBlocks(10, "hot");
+    for (int i = 0; i < 5; i++) {
+      for (CachedItem block : hot) {
+        if (cache.getBlock(block.cacheKey, true, false, true) == null) {
+          cache.cacheBlock(block.cacheKey, block);
+        }
+      }
+    }
+    // A scan reading once many more blocks than the cache holds
+    for (CachedItem block : generateBlocks(200, "scan")) {
+      assertNull(cache.getBlock(block.cacheKey, true, false, true));
+      cache.cacheBlock(block.cacheKey, block);
+      assertTrue(cache.heapSize() <= MAX_SIZE);
+    }
+    assertTrue(cache.getStats().getEvictedCount() > 0);
+    for (CachedItem block : hot) {
+      assertNotNull(cache.getBlock(block.cacheKey, true, false, true));
+    }
+    cache.shutdown();
+  }
+
+  @Test
+  public void testMaxSize() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(MAX_SIZE, BLOCK_SIZE);
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      // Blocks of various sizes, some read often
+      int id = random.nextInt(100) < 50 ? random.nextInt(10) : random.nextInt(1000);
+      CachedItem block = new CachedItem("block" + id, BLOCK_SIZE / 4 + (id % 7) * BLOCK_SIZE / 7);
+      if (cache.getBlock(block.cacheKey, true, false, true) == null) {
+        cache.cacheBlock(block.cacheKey, block, id % 13 == 0);
+      }
+      assertTrue(cache.heapSize() <= MAX_SIZE);
+    }
+    long regions = cache.getRegionSize(TinyLfuBlockCache.WINDOW) +
+      cache.getRegionSize(TinyLfuBlockCache.PROBATION) +
+      cache.getRegionSize(TinyLfuBlockCache.PROTECTED);
+    assertEquals(cache.heapSize() - TinyLfuBlockCache.calculateOverhead(MAX_SIZE, BLOCK_SIZE),
+      regions);
+    int count = 0;
+    for (CachedBlock cb : cache) {
+      assertNotNull(cb.getFilename());
+      count++;
+    }
+    assertEquals(cache.getBlockCount(), count);
+
+    cache.setMaxSize(MAX_SIZE / 2);
+    assertTrue(cache.heapSize() <= MAX_SIZE / 2);
+    cache.shutdown();
+  }
+
+  @Test
+  public void testConcurrency() throws Exception {
+    TinyLfuBlockCache cache = new TinyLfuBlockCache(1000000, 5 * 1024);
+    CacheTestUtils.testCacheMultiThreaded(cache, 5 * 1024, 10, 1000, 0.80);
+    CacheTestUtils.hammerSingleKey(cache, 5 * 1024, 10, 1000);
+    CacheTestUtils.hammerEviction(cache, 5 * 1024, 10, 100);
+    assertTrue(cache.heapSize() <= 1000000);
+    cache.shutdown();
+  }
+
+  @Test
+  public void testCacheConfig() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(CacheConfig.BLOCKCACHE_POLICY_KEY, "TinyLFU");
+    CacheConfig.GLOBAL_BLOCK_CACHE_INSTANCE = null;
+    try {
+      BlockCache blockCache = new CacheConfig(conf).getBlockCache();
+      assertTrue(blockCache instanceof TinyLfuBlockCache);
+      blockCache.shutdown();
+    } finally {
+      CacheConfig.GLOBAL_BLOCK_CACHE_INSTANCE = null;
+    }
+  }
+
+  private static CachedItem[] generateBlocks(int numBlocks, String hfileName) {
+    CachedItem[] blocks = new CachedItem[numBlocks];
+    for (int i = 0; i < numBlocks; i++) {
+      blocks[i] = new CachedItem(hfileName, i, BLOCK_SIZE);
+    }
+    return blocks;
+  }
+
+  private static class CachedItem implements Cacheable {
+    BlockCacheKey cacheKey;
+    int size;
+
+    CachedItem(String hfileName, long offset, int size) {
+      this.cacheKey = new BlockCacheKey(hfileName, offset);
+      this.size = size;
+    }
+
+    CachedItem(String blockName, int size) {
+      this(blockName, 0, size);
+    }
+
+    @Override
+    public long heapSize() {
+      return ClassSize.align(size);
+    }
+
+    @Override
+    public int getSerializedLength() {
+      return 0;
+    }
+
+    @Override
+    public CacheableDeserializer<Cacheable> getDeserializer() {
+      return null;
+    }
+
+    @Override
+    public void serialize(ByteBuffer destination) {
+    }
+
+    @Override
+    public BlockType getBlockType() {
+      return BlockType.DATA;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
+import org.apache.hadoop.hbase.io.hfile.BlockType;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests a file backed {@link BucketCache} comes back with its blocks after a restart, even
+ * one after a crash.
+ */
+@Category(SmallTests.class)
+public class TestBucketCachePersister {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final long CAPACITY = 32 * 1024 * 1024;
+  private static final int BLOCK_SIZE = 8192;
+
+  private File dir;
+  private String ioEngineName;
+  private String persistencePath;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = new File(TEST_UTIL.getDataTestDir("TestBucketCachePersister").toString());
+    assertTrue(dir.isDirectory() || dir.mkdirs());
+    ioEngineName = "file:" + new File(dir, "bucket.cache").getPath();
+    persistencePath = new File(dir, "bucket.index").getPath();
+  }
+
+  @After
+  public void tearDown() {
+    new File(dir, "bucket.cache").delete();
+    new File(persistencePath).delete();
+  }
+
+  private BucketCache createCache(long capacity) throws IOException {
+    return new BucketCache(ioEngineName, capacity, BLOCK_SIZE, null,
+      BucketCache.DEFAULT_WRITER_THREADS, BucketCache.DEFAULT_WRITER_QUEUE_ITEMS,
+      persistencePath, BucketCache.DEFAULT_ERROR_TOLERATION_DURATION, Integer.MAX_VALUE);
+  }
+
+  private static void cacheAndWait(BucketCache cache, HFileBlockPair[] blocks)
+      throws InterruptedException {
+    for (HFileBlockPair block : blocks) {
+      cache.cacheBlockWithWait(block.getBlockName(), block.getBlock(), false, true);
+    }
+    while (!cache.ramCache.isEmpty()) {
+      Thread.sleep(10);
+    }
+  }
+
+  /**
+   * Stops a cache without its shutdown, as a crash would.
+   */
+  private static void crash(BucketCache cache) throws InterruptedException {
+    cache.stopWriterThreads();
+  }
+
+  @Test
+  public void testRestartAfterCrash() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 20);
+    BucketCache cache = createCache(CAPACITY);
+    cacheAndWait(cache, blocks);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(cache.evictBlock(blocks[i].getBlockName()));
+    }
+    // Evicted space stays allocated until the eviction is checkpointed
+    long used = cache.getAllocator().getUsedSize();
+    cache.checkpoint();
+    assertTrue(cache.getAllocator().getUsedSize() < used);
+    // Not checkpointed, so lost in the crash
+    HFileBlockPair[] late = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 3);
+    cacheAndWait(cache, late);
+    crash(cache);
+
+    cache = createCache(CAPACITY);
+    try {
+      assertEquals(15, cache.getBlockCount());
+      for (int i = 0; i < blocks.length; i++) {
+        if (i < 5) {
+          assertNull(cache.getBlock(blocks[i].getBlockName(), true, false, true));
+        } else {
+          assertEquals(blocks[i].getBlock(),
+            cache.getBlock(blocks[i].getBlockName(), true, false, true));
+        }
+      }
+      for (HFileBlockPair block : late) {
+        assertNull(cache.getBlock(block.getBlockName(), true, false, true));
+      }
+    } finally {
+      cache.shutdown();
+    }
+
+    // A clean shutdown checkpoints everything
+    cache = createCache(CAPACITY);
+    try {
+      assertEquals(15, cache.getBlockCount());
+      assertEquals(blocks[10].getBlock(),
+        cache.getBlock(blocks[10].getBlockName(), true, false, true));
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testTornTail() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 10);
+    BucketCache cache = createCache(CAPACITY);
+    cacheAndWait(cache, blocks);
+    cache.checkpoint();
+    crash(cache);
+
+    // What a crash in the middle of a checkpoint leaves
+    FileOutputStream out = new FileOutputStream(persistencePath, true);
+    try {
+      out.write(new byte[] { 0x42, 0x43, 0x49, 0x58, 0, 0, 1, 0, 1, 2, 3 });
+    } finally {
+      out.close();
+    }
+
+    cache = createCache(CAPACITY);
+    try {
+      assertEquals(10, cache.getBlockCount());
+      for (HFileBlockPair block : blocks) {
+        assertEquals(block.getBlock(), cache.getBlock(block.getBlockName(), true, false, true));
+      }
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testOtherConfiguration() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 10);
+    BucketCache cache = createCache(CAPACITY);
+    cacheAndWait(cache, blocks);
+    cache.shutdown();
+
+    cache = createCache(2 * CAPACITY);
+    try {
+      assertEquals(0, cache.getBlockCount());
+      assertNull(cache.getBlock(blocks[0].getBlockName(), true, false, true));
+    } finally {
+      cache.shutdown();
+    }
+  }
+
+  @Test
+  public void testRestartKeepsPartitions() throws Exception {
+    HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE, 10);
+    BucketCache cache = createCache(CAPACITY);
+    for (HFileBlockPair block : blocks) {
+      BlockCacheKey key = block.getBlockName();
+      cache.cacheBlockWithWait(new BlockCacheKey(key.getHfileName(), key.getOffset(),
+        DataBlockEncoding.NONE, BlockType.DATA, "p"), block.getBlock(), false, true);
+    }
+    while (!cache.ramCache.isEmpty()) {
+      Thread.sleep(10);
+    }
+    long size = cache.getPartitions().get("p").getSize();
+    assertTrue(size > 0);
+    cache.shutdown();
+
+    cache = createCache(CAPACITY);
+    try {
+      assertEquals(10, cache.getBlockCount());
+      assertEquals(size, cache.getPartitions().get("p").getSize());
+      assertTrue(cache.evictBlock(blocks[0].getBlockName()));
+      assertTrue(cache.getPartitions().get("p").getSize() < size);
+    } finally {
+      cache.shutdown();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Basic test for {@link FileMmapEngine}
+ */
+@Category(SmallTests.class)
+public class TestFileMmapEngine {
+  private static final String FILE_PATH = "testFileMmapEngine";
+  private static final int SEGMENT_SIZE = 64 * 1024;
+
+  @After
+  public void tearDown() {
+    File file = new File(FILE_PATH);
+    if (file.exists()) {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testFileMmapEngine() throws IOException {
+    int size = 2 * 1024 * 1024; // 2 MB, in 32 segments
+    Random rand = new Random();
+    FileMmapEngine engine = new FileMmapEngine(FILE_PATH, size, SEGMENT_SIZE);
+    try {
+      for (int i = 0; i < 50; i++) {
+        // Large enough to span segments now and then
+        int len = rand.nextInt(3 * SEGMENT_SIZE);
+        long offset = rand.nextInt(size - len);
+        byte[] data1 = new byte[len];
+        rand.nextBytes(data1);
+        byte[] data2 = new byte[len];
+        engine.write(ByteBuffer.wrap(data1), offset);
+        assertEquals(len, engine.read(ByteBuffer.wrap(data2), offset));
+        assertArrayEquals(data1, data2);
+      }
+    } finally {
+      engine.shutdown();
+    }
+  }
+
+  @Test
+  public void testPartialLastSegment() throws IOException {
+    // Two and a half segments
+    int size = 5 * SEGMENT_SIZE / 2;
+    byte[] data1 = new byte[SEGMENT_SIZE];
+    new Random().nextBytes(data1);
+    FileMmapEngine engine = new FileMmapEngine(FILE_PATH, size, SEGMENT_SIZE);
+    try {
+      assertEquals(size, new File(FILE_PATH).length());
+      // Up to the very end of the file, across the last two segments
+      engine.write(ByteBuffer.wrap(data1), size - data1.length);
+      byte[] data2 = new byte[data1.length];
+      assertEquals(data1.length, engine.read(ByteBuffer.wrap(data2), size - data2.length));
+      assertArrayEquals(data1, data2);
+    } finally {
+      engine.shutdown();
+    }
+  }
+
+  @Test
+  public void testPersistent() throws IOException {
+    int size = 1024 * 1024;
+    long offset = SEGMENT_SIZE - 100;
+    byte[] data1 = new byte[1000];
+    new Random().nextBytes(data1);
+    FileMmapEngine engine = new FileMmapEngine(FILE_PATH, size, SEGMENT_SIZE);
+    try {
+      engine.write(ByteBuffer.wrap(data1), offset);
+      engine.sync();
+    } finally {
+      engine.shutdown();
+    }
+
+    // What was synced is read back by the next engine on the same file
+    engine = new FileMmapEngine(FILE_PATH, size, SEGMENT_SIZE);
+    try {
+      byte[] data2 = new byte[data1.length];
+      engine.read(ByteBuffer.wrap(data2), offset);
+      assertArrayEquals(data1, data2);
+    } finally {
+      engine.shutdown();
+    }
+  }
+}
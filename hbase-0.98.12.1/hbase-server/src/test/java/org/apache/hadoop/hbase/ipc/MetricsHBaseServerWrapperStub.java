@@ -48,4 +48,24 @@ public class MetricsHBaseServerWrapperStub implements MetricsHBaseServerWrapper{
   public int getActiveRpcHandlerCount() {
     return 106;
   }
+
+  @Override
+  public int getActiveCallQueueKeyCount() {
+    return 107;
+  }
+
+  @Override
+  public long getOldestGeneralCallAge() {
+    return 108;
+  }
+
+  @Override
+  public long getNumGeneralCallsDropped() {
+    return 109;
+  }
+
+  @Override
+  public long getNumLifoModeSwitches() {
+    return 110;
+  }
 }
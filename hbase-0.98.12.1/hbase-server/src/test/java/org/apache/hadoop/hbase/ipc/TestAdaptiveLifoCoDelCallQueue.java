@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.ipc.RpcServer.Call;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestAdaptiveLifoCoDelCallQueue {
+  private static final int TARGET_DELAY = 100;
+  private static final int INTERVAL = 100;
+
+  private ManualEnvironmentEdge edge;
+  private AtomicLong dropped;
+  private AtomicLong lifoSwitches;
+
+  @Before
+  public void setUp() {
+    edge = new ManualEnvironmentEdge();
+    edge.setValue(1000);
+    EnvironmentEdgeManager.injectEdge(edge);
+    dropped = new AtomicLong();
+    lifoSwitches = new AtomicLong();
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  private AdaptiveLifoCoDelCallQueue createQueue(int capacity) {
+    return new AdaptiveLifoCoDelCallQueue(capacity, TARGET_DELAY, INTERVAL, 0.8, dropped,
+      lifoSwitches);
+  }
+
+  private CallRunner createTask(long timestamp) {
+    Call call = mock(Call.class);
+    call.timestamp = timestamp;
+    CallRunner task = mock(CallRunner.class);
+    when(task.getCall()).thenReturn(call);
+    return task;
+  }
+
+  @Test
+  public void testFifo() throws Exception {
+    AdaptiveLifoCoDelCallQueue queue = createQueue(10);
+    CallRunner first = createTask(1000);
+    CallRunner second = createTask(1000);
+    queue.put(first);
+    queue.put(second);
+    assertSame(first, queue.take());
+    assertSame(second, queue.take());
+    assertNull(queue.poll());
+    assertEquals(0, lifoSwitches.get());
+  }
+
+  @Test
+  public void testLifoWhenFillingUp() throws Exception {
+    AdaptiveLifoCoDelCallQueue queue = createQueue(10);
+    CallRunner[] tasks = new CallRunner[9];
+    for (int i = 0; i < tasks.length; i++) {
+      tasks[i] = createTask(1000);
+      queue.put(tasks[i]);
+    }
+    // 9 out of 10 is over the threshold: the newest call is served first, then back to FIFO
+    assertSame(tasks[8], queue.take());
+    assertEquals(1, lifoSwitches.get());
+    assertSame(tasks[0], queue.take());
+    assertEquals(1, lifoSwitches.get());
+  }
+
+  @Test
+  public void testDropWhenOverloaded() throws Exception {
+    AdaptiveLifoCoDelCallQueue queue = createQueue(100);
+    // Calls wait over the target for a whole interval
+    for (int i = 0; i < 2; i++) {
+      CallRunner task = createTask(edge.currentTimeMillis());
+      queue.put(task);
+      edge.incValue(TARGET_DELAY * 3 / 2);
+      assertSame(task, queue.take());
+      verify(task, never()).drop();
+    }
+    assertTrue(queue.isOverloaded());
+
+    // Now calls that waited over twice the target are dropped, the others served
+    CallRunner stale = createTask(edge.currentTimeMillis() - 3 * TARGET_DELAY);
+    CallRunner fresh = createTask(edge.currentTimeMillis());
+    queue.put(stale);
+    queue.put(fresh);
+    assertSame(fresh, queue.take());
+    verify(stale).drop();
+    assertEquals(1, dropped.get());
+
+    // The fresh call did not wait long, which ends the overload with the interval
+    edge.incValue(INTERVAL);
+    stale = createTask(edge.currentTimeMillis() - 3 * TARGET_DELAY);
+    queue.put(stale);
+    assertSame(stale, queue.take());
+    assertFalse(queue.isOverloaded());
+    assertEquals(1, dropped.get());
+  }
+
+  @Test
+  public void testScheduler() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.set(SimpleRpcScheduler.CALL_QUEUE_TYPE_CONF_KEY,
+      SimpleRpcScheduler.CALL_QUEUE_TYPE_CODEL_CONF_VALUE);
+    PriorityFunction priority = mock(PriorityFunction.class);
+    RpcScheduler scheduler = new SimpleRpcScheduler(conf, 2, 0, 0, priority, null, 0);
+    scheduler.init(new RpcScheduler.Context() {
+      @Override
+      public InetSocketAddress getListenerAddress() {
+        return InetSocketAddress.createUnresolved("127.0.0.1", 1000);
+      }
+    });
+    scheduler.start();
+    try {
+      CallRunner task = createTask(edge.currentTimeMillis());
+      scheduler.dispatch(task);
+      verify(task, timeout(1000)).run();
+    } finally {
+      scheduler.stop();
+    }
+  }
+}
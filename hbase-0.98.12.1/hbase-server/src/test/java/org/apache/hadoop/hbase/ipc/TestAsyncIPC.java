@@ -0,0 +1,214 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoRequestProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EchoResponseProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EmptyRequestProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestProtos.EmptyResponseProto;
+import org.apache.hadoop.hbase.ipc.protobuf.generated.TestRpcServiceProtos;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.BlockingService;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.RpcController;
+import com.google.protobuf.ServiceException;
+
+/**
+ * Tests the non-blocking {@link AsyncRpcClient}.
+ */
+@Category(SmallTests.class)
+public class TestAsyncIPC {
+  private static final Configuration CONF = HBaseConfiguration.create();
+  private static final byte [] CELL_BYTES = Bytes.toBytes("xyz");
+  private static final Cell CELL = new KeyValue(CELL_BYTES, CELL_BYTES, CELL_BYTES, CELL_BYTES);
+
+  private static final BlockingService SERVICE =
+    TestRpcServiceProtos.TestProtobufRpcProto.newReflectiveBlockingService(
+      new TestRpcServiceProtos.TestProtobufRpcProto.BlockingInterface() {
+        @Override
+        public EmptyResponseProto ping(RpcController controller, EmptyRequestProto request)
+        throws ServiceException {
+          return EmptyResponseProto.getDefaultInstance();
+        }
+
+        @Override
+        public EmptyResponseProto error(RpcController controller, EmptyRequestProto request)
+        throws ServiceException {
+          throw new ServiceException(new IOException("server error"));
+        }
+
+        @Override
+        public EchoResponseProto echo(RpcController controller, EchoRequestProto request)
+        throws ServiceException {
+          // Echo the cells back too
+          PayloadCarryingRpcController pcrc = (PayloadCarryingRpcController)controller;
+          List<Cell> list = new ArrayList<Cell>();
+          CellScanner cellScanner = pcrc.cellScanner();
+          try {
+            while (cellScanner != null && cellScanner.advance()) {
+              list.add(cellScanner.current());
+            }
+          } catch (IOException e) {
+            throw new ServiceException(e);
+          }
+          pcrc.setCellScanner(list.isEmpty()? null: CellUtil.createCellScanner(list));
+          return EchoResponseProto.newBuilder().setMessage(request.getMessage()).build();
+        }
+      });
+
+  private RpcServer rpcServer;
+  private AsyncRpcClient client;
+
+  @Before
+  public void setUp() throws IOException {
+    rpcServer = new RpcServer(null, "testAsyncRpcServer",
+      Lists.newArrayList(new RpcServer.BlockingServiceAndInterface(SERVICE, null)),
+      new InetSocketAddress("localhost", 0), CONF, new FifoRpcScheduler(CONF, 4));
+    rpcServer.start();
+    client = new AsyncRpcClient(CONF, HConstants.CLUSTER_ID_DEFAULT);
+  }
+
+  @After
+  public void tearDown() {
+    client.stop();
+    rpcServer.stop();
+  }
+
+  @Test
+  public void testFactory() {
+    Configuration conf = new Configuration(CONF);
+    RpcClient rpcClient = RpcClientFactory.createClient(conf, HConstants.CLUSTER_ID_DEFAULT);
+    assertEquals(RpcClient.class, rpcClient.getClass());
+    rpcClient.stop();
+    conf.set(RpcClientFactory.CUSTOM_RPC_CLIENT_IMPL_CONF_KEY, AsyncRpcClient.class.getName());
+    rpcClient = RpcClientFactory.createClient(conf, HConstants.CLUSTER_ID_DEFAULT);
+    assertTrue(rpcClient instanceof AsyncRpcClient);
+    rpcClient.stop();
+  }
+
+  @Test
+  public void testPipelinedCalls() throws Exception {
+    InetSocketAddress address = rpcServer.getListenerAddress();
+    MethodDescriptor md = SERVICE.getDescriptorForType().findMethodByName("echo");
+    User user = User.getCurrent();
+    int count = 500;
+    List<ListenableFuture<Pair<Message, CellScanner>>> futures =
+      new ArrayList<ListenableFuture<Pair<Message, CellScanner>>>(count);
+    for (int i = 0; i < count; i++) {
+      EchoRequestProto param = EchoRequestProto.newBuilder().setMessage("hello" + i).build();
+      List<Cell> cells = new ArrayList<Cell>();
+      for (int j = 0; j < i % 3; j++) cells.add(CELL);
+      futures.add(client.callAsync(md, param, CellUtil.createCellScanner(cells),
+        EchoResponseProto.getDefaultInstance(), user, address, 0, HConstants.NORMAL_QOS));
+    }
+    for (int i = 0; i < count; i++) {
+      Pair<Message, CellScanner> r = futures.get(i).get();
+      assertEquals("hello" + i, ((EchoResponseProto)r.getFirst()).getMessage());
+      int cells = 0;
+      while (r.getSecond() != null && r.getSecond().advance()) {
+        assertTrue(CELL.equals(r.getSecond().current()));
+        cells++;
+      }
+      assertEquals(i % 3, cells);
+    }
+    // Blocking calls go the same way
+    Pair<Message, CellScanner> r = client.call(md,
+      EchoRequestProto.newBuilder().setMessage("blocking").build(), null,
+      EchoResponseProto.getDefaultInstance(), user, address, 0);
+    assertEquals("blocking", ((EchoResponseProto)r.getFirst()).getMessage());
+  }
+
+  @Test
+  public void testRpcChannel() throws Exception {
+    InetSocketAddress address = rpcServer.getListenerAddress();
+    ServerName sn = ServerName.valueOf(address.getHostName(), address.getPort(),
+      System.currentTimeMillis());
+    TestRpcServiceProtos.TestProtobufRpcProto.Stub stub =
+      TestRpcServiceProtos.TestProtobufRpcProto.newStub(
+        client.createRpcChannel(sn, User.getCurrent(), 0));
+    PayloadCarryingRpcController controller = new PayloadCarryingRpcController(
+      CellUtil.createCellScanner(Lists.newArrayList(CELL)));
+    BlockingRpcCallback<EchoResponseProto> done = new BlockingRpcCallback<EchoResponseProto>();
+    stub.echo(controller, EchoRequestProto.newBuilder().setMessage("channel").build(), done);
+    assertEquals("channel", done.get().getMessage());
+    assertTrue(controller.cellScanner().advance());
+    assertTrue(CELL.equals(controller.cellScanner().current()));
+
+    // A remote exception fails the controller and hands the callback null
+    controller = new PayloadCarryingRpcController();
+    BlockingRpcCallback<EmptyResponseProto> error = new BlockingRpcCallback<EmptyResponseProto>();
+    stub.error(controller, EmptyRequestProto.getDefaultInstance(), error);
+    assertNull(error.get());
+    assertTrue(controller.failed());
+    assertTrue(controller.getFailed().getMessage().contains("server error"));
+  }
+
+  @Test
+  public void testCallTimeout() throws Exception {
+    // A server that accepts the connection but never answers
+    ServerSocket silent = new ServerSocket(0);
+    try {
+      MethodDescriptor md = SERVICE.getDescriptorForType().findMethodByName("echo");
+      EchoRequestProto param = EchoRequestProto.newBuilder().setMessage("hello").build();
+      long start = System.currentTimeMillis();
+      try {
+        client.callAsync(md, param, null, EchoResponseProto.getDefaultInstance(), User.getCurrent(),
+          new InetSocketAddress("localhost", silent.getLocalPort()), 500,
+          HConstants.NORMAL_QOS).get();
+        fail("Expected the call to time out");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause().getCause() instanceof RpcClient.CallTimeoutException);
+      }
+      assertTrue(System.currentTimeMillis() - start < 10000);
+    } finally {
+      silent.close();
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.ipc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.ipc.RpcServer.Call;
+import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import com.google.protobuf.Message;
+
+@Category(SmallTests.class)
+public class TestFairShareCallQueue {
+  private Configuration conf;
+  private ManualEnvironmentEdge edge;
+  /** Deadline delays by request */
+  private final Map<Message, Long> delays = new HashMap<Message, Long>();
+  private final PriorityFunction priority = new PriorityFunction() {
+    @Override
+    public int getPriority(RequestHeader header, Message param) {
+      return 0;
+    }
+
+    @Override
+    public long getDeadline(RequestHeader header, Message param) {
+      Long delay = delays.get(param);
+      return delay == null ? 0 : delay;
+    }
+  };
+
+  @Before
+  public void setUp() {
+    conf = HBaseConfiguration.create();
+    edge = new ManualEnvironmentEdge();
+    edge.setValue(1000);
+    EnvironmentEdgeManager.injectEdge(edge);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  private CallRunner createTask(String user, long timestamp, long delay) {
+    Call call = mock(Call.class);
+    call.timestamp = timestamp;
+    call.param = mock(Message.class);
+    delays.put(call.param, delay);
+    when(call.getRequestUserName()).thenReturn(user);
+    CallRunner task = mock(CallRunner.class);
+    when(task.getCall()).thenReturn(call);
+    return task;
+  }
+
+  /**
+   * Takes the next call as a handler would, after the last one it took ran for 10ms.
+   */
+  private String takeUser(FairShareCallQueue queue) throws InterruptedException {
+    edge.incValue(10);
+    return queue.take().getCall().getRequestUserName();
+  }
+
+  @Test
+  public void testSharedByUser() throws Exception {
+    FairShareCallQueue queue = new FairShareCallQueue(100, conf, priority, null);
+    for (int i = 0; i < 10; i++) {
+      queue.put(createTask("heavy", i, 0));
+    }
+    queue.put(createTask("light", 100, 0));
+    queue.put(createTask("light", 101, 0));
+    assertEquals(12, queue.size());
+    assertEquals(2, queue.getActiveKeyCount());
+
+    // The calls of light do not wait for those of heavy received before them
+    assertEquals("heavy", takeUser(queue));
+    assertEquals("light", takeUser(queue));
+    assertEquals("heavy", takeUser(queue));
+    assertEquals("light", takeUser(queue));
+    for (int i = 0; i < 8; i++) {
+      assertEquals("heavy", takeUser(queue));
+    }
+    assertNull(queue.poll());
+    assertEquals(0, queue.getActiveKeyCount());
+  }
+
+  @Test
+  public void testWeight() throws Exception {
+    conf.setFloat(FairShareCallQueue.WEIGHT_CONF_KEY_PREFIX + "a", 2);
+    FairShareCallQueue queue = new FairShareCallQueue(100, conf, priority, null);
+    for (int i = 0; i < 10; i++) {
+      queue.put(createTask("a", i, 0));
+      queue.put(createTask("b", i, 0));
+    }
+    int a = 0;
+    for (int i = 0; i < 9; i++) {
+      if (takeUser(queue).equals("a")) a++;
+    }
+    assertEquals(6, a);
+  }
+
+  @Test
+  public void testDeadline() throws Exception {
+    FairShareCallQueue queue = new FairShareCallQueue(100, conf, priority, null);
+    CallRunner longScan = createTask("u", 0, 100);
+    CallRunner get = createTask("u", 50, 0);
+    CallRunner veryLongScan = createTask("u", 200, Long.MAX_VALUE);
+    CallRunner lateGet = createTask("u", 6000, 0);
+    queue.put(lateGet);
+    queue.put(veryLongScan);
+    queue.put(longScan);
+    queue.put(get);
+    assertSame(get, queue.take());
+    assertSame(longScan, queue.take());
+    // The delay is capped by hbase.ipc.server.queue.max.call.delay
+    assertSame(veryLongScan, queue.take());
+    assertSame(lateGet, queue.take());
+  }
+
+  @Test
+  public void testCapacity() throws Exception {
+    FairShareCallQueue queue = new FairShareCallQueue(2, conf, priority, null);
+    queue.put(createTask("a", 0, 0));
+    queue.put(createTask("b", 0, 0));
+    assertFalse(queue.offer(createTask("c", 0, 0)));
+    assertEquals(0, queue.remainingCapacity());
+  }
+
+  @Test
+  public void testSharedByNamespace() throws Exception {
+    conf.set(FairShareCallQueue.KEY_TYPE_CONF_KEY, "namespace");
+    FairShareCallQueue queue = new FairShareCallQueue(100, conf, priority,
+      new FairShareCallQueue.TableFunction() {
+        @Override
+        public TableName getTable(RequestHeader header, Message param) {
+          return TableName.valueOf("ns", "t");
+        }
+      });
+    assertEquals("ns", queue.getKey(createTask("u", 0, 0).getCall()));
+  }
+
+  @Test
+  public void testScheduler() throws Exception {
+    RpcScheduler scheduler = new FairShareRpcScheduler(conf, 2, 0, 0, priority, null, null, 0);
+    scheduler.init(new RpcScheduler.Context() {
+      @Override
+      public InetSocketAddress getListenerAddress() {
+        return InetSocketAddress.createUnresolved("127.0.0.1", 1000);
+      }
+    });
+    scheduler.start();
+    try {
+      CallRunner task = createTask("u", 0, 0);
+      scheduler.dispatch(task);
+      verify(task, timeout(1000)).run();
+    } finally {
+      scheduler.stop();
+    }
+  }
+}
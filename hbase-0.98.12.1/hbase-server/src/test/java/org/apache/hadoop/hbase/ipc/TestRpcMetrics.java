@@ -65,6 +65,10 @@ public class TestRpcMetrics {
     HELPER.assertGauge("numCallsInPriorityQueue", 104, serverSource);
     HELPER.assertGauge("numOpenConnections", 105, serverSource);
     HELPER.assertGauge("numActiveHandler", 106, serverSource);
+    HELPER.assertGauge("numActiveCallQueueKeys", 107, serverSource);
+    HELPER.assertGauge("oldestGeneralCallAge", 108, serverSource);
+    HELPER.assertCounter("numGeneralCallsDropped", 109, serverSource);
+    HELPER.assertCounter("numLifoModeSwitches", 110, serverSource);
   }
 
   /**
@@ -555,6 +555,11 @@ ClientProtos.ClientService.BlockingInterface, RegionServerServices {
     return 0;
   }
 
+  @Override
+  public long getDeadline(RPCProtos.RequestHeader header, Message param) {
+    return 0;
+  }
+
   @Override
   public UpdateFavoredNodesResponse updateFavoredNodes(RpcController controller,
       UpdateFavoredNodesRequest request) throws ServiceException {
@@ -0,0 +1,116 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestFailureDetectorChore {
+  private static final ServerName SERVER = ServerName.valueOf("example.org", 1234, 5678);
+  private static final int PERIOD = 200;
+
+  private ManualEnvironmentEdge edge;
+  private PhiAccrualFailureDetector detector;
+  private ServerManager serverManager;
+  private MasterFileSystem fs;
+  private FailureDetectorChore chore;
+
+  @Before
+  public void setUp() {
+    edge = new ManualEnvironmentEdge();
+    edge.setValue(1000);
+    EnvironmentEdgeManager.injectEdge(edge);
+
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt("hbase.regionserver.msginterval", 100);
+    conf.setInt(PhiAccrualFailureDetector.MIN_STD_DEVIATION_KEY, 10);
+    conf.setInt(PhiAccrualFailureDetector.ACCEPTABLE_PAUSE_KEY, 0);
+    conf.setInt(FailureDetectorChore.PERIOD_KEY, PERIOD);
+    detector = new PhiAccrualFailureDetector(conf);
+    List<ServerName> servers = new ArrayList<ServerName>();
+    servers.add(SERVER);
+    serverManager = mock(ServerManager.class);
+    when(serverManager.getFailureDetector()).thenReturn(detector);
+    when(serverManager.getOnlineServersList()).thenReturn(servers);
+    fs = mock(MasterFileSystem.class);
+    MasterServices services = mock(MasterServices.class);
+    when(services.getServerName()).thenReturn(ServerName.valueOf("master", 1, 1));
+    when(services.getServerManager()).thenReturn(serverManager);
+    when(services.getMasterFileSystem()).thenReturn(fs);
+    chore = new FailureDetectorChore(services, mock(Stoppable.class), conf);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  /** Reports every 100ms, running the chore every period */
+  private void reportRegularly(int reports) {
+    for (int i = 0; i < reports; i++) {
+      detector.heartbeat(SERVER, edge.currentTimeMillis());
+      if (i % (PERIOD / 100) == 0) {
+        chore.choreForTesting();
+      }
+      edge.incValue(100);
+    }
+  }
+
+  @Test
+  public void testFenceThenExpire() throws Exception {
+    reportRegularly(50);
+    verify(fs, never()).fenceServer(SERVER);
+    // The reports stop
+    for (int i = 0; i < 5; i++) {
+      edge.incValue(PERIOD);
+      chore.choreForTesting();
+    }
+    verify(fs, timeout(10000)).fenceServer(SERVER);
+    verify(serverManager, timeout(10000)).expireServer(SERVER);
+  }
+
+  @Test
+  public void testNoSuspicionAfterLateRun() throws Exception {
+    reportRegularly(50);
+    // The master pauses, so do the reports
+    edge.incValue(2000);
+    chore.choreForTesting();
+    reportRegularly(10);
+    verify(fs, never()).fenceServer(SERVER);
+    verify(serverManager, never()).expireServer(SERVER);
+  }
+}
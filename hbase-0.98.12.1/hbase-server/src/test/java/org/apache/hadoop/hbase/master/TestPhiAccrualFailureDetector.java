@@ -0,0 +1,81 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestPhiAccrualFailureDetector {
+  private static final ServerName SERVER = ServerName.valueOf("example.org", 1234, 5678);
+
+  private static PhiAccrualFailureDetector createDetector() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setInt("hbase.regionserver.msginterval", 100);
+    conf.setInt(PhiAccrualFailureDetector.MIN_STD_DEVIATION_KEY, 10);
+    conf.setInt(PhiAccrualFailureDetector.ACCEPTABLE_PAUSE_KEY, 0);
+    return new PhiAccrualFailureDetector(conf);
+  }
+
+  @Test
+  public void testPhiGrowsWithDelay() {
+    assertTrue(PhiAccrualFailureDetector.phi(100, 100, 10) < 0.5);
+    double previous = 0;
+    for (long delay = 110; delay <= 200; delay += 10) {
+      double phi = PhiAccrualFailureDetector.phi(delay, 100, 10);
+      assertTrue(phi > previous);
+      previous = phi;
+    }
+    assertTrue(previous > 8);
+  }
+
+  @Test
+  public void testRegularReports() {
+    PhiAccrualFailureDetector detector = createDetector();
+    long now = 0;
+    for (int i = 0; i < 50; i++) {
+      detector.heartbeat(SERVER, now);
+      now += 100;
+    }
+    // Reports keep coming on time: no suspicion
+    assertTrue(detector.phi(SERVER, now - 50) < 1);
+    assertTrue(detector.phi(SERVER, now) < 1);
+    // A report ten deviations late is a near certain failure
+    assertTrue(detector.phi(SERVER, now + 100) > 8);
+  }
+
+  @Test
+  public void testUnknownAndRemovedServers() {
+    PhiAccrualFailureDetector detector = createDetector();
+    assertEquals(0.0, detector.phi(SERVER, 1000000), 0.0);
+    detector.heartbeat(SERVER, 0);
+    // A single report is judged against the report interval of the configuration
+    assertTrue(detector.phi(SERVER, 100) < 1);
+    assertTrue(detector.phi(SERVER, 1000) > 8);
+    detector.remove(SERVER);
+    assertEquals(0.0, detector.phi(SERVER, 1000), 0.0);
+  }
+}
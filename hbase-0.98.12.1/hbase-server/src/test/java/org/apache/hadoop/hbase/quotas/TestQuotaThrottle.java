@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RetriesExhaustedException;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.regionserver.HRegionServer;
+import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.JVMClusterUtil.RegionServerThread;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(MediumTests.class)
+public class TestQuotaThrottle {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private final static byte[] FAMILY = Bytes.toBytes("cf");
+  private final static byte[] QUALIFIER = Bytes.toBytes("q");
+  private final static TableName TABLE_NAME = TableName.valueOf("TestQuotaThrottle");
+
+  private static HTable table;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.getConfiguration().setBoolean(QuotaTableUtil.QUOTA_ENABLED_CONF_KEY, true);
+    // Reloaded by the tests themselves
+    TEST_UTIL.getConfiguration().setInt(QuotaCache.REFRESH_CONF_KEY, 60 * 60 * 1000);
+    TEST_UTIL.getConfiguration().setInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER, 1);
+    TEST_UTIL.startMiniCluster(1);
+    TEST_UTIL.waitTableAvailable(QuotaTableUtil.QUOTA_TABLE_NAME.getName());
+    table = TEST_UTIL.createTable(TABLE_NAME, FAMILY);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    table.close();
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    HBaseAdmin admin = TEST_UTIL.getHBaseAdmin();
+    admin.setQuota(QuotaSettingsFactory.unthrottleUser(User.getCurrent().getShortName()));
+    admin.setQuota(QuotaSettingsFactory.unthrottleTable(TABLE_NAME));
+    admin.setQuota(QuotaSettingsFactory.unthrottleNamespace(TABLE_NAME.getNamespaceAsString()));
+    refreshQuotas();
+  }
+
+  private static void refreshQuotas() throws IOException {
+    for (RegionServerThread rst : TEST_UTIL.getMiniHBaseCluster().getRegionServerThreads()) {
+      HRegionServer rs = rst.getRegionServer();
+      rs.getRegionServerQuotaManager().getQuotaCache().refresh();
+    }
+  }
+
+  private static int doPuts(int count) {
+    int done = 0;
+    try {
+      for (int i = 0; i < count; i++) {
+        Put put = new Put(Bytes.toBytes("row" + i));
+        put.add(FAMILY, QUALIFIER, Bytes.toBytes(i));
+        table.put(put);
+        done++;
+      }
+    } catch (RetriesExhaustedWithDetailsException e) {
+      assertTrue(e.getCause(0) instanceof ThrottlingException);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return done;
+  }
+
+  private static int doGets(int count) {
+    int done = 0;
+    try {
+      for (int i = 0; i < count; i++) {
+        table.get(new Get(Bytes.toBytes("row" + i)));
+        done++;
+      }
+    } catch (RetriesExhaustedException e) {
+      assertTrue(e.getCause() instanceof ThrottlingException);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return done;
+  }
+
+  @Test
+  public void testUserRequestThrottle() throws Exception {
+    TEST_UTIL.getHBaseAdmin().setQuota(QuotaSettingsFactory.throttleUser(
+      User.getCurrent().getShortName(), ThrottleType.REQUEST_NUMBER, 6, TimeUnit.MINUTES));
+    refreshQuotas();
+    assertEquals(6, doPuts(100));
+
+    // Unthrottled, the requests go through again
+    TEST_UTIL.getHBaseAdmin().setQuota(
+      QuotaSettingsFactory.unthrottleUser(User.getCurrent().getShortName()));
+    refreshQuotas();
+    assertEquals(10, doPuts(10));
+  }
+
+  @Test
+  public void testTableRequestThrottle() throws Exception {
+    TEST_UTIL.getHBaseAdmin().setQuota(QuotaSettingsFactory.throttleTable(TABLE_NAME,
+      ThrottleType.REQUEST_NUMBER, 6, TimeUnit.MINUTES));
+    refreshQuotas();
+    assertEquals(6, doGets(100));
+  }
+
+  @Test
+  public void testNamespaceWriteSizeThrottle() throws Exception {
+    // A put is estimated to 100 bytes, then charged its actual size, larger than that
+    TEST_UTIL.getHBaseAdmin().setQuota(QuotaSettingsFactory.throttleNamespace(
+      TABLE_NAME.getNamespaceAsString(), ThrottleType.WRITE_SIZE, 1000, TimeUnit.MINUTES));
+    refreshQuotas();
+    int done = doPuts(100);
+    assertTrue("done=" + done, done > 0 && done < 10);
+    // Reads are not throttled
+    assertEquals(10, doGets(10));
+  }
+}
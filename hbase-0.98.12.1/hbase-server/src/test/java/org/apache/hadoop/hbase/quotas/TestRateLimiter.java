@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.quotas;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestRateLimiter {
+  private ManualEnvironmentEdge edge;
+
+  @Before
+  public void setUp() {
+    edge = new ManualEnvironmentEdge();
+    edge.setValue(1000);
+    EnvironmentEdgeManager.injectEdge(edge);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  @Test
+  public void testBypass() {
+    RateLimiter limiter = new RateLimiter();
+    assertTrue(limiter.isBypass());
+    limiter.consume(Long.MAX_VALUE / 2);
+    assertTrue(limiter.canExecute(Long.MAX_VALUE / 2));
+    assertEquals(0, limiter.waitInterval(100));
+  }
+
+  @Test
+  public void testRefill() {
+    RateLimiter limiter = new RateLimiter();
+    limiter.set(10, TimeUnit.SECONDS);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(limiter.canExecute(1));
+      limiter.consume(1);
+    }
+    assertFalse(limiter.canExecute(1));
+    // One token refills every 100ms
+    assertEquals(100, limiter.waitInterval(1));
+    edge.incValue(40);
+    assertEquals(60, limiter.waitInterval(1));
+    assertFalse(limiter.canExecute(1));
+    edge.incValue(60);
+    assertTrue(limiter.canExecute(1));
+    assertFalse(limiter.canExecute(2));
+    // The bucket does not hold more than the limit
+    edge.incValue(10000);
+    assertEquals(10, limiter.getAvailable());
+  }
+
+  @Test
+  public void testDebt() {
+    RateLimiter limiter = new RateLimiter();
+    limiter.set(1000, TimeUnit.SECONDS);
+    // An operation larger than the limit runs on a full bucket, its debt delaying the next ones
+    assertTrue(limiter.canExecute(3000));
+    limiter.consume(3000);
+    assertEquals(-2000, limiter.getAvailable());
+    assertEquals(2001, limiter.waitInterval(1));
+    edge.incValue(1000);
+    assertFalse(limiter.canExecute(1));
+    // Giving back what an operation did not use
+    limiter.consume(-1500);
+    assertTrue(limiter.canExecute(500));
+  }
+
+  @Test
+  public void testUpdate() {
+    RateLimiter limiter = new RateLimiter();
+    limiter.set(100, TimeUnit.MINUTES);
+    limiter.consume(80);
+    // What is left is kept up to the new limit
+    limiter.set(10, TimeUnit.SECONDS);
+    assertEquals(10, limiter.getAvailable());
+    limiter.set(50, TimeUnit.SECONDS);
+    assertEquals(10, limiter.getAvailable());
+    limiter.unset();
+    assertTrue(limiter.isBypass());
+  }
+}
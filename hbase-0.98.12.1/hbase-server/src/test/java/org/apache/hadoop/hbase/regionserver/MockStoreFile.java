@@ -91,6 +91,11 @@ public class MockStoreFile extends StoreFile {
     this.timeRangeTracker = timeRangeTracker;
   }
 
+  @Override
+  public Long getMinimumTimestamp() {
+    return timeRangeTracker == null ? null : timeRangeTracker.getMinimumTimestamp();
+  }
+
   void setEntries(long entryCount) {
     this.entryCount = entryCount;
   }
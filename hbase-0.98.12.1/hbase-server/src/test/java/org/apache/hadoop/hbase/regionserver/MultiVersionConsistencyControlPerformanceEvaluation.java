@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Microbenchmark of {@link MultiVersionConsistencyControl} under many concurrent handlers, the
+ * way HRegion uses it: each handler begins a write, does a little work, then completes it and
+ * waits for it to be visible, while scanners read the read point.
+ * <p>
+ * Usage: MultiVersionConsistencyControlPerformanceEvaluation [seconds per run]
+ * [max handlers] [readers]. Runs with 1, 2, 4... up to max handlers and reports the writes
+ * per second and the mean latency of a write.
+ */
+public class MultiVersionConsistencyControlPerformanceEvaluation {
+  public static final Log LOG =
+      LogFactory.getLog(MultiVersionConsistencyControlPerformanceEvaluation.class);
+
+  static class Handler implements Runnable {
+    private final MultiVersionConsistencyControl mvcc;
+    private final AtomicBoolean finished;
+    private final CountDownLatch start;
+    long writes = 0;
+    long nanos = 0;
+
+    Handler(MultiVersionConsistencyControl mvcc, AtomicBoolean finished, CountDownLatch start) {
+      this.mvcc = mvcc;
+      this.finished = finished;
+      this.start = start;
+    }
+
+    @Override
+    public void run() {
+      try {
+        start.await();
+      } catch (InterruptedException e) {
+        return;
+      }
+      long work = 0;
+      while (!finished.get()) {
+        long begin = System.nanoTime();
+        MultiVersionConsistencyControl.WriteEntry e = mvcc.beginMemstoreInsert();
+        // Stands for applying the edits to the memstore
+        for (int i = 0; i < 100; i++) {
+          work += i ^ e.getWriteNumber();
+        }
+        mvcc.completeMemstoreInsert(e);
+        nanos += System.nanoTime() - begin;
+        writes++;
+      }
+      if (work == 42) LOG.trace("Unlikely");
+    }
+  }
+
+  static void runOnce(int numHandlers, int numReaders, int seconds) throws Exception {
+    final MultiVersionConsistencyControl mvcc = new MultiVersionConsistencyControl();
+    final AtomicBoolean finished = new AtomicBoolean(false);
+    CountDownLatch start = new CountDownLatch(1);
+    Handler[] handlers = new Handler[numHandlers];
+    Thread[] threads = new Thread[numHandlers + numReaders];
+    for (int i = 0; i < numHandlers; i++) {
+      handlers[i] = new Handler(mvcc, finished, start);
+      threads[i] = new Thread(handlers[i], "handler-" + i);
+    }
+    final AtomicLong reads = new AtomicLong();
+    for (int i = 0; i < numReaders; i++) {
+      threads[numHandlers + i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          long count = 0;
+          while (!finished.get()) {
+            mvcc.memstoreReadPoint();
+            count++;
+          }
+          reads.addAndGet(count);
+        }
+      }, "reader-" + i);
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    start.countDown();
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    finished.set(true);
+    for (Thread t : threads) {
+      t.join();
+    }
+    long writes = 0;
+    long nanos = 0;
+    for (Handler h : handlers) {
+      writes += h.writes;
+      nanos += h.nanos;
+    }
+    LOG.info("handlers=" + numHandlers + ", readers=" + numReaders
+        + ", writes/s=" + (writes / seconds)
+        + ", mean write latency=" + (writes == 0 ? 0 : nanos / writes) + "ns"
+        + ", reads/s=" + (reads.get() / seconds)
+        + ", read point=" + mvcc.memstoreReadPoint());
+  }
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+    int maxHandlers = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+    int numReaders = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+    // Warm up
+    runOnce(4, numReaders, 1);
+    for (int numHandlers = 1; numHandlers <= maxHandlers; numHandlers *= 2) {
+      runOnce(numHandlers, numReaders, seconds);
+    }
+  }
+}
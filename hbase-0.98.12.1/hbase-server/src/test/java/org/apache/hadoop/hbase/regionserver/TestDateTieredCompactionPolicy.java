@@ -0,0 +1,187 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionConfiguration;
+import org.apache.hadoop.hbase.regionserver.compactions.CompactionRequest;
+import org.apache.hadoop.hbase.regionserver.compactions.DateTieredCompactionPolicy;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hadoop.hbase.util.ManualEnvironmentEdge;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestDateTieredCompactionPolicy {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  private Path testFile;
+  private ManualEnvironmentEdge edge;
+
+  @Before
+  public void setUp() throws IOException {
+    FileSystem fs = TEST_UTIL.getTestFileSystem();
+    Path dir = TEST_UTIL.getDataTestDir(TestDateTieredCompactionPolicy.class.getSimpleName());
+    fs.mkdirs(dir);
+    testFile = StoreFile.getUniqueFile(fs, dir);
+    fs.createNewFile(testFile);
+    edge = new ManualEnvironmentEdge();
+    // Windows of 6 then 24 ms: [12, 18) is the incoming window, then [6, 12), [0, 6), [-24, 0)
+    edge.setValue(16);
+    EnvironmentEdgeManager.injectEdge(edge);
+  }
+
+  @After
+  public void tearDown() {
+    EnvironmentEdgeManager.reset();
+  }
+
+  private DateTieredCompactionPolicy createPolicy(long maxAge) {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setLong(HConstants.MAJOR_COMPACTION_PERIOD, 0);
+    conf.setInt("hbase.hstore.compaction.min", 2);
+    conf.setInt("hbase.hstore.compaction.max", 10);
+    conf.setLong(CompactionConfiguration.DATE_TIERED_BASE_WINDOW_KEY, 6);
+    conf.setInt(CompactionConfiguration.DATE_TIERED_WINDOWS_PER_TIER_KEY, 4);
+    conf.setInt(CompactionConfiguration.DATE_TIERED_INCOMING_WINDOW_MIN_KEY, 3);
+    conf.setLong(CompactionConfiguration.DATE_TIERED_MAX_AGE_KEY, maxAge);
+    StoreConfigInformation storeConfigInfo = mock(StoreConfigInformation.class);
+    when(storeConfigInfo.getMemstoreFlushSize()).thenReturn(128L * 1024 * 1024);
+    when(storeConfigInfo.getBlockingFileCount()).thenReturn(100L);
+    return new DateTieredCompactionPolicy(conf, storeConfigInfo);
+  }
+
+  /**
+   * @param timeRanges Min and max timestamps of each file, oldest file first
+   */
+  private List<StoreFile> createFiles(long... timeRanges) throws IOException {
+    List<StoreFile> files = new ArrayList<StoreFile>();
+    for (int i = 0; i < timeRanges.length / 2; i++) {
+      MockStoreFile file = new MockStoreFile(TEST_UTIL, testFile, 10, 0, false, i);
+      file.setTimeRangeTracker(new TimeRangeTracker(timeRanges[2 * i], timeRanges[2 * i + 1]));
+      files.add(file);
+    }
+    return files;
+  }
+
+  private CompactionRequest select(DateTieredCompactionPolicy policy, List<StoreFile> files,
+      boolean forceMajor) throws IOException {
+    return policy.selectCompaction(files, new ArrayList<StoreFile>(), forceMajor, false,
+      forceMajor);
+  }
+
+  @Test
+  public void testIncomingWindow() throws Exception {
+    DateTieredCompactionPolicy policy = createPolicy(Long.MAX_VALUE);
+    List<StoreFile> files = createFiles(1, 1, 2, 2, 13, 13, 14, 14, 15, 15);
+    CompactionRequest request = select(policy, files, false);
+    assertEquals(files.subList(2, 5), new ArrayList<StoreFile>(request.getFiles()));
+    assertEquals(Arrays.asList(Long.MIN_VALUE, 12L), policy.getCompactionBoundaries(request));
+  }
+
+  @Test
+  public void testOlderWindowWhenIncomingNotEnough() throws Exception {
+    DateTieredCompactionPolicy policy = createPolicy(Long.MAX_VALUE);
+    // Only two files in the incoming window, which needs three
+    List<StoreFile> files = createFiles(1, 1, 7, 7, 8, 8, 13, 13, 14, 14);
+    CompactionRequest request = select(policy, files, false);
+    assertEquals(files.subList(1, 3), new ArrayList<StoreFile>(request.getFiles()));
+    assertEquals(Arrays.asList(Long.MIN_VALUE, 6L), policy.getCompactionBoundaries(request));
+
+    // One file per window, nothing to compact
+    files = createFiles(1, 1, 7, 7, 13, 13);
+    assertTrue(select(policy, files, false).getFiles().isEmpty());
+  }
+
+  @Test
+  public void testMaxAge() throws Exception {
+    List<StoreFile> files = createFiles(1, 1, 2, 2, 13, 13);
+    assertEquals(2, select(createPolicy(Long.MAX_VALUE), files, false).getFiles().size());
+    // Files older than 10 ms are left alone
+    assertTrue(select(createPolicy(10), files, false).getFiles().isEmpty());
+  }
+
+  @Test
+  public void testMajorCompactionBoundaries() throws Exception {
+    DateTieredCompactionPolicy policy = createPolicy(Long.MAX_VALUE);
+    List<StoreFile> files = createFiles(-5, 3, 13, 15);
+    CompactionRequest request = select(policy, files, true);
+    assertEquals(files, new ArrayList<StoreFile>(request.getFiles()));
+    assertEquals(Arrays.asList(Long.MIN_VALUE, 0L, 6L, 12L),
+      policy.getCompactionBoundaries(request));
+
+    files = createFiles(-30, 3, 13, 15);
+    request = select(policy, files, true);
+    assertEquals(Arrays.asList(Long.MIN_VALUE, -24L, 0L, 6L, 12L),
+      policy.getCompactionBoundaries(request));
+  }
+
+  @Test
+  public void testMajorCompactionSplitsOutput() throws Exception {
+    EnvironmentEdgeManager.reset();
+    Configuration conf = TEST_UTIL.getConfiguration();
+    conf.set(StoreEngine.STORE_ENGINE_CLASS_KEY, DateTieredStoreEngine.class.getName());
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("testMajorCompactionSplits"));
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegion region = TEST_UTIL.createLocalHRegion(htd, null, null);
+    try {
+      long now = EnvironmentEdgeManager.currentTimeMillis();
+      // Three windows apart, whatever the window alignment
+      long[] timestamps = { now - 1000 * DAY, now - 10 * DAY, now };
+      for (long timestamp : timestamps) {
+        Put put = new Put(Bytes.toBytes("row" + timestamp));
+        put.add(FAMILY, FAMILY, timestamp, Bytes.toBytes(timestamp));
+        region.put(put);
+        region.flushcache();
+      }
+      region.compactStores(true);
+      Store store = region.getStore(FAMILY);
+      assertEquals(timestamps.length, store.getStorefilesCount());
+      for (StoreFile file : store.getStorefiles()) {
+        assertEquals(file.getMinimumTimestamp().longValue(), file.getReader().getMaxTimestamp());
+      }
+    } finally {
+      conf.unset(StoreEngine.STORE_ENGINE_CLASS_KEY);
+      HRegion.closeHRegion(region);
+    }
+  }
+}
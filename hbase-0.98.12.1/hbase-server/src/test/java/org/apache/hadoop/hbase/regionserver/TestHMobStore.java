@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.mob.MobConstants;
+import org.apache.hadoop.hbase.mob.MobFileCleanerChore;
+import org.apache.hadoop.hbase.mob.MobUtils;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.apache.hadoop.hbase.util.HFileArchiveUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TestName;
+import org.mockito.Mockito;
+
+/**
+ * Tests the flushes, reads and compactions of a MOB family, and the cleaning of its MOB files.
+ */
+@Category(MediumTests.class)
+public class TestHMobStore {
+  @Rule public TestName name = new TestName();
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int THRESHOLD = 100;
+
+  private final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private Configuration conf;
+  private FileSystem fs;
+  private Path rootDir;
+  private TableName tableName;
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    conf.setInt(HFile.FORMAT_VERSION_KEY, HFile.MIN_FORMAT_VERSION_WITH_TAGS);
+    rootDir = TEST_UTIL.getDataTestDir(name.getMethodName());
+    conf.set(HConstants.HBASE_DIR, rootDir.toString());
+    fs = FileSystem.get(conf);
+    tableName = TableName.valueOf(name.getMethodName());
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (region != null) {
+      HRegion.closeHRegion(region);
+    }
+    fs.delete(rootDir, true);
+  }
+
+  private HRegion createRegion() throws IOException {
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(FAMILY).setMobEnabled(true).setMobThreshold(THRESHOLD));
+    HRegionInfo info = new HRegionInfo(tableName, null, null, false);
+    return HRegion.createHRegion(info, rootDir, conf, htd);
+  }
+
+  private void put(String row, int valueLength) throws IOException {
+    byte[] value = new byte[valueLength];
+    Bytes.putInt(value, 0, valueLength);
+    region.put(new Put(Bytes.toBytes(row)).add(FAMILY, QUALIFIER, value));
+  }
+
+  private void assertValue(String row, int valueLength) throws IOException {
+    Result result = region.get(new Get(Bytes.toBytes(row)));
+    byte[] value = result.getValue(FAMILY, QUALIFIER);
+    assertEquals(valueLength, value.length);
+    assertEquals(valueLength, Bytes.toInt(value));
+  }
+
+  private List<String> getMobFileNames() throws IOException {
+    List<String> names = new ArrayList<String>();
+    FileStatus[] files = FSUtils.listStatus(fs,
+      MobUtils.getMobFamilyPath(conf, tableName, Bytes.toString(FAMILY)));
+    if (files != null) {
+      for (FileStatus file : files) {
+        if (!file.isDir()) {
+          names.add(file.getPath().getName());
+        }
+      }
+    }
+    return names;
+  }
+
+  private Set<String> getMobFileRefs() {
+    Set<String> refs = null;
+    for (StoreFile sf : region.getStore(FAMILY).getStorefiles()) {
+      assertTrue(refs == null);
+      refs = MobUtils.deserializeMobFileRefs(sf.getMetadataValue(MobConstants.MOB_FILE_REFS));
+    }
+    return refs;
+  }
+
+  @Test
+  public void testFlushAndRead() throws Exception {
+    region = createRegion();
+    assertTrue(region.getStore(FAMILY) instanceof HMobStore);
+    put("small", THRESHOLD - 1);
+    put("large", THRESHOLD);
+    // Read from the memstore
+    assertValue("large", THRESHOLD);
+    region.flushcache();
+
+    List<String> mobFiles = getMobFileNames();
+    assertEquals(1, mobFiles.size());
+    assertEquals(mobFiles.get(0), getMobFileRefs().iterator().next());
+    assertValue("small", THRESHOLD - 1);
+    assertValue("large", THRESHOLD);
+
+    // A raw MOB scan returns the references
+    Scan scan = new Scan();
+    scan.setAttribute(MobConstants.MOB_SCAN_RAW, Bytes.toBytes(true));
+    RegionScanner scanner = region.getScanner(scan);
+    List<Cell> cells = new ArrayList<Cell>();
+    scanner.next(cells);
+    scanner.close();
+    assertEquals(1, cells.size());
+    Cell reference = cells.get(0);
+    assertArrayEquals(Bytes.toBytes("large"), CellUtil.cloneRow(reference));
+    assertTrue(MobUtils.isMobReferenceCell(reference));
+    assertEquals(THRESHOLD, MobUtils.getMobValueLength(reference));
+    assertEquals(mobFiles.get(0), MobUtils.getMobFileName(reference));
+
+    // And a reversed scan the values
+    scan = new Scan();
+    scan.setReversed(true);
+    scanner = region.getScanner(scan);
+    cells.clear();
+    scanner.next(cells);
+    scanner.next(cells);
+    scanner.close();
+    assertEquals(2, cells.size());
+    assertArrayEquals(Bytes.toBytes("large"), CellUtil.cloneRow(cells.get(1)));
+    assertEquals(THRESHOLD, cells.get(1).getValueLength());
+    assertFalse(MobUtils.isMobReferenceCell(cells.get(1)));
+  }
+
+  @Test
+  public void testCompactionAndCleaner() throws Exception {
+    conf.setLong(MobConstants.MOB_CLEANER_DELAY, 0);
+    region = createRegion();
+    for (int i = 0; i < 3; i++) {
+      put("row" + i, THRESHOLD + i);
+      region.flushcache();
+    }
+    assertEquals(3, getMobFileNames().size());
+
+    // A major compaction merges the small MOB files into a new one
+    region.compactStores(true);
+    List<String> mobFiles = getMobFileNames();
+    assertEquals(4, mobFiles.size());
+    Set<String> refs = getMobFileRefs();
+    assertEquals(1, refs.size());
+    assertTrue(mobFiles.contains(refs.iterator().next()));
+    for (int i = 0; i < 3; i++) {
+      assertValue("row" + i, THRESHOLD + i);
+    }
+
+    MobFileCleanerChore cleaner = new MobFileCleanerChore("cleaner", 1000,
+        Mockito.mock(Stoppable.class), conf, fs, rootDir, null);
+    // The archived store files still refer to the old MOB files
+    assertEquals(0, cleaner.cleanMobFiles(tableName, Bytes.toString(FAMILY)));
+    fs.delete(HFileArchiveUtil.getTableArchivePath(rootDir, tableName), true);
+    assertEquals(3, cleaner.cleanMobFiles(tableName, Bytes.toString(FAMILY)));
+    assertEquals(new ArrayList<String>(refs), getMobFileNames());
+  }
+
+  @Test
+  public void testRequiresHFileV3() throws Exception {
+    conf.setInt(HFile.FORMAT_VERSION_KEY, 2);
+    try {
+      region = createRegion();
+      fail("A MOB family requires HFile v3");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
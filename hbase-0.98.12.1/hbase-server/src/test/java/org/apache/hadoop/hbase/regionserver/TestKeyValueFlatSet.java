@@ -0,0 +1,151 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Iterator;
+import java.util.SortedSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import junit.framework.TestCase;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestKeyValueFlatSet extends TestCase {
+  private final byte [] fam = Bytes.toBytes("f");
+  private final byte [] qf = Bytes.toBytes("q");
+
+  private KeyValueSkipListSet rows(int from, int to, String value) {
+    KeyValueSkipListSet set = new KeyValueSkipListSet(KeyValue.COMPARATOR);
+    for (int i = from; i < to; i++) {
+      set.add(new KeyValue(Bytes.toBytes(String.format("row%03d", i)), fam, qf, 1L,
+        Bytes.toBytes(value)));
+    }
+    return set;
+  }
+
+  private KeyValueFlatSet flat(KeyValueSkipListSet kvs, MemStoreLAB copyTo) {
+    return KeyValueFlatSet.merge(KeyValue.COMPARATOR,
+      KeyValueFlatSet.empty(KeyValue.COMPARATOR), kvs, null, copyTo);
+  }
+
+  public void testMergeOverwritesSameKey() throws Exception {
+    KeyValueFlatSet older = flat(rows(0, 10, "old"), null);
+    KeyValueFlatSet merged = KeyValueFlatSet.merge(KeyValue.COMPARATOR, older,
+      rows(5, 15, "new"), null, null);
+    assertEquals(15, merged.size());
+    int count = 0;
+    for (KeyValue kv : merged) {
+      assertEquals(String.format("row%03d", count), Bytes.toString(kv.getRow()));
+      assertEquals(count < 5 ? "old" : "new", Bytes.toString(kv.getValue()));
+      count++;
+    }
+    assertEquals(15, count);
+  }
+
+  public void testHeadAndTailSets() throws Exception {
+    KeyValueFlatSet set = flat(rows(0, 10, "v"), null);
+    KeyValue key = KeyValue.createFirstOnRow(Bytes.toBytes("row004"));
+    SortedSet<KeyValue> tail = set.tailSet(key);
+    assertEquals(6, tail.size());
+    assertEquals("row004", Bytes.toString(tail.first().getRow()));
+    SortedSet<KeyValue> head = set.headSet(key);
+    assertEquals(4, head.size());
+    assertEquals("row003", Bytes.toString(head.last().getRow()));
+    Iterator<KeyValue> it = set.descendingIterator();
+    assertEquals("row009", Bytes.toString(it.next().getRow()));
+    assertTrue(set.tailSet(set.last(), false).isEmpty());
+  }
+
+  public void testRemove() throws Exception {
+    KeyValueSkipListSet kvs = rows(0, 5, "v");
+    KeyValue second = kvs.tailSet(kvs.first(), false).first();
+    KeyValueFlatSet set = flat(kvs, null);
+    assertNotNull(set.get(second));
+    assertTrue(set.remove(second));
+    assertFalse(set.contains(second));
+    assertEquals(4, set.size());
+    Iterator<KeyValue> it = set.iterator();
+    it.next();
+    assertEquals("row002", Bytes.toString(it.next().getRow()));
+    // Removed cells are dropped by the next merge
+    KeyValueFlatSet merged = KeyValueFlatSet.merge(KeyValue.COMPARATOR, set,
+      new KeyValueSkipListSet(KeyValue.COMPARATOR), null, null);
+    assertEquals(4, merged.size());
+  }
+
+  public void testMvccVersionPreserved() throws Exception {
+    KeyValueSkipListSet kvs = rows(0, 3, "v");
+    long mvcc = 5;
+    for (KeyValue kv : kvs) {
+      kv.setMvccVersion(mvcc++);
+    }
+    KeyValueFlatSet set = flat(kvs, null);
+    mvcc = 5;
+    for (KeyValue kv : set) {
+      assertEquals(mvcc++, kv.getMvccVersion());
+    }
+  }
+
+  public void testCopyOffheap() throws Exception {
+    MemStoreLAB offheap = new MemStoreLAB(new Configuration(), null, true);
+    KeyValueFlatSet set = flat(rows(0, 100, "value"), offheap);
+    assertTrue(set.isOffheap());
+    assertEquals(100, set.size());
+    int count = 0;
+    for (KeyValue kv : set) {
+      assertEquals(String.format("row%03d", count++), Bytes.toString(kv.getRow()));
+      assertEquals("value", Bytes.toString(kv.getValue()));
+    }
+    set.close();
+  }
+
+  public void testOffheapLookups() throws Exception {
+    MemStoreLAB offheap = new MemStoreLAB(new Configuration(), null, true);
+    KeyValueSkipListSet kvs = rows(0, 100, "old");
+    for (KeyValue kv : kvs) {
+      kv.setMvccVersion(7);
+    }
+    KeyValueFlatSet set = flat(kvs, offheap);
+    assertTrue(set.isOffheap());
+    KeyValue key = KeyValue.createFirstOnRow(Bytes.toBytes("row050"));
+    assertEquals("row050", Bytes.toString(set.tailSet(key).first().getRow()));
+    assertEquals("row049", Bytes.toString(set.headSet(key).last().getRow()));
+    key = KeyValue.createLastOnRow(Bytes.toBytes("row050"));
+    assertEquals("row051", Bytes.toString(set.tailSet(key).first().getRow()));
+
+    // Lookups match the memstoreTS too
+    KeyValue kv = new KeyValue(Bytes.toBytes("row020"), fam, qf, 1L, Bytes.toBytes("old"));
+    assertNull(set.get(kv));
+    kv.setMvccVersion(7);
+    assertEquals("old", Bytes.toString(set.get(kv).getValue()));
+    assertTrue(set.remove(kv));
+    assertFalse(set.contains(kv));
+
+    KeyValueFlatSet merged = KeyValueFlatSet.merge(KeyValue.COMPARATOR, set,
+      rows(90, 110, "new"), null, null);
+    assertEquals(119, merged.size());
+    assertEquals("old", Bytes.toString(merged.first().getValue()));
+    assertEquals("new", Bytes.toString(merged.last().getValue()));
+    merged.close();
+  }
+}
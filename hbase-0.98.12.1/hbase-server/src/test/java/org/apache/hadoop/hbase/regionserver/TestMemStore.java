@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
 import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
@@ -461,7 +462,7 @@ public class TestMemStore extends TestCase {
     for (int i = 0; i < snapshotCount; i++) {
       addRows(this.memstore);
       runSnapshot(this.memstore);
-      KeyValueSkipListSet ss = this.memstore.getSnapshot();
+      SortedSet<KeyValue> ss = this.memstore.getSnapshot();
       assertEquals("History not being cleared", 0, ss.size());
     }
   }
@@ -940,6 +941,92 @@ public class TestMemStore extends TestCase {
     }
   }
 
+  /**
+   * Test that in-memory compaction moves the memstore into the flat segment,
+   * shrinks its size, and that scans, snapshots and rollbacks see the cells
+   * in all of memstore, pipeline, flat segment and snapshot.
+   * @throws Exception
+   */
+  public void testInMemoryCompaction() throws Exception {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(MemStore.INMEMORY_COMPACTION_KEY, true);
+    conf.setLong(MemStore.INMEMORY_COMPACTION_THRESHOLD_KEY, 1);
+    checkInMemoryCompaction(conf);
+    conf.setBoolean(MemStore.INMEMORY_COMPACTION_OFFHEAP_KEY, true);
+    checkInMemoryCompaction(conf);
+  }
+
+  private void checkInMemoryCompaction(Configuration conf) throws Exception {
+    MemStore ms = new MemStore(conf, KeyValue.COMPARATOR);
+    addRows(ms);
+    long sizeBefore = ms.heapSize();
+    assertTrue(ms.shouldCompactInMemory());
+    assertTrue(ms.startInMemoryCompaction());
+    // Frozen, but not merged yet; writers and scanners go on meanwhile
+    assertFalse(ms.shouldCompactInMemory());
+    assertFalse(ms.startInMemoryCompaction());
+    assertEquals(0, ms.kvset.size());
+    assertEquals(ROW_COUNT * QUALIFIER_COUNT, ms.pipeline.size());
+    assertEquals(sizeBefore, ms.heapSize());
+    assertEquals(ROW_COUNT * QUALIFIER_COUNT, countCells(ms));
+    long delta = ms.compactInMemory();
+    assertTrue(delta < 0);
+    assertEquals(sizeBefore + delta, ms.heapSize());
+    assertNull(ms.pipeline);
+    assertEquals(ROW_COUNT * QUALIFIER_COUNT, ms.flatset.size());
+
+    // A second batch lands in kvset, then is merged with the flat segment.
+    // A cell rolled back while it is in the pipeline stays out of the result.
+    addRows(ms, 1);
+    assertEquals(2 * ROW_COUNT * QUALIFIER_COUNT, countCells(ms));
+    assertTrue(ms.startInMemoryCompaction());
+    KeyValue rolledBack = new KeyValue(Bytes.toBytes(0), FAMILY, makeQualifier(0, 0),
+      1, makeQualifier(0, 0));
+    ms.rollback(rolledBack);
+    assertEquals(2 * ROW_COUNT * QUALIFIER_COUNT - 1, countCells(ms));
+    ms.compactInMemory();
+    assertEquals(2 * ROW_COUNT * QUALIFIER_COUNT - 1, ms.flatset.size());
+    assertEquals(2 * ROW_COUNT * QUALIFIER_COUNT - 1, countCells(ms));
+    assertTrue(Bytes.equals(Bytes.toBytes(1), ms.getNextRow(KeyValue.createFirstOnRow(
+      Bytes.toBytes(0))).getRow()));
+
+    // Snapshot takes memstore, pipeline and flat segment by reference; the
+    // running compaction drops its result
+    addRows(ms, 2);
+    assertTrue(ms.startInMemoryCompaction());
+    addRows(ms, 3);
+    ms.snapshot();
+    assertEquals(0, ms.compactInMemory());
+    assertEquals(0, ms.kvset.size());
+    assertNull(ms.pipeline);
+    assertEquals(0, ms.flatset.size());
+    assertEquals(MemStore.DEEP_OVERHEAD, ms.heapSize());
+    assertEquals(ROW_COUNT * QUALIFIER_COUNT, ms.getSnapshot().size());
+    assertEquals(4 * ROW_COUNT * QUALIFIER_COUNT - 1, ms.getSnapshotForFlush().size());
+    assertEquals(4 * ROW_COUNT * QUALIFIER_COUNT - 1, countCells(ms));
+    ms.clearSnapshot(ms.getSnapshot());
+    assertEquals(0, countCells(ms));
+  }
+
+  private int countCells(MemStore ms) throws IOException {
+    KeyValueScanner s = ms.getScanners(Long.MAX_VALUE).get(0);
+    int count = 0;
+    try {
+      s.seek(KeyValue.createFirstOnRow(HConstants.EMPTY_START_ROW));
+      KeyValue previous = null;
+      for (KeyValue kv = s.next(); kv != null; kv = s.next()) {
+        if (previous != null) {
+          assertTrue(KeyValue.COMPARATOR.compare(previous, kv) < 0);
+        }
+        previous = kv;
+        count++;
+      }
+    } finally {
+      s.close();
+    }
+    return count;
+  }
+
   /**
    * Adds {@link #ROW_COUNT} rows and {@link #QUALIFIER_COUNT}
    * @param hmc Instance to add rows to.
@@ -973,7 +1060,7 @@ public class TestMemStore extends TestCase {
     // Save off old state.
     int oldHistorySize = hmc.getSnapshot().size();
     hmc.snapshot();
-    KeyValueSkipListSet ss = hmc.getSnapshot();
+    SortedSet<KeyValue> ss = hmc.getSnapshot();
     // Make some assertions about what just happened.
     assertTrue("History size has not increased", oldHistorySize < ss.size());
     long t = memstore.timeOfOldestEdit();
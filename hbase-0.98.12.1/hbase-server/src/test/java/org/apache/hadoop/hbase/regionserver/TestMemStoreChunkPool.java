@@ -24,6 +24,7 @@ import static org.junit.Assert.assertTrue;
 import java.rmi.UnexpectedException;
 import java.util.List;
 import java.util.Random;
+import java.util.SortedSet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.KeyValue;
@@ -116,7 +117,7 @@ public class TestMemStoreChunkPool {
 
     // Creating a snapshot
     memstore.snapshot();
-    KeyValueSkipListSet snapshot = memstore.getSnapshot();
+    SortedSet<KeyValue> snapshot = memstore.getSnapshot();
     assertEquals(3, memstore.snapshot.size());
 
     // Adding value to "new" memstore
@@ -154,7 +155,7 @@ public class TestMemStoreChunkPool {
 
     // Creating a snapshot
     memstore.snapshot();
-    KeyValueSkipListSet snapshot = memstore.getSnapshot();
+    SortedSet<KeyValue> snapshot = memstore.getSnapshot();
     assertEquals(3, memstore.snapshot.size());
 
     // Adding value to "new" memstore
@@ -129,4 +129,50 @@ public class TestMultiVersionConsistencyControl extends TestCase {
 
   }
 
+  public void testOutOfOrderCompletion() throws Exception {
+    MultiVersionConsistencyControl mvcc = new MultiVersionConsistencyControl(4);
+    mvcc.initialize(10);
+    MultiVersionConsistencyControl.WriteEntry[] entries =
+        new MultiVersionConsistencyControl.WriteEntry[12];
+    for (int round = 0; round < 3; round++) {
+      // Fill the ring, then complete the writes last to first
+      for (int i = 0; i < 4; i++) {
+        entries[round * 4 + i] = mvcc.beginMemstoreInsert();
+      }
+      for (int i = 3; i > 0; i--) {
+        assertFalse(mvcc.advanceMemstore(entries[round * 4 + i]));
+        assertEquals(10 + round * 4, mvcc.memstoreReadPoint());
+      }
+      // Completing the first makes all of them visible
+      assertTrue(mvcc.advanceMemstore(entries[round * 4]));
+      assertEquals(14 + round * 4, mvcc.memstoreReadPoint());
+    }
+    try {
+      mvcc.advanceMemstore(entries[0]);
+      fail("A write cannot be completed twice");
+    } catch (RuntimeException e) {
+      // expected
+    }
+  }
+
+  public void testWaitWhenRingIsFull() throws Exception {
+    final MultiVersionConsistencyControl mvcc = new MultiVersionConsistencyControl(2);
+    MultiVersionConsistencyControl.WriteEntry first = mvcc.beginMemstoreInsert();
+    mvcc.beginMemstoreInsert();
+    final AtomicLong third = new AtomicLong();
+    Thread writer = new Thread() {
+      public void run() {
+        third.set(mvcc.beginMemstoreInsert().getWriteNumber());
+      }
+    };
+    writer.start();
+    writer.join(100);
+    // No slot left until the first write is visible
+    assertTrue(writer.isAlive());
+    mvcc.completeMemstoreInsert(first);
+    writer.join();
+    assertEquals(3, third.get());
+    assertEquals(1, mvcc.memstoreReadPoint());
+  }
+
 }
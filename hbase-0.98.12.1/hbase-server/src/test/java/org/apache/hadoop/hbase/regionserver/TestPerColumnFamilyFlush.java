@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests flushing some of the column families of a region only, with
+ * {@link FlushLargeStoresPolicy}.
+ */
+@Category(MediumTests.class)
+public class TestPerColumnFamilyFlush {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final byte[] FAMILY1 = Bytes.toBytes("f1");
+  private static final byte[] FAMILY2 = Bytes.toBytes("f2");
+  private static final byte[] FAMILY3 = Bytes.toBytes("f3");
+  private static final byte[][] FAMILIES = { FAMILY1, FAMILY2, FAMILY3 };
+
+  private HRegion initHRegion(String method, Configuration conf) throws IOException {
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf(method));
+    for (byte[] family : FAMILIES) {
+      htd.addFamily(new HColumnDescriptor(family));
+    }
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    Path path = new Path(TEST_UTIL.getDataTestDir(), method);
+    return HRegion.createHRegion(info, path, conf, htd);
+  }
+
+  private Configuration createConf() {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.set(FlushPolicyFactory.HBASE_FLUSH_POLICY_KEY, FlushLargeStoresPolicy.class.getName());
+    conf.setLong(FlushLargeStoresPolicy.HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND, 40 * 1024);
+    return conf;
+  }
+
+  private void put(HRegion region, byte[] family, int row, int valueSize) throws IOException {
+    Put put = new Put(Bytes.toBytes("row" + row));
+    put.add(family, Bytes.toBytes("q"), new byte[valueSize]);
+    region.put(put);
+  }
+
+  @Test
+  public void testSelectiveFlush() throws IOException {
+    HRegion region = initHRegion("testSelectiveFlush", createConf());
+    try {
+      byte[] encodedName = region.getRegionInfo().getEncodedNameAsBytes();
+      HLog wal = region.getLog();
+      // Family 1 gets large, the others stay small
+      for (int i = 0; i < 100; i++) {
+        put(region, FAMILY1, i, 1024);
+      }
+      for (int i = 0; i < 10; i++) {
+        put(region, FAMILY2, i, 10);
+        put(region, FAMILY3, i, 10);
+      }
+      long smallSize2 = region.getStore(FAMILY2).getMemStoreSize();
+      long smallSize3 = region.getStore(FAMILY3).getMemStoreSize();
+      long oldestSeqId1 = wal.getEarliestMemstoreSeqNum(encodedName, FAMILY1);
+      long oldestSeqId2 = wal.getEarliestMemstoreSeqNum(encodedName, FAMILY2);
+      assertTrue(oldestSeqId1 != HConstants.NO_SEQNUM);
+      assertTrue(oldestSeqId2 > oldestSeqId1);
+      assertEquals(oldestSeqId1, wal.getEarliestMemstoreSeqNum(encodedName));
+
+      region.flushcache(false);
+
+      // Only family 1 was flushed
+      assertEquals(1, region.getStore(FAMILY1).getStorefilesCount());
+      assertEquals(0, region.getStore(FAMILY2).getStorefilesCount());
+      assertEquals(0, region.getStore(FAMILY3).getStorefilesCount());
+      assertEquals(smallSize2, region.getStore(FAMILY2).getMemStoreSize());
+      assertEquals(smallSize3, region.getStore(FAMILY3).getMemStoreSize());
+      long regionSize = region.getMemstoreSize().get();
+      assertTrue(regionSize > 0 && regionSize < smallSize2 + smallSize3);
+
+      // The WAL still tracks the edits of the families not flushed
+      assertEquals(HConstants.NO_SEQNUM, wal.getEarliestMemstoreSeqNum(encodedName, FAMILY1));
+      assertEquals(oldestSeqId2, wal.getEarliestMemstoreSeqNum(encodedName, FAMILY2));
+      assertEquals(oldestSeqId2, wal.getEarliestMemstoreSeqNum(encodedName));
+      // The region is only flushed up to the oldest edit left in memstore
+      assertEquals(oldestSeqId2 - 1, region.completeSequenceId);
+
+      // A flush of all stores leaves nothing behind
+      region.flushcache(true);
+      assertEquals(1, region.getStore(FAMILY2).getStorefilesCount());
+      assertEquals(1, region.getStore(FAMILY3).getStorefilesCount());
+      assertEquals(0, region.getMemstoreSize().get());
+      assertEquals(HConstants.NO_SEQNUM, wal.getEarliestMemstoreSeqNum(encodedName));
+    } finally {
+      HRegion.closeHRegion(region);
+    }
+  }
+
+  @Test
+  public void testFlushAllWhenNoStoreIsLarge() throws IOException {
+    HRegion region = initHRegion("testFlushAllWhenNoStoreIsLarge", createConf());
+    try {
+      for (int i = 0; i < 10; i++) {
+        for (byte[] family : FAMILIES) {
+          put(region, family, i, 10);
+        }
+      }
+      region.flushcache(false);
+      for (byte[] family : FAMILIES) {
+        assertEquals(1, region.getStore(family).getStorefilesCount());
+      }
+      assertEquals(0, region.getMemstoreSize().get());
+      assertEquals(HConstants.NO_SEQNUM,
+        region.getLog().getEarliestMemstoreSeqNum(region.getRegionInfo().getEncodedNameAsBytes()));
+    } finally {
+      HRegion.closeHRegion(region);
+    }
+  }
+
+  @Test
+  public void testPerFamilyLowerBound() throws IOException {
+    Configuration conf = createConf();
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("testPerFamilyLowerBound"));
+    HColumnDescriptor hcd = new HColumnDescriptor(FAMILY1);
+    hcd.setConfiguration(FlushLargeStoresPolicy.HREGION_COLUMNFAMILY_FLUSH_SIZE_LOWER_BOUND,
+      "1024");
+    htd.addFamily(hcd);
+    htd.addFamily(new HColumnDescriptor(FAMILY2));
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    HRegion region = HRegion.createHRegion(info,
+      new Path(TEST_UTIL.getDataTestDir(), "testPerFamilyLowerBound"), conf, htd);
+    try {
+      // Both families are over the bound of family 1, under the default one
+      for (int i = 0; i < 10; i++) {
+        put(region, FAMILY1, i, 1024);
+        put(region, FAMILY2, i, 1024);
+      }
+      region.flushcache(false);
+      assertEquals(1, region.getStore(FAMILY1).getStorefilesCount());
+      assertEquals(0, region.getStore(FAMILY2).getStorefilesCount());
+    } finally {
+      HRegion.closeHRegion(region);
+    }
+  }
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MultiRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
 import org.apache.hadoop.hbase.protobuf.generated.RPCProtos.RequestHeader;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.junit.Test;
@@ -47,6 +48,21 @@ public class TestQosFunction {
     checkMethod("Multi", HConstants.NORMAL_QOS, qosFunction, MultiRequest.getDefaultInstance());
   }
 
+  @Test
+  public void testDeadline() {
+    HRegionServer hrs = Mockito.mock(HRegionServer.class);
+    AnnotationReadingPriorityFunction qosFunction = new AnnotationReadingPriorityFunction(hrs);
+    RequestHeader header = RequestHeader.newBuilder().setMethodName("Scan").build();
+
+    // Opening a scanner is not delayed, its later calls more the more it served
+    assertEquals(0, qosFunction.getDeadline(header, ScanRequest.getDefaultInstance()));
+    assertEquals(0, qosFunction.getDeadline(header,
+      ScanRequest.newBuilder().setScannerId(1).setNextCallSeq(0).build()));
+    assertEquals(10, qosFunction.getDeadline(header,
+      ScanRequest.newBuilder().setScannerId(1).setNextCallSeq(100).build()));
+    assertEquals(0, qosFunction.getDeadline(header, MultiRequest.getDefaultInstance()));
+  }
+
   private void checkMethod(final String methodName, final int expected,
       final AnnotationReadingPriorityFunction qosf) {
     checkMethod(methodName, expected, qosf, null);
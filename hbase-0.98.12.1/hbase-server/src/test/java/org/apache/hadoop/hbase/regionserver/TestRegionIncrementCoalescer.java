@@ -0,0 +1,235 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests {@link RegionIncrementCoalescer}.
+ */
+@Category(MediumTests.class)
+public class TestRegionIncrementCoalescer {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER1 = Bytes.toBytes("q1");
+  private static final byte[] QUALIFIER2 = Bytes.toBytes("q2");
+  private static final byte[] ROW = Bytes.toBytes("row");
+
+  private HRegion region;
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setBoolean(RegionIncrementCoalescer.INCREMENT_COALESCING_KEY, true);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestRegionIncrementCoalescer"));
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegionInfo info = new HRegionInfo(htd.getTableName(), null, null, false);
+    Path path = new Path(TEST_UTIL.getDataTestDir(), "TestRegionIncrementCoalescer");
+    region = HRegion.createHRegion(info, path, conf, htd);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HRegion.closeHRegion(region);
+  }
+
+  private long getValue(Result result, byte[] qualifier) {
+    return Bytes.toLong(result.getValue(FAMILY, qualifier));
+  }
+
+  @Test
+  public void testCoalescedIncrements() throws Exception {
+    final int numIncrements = 10;
+    final Result[] results = new Result[numIncrements];
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[numIncrements];
+
+    // Hold the row lock, as a group being applied would, while the increments come in
+    HRegion.RowLock rowLock = region.getRowLock(ROW);
+    for (int i = 0; i < numIncrements; i++) {
+      final int index = i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          Increment increment = new Increment(ROW);
+          increment.addColumn(FAMILY, QUALIFIER1, 1);
+          if (index % 2 == 0) {
+            increment.addColumn(FAMILY, QUALIFIER2, 10);
+          }
+          try {
+            results[index] = region.increment(increment);
+          } catch (Throwable t) {
+            error.set(t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    RegionIncrementCoalescer coalescer = region.getIncrementCoalescer();
+    while (coalescer.getPendingIncrements(ROW) < numIncrements) {
+      Threads.sleep(10);
+    }
+    rowLock.release();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(null, error.get());
+    assertEquals(numIncrements - 1, coalescer.getCoalescedIncrements());
+
+    // Each caller saw its own step of the counters
+    TreeSet<Long> values1 = new TreeSet<Long>();
+    TreeSet<Long> values2 = new TreeSet<Long>();
+    for (int i = 0; i < numIncrements; i++) {
+      assertNotNull(results[i]);
+      values1.add(getValue(results[i], QUALIFIER1));
+      if (i % 2 == 0) {
+        values2.add(getValue(results[i], QUALIFIER2));
+      } else {
+        assertEquals(1, results[i].size());
+      }
+    }
+    assertEquals(numIncrements, values1.size());
+    assertEquals(1L, (long) values1.first());
+    assertEquals((long) numIncrements, (long) values1.last());
+    assertEquals(numIncrements / 2, values2.size());
+    assertEquals(10L * numIncrements / 2, (long) values2.last());
+
+    Result stored = region.get(new Get(ROW));
+    assertEquals(numIncrements, getValue(stored, QUALIFIER1));
+    assertEquals(10L * numIncrements / 2, getValue(stored, QUALIFIER2));
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    final int numThreads = 20;
+    final int numIncrementsPerThread = 200;
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    final Set<Long> seen = new TreeSet<Long>();
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int j = 0; j < numIncrementsPerThread; j++) {
+              Increment increment = new Increment(ROW);
+              increment.addColumn(FAMILY, QUALIFIER1, 1);
+              long value = getValue(region.increment(increment), QUALIFIER1);
+              synchronized (seen) {
+                assertTrue("Value returned twice: " + value, seen.add(value));
+              }
+            }
+          } catch (Throwable t) {
+            error.set(t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(null, error.get());
+    long total = numThreads * numIncrementsPerThread;
+    assertEquals(total, seen.size());
+    assertEquals(total, getValue(region.get(new Get(ROW)), QUALIFIER1));
+  }
+
+  @Test
+  public void testInvalidIncrementsFailAlone() throws Exception {
+    final int numIncrements = 4;
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[numIncrements];
+
+    // Queue valid increments behind the row lock, then send invalid ones for the same row
+    HRegion.RowLock rowLock = region.getRowLock(ROW);
+    for (int i = 0; i < numIncrements; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          Increment increment = new Increment(ROW);
+          increment.addColumn(FAMILY, QUALIFIER1, 1);
+          try {
+            region.increment(increment);
+          } catch (Throwable t) {
+            error.set(t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    RegionIncrementCoalescer coalescer = region.getIncrementCoalescer();
+    while (coalescer.getPendingIncrements(ROW) < numIncrements) {
+      Threads.sleep(10);
+    }
+
+    Increment badFamily = new Increment(ROW);
+    badFamily.addColumn(Bytes.toBytes("nonexistent"), QUALIFIER1, 1);
+    try {
+      region.increment(badFamily);
+      fail("Increment of a missing family should fail");
+    } catch (NoSuchColumnFamilyException e) {
+      // expected
+    }
+    Increment badAmount = new Increment(ROW);
+    badAmount.add(new KeyValue(ROW, FAMILY, QUALIFIER1, Bytes.toBytes(1)));
+    try {
+      region.increment(badAmount);
+      fail("Increment by an amount that isn't 64 bits wide should fail");
+    } catch (DoNotRetryIOException e) {
+      // expected
+    }
+    assertEquals(numIncrements, coalescer.getPendingIncrements(ROW));
+
+    rowLock.release();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(null, error.get());
+    assertEquals(numIncrements, getValue(region.get(new Get(ROW)), QUALIFIER1));
+  }
+}
@@ -511,6 +511,80 @@ public class TestStoreFile extends HBaseTestCase {
     bloomWriteRead(writer, fs);
   }
 
+  public void testRowPrefixBloomFilter() throws Exception {
+    conf.setInt(RowPrefixBloom.PREFIX_LENGTH_KEY, 9);
+    rowPrefixBloomWriteRead(BloomType.ROWPREFIX_FIXED_LENGTH);
+    conf.set(RowPrefixBloom.DELIMITER_KEY, "|");
+    rowPrefixBloomWriteRead(BloomType.ROWPREFIX_DELIMITED);
+  }
+
+  private void rowPrefixBloomWriteRead(BloomType bloomType) throws Exception {
+    FileSystem fs = FileSystem.getLocal(conf);
+    conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, (float) 0.01);
+    conf.setBoolean(BloomFilterFactory.IO_STOREFILE_BLOOM_ENABLED, true);
+    float err = conf.getFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, 0);
+
+    Path f = new Path(ROOT_DIR, getName() + bloomType);
+    HFileContext meta = new HFileContextBuilder().withBlockSize(BLOCKSIZE_SMALL)
+        .withChecksumType(CKTYPE)
+        .withBytesPerCheckSum(CKBYTES).build();
+    StoreFile.Writer writer = new StoreFile.WriterBuilder(conf, cacheConf, this.fs)
+        .withFilePath(f)
+        .withBloomType(bloomType)
+        .withMaxKeyCount(2000)
+        .withFileContext(meta)
+        .build();
+    // Rows of the even users only, several rows each: "user0002|0000", "user0002|0001"...
+    long now = System.currentTimeMillis();
+    for (int user = 0; user < 400; user += 2) {
+      for (int i = 0; i < 5; i++) {
+        String row = String.format("user%04d|%04d", user, i);
+        writer.append(new KeyValue(Bytes.toBytes(row), Bytes.toBytes("family"),
+          Bytes.toBytes("col"), now, Bytes.toBytes("value")));
+      }
+    }
+    writer.close();
+
+    StoreFile.Reader reader = new StoreFile.Reader(fs, f, cacheConf, conf);
+    reader.loadFileInfo();
+    reader.loadBloomfilter();
+    assertEquals(bloomType, reader.getBloomFilterType());
+    StoreFileScanner scanner = reader.getStoreFileScanner(false, false);
+    TreeSet<byte[]> columns = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    columns.add(Bytes.toBytes("col"));
+
+    int falsePos = 0;
+    int falseNeg = 0;
+    for (int user = 0; user < 400; user++) {
+      String prefix = String.format("user%04d|", user);
+      // Scan of the rows of the user
+      Scan scan = new Scan(Bytes.toBytes(prefix), Bytes.toBytes(prefix + "~"));
+      boolean exists = scanner.shouldUseScanner(scan, columns, Long.MIN_VALUE);
+      // Same, with the stop row right after the prefix
+      Scan nextPrefixScan = new Scan(Bytes.toBytes(prefix + "0001"),
+        Bytes.toBytes(String.format("user%04d}", user)));
+      assertEquals(exists, scanner.shouldUseScanner(nextPrefixScan, columns, Long.MIN_VALUE));
+      // Get of a row of the user
+      Scan get = new Scan(Bytes.toBytes(prefix + "0003"), Bytes.toBytes(prefix + "0003"));
+      assertEquals(exists, scanner.shouldUseScanner(get, columns, Long.MIN_VALUE));
+      if (user % 2 == 0) {
+        if (!exists) falseNeg++;
+      } else {
+        if (exists) falsePos++;
+      }
+    }
+    // A scan over several users cannot use the Bloom filter
+    Scan wideScan = new Scan(Bytes.toBytes("user0001|"), Bytes.toBytes("user0003|"));
+    assertTrue(scanner.shouldUseScanner(wideScan, columns, Long.MIN_VALUE));
+
+    reader.close(true); // evict because we are about to delete the file
+    fs.delete(f, true);
+    assertEquals("False negatives: " + falseNeg, 0, falseNeg);
+    int maxFalsePos = (int) (2 * 400 * err);
+    assertTrue("Too many false positives: " + falsePos + " (err=" + err
+        + ", expected no more than " + maxFalsePos + ")", falsePos <= maxFalsePos);
+  }
+
   public void testDeleteFamilyBloomFilter() throws Exception {
     FileSystem fs = FileSystem.getLocal(conf);
     conf.setFloat(BloomFilterFactory.IO_STOREFILE_BLOOM_ERROR_RATE, (float) 0.01);
@@ -0,0 +1,286 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.compactions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.DefaultStoreEngine;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
+import org.apache.hadoop.hbase.regionserver.RegionCoprocessorHost;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.testclassification.MediumTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.FSUtils;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests splitting compactions of the default store engine into parallel sub-compactions.
+ */
+@Category(MediumTests.class)
+public class TestSubCompactions {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final int ROWS = 1000;
+  private static final int FLUSHES = 3;
+
+  private static ExecutorService pool;
+  private static volatile boolean failSecondSubCompaction = false;
+
+  private HRegion region;
+
+  /**
+   * Counts the compaction hooks run, optionally wrapping the compaction scanner.
+   */
+  public static class CountingObserver extends BaseRegionObserver {
+    static final AtomicInteger scannerOpens = new AtomicInteger();
+    static final AtomicInteger compacts = new AtomicInteger();
+    static volatile boolean wrapScanner = false;
+
+    @Override
+    public InternalScanner preCompactScannerOpen(
+        ObserverContext<RegionCoprocessorEnvironment> c, Store store,
+        List<? extends KeyValueScanner> scanners, ScanType scanType, long earliestPutTs,
+        InternalScanner s, CompactionRequest request) throws IOException {
+      scannerOpens.incrementAndGet();
+      return s;
+    }
+
+    @Override
+    public InternalScanner preCompact(ObserverContext<RegionCoprocessorEnvironment> e,
+        Store store, final InternalScanner scanner, ScanType scanType,
+        CompactionRequest request) throws IOException {
+      compacts.incrementAndGet();
+      if (!wrapScanner) {
+        return scanner;
+      }
+      return new InternalScanner() {
+        @Override
+        public boolean next(List<Cell> results) throws IOException {
+          return scanner.next(results);
+        }
+
+        @Override
+        public boolean next(List<Cell> result, int limit) throws IOException {
+          return scanner.next(result, limit);
+        }
+
+        @Override
+        public void close() throws IOException {
+          scanner.close();
+        }
+      };
+    }
+  }
+
+  /**
+   * A compactor with a pool of its own, as there is no region server.
+   */
+  public static class PooledCompactor extends DefaultCompactor {
+    private boolean fail = false;
+
+    public PooledCompactor(Configuration conf, Store store) {
+      super(conf, store);
+    }
+
+    @Override
+    protected ExecutorService getSubCompactionPool() {
+      return pool;
+    }
+
+    @Override
+    protected DefaultCompactor createSubCompactor(int index) throws IOException {
+      PooledCompactor compactor = (PooledCompactor) super.createSubCompactor(index);
+      compactor.fail = failSecondSubCompaction && index == 1;
+      return compactor;
+    }
+
+    @Override
+    protected StoreFile.Writer createTmpWriter(FileDetails fd, long smallestReadPoint)
+        throws IOException {
+      if (fail) {
+        throw new IOException("Failing sub-compaction for test");
+      }
+      return super.createTmpWriter(fd, smallestReadPoint);
+    }
+  }
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    pool = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() {
+    pool.shutdownNow();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    conf.set(DefaultStoreEngine.DEFAULT_COMPACTOR_CLASS_KEY, PooledCompactor.class.getName());
+    conf.setInt(DefaultCompactor.SUB_COMPACTION_MAX_COUNT_KEY, 4);
+    conf.setLong(DefaultCompactor.SUB_COMPACTION_MIN_SIZE_KEY, 1);
+    conf.set(CoprocessorHost.REGION_COPROCESSOR_CONF_KEY, CountingObserver.class.getName());
+    CountingObserver.scannerOpens.set(0);
+    CountingObserver.compacts.set(0);
+    HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("TestSubCompactions"));
+    // Small blocks, for the block index to have keys to split at
+    htd.addFamily(new HColumnDescriptor(FAMILY).setBlocksize(1024));
+    region = TEST_UTIL.createLocalHRegion(htd, null, null);
+    // There is no region server to load the coprocessors
+    region.setCoprocessorHost(new RegionCoprocessorHost(region, null, conf));
+    for (int flush = 0; flush < FLUSHES; flush++) {
+      for (int i = flush; i < ROWS; i += FLUSHES) {
+        Put put = new Put(Bytes.toBytes(String.format("row%05d", i)));
+        put.add(FAMILY, FAMILY, Bytes.toBytes(String.format("value%050d", i)));
+        region.put(put);
+      }
+      region.flushcache();
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    failSecondSubCompaction = false;
+    CountingObserver.wrapScanner = false;
+    Configuration conf = TEST_UTIL.getConfiguration();
+    conf.unset(CoprocessorHost.REGION_COPROCESSOR_CONF_KEY);
+    conf.unset(DefaultStoreEngine.DEFAULT_COMPACTOR_CLASS_KEY);
+    conf.unset(DefaultCompactor.SUB_COMPACTION_MAX_COUNT_KEY);
+    conf.unset(DefaultCompactor.SUB_COMPACTION_MIN_SIZE_KEY);
+    HRegion.closeHRegion(region);
+  }
+
+  private int countRows() throws IOException {
+    InternalScanner scanner = region.getScanner(new Scan());
+    try {
+      int rows = 0;
+      List<Cell> cells = new ArrayList<Cell>();
+      boolean hasMore;
+      do {
+        hasMore = scanner.next(cells);
+        if (!cells.isEmpty()) {
+          rows++;
+        }
+        cells.clear();
+      } while (hasMore);
+      return rows;
+    } finally {
+      scanner.close();
+    }
+  }
+
+  @Test
+  public void testSplitIntoRangeFiles() throws Exception {
+    region.compactStores(true);
+    Store store = region.getStore(FAMILY);
+    assertEquals(4, store.getStorefilesCount());
+    assertEquals(ROWS, countRows());
+
+    // The files hold disjoint row ranges
+    List<StoreFile> files = new ArrayList<StoreFile>(store.getStorefiles());
+    Collections.sort(files, new Comparator<StoreFile>() {
+      @Override
+      public int compare(StoreFile a, StoreFile b) {
+        return Bytes.compareTo(a.getReader().getFirstKey(), b.getReader().getFirstKey());
+      }
+    });
+    long entries = 0;
+    for (int i = 0; i < files.size(); i++) {
+      entries += files.get(i).getReader().getEntries();
+      if (i > 0) {
+        byte[] firstRow =
+            KeyValue.createKeyValueFromKey(files.get(i).getReader().getFirstKey()).getRow();
+        assertTrue(Bytes.compareTo(files.get(i - 1).getReader().getLastRowKey(), firstRow) < 0);
+      }
+    }
+    assertEquals(ROWS, entries);
+    // The coprocessor saw one compaction
+    assertEquals(1, CountingObserver.scannerOpens.get());
+    assertEquals(1, CountingObserver.compacts.get());
+  }
+
+  @Test
+  public void testWrappedScannerIsNotSplit() throws Exception {
+    CountingObserver.wrapScanner = true;
+    region.compactStores(true);
+    Store store = region.getStore(FAMILY);
+    assertEquals(1, store.getStorefilesCount());
+    assertEquals(ROWS, store.getStorefiles().iterator().next().getReader().getEntries());
+    assertEquals(ROWS, countRows());
+    assertEquals(1, CountingObserver.compacts.get());
+  }
+
+  @Test
+  public void testFailedSubCompactionCommitsNothing() throws Exception {
+    failSecondSubCompaction = true;
+    Store store = region.getStore(FAMILY);
+    Collection<StoreFile> before = new ArrayList<StoreFile>(store.getStorefiles());
+    try {
+      region.compactStores(true);
+      fail("The failed sub-compaction should fail the compaction");
+    } catch (IOException expected) {
+      assertEquals("Failing sub-compaction for test", expected.getMessage());
+    }
+    assertEquals(before.size(), store.getStorefilesCount());
+    assertTrue(store.getStorefiles().containsAll(before));
+    assertEquals(ROWS, countRows());
+    // The files of the sub-compactions that succeeded are gone too
+    FileSystem fs = TEST_UTIL.getTestFileSystem();
+    Path tmpDir = new Path(region.getRegionFileSystem().getRegionDir(), ".tmp");
+    // FSUtils.listStatus returns null rather than an empty array
+    assertNull(FSUtils.listStatus(fs, tmpDir));
+  }
+}
@@ -193,6 +193,10 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
           noclosefs = true;
         } else if (cmd.equals("-roll")) {
           roll = Long.parseLong(args[++i]);
+        } else if (cmd.equals("-ringbuffer")) {
+          getConf().setBoolean(FSHLog.RING_BUFFER_ENABLED_KEY, true);
+        } else if (cmd.equals("-ringbufferSize")) {
+          getConf().setInt(FSHLog.RING_BUFFER_SIZE_KEY, Integer.parseInt(args[++i]));
         } else if (cmd.equals("-compress")) {
           compress = true;
         } else if (cmd.equals("-encryption")) {
@@ -279,7 +283,9 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
           runBenchmark(new HLogPutBenchmark(region, htd, numIterations, noSync, syncInterval),
             numThreads);
         logBenchmarkResult("Summary: threads=" + numThreads + ", iterations=" + numIterations +
-          ", syncInterval=" + syncInterval, numIterations * numThreads, putTime);
+          ", syncInterval=" + syncInterval + ", ringbuffer=" +
+          getConf().getBoolean(FSHLog.RING_BUFFER_ENABLED_KEY, false),
+          numIterations * numThreads, putTime);
         
         if (region != null) {
           closeRegion(region);
@@ -385,12 +391,17 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
     System.err.println("  -verbose         Output extra info; e.g. all edit seq ids when verifying");
     System.err.println("  -roll <N>        Roll the way every N appends");
     System.err.println("  -encryption <A>  Encrypt the WAL with algorithm A, e.g. AES");
+    System.err.println("  -ringbuffer      Use the ring buffer write pipeline instead of the async threads");
+    System.err.println("  -ringbufferSize <N> Number of ring buffer slots. Default=1024");
     System.err.println("");
     System.err.println("Examples:");
     System.err.println("");
     System.err.println(" To run 100 threads on hdfs with log rolling every 10k edits and verification afterward do:");
     System.err.println(" $ ./bin/hbase org.apache.hadoop.hbase.regionserver.wal.HLogPerformanceEvaluation \\");
     System.err.println("    -conf ./core-site.xml -path hdfs://example.org:7000/tmp -threads 100 -roll 10000 -verify");
+    System.err.println("");
+    System.err.println(" To compare the ring buffer pipeline with the default, run the same again adding:");
+    System.err.println("    -ringbuffer");
     System.exit(1);
   }
 
@@ -24,6 +24,7 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
@@ -52,10 +53,27 @@ public class TestLogRollingNoCluster {
    */
   @Test
   public void testContendedLogRolling() throws IOException, InterruptedException {
-    FileSystem fs = FileSystem.get(TEST_UTIL.getConfiguration());
+    doContendedLogRolling(TEST_UTIL.getConfiguration(), "logs");
+  }
+
+  /**
+   * Same as {@link #testContendedLogRolling()} but with appends going through
+   * the ring buffer write pipeline.
+   */
+  @Test
+  public void testContendedLogRollingWithRingBuffer() throws IOException, InterruptedException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setBoolean(FSHLog.RING_BUFFER_ENABLED_KEY, true);
+    // small ring so that producers have to wait on the consumer
+    conf.setInt(FSHLog.RING_BUFFER_SIZE_KEY, 16);
+    doContendedLogRolling(conf, "ringlogs");
+  }
+
+  private void doContendedLogRolling(Configuration conf, String logDir)
+  throws IOException, InterruptedException {
+    FileSystem fs = FileSystem.get(conf);
     Path dir = TEST_UTIL.getDataTestDir();
-    HLog wal = HLogFactory.createHLog(fs, dir, "logs",
-      TEST_UTIL.getConfiguration());
+    HLog wal = HLogFactory.createHLog(fs, dir, logDir, conf);
     
     Appender [] appenders = null;
 
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test spreading regions over several {@link HLog}s.
+ */
+@Category(SmallTests.class)
+public class TestRegionGroupingHLogProvider {
+  private final static HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private final static byte [] FAMILY = Bytes.toBytes("f");
+
+  @Test
+  public void testWALGroupId() {
+    assertEquals("host%2C60020%2C1", HLogUtil.getWALGroupId("host%2C60020%2C1.1400000000000"));
+    assertEquals("host%2C60020%2C1.g2",
+      HLogUtil.getWALGroupId("host%2C60020%2C1.g2.1400000000000"));
+    assertEquals("host%2C60020%2C1",
+      HLogUtil.getWALGroupId("host%2C60020%2C1.1400000000000" + HLog.META_HLOG_FILE_EXTN));
+    assertEquals("", HLogUtil.getWALGroupId("log1"));
+  }
+
+  @Test
+  public void testStrategies() {
+    HRegionInfo a = new HRegionInfo(TableName.valueOf("ns1", "t"), null, null);
+    HRegionInfo b = new HRegionInfo(TableName.valueOf("ns1", "u"), Bytes.toBytes("m"), null);
+    RegionGroupingHLogProvider.RegionGroupingStrategy ns =
+      new RegionGroupingHLogProvider.NamespaceStrategy();
+    assertEquals(ns.getGroup(a, 7), ns.getGroup(b, 7));
+    RegionGroupingHLogProvider.RegionGroupingStrategy bounded =
+      new RegionGroupingHLogProvider.BoundedHashStrategy();
+    Set<Integer> groups = new HashSet<Integer>();
+    for (int i = 0; i < 100; i++) {
+      HRegionInfo hri = new HRegionInfo(TableName.valueOf("t"), Bytes.toBytes(i),
+        Bytes.toBytes(i + 1));
+      int group = bounded.getGroup(hri, 4);
+      assertTrue(group >= 0 && group < 4);
+      assertEquals(group, bounded.getGroup(hri, 4));
+      groups.add(group);
+    }
+    assertEquals(4, groups.size());
+  }
+
+  @Test
+  public void testGroupsWriteSeparateFiles() throws IOException {
+    Configuration conf = new Configuration(TEST_UTIL.getConfiguration());
+    conf.setInt(RegionGroupingHLogProvider.NUM_GROUPS_KEY, 3);
+    final FileSystem fs = FileSystem.get(conf);
+    final Path dir = TEST_UTIL.getDataTestDir("testGroupsWriteSeparateFiles");
+    final Configuration walConf = conf;
+    final String logName = "logs";
+    HLog defaultLog = HLogFactory.createHLog(fs, dir, logName, conf, null, "rs");
+    RegionGroupingHLogProvider provider = new RegionGroupingHLogProvider(conf, defaultLog, "rs",
+      new RegionGroupingHLogProvider.HLogCreator() {
+        @Override
+        public HLog createHLog(int group, String prefix) throws IOException {
+          return HLogFactory.createGroupHLog(fs, dir, logName, walConf, null, prefix);
+        }
+      });
+    try {
+      assertEquals(3, provider.getNumGroups());
+      assertSame(defaultLog, provider.getWAL(0));
+      assertSame(defaultLog, provider.getWAL((HRegionInfo) null));
+      HTableDescriptor htd = new HTableDescriptor(TableName.valueOf("t"));
+      htd.addFamily(new HColumnDescriptor(FAMILY));
+      Set<HLog> used = new HashSet<HLog>();
+      for (int i = 0; i < 30; i++) {
+        HRegionInfo hri = new HRegionInfo(htd.getTableName(), Bytes.toBytes(i),
+          Bytes.toBytes(i + 1));
+        HLog log = provider.getWAL(hri);
+        assertSame(log, provider.getWAL(hri));
+        used.add(log);
+        WALEdit edit = new WALEdit();
+        edit.add(new KeyValue(Bytes.toBytes(i), FAMILY, FAMILY, Bytes.toBytes(i)));
+        log.append(hri, htd.getTableName(), edit, System.currentTimeMillis(), htd,
+          new AtomicLong(1));
+      }
+      assertEquals(3, used.size());
+      Set<String> groupIds = new HashSet<String>();
+      for (FileStatus stat : fs.listStatus(new Path(dir, logName))) {
+        assertTrue(HLogUtil.validateHLogFilename(stat.getPath().getName()));
+        groupIds.add(HLogUtil.getWALGroupId(stat.getPath().getName()));
+      }
+      assertEquals(3, groupIds.size());
+      assertTrue(groupIds.contains("rs"));
+      assertTrue(groupIds.contains("rs.g1"));
+      assertFalse(groupIds.contains("rs.g0"));
+    } finally {
+      for (HLog log : provider.getGroupWALs()) {
+        log.close();
+      }
+      defaultLog.closeAndDelete();
+    }
+  }
+}
@@ -313,6 +313,52 @@ public class TestReplicationSourceManager {
     assertEquals(Sets.newHashSet("log2"), manager.getHlogsByIdRecoveredQueues().get(id));
   }
 
+  @Test
+  public void testCleanupFailoverQueuesPerWALGroup() throws Exception {
+    final Server server = new DummyServer("hostname2.example.org");
+    ReplicationQueues rq =
+        ReplicationFactory.getReplicationQueues(server.getZooKeeper(), server.getConfiguration(),
+          server);
+    rq.init(server.getServerName().toString());
+    // two WAL groups, each with two logs
+    SortedSet<String> files = new TreeSet<String>();
+    files.add("rs.1000");
+    files.add("rs.2000");
+    files.add("rs.g1.1500");
+    files.add("rs.g1.2500");
+    for (String file : files) {
+      rq.addLog("1", file);
+    }
+    Server s1 = new DummyServer("dummyserver4.example.org");
+    ReplicationQueues rq1 =
+        ReplicationFactory.getReplicationQueues(s1.getZooKeeper(), s1.getConfiguration(), s1);
+    rq1.init(s1.getServerName().toString());
+    ReplicationPeers rp1 =
+        ReplicationFactory.getReplicationPeers(s1.getZooKeeper(), s1.getConfiguration(), s1);
+    rp1.init();
+    NodeFailoverWorker w1 =
+        manager.new NodeFailoverWorker(server.getServerName().getServerName(), rq1, rp1, new UUID(
+            new Long(1), new Long(2)));
+    w1.start();
+    w1.join(5000);
+    String id = "1-" + server.getServerName().getServerName();
+    assertEquals(files, manager.getHlogsByIdRecoveredQueues().get(id));
+    manager.cleanOldLogs("rs.2000", id, true);
+    // only the older log of the same group goes away
+    assertEquals(Sets.newHashSet("rs.2000", "rs.g1.1500", "rs.g1.2500"),
+      manager.getHlogsByIdRecoveredQueues().get(id));
+    manager.cleanOldLogs("rs.g1.2500", id, true);
+    assertEquals(Sets.newHashSet("rs.2000", "rs.g1.2500"),
+      manager.getHlogsByIdRecoveredQueues().get(id));
+    // don't leave the recovered queue around for the other tests
+    for (ReplicationSourceInterface src : manager.getOldSources()) {
+      if (id.equals(src.getPeerClusterZnode())) {
+        manager.closeRecoveredQueue(src);
+        break;
+      }
+    }
+  }
+
   @Test
   public void testNodeFailoverDeadServerParsing() throws Exception {
     LOG.debug("testNodeFailoverDeadServerParsing");
@@ -88,14 +88,14 @@ public class TestFSHDFSUtils {
     CancelableProgressable reporter = Mockito.mock(CancelableProgressable.class);
     Mockito.when(reporter.progress()).thenReturn(true);
     IsFileClosedDistributedFileSystem dfs = Mockito.mock(IsFileClosedDistributedFileSystem.class);
-    // Now make it so we fail the first two times -- the two fast invocations, then we fall into
-    // the long loop during which we will call isFileClosed.... the next invocation should
-    // therefore return true if we are to break the loop.
+    // Now make it so the first invocation fails, then we wait the first pause during which we
+    // call isFileClosed.... the next invocation should therefore return true if we are to
+    // break out of the wait.
     Mockito.when(dfs.recoverLease(FILE)).
       thenReturn(false).thenReturn(false).thenReturn(true);
     Mockito.when(dfs.isFileClosed(FILE)).thenReturn(true);
     assertTrue(this.fsHDFSUtils.recoverDFSFileLease(dfs, FILE, HTU.getConfiguration(), reporter));
-    Mockito.verify(dfs, Mockito.times(2)).recoverLease(FILE);
+    Mockito.verify(dfs, Mockito.times(1)).recoverLease(FILE);
     Mockito.verify(dfs, Mockito.times(1)).isFileClosed(FILE);
   }
 